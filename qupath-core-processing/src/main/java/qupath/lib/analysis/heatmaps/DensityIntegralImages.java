@@ -0,0 +1,652 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.analysis.heatmaps;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.images.ImageData;
+import qupath.lib.io.GsonTools;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjectPredicates.PathObjectPredicate;
+import qupath.lib.objects.PathObjectTools;
+import qupath.lib.objects.hierarchy.LazyDetectionStore;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent;
+import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent.HierarchyEventType;
+import qupath.lib.objects.hierarchy.events.PathObjectHierarchyListener;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.roi.interfaces.ROI;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Integral images (summed-area tables) of object counts, used to calculate density maps.
+ * <p>
+ * Each instance stores the number of object centroids per pixel for a single plane of an image, at a fixed
+ * downsample, with one channel for each primary object filter and a final channel for all objects.
+ * The sum over any rectangle can then be calculated with four lookups, regardless of its size, so that density
+ * maps can be generated for any radius without needing to query the object hierarchy again.
+ * <p>
+ * Instances listen for changes to the hierarchy, and update the counts only for objects that have changed.
+ * The summed-area tables are then updated lazily, starting from the first row that has changed.
+ * <p>
+ * If the hierarchy loads detections lazily, any chunks that aren't loaded are read directly from the
+ * {@link LazyDetectionStore} when the counts are built, without adding them to the hierarchy.
+ * Counts are therefore stored by object ID, since a detection may be represented by different instances over time.
+ */
+class DensityIntegralImages implements PathObjectHierarchyListener {
+
+	private static final Logger logger = LoggerFactory.getLogger(DensityIntegralImages.class);
+
+	/**
+	 * Maximum number of pixels for the integral images; larger density maps should be generated without them.
+	 */
+	static final long MAX_PIXELS = 4096L * 4096L;
+
+	/**
+	 * Maximum number of integral images to retain for each hierarchy.
+	 */
+	private static final int MAX_CACHED_PER_HIERARCHY = 8;
+
+	private static final Map<PathObjectHierarchy, Map<String, DensityIntegralImages>> cache = new WeakHashMap<>();
+
+	private final double downsample;
+	private final ImagePlane plane;
+	private final int imageWidth;
+	private final int imageHeight;
+	private final int width;
+	private final int height;
+
+	private final PathObjectPredicate allObjects;
+	private final List<PathObjectPredicate> primaryObjects;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private final int[][] counts;
+	private final int[][] sums;
+
+	private final Map<UUID, Contribution> contributions = new HashMap<>();
+
+	private boolean isBuilt = false;
+	private int dirtyRow = 0;
+	private long eventCount = 0L;
+
+	/**
+	 * Pixels (as y * width + x) that should be incremented for an object, and the channels to increment.
+	 */
+	private record Contribution(int[] pixels, int[] channels) {
+
+		private boolean sameAs(Contribution other) {
+			return other != null && Arrays.equals(pixels, other.pixels) && Arrays.equals(channels, other.channels);
+		}
+
+	}
+
+	private DensityIntegralImages(int imageWidth, int imageHeight, double downsample, ImagePlane plane,
+			PathObjectPredicate allObjects, List<PathObjectPredicate> primaryObjects) {
+		this.imageWidth = imageWidth;
+		this.imageHeight = imageHeight;
+		this.downsample = downsample;
+		this.plane = plane;
+		this.width = getScaledSize(imageWidth, downsample);
+		this.height = getScaledSize(imageHeight, downsample);
+		this.allObjects = allObjects;
+		this.primaryObjects = List.copyOf(primaryObjects);
+		int nChannels = primaryObjects.size() + 1;
+		this.counts = new int[nChannels][width * height];
+		this.sums = new int[nChannels][(width + 1) * (height + 1)];
+	}
+
+	private static int getScaledSize(int size, double downsample) {
+		return Math.max(1, (int)Math.ceil(size / downsample));
+	}
+
+	/**
+	 * Get the integral images for an image, creating them if necessary.
+	 * <p>
+	 * Instances are shared for the same hierarchy, downsample, plane and object filters, so that changing the
+	 * radius or density type of a map doesn't require the counts to be recalculated.
+	 *
+	 * @param imageData the image data, providing the hierarchy and image size
+	 * @param downsample the downsample at which counts should be calculated
+	 * @param plane the image plane
+	 * @param allObjects filter to identify all objects of interest
+	 * @param primaryObjects filters to identify subsets of objects, each of which has its own channel
+	 * @return the integral images, or null if they would be larger than {@link #MAX_PIXELS}
+	 */
+	static DensityIntegralImages getInstance(ImageData<?> imageData, double downsample, ImagePlane plane,
+			PathObjectPredicate allObjects, List<PathObjectPredicate> primaryObjects) {
+		var server = imageData.getServer();
+		int imageWidth = server.getWidth();
+		int imageHeight = server.getHeight();
+		if ((long)getScaledSize(imageWidth, downsample) * getScaledSize(imageHeight, downsample) > MAX_PIXELS)
+			return null;
+
+		var hierarchy = imageData.getHierarchy();
+		String key = createKey(imageWidth, imageHeight, downsample, plane, allObjects, primaryObjects);
+		synchronized (cache) {
+			// Access order, so that the least recently-used instance is removed first
+			var map = cache.computeIfAbsent(hierarchy, h -> new LinkedHashMap<>(16, 0.75f, true));
+			var images = map.get(key);
+			if (images == null) {
+				images = new DensityIntegralImages(imageWidth, imageHeight, downsample, plane, allObjects, primaryObjects);
+				map.put(key, images);
+				hierarchy.addListener(images);
+				var iter = map.values().iterator();
+				while (map.size() > MAX_CACHED_PER_HIERARCHY) {
+					var old = iter.next();
+					iter.remove();
+					hierarchy.removeListener(old);
+				}
+			}
+			return images;
+		}
+	}
+
+	private static String createKey(int imageWidth, int imageHeight, double downsample, ImagePlane plane,
+			PathObjectPredicate allObjects, List<PathObjectPredicate> primaryObjects) {
+		var sb = new StringBuilder();
+		sb.append(imageWidth).append("x").append(imageHeight)
+			.append(", downsample=").append(downsample)
+			.append(", z=").append(plane.getZ())
+			.append(", t=").append(plane.getT())
+			.append(", all=").append(predicateToString(allObjects));
+		for (var predicate : primaryObjects)
+			sb.append(", primary=").append(predicateToString(predicate));
+		return sb.toString();
+	}
+
+	private static String predicateToString(PathObjectPredicate predicate) {
+		if (predicate == null)
+			return "null";
+		try {
+			return GsonTools.getInstance().toJson(predicate, PathObjectPredicate.class);
+		} catch (Exception e) {
+			// Fall back to identity, which prevents sharing but is still correct
+			logger.debug("Unable to serialize predicate {}: {}", predicate, e.getMessage());
+			return predicate.getClass().getName() + "@" + System.identityHashCode(predicate);
+		}
+	}
+
+	/**
+	 * Get the downsample at which counts are calculated.
+	 * @return
+	 */
+	double getDownsample() {
+		return downsample;
+	}
+
+	/**
+	 * Get the width of the integral images, which is the image width divided by the downsample (rounded up).
+	 * @return
+	 */
+	int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Get the height of the integral images, which is the image height divided by the downsample (rounded up).
+	 * @return
+	 */
+	int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Get the number of channels, which is the number of primary object filters + 1.
+	 * The last channel contains counts for all objects.
+	 * @return
+	 */
+	int nChannels() {
+		return counts.length;
+	}
+
+	/**
+	 * Calculate the sums over a shape for each pixel in a region.
+	 * <p>
+	 * The shape is defined as a union of non-overlapping rectangles, with coordinates relative to the pixel.
+	 * Pixels outside the image are treated as zero.
+	 *
+	 * @param hierarchy the hierarchy; this is used to count objects if the integral images have not yet been built
+	 * @param channel the channel to sum
+	 * @param rects rectangles as {@code {x1, y1, x2, y2}} offsets, inclusive
+	 * @param x the x coordinate of the region at the downsample of the integral images
+	 * @param y the y coordinate of the region at the downsample of the integral images
+	 * @param regionWidth the region width
+	 * @param regionHeight the region height
+	 * @param output optional array to store the output, with length {@code regionWidth * regionHeight}
+	 * @return the sums for each pixel in the region, in row-major order
+	 */
+	double[] sum(PathObjectHierarchy hierarchy, int channel, int[][] rects, int x, int y, int regionWidth, int regionHeight, double[] output) {
+		int n = regionWidth * regionHeight;
+		if (output == null || output.length < n)
+			output = new double[n];
+		ensureUpdated(hierarchy);
+		try {
+			var s = sums[channel];
+			int i = 0;
+			for (int yy = y; yy < y + regionHeight; yy++) {
+				for (int xx = x; xx < x + regionWidth; xx++) {
+					long total = 0;
+					for (var rect : rects)
+						total += boxSum(s, xx + rect[0], yy + rect[1], xx + rect[2], yy + rect[3]);
+					output[i++] = total;
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return output;
+	}
+
+	/**
+	 * Sum of counts within a rectangle, with inclusive pixel coordinates.
+	 * The rectangle is clipped to the image bounds.
+	 */
+	private int boxSum(int[] s, int x1, int y1, int x2, int y2) {
+		x1 = Math.max(x1, 0);
+		y1 = Math.max(y1, 0);
+		x2 = Math.min(x2, width - 1);
+		y2 = Math.min(y2, height - 1);
+		if (x2 < x1 || y2 < y1)
+			return 0;
+		int w = width + 1;
+		return s[(y2 + 1) * w + x2 + 1] - s[y1 * w + x2 + 1] - s[(y2 + 1) * w + x1] + s[y1 * w + x1];
+	}
+
+	/**
+	 * Ensure the counts and summed-area tables are up-to-date.
+	 * On return, the current thread holds the read lock.
+	 */
+	private void ensureUpdated(PathObjectHierarchy hierarchy) {
+		while (true) {
+			lock.readLock().lock();
+			if (isBuilt && dirtyRow >= height)
+				return;
+			boolean doBuild = !isBuilt;
+			long count = eventCount;
+			lock.readLock().unlock();
+			// Query the hierarchy without holding the lock, since hierarchy events are fired while 
+			// the hierarchy is locked
+			Collection<PathObject> pathObjects = null;
+			Map<UUID, Contribution> unloaded = null;
+			if (doBuild) {
+				unloaded = new HashMap<>();
+				pathObjects = getObjectsForBuild(hierarchy, unloaded);
+			}
+			lock.writeLock().lock();
+			try {
+				if (!isBuilt) {
+					// If the hierarchy changed while we were querying it, we need to try again
+					if (pathObjects == null || count != eventCount)
+						continue;
+					build(pathObjects, unloaded);
+				}
+				updateSums();
+				// Downgrade to the read lock
+				lock.readLock().lock();
+				return;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Get the objects in the hierarchy that should be counted.
+	 * <p>
+	 * Querying the whole plane would cause any unloaded detections to be added to the hierarchy.
+	 * Instead, these are read chunk by chunk from the store and only their contributions are retained.
+	 *
+	 * @param hierarchy the hierarchy to query
+	 * @param unloaded map to store the contributions of detections that aren't currently in the hierarchy
+	 * @return the objects that are currently in the hierarchy
+	 */
+	private Collection<PathObject> getObjectsForBuild(PathObjectHierarchy hierarchy, Map<UUID, Contribution> unloaded) {
+		List<LazyDetectionStore.Chunk> chunks;
+		LazyDetectionStore store;
+		Collection<PathObject> pathObjects;
+		// Chunks can't be loaded or removed while we hold the hierarchy lock
+		synchronized (hierarchy) {
+			chunks = hierarchy.getUnloadedDetectionChunks();
+			if (chunks.isEmpty()) {
+				var region = ImageRegion.createInstance(0, 0, imageWidth, imageHeight, plane.getZ(), plane.getT());
+				return hierarchy.getAllObjectsForRegion(region, null);
+			}
+			store = hierarchy.getLazyDetectionStore();
+			pathObjects = PathObjectTools.getDescendantObjects(hierarchy.getRootObject(), null, null);
+		}
+		List<PathObject> chunkObjects = new ArrayList<>();
+		for (var chunk : chunks) {
+			var region = chunk.region();
+			if (region.getZ() != plane.getZ() || region.getT() != plane.getT())
+				continue;
+			try {
+				for (var detections : store.readChunk(chunk).values()) {
+					for (var detection : detections) {
+						chunkObjects.add(detection);
+						if (detection.hasChildObjects())
+							detection.getDescendantObjects(chunkObjects);
+					}
+				}
+			} catch (IOException e) {
+				logger.warn("Unable to read detections for density counts: {}", e.getMessage(), e);
+			}
+			for (var pathObject : chunkObjects) {
+				var contribution = computeContribution(pathObject);
+				if (contribution != null)
+					unloaded.put(pathObject.getID(), contribution);
+			}
+			chunkObjects.clear();
+		}
+		return pathObjects;
+	}
+
+	/**
+	 * Count all the objects from scratch.
+	 * @param pathObjects objects in the hierarchy
+	 * @param unloaded contributions of objects that are not currently in the hierarchy
+	 */
+	private void build(Collection<PathObject> pathObjects, Map<UUID, Contribution> unloaded) {
+		long startTime = System.currentTimeMillis();
+		for (var c : counts)
+			Arrays.fill(c, 0);
+		contributions.clear();
+		for (var pathObject : pathObjects) {
+			var contribution = computeContribution(pathObject);
+			if (contribution != null && contributions.putIfAbsent(pathObject.getID(), contribution) == null)
+				applyContribution(contribution, 1);
+		}
+		// A chunk may have been loaded after it was read, so avoid counting anything twice
+		for (var entry : unloaded.entrySet()) {
+			if (contributions.putIfAbsent(entry.getKey(), entry.getValue()) == null)
+				applyContribution(entry.getValue(), 1);
+		}
+		isBuilt = true;
+		dirtyRow = 0;
+		long endTime = System.currentTimeMillis();
+		logger.debug("Density counts built for {} objects in {} ms ({} x {} pixels, {} channels)",
+				contributions.size(), endTime - startTime, width, height, nChannels());
+	}
+
+	/**
+	 * Update the summed-area tables, starting from the first row with counts that have changed.
+	 */
+	private void updateSums() {
+		if (dirtyRow >= height)
+			return;
+		int w = width + 1;
+		for (int c = 0; c < counts.length; c++) {
+			int[] count = counts[c];
+			int[] s = sums[c];
+			for (int y = dirtyRow; y < height; y++) {
+				int rowSum = 0;
+				int ind = y * width;
+				int indPrevious = y * w + 1;
+				int indCurrent = (y + 1) * w + 1;
+				for (int x = 0; x < width; x++) {
+					rowSum += count[ind + x];
+					s[indCurrent + x] = s[indPrevious + x] + rowSum;
+				}
+			}
+		}
+		dirtyRow = height;
+	}
+
+	private Contribution computeContribution(PathObject pathObject) {
+		if (pathObject.isRootObject())
+			return null;
+		ROI roi = PathObjectTools.getROI(pathObject, true);
+		if (roi == null || roi.getZ() != plane.getZ() || roi.getT() != plane.getT())
+			return null;
+		if (allObjects != null && !allObjects.test(pathObject))
+			return null;
+
+		int[] pixels;
+		if (roi.isPoint()) {
+			var points = roi.getAllPoints();
+			pixels = new int[points.size()];
+			int n = 0;
+			for (var p : points) {
+				int ind = getPixelIndex(p.getX(), p.getY());
+				if (ind >= 0)
+					pixels[n++] = ind;
+			}
+			if (n < pixels.length)
+				pixels = Arrays.copyOf(pixels, n);
+		} else {
+			int ind = getPixelIndex(roi.getCentroidX(), roi.getCentroidY());
+			pixels = ind >= 0 ? new int[] {ind} : new int[0];
+		}
+		if (pixels.length == 0)
+			return null;
+
+		int[] channels = new int[primaryObjects.size() + 1];
+		int n = 0;
+		for (int c = 0; c < primaryObjects.size(); c++) {
+			if (primaryObjects.get(c).test(pathObject))
+				channels[n++] = c;
+		}
+		channels[n++] = primaryObjects.size();
+		if (n < channels.length)
+			channels = Arrays.copyOf(channels, n);
+		return new Contribution(pixels, channels);
+	}
+
+	private int getPixelIndex(double x, double y) {
+		if (x < 0 || y < 0)
+			return -1;
+		int xx = (int)(x / downsample);
+		int yy = (int)(y / downsample);
+		if (xx >= width || yy >= height)
+			return -1;
+		return yy * width + xx;
+	}
+
+	private void applyContribution(Contribution contribution, int delta) {
+		for (int ind : contribution.pixels()) {
+			for (int c : contribution.channels())
+				counts[c][ind] += delta;
+			dirtyRow = Math.min(dirtyRow, ind / width);
+		}
+	}
+
+	/**
+	 * Recalculate the contribution of a single object, which may have been added, removed or changed.
+	 */
+	private void updateObject(PathObject pathObject, PathObject rootObject) {
+		var id = pathObject.getID();
+		var previous = contributions.get(id);
+		var current = isAttached(pathObject, rootObject) ? computeContribution(pathObject) : null;
+		if (current == null ? previous == null : current.sameAs(previous))
+			return;
+		if (previous != null) {
+			applyContribution(previous, -1);
+			contributions.remove(id);
+		}
+		if (current != null) {
+			applyContribution(current, 1);
+			contributions.put(id, current);
+		}
+	}
+
+	private static boolean isAttached(PathObject pathObject, PathObject rootObject) {
+		var parent = pathObject;
+		while (parent.getParent() != null)
+			parent = parent.getParent();
+		return parent == rootObject;
+	}
+
+	@Override
+	public void hierarchyChanged(PathObjectHierarchyEvent event) {
+		lock.writeLock().lock();
+		try {
+			eventCount++;
+			if (!isBuilt)
+				return;
+			var rootObject = event.getHierarchy().getRootObject();
+			var type = event.getEventType();
+			if (event.isStructureChangeEvent()) {
+				var base = event.getStructureChangeBase();
+				if (type == HierarchyEventType.OTHER_STRUCTURE_CHANGE && (base == null || base == rootObject
+						|| event.getHierarchy().getLazyDetectionStore() != null)) {
+					// Easier to start again - and necessary if some objects aren't in the hierarchy, 
+					// since then we can't tell which ones have been removed
+					isBuilt = false;
+					return;
+				}
+				List<PathObject> changed = new ArrayList<>();
+				if (type == HierarchyEventType.OTHER_STRUCTURE_CHANGE) {
+					changed.add(base);
+					// Objects might have been removed from beneath the base, so check everything we've counted
+					Set<UUID> attached = new HashSet<>();
+					for (var pathObject : PathObjectTools.getDescendantObjects(rootObject, null, null))
+						attached.add(pathObject.getID());
+					var iter = contributions.entrySet().iterator();
+					while (iter.hasNext()) {
+						var entry = iter.next();
+						if (!attached.contains(entry.getKey())) {
+							applyContribution(entry.getValue(), -1);
+							iter.remove();
+						}
+					}
+				} else
+					changed.addAll(event.getChangedObjects());
+				for (var pathObject : changed) {
+					updateObject(pathObject, rootObject);
+					if (pathObject.hasChildObjects()) {
+						for (var child : pathObject.getDescendantObjects(null))
+							updateObject(child, rootObject);
+					}
+				}
+			} else {
+				// Classifications, measurements or ROIs may have changed
+				for (var pathObject : event.getChangedObjects())
+					updateObject(pathObject, rootObject);
+			}
+		} catch (Exception e) {
+			logger.warn("Unable to update density counts: {}", e.getMessage(), e);
+			isBuilt = false;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Split a shape into rectangles that can be used with the integral images.
+	 * Consecutive rows that span the same columns are merged into a single rectangle.
+	 *
+	 * @param mask binary mask, in row-major order; pixels &gt; 0 are inside the shape
+	 * @param width width of the mask
+	 * @param height height of the mask
+	 * @return rectangles as {@code {x1, y1, x2, y2}}, inclusive, relative to the center of the mask
+	 * @throws IllegalArgumentException if any row of the mask is not a single continuous run of pixels
+	 */
+	static int[][] maskToRectangles(float[] mask, int width, int height) {
+		int cx = width / 2;
+		int cy = height / 2;
+		List<int[]> rects = new ArrayList<>();
+		int[] current = null;
+		for (int y = 0; y < height; y++) {
+			int x1 = -1;
+			int x2 = -1;
+			for (int x = 0; x < width; x++) {
+				if (mask[y * width + x] > 0) {
+					if (x1 < 0)
+						x1 = x;
+					else if (x2 != x - 1)
+						throw new IllegalArgumentException("Each row of the mask must contain a single run of pixels");
+					x2 = x;
+				}
+			}
+			if (x1 < 0) {
+				current = null;
+				continue;
+			}
+			if (current != null && current[0] == x1 - cx && current[2] == x2 - cx) {
+				current[3] = y - cy;
+			} else {
+				current = new int[] {x1 - cx, y - cy, x2 - cx, y - cy};
+				rects.add(current);
+			}
+		}
+		return rects.toArray(int[][]::new);
+	}
+
+	/**
+	 * Get a single 1x1 rectangle, which can be used to extract the counts per pixel.
+	 * @return
+	 */
+	static int[][] singlePixel() {
+		return new int[][] {{0, 0, 0, 0}};
+	}
+
+	/**
+	 * Remove all cached integral images for a hierarchy.
+	 * @param hierarchy
+	 */
+	static void clearCache(PathObjectHierarchy hierarchy) {
+		Map<String, DensityIntegralImages> map;
+		synchronized (cache) {
+			map = cache.remove(hierarchy);
+		}
+		if (map != null) {
+			for (var images : map.values())
+				hierarchy.removeListener(images);
+		}
+	}
+
+	/**
+	 * Get the number of objects that currently contribute to the counts.
+	 * This is mostly useful for testing.
+	 * @return
+	 */
+	int nObjects() {
+		lock.readLock().lock();
+		try {
+			return contributions.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "DensityIntegralImages [" + width + "x" + height + ", downsample=" + downsample + ", plane=" + plane
+				+ ", channels=" + nChannels() + "]";
+	}
+
+}
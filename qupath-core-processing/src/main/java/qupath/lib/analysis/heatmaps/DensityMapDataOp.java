@@ -2,7 +2,7 @@
  * #%L
  * This file is part of QuPath.
  * %%
- * Copyright (C) 2021 QuPath developers, The University of Edinburgh
+ * Copyright (C) 2021, 2025 QuPath developers, The University of Edinburgh
  * %%
  * QuPath is free software: you can redistribute it and/or modify
  * it under the terms of the GNU General Public License as
@@ -209,7 +209,11 @@ class DensityMapDataOp implements ImageDataOp {
 	}
 	
 	
-	private int getChannelCount() {
+	/**
+	 * Get the number of channels in the counts image, before the op is applied.
+	 * @return
+	 */
+	int getChannelCount() {
 		if (primaryObjects.size() == 0)
 			return 1;
 		if (densityType == DensityMapType.PERCENT)
@@ -225,18 +229,7 @@ class DensityMapDataOp implements ImageDataOp {
 		logger.trace("Applying density map op for {}", request);
 		
 		// Calculate how much padding we need
-		var padding = op.getPadding();
-		if (!padding.isEmpty()) {
-			// Add padding to the request
-			double downsample = request.getDownsample();
-			var padding2 = Padding.getPadding(
-					(int)Math.round(padding.getX1() * downsample),
-					(int)Math.round(padding.getX2() * downsample),
-					(int)Math.round(padding.getY1() * downsample),
-					(int)Math.round(padding.getY2() * downsample)
-					);
-			request = request.pad2D(padding2);
-		}
+		request = getPaddedRequest(request);
 		
 		// Get all objects within the padded region
 		var allPathObjects = imageData.getHierarchy().getAllObjectsForRegion(request, null)
@@ -290,8 +283,48 @@ class DensityMapDataOp implements ImageDataOp {
 		idx.close();
 		
 		// Now apply the op
-		var output = this.op.apply(mat);
-		return output;
+		return applyToCounts(mat);
+	}
+	
+	/**
+	 * Add the padding required by the op to a request.
+	 * @param request
+	 * @return the padded request, or the original request if no padding is needed
+	 */
+	RegionRequest getPaddedRequest(RegionRequest request) {
+		ensureInitialized();
+		return padRequest(request, op.getPadding());
+	}
+	
+	/**
+	 * Add padding to a request.
+	 * @param request
+	 * @param padding padding in downsampled pixel units
+	 * @return the padded request, or the original request if the padding is empty
+	 */
+	static RegionRequest padRequest(RegionRequest request, Padding padding) {
+		if (padding.isEmpty())
+			return request;
+		double downsample = request.getDownsample();
+		var padding2 = Padding.getPadding(
+				(int)Math.round(padding.getX1() * downsample),
+				(int)Math.round(padding.getX2() * downsample),
+				(int)Math.round(padding.getY1() * downsample),
+				(int)Math.round(padding.getY2() * downsample)
+				);
+		return request.pad2D(padding2);
+	}
+	
+	/**
+	 * Apply the op to an image of object counts.
+	 * The counts should have been calculated for the request returned by {@link #getPaddedRequest(RegionRequest)}, 
+	 * with {@link #getChannelCount()} channels.
+	 * @param counts
+	 * @return
+	 */
+	Mat applyToCounts(Mat counts) {
+		ensureInitialized();
+		return this.op.apply(counts);
 	}
 	
 	
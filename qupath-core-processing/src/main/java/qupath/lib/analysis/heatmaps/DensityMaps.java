@@ -2,7 +2,7 @@
  * #%L
  * This file is part of QuPath.
  * %%
- * Copyright (C) 2021 QuPath developers, The University of Edinburgh
+ * Copyright (C) 2021, 2025 QuPath developers, The University of Edinburgh
  * %%
  * QuPath is free software: you can redistribute it and/or modify
  * it under the terms of the GNU General Public License as
@@ -32,6 +32,7 @@ import qupath.lib.classifiers.pixel.PixelClassifier;
 import qupath.lib.classifiers.pixel.PixelClassifierMetadata;
 import qupath.lib.geom.Point2;
 import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.ImageChannel;
 import qupath.lib.images.servers.ImageServer;
 import qupath.lib.images.servers.ImageServerMetadata;
 import qupath.lib.images.servers.ImageServerMetadata.ChannelType;
@@ -53,6 +54,7 @@ import qupath.lib.roi.interfaces.ROI;
 import qupath.opencv.ml.pixel.PixelClassifierTools;
 import qupath.opencv.ml.pixel.PixelClassifierTools.CreateObjectOptions;
 import qupath.opencv.ml.pixel.PixelClassifiers;
+import qupath.opencv.ops.ImageDataOp;
 import qupath.opencv.tools.OpenCVTools;
 import qupath.opencv.tools.OpenCVTools.IndexedPixel;
 
@@ -69,6 +71,7 @@ import java.util.Comparator;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
@@ -179,6 +182,7 @@ public class DensityMaps {
 		
 		private double radius = 0;
 		private DensityMapType densityType = DensityMapType.SUM;
+		private boolean integralImages = false;
 
 		private PathObjectPredicate mainObjectFilter;
 		private Map<String, PathObjectPredicate> secondaryObjectFilters = new LinkedHashMap<>();
@@ -189,6 +193,7 @@ public class DensityMaps {
 			this.pixelSize = params.pixelSize;
 			this.radius = params.radius;
 			this.densityType = params.densityType;
+			this.integralImages = params.integralImages;
 			this.maxWidth = params.maxWidth;
 			this.maxHeight = params.maxHeight;
 			
@@ -236,6 +241,15 @@ public class DensityMaps {
 			return densityType;
 		}
 		
+		/**
+		 * Query whether densities should be calculated using integral images of object counts.
+		 * @return
+		 * @see DensityMapBuilder#integralImages(boolean)
+		 */
+		public boolean useIntegralImages() {
+			return integralImages;
+		}
+		
 		/**
 		 * Get the primary object filter.
 		 * @return
@@ -339,6 +353,21 @@ public class DensityMaps {
 			return this;
 		}
 		
+		/**
+		 * Calculate densities using integral images (summed-area tables) of object counts.
+		 * <p>
+		 * The counts are calculated once for the whole image, and updated incrementally as the 
+		 * object hierarchy changes. They are also shared between density maps that differ only in 
+		 * their radius or type. This usually makes generating tiles much faster, at the cost of 
+		 * some memory to store the counts.
+		 * @param doIntegralImages
+		 * @return this builder
+		 */
+		public DensityMapBuilder integralImages(boolean doIntegralImages) {
+			params.integralImages = doIntegralImages;
+			return this;
+		}
+		
 		/**
 		 * Build a {@link DensityMapParameters} object containing the main density map parameters.
 		 * @return
@@ -431,18 +460,33 @@ public class DensityMaps {
 		int radiusInt = (int)Math.round(params.radius / pixelSize.getAveragedPixelSize().doubleValue());
 		logger.debug("Creating classifier with pixel size {}, radius = {}", pixelSize, radiusInt);
 					    
-		var dataOp = new DensityMapDataOp(
-		        radiusInt,
-		        params.secondaryObjectFilters,
-		        params.mainObjectFilter,
-		        params.densityType
-		);
+		ImageDataOp dataOp;
+		List<ImageChannel> channels;
+		if (params.integralImages) {
+			var integralOp = new IntegralDensityMapDataOp(
+			        radiusInt,
+			        params.secondaryObjectFilters,
+			        params.mainObjectFilter,
+			        params.densityType
+			);
+			channels = integralOp.getChannels();
+			dataOp = integralOp;
+		} else {
+			var densityOp = new DensityMapDataOp(
+			        radiusInt,
+			        params.secondaryObjectFilters,
+			        params.mainObjectFilter,
+			        params.densityType
+			);
+			channels = densityOp.getChannels();
+			dataOp = densityOp;
+		}
 		
 		var metadata = new PixelClassifierMetadata.Builder()
 			    .inputShape(preferredTileSize, preferredTileSize)
 			    .inputResolution(pixelSize)
 			    .setChannelType(ImageServerMetadata.ChannelType.DENSITY)
-			    .outputChannels(dataOp.getChannels())
+			    .outputChannels(channels)
 			    .build();
 
 		return PixelClassifiers.createClassifier(dataOp, metadata);
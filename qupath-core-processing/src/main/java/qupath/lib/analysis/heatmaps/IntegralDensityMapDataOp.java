@@ -0,0 +1,286 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.analysis.heatmaps;
+
+import org.bytedeco.javacpp.indexer.DoubleIndexer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Scalar;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.analysis.heatmaps.DensityMaps.DensityMapType;
+import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.ImageChannel;
+import qupath.lib.images.servers.PixelType;
+import qupath.lib.objects.PathObjectPredicates.PathObjectPredicate;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.regions.RegionRequest;
+import qupath.opencv.ops.ImageDataOp;
+import qupath.opencv.ops.ImageOp;
+import qupath.opencv.ops.ImageOps;
+import qupath.opencv.tools.OpenCVTools;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * An alternative to {@link DensityMapDataOp} that calculates densities using {@link DensityIntegralImages}.
+ * <p>
+ * Object counts are calculated once for the full image, and then updated as the hierarchy changes.
+ * Circular sums are calculated from a small number of rectangles for each pixel, so the cost of generating a tile
+ * doesn't depend upon the number of objects, and doesn't require any padding.
+ * <p>
+ * For {@link DensityMapType#GAUSSIAN} maps, the integral images are used to get the counts for each tile
+ * and the Gaussian filter is applied as before.
+ * If the integral images would be too large, this falls back to the behavior of {@link DensityMapDataOp}.
+ */
+class IntegralDensityMapDataOp implements ImageDataOp {
+
+	private static final Logger logger = LoggerFactory.getLogger(IntegralDensityMapDataOp.class);
+
+	static {
+		ImageOps.registerDataOp(IntegralDensityMapDataOp.class, "data.op.density.integral");
+	}
+
+	private DensityMapType densityType;
+	private int radius;
+
+	private Map<String, PathObjectPredicate> primaryObjects;
+	private PathObjectPredicate allObjects;
+
+	/**
+	 * Optional op to apply after the densities have been calculated.
+	 */
+	private ImageOp op;
+
+	private transient DensityMapDataOp dataOp;
+	private transient int[][] rects;
+
+	/**
+	 * Create an op to generate density maps using integral images.
+	 * The parameters are the same as for {@link DensityMapDataOp}.
+	 *
+	 * @param radius the radius (in downsampled pixel units) within which densities should be calculated
+	 * @param primaryObjects zero or more primary object filters, with an associated name (used for the channel name)
+	 * @param allObjects a single all objects filter to identify all objects of interest
+	 * @param densityType the density map type, which defines how object counts within the defined radius are converted into density values
+	 */
+	public IntegralDensityMapDataOp(
+			int radius,
+			Map<String, PathObjectPredicate> primaryObjects,
+			PathObjectPredicate allObjects,
+			DensityMapType densityType) {
+		this(radius, primaryObjects, allObjects, densityType, null);
+	}
+
+	private IntegralDensityMapDataOp(
+			int radius,
+			Map<String, PathObjectPredicate> primaryObjects,
+			PathObjectPredicate allObjects,
+			DensityMapType densityType,
+			ImageOp op) {
+
+		Objects.requireNonNull(densityType);
+		if (radius < 0)
+			throw new IllegalArgumentException("Density map radius must be >= 0!");
+
+		this.primaryObjects = new LinkedHashMap<>(primaryObjects);
+		this.allObjects = allObjects;
+		this.densityType = densityType;
+		this.radius = radius;
+		this.op = op;
+
+		ensureInitialized();
+	}
+
+	private void ensureInitialized() {
+		if (dataOp != null)
+			return;
+		synchronized(this) {
+			if (dataOp == null) {
+				rects = createDiskRectangles(radius);
+				var baseOp = new DensityMapDataOp(radius, primaryObjects, allObjects, densityType);
+				dataOp = op == null ? baseOp : (DensityMapDataOp)baseOp.appendOps(op);
+			}
+		}
+	}
+
+	/**
+	 * Split the disk used by {@link ImageOps.Filters#sum(int)} into rectangles.
+	 */
+	private static int[][] createDiskRectangles(int radius) {
+		if (radius == 0)
+			return DensityIntegralImages.singlePixel();
+		var disk = OpenCVTools.createDisk(radius, false);
+		try {
+			return DensityIntegralImages.maskToRectangles(OpenCVTools.extractFloats(disk), disk.cols(), disk.rows());
+		} finally {
+			disk.close();
+		}
+	}
+
+	@Override
+	public Mat apply(ImageData<BufferedImage> imageData, RegionRequest request) throws IOException {
+
+		ensureInitialized();
+
+		var images = DensityIntegralImages.getInstance(
+				imageData, request.getDownsample(), request.getImagePlane(), allObjects, new ArrayList<>(primaryObjects.values()));
+		if (images == null) {
+			logger.debug("Density map is too large for integral images - counts will be calculated for each tile");
+			return dataOp.apply(imageData, request);
+		}
+
+		logger.trace("Applying integral density map op for {}", request);
+		var hierarchy = imageData.getHierarchy();
+
+		if (densityType == DensityMapType.GAUSSIAN) {
+			// Gaussian weights can't be calculated from rectangles, so get the counts & filter them
+			var paddedRequest = dataOp.getPaddedRequest(request);
+			var counts = calculate(images, hierarchy, paddedRequest, DensityIntegralImages.singlePixel(), false);
+			return dataOp.applyToCounts(counts);
+		}
+
+		var paddedRequest = op == null ? request : DensityMapDataOp.padRequest(request, op.getPadding());
+		var mat = calculate(images, hierarchy, paddedRequest, rects, densityType == DensityMapType.PERCENT);
+		mat.convertTo(mat, opencv_core.CV_32F);
+		if (op == null)
+			return mat;
+		return op.apply(mat);
+	}
+
+
+	/**
+	 * Calculate sums for each pixel in a request, using the specified rectangles.
+	 * The output channels match those of {@link DensityMapDataOp}: one for each primary object filter, followed by
+	 * all objects if required.
+	 */
+	private Mat calculate(DensityIntegralImages images, PathObjectHierarchy hierarchy, RegionRequest request, int[][] rects, boolean doPercent) {
+		double downsample = request.getDownsample();
+		int x = (int)Math.round(request.getX() / downsample);
+		int y = (int)Math.round(request.getY() / downsample);
+		int width = (int)Math.round(request.getWidth() / downsample);
+		int height = (int)Math.round(request.getHeight() / downsample);
+
+		int nPrimary = primaryObjects.size();
+		int nChannels = dataOp.getChannelCount();
+		var mat = new Mat(height, width, opencv_core.CV_64FC(nChannels), Scalar.ZERO);
+
+		double[] all = null;
+		if (doPercent || nPrimary == 0)
+			all = images.sum(hierarchy, nPrimary, rects, x, y, width, height, null);
+
+		try (DoubleIndexer idx = mat.createIndexer()) {
+			if (nPrimary == 0) {
+				// Only one channel, which is either the count of all objects or the count divided by itself
+				put(idx, 0, all, width, height, doPercent ? all : null, 1.0);
+			} else {
+				double[] values = null;
+				for (int c = 0; c < nPrimary; c++) {
+					values = images.sum(hierarchy, c, rects, x, y, width, height, values);
+					put(idx, c, values, width, height, doPercent ? all : null, 100.0);
+				}
+				if (nChannels > nPrimary)
+					put(idx, nPrimary, all, width, height, null, 1.0);
+			}
+		}
+		return mat;
+	}
+
+	private static void put(DoubleIndexer idx, int channel, double[] values, int width, int height, double[] divisor, double scale) {
+		int i = 0;
+		for (int yy = 0; yy < height; yy++) {
+			for (int xx = 0; xx < width; xx++) {
+				double val = values[i];
+				if (divisor != null)
+					val = val / divisor[i] * scale;
+				idx.put(yy, xx, channel, val);
+				i++;
+			}
+		}
+	}
+
+
+	@Override
+	public boolean supportsImage(ImageData<BufferedImage> imageData) {
+		// All images are supported
+		return true;
+	}
+
+	/**
+	 * Get the channels. In this case, the {@link ImageData} is irrelevant and may be null.
+	 */
+	@Override
+	public List<ImageChannel> getChannels(ImageData<BufferedImage> imageData) {
+		return getChannels();
+	}
+
+	/**
+	 * The {@link ImageData} is really irrelevant to the channels.
+	 * @return
+	 */
+	List<ImageChannel> getChannels() {
+		ensureInitialized();
+		return dataOp.getChannels();
+	}
+
+	@Override
+	public ImageDataOp appendOps(ImageOp... ops) {
+		if (ops.length == 0)
+			return this;
+		ImageOp opNew;
+		if (ops.length > 1)
+			opNew = ImageOps.Core.sequential(ops);
+		else
+			opNew = ops[0];
+		if (op != null)
+			opNew = ImageOps.Core.sequential(op, opNew);
+		return new IntegralDensityMapDataOp(radius, primaryObjects, allObjects, densityType, opNew);
+	}
+
+	@Override
+	public PixelType getOutputType(PixelType inputType) {
+		return PixelType.FLOAT32;
+	}
+
+	@Override
+	public Collection<URI> getURIs() throws IOException {
+		return op == null ? Collections.emptyList() : op.getURIs();
+	}
+
+	@Override
+	public boolean updateURIs(Map<URI, URI> replacements) throws IOException {
+		if (op == null)
+			return false;
+		return op.updateURIs(replacements);
+	}
+
+
+}
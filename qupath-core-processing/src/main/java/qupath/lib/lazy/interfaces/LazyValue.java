@@ -124,6 +124,18 @@ public interface LazyValue<S, T> {
         return ValueFormatter.getStringValue(val, decimalPlaces);
     }
 
+    /**
+     * Get a string representation of a value that has already been calculated, using the same formatting as
+     * {@link #getStringValue(Object, int)}.
+     * This is useful when many values are read together, rather than one at a time.
+     * @param value the value; if null, an empty string is returned
+     * @param decimalPlaces number of decimal places; if &lt; 0 then this will be calculated automatically
+     * @return
+     */
+    static String formatValue(final Object value, final int decimalPlaces) {
+        return ValueFormatter.getStringValue(value, decimalPlaces);
+    }
+
     /**
      * Get a default string representation of an object measurement.
      * If the value is numeric, it is converted to a string using the default number of decimal places.
@@ -47,6 +47,8 @@ import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * An {@link ObjectClassifier} that uses an {@link OpenCVStatModel} for classification.
@@ -150,7 +152,8 @@ public class OpenCVMLClassifier<T> extends AbstractObjectClassifier<T> {
 		// Try not to have more than ~10 million entries per list
 		int subListSize = (int)Math.max(1, Math.min(pathObjects.size(), (1024 * 1024 * 10 / featureExtractor.nFeatures())));
 		
-		Mat samples = new Mat();
+		// Use two sample matrices, so that features for the next chunk can be extracted during prediction
+		Mat[] sampleMats = new Mat[] {new Mat(), new Mat()};
 		
 		Mat results = new Mat();
 		Mat probabilities = requestProbabilityEstimate ? new Mat() : null;
@@ -159,16 +162,30 @@ public class OpenCVMLClassifier<T> extends AbstractObjectClassifier<T> {
 		long startTime = System.currentTimeMillis();
 		long lastTime = startTime;
 		int nComplete = 0;
-		for (var tempObjectList : Lists.partition(new ArrayList<>(pathObjects), subListSize)) {
+		var partitions = Lists.partition(new ArrayList<>(pathObjects), subListSize);
+		CompletableFuture<Mat> nextSamples = partitions.isEmpty() ? null :
+			extractFeaturesAsync(featureExtractor, imageData, partitions.getFirst(), sampleMats[0]);
+		for (int i = 0; i < partitions.size(); i++) {
+			var tempObjectList = partitions.get(i);
+
+			Mat samples;
+			try {
+				samples = nextSamples.join();
+			} catch (CompletionException e) {
+				logger.error("Error extracting features: {}", e.getCause().getMessage(), e.getCause());
+				closeAll(sampleMats, results, probabilities);
+				return 0;
+			}
+			nextSamples = null;
 
 			if (Thread.interrupted()) {
 				logger.warn("Classification interrupted - will not be applied");
+				closeAll(sampleMats, results, probabilities);
 				return 0;
 			}
 			
-			samples.create(tempObjectList.size(), featureExtractor.nFeatures(), opencv_core.CV_32FC1);
-			FloatBuffer buffer = samples.createBuffer();
-			featureExtractor.extractFeatures(imageData, tempObjectList, buffer);
+			if (i + 1 < partitions.size())
+				nextSamples = extractFeaturesAsync(featureExtractor, imageData, partitions.get(i + 1), sampleMats[(i + 1) % 2]);
 			
 			// Possibly log time taken
 			nComplete += tempObjectList.size();
@@ -250,17 +267,36 @@ public class OpenCVMLClassifier<T> extends AbstractObjectClassifier<T> {
 				predictTime, pathObjects.size(),
 				GeneralTools.formatNumber((double)predictTime/pathObjects.size() * 1000.0, 2));
 
-		samples.close();
-		results.close();
-		if (probabilities != null)
-			probabilities.close();
+		closeAll(sampleMats, results, probabilities);
 
 		// Apply classifications now
-		reclassifiers.stream().forEach(p -> p.apply());
+		Reclassifier.applyAll(reclassifiers);
 
 		return counter;
 	}
 	
+	/**
+	 * Extract features for a list of objects in the background.
+	 * The samples matrix must not be used by any other thread until the returned future has completed.
+	 */
+	private static <T> CompletableFuture<Mat> extractFeaturesAsync(FeatureExtractor<T> featureExtractor, ImageData<T> imageData, 
+			List<? extends PathObject> pathObjects, Mat samples) {
+		return CompletableFuture.supplyAsync(() -> {
+			samples.create(pathObjects.size(), featureExtractor.nFeatures(), opencv_core.CV_32FC1);
+			FloatBuffer buffer = samples.createBuffer();
+			featureExtractor.extractFeatures(imageData, pathObjects, buffer);
+			return samples;
+		});
+	}
+	
+	private static void closeAll(Mat[] sampleMats, Mat results, Mat probabilities) {
+		for (var mat : sampleMats)
+			mat.close();
+		results.close();
+		if (probabilities != null)
+			probabilities.close();
+	}
+	
 	@Override
 	public String toString() {
 		return String.format("OpenCV object classifier (%s, %d classes)", classifier.getName(), getPathClasses().size());
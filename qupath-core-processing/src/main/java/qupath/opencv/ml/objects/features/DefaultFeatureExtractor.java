@@ -23,6 +23,7 @@ package qupath.opencv.ml.objects.features;
 
 import qupath.lib.images.ImageData;
 import qupath.lib.measurements.MeasurementList;
+import qupath.lib.measurements.MeasurementTable;
 import qupath.lib.objects.PathObject;
 
 import java.nio.FloatBuffer;
@@ -30,6 +31,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.stream.IntStream;
 
 /**
  * {@link FeatureExtractor} that takes features from the existing {@link MeasurementList} of each object.
@@ -40,16 +42,45 @@ import java.util.List;
  */
 class DefaultFeatureExtractor<T> implements FeatureExtractor<T> {
 	
+	/**
+	 * Number of objects for which features are extracted by each parallel task.
+	 */
+	private static final int BLOCK_SIZE = 4096;
+	
 	private List<String> measurements = new ArrayList<>();
 	
 	DefaultFeatureExtractor(final Collection<String> measurements) {
 		this.measurements.addAll(measurements);
 	}
 	
+	/**
+	 * Extract features in parallel.
+	 * Values are read using {@link MeasurementTable#getValues(Collection, List)}, which reads directly from the
+	 * columns of shared measurement tables where possible, and otherwise looks up the index of each feature once
+	 * for many objects with the same measurement names.
+	 */
 	@Override
 	public void extractFeatures(ImageData<T> imageData, Collection<? extends PathObject> pathObjects, FloatBuffer buffer) {
-		for (var pathObject : pathObjects)
-			extractFeatures(pathObject, buffer);
+		var list = pathObjects instanceof List<? extends PathObject> l ? l : new ArrayList<>(pathObjects);
+		int n = list.size();
+		int nFeatures = nFeatures();
+		int start = buffer.position();
+		int nBlocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		var stream = IntStream.range(0, nBlocks);
+		if (nBlocks > 1)
+			stream = stream.parallel();
+		stream.forEach(b -> {
+			int from = b * BLOCK_SIZE;
+			int to = Math.min(n, from + BLOCK_SIZE);
+			var measurementLists = list.subList(from, to).stream().map(PathObject::getMeasurementList).toList();
+			var values = MeasurementTable.getValues(measurementLists, measurements);
+			int pos = start + from * nFeatures;
+			for (var row : values) {
+				for (double val : row)
+					buffer.put(pos++, (float)val);
+			}
+		});
+		buffer.position(start + n * nFeatures);
 	}
 	
 	@Override
@@ -62,14 +93,6 @@ class DefaultFeatureExtractor<T> implements FeatureExtractor<T> {
 		return measurements.size();
 	}
 	
-	private void extractFeatures(final PathObject pathObject, FloatBuffer buffer) {
-		var measurementList = pathObject.getMeasurementList();
-		for (var m : measurements) {
-			double value = measurementList.get(m);
-			buffer.put((float)value);
-		}
-	}
-	
 	@Override
 	public Collection<String> getMissingFeatures(ImageData<T> imageData, PathObject pathObject) {
 		List<String> missing = null;
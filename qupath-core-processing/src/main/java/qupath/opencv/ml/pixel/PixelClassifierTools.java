@@ -616,7 +616,7 @@ public class PixelClassifierTools {
 					return new Reclassifier(p, null, false);
 				}
 			}).toList();
-		reclassifiers.parallelStream().forEach(r -> r.apply());
+		Reclassifier.applyAll(reclassifiers);
 	}
 	
 	
@@ -0,0 +1,319 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.analysis.heatmaps;
+
+import org.junit.jupiter.api.Test;
+import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.WrappedBufferedImageServer;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjectFilter;
+import qupath.lib.objects.PathObjectPredicates;
+import qupath.lib.objects.PathObjectPredicates.PathObjectPredicate;
+import qupath.lib.objects.PathObjectTools;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.objects.hierarchy.LazyDetectionStore;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.roi.ROIs;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class TestDensityIntegralImages {
+
+	private static final PathClass TUMOR = PathClass.fromString("Tumor");
+	private static final PathClass STROMA = PathClass.fromString("Stroma");
+
+	private static final PathObjectPredicate ALL_DETECTIONS = PathObjectPredicates.filter(PathObjectFilter.DETECTIONS_ALL);
+	private static final PathObjectPredicate TUMOR_OBJECTS = PathObjectPredicates.exactClassification(TUMOR);
+
+	@Test
+	public void testMaskToRectangles() {
+		for (int radius : new int[] {1, 2, 5, 12}) {
+			int size = radius * 2 + 1;
+			float[] mask = createDisk(radius);
+			var rects = DensityIntegralImages.maskToRectangles(mask, size, size);
+			// Rectangles should cover exactly the pixels in the mask
+			float[] covered = new float[mask.length];
+			for (var rect : rects) {
+				for (int y = rect[1]; y <= rect[3]; y++) {
+					for (int x = rect[0]; x <= rect[2]; x++)
+						covered[(y + radius) * size + x + radius] += 1;
+				}
+			}
+			assertArrayEquals(mask, covered);
+			// Rows spanning the same columns should be merged
+			assertTrue(rects.length <= size);
+			if (radius > 2)
+				assertTrue(rects.length < size);
+		}
+		assertThrows(IllegalArgumentException.class, () -> DensityIntegralImages.maskToRectangles(new float[] {1, 0, 1}, 3, 1));
+	}
+
+	@Test
+	public void testSums() {
+		var imageData = createImageData(200, 150);
+		addRandomObjects(imageData, 500, 1);
+		var images = DensityIntegralImages.getInstance(imageData, 2.0, ImagePlane.getDefaultPlane(), ALL_DETECTIONS, List.of(TUMOR_OBJECTS));
+		assertEquals(100, images.getWidth());
+		assertEquals(75, images.getHeight());
+		assertEquals(2, images.nChannels());
+		for (int radius : new int[] {0, 3, 10}) {
+			// Include a region partly outside the image
+			assertSums(imageData, images, radius, -5, -5, 60, 40);
+			assertSums(imageData, images, radius, 50, 40, 60, 40);
+		}
+		assertEquals(500, images.nObjects());
+	}
+
+	@Test
+	public void testHierarchyUpdates() {
+		var imageData = createImageData(120, 100);
+		var hierarchy = imageData.getHierarchy();
+		addRandomObjects(imageData, 200, 2);
+		var images = DensityIntegralImages.getInstance(imageData, 1.0, ImagePlane.getDefaultPlane(), ALL_DETECTIONS, List.of(TUMOR_OBJECTS));
+		assertSums(imageData, images, 4, 0, 0, 120, 100);
+
+		// Add single objects
+		var rand = new Random(3);
+		for (int i = 0; i < 10; i++)
+			hierarchy.addObject(createDetection(rand, 120, 100));
+		assertSums(imageData, images, 4, 0, 0, 120, 100);
+		assertEquals(210, images.nObjects());
+
+		// Change classifications
+		var changed = new ArrayList<PathObject>();
+		for (var pathObject : hierarchy.getDetectionObjects()) {
+			if (pathObject.getPathClass() == STROMA && changed.size() < 20) {
+				pathObject.setPathClass(TUMOR);
+				changed.add(pathObject);
+			}
+		}
+		hierarchy.fireObjectClassificationsChangedEvent(this, changed);
+		assertSums(imageData, images, 4, 0, 0, 120, 100);
+
+		// Remove single objects
+		for (var pathObject : changed.subList(0, 5))
+			hierarchy.removeObject(pathObject, false);
+		assertSums(imageData, images, 4, 0, 0, 120, 100);
+		assertEquals(205, images.nObjects());
+
+		// Add & remove an annotation containing detections
+		var annotation = PathObjects.createAnnotationObject(ROIs.createRectangleROI(10, 10, 50, 50, ImagePlane.getDefaultPlane()));
+		hierarchy.addObject(annotation);
+		for (int i = 0; i < 10; i++)
+			hierarchy.addObjectBelowParent(annotation, createDetection(rand, 50, 50), true);
+		assertSums(imageData, images, 4, 0, 0, 120, 100);
+		assertEquals(215, images.nObjects());
+		hierarchy.removeObject(annotation, false);
+		assertSums(imageData, images, 4, 0, 0, 120, 100);
+		assertEquals(205, images.nObjects());
+
+		// Clear everything
+		hierarchy.clearAll();
+		assertSums(imageData, images, 4, 0, 0, 120, 100);
+		assertEquals(0, images.nObjects());
+	}
+
+	@Test
+	public void testLazyDetections() {
+		var imageData = createImageData(200, 150);
+		var hierarchy = imageData.getHierarchy();
+		var rootID = hierarchy.getRootObject().getID();
+		// Four chunks, each creating new instances of the same detections whenever they are read
+		var nReads = new AtomicInteger();
+		List<LazyDetectionStore.Chunk> chunks = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			var region = ImageRegion.createInstance((i % 2) * 100, (i / 2) * 75, 100, 75, 0, 0);
+			chunks.add(new LazyDetectionStore.Chunk("chunk" + i, region, 50, Set.of(rootID)));
+		}
+		var store = new LazyDetectionStore() {
+			@Override
+			public List<Chunk> getChunks() {
+				return chunks;
+			}
+			@Override
+			public Map<UUID, List<PathObject>> readChunk(Chunk chunk) {
+				nReads.incrementAndGet();
+				var region = chunk.region();
+				var rand = new Random(chunks.indexOf(chunk));
+				List<PathObject> detections = new ArrayList<>();
+				for (int i = 0; i < chunk.nObjects(); i++) {
+					double x = region.getX() + rand.nextDouble() * (region.getWidth() - 2);
+					double y = region.getY() + rand.nextDouble() * (region.getHeight() - 2);
+					var detection = PathObjects.createDetectionObject(ROIs.createRectangleROI(x, y, 2, 2, ImagePlane.getDefaultPlane()),
+							rand.nextBoolean() ? TUMOR : STROMA);
+					detection.setID(new UUID(chunks.indexOf(chunk), i));
+					detections.add(detection);
+				}
+				return Map.of(rootID, detections);
+			}
+			@Override
+			public boolean isUnchanged(Chunk chunk, List<PathObject> pathObjects) {
+				return true;
+			}
+		};
+		hierarchy.setLazyDetectionStore(store, 1000);
+
+		// Building the counts should read the chunks, but not add them to the hierarchy
+		var images = DensityIntegralImages.getInstance(imageData, 1.0, ImagePlane.getDefaultPlane(), ALL_DETECTIONS, List.of(TUMOR_OBJECTS));
+		images.sum(hierarchy, 0, DensityIntegralImages.singlePixel(), 0, 0, 1, 1, null);
+		assertEquals(4, nReads.get());
+		assertEquals(4, hierarchy.getUnloadedDetectionChunks().size());
+		assertEquals(200, images.nObjects());
+
+		// Loading the detections shouldn't change the counts
+		assertSums(imageData, images, 3, 0, 0, 200, 150);
+		assertTrue(hierarchy.getUnloadedDetectionChunks().isEmpty());
+		assertEquals(200, images.nObjects());
+
+		// Changes to loaded instances should replace the counts read from the store
+		var changed = new ArrayList<PathObject>();
+		for (var pathObject : hierarchy.getDetectionObjects()) {
+			if (pathObject.getPathClass() == STROMA && changed.size() < 20) {
+				pathObject.setPathClass(TUMOR);
+				changed.add(pathObject);
+			}
+		}
+		hierarchy.fireObjectClassificationsChangedEvent(this, changed);
+		assertSums(imageData, images, 3, 0, 0, 200, 150);
+		hierarchy.removeObject(changed.get(0), false);
+		assertSums(imageData, images, 3, 0, 0, 200, 150);
+		assertEquals(199, images.nObjects());
+	}
+
+	@Test
+	public void testSharedInstances() {
+		var imageData = createImageData(100, 100);
+		var plane = ImagePlane.getDefaultPlane();
+		var images = DensityIntegralImages.getInstance(imageData, 2.0, plane, ALL_DETECTIONS, List.of(TUMOR_OBJECTS));
+		assertSame(images, DensityIntegralImages.getInstance(imageData, 2.0, plane, ALL_DETECTIONS, List.of(PathObjectPredicates.exactClassification(TUMOR))));
+		assertNotSame(images, DensityIntegralImages.getInstance(imageData, 4.0, plane, ALL_DETECTIONS, List.of(TUMOR_OBJECTS)));
+		assertNotSame(images, DensityIntegralImages.getInstance(imageData, 2.0, plane, ALL_DETECTIONS, List.of()));
+		assertNotSame(images, DensityIntegralImages.getInstance(imageData, 2.0, ImagePlane.getPlane(1, 0), ALL_DETECTIONS, List.of(TUMOR_OBJECTS)));
+		assertNotSame(images, DensityIntegralImages.getInstance(createImageData(100, 100), 2.0, plane, ALL_DETECTIONS, List.of(TUMOR_OBJECTS)));
+		assertNull(DensityIntegralImages.getInstance(createImageData(100_000, 100_000), 1.0, plane, ALL_DETECTIONS, List.of()));
+		DensityIntegralImages.clearCache(imageData.getHierarchy());
+		assertNotSame(images, DensityIntegralImages.getInstance(imageData, 2.0, plane, ALL_DETECTIONS, List.of(TUMOR_OBJECTS)));
+	}
+
+	private static void assertSums(ImageData<BufferedImage> imageData, DensityIntegralImages images, int radius, int x, int y, int width, int height) {
+		var hierarchy = imageData.getHierarchy();
+		int size = radius * 2 + 1;
+		var rects = radius == 0 ? DensityIntegralImages.singlePixel() : DensityIntegralImages.maskToRectangles(createDisk(radius), size, size);
+		var predicates = List.of(TUMOR_OBJECTS, ALL_DETECTIONS);
+		for (int c = 0; c < predicates.size(); c++) {
+			var predicate = predicates.get(c);
+			// Calculate the expected counts per pixel
+			double downsample = images.getDownsample();
+			int[] counts = new int[images.getWidth() * images.getHeight()];
+			for (var pathObject : hierarchy.getDetectionObjects()) {
+				if (!predicate.test(pathObject))
+					continue;
+				var roi = PathObjectTools.getROI(pathObject, true);
+				int xx = (int)(roi.getCentroidX() / downsample);
+				int yy = (int)(roi.getCentroidY() / downsample);
+				counts[yy * images.getWidth() + xx]++;
+			}
+			double[] expected = new double[width * height];
+			int i = 0;
+			for (int yy = y; yy < y + height; yy++) {
+				for (int xx = x; xx < x + width; xx++) {
+					double sum = 0;
+					for (int dy = -radius; dy <= radius; dy++) {
+						for (int dx = -radius; dx <= radius; dx++) {
+							int px = xx + dx;
+							int py = yy + dy;
+							if (dx * dx + dy * dy > radius * radius || px < 0 || py < 0 || px >= images.getWidth() || py >= images.getHeight())
+								continue;
+							sum += counts[py * images.getWidth() + px];
+						}
+					}
+					expected[i++] = sum;
+				}
+			}
+			double[] actual = images.sum(hierarchy, c, rects, x, y, width, height, null);
+			assertArrayEquals(expected, actual, "Mismatch for channel " + c + ", radius " + radius);
+		}
+	}
+
+	private static float[] createDisk(int radius) {
+		int size = radius * 2 + 1;
+		float[] mask = new float[size * size];
+		for (int y = -radius; y <= radius; y++) {
+			for (int x = -radius; x <= radius; x++) {
+				if (x * x + y * y <= radius * radius)
+					mask[(y + radius) * size + x + radius] = 1f;
+			}
+		}
+		return mask;
+	}
+
+	private static ImageData<BufferedImage> createImageData(int width, int height) {
+		// The server only needs to provide the image size
+		var img = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY);
+		var server = new WrappedBufferedImageServer("Test", img) {
+			@Override
+			public int getWidth() {
+				return width;
+			}
+			@Override
+			public int getHeight() {
+				return height;
+			}
+		};
+		return new ImageData<>(server);
+	}
+
+	private static void addRandomObjects(ImageData<BufferedImage> imageData, int n, long seed) {
+		var rand = new Random(seed);
+		var server = imageData.getServer();
+		var pathObjects = new ArrayList<PathObject>();
+		for (int i = 0; i < n; i++)
+			pathObjects.add(createDetection(rand, server.getWidth(), server.getHeight()));
+		imageData.getHierarchy().addObjects(pathObjects);
+	}
+
+	private static PathObject createDetection(Random rand, int width, int height) {
+		double x = rand.nextDouble() * (width - 2);
+		double y = rand.nextDouble() * (height - 2);
+		var roi = ROIs.createRectangleROI(x, y, 2, 2, ImagePlane.getDefaultPlane());
+		return PathObjects.createDetectionObject(roi, rand.nextBoolean() ? TUMOR : STROMA);
+	}
+
+}
@@ -0,0 +1,85 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.opencv.ml.objects.features;
+
+import org.junit.jupiter.api.Test;
+import qupath.lib.measurements.MeasurementList;
+import qupath.lib.measurements.MeasurementListFactory;
+import qupath.lib.measurements.MeasurementTable;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.ROIs;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SuppressWarnings("javadoc")
+public class TestDefaultFeatureExtractor {
+
+	@Test
+	public void testExtractFeatures() {
+		var table = new MeasurementTable();
+		List<PathObject> pathObjects = new ArrayList<>();
+		int n = 10_000;
+		for (int i = 0; i < n; i++) {
+			// Use different list types, and measurements in different orders
+			MeasurementList list;
+			if (i % 3 == 0)
+				list = MeasurementListFactory.createMeasurementList(table);
+			else
+				list = MeasurementListFactory.createMeasurementList(3, i % 3 == 1 ? MeasurementList.MeasurementListType.FLOAT : MeasurementList.MeasurementListType.GENERAL);
+			if (i % 2 == 0) {
+				list.put("A", i);
+				list.put("B", -i);
+			} else {
+				list.put("B", -i);
+				list.put("A", i);
+				list.put("Other", 1);
+			}
+			if (i % 7 == 0)
+				list.remove("B");
+			list.close();
+			pathObjects.add(PathObjects.createDetectionObject(ROIs.createRectangleROI(i, 0, 1, 1, ImagePlane.getDefaultPlane()), null, list));
+		}
+
+		var extractor = new DefaultFeatureExtractor<>(List.of("B", "Missing", "A"));
+		var buffer = FloatBuffer.allocate(n * 3 + 2);
+		buffer.put(1f).put(2f);
+		extractor.extractFeatures(null, pathObjects, buffer);
+		assertEquals(n * 3 + 2, buffer.position());
+		assertEquals(1f, buffer.get(0));
+		for (int i = 0; i < n; i++) {
+			int pos = 2 + i * 3;
+			if (i % 7 == 0)
+				assertEquals(Float.NaN, buffer.get(pos));
+			else
+				assertEquals(-i, buffer.get(pos));
+			assertEquals(Float.NaN, buffer.get(pos + 1));
+			assertEquals(i, buffer.get(pos + 2));
+		}
+	}
+
+}
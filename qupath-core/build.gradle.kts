@@ -2,6 +2,7 @@ plugins {
   id("qupath.common-conventions")
   id("qupath.publishing-conventions")
   `java-library`
+  alias(libs.plugins.jmh)
 }
 
 extra["moduleName"] = "qupath.core"
@@ -18,4 +19,8 @@ dependencies {
   implementation(libs.commons.math)
   implementation(libs.picocli)
   implementation(libs.imagej)
-}
\ No newline at end of file
+}
+jmh {
+  // Benchmarks create large hierarchies
+  jvmArgs = listOf("-Xmx8G")
+}
@@ -0,0 +1,203 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.ROIs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for inserting detections into hierarchies from multiple threads.
+ * <p>
+ * Each thread uses its own hierarchy, as when processing several images at once.
+ * The geometry and relate caches are shared between all hierarchies, so these benchmarks show
+ * how well insertion scales when the caches are under contention.
+ * Compare the throughput of the single and multithreaded versions of each benchmark.
+ * <p>
+ * Run with {@code ./gradlew :qupath-core:jmh}.
+ */
+@Fork(value = 1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class HierarchyInsertionBenchmark {
+
+	private static final int IMAGE_SIZE = 20_000;
+
+	/**
+	 * A hierarchy containing annotations, along with detections ready to be inserted.
+	 */
+	@State(Scope.Thread)
+	public static class InsertionState {
+
+		@Param({"100"})
+		public int nAnnotations;
+
+		@Param({"10000"})
+		public int nDetections;
+
+		private final Random rng = new Random(42);
+		private PathObjectHierarchy hierarchy;
+		private List<PathObject> detections;
+
+		@Setup(Level.Invocation)
+		public void setup() {
+			hierarchy = new PathObjectHierarchy();
+			hierarchy.addObjects(createAnnotations(rng, nAnnotations));
+			detections = new ArrayList<>(nDetections);
+			for (int i = 0; i < nDetections; i++) {
+				detections.add(createDetection(rng));
+			}
+		}
+
+	}
+
+	/**
+	 * Annotations and detections for querying centroid containment, without modifying any hierarchy.
+	 */
+	@State(Scope.Benchmark)
+	public static class QueryState {
+
+		private PathObjectTileCache cache;
+		private List<PathObject> annotations;
+		private List<PathObject> detections;
+
+		@Setup(Level.Trial)
+		public void setup() {
+			var rng = new Random(42);
+			cache = new PathObjectTileCache(new PathObjectHierarchy());
+			annotations = createAnnotations(rng, 100);
+			detections = new ArrayList<>();
+			for (int i = 0; i < 4096; i++) {
+				detections.add(createDetection(rng));
+			}
+		}
+
+	}
+
+	/**
+	 * Per-thread position in the query lists.
+	 */
+	@State(Scope.Thread)
+	public static class QueryCounter {
+		private int index;
+	}
+
+
+	private static List<PathObject> createAnnotations(Random rng, int n) {
+		List<PathObject> annotations = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			double x = rng.nextDouble() * (IMAGE_SIZE - 2000);
+			double y = rng.nextDouble() * (IMAGE_SIZE - 2000);
+			double w = 500 + rng.nextDouble() * 1500;
+			double h = 500 + rng.nextDouble() * 1500;
+			// Use polygons, so that containment requires a point-in-polygon test
+			var roi = i % 2 == 0 ?
+					ROIs.createPolygonROI(ROIs.createEllipseROI(x, y, w, h, ImagePlane.getDefaultPlane()).getAllPoints(), ImagePlane.getDefaultPlane()) :
+					ROIs.createRectangleROI(x, y, w, h, ImagePlane.getDefaultPlane());
+			annotations.add(PathObjects.createAnnotationObject(roi));
+		}
+		return annotations;
+	}
+
+	private static PathObject createDetection(Random rng) {
+		double x = rng.nextDouble() * (IMAGE_SIZE - 20);
+		double y = rng.nextDouble() * (IMAGE_SIZE - 20);
+		return PathObjects.createDetectionObject(
+				ROIs.createEllipseROI(x, y, 10, 10, ImagePlane.getDefaultPlane()));
+	}
+
+
+	/**
+	 * Insert detections into a hierarchy, resolving their parents, using one thread.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 5)
+	@Measurement(iterations = 20)
+	@Threads(1)
+	public boolean insertDetections1Thread(InsertionState state) {
+		return state.hierarchy.insertPathObjects(state.detections);
+	}
+
+	/**
+	 * Insert detections into separate hierarchies, resolving their parents, using 8 threads.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 5)
+	@Measurement(iterations = 20)
+	@Threads(8)
+	public boolean insertDetections8Threads(InsertionState state) {
+		return state.hierarchy.insertPathObjects(state.detections);
+	}
+
+	/**
+	 * Check whether detection centroids fall inside annotations using one thread.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Threads(1)
+	public boolean containsCentroid1Thread(QueryState state, QueryCounter counter) {
+		return containsCentroid(state, counter);
+	}
+
+	/**
+	 * Check whether detection centroids fall inside annotations using 8 threads.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Threads(8)
+	public boolean containsCentroid8Threads(QueryState state, QueryCounter counter) {
+		return containsCentroid(state, counter);
+	}
+
+	private static boolean containsCentroid(QueryState state, QueryCounter counter) {
+		int i = counter.index++;
+		var annotation = state.annotations.get(i % state.annotations.size());
+		var detection = state.detections.get(i & (state.detections.size() - 1));
+		return state.cache.containsCentroid(annotation, detection);
+	}
+
+}
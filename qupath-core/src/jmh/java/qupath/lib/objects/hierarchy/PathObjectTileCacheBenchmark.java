@@ -0,0 +1,162 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.roi.ROIs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@link PathObjectTileCache} with a large z-stack of detections.
+ * <p>
+ * Run with {@code ./gradlew :qupath-core:jmh}.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PathObjectTileCacheBenchmark {
+
+	private static final int IMAGE_SIZE = 100_000;
+
+	@Param({"1000000"})
+	public int nDetections;
+
+	@Param({"20"})
+	public int nPlanes;
+
+	/**
+	 * Width and height of the query region, similar to a viewer at moderate magnification.
+	 */
+	@Param({"2000"})
+	public int regionSize;
+
+	private PathObjectHierarchy hierarchy;
+	private PathObjectTileCache cache;
+	private ImageRegion[] regions;
+	private List<PathObject> extraDetections;
+	private int regionIndex;
+	private int extraIndex;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		var rng = new Random(42);
+		hierarchy = new PathObjectHierarchy();
+		List<PathObject> detections = new ArrayList<>(nDetections);
+		for (int i = 0; i < nDetections; i++) {
+			detections.add(createDetection(rng, rng.nextInt(nPlanes)));
+		}
+		// Add directly to the root to avoid resolving parents for a million objects
+		hierarchy.getRootObject().addChildObjects(detections);
+		hierarchy.fireHierarchyChangedEvent(hierarchy.getRootObject());
+
+		cache = new PathObjectTileCache(hierarchy);
+
+		regions = new ImageRegion[1024];
+		for (int i = 0; i < regions.length; i++) {
+			regions[i] = ImageRegion.createInstance(
+					rng.nextInt(IMAGE_SIZE - regionSize), rng.nextInt(IMAGE_SIZE - regionSize),
+					regionSize, regionSize, rng.nextInt(nPlanes), 0);
+		}
+
+		extraDetections = new ArrayList<>();
+		for (int i = 0; i < 10_000; i++) {
+			extraDetections.add(createDetection(rng, rng.nextInt(nPlanes)));
+		}
+	}
+
+	private static PathObject createDetection(Random rng, int z) {
+		double x = rng.nextDouble() * (IMAGE_SIZE - 20);
+		double y = rng.nextDouble() * (IMAGE_SIZE - 20);
+		return PathObjects.createDetectionObject(
+				ROIs.createEllipseROI(x, y, 5 + rng.nextDouble() * 15, 5 + rng.nextDouble() * 15, ImagePlane.getPlane(z, 0)));
+	}
+
+	/**
+	 * Time to build the cache from scratch.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 2)
+	@Measurement(iterations = 5)
+	public boolean constructCache() {
+		cache.resetCache();
+		return cache.hasObjectsForRegion(null, null, true);
+	}
+
+	/**
+	 * Query a viewer-sized region on a single plane.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public void queryRegion(Blackhole bh) {
+		var region = regions[regionIndex++ & (regions.length - 1)];
+		bh.consume(cache.getObjectsForRegion(null, region, null, true));
+	}
+
+	/**
+	 * Check whether a viewer-sized region on a single plane contains any objects.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public boolean hasObjectsForRegion() {
+		var region = regions[regionIndex++ & (regions.length - 1)];
+		return cache.hasObjectsForRegion(null, region, true);
+	}
+
+	/**
+	 * Add and then remove a single detection, as happens during interactive editing.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public void addAndRemove(Blackhole bh) {
+		var pathObject = extraDetections.get(extraIndex++ % extraDetections.size());
+		hierarchy.addObject(pathObject);
+		bh.consume(cache.getObjectsForRegion(null, ImageRegion.createInstance(pathObject.getROI()), null, true));
+		hierarchy.removeObject(pathObject, false);
+	}
+
+}
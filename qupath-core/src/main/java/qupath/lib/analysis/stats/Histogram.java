@@ -373,10 +373,9 @@ public class Histogram { // implements Serializable {
         for (int i = 0; i < edges.length-1; i++) {
             double center = (edges[i] + edges[i+1]) / 2.0;
             maybeInteger = maybeInteger && Math.round(center) == center;
-            for (long k = 0; k < counts[i]; k++) {
-                stats.addValue(center);
-                countsSum++;
-            }
+            stats.addValue(center, counts[i]);
+            countsSum += counts[i];
+            maxCount = Math.max(maxCount, counts[i]);
         }
         this.isInteger = maybeInteger;
         this.stats = stats;
@@ -99,6 +99,37 @@ public class RunningStatistics {
 		}
 	}
 	
+	/**
+	 * Add the same value multiple times.
+	 * This gives the same result as calling {@link #addValue(double)} repeatedly, but the time required does not
+	 * depend upon the count.
+	 * 
+	 * @param val the value to add
+	 * @param count the number of times the value should be added
+	 */
+	void addValue(double val, long count) {
+		if (count <= 0)
+			return;
+		if (Double.isNaN(val)) {
+			numNaNs += (int)Math.min(count, Integer.MAX_VALUE - numNaNs);
+			return;
+		}
+		long sizeNew = size + count;
+		sum += val * count;
+		if (val < min)
+			min = val;
+		if (val > max)
+			max = val;
+		if (size == 0) {
+			m1 = val;
+		} else {
+			double mNew = m1 + (val - m1) * count / sizeNew;
+			s1 = s1 + (val - m1)*(val - mNew)*count;
+			m1 = mNew;
+		}
+		size = sizeNew;
+	}
+	
 	/**
 	 * Get count of the number of NaN values added.
 	 * @return
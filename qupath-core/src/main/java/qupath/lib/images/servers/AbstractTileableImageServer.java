@@ -35,10 +35,15 @@ import java.awt.image.ColorModel;
 import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
@@ -156,6 +161,129 @@ public abstract class AbstractTileableImageServer extends AbstractImageServer<Bu
 	 */
 	protected abstract BufferedImage readTile(final TileRequest tileRequest) throws IOException;
 	
+	/**
+	 * Read several image tiles together.
+	 * <p>
+	 * This is called whenever a region request requires more than one tile that isn't already cached, 
+	 * and gives subclasses the opportunity to read adjacent tiles more efficiently than with separate 
+	 * calls to {@link #readTile(TileRequest)}.
+	 * The tiles are those needed for a single request, and so are usually at the same resolution level and plane.
+	 * <p>
+	 * The default implementation returns null, to indicate that tiles should be read individually.
+	 * 
+	 * @param tileRequests the tiles to read
+	 * @return a map of tile requests to images; any tiles that are missing from the map will be read 
+	 *         individually, or null if tiles should all be read individually
+	 * @throws IOException if the tiles could not be read; tiles will then be read individually
+	 */
+	protected Map<TileRequest, BufferedImage> readTiles(final List<TileRequest> tileRequests) throws IOException {
+		return null;
+	}
+	
+	
+	/**
+	 * Read a single image tile, checking the {@link PersistentTileCache} first if one is available and
+	 * this server supports it.
+	 * Tiles that are read from the server are then added to the persistent cache.
+	 *
+	 * @param tileRequest
+	 * @return
+	 * @throws IOException
+	 * @see ImageServerProvider#getPersistentTileCache()
+	 */
+	private BufferedImage readTileWithPersistentCache(final TileRequest tileRequest) throws IOException {
+		var img = getPersistentlyCachedTile(tileRequest);
+		if (img != null)
+			return img;
+		img = readTile(tileRequest);
+		putPersistentlyCachedTile(tileRequest, img);
+		return img;
+	}
+	
+	/**
+	 * Get a tile from the {@link PersistentTileCache}, if available.
+	 * @param tileRequest
+	 * @return the cached tile, or null if the tile is not cached (or this server doesn't use the persistent cache)
+	 * @throws IOException
+	 */
+	private BufferedImage getPersistentlyCachedTile(final TileRequest tileRequest) throws IOException {
+		var persistentCache = ImageServerProvider.getPersistentTileCache();
+		String key = persistentCache == null ? null : getPersistentTileCacheKey();
+		if (key == null)
+			return null;
+
+		var request = tileRequest.getRegionRequest();
+		// RGB tiles always use standard image types, so don't need the color model
+		var colorModel = isRGB() ? null : getDefaultColorModel();
+		var img = persistentCache.get(key, request, colorModel);
+		if (img != null)
+			logger.trace("Returning persistently cached tile: {}", request);
+		return img;
+	}
+	
+	/**
+	 * Add a tile that has been read to the {@link PersistentTileCache}, if this server uses it.
+	 * @param tileRequest
+	 * @param img
+	 * @throws IOException
+	 */
+	private void putPersistentlyCachedTile(final TileRequest tileRequest, final BufferedImage img) throws IOException {
+		var persistentCache = ImageServerProvider.getPersistentTileCache();
+		String key = persistentCache == null ? null : getPersistentTileCacheKey();
+		if (key == null || img == null || isEmptyTile(img))
+			return;
+		var colorModel = isRGB() ? null : getDefaultColorModel();
+		if (img.getType() != BufferedImage.TYPE_CUSTOM || (colorModel != null && colorModel.isCompatibleRaster(img.getRaster())))
+			persistentCache.put(key, tileRequest.getRegionRequest(), img);
+	}
+
+	/**
+	 * Get a key that identifies the pixels of this server within the {@link PersistentTileCache},
+	 * or null if tiles from this server should not be cached persistently.
+	 * <p>
+	 * The key must change whenever the pixels returned by {@link #readTile(TileRequest)} could change.
+	 * For that reason, the default implementation returns null: many servers generate their pixels dynamically,
+	 * or from other servers that could change.
+	 * Servers that read pixels from files should override this method, usually to return
+	 * {@link #createDefaultPersistentTileCacheKey()}.
+	 *
+	 * @return the key, or null if the persistent tile cache should not be used
+	 */
+	protected String getPersistentTileCacheKey() {
+		return null;
+	}
+
+	private transient String defaultPersistentTileCacheKey;
+
+	/**
+	 * Create a key for the {@link PersistentTileCache} from the path of this server, along with the size and
+	 * last modified time of any local files it uses.
+	 * This means that tiles are read again if a file is replaced.
+	 * The key is only created once for each server instance.
+	 *
+	 * @return the key
+	 * @see #getPersistentTileCacheKey()
+	 */
+	protected String createDefaultPersistentTileCacheKey() {
+		if (defaultPersistentTileCacheKey == null) {
+			var sb = new StringBuilder(getPath());
+			for (var uri : getURIs()) {
+				sb.append("|").append(uri);
+				if ("file".equals(uri.getScheme())) {
+					try {
+						var path = Paths.get(uri);
+						if (Files.isRegularFile(path))
+							sb.append(":").append(Files.size(path)).append(":").append(Files.getLastModifiedTime(path).toMillis());
+					} catch (Exception e) {
+						logger.debug("Unable to get file attributes for {}: {}", uri, e.getMessage());
+					}
+				}
+			}
+			defaultPersistentTileCacheKey = sb.toString();
+		}
+		return defaultPersistentTileCacheKey;
+	}
+	
 	
 	/**
 	 * Map of tiles currently being requested, so avoid duplicate requests (wait instead for the first request to return).
@@ -177,7 +305,12 @@ public abstract class AbstractTileableImageServer extends AbstractImageServer<Bu
 			this.thread = thread;
 		}
 		
-		
+		/**
+		 * Complete the task with a tile that has been read elsewhere; the callable will then not be run.
+		 */
+		private void complete(BufferedImage img) {
+			set(img);
+		}
 		
 	}
 		
@@ -206,7 +339,7 @@ public abstract class AbstractTileableImageServer extends AbstractImageServer<Bu
 		logger.trace("Reading tile: {}", request);
 		
 		BufferedImage imgCached = null;
-		var futureTask = pendingTiles.computeIfAbsent(tileRequest, t -> new TileTask(Thread.currentThread(), () -> readTile(t)));
+		var futureTask = pendingTiles.computeIfAbsent(tileRequest, t -> new TileTask(Thread.currentThread(), () -> readTileWithPersistentCache(t)));
 		var myTask = futureTask.thread == Thread.currentThread();
 		try {
 			if (myTask)
@@ -508,12 +641,51 @@ public abstract class AbstractTileableImageServer extends AbstractImageServer<Bu
 	 */
 	private void prerequestTiles(Collection<TileRequest> tiles) {
 		var cache = getCache();
+		Map<TileRequest, TileTask> myTasks = new LinkedHashMap<>();
 		for (var tile : tiles) {
 			if (cache == null || !cache.containsKey(tile.getRegionRequest()) && !pendingTiles.containsKey(tile)) {
-				var futureTask = pendingTiles.computeIfAbsent(tile, t -> new TileTask(Thread.currentThread(), () -> readTile(t)));
-				if (futureTask.thread == Thread.currentThread())
-					futureTask.run();
+				var futureTask = pendingTiles.computeIfAbsent(tile, t -> new TileTask(Thread.currentThread(), () -> readTileWithPersistentCache(t)));
+				if (futureTask.thread == Thread.currentThread() && !futureTask.isDone())
+					myTasks.put(tile, futureTask);
+			}
+		}
+		if (myTasks.size() > 1)
+			readTilesTogether(myTasks);
+		// Read any tiles that weren't read together (this does nothing for tasks that are already complete)
+		for (var task : myTasks.values())
+			task.run();
+	}
+	
+	/**
+	 * Try to read tiles with a single call to {@link #readTiles(List)}, completing the corresponding tasks.
+	 * Tiles that are available from the persistent cache are not read again.
+	 * @param tasks
+	 */
+	private void readTilesTogether(Map<TileRequest, TileTask> tasks) {
+		try {
+			List<TileRequest> tilesToRead = new ArrayList<>();
+			for (var entry : tasks.entrySet()) {
+				var img = getPersistentlyCachedTile(entry.getKey());
+				if (img == null)
+					tilesToRead.add(entry.getKey());
+				else
+					entry.getValue().complete(img);
+			}
+			if (tilesToRead.size() < 2)
+				return;
+			var images = readTiles(tilesToRead);
+			if (images == null)
+				return;
+			logger.trace("Read {} tiles together", images.size());
+			for (var tile : tilesToRead) {
+				var img = images.get(tile);
+				if (img != null) {
+					putPersistentlyCachedTile(tile, img);
+					tasks.get(tile).complete(img);
+				}
 			}
+		} catch (IOException e) {
+			logger.debug("Unable to read {} tiles together: {}", tasks.size(), e.getMessage(), e);
 		}
 	}
 	
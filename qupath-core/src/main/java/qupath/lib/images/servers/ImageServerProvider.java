@@ -85,6 +85,29 @@ public class ImageServerProvider {
 		return (Map<RegionRequest, T>)cacheMap.get(cls);
 	}
 	
+	private static volatile PersistentTileCache persistentTileCache;
+
+	/**
+	 * Set the cache to be used for storing image tiles on disk, so that they can be reused across sessions.
+	 * Servers check this cache before reading a tile that isn't found in the cache returned by {@link #getCache(Class)}.
+	 * <p>
+	 * Note that the previous persistent cache (if any) is not closed automatically.
+	 * 
+	 * @param cache the persistent cache, or null if no persistent cache should be used
+	 * @see AbstractTileableImageServer#getPersistentTileCacheKey()
+	 */
+	public static void setPersistentTileCache(PersistentTileCache cache) {
+		persistentTileCache = cache;
+	}
+	
+	/**
+	 * Get the cache used for storing image tiles on disk.
+	 * @return the persistent cache, or null if no persistent cache should be used
+	 */
+	public static PersistentTileCache getPersistentTileCache() {
+		return persistentTileCache;
+	}
+	
 	/**
 	 * Replace the default service loader with another.
 	 * <p>
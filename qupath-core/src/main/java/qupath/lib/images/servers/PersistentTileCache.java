@@ -0,0 +1,1009 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.servers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.regions.RegionRequest;
+
+import java.awt.image.BandedSampleModel;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Size-bounded cache that stores decoded image tiles on disk, so that they can be reused across sessions
+ * and by different viewers without needing to read them from the original image again.
+ * <p>
+ * This is most useful for images that are slow to read, e.g. because they are stored on a network drive
+ * or use an expensive compression scheme.
+ * Tiles are stored losslessly (using fast deflate compression) in a small number of append-only segment files,
+ * along with a compact index mapping a 128-bit hash of each tile key to its location.
+ * <p>
+ * Tiles are identified by a server key and a {@link RegionRequest}. The server key should change whenever the pixels
+ * of the server could change (e.g. if the underlying file is modified);
+ * see {@link AbstractTileableImageServer#getPersistentTileCacheKey()}.
+ * <p>
+ * When the cache exceeds its maximum size, the oldest segment is deleted.
+ * Tiles that are requested from older segments are copied into the newest segment, so that eviction approximates
+ * least-recently-used order.
+ * <p>
+ * Tiles are written on a background thread, so that adding a tile never blocks reading.
+ * Each record stores the full tile key and a CRC32 of its contents, which are checked before a tile is decoded;
+ * a record that doesn't match is treated as a miss.
+ * <p>
+ * Instances are thread-safe, but a directory can only be used by one instance at a time.
+ * This is enforced with an exclusive lock on a file in the directory, so that different processes don't overwrite
+ * each other's segments.
+ */
+public class PersistentTileCache implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(PersistentTileCache.class);
+
+	private static final int RECORD_MAGIC = 0x51544332; // QTC2
+	private static final int INDEX_MAGIC = 0x51544958; // QTIX
+	private static final int INDEX_VERSION = 2;
+	private static final int TILE_VERSION = 1;
+
+	/**
+	 * Record header: magic, key (high and low), payload length, payload CRC32
+	 */
+	private static final int RECORD_HEADER_BYTES = 4 + 8 + 8 + 4 + 4;
+
+	private static final String INDEX_NAME = "index.bin";
+	private static final String LOCK_NAME = "cache.lock";
+	private static final Pattern SEGMENT_PATTERN = Pattern.compile("segment-(\\d{8})\\.dat");
+
+	private static final int SAMPLE_MODEL_PIXEL_INTERLEAVED = 0;
+	private static final int SAMPLE_MODEL_BANDED = 1;
+	private static final int SAMPLE_MODEL_COMPONENT = 2;
+	private static final int SAMPLE_MODEL_SINGLE_PIXEL_PACKED = 3;
+
+	/**
+	 * Maximum number of tiles that may be waiting to be written.
+	 * If tiles are read faster than they can be written, additional tiles are skipped rather than held in memory.
+	 */
+	private static final int MAX_PENDING_WRITES = 64;
+
+	/**
+	 * Write the index after this many tiles have been added.
+	 * Tiles written since the index was last saved are recovered by scanning the segments.
+	 */
+	private static final int INDEX_WRITE_INTERVAL = 512;
+
+	private static final long MAX_SEGMENT_BYTES = 256L * 1024L * 1024L;
+	private static final long MIN_SEGMENT_BYTES = 1024L * 1024L;
+
+	private static final Map<Integer, ColorModel> standardColorModels = new ConcurrentHashMap<>();
+
+	private final Path directory;
+	private final long maxSizeBytes;
+	private final long segmentSizeBytes;
+	private final FileLock lock;
+
+	private final Map<TileKey, Location> index = new HashMap<>();
+	private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+	private long totalBytes;
+
+	private final ExecutorService writer;
+	private final AtomicInteger pendingWrites = new AtomicInteger();
+	private int writesSinceIndex = 0;
+	private boolean closed = false;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder writes = new LongAdder();
+	private final LongAdder evictedSegments = new LongAdder();
+
+	private PersistentTileCache(Path directory, long maxSizeBytes, FileLock lock) {
+		this.directory = directory;
+		this.maxSizeBytes = maxSizeBytes;
+		this.lock = lock;
+		this.segmentSizeBytes = Math.max(MIN_SEGMENT_BYTES, Math.min(MAX_SEGMENT_BYTES, maxSizeBytes / 8));
+		this.writer = Executors.newSingleThreadExecutor(r -> {
+			var thread = new Thread(r, "persistent-tile-cache");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Open a persistent tile cache, creating the directory if necessary.
+	 * Any tiles stored previously in the directory become available immediately.
+	 *
+	 * @param directory directory used to store the tiles
+	 * @param maxSizeBytes maximum number of bytes to use for storing tiles
+	 * @return the cache
+	 * @throws IOException if the directory cannot be created or read, or is already in use by another cache
+	 *                     (possibly in another process)
+	 * @throws IllegalArgumentException if the maximum size is not positive
+	 */
+	public static PersistentTileCache open(Path directory, long maxSizeBytes) throws IOException, IllegalArgumentException {
+		if (maxSizeBytes <= 0)
+			throw new IllegalArgumentException("Maximum persistent tile cache size must be > 0, but was " + maxSizeBytes);
+		Files.createDirectories(directory);
+		var lock = lockDirectory(directory);
+		var cache = new PersistentTileCache(directory, maxSizeBytes, lock);
+		try {
+			synchronized (cache) {
+				cache.load();
+				cache.evictIfNeeded();
+			}
+		} catch (IOException | RuntimeException e) {
+			// Don't write the index, since it may be incomplete
+			cache.writer.shutdown();
+			synchronized (cache) {
+				cache.releaseFiles();
+			}
+			throw e;
+		}
+		logger.debug("Opened {}", cache);
+		return cache;
+	}
+
+	/**
+	 * Take an exclusive lock on the cache directory.
+	 * The lock is held until the cache is closed, or the process exits.
+	 */
+	private static FileLock lockDirectory(Path directory) throws IOException {
+		var channel = FileChannel.open(directory.resolve(LOCK_NAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		FileLock lock;
+		try {
+			lock = channel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			// Already locked within this process
+			lock = null;
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		if (lock == null) {
+			channel.close();
+			throw new IOException("Persistent tile cache directory " + directory + " is already in use");
+		}
+		return lock;
+	}
+
+	/**
+	 * Get the directory used to store the tiles.
+	 * @return
+	 */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Query whether a tile can be stored in this cache.
+	 * This requires that the image uses one of the standard Java sample models and data buffers without any offsets,
+	 * and does not use an indexed color model.
+	 *
+	 * @param img
+	 * @return
+	 */
+	public static boolean isSupported(BufferedImage img) {
+		if (img == null)
+			return false;
+		int type = img.getType();
+		if (type == BufferedImage.TYPE_BYTE_BINARY || type == BufferedImage.TYPE_BYTE_INDEXED)
+			return false;
+		var raster = img.getRaster();
+		if (raster.getParent() != null || raster.getMinX() != 0 || raster.getMinY() != 0 ||
+				raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0)
+			return false;
+		var sampleModel = raster.getSampleModel();
+		if (sampleModel.getWidth() != img.getWidth() || sampleModel.getHeight() != img.getHeight())
+			return false;
+		if (sampleModelKind(sampleModel) < 0)
+			return false;
+		var buffer = raster.getDataBuffer();
+		for (int offset : buffer.getOffsets()) {
+			if (offset != 0)
+				return false;
+		}
+		return switch (buffer.getDataType()) {
+			case DataBuffer.TYPE_BYTE, DataBuffer.TYPE_USHORT, DataBuffer.TYPE_SHORT, DataBuffer.TYPE_INT,
+				 DataBuffer.TYPE_FLOAT, DataBuffer.TYPE_DOUBLE -> true;
+			default -> false;
+		};
+	}
+
+	/**
+	 * Query whether a tile is stored in the cache.
+	 * This only checks the index, and doesn't confirm that the tile can be read.
+	 *
+	 * @param serverKey key identifying the pixels of the server
+	 * @param request region request for the tile
+	 * @return
+	 */
+	public boolean contains(String serverKey, RegionRequest request) {
+		var key = createKey(serverKey, request);
+		synchronized (this) {
+			return index.containsKey(key);
+		}
+	}
+
+	/**
+	 * Get a tile from the cache.
+	 *
+	 * @param serverKey key identifying the pixels of the server
+	 * @param request region request for the tile
+	 * @param colorModel color model to use if the tile did not have one of the standard {@link BufferedImage} types;
+	 *                   this should be compatible with the tile's raster
+	 * @return the tile, or null if no tile could be found
+	 */
+	public BufferedImage get(String serverKey, RegionRequest request, ColorModel colorModel) {
+		var key = createKey(serverKey, request);
+		Location location;
+		FileChannel channel;
+		boolean promote;
+		synchronized (this) {
+			location = closed ? null : index.get(key);
+			if (location == null) {
+				misses.increment();
+				return null;
+			}
+			var segment = segments.get(location.segment());
+			channel = segment.channel;
+			// Copy tiles in the oldest half of the segments forward, so that they are evicted last
+			promote = segments.size() > 1 && location.segment() < segments.firstKey() + segments.size() / 2 + (segments.size() % 2);
+		}
+		try {
+			var payload = readPayload(channel, location, key);
+			var img = decode(payload, colorModel);
+			if (img == null) {
+				misses.increment();
+				return null;
+			}
+			hits.increment();
+			if (promote)
+				submitWrite(key, payload);
+			return img;
+		} catch (IOException e) {
+			// This can occur if the segment was deleted while reading, or the record doesn't match the index
+			logger.debug("Unable to read {} from persistent tile cache: {}", request, e.getMessage());
+			synchronized (this) {
+				if (location.equals(index.get(key)))
+					index.remove(key);
+			}
+			misses.increment();
+			return null;
+		}
+	}
+
+	/**
+	 * Read the payload of a record, checking that the header matches the key and the payload matches its checksum.
+	 * @throws IOException if the record can't be read or doesn't match
+	 */
+	private static byte[] readPayload(FileChannel channel, Location location, TileKey key) throws IOException {
+		var buffer = ByteBuffer.allocate(RECORD_HEADER_BYTES + location.length());
+		long pos = location.offset() - RECORD_HEADER_BYTES;
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, pos + buffer.position());
+			if (n < 0)
+				throw new IOException("Unexpected end of persistent tile cache segment");
+		}
+		buffer.flip();
+		if (buffer.getInt() != RECORD_MAGIC || buffer.getLong() != key.high() || buffer.getLong() != key.low() ||
+				buffer.getInt() != location.length())
+			throw new IOException("Persistent tile cache record doesn't match the index");
+		int crc = buffer.getInt();
+		byte[] payload = new byte[location.length()];
+		buffer.get(payload);
+		if (crc != crc32(payload))
+			throw new IOException("Persistent tile cache record has an invalid checksum");
+		return payload;
+	}
+
+	private static int crc32(byte[] bytes) {
+		var crc = new CRC32();
+		crc.update(bytes);
+		return (int)crc.getValue();
+	}
+
+	/**
+	 * Request that a tile is added to the cache.
+	 * The tile is written asynchronously, and may be skipped if too many other tiles are already waiting to be written.
+	 * The tile should not be modified after calling this method.
+	 *
+	 * @param serverKey key identifying the pixels of the server
+	 * @param request region request for the tile
+	 * @param img the tile
+	 * @return true if the tile was queued for writing, false otherwise (e.g. because it isn't supported)
+	 * @see #isSupported(BufferedImage)
+	 */
+	public boolean put(String serverKey, RegionRequest request, BufferedImage img) {
+		if (!isSupported(img))
+			return false;
+		var key = createKey(serverKey, request);
+		synchronized (this) {
+			if (closed || index.containsKey(key))
+				return false;
+		}
+		if (pendingWrites.incrementAndGet() > MAX_PENDING_WRITES) {
+			pendingWrites.decrementAndGet();
+			return false;
+		}
+		try {
+			writer.execute(() -> {
+				try {
+					append(key, encode(img));
+				} catch (Exception e) {
+					logger.warn("Unable to write {} to persistent tile cache: {}", request, e.getMessage());
+					logger.debug(e.getMessage(), e);
+				} finally {
+					pendingWrites.decrementAndGet();
+				}
+			});
+			return true;
+		} catch (Exception e) {
+			pendingWrites.decrementAndGet();
+			return false;
+		}
+	}
+
+	private void submitWrite(TileKey key, byte[] bytes) {
+		if (pendingWrites.incrementAndGet() > MAX_PENDING_WRITES) {
+			pendingWrites.decrementAndGet();
+			return;
+		}
+		try {
+			writer.execute(() -> {
+				try {
+					append(key, bytes);
+				} catch (IOException e) {
+					logger.debug("Unable to copy tile in persistent tile cache: {}", e.getMessage());
+				} finally {
+					pendingWrites.decrementAndGet();
+				}
+			});
+		} catch (Exception e) {
+			pendingWrites.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Wait for all pending tiles to be written, and then save the index.
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		try {
+			writer.submit(() -> null).get();
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+		synchronized (this) {
+			if (!closed)
+				writeIndex();
+		}
+	}
+
+	/**
+	 * Remove all tiles from the cache, deleting the files from disk.
+	 * @throws IOException
+	 */
+	public void clear() throws IOException {
+		try {
+			writer.submit(() -> null).get();
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+		synchronized (this) {
+			for (var segment : segments.values()) {
+				segment.close();
+				Files.deleteIfExists(segment.path);
+			}
+			segments.clear();
+			index.clear();
+			totalBytes = 0;
+			writeIndex();
+		}
+	}
+
+	/**
+	 * Get the number of tiles currently in the cache.
+	 * @return
+	 */
+	public synchronized int size() {
+		return index.size();
+	}
+
+	/**
+	 * Get the number of bytes used by the cache on disk.
+	 * This can include space used by old copies of tiles, which is reclaimed when their segment is removed.
+	 * @return
+	 */
+	public synchronized long getSizeBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * Get the maximum number of bytes the cache may use on disk.
+	 * @return
+	 */
+	public long getMaxSizeBytes() {
+		return maxSizeBytes;
+	}
+
+	/**
+	 * Get the number of requests for tiles that were found in the cache.
+	 * @return
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * Get the number of requests for tiles that were not found in the cache.
+	 * @return
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * Get the number of tiles that have been written to the cache.
+	 * @return
+	 */
+	public long getWriteCount() {
+		return writes.sum();
+	}
+
+	/**
+	 * Get the number of segments that have been removed to keep the cache within its maximum size.
+	 * @return
+	 */
+	public long getEvictedSegmentCount() {
+		return evictedSegments.sum();
+	}
+
+	/**
+	 * Write any pending tiles, save the index and release all open files.
+	 * The cache cannot be used after it has been closed.
+	 */
+	@Override
+	public void close() {
+		writer.shutdown();
+		try {
+			if (!writer.awaitTermination(10, TimeUnit.SECONDS))
+				logger.warn("Timed out waiting for persistent tile cache writes to complete");
+		} catch (InterruptedException e) {
+			logger.debug("Interrupted while closing persistent tile cache");
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			if (closed)
+				return;
+			try {
+				writeIndex();
+			} catch (IOException e) {
+				logger.warn("Unable to write persistent tile cache index: {}", e.getMessage());
+			}
+			releaseFiles();
+		}
+	}
+
+	/**
+	 * Close all segments and release the directory lock.
+	 */
+	private void releaseFiles() {
+		for (var segment : segments.values())
+			segment.close();
+		closed = true;
+		try {
+			lock.release();
+			lock.channel().close();
+		} catch (IOException e) {
+			logger.debug("Unable to release persistent tile cache lock: {}", e.getMessage());
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("PersistentTileCache[%s, %d tiles, %.1f/%.1f MB, %d hits, %d misses]",
+				directory, size(), getSizeBytes() / (1024.0 * 1024.0), maxSizeBytes / (1024.0 * 1024.0),
+				getHitCount(), getMissCount());
+	}
+
+
+	/**
+	 * Append a tile to the newest segment, update the index and remove old segments if needed.
+	 * This should only be called from the writer thread.
+	 */
+	private synchronized void append(TileKey key, byte[] payload) throws IOException {
+		if (closed)
+			return;
+		var segment = segments.isEmpty() ? null : segments.lastEntry().getValue();
+		if (segment == null || segment.size + RECORD_HEADER_BYTES + payload.length > segmentSizeBytes && segment.size > 0)
+			segment = createSegment(segments.isEmpty() ? 0 : segments.lastKey() + 1);
+
+		var buffer = ByteBuffer.allocate(RECORD_HEADER_BYTES + payload.length);
+		buffer.putInt(RECORD_MAGIC);
+		buffer.putLong(key.high());
+		buffer.putLong(key.low());
+		buffer.putInt(payload.length);
+		buffer.putInt(crc32(payload));
+		buffer.put(payload);
+		buffer.flip();
+		long pos = segment.size;
+		while (buffer.hasRemaining())
+			segment.channel.write(buffer, pos + buffer.position());
+		segment.size += buffer.limit();
+		totalBytes += buffer.limit();
+		index.put(key, new Location(segment.id, pos + RECORD_HEADER_BYTES, payload.length));
+		writes.increment();
+
+		evictIfNeeded();
+
+		if (++writesSinceIndex >= INDEX_WRITE_INTERVAL)
+			writeIndex();
+	}
+
+	private void evictIfNeeded() {
+		while (totalBytes > maxSizeBytes && segments.size() > 1) {
+			var segment = segments.pollFirstEntry().getValue();
+			segment.close();
+			try {
+				Files.deleteIfExists(segment.path);
+			} catch (IOException e) {
+				logger.warn("Unable to delete {}: {}", segment.path, e.getMessage());
+			}
+			totalBytes -= segment.size;
+			index.values().removeIf(l -> l.segment() == segment.id);
+			evictedSegments.increment();
+			logger.debug("Removed persistent tile cache segment {}", segment.path);
+		}
+	}
+
+	private Segment createSegment(int id) throws IOException {
+		var path = directory.resolve(String.format("segment-%08d.dat", id));
+		var segment = new Segment(id, path, FileChannel.open(path,
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+		segment.size = segment.channel.size();
+		segments.put(id, segment);
+		return segment;
+	}
+
+
+	/**
+	 * Load the index (if available) and scan any parts of segments that aren't included in it.
+	 */
+	private void load() throws IOException {
+		Map<Integer, Long> indexedLengths = readIndex();
+
+		List<Integer> ids = new ArrayList<>();
+		try (var stream = Files.list(directory)) {
+			for (var path : (Iterable<Path>)stream::iterator) {
+				var matcher = SEGMENT_PATTERN.matcher(path.getFileName().toString());
+				if (matcher.matches())
+					ids.add(Integer.parseInt(matcher.group(1)));
+			}
+		}
+		ids.sort(null);
+
+		// Remove entries for segments that no longer exist
+		var idSet = new HashSet<>(ids);
+		index.values().removeIf(l -> !idSet.contains(l.segment()));
+
+		for (int id : ids) {
+			var segment = createSegment(id);
+			long indexedLength = indexedLengths.getOrDefault(id, 0L);
+			if (indexedLength > segment.size) {
+				// Segment is shorter than expected - don't trust the index for it
+				int segmentId = id;
+				index.values().removeIf(l -> l.segment() == segmentId);
+				indexedLength = 0;
+			}
+			if (indexedLength < segment.size)
+				scanSegment(segment, indexedLength);
+			totalBytes += segment.size;
+		}
+		writesSinceIndex = 0;
+	}
+
+	/**
+	 * Add the records in a segment to the index, starting from the specified offset.
+	 * If an incomplete or corrupt record is found (e.g. because QuPath exited while writing),
+	 * the segment is truncated.
+	 * Segments written with an older record format are discarded in the same way.
+	 */
+	private void scanSegment(Segment segment, long offset) throws IOException {
+		var header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+		long pos = offset;
+		int nRecords = 0;
+		while (pos + RECORD_HEADER_BYTES <= segment.size) {
+			header.clear();
+			while (header.hasRemaining()) {
+				if (segment.channel.read(header, pos + header.position()) < 0)
+					break;
+			}
+			header.flip();
+			if (header.remaining() < RECORD_HEADER_BYTES || header.getInt() != RECORD_MAGIC)
+				break;
+			var key = new TileKey(header.getLong(), header.getLong());
+			int length = header.getInt();
+			if (length < 0 || pos + RECORD_HEADER_BYTES + length > segment.size)
+				break;
+			var location = new Location(segment.id, pos + RECORD_HEADER_BYTES, length);
+			try {
+				readPayload(segment.channel, location, key);
+			} catch (IOException e) {
+				break;
+			}
+			index.put(key, location);
+			pos += RECORD_HEADER_BYTES + length;
+			nRecords++;
+		}
+		if (pos < segment.size) {
+			logger.debug("Truncating {} from {} to {} bytes", segment.path, segment.size, pos);
+			segment.channel.truncate(pos);
+			segment.size = pos;
+		}
+		logger.trace("Found {} tiles in {} from offset {}", nRecords, segment.path, offset);
+	}
+
+	private Map<Integer, Long> readIndex() {
+		var path = directory.resolve(INDEX_NAME);
+		Map<Integer, Long> lengths = new HashMap<>();
+		if (!Files.exists(path))
+			return lengths;
+		try (var stream = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if (stream.readInt() != INDEX_MAGIC || stream.readInt() != INDEX_VERSION) {
+				logger.debug("Ignoring persistent tile cache index with unknown format");
+				return lengths;
+			}
+			int nSegments = stream.readInt();
+			for (int i = 0; i < nSegments; i++)
+				lengths.put(stream.readInt(), stream.readLong());
+			int nEntries = stream.readInt();
+			for (int i = 0; i < nEntries; i++) {
+				var key = new TileKey(stream.readLong(), stream.readLong());
+				var location = new Location(stream.readInt(), stream.readLong(), stream.readInt());
+				index.put(key, location);
+			}
+		} catch (IOException e) {
+			logger.warn("Unable to read persistent tile cache index - tiles will be reindexed ({})", e.getMessage());
+			index.clear();
+			lengths.clear();
+		}
+		return lengths;
+	}
+
+	private void writeIndex() throws IOException {
+		var path = directory.resolve(INDEX_NAME);
+		var pathTemp = directory.resolve(INDEX_NAME + ".tmp");
+		try (var stream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(pathTemp)))) {
+			stream.writeInt(INDEX_MAGIC);
+			stream.writeInt(INDEX_VERSION);
+			stream.writeInt(segments.size());
+			for (var segment : segments.values()) {
+				stream.writeInt(segment.id);
+				stream.writeLong(segment.size);
+			}
+			stream.writeInt(index.size());
+			for (var entry : index.entrySet()) {
+				var key = entry.getKey();
+				var location = entry.getValue();
+				stream.writeLong(key.high());
+				stream.writeLong(key.low());
+				stream.writeInt(location.segment());
+				stream.writeLong(location.offset());
+				stream.writeInt(location.length());
+			}
+		}
+		Files.move(pathTemp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		writesSinceIndex = 0;
+	}
+
+
+	/**
+	 * Create a 128-bit key for a tile.
+	 * The request path isn't used, since the server key is expected to identify the pixels more precisely.
+	 */
+	static TileKey createKey(String serverKey, RegionRequest request) {
+		String key = serverKey + "|" + request.getDownsample() + "|" +
+				request.getX() + "|" + request.getY() + "|" + request.getWidth() + "|" + request.getHeight() + "|" +
+				request.getZ() + "|" + request.getT();
+		try {
+			var digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+			var buffer = ByteBuffer.wrap(digest);
+			return new TileKey(buffer.getLong(), buffer.getLong());
+		} catch (NoSuchAlgorithmException e) {
+			// MD5 is required to be available on every Java platform
+			throw new IllegalStateException(e);
+		}
+	}
+
+
+	/**
+	 * Encode a tile as a deflate-compressed byte array containing the sample model and pixel values.
+	 */
+	static byte[] encode(BufferedImage img) throws IOException {
+		var raster = img.getRaster();
+		var sampleModel = raster.getSampleModel();
+		var buffer = raster.getDataBuffer();
+		int kind = sampleModelKind(sampleModel);
+
+		var bytes = new ByteArrayOutputStream();
+		var deflater = new Deflater(Deflater.BEST_SPEED);
+		try (var stream = new DataOutputStream(new DeflaterOutputStream(bytes, deflater, 65536))) {
+			stream.writeByte(TILE_VERSION);
+			stream.writeInt(img.getWidth());
+			stream.writeInt(img.getHeight());
+			stream.writeInt(img.getType());
+			stream.writeBoolean(img.isAlphaPremultiplied());
+			stream.writeInt(buffer.getDataType());
+			stream.writeInt(kind);
+			stream.writeInt(sampleModel.getNumBands());
+			if (sampleModel instanceof ComponentSampleModel csm) {
+				stream.writeInt(csm.getPixelStride());
+				stream.writeInt(csm.getScanlineStride());
+				writeInts(stream, csm.getBankIndices());
+				writeInts(stream, csm.getBandOffsets());
+			} else if (sampleModel instanceof SinglePixelPackedSampleModel sppsm) {
+				stream.writeInt(sppsm.getScanlineStride());
+				writeInts(stream, sppsm.getBitMasks());
+			}
+			stream.writeInt(buffer.getNumBanks());
+			for (int b = 0; b < buffer.getNumBanks(); b++) {
+				writeBank(stream, buffer, b);
+			}
+		} finally {
+			deflater.end();
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decode a tile created with {@link #encode(BufferedImage)}.
+	 * @return the tile, or null if a compatible color model is not available
+	 */
+	static BufferedImage decode(byte[] bytes, ColorModel colorModel) throws IOException {
+		try (var stream = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(bytes), new Inflater(), 65536))) {
+			int version = stream.readByte();
+			if (version != TILE_VERSION)
+				throw new IOException("Unsupported persistent tile version " + version);
+			int width = stream.readInt();
+			int height = stream.readInt();
+			int imageType = stream.readInt();
+			boolean alphaPremultiplied = stream.readBoolean();
+			int dataType = stream.readInt();
+			int kind = stream.readInt();
+			int nBands = stream.readInt();
+			SampleModel sampleModel = switch (kind) {
+				case SAMPLE_MODEL_PIXEL_INTERLEAVED, SAMPLE_MODEL_BANDED, SAMPLE_MODEL_COMPONENT -> {
+					int pixelStride = stream.readInt();
+					int scanlineStride = stream.readInt();
+					int[] bankIndices = readInts(stream, nBands);
+					int[] bandOffsets = readInts(stream, nBands);
+					if (kind == SAMPLE_MODEL_PIXEL_INTERLEAVED)
+						yield new PixelInterleavedSampleModel(dataType, width, height, pixelStride, scanlineStride, bandOffsets);
+					else if (kind == SAMPLE_MODEL_BANDED)
+						yield new BandedSampleModel(dataType, width, height, scanlineStride, bankIndices, bandOffsets);
+					else
+						yield new ComponentSampleModel(dataType, width, height, pixelStride, scanlineStride, bankIndices, bandOffsets);
+				}
+				case SAMPLE_MODEL_SINGLE_PIXEL_PACKED -> {
+					int scanlineStride = stream.readInt();
+					int[] bitMasks = readInts(stream, nBands);
+					yield new SinglePixelPackedSampleModel(dataType, width, height, scanlineStride, bitMasks);
+				}
+				default -> throw new IOException("Unsupported persistent tile sample model " + kind);
+			};
+			int nBanks = stream.readInt();
+			var buffer = readBanks(stream, dataType, nBanks);
+			WritableRaster raster = Raster.createWritableRaster(sampleModel, buffer, null);
+
+			if (imageType != BufferedImage.TYPE_CUSTOM)
+				colorModel = standardColorModels.computeIfAbsent(imageType, t -> new BufferedImage(1, 1, t).getColorModel());
+			if (colorModel == null || !colorModel.isCompatibleRaster(raster))
+				return null;
+			return new BufferedImage(colorModel, raster, alphaPremultiplied, null);
+		}
+	}
+
+	private static int sampleModelKind(SampleModel sampleModel) {
+		// Check subclasses before ComponentSampleModel, so that the exact class is restored
+		if (sampleModel.getClass() == PixelInterleavedSampleModel.class)
+			return SAMPLE_MODEL_PIXEL_INTERLEAVED;
+		if (sampleModel.getClass() == BandedSampleModel.class)
+			return SAMPLE_MODEL_BANDED;
+		if (sampleModel.getClass() == ComponentSampleModel.class)
+			return SAMPLE_MODEL_COMPONENT;
+		if (sampleModel.getClass() == SinglePixelPackedSampleModel.class)
+			return SAMPLE_MODEL_SINGLE_PIXEL_PACKED;
+		return -1;
+	}
+
+	private static void writeInts(DataOutputStream stream, int[] values) throws IOException {
+		for (int v : values)
+			stream.writeInt(v);
+	}
+
+	private static int[] readInts(DataInputStream stream, int n) throws IOException {
+		int[] values = new int[n];
+		for (int i = 0; i < n; i++)
+			values[i] = stream.readInt();
+		return values;
+	}
+
+	/**
+	 * Write exactly {@link DataBuffer#getSize()} elements of a bank, starting from the bank offset.
+	 * The bank array may be larger than this (e.g. if it is shared with another buffer), but the extra elements 
+	 * aren't part of the image.
+	 */
+	private static void writeBank(DataOutputStream stream, DataBuffer buffer, int bank) throws IOException {
+		int n = buffer.getSize();
+		int offset = buffer.getOffsets()[bank];
+		stream.writeInt(n);
+		switch (buffer) {
+			case DataBufferByte b -> stream.write(b.getData(bank), offset, n);
+			case DataBufferUShort b -> {
+				var bytes = ByteBuffer.allocate(n * 2);
+				bytes.asShortBuffer().put(b.getData(bank), offset, n);
+				stream.write(bytes.array());
+			}
+			case DataBufferShort b -> {
+				var bytes = ByteBuffer.allocate(n * 2);
+				bytes.asShortBuffer().put(b.getData(bank), offset, n);
+				stream.write(bytes.array());
+			}
+			case DataBufferInt b -> {
+				var bytes = ByteBuffer.allocate(n * 4);
+				bytes.asIntBuffer().put(b.getData(bank), offset, n);
+				stream.write(bytes.array());
+			}
+			case DataBufferFloat b -> {
+				var bytes = ByteBuffer.allocate(n * 4);
+				bytes.asFloatBuffer().put(b.getData(bank), offset, n);
+				stream.write(bytes.array());
+			}
+			case DataBufferDouble b -> {
+				var bytes = ByteBuffer.allocate(n * 8);
+				bytes.asDoubleBuffer().put(b.getData(bank), offset, n);
+				stream.write(bytes.array());
+			}
+			default -> throw new IOException("Unsupported DataBuffer " + buffer.getClass());
+		}
+	}
+
+	private static DataBuffer readBanks(DataInputStream stream, int dataType, int nBanks) throws IOException {
+		int bytesPerElement = DataBuffer.getDataTypeSize(dataType) / 8;
+		int size = -1;
+		var banks = new ByteBuffer[nBanks];
+		for (int b = 0; b < nBanks; b++) {
+			int n = stream.readInt();
+			if (size >= 0 && n != size)
+				throw new IOException("Inconsistent bank sizes in persistent tile");
+			size = n;
+			var bytes = new byte[n * bytesPerElement];
+			stream.readFully(bytes);
+			banks[b] = ByteBuffer.wrap(bytes);
+		}
+		switch (dataType) {
+			case DataBuffer.TYPE_BYTE:
+				var byteData = new byte[nBanks][];
+				for (int b = 0; b < nBanks; b++)
+					byteData[b] = banks[b].array();
+				return new DataBufferByte(byteData, size);
+			case DataBuffer.TYPE_USHORT:
+			case DataBuffer.TYPE_SHORT:
+				var shortData = new short[nBanks][size];
+				for (int b = 0; b < nBanks; b++)
+					banks[b].asShortBuffer().get(shortData[b]);
+				return dataType == DataBuffer.TYPE_USHORT ? new DataBufferUShort(shortData, size) : new DataBufferShort(shortData, size);
+			case DataBuffer.TYPE_INT:
+				var intData = new int[nBanks][size];
+				for (int b = 0; b < nBanks; b++)
+					banks[b].asIntBuffer().get(intData[b]);
+				return new DataBufferInt(intData, size);
+			case DataBuffer.TYPE_FLOAT:
+				var floatData = new float[nBanks][size];
+				for (int b = 0; b < nBanks; b++)
+					banks[b].asFloatBuffer().get(floatData[b]);
+				return new DataBufferFloat(floatData, size);
+			case DataBuffer.TYPE_DOUBLE:
+				var doubleData = new double[nBanks][size];
+				for (int b = 0; b < nBanks; b++)
+					banks[b].asDoubleBuffer().get(doubleData[b]);
+				return new DataBufferDouble(doubleData, size);
+			default:
+				throw new IOException("Unsupported data type " + dataType);
+		}
+	}
+
+
+	record TileKey(long high, long low) {}
+
+	private record Location(int segment, long offset, int length) {}
+
+	private static class Segment {
+
+		private final int id;
+		private final Path path;
+		private final FileChannel channel;
+		private long size;
+
+		private Segment(int id, Path path, FileChannel channel) {
+			this.id = id;
+			this.path = path;
+			this.channel = channel;
+		}
+
+		private void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.debug("Unable to close {}: {}", path, e.getMessage());
+			}
+		}
+
+	}
+
+}
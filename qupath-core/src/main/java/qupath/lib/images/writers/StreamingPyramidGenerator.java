@@ -0,0 +1,643 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.writers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.common.ThreadTools;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.ImageServerMetadata.ChannelType;
+import qupath.lib.images.servers.TileRequest;
+import qupath.lib.regions.ImageRegion;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Generate all the tiles of an image pyramid in a single pass over the full-resolution image.
+ * <p>
+ * Each tile of the highest-resolution level is read from the server only once.
+ * It is passed to a {@link TileConsumer}, and then added to the corresponding tile of the next level, which is
+ * downsampled by an integer factor.
+ * Whenever a tile is complete it is passed on in the same way, so that all levels are generated concurrently.
+ * <p>
+ * Tiles are read in an order that completes lower-resolution tiles as soon as possible, so that only a small number
+ * of incomplete tiles need to be held in memory at any time - rather than entire levels.
+ * <p>
+ * This requires that each downsample is an integer multiple of the previous downsample;
+ * see {@link #supportsDownsamples(double...)}.
+ * <p>
+ * Use a {@link Builder} to create an instance of this class.
+ */
+public class StreamingPyramidGenerator {
+
+	private static final Logger logger = LoggerFactory.getLogger(StreamingPyramidGenerator.class);
+
+	/**
+	 * Tolerance used when checking whether downsample ratios are integers.
+	 */
+	private static final double RATIO_TOLERANCE = 1e-6;
+
+	/**
+	 * Interface for receiving tiles as they are generated.
+	 */
+	@FunctionalInterface
+	public interface TileConsumer {
+
+		/**
+		 * Accept a tile for the pyramid.
+		 * This may be called from any thread, and tiles from different levels may be interleaved.
+		 * @param tile the tile request, in the coordinates of the pyramid level (not the full-resolution image)
+		 * @param img the pixels for the tile; this may be null if the pixels could not be read
+		 * @throws Exception if the tile could not be accepted; this is logged, but doesn't stop the pyramid being generated
+		 */
+		void accept(TileRequest tile, BufferedImage img) throws Exception;
+
+	}
+
+	private final ImageServer<BufferedImage> server;
+	private final int x, y, width, height;
+	private final int zStart, zEnd, tStart, tEnd;
+	private final double[] downsamples;
+	private final int[] ratios;
+	private final int[] levelWidths;
+	private final int[] levelHeights;
+	private final int tileWidth, tileHeight;
+	private final int numberOfThreads;
+	private final boolean smoothInterpolation;
+	private final DoubleConsumer onProgress;
+
+	private StreamingPyramidGenerator(Builder builder) {
+		this.server = builder.server;
+		if (builder.region == null) {
+			this.x = 0;
+			this.y = 0;
+			this.width = server.getWidth();
+			this.height = server.getHeight();
+		} else {
+			this.x = builder.region.getX();
+			this.y = builder.region.getY();
+			this.width = builder.region.getWidth();
+			this.height = builder.region.getHeight();
+		}
+		this.zStart = builder.zStart;
+		this.zEnd = builder.zEnd;
+		this.tStart = builder.tStart;
+		this.tEnd = builder.tEnd;
+		this.downsamples = builder.downsamples.clone();
+		this.ratios = getRatios(downsamples);
+		this.levelWidths = new int[downsamples.length];
+		this.levelHeights = new int[downsamples.length];
+		levelWidths[0] = (int)(width / downsamples[0]);
+		levelHeights[0] = (int)(height / downsamples[0]);
+		for (int level = 1; level < downsamples.length; level++) {
+			// Equivalent to (int)(width / downsample), since the ratio is an integer
+			levelWidths[level] = levelWidths[level-1] / ratios[level];
+			levelHeights[level] = levelHeights[level-1] / ratios[level];
+		}
+		this.tileWidth = builder.tileWidth;
+		this.tileHeight = builder.tileHeight;
+		this.numberOfThreads = builder.numberOfThreads;
+		this.smoothInterpolation = builder.smoothInterpolation == null ?
+				server.getMetadata().getChannelType() != ChannelType.CLASSIFICATION : builder.smoothInterpolation;
+		this.onProgress = builder.onProgress;
+	}
+
+	/**
+	 * Check whether downsamples can be used to generate a pyramid with this class.
+	 * This requires that the downsamples are increasing, and each is an integer multiple of the previous value.
+	 * @param downsamples the downsamples for each pyramid level, in increasing order
+	 * @return true if the downsamples are supported, false otherwise
+	 */
+	public static boolean supportsDownsamples(double... downsamples) {
+		return downsamples.length > 0 && downsamples[0] > 0 && getRatios(downsamples) != null;
+	}
+
+	/**
+	 * Get the integer ratio between each downsample and the previous one (with the first entry set to 1),
+	 * or null if this is not possible.
+	 */
+	private static int[] getRatios(double[] downsamples) {
+		int[] ratios = new int[downsamples.length];
+		if (ratios.length == 0)
+			return null;
+		ratios[0] = 1;
+		for (int i = 1; i < downsamples.length; i++) {
+			double ratio = downsamples[i] / downsamples[i-1];
+			long rounded = Math.round(ratio);
+			if (rounded < 2 || rounded > Integer.MAX_VALUE || Math.abs(ratio - rounded) > RATIO_TOLERANCE)
+				return null;
+			ratios[i] = (int)rounded;
+		}
+		return ratios;
+	}
+
+	/**
+	 * Get the number of pyramid levels.
+	 * @return
+	 */
+	public int nLevels() {
+		return downsamples.length;
+	}
+
+	/**
+	 * Get the width of a pyramid level.
+	 * @param level the pyramid level, where 0 is the highest resolution
+	 * @return
+	 */
+	public int getLevelWidth(int level) {
+		return levelWidths[level];
+	}
+
+	/**
+	 * Get the height of a pyramid level.
+	 * @param level the pyramid level, where 0 is the highest resolution
+	 * @return
+	 */
+	public int getLevelHeight(int level) {
+		return levelHeights[level];
+	}
+
+	/**
+	 * Generate all the tiles of the pyramid, passing each one to the consumer when it is complete.
+	 * Image planes are processed in turn, ordered by timepoint and then z-slice.
+	 * Within each plane, the first tile of the full-resolution level (i.e. at the origin) is always passed to the
+	 * consumer before any other tile.
+	 * This function blocks until all tiles have been generated.
+	 *
+	 * @param consumer the consumer to receive the tiles
+	 * @return the total number of bytes in the pixels of all the tiles passed to the consumer
+	 * @throws InterruptedException if the generation is interrupted
+	 */
+	public long generate(TileConsumer consumer) throws InterruptedException {
+		Objects.requireNonNull(consumer);
+		ExecutorService pool = Executors.newFixedThreadPool(
+				numberOfThreads,
+				ThreadTools.createThreadFactory("pyramid-generator-", false)
+		);
+		var state = new State(consumer);
+		int nPlanes = Math.max(0, tEnd - tStart) * Math.max(0, zEnd - zStart);
+		int nTilesPerPlane = nTiles(levelWidths[0], tileWidth) * nTiles(levelHeights[0], tileHeight);
+		state.nTilesTotal = Math.max(1, nPlanes * nTilesPerPlane);
+		try {
+			for (int t = tStart; t < tEnd; t++) {
+				for (int z = zStart; z < zEnd; z++) {
+					generatePlane(z, t, state, pool);
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		return state.nBytes.get();
+	}
+
+	private void generatePlane(int z, int t, State state, ExecutorService pool) throws InterruptedException {
+		state.accumulators.clear();
+		List<TileIndex> tiles = getOrderedTiles();
+		if (tiles.isEmpty())
+			return;
+
+		// The first tile must be complete before any others are started
+		processTile(tiles.getFirst(), z, t, state);
+
+		// Limit the number of tiles in progress, so that incomplete lower-resolution tiles are completed promptly
+		int maxInProgress = numberOfThreads * 2;
+		Semaphore semaphore = new Semaphore(maxInProgress);
+		for (var tile : tiles.subList(1, tiles.size())) {
+			semaphore.acquire();
+			try {
+				pool.execute(() -> {
+					try {
+						processTile(tile, z, t, state);
+					} finally {
+						semaphore.release();
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				semaphore.release();
+				throw new InterruptedException("Pyramid generation stopped");
+			}
+		}
+		semaphore.acquire(maxInProgress);
+		semaphore.release(maxInProgress);
+		if (!state.accumulators.isEmpty())
+			logger.warn("{} pyramid tiles were not completed for z={}, t={}", state.accumulators.size(), z, t);
+	}
+
+	/**
+	 * Get the tiles for the full-resolution level, ordered so that all the tiles needed for each lower-resolution
+	 * tile are adjacent.
+	 */
+	private List<TileIndex> getOrderedTiles() {
+		int nTilesX = nTiles(levelWidths[0], tileWidth);
+		int nTilesY = nTiles(levelHeights[0], tileHeight);
+		int nLevels = nLevels();
+		// Cumulative ratio between each level and the full-resolution level
+		long[] scales = new long[nLevels];
+		scales[0] = 1;
+		for (int level = 1; level < nLevels; level++)
+			scales[level] = scales[level-1] * ratios[level];
+
+		List<TileIndex> tiles = new ArrayList<>(nTilesX * nTilesY);
+		for (int ty = 0; ty < nTilesY; ty++) {
+			for (int tx = 0; tx < nTilesX; tx++)
+				tiles.add(new TileIndex(tx, ty));
+		}
+		// Sort by the index of the tile containing this one at each level, starting with the lowest resolution
+		Comparator<TileIndex> comparator = null;
+		for (int level = nLevels-1; level >= 0; level--) {
+			long scale = scales[level];
+			Comparator<TileIndex> c = Comparator.<TileIndex>comparingLong(tile -> tile.y / scale)
+					.thenComparingLong(tile -> tile.x / scale);
+			comparator = comparator == null ? c : comparator.thenComparing(c);
+		}
+		tiles.sort(comparator);
+		return tiles;
+	}
+
+	private void processTile(TileIndex index, int z, int t, State state) {
+		if (Thread.currentThread().isInterrupted())
+			return;
+		var tile = createTileRequest(0, index, z, t);
+		BufferedImage img = null;
+		try {
+			img = server.readRegion(tile.getRegionRequest().translate(x, y));
+		} catch (Exception e) {
+			logger.error("Error reading tile {}", tile, e);
+		}
+		if (img != null && state.template == null)
+			state.template = img;
+		acceptTile(tile, index, img, state);
+		if (onProgress != null)
+			onProgress.accept((double)state.nTilesProcessed.incrementAndGet() / state.nTilesTotal);
+	}
+
+	/**
+	 * Pass a complete tile to the consumer, then add it to the corresponding tile of the next level.
+	 */
+	private void acceptTile(TileRequest tile, TileIndex index, BufferedImage img, State state) {
+		try {
+			state.consumer.accept(tile, img);
+			if (img != null)
+				state.nBytes.addAndGet(getBytes(img));
+		} catch (Exception e) {
+			if (e instanceof InterruptedException || e.getCause() instanceof InterruptedException)
+				logger.debug("Tile {} writing interrupted", tile, e);
+			else
+				logger.error("Error when writing tile {}", tile, e);
+		}
+
+		int level = tile.getLevel() + 1;
+		if (level >= nLevels())
+			return;
+		int ratio = ratios[level];
+		var parentIndex = new TileIndex(index.x / ratio, index.y / ratio);
+		// The parent doesn't exist if it would be entirely outside the lower-resolution level
+		if (parentIndex.x * tileWidth >= levelWidths[level] || parentIndex.y * tileHeight >= levelHeights[level])
+			return;
+
+		var key = new AccumulatorKey(level, parentIndex);
+		var accumulator = state.accumulators.computeIfAbsent(key, k -> new TileAccumulator(k));
+		if (accumulator.add(tile, img)) {
+			state.accumulators.remove(key);
+			var parentTile = createTileRequest(level, parentIndex, tile.getZ(), tile.getT());
+			acceptTile(parentTile, parentIndex, accumulator.createImage(state.template), state);
+		}
+	}
+
+	private TileRequest createTileRequest(int level, TileIndex index, int z, int t) {
+		int xx = index.x * tileWidth;
+		int yy = index.y * tileHeight;
+		int ww = Math.min(tileWidth, levelWidths[level] - xx);
+		int hh = Math.min(tileHeight, levelHeights[level] - yy);
+		return TileRequest.createInstance(server.getPath(), level, downsamples[level],
+				ImageRegion.createInstance(xx, yy, ww, hh, z, t));
+	}
+
+	private static int nTiles(int size, int tileSize) {
+		return (int)Math.ceil((double)size / tileSize);
+	}
+
+	private static long getBytes(BufferedImage img) {
+		var raster = img.getRaster();
+		return (long)raster.getWidth() * raster.getHeight() * raster.getNumBands() *
+				DataBuffer.getDataTypeSize(raster.getDataBuffer().getDataType()) / 8;
+	}
+
+	private static boolean isIntType(int dataType) {
+		return dataType == DataBuffer.TYPE_BYTE || dataType == DataBuffer.TYPE_USHORT ||
+				dataType == DataBuffer.TYPE_SHORT || dataType == DataBuffer.TYPE_INT;
+	}
+
+
+	private record TileIndex(int x, int y) {}
+
+	private record AccumulatorKey(int level, TileIndex index) {}
+
+	/**
+	 * Mutable state for a single call to {@link #generate(TileConsumer)}.
+	 */
+	private static class State {
+
+		private final TileConsumer consumer;
+		private final Map<AccumulatorKey, TileAccumulator> accumulators = new ConcurrentHashMap<>();
+		private final AtomicInteger nTilesProcessed = new AtomicInteger();
+		private final AtomicLong nBytes = new AtomicLong();
+		private volatile BufferedImage template;
+		private int nTilesTotal;
+
+		private State(TileConsumer consumer) {
+			this.consumer = consumer;
+		}
+
+	}
+
+	/**
+	 * Accumulate the pixels for a lower-resolution tile, from the higher-resolution tiles that it contains.
+	 */
+	private class TileAccumulator {
+
+		private final int ratio;
+		private final int xOrigin, yOrigin, width, height;
+		private final int nExpected;
+		private int nAdded;
+		private double[][] values;
+		private BufferedImage template;
+
+		private TileAccumulator(AccumulatorKey key) {
+			int level = key.level();
+			this.ratio = ratios[level];
+			this.xOrigin = key.index().x * tileWidth;
+			this.yOrigin = key.index().y * tileHeight;
+			this.width = Math.min(tileWidth, levelWidths[level] - xOrigin);
+			this.height = Math.min(tileHeight, levelHeights[level] - yOrigin);
+			// The number of higher-resolution tiles that exist for this tile
+			int nChildTilesX = nTiles(levelWidths[level-1], tileWidth);
+			int nChildTilesY = nTiles(levelHeights[level-1], tileHeight);
+			int firstX = key.index().x * ratio;
+			int firstY = key.index().y * ratio;
+			this.nExpected = (Math.min(firstX + ratio, nChildTilesX) - firstX) * (Math.min(firstY + ratio, nChildTilesY) - firstY);
+		}
+
+		/**
+		 * Add the pixels from a higher-resolution tile.
+		 * @param tile the higher-resolution tile
+		 * @param img the pixels, or null if the pixels are missing (in which case they are treated as zeros)
+		 * @return true if the tile is now complete, false otherwise
+		 */
+		private synchronized boolean add(TileRequest tile, BufferedImage img) {
+			if (img != null) {
+				var raster = img.getRaster();
+				int nBands = raster.getNumBands();
+				if (values == null) {
+					values = new double[nBands][width * height];
+					template = img;
+				}
+				int w = Math.min(raster.getWidth(), tile.getTileWidth());
+				int h = Math.min(raster.getHeight(), tile.getTileHeight());
+				double[] samples = new double[w * h];
+				int offset = ratio / 2;
+				for (int b = 0; b < Math.min(nBands, values.length); b++) {
+					raster.getSamples(0, 0, w, h, b, samples);
+					double[] output = values[b];
+					for (int yy = 0; yy < h; yy++) {
+						int yChild = tile.getTileY() + yy;
+						int yParent = yChild / ratio - yOrigin;
+						if (yParent < 0 || yParent >= height)
+							continue;
+						for (int xx = 0; xx < w; xx++) {
+							int xChild = tile.getTileX() + xx;
+							int xParent = xChild / ratio - xOrigin;
+							if (xParent < 0 || xParent >= width)
+								continue;
+							if (smoothInterpolation)
+								output[yParent * width + xParent] += samples[yy * w + xx];
+							else if (xChild % ratio == offset && yChild % ratio == offset)
+								output[yParent * width + xParent] = samples[yy * w + xx];
+						}
+					}
+				}
+			}
+			nAdded++;
+			return nAdded >= nExpected;
+		}
+
+		/**
+		 * Create an image from the accumulated pixels.
+		 * @param defaultTemplate the image to use to determine the image type, if no higher-resolution tiles were added
+		 * @return the image, or null if no template image is available
+		 */
+		private synchronized BufferedImage createImage(BufferedImage defaultTemplate) {
+			var template = this.template == null ? defaultTemplate : this.template;
+			if (template == null)
+				return null;
+			WritableRaster raster = template.getRaster().createCompatibleWritableRaster(width, height);
+			if (values != null) {
+				boolean isInt = isIntType(raster.getDataBuffer().getDataType());
+				double scale = smoothInterpolation ? 1.0 / (ratio * ratio) : 1.0;
+				for (int b = 0; b < values.length; b++) {
+					double[] samples = values[b];
+					if (scale != 1.0 || isInt) {
+						for (int i = 0; i < samples.length; i++) {
+							double val = samples[i] * scale;
+							samples[i] = isInt ? Math.round(val) : val;
+						}
+					}
+					raster.setSamples(0, 0, width, height, b, samples);
+				}
+				values = null;
+			}
+			return new BufferedImage(template.getColorModel(), raster, template.isAlphaPremultiplied(), null);
+		}
+
+	}
+
+
+	/**
+	 * Builder to create an instance of a {@link StreamingPyramidGenerator}.
+	 */
+	public static class Builder {
+
+		private final ImageServer<BufferedImage> server;
+		private ImageRegion region = null;
+		private double[] downsamples = {1.0};
+		private int tileWidth = 512;
+		private int tileHeight = 512;
+		private int zStart = 0;
+		private int zEnd;
+		private int tStart = 0;
+		private int tEnd;
+		private int numberOfThreads = ThreadTools.getParallelism();
+		private Boolean smoothInterpolation = null;
+		private DoubleConsumer onProgress = null;
+
+		/**
+		 * Create the builder.
+		 *
+		 * @param server the image providing the full-resolution tiles
+		 * @throws NullPointerException if the provided server is null
+		 */
+		public Builder(ImageServer<BufferedImage> server) {
+			this.server = Objects.requireNonNull(server);
+			this.zEnd = server.nZSlices();
+			this.tEnd = server.nTimepoints();
+		}
+
+		/**
+		 * Define a region (on the x-axis and y-axis) of the input image to consider.
+		 *
+		 * @param region the region to consider. Only the x, y, width, and height of this region are
+		 *               taken into account. Can be null to use the entire image. Null by default
+		 * @return this builder
+		 */
+		public Builder region(ImageRegion region) {
+			this.region = region;
+			return this;
+		}
+
+		/**
+		 * Set the downsamples for each level of the pyramid, relative to the input image.
+		 * By default, only one downsample of value 1 is used.
+		 *
+		 * @param downsamples the downsamples for each level, in increasing order
+		 * @return this builder
+		 * @throws IllegalArgumentException if the downsamples are not supported
+		 * @see StreamingPyramidGenerator#supportsDownsamples(double...)
+		 */
+		public Builder downsamples(double... downsamples) {
+			if (!supportsDownsamples(downsamples))
+				throw new IllegalArgumentException("Each downsample must be an integer multiple of the previous downsample, but got " +
+						Arrays.toString(downsamples));
+			this.downsamples = downsamples.clone();
+			return this;
+		}
+
+		/**
+		 * Set the width and height of the tiles to generate. By default, these values are set to 512.
+		 *
+		 * @param tileWidth the width of each tile
+		 * @param tileHeight the height of each tile
+		 * @return this builder
+		 * @throws IllegalArgumentException if the tile width or height is less than 1
+		 */
+		public Builder tileSize(int tileWidth, int tileHeight) {
+			if (tileWidth < 1 || tileHeight < 1)
+				throw new IllegalArgumentException(String.format("Invalid tile size %d x %d", tileWidth, tileHeight));
+			this.tileWidth = tileWidth;
+			this.tileHeight = tileHeight;
+			return this;
+		}
+
+		/**
+		 * Define the z-slices of the input image to consider.
+		 *
+		 * @param zStart the 0-based inclusive index of the first z-slice to consider. 0 by default
+		 * @param zEnd the 0-based exclusive index of the last z-slice to consider. Equal to the number
+		 *             of z-slices of the image by default
+		 * @return this builder
+		 */
+		public Builder zSlices(int zStart, int zEnd) {
+			this.zStart = zStart;
+			this.zEnd = zEnd;
+			return this;
+		}
+
+		/**
+		 * Define the timepoints of the input image to consider.
+		 *
+		 * @param tStart the 0-based inclusive index of the first timepoint to consider. 0 by default
+		 * @param tEnd the 0-based exclusive index of the last timepoint to consider. Equal to the number
+		 *             of timepoints of the image by default
+		 * @return this builder
+		 */
+		public Builder timePoints(int tStart, int tEnd) {
+			this.tStart = tStart;
+			this.tEnd = tEnd;
+			return this;
+		}
+
+		/**
+		 * Set the number of threads used to read full-resolution tiles.
+		 * By default, {@link ThreadTools#getParallelism()} threads are used.
+		 *
+		 * @param numberOfThreads the number of threads to use
+		 * @return this builder
+		 * @throws IllegalArgumentException if the provided number of threads is less than 1
+		 */
+		public Builder parallelize(int numberOfThreads) {
+			if (numberOfThreads < 1)
+				throw new IllegalArgumentException(String.format("The provided number of threads %d is less than 1", numberOfThreads));
+			this.numberOfThreads = numberOfThreads;
+			return this;
+		}
+
+		/**
+		 * Specify whether lower-resolution pixels should be the mean of the corresponding higher-resolution pixels,
+		 * or a single sampled pixel.
+		 * By default, the mean is used unless the image represents classifications.
+		 *
+		 * @param smoothInterpolation true to average pixels, false to sample them
+		 * @return this builder
+		 */
+		public Builder smoothInterpolation(boolean smoothInterpolation) {
+			this.smoothInterpolation = smoothInterpolation;
+			return this;
+		}
+
+		/**
+		 * Set a function that will be called as full-resolution tiles are processed. Its parameter will be a double
+		 * between 0 and 1 indicating the progress of the operation. This function may be called from any thread.
+		 *
+		 * @param onProgress a function that will be called as tiles are processed; may be null
+		 * @return this builder
+		 */
+		public Builder onProgress(DoubleConsumer onProgress) {
+			this.onProgress = onProgress;
+			return this;
+		}
+
+		/**
+		 * Create a new instance of {@link StreamingPyramidGenerator}.
+		 * @return
+		 */
+		public StreamingPyramidGenerator build() {
+			return new StreamingPyramidGenerator(this);
+		}
+
+	}
+
+}
@@ -0,0 +1,570 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Container for chunked .qpdata files.
+ * <p>
+ * A file contains a header, followed by any number of independently-compressed blocks, followed by a table of contents
+ * and a fixed-size tail that gives the location of the table of contents.
+ * Each block is identified by a key and a hash of its uncompressed contents.
+ * <p>
+ * This makes it possible to
+ * <ul>
+ *     <li>read blocks lazily and in parallel, without decoding the rest of the file</li>
+ *     <li>update a file incrementally, by appending only blocks that have changed along with a new table of contents</li>
+ * </ul>
+ * Appending never modifies existing bytes, so an interrupted update leaves the previous table of contents intact.
+ * When a file contains too much unused space it is rewritten entirely.
+ */
+final class ChunkedDataFile implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(ChunkedDataFile.class);
+
+	/**
+	 * Magic bytes at the start of every chunked data file.
+	 * These can't be mistaken for the start of a Java serialization stream.
+	 */
+	private static final byte[] MAGIC = "QPDATA\r\n".getBytes(StandardCharsets.US_ASCII);
+
+	private static final int FORMAT_VERSION = 1;
+
+	private static final int HEADER_SIZE = MAGIC.length + Integer.BYTES;
+
+	private static final long TAIL_MAGIC = 0x5150_5444_4154_4131L;
+
+	private static final int TAIL_SIZE = 3 * Long.BYTES;
+
+	/**
+	 * Rewrite the file entirely if less than this proportion of it is in use.
+	 */
+	private static final double MIN_LIVE_FRACTION = 0.5;
+
+	/**
+	 * Information about a block stored in the file.
+	 * @param key the block key
+	 * @param offset offset of the (compressed) block within the file
+	 * @param storedLength length of the compressed block
+	 * @param rawLength length of the uncompressed block
+	 * @param hash hash of the uncompressed block
+	 * @param nObjects number of objects in the block (used to summarize the contents without decoding)
+	 */
+	record BlockInfo(String key, long offset, int storedLength, int rawLength, byte[] hash, int nObjects) {}
+
+	/**
+	 * An uncompressed block that should be written.
+	 * @param key the block key
+	 * @param bytes the uncompressed contents, or null if the block refers to identical contents in an existing file
+	 * @param hash hash of the uncompressed contents
+	 * @param nObjects number of objects in the block
+	 */
+	record Block(String key, byte[] bytes, byte[] hash, int nObjects) {
+
+		/**
+		 * Create a new block, computing its hash.
+		 * @param key
+		 * @param bytes
+		 * @param nObjects
+		 * @return
+		 */
+		static Block create(String key, byte[] bytes, int nObjects) {
+			return new Block(key, bytes, sha256(bytes), nObjects);
+		}
+
+		/**
+		 * Create a block that refers to a block with the same key and hash in the file that will be overwritten.
+		 * This avoids needing to read blocks that are known not to have changed.
+		 * @param key
+		 * @param hash
+		 * @param nObjects
+		 * @return
+		 * @see ChunkedDataFile#write(Path, List)
+		 */
+		static Block reference(String key, byte[] hash, int nObjects) {
+			return new Block(key, null, hash, nObjects);
+		}
+
+		boolean isReference() {
+			return bytes == null;
+		}
+
+	}
+
+	private final Path path;
+	private final FileChannel channel;
+	private final Map<String, BlockInfo> blocks;
+
+	private ChunkedDataFile(Path path, FileChannel channel, Map<String, BlockInfo> blocks) {
+		this.path = path;
+		this.channel = channel;
+		this.blocks = blocks;
+	}
+
+	/**
+	 * Check whether a stream starts with the header of a chunked data file.
+	 * The stream must support mark/reset, and is reset afterwards.
+	 * @param stream
+	 * @return
+	 * @throws IOException
+	 */
+	static boolean isChunked(InputStream stream) throws IOException {
+		if (!stream.markSupported())
+			throw new IllegalArgumentException("Stream must support mark/reset");
+		stream.mark(MAGIC.length);
+		try {
+			return Arrays.equals(MAGIC, stream.readNBytes(MAGIC.length));
+		} finally {
+			stream.reset();
+		}
+	}
+
+	/**
+	 * Check whether a file starts with the header of a chunked data file.
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	static boolean isChunked(Path path) throws IOException {
+		if (!Files.isRegularFile(path))
+			return false;
+		try (var stream = Files.newInputStream(path)) {
+			return Arrays.equals(MAGIC, stream.readNBytes(MAGIC.length));
+		}
+	}
+
+	/**
+	 * Open a chunked data file for reading.
+	 * @param path
+	 * @return
+	 * @throws IOException if the file could not be read, or isn't a valid chunked data file
+	 */
+	static ChunkedDataFile open(Path path) throws IOException {
+		var channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			return new ChunkedDataFile(path, channel, readTableOfContents(channel));
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Get information about all the blocks in the file, in the order they were written.
+	 * @return
+	 */
+	List<BlockInfo> getBlocks() {
+		return List.copyOf(blocks.values());
+	}
+
+	/**
+	 * Get information about a block.
+	 * @param key
+	 * @return the block information, or null if no block exists with the key
+	 */
+	BlockInfo getBlock(String key) {
+		return blocks.get(key);
+	}
+
+	/**
+	 * Read and decompress a block.
+	 * This is thread-safe.
+	 * @param key
+	 * @return the block contents, or null if no block exists with the key
+	 * @throws IOException
+	 */
+	byte[] read(String key) throws IOException {
+		var info = blocks.get(key);
+		if (info == null)
+			return null;
+		return read(info);
+	}
+
+	/**
+	 * Read and decompress a block.
+	 * This is thread-safe.
+	 * @param info
+	 * @return the block contents
+	 * @throws IOException
+	 */
+	byte[] read(BlockInfo info) throws IOException {
+		var buffer = ByteBuffer.allocate(info.storedLength());
+		readFully(channel, buffer, info.offset());
+		var bytes = inflate(buffer.array(), info.rawLength());
+		if (!Arrays.equals(info.hash(), sha256(bytes)))
+			throw new IOException("Block " + info.key() + " in " + path + " is corrupt");
+		return bytes;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	@Override
+	public String toString() {
+		return "ChunkedDataFile[" + path + ", " + blocks.size() + " blocks]";
+	}
+
+
+	/**
+	 * Write blocks to a stream, as a complete chunked data file.
+	 * @param stream
+	 * @param blocks
+	 * @throws IOException
+	 */
+	static void write(OutputStream stream, List<Block> blocks) throws IOException {
+		if (blocks.stream().anyMatch(Block::isReference))
+			throw new IllegalArgumentException("Block references can only be used when updating an existing file");
+		var compressed = compress(blocks);
+		var out = new DataOutputStream(stream);
+		out.write(MAGIC);
+		out.writeInt(FORMAT_VERSION);
+		long offset = HEADER_SIZE;
+		List<BlockInfo> infos = new ArrayList<>();
+		for (int i = 0; i < blocks.size(); i++) {
+			var block = blocks.get(i);
+			var bytes = compressed.get(i);
+			out.write(bytes);
+			infos.add(new BlockInfo(block.key(), offset, bytes.length, block.bytes().length, block.hash(), block.nObjects()));
+			offset += bytes.length;
+		}
+		writeTableOfContents(out, infos, offset);
+		out.flush();
+	}
+
+	/**
+	 * Write blocks to a file.
+	 * <p>
+	 * If the file already exists and is a valid chunked data file, blocks with the same key and contents are reused
+	 * and only blocks that have changed are appended.
+	 * Otherwise, or if the file would contain too much unused space, the file is rewritten entirely.
+	 * <p>
+	 * Blocks may be references (see {@link Block#reference(String, byte[], int)}), in which case the existing file
+	 * must already contain a block with the same key and hash.
+	 *
+	 * @param path
+	 * @param blocks
+	 * @return the number of blocks that were written (i.e. not reused)
+	 * @throws IOException if the file could not be written, or a referenced block isn't in the existing file
+	 */
+	static int write(Path path, List<Block> blocks) throws IOException {
+		Map<String, BlockInfo> existing = null;
+		if (isChunked(path)) {
+			try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				existing = readTableOfContents(channel);
+			} catch (IOException e) {
+				logger.warn("Unable to read existing data file {} - it will be rewritten ({})", path, e.getMessage());
+				logger.debug(e.getMessage(), e);
+			}
+		}
+		if (existing != null) {
+			List<Block> changed = new ArrayList<>();
+			long liveBytes = HEADER_SIZE;
+			for (var block : blocks) {
+				var info = existing.get(block.key());
+				if (info != null && Arrays.equals(info.hash(), block.hash()))
+					liveBytes += info.storedLength();
+				else if (block.isReference())
+					throw new IOException("Block " + block.key() + " not found in " + path);
+				else
+					changed.add(block);
+			}
+			if (changed.isEmpty() && existing.size() == blocks.size()) {
+				logger.debug("No changes to write to {}", path);
+				return 0;
+			}
+			var compressed = compress(changed);
+			for (var bytes : compressed)
+				liveBytes += bytes.length;
+			long newSize = Files.size(path) + compressed.stream().mapToLong(b -> b.length).sum();
+			if (liveBytes >= newSize * MIN_LIVE_FRACTION) {
+				append(path, blocks, existing, changed, compressed);
+				logger.debug("Appended {}/{} blocks to {}", changed.size(), blocks.size(), path);
+				return changed.size();
+			}
+			logger.debug("Rewriting {} to remove unused space", path);
+		}
+		blocks = resolveReferences(path, blocks);
+		var temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+		try {
+			try (var channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				write(Channels.newOutputStream(channel), blocks);
+				channel.force(true);
+			}
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		return blocks.size();
+	}
+
+	/**
+	 * Replace any block references with the full contents of the blocks, read from an existing file.
+	 */
+	private static List<Block> resolveReferences(Path path, List<Block> blocks) throws IOException {
+		if (blocks.stream().noneMatch(Block::isReference))
+			return blocks;
+		List<Block> resolved = new ArrayList<>(blocks.size());
+		try (var file = open(path)) {
+			for (var block : blocks) {
+				if (block.isReference()) {
+					var info = file.getBlock(block.key());
+					if (info == null || !Arrays.equals(info.hash(), block.hash()))
+						throw new IOException("Block " + block.key() + " not found in " + path);
+					block = new Block(block.key(), file.read(info), block.hash(), block.nObjects());
+				}
+				resolved.add(block);
+			}
+		}
+		return resolved;
+	}
+
+	private static void append(Path path, List<Block> blocks, Map<String, BlockInfo> existing,
+							   List<Block> changed, List<byte[]> compressed) throws IOException {
+		try (var channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			long offset = channel.size();
+			Map<String, BlockInfo> appended = new LinkedHashMap<>();
+			for (int i = 0; i < changed.size(); i++) {
+				var block = changed.get(i);
+				var bytes = compressed.get(i);
+				writeFully(channel, ByteBuffer.wrap(bytes), offset);
+				appended.put(block.key(), new BlockInfo(block.key(), offset, bytes.length, block.bytes().length, block.hash(), block.nObjects()));
+				offset += bytes.length;
+			}
+			List<BlockInfo> infos = new ArrayList<>(blocks.size());
+			for (var block : blocks) {
+				var info = appended.get(block.key());
+				infos.add(info == null ? existing.get(block.key()) : info);
+			}
+			var bytes = new ByteArrayOutputStream();
+			writeTableOfContents(new DataOutputStream(bytes), infos, offset);
+			writeFully(channel, ByteBuffer.wrap(bytes.toByteArray()), offset);
+			channel.force(true);
+		}
+	}
+
+
+	private static void writeTableOfContents(DataOutputStream out, List<BlockInfo> infos, long offset) throws IOException {
+		var bytes = new ByteArrayOutputStream();
+		try (var toc = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+			toc.writeInt(infos.size());
+			for (var info : infos) {
+				toc.writeUTF(info.key());
+				toc.writeLong(info.offset());
+				toc.writeInt(info.storedLength());
+				toc.writeInt(info.rawLength());
+				toc.write(info.hash());
+				toc.writeInt(info.nObjects());
+			}
+		}
+		var tocBytes = bytes.toByteArray();
+		var crc = new CRC32();
+		crc.update(tocBytes);
+		out.write(tocBytes);
+		out.writeLong(offset);
+		out.writeInt(tocBytes.length);
+		out.writeInt((int)crc.getValue());
+		out.writeLong(TAIL_MAGIC);
+	}
+
+	/**
+	 * Read the table of contents.
+	 * This normally comes from the tail at the end of the file, but if that is invalid (e.g. because an update was
+	 * interrupted) the file is scanned backwards for the last valid tail.
+	 */
+	private static Map<String, BlockInfo> readTableOfContents(FileChannel channel) throws IOException {
+		var header = ByteBuffer.allocate(HEADER_SIZE);
+		readFully(channel, header, 0);
+		var magic = new byte[MAGIC.length];
+		header.flip().get(magic);
+		if (!Arrays.equals(MAGIC, magic))
+			throw new IOException("Not a chunked data file");
+		int version = header.getInt();
+		if (version != FORMAT_VERSION)
+			throw new IOException("Unsupported chunked data file version " + version);
+
+		long size = channel.size();
+		var toc = tryToReadTableOfContents(channel, size);
+		if (toc != null)
+			return toc;
+		logger.warn("Data file tail is invalid - searching for an earlier table of contents");
+		var buffer = ByteBuffer.allocate((int)Math.min(size, 1 << 20));
+		long end = size;
+		while (end > HEADER_SIZE + TAIL_SIZE) {
+			long start = Math.max(HEADER_SIZE, end - buffer.capacity());
+			buffer.clear().limit((int)(end - start));
+			readFully(channel, buffer, start);
+			for (int i = buffer.limit() - Long.BYTES; i >= TAIL_SIZE - Long.BYTES; i--) {
+				if (buffer.getLong(i) == TAIL_MAGIC) {
+					toc = tryToReadTableOfContents(channel, start + i + Long.BYTES);
+					if (toc != null)
+						return toc;
+				}
+			}
+			// Overlap by the tail size, in case the tail crosses the buffer boundary
+			end = start + TAIL_SIZE;
+			if (start == HEADER_SIZE)
+				break;
+		}
+		throw new IOException("Unable to find a valid table of contents");
+	}
+
+	private static Map<String, BlockInfo> tryToReadTableOfContents(FileChannel channel, long end) throws IOException {
+		if (end < HEADER_SIZE + TAIL_SIZE)
+			return null;
+		var tail = ByteBuffer.allocate(TAIL_SIZE);
+		readFully(channel, tail, end - TAIL_SIZE);
+		tail.flip();
+		long tocOffset = tail.getLong();
+		int tocLength = tail.getInt();
+		int crcValue = tail.getInt();
+		if (tail.getLong() != TAIL_MAGIC || tocOffset < HEADER_SIZE || tocLength <= 0 || tocOffset + tocLength != end - TAIL_SIZE)
+			return null;
+		var tocBytes = ByteBuffer.allocate(tocLength);
+		readFully(channel, tocBytes, tocOffset);
+		var crc = new CRC32();
+		crc.update(tocBytes.array());
+		if ((int)crc.getValue() != crcValue)
+			return null;
+		var inflater = new Inflater();
+		try (var in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(tocBytes.array()), inflater))) {
+			int n = in.readInt();
+			Map<String, BlockInfo> blocks = new LinkedHashMap<>();
+			for (int i = 0; i < n; i++) {
+				var key = in.readUTF();
+				long offset = in.readLong();
+				int storedLength = in.readInt();
+				int rawLength = in.readInt();
+				var hash = new byte[32];
+				in.readFully(hash);
+				int nObjects = in.readInt();
+				if (offset < HEADER_SIZE || offset + storedLength > tocOffset)
+					return null;
+				blocks.put(key, new BlockInfo(key, offset, storedLength, rawLength, hash, nObjects));
+			}
+			return Collections.unmodifiableMap(blocks);
+		} finally {
+			inflater.end();
+		}
+	}
+
+
+	private static List<byte[]> compress(List<Block> blocks) {
+		return blocks.parallelStream().map(b -> deflate(b.bytes())).toList();
+	}
+
+	private static byte[] deflate(byte[] bytes) {
+		var deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(bytes);
+			deflater.finish();
+			var out = new ByteArrayOutputStream(Math.max(64, bytes.length / 2));
+			var buffer = new byte[8192];
+			while (!deflater.finished()) {
+				int n = deflater.deflate(buffer);
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static byte[] inflate(byte[] bytes, int rawLength) throws IOException {
+		var inflater = new Inflater();
+		try {
+			inflater.setInput(bytes);
+			var result = new byte[rawLength];
+			int n = 0;
+			while (n < rawLength && !inflater.finished()) {
+				int count = inflater.inflate(result, n, rawLength - n);
+				if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				n += count;
+			}
+			if (n != rawLength)
+				throw new IOException("Unexpected block length " + n + " (expected " + rawLength + ")");
+			return result;
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	static byte[] sha256(byte[] bytes) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(bytes);
+		} catch (NoSuchAlgorithmException e) {
+			// SHA-256 is required to be supported by every Java platform
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, position + buffer.position());
+			if (n < 0)
+				throw new IOException("Unexpected end of file");
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, position + buffer.position());
+		}
+	}
+
+}
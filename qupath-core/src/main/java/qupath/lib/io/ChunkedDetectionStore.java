@@ -0,0 +1,241 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.hierarchy.LazyDetectionStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A {@link LazyDetectionStore} that reads detections from the spatial chunks of a {@link ChunkedDataFile}.
+ * <p>
+ * The file is opened when it is first needed.
+ * It can be closed with {@link #close()} (e.g. after it has been overwritten), and will be opened again when needed.
+ * Chunks are only read if they are identical to those in the file when the store was created, or when it was
+ * last refreshed with {@link #refresh()}.
+ */
+final class ChunkedDetectionStore implements LazyDetectionStore {
+
+	private static final Logger logger = LoggerFactory.getLogger(ChunkedDetectionStore.class);
+
+	private final Path path;
+	private volatile List<Chunk> chunks;
+	private volatile Map<String, ChunkedDataFile.BlockInfo> blocks;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private ChunkedDataFile file;
+
+	private ChunkedDetectionStore(Path path, List<Chunk> chunks, Map<String, ChunkedDataFile.BlockInfo> blocks) {
+		this.path = path;
+		this.chunks = chunks;
+		this.blocks = blocks;
+	}
+
+	/**
+	 * Create a store for the detections in a chunked data file.
+	 * @param path path to the file
+	 * @param file the opened file; this is used to read the index, but not retained
+	 * @return the store, or null if the file doesn't contain an index of detection chunks
+	 * @throws IOException
+	 */
+	static ChunkedDetectionStore create(Path path, ChunkedDataFile file) throws IOException {
+		var chunks = PathObjectChunkCodec.readIndex(file);
+		if (chunks == null)
+			return null;
+		return new ChunkedDetectionStore(path.toAbsolutePath(), List.copyOf(chunks), readBlocks(path, file, chunks));
+	}
+
+	private static Map<String, ChunkedDataFile.BlockInfo> readBlocks(Path path, ChunkedDataFile file, List<Chunk> chunks) throws IOException {
+		Map<String, ChunkedDataFile.BlockInfo> blocks = new HashMap<>();
+		for (var chunk : chunks) {
+			var info = file.getBlock(chunk.key());
+			if (info == null)
+				throw new IOException("Detection chunk " + chunk.key() + " not found in " + path);
+			blocks.put(chunk.key(), info);
+		}
+		return blocks;
+	}
+
+	/**
+	 * Reopen the file after it has been rewritten, and update the chunks to match its contents.
+	 * This means that loaded chunks that have been saved will be recognized as unchanged.
+	 * @throws IOException
+	 */
+	void refresh() throws IOException {
+		lock.writeLock().lock();
+		try {
+			synchronized (this) {
+				if (file != null) {
+					file.close();
+					file = null;
+				}
+				var file = getFile();
+				var chunks = PathObjectChunkCodec.readIndex(file);
+				if (chunks == null)
+					chunks = List.of();
+				this.blocks = readBlocks(path, file, chunks);
+				this.chunks = List.copyOf(chunks);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Get the total number of objects in all chunks.
+	 * @return
+	 */
+	int nObjects() {
+		return chunks.stream().mapToInt(Chunk::nObjects).sum();
+	}
+
+	/**
+	 * Check whether the store reads from the specified file.
+	 * @param path
+	 * @return
+	 */
+	boolean isSameFile(Path path) {
+		try {
+			return Files.exists(path) && Files.isSameFile(this.path, path);
+		} catch (IOException e) {
+			logger.debug("Unable to compare paths: {}", e.getMessage(), e);
+			return false;
+		}
+	}
+
+	@Override
+	public List<Chunk> getChunks() {
+		return chunks;
+	}
+
+	@Override
+	public Map<UUID, List<PathObject>> readChunk(Chunk chunk) throws IOException {
+		var decoded = PathObjectChunkCodec.decode(readBytes(chunk), null);
+		decoded.linkChildren(i -> true);
+		return decoded.getExternalChildren();
+	}
+
+	@Override
+	public boolean isUnchanged(Chunk chunk, List<PathObject> pathObjects) {
+		var info = blocks.get(chunk.key());
+		if (info == null)
+			return false;
+		try {
+			var bytes = PathObjectChunkCodec.encode(PathObjectChunkCodec.flatten(pathObjects));
+			return Arrays.equals(info.hash(), ChunkedDataFile.sha256(bytes));
+		} catch (IOException e) {
+			logger.debug("Unable to encode objects for {}: {}", chunk.key(), e.getMessage(), e);
+			return false;
+		}
+	}
+
+	/**
+	 * Get a block containing an unloaded chunk, so that it can be written again.
+	 * @param chunk the chunk
+	 * @param reference if true, return a reference to the block rather than reading its contents
+	 * @return
+	 * @throws IOException
+	 */
+	ChunkedDataFile.Block getBlock(Chunk chunk, boolean reference) throws IOException {
+		var info = blocks.get(chunk.key());
+		if (info == null)
+			throw new IllegalArgumentException("Unknown chunk " + chunk.key());
+		if (reference)
+			return ChunkedDataFile.Block.reference(chunk.key(), info.hash(), info.nObjects());
+		return new ChunkedDataFile.Block(chunk.key(), readBytes(chunk), info.hash(), info.nObjects());
+	}
+
+	private byte[] readBytes(Chunk chunk) throws IOException {
+		var expected = blocks.get(chunk.key());
+		if (expected == null)
+			throw new IllegalArgumentException("Unknown chunk " + chunk.key());
+		lock.readLock().lock();
+		try {
+			var file = getFile();
+			var info = file.getBlock(chunk.key());
+			if (info == null || !Arrays.equals(info.hash(), expected.hash()))
+				throw new IOException("Detection chunk " + chunk.key() + " in " + path + " has changed");
+			return file.read(info);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Open the file, if it isn't open already.
+	 * This should be called before the file is updated, so that chunks can still be read from the existing contents
+	 * while it is being written. Appended blocks don't change existing data, and a rewritten file replaces the
+	 * existing one atomically, so the open file remains valid until {@link #refresh()} is called.
+	 * @throws IOException
+	 */
+	void open() throws IOException {
+		lock.readLock().lock();
+		try {
+			getFile();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private synchronized ChunkedDataFile getFile() throws IOException {
+		if (file == null)
+			file = ChunkedDataFile.open(path);
+		return file;
+	}
+
+	/**
+	 * Close the file, if it is open.
+	 * It will be reopened if needed, which is required to read chunks after the file has been rewritten.
+	 * @throws IOException
+	 */
+	void close() throws IOException {
+		lock.writeLock().lock();
+		try {
+			synchronized (this) {
+				if (file != null) {
+					file.close();
+					file = null;
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ChunkedDetectionStore[" + path + ", " + chunks.size() + " chunks]";
+	}
+
+}
@@ -39,11 +39,14 @@ import qupath.lib.images.servers.ImageServerBuilder.ServerBuilder;
 import qupath.lib.images.servers.ImageServerProvider;
 import qupath.lib.objects.PathObject;
 import qupath.lib.objects.PathObjectTools;
+import qupath.lib.objects.hierarchy.LazyDetectionStore;
 import qupath.lib.objects.hierarchy.PathObjectHierarchy;
 import qupath.lib.plugins.workflow.Workflow;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
@@ -66,6 +69,7 @@ import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -106,10 +110,20 @@ public class PathIO {
 	 */
 	private static final ObjectInputFilter QUPATH_INPUT_FILTER = PathIO::qupathInputFilter;
 	
+	/**
+	 * Keys for the blocks of a chunked data file that don't contain objects.
+	 */
+	private static final String KEY_SERVER = "server";
+	private static final String KEY_IMAGE_DATA = "imagedata";
+	
 	private PathIO() {}
 	
 	private static int requestedDataFileVersion = DATA_FILE_VERSION - 1;
 	
+	private static boolean useChunkedDataFiles = false;
+	
+	private static int lazyDetectionThreshold = -1;
+	
 	/**
 	 * Get the requested version for .qpdata files.
 	 * 
@@ -154,6 +168,62 @@ public class PathIO {
 	}
 	
 	
+	/**
+	 * Query whether .qpdata files should be written in the chunked format.
+	 * 
+	 * @return
+	 * @see #setUseChunkedDataFiles(boolean)
+	 */
+	public static boolean getUseChunkedDataFiles() {
+		return useChunkedDataFiles;
+	}
+	
+	/**
+	 * Set whether .qpdata files should be written in the chunked format.
+	 * <p>
+	 * Chunked files store objects in columns, split into spatial chunks that can be read independently and in parallel.
+	 * When an existing chunked file is overwritten, only the chunks that have changed are written.
+	 * <p>
+	 * If this is false, or the data contains objects that can't be stored in chunks (e.g. custom object or ROI classes), 
+	 * the Java serialization format specified by {@link #getRequestedDataFileVersion()} is used instead.
+	 * Both formats can always be read by this version, but chunked files can't be read by older versions of QuPath.
+	 * For that reason, the default is false.
+	 * 
+	 * @param useChunks true if the chunked format should be used where possible
+	 */
+	public static void setUseChunkedDataFiles(boolean useChunks) {
+		useChunkedDataFiles = useChunks;
+	}
+	
+	/**
+	 * Get the number of detections above which detections are loaded lazily from chunked .qpdata files.
+	 * 
+	 * @return the threshold, or a negative value if detections are never loaded lazily
+	 * @see #setLazyDetectionThreshold(int)
+	 */
+	public static int getLazyDetectionThreshold() {
+		return lazyDetectionThreshold;
+	}
+	
+	/**
+	 * Set the number of detections above which detections are loaded lazily from chunked .qpdata files.
+	 * <p>
+	 * When a file contains more detections than this, only annotations and TMA cores are read immediately. 
+	 * Detections are then read from the file when they are needed for a region of the image, and removed from 
+	 * memory again when they are unchanged and haven't been used recently - so that approximately this number of 
+	 * detections are kept in memory.
+	 * This can make it much faster to open images with very large numbers of detections, but the hierarchy will 
+	 * keep the file open until it is no longer needed.
+	 * See {@link PathObjectHierarchy#setLazyDetectionStore(LazyDetectionStore, int)} for details.
+	 * 
+	 * @param threshold the maximum number of detections to load immediately, or a negative value to always load 
+	 *                  all detections
+	 */
+	public static void setLazyDetectionThreshold(int threshold) {
+		lazyDetectionThreshold = threshold;
+	}
+	
+	
 	/**
 	 * Read the server path from a serialized file, if present.  This is assumed to be the first line within the file.
 	 * @param file
@@ -169,6 +239,8 @@ public class PathIO {
 	@Deprecated
 	public static String readSerializedServerPath(final File file) throws FileNotFoundException, IOException, ClassNotFoundException {
 		String serverPath = null;
+		if (ChunkedDataFile.isChunked(file.toPath()))
+			return null;
 		try (FileInputStream fileIn = new FileInputStream(file)) {
 			ObjectInputStream inStream = createObjectInputStream(new BufferedInputStream(fileIn));
 			
@@ -191,6 +263,14 @@ public class PathIO {
 	 * @since 0.3
 	 */
 	public static <T> ServerBuilder<T> extractServerBuilder(Path file) throws IOException {
+		if (ChunkedDataFile.isChunked(file)) {
+			try (var chunkedFile = ChunkedDataFile.open(file)) {
+				var bytes = chunkedFile.read(KEY_SERVER);
+				if (bytes == null)
+					throw new IOException(file + " does not contain a server");
+				return extractServerBuilder(new String(bytes, StandardCharsets.UTF_8), true);
+			}
+		}
 		try (InputStream fileIn = Files.newInputStream(file)) {
 			ObjectInputStream inStream = createObjectInputStream(new BufferedInputStream(fileIn));
 			
@@ -278,12 +358,22 @@ public class PathIO {
 
 
 	private static <T> ImageData<T> readImageDataSerialized(final Path path, ImageServer<T> server) throws IOException {
-		try (var stream = new BufferedInputStream(Files.newInputStream(path))) {
-			var imageData = readImageDataSerialized(stream, server);
-			// Set the last saved path (actually the path from which this was opened)
-			imageData.setLastSavedPath(path.toAbsolutePath().toString(), true);
-			return imageData;
+		return readImageDataSerialized(path, server, null);
+	}
+
+	private static <T> ImageData<T> readImageDataSerialized(final Path path, ImageServer<T> server,
+															ServerBuilder<T> requestedServerBuilder) throws IOException {
+		ImageData<T> imageData;
+		if (ChunkedDataFile.isChunked(path)) {
+			imageData = readImageDataChunked(path, server, requestedServerBuilder, true);
+		} else {
+			try (var stream = new BufferedInputStream(Files.newInputStream(path))) {
+				imageData = readImageDataSerialized(stream, server, requestedServerBuilder);
+			}
 		}
+		// Set the last saved path (actually the path from which this was opened)
+		imageData.setLastSavedPath(path.toAbsolutePath().toString(), true);
+		return imageData;
 	}
 
 	private static <T> ImageData<T> readImageDataSerialized(final InputStream stream,
@@ -296,11 +386,21 @@ public class PathIO {
 	private static <T> ImageData<T> readImageDataSerialized(final InputStream stream, ImageServer<T> server,
 															ServerBuilder<T> requestedServerBuilder) throws IOException {
 		
+		var bufferedStream = new BufferedInputStream(stream);
+		if (ChunkedDataFile.isChunked(bufferedStream)) {
+			var path = copyToTempFile(bufferedStream);
+			try {
+				return readImageDataChunked(path, server, requestedServerBuilder, false);
+			} finally {
+				Files.deleteIfExists(path);
+			}
+		}
+		
 		long startTime = System.currentTimeMillis();
 		Locale locale = Locale.getDefault(Category.FORMAT);
 		boolean localeChanged = false;
 
-		try (ObjectInputStream inStream = createObjectInputStream(new BufferedInputStream(stream))) {
+		try (ObjectInputStream inStream = createObjectInputStream(bufferedStream)) {
 			
 			ServerBuilder<T> serverBuilder = requestedServerBuilder;
 			PathObjectHierarchy hierarchy = null;
@@ -376,26 +476,7 @@ public class PathIO {
 				}
 			}
 
-			// Create a new ImageData
-			ImageData<T> imageData;
-			if (server != null)
-				imageData = new ImageData<>(server, hierarchy, imageType);
-			else if (serverBuilder != null)
-				imageData = new ImageData<>(serverBuilder, hierarchy, imageType);
-			else
-				throw new IOException("Can't read ImageData without a server or server builder");
-
-			// Set the other properties we have just read
-			if (workflow != null) {
-				imageData.getHistoryWorkflow().addSteps(workflow.getSteps());
-			}
-			if (stains != null) {
-				imageData.setColorDeconvolutionStains(stains);
-			}
-			if (propertyMap != null) {
-				for (Entry<String, Object> entry : propertyMap.entrySet())
-					imageData.setProperty(entry.getKey(), entry.getValue());
-			}
+			var imageData = createImageData(server, serverBuilder, hierarchy, imageType, stains, workflow, propertyMap);
 
 			long endTime = System.currentTimeMillis();
 			if (hierarchy != null)
@@ -414,6 +495,110 @@ public class PathIO {
 	}
 
 
+	private static <T> ImageData<T> createImageData(ImageServer<T> server, ServerBuilder<T> serverBuilder,
+													PathObjectHierarchy hierarchy, ImageData.ImageType imageType,
+													ColorDeconvolutionStains stains, Workflow workflow,
+													Map<String, Object> propertyMap) throws IOException {
+		// Create a new ImageData
+		ImageData<T> imageData;
+		if (server != null)
+			imageData = new ImageData<>(server, hierarchy, imageType);
+		else if (serverBuilder != null)
+			imageData = new ImageData<>(serverBuilder, hierarchy, imageType);
+		else
+			throw new IOException("Can't read ImageData without a server or server builder");
+
+		// Set the other properties we have just read
+		if (workflow != null) {
+			imageData.getHistoryWorkflow().addSteps(workflow.getSteps());
+		}
+		if (stains != null) {
+			imageData.setColorDeconvolutionStains(stains);
+		}
+		if (propertyMap != null) {
+			for (Entry<String, Object> entry : propertyMap.entrySet())
+				imageData.setProperty(entry.getKey(), entry.getValue());
+		}
+		return imageData;
+	}
+
+
+	@SuppressWarnings("unchecked")
+	private static <T> ImageData<T> readImageDataChunked(final Path path, ImageServer<T> server,
+														 ServerBuilder<T> requestedServerBuilder, boolean allowLazy) throws IOException {
+		long startTime = System.currentTimeMillis();
+		try (var file = ChunkedDataFile.open(path)) {
+			ServerBuilder<T> serverBuilder = requestedServerBuilder;
+			if (serverBuilder == null) {
+				var serverBytes = file.read(KEY_SERVER);
+				if (serverBytes != null)
+					serverBuilder = extractServerBuilder(new String(serverBytes, StandardCharsets.UTF_8), true);
+			}
+
+			ImageData.ImageType imageType = null;
+			ColorDeconvolutionStains stains = null;
+			Workflow workflow = null;
+			Map<String, Object> propertyMap = null;
+			var imageDataBytes = file.read(KEY_IMAGE_DATA);
+			if (imageDataBytes != null) {
+				try (var inStream = createObjectInputStream(new ByteArrayInputStream(imageDataBytes))) {
+					imageType = (ImageData.ImageType)inStream.readObject();
+					stains = (ColorDeconvolutionStains)inStream.readObject();
+					workflow = (Workflow)inStream.readObject();
+					propertyMap = (Map<String, Object>)inStream.readObject();
+				} catch (ClassNotFoundException | ClassCastException e) {
+					logger.error("Unable to read image properties from {}: {}", path, e.getMessage(), e);
+				}
+			}
+
+			var hierarchy = readHierarchyChunked(path, file, allowLazy);
+			var imageData = createImageData(server, serverBuilder, hierarchy, imageType, stains, workflow, propertyMap);
+
+			long endTime = System.currentTimeMillis();
+			logger.debug(String.format("Hierarchy with %d object(s) read from %d chunks in %.2f seconds",
+					hierarchy.nObjects(),
+					file.getBlocks().size(),
+					(endTime - startTime)/1000.));
+			return imageData;
+		}
+	}
+
+	/**
+	 * Read a hierarchy from a chunked data file, loading detections lazily if there are enough of them.
+	 * @param path the path to the file
+	 * @param file the opened file
+	 * @param allowLazy if true, detections may be loaded lazily; this should be false for temporary files
+	 */
+	private static PathObjectHierarchy readHierarchyChunked(Path path, ChunkedDataFile file, boolean allowLazy) throws IOException {
+		int threshold = lazyDetectionThreshold;
+		if (allowLazy && threshold >= 0) {
+			var store = ChunkedDetectionStore.create(path, file);
+			if (store != null && store.nObjects() > threshold) {
+				logger.info("Detections will be loaded on demand from {}", store);
+				var hierarchy = PathObjectChunkCodec.readHierarchy(file, false);
+				hierarchy.setLazyDetectionStore(store, Math.max(threshold, 1));
+				return hierarchy;
+			}
+		}
+		return PathObjectChunkCodec.readHierarchy(file);
+	}
+
+	/**
+	 * Copy a stream to a temporary file, so that it can be read as a {@link ChunkedDataFile}.
+	 * The caller is responsible for deleting the file.
+	 */
+	private static Path copyToTempFile(InputStream stream) throws IOException {
+		var path = Files.createTempFile("qupath-", EXT_DATA);
+		try {
+			Files.copy(stream, path, StandardCopyOption.REPLACE_EXISTING);
+			return path;
+		} catch (IOException e) {
+			Files.deleteIfExists(path);
+			throw e;
+		}
+	}
+
+
 	/**
 	 * Try to update an original ImageData object to match a new one.
 	 * @param imageDataOriginal
@@ -522,12 +707,7 @@ public class PathIO {
 	 * @throws IOException
 	 */
 	public static <T> ImageData<T> readImageData(final Path path, ServerBuilder<T> serverBuilder) throws IOException {
-		try (var stream = new BufferedInputStream(Files.newInputStream(path))) {
-			var imageData = readImageDataSerialized(stream, null, serverBuilder);
-			// Set the last saved path (actually the path from which this was opened)
-			imageData.setLastSavedPath(path.toAbsolutePath().toString(), true);
-			return imageData;
-		}
+		return readImageDataSerialized(path, null, serverBuilder);
 	}
 
 	/**
@@ -615,6 +795,36 @@ public class PathIO {
 	 * @throws IOException 
 	 */
 	public static void writeImageData(final File file, final ImageData<?> imageData) throws FileNotFoundException, IOException {
+		// If detections are being loaded lazily from the same file, unloaded chunks don't need to be read
+		var store = imageData.getHierarchy().getLazyDetectionStore() instanceof ChunkedDetectionStore chunkedStore ? chunkedStore : null;
+		boolean sameFile = store != null && store.isSameFile(file.toPath());
+		var blocks = useChunkedDataFiles ? createChunkedBlocks(imageData, sameFile) : null;
+		if (blocks != null) {
+			long startTime = System.currentTimeMillis();
+			// No backup is needed: changed blocks are appended before the table of contents that refers to them,
+			// and a full rewrite replaces the file atomically.
+			// Keep the current file open, so that unloaded chunks can still be read while it is being written.
+			if (sameFile)
+				store.open();
+			int nWritten = ChunkedDataFile.write(file.toPath(), blocks);
+			// Reopen the file, so that saved chunks are recognized as unchanged and can be evicted again
+			if (sameFile) {
+				var hierarchy = imageData.getHierarchy();
+				synchronized (hierarchy) {
+					store.refresh();
+					hierarchy.refreshLazyDetectionChunks();
+				}
+			}
+			imageData.setLastSavedPath(file.getAbsolutePath(), true);
+			long endTime = System.currentTimeMillis();
+			logger.info(String.format("Image data written in %.2f seconds (%d/%d chunks changed)", (endTime - startTime)/1000., nWritten, blocks.size()));
+			return;
+		}
+		
+		// Detections can't be loaded lazily once the file has been moved or overwritten
+		if (store != null)
+			imageData.getHierarchy().loadAllDetections();
+		
 		File backup = null;
 		
 		// Backup any existing file... just in case of disaster
@@ -645,7 +855,73 @@ public class PathIO {
 	 * @throws IOException
 	 */
 	public static void writeImageData(final OutputStream stream, final ImageData<?> imageData) throws IOException {
-		writeImageDataSerialized(stream, imageData);
+		var blocks = useChunkedDataFiles ? createChunkedBlocks(imageData, false) : null;
+		if (blocks != null) {
+			try (OutputStream outputStream = new BufferedOutputStream(stream)) {
+				ChunkedDataFile.write(outputStream, blocks);
+			}
+		} else
+			writeImageDataSerialized(stream, imageData);
+	}
+	
+	
+	/**
+	 * Create the blocks needed to write an ImageData to a chunked data file.
+	 * @param allowReferences true if unloaded detection chunks can be written as references to the existing file
+	 * @return the blocks, or null if the ImageData can't be written in chunks
+	 */
+	private static List<ChunkedDataFile.Block> createChunkedBlocks(final ImageData<?> imageData, boolean allowReferences) throws IOException {
+		PathObjectHierarchy hierarchy = imageData.getHierarchy();
+		logger.info(String.format("Writing object hierarchy with %d object(s)...", hierarchy.nObjects()));
+		var objectBlocks = PathObjectChunkCodec.createBlocks(hierarchy, allowReferences);
+		if (objectBlocks == null) {
+			logger.warn("Hierarchy contains objects that can't be written in chunks - the data file will be written as version {}", DATA_FILE_VERSION);
+			return null;
+		}
+		List<ChunkedDataFile.Block> blocks = new ArrayList<>();
+		var serverBytes = createServerBuilderJson(imageData).getBytes(StandardCharsets.UTF_8);
+		blocks.add(ChunkedDataFile.Block.create(KEY_SERVER, serverBytes, 0));
+		
+		var bytes = new ByteArrayOutputStream();
+		try (var outStream = new ObjectOutputStream(bytes)) {
+			outStream.writeObject(imageData.getImageType());
+			outStream.writeObject(imageData.getColorDeconvolutionStains());
+			outStream.writeObject(imageData.getHistoryWorkflow());
+			outStream.writeObject(getSerializableProperties(imageData));
+		}
+		blocks.add(ChunkedDataFile.Block.create(KEY_IMAGE_DATA, bytes.toByteArray(), 0));
+		
+		blocks.addAll(objectBlocks);
+		return blocks;
+	}
+	
+	/**
+	 * Create a JSON representation of the server builder, including the QuPath version.
+	 * Note that the builder may be null, in which case the server cannot be recreated.
+	 */
+	private static String createServerBuilderJson(final ImageData<?> imageData) {
+		var builder = imageData.getServerBuilder();
+		String serverPath;
+		if (builder == null) {
+			var server = imageData.getServer();
+			logger.warn("Server {} does not provide a builder - it will not be possible to recover the ImageServer from this data file", server);
+			serverPath = server.getPath();
+		} else {
+			serverPath = imageData.getLastSavedPath();
+		}
+		var wrapper = ServerBuilderWrapper.create(builder, serverPath);
+		return GsonTools.getInstance().toJson(wrapper);
+	}
+	
+	private static Map<String, Object> getSerializableProperties(final ImageData<?> imageData) {
+		Map<String, Object> map = new HashMap<>();
+		for (Entry<String, Object> entry : imageData.getProperties().entrySet()) {
+			if (serializableObject(entry.getValue()))
+				map.put(entry.getKey(), entry.getValue());
+			else
+				logger.warn("Property not serializable and will not be saved!  Key: " + entry.getKey() + ", Value: " + entry.getValue());
+		}
+		return map;
 	}
 	
 
@@ -660,19 +936,7 @@ public class PathIO {
 			outStream.writeUTF("Data file version " + DATA_FILE_VERSION);
 			
 			// Write JSON object including QuPath version and ServerBuilder
-			// Note that the builder may be null, in which case the server cannot be recreated
-			var builder = imageData.getServerBuilder();
-			String serverPath;
-			if (builder == null) {
-				var server = imageData.getServer();
-				logger.warn("Server {} does not provide a builder - it will not be possible to recover the ImageServer from this data file", server);
-				serverPath = server.getPath();
-			} else {
-				serverPath = imageData.getLastSavedPath();
-			}
-			var wrapper = ServerBuilderWrapper.create(builder, serverPath);
-			String json = GsonTools.getInstance().toJson(wrapper);
-			outStream.writeObject(json);
+			outStream.writeObject(createServerBuilderJson(imageData));
 			
 			// Write the current locale
 			outStream.writeObject(Locale.getDefault(Category.FORMAT));
@@ -688,15 +952,7 @@ public class PathIO {
 			outStream.writeObject(hierarchy);
 			
 			// Write any remaining (serializable) properties
-			Map<String, Object> map = new HashMap<>();
-			for (Entry<String, Object> entry : imageData.getProperties().entrySet()) {
-				if (serializableObject(entry.getValue()))
-					map.put(entry.getKey(), entry.getValue());
-				else
-					logger.warn("Property not serializable and will not be saved!  Key: " + entry.getKey() + ", Value: " + entry.getValue());
-			}
-			if (map != null)
-				outStream.writeObject(map);
+			outStream.writeObject(getSerializableProperties(imageData));
 			
 			// Write EOF marker
 			outStream.writeObject("EOF");
@@ -727,6 +983,11 @@ public class PathIO {
 	 */
 	public static PathObjectHierarchy readHierarchy(final Path path) throws IOException {
 		logger.info("Reading hierarchy from {}", path.getFileName().toString());
+		if (ChunkedDataFile.isChunked(path)) {
+			try (var file = ChunkedDataFile.open(path)) {
+				return readHierarchyChunked(path, file, true);
+			}
+		}
 		try (var stream = Files.newInputStream(path)) {
 			return readHierarchy(stream);
 		}
@@ -741,10 +1002,20 @@ public class PathIO {
 	 */
 	public static PathObjectHierarchy readHierarchy(final InputStream fileIn) throws IOException {
 
+		var bufferedStream = new BufferedInputStream(fileIn);
+		if (ChunkedDataFile.isChunked(bufferedStream)) {
+			var path = copyToTempFile(bufferedStream);
+			try (var file = ChunkedDataFile.open(path)) {
+				return PathObjectChunkCodec.readHierarchy(file);
+			} finally {
+				Files.deleteIfExists(path);
+			}
+		}
+
 		Locale locale = Locale.getDefault(Category.FORMAT);
 		boolean localeChanged = false;
 
-		try (ObjectInputStream inStream = createObjectInputStream(new BufferedInputStream(fileIn))) {
+		try (ObjectInputStream inStream = createObjectInputStream(bufferedStream)) {
 			
 			if (!inStream.readUTF().startsWith("Data file version")) {
 				logger.error("Input stream is not from a valid QuPath data file!");
@@ -0,0 +1,953 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.measurements.MeasurementList;
+import qupath.lib.measurements.MeasurementListFactory;
+import qupath.lib.measurements.MeasurementTable;
+import qupath.lib.objects.PathAnnotationObject;
+import qupath.lib.objects.PathCellObject;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.PathRootObject;
+import qupath.lib.objects.PathTileObject;
+import qupath.lib.objects.TMACoreObject;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.objects.hierarchy.DefaultTMAGrid;
+import qupath.lib.objects.hierarchy.LazyDetectionStore;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.roi.PackedROIs;
+import qupath.lib.roi.interfaces.ROI;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.IntPredicate;
+
+/**
+ * Encode and decode the objects in a {@link PathObjectHierarchy} as blocks for a {@link ChunkedDataFile}.
+ * <p>
+ * Objects are stored in columns rather than one at a time:
+ * types, IDs, parent indices, classifications, flags, ROIs (as packed vertex arrays) and measurements
+ * (as one column per measurement name) are each written contiguously.
+ * <p>
+ * The hierarchy is split into chunks.
+ * All objects that aren't detections (i.e. the root, annotations and TMA cores) are stored in a single 'structure' chunk.
+ * Detections are stored in spatial chunks, according to the centroid of the first detection in each subtree.
+ * Parents in other chunks are referenced by ID, so that changes in one chunk don't require others to be rewritten.
+ * An index summarizes the location, size and parents of each detection chunk, so that chunks can be loaded lazily
+ * (see {@link ChunkedDetectionStore}).
+ */
+final class PathObjectChunkCodec {
+
+	private static final Logger logger = LoggerFactory.getLogger(PathObjectChunkCodec.class);
+
+	static final String KEY_STRUCTURE = "objects/structure";
+
+	static final String KEY_TMA_GRID = "objects/tma";
+
+	static final String PREFIX_DETECTIONS = "objects/detections/";
+
+	static final String KEY_DETECTION_INDEX = "objects/index";
+
+	/**
+	 * Size of the spatial chunks used for detections, in pixels at the full image resolution.
+	 */
+	static final int CHUNK_SIZE = 4096;
+
+	private static final int VERSION = 1;
+
+	private static final byte TYPE_ROOT = 0;
+	private static final byte TYPE_ANNOTATION = 1;
+	private static final byte TYPE_DETECTION = 2;
+	private static final byte TYPE_TILE = 3;
+	private static final byte TYPE_CELL = 4;
+	private static final byte TYPE_TMA_CORE = 5;
+
+	private static final int FLAG_LOCKED = 1;
+	private static final int FLAG_MISSING = 1 << 1;
+	private static final int FLAG_NAME = 1 << 2;
+	private static final int FLAG_COLOR = 1 << 3;
+	private static final int FLAG_METADATA = 1 << 4;
+	private static final int FLAG_PROBABILITY = 1 << 5;
+
+	private static final int NO_PARENT = -1;
+
+	private PathObjectChunkCodec() {
+		throw new AssertionError("Cannot instantiate this class");
+	}
+
+	/**
+	 * Create the blocks needed to store all the objects in a hierarchy.
+	 * @param hierarchy
+	 * @return the blocks, or null if the hierarchy contains objects that can't be stored in chunks
+	 *         (e.g. custom object or ROI classes)
+	 * @throws IOException
+	 */
+	static List<ChunkedDataFile.Block> createBlocks(PathObjectHierarchy hierarchy) throws IOException {
+		return createBlocks(hierarchy, false);
+	}
+
+	/**
+	 * Create the blocks needed to store all the objects in a hierarchy.
+	 * <p>
+	 * If the hierarchy loads detections lazily from a {@link ChunkedDetectionStore}, chunks that haven't been loaded
+	 * are copied from the store without being decoded - or, if references are allowed, not read at all.
+	 * @param hierarchy
+	 * @param allowReferences if true, use block references for chunks that haven't been loaded; this should only be
+	 *                        used when writing to the file used by the store
+	 * @return the blocks, or null if the hierarchy contains objects that can't be stored in chunks
+	 *         (e.g. custom object or ROI classes)
+	 * @throws IOException
+	 */
+	static List<ChunkedDataFile.Block> createBlocks(PathObjectHierarchy hierarchy, boolean allowReferences) throws IOException {
+		synchronized (hierarchy) {
+			ChunkedDetectionStore store = null;
+			if (!hierarchy.getUnloadedDetectionChunks().isEmpty()) {
+				if (hierarchy.getLazyDetectionStore() instanceof ChunkedDetectionStore chunkedStore)
+					store = chunkedStore;
+				else {
+					hierarchy.loadAllDetections();
+					if (!hierarchy.getUnloadedDetectionChunks().isEmpty())
+						throw new IOException("Unable to load all detections from " + hierarchy.getLazyDetectionStore());
+				}
+			}
+
+			List<PathObject> structure = new ArrayList<>();
+			Map<String, List<PathObject>> detectionChunks = new TreeMap<>();
+			List<LazyDetectionStore.Chunk> unloaded = hierarchy.getUnloadedDetectionChunks();
+			int attempt = 0;
+			while (true) {
+				if (!collectObjects(hierarchy.getRootObject(), structure, detectionChunks))
+					return null;
+				// Chunks with the same key as resident detections need to be loaded, so they can be written together
+				var conflicts = unloaded.stream().filter(c -> detectionChunks.containsKey(c.key())).toList();
+				if (conflicts.isEmpty())
+					break;
+				if (attempt++ > 2)
+					throw new IOException("Unable to load detections for " + conflicts.getFirst().key());
+				for (var chunk : conflicts)
+					hierarchy.getAllDetectionsForRegion(chunk.region());
+				structure.clear();
+				detectionChunks.clear();
+				unloaded = hierarchy.getUnloadedDetectionChunks();
+			}
+
+			List<ChunkedDataFile.Block> blocks = new ArrayList<>();
+			blocks.add(ChunkedDataFile.Block.create(KEY_STRUCTURE, encode(structure), structure.size()));
+			var tmaGrid = hierarchy.getTMAGrid();
+			if (tmaGrid != null)
+				blocks.add(ChunkedDataFile.Block.create(KEY_TMA_GRID, encodeTMAGrid(tmaGrid.getGridWidth(), tmaGrid.getTMACoreList(), structure), tmaGrid.nCores()));
+
+			Map<String, ChunkedDataFile.Block> detectionBlocks = new TreeMap<>();
+			Map<String, LazyDetectionStore.Chunk> index = new TreeMap<>();
+			try {
+				var encoded = detectionChunks.entrySet().parallelStream().map(entry -> {
+					var objects = flatten(entry.getValue());
+					if (!objects.stream().allMatch(PathObjectChunkCodec::isSupported))
+						return null;
+					try {
+						var block = ChunkedDataFile.Block.create(entry.getKey(), encode(objects), objects.size());
+						return Map.entry(block, createChunkSummary(entry.getKey(), entry.getValue(), objects));
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}).toList();
+				for (var entry : encoded) {
+					if (entry == null)
+						return null;
+					detectionBlocks.put(entry.getKey().key(), entry.getKey());
+					index.put(entry.getKey().key(), entry.getValue());
+				}
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+			for (var chunk : unloaded) {
+				detectionBlocks.put(chunk.key(), store.getBlock(chunk, allowReferences));
+				index.put(chunk.key(), chunk);
+			}
+			if (!index.isEmpty())
+				blocks.add(ChunkedDataFile.Block.create(KEY_DETECTION_INDEX, encodeIndex(index.values()), index.size()));
+			blocks.addAll(detectionBlocks.values());
+			return blocks;
+		}
+	}
+
+	/**
+	 * Collect all objects in the hierarchy, splitting them into the structure (i.e. non-detections) and
+	 * spatial chunks of detections.
+	 * @return true if all objects could be collected, false if the objects can't be written in chunks
+	 */
+	private static boolean collectObjects(PathObject root, List<PathObject> structure, Map<String, List<PathObject>> detectionChunks) {
+		var ids = new HashSet<UUID>();
+		var stack = new ArrayDeque<PathObject>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			var pathObject = stack.pop();
+			if (!isSupported(pathObject))
+				return false;
+			// Detection chunks refer to their parents by ID, so these must be unique
+			if (!ids.add(pathObject.getID())) {
+				logger.debug("Duplicate object ID {} - chunks cannot be used", pathObject.getID());
+				return false;
+			}
+			structure.add(pathObject);
+			var children = pathObject.getChildObjectsAsArray();
+			for (var child : children) {
+				if (child.isDetection()) {
+					if (!child.hasROI())
+						return false;
+					detectionChunks.computeIfAbsent(getChunkKey(child.getROI()), k -> new ArrayList<>()).add(child);
+				}
+			}
+			for (int i = children.length - 1; i >= 0; i--) {
+				if (!children[i].isDetection())
+					stack.push(children[i]);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Summarize a chunk for the index.
+	 * @param key the chunk key
+	 * @param topObjects the detections that have parents outside the chunk
+	 * @param objects all the objects in the chunk
+	 */
+	private static LazyDetectionStore.Chunk createChunkSummary(String key, List<PathObject> topObjects, List<PathObject> objects) {
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		for (var pathObject : objects) {
+			var roi = pathObject.getROI();
+			minX = Math.min(minX, roi.getBoundsX());
+			minY = Math.min(minY, roi.getBoundsY());
+			maxX = Math.max(maxX, roi.getBoundsX() + roi.getBoundsWidth());
+			maxY = Math.max(maxY, roi.getBoundsY() + roi.getBoundsHeight());
+		}
+		var plane = topObjects.getFirst().getROI().getImagePlane();
+		int x = (int)Math.floor(minX);
+		int y = (int)Math.floor(minY);
+		var region = ImageRegion.createInstance(x, y, (int)Math.ceil(maxX) - x, (int)Math.ceil(maxY) - y, plane.getZ(), plane.getT());
+		Set<UUID> parents = new LinkedHashSet<>();
+		for (var pathObject : topObjects)
+			parents.add(pathObject.getParent().getID());
+		return new LazyDetectionStore.Chunk(key, region, objects.size(), Collections.unmodifiableSet(parents));
+	}
+
+	private static byte[] encodeIndex(Collection<LazyDetectionStore.Chunk> chunks) throws IOException {
+		var bytes = new ByteArrayOutputStream();
+		var out = new DataOutputStream(bytes);
+		out.writeInt(VERSION);
+		out.writeInt(chunks.size());
+		for (var chunk : chunks) {
+			writeString(out, chunk.key());
+			var region = chunk.region();
+			out.writeInt(region.getX());
+			out.writeInt(region.getY());
+			out.writeInt(region.getWidth());
+			out.writeInt(region.getHeight());
+			out.writeInt(region.getZ());
+			out.writeInt(region.getT());
+			out.writeInt(chunk.nObjects());
+			out.writeInt(chunk.parentIDs().size());
+			for (var id : chunk.parentIDs()) {
+				out.writeLong(id.getMostSignificantBits());
+				out.writeLong(id.getLeastSignificantBits());
+			}
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Read the index of detection chunks.
+	 * @param file
+	 * @return the chunks in the index, or null if the file doesn't contain an index
+	 * @throws IOException
+	 */
+	static List<LazyDetectionStore.Chunk> readIndex(ChunkedDataFile file) throws IOException {
+		var bytes = file.read(KEY_DETECTION_INDEX);
+		if (bytes == null)
+			return null;
+		var in = new DataInputStream(new ByteArrayInputStream(bytes));
+		int version = in.readInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported detection index version " + version);
+		int n = in.readInt();
+		List<LazyDetectionStore.Chunk> chunks = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			var key = readString(in);
+			var region = ImageRegion.createInstance(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt());
+			int nObjects = in.readInt();
+			int nParents = in.readInt();
+			Set<UUID> parents = new LinkedHashSet<>();
+			for (int j = 0; j < nParents; j++)
+				parents.add(new UUID(in.readLong(), in.readLong()));
+			chunks.add(new LazyDetectionStore.Chunk(key, region, nObjects, Collections.unmodifiableSet(parents)));
+		}
+		return chunks;
+	}
+
+	/**
+	 * Read all the objects from a chunked data file into a new hierarchy.
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	static PathObjectHierarchy readHierarchy(ChunkedDataFile file) throws IOException {
+		return readHierarchy(file, true);
+	}
+
+	/**
+	 * Read objects from a chunked data file into a new hierarchy, optionally skipping the detection chunks.
+	 * @param file
+	 * @param includeDetections if false, read only the structure chunk (i.e. all objects that aren't detections)
+	 * @return
+	 * @throws IOException
+	 */
+	static PathObjectHierarchy readHierarchy(ChunkedDataFile file, boolean includeDetections) throws IOException {
+		var structureBytes = file.read(KEY_STRUCTURE);
+		if (structureBytes == null)
+			throw new IOException("No objects found in " + file);
+
+		var temp = new PathObjectHierarchy();
+		var root = temp.getRootObject();
+		var structure = decode(structureBytes, root);
+
+		// Set the TMA grid first, since this adds the cores to the root object
+		var tmaBytes = file.read(KEY_TMA_GRID);
+		var coreIndices = new HashSet<Integer>();
+		if (tmaBytes != null) {
+			var in = new DataInputStream(new ByteArrayInputStream(tmaBytes));
+			int gridWidth = in.readInt();
+			int nCores = in.readInt();
+			List<TMACoreObject> cores = new ArrayList<>(nCores);
+			for (int i = 0; i < nCores; i++) {
+				int ind = in.readInt();
+				coreIndices.add(ind);
+				cores.add((TMACoreObject)structure.objects().get(ind));
+			}
+			temp.setTMAGrid(DefaultTMAGrid.create(cores, gridWidth));
+		}
+		structure.linkChildren(i -> !coreIndices.contains(i));
+
+		Map<UUID, PathObject> parents = new HashMap<>();
+		for (var pathObject : structure.objects())
+			parents.put(pathObject.getID(), pathObject);
+
+		var detectionBlocks = file.getBlocks().stream()
+				.filter(b -> includeDetections && b.key().startsWith(PREFIX_DETECTIONS))
+				.toList();
+		var table = MeasurementListFactory.createMeasurementTable();
+		try {
+			var chunks = detectionBlocks.parallelStream().map(b -> {
+				try {
+					var chunk = decode(file.read(b), null, table);
+					chunk.linkChildren(i -> true);
+					return chunk;
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}).toList();
+			for (var chunk : chunks) {
+				for (var entry : chunk.getExternalChildren().entrySet()) {
+					var parent = parents.get(entry.getKey());
+					if (parent == null) {
+						logger.warn("Unable to find parent {} for {} object(s) - these will be added to the root", entry.getKey(), entry.getValue().size());
+						parent = root;
+					}
+					parent.addChildObjects(entry.getValue());
+				}
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		// Ensure we have a fully-initialized hierarchy
+		var hierarchy = new PathObjectHierarchy();
+		hierarchy.setHierarchy(temp);
+		return hierarchy;
+	}
+
+
+	/**
+	 * Get the key of the chunk that should contain a detection with the specified ROI.
+	 * @param roi
+	 * @return
+	 */
+	static String getChunkKey(ROI roi) {
+		int x = (int)Math.floor(roi.getCentroidX() / CHUNK_SIZE);
+		int y = (int)Math.floor(roi.getCentroidY() / CHUNK_SIZE);
+		return PREFIX_DETECTIONS + roi.getZ() + "/" + roi.getT() + "/" + x + "/" + y;
+	}
+
+	private static boolean isSupported(PathObject pathObject) {
+		if (getType(pathObject) < 0)
+			return false;
+		if (pathObject.isRootObject())
+			return true;
+		var roi = pathObject.getROI();
+		if (roi == null || !PackedROIs.isSupported(roi))
+			return false;
+		if (pathObject instanceof PathCellObject cell && !PackedROIs.isSupported(cell.getNucleusROI()))
+			return false;
+		return true;
+	}
+
+	private static byte getType(PathObject pathObject) {
+		// Check for exact classes, since we need to restore them exactly
+		var cls = pathObject.getClass();
+		if (cls == PathRootObject.class)
+			return TYPE_ROOT;
+		if (cls == PathAnnotationObject.class)
+			return TYPE_ANNOTATION;
+		if (cls == PathDetectionObject.class)
+			return TYPE_DETECTION;
+		if (cls == PathTileObject.class)
+			return TYPE_TILE;
+		if (cls == PathCellObject.class)
+			return TYPE_CELL;
+		if (cls == TMACoreObject.class)
+			return TYPE_TMA_CORE;
+		return -1;
+	}
+
+	/**
+	 * Get all the objects in the subtrees of the specified objects, in depth-first order.
+	 */
+	static List<PathObject> flatten(List<PathObject> topObjects) {
+		List<PathObject> list = new ArrayList<>();
+		var stack = new ArrayDeque<PathObject>();
+		for (var top : topObjects) {
+			stack.push(top);
+			while (!stack.isEmpty()) {
+				var pathObject = stack.pop();
+				list.add(pathObject);
+				var children = pathObject.getChildObjectsAsArray();
+				for (int i = children.length - 1; i >= 0; i--)
+					stack.push(children[i]);
+			}
+		}
+		return list;
+	}
+
+	private static byte[] encodeTMAGrid(int gridWidth, List<TMACoreObject> cores, List<PathObject> structure) throws IOException {
+		// Cores are stored by their index within the structure chunk
+		Map<PathObject, Integer> indices = new IdentityHashMap<>();
+		for (var pathObject : structure)
+			indices.put(pathObject, indices.size());
+		var bytes = new ByteArrayOutputStream();
+		var out = new DataOutputStream(bytes);
+		out.writeInt(gridWidth);
+		out.writeInt(cores.size());
+		for (var core : cores) {
+			var ind = indices.get(core);
+			if (ind == null)
+				throw new IOException("TMA core " + core + " is not in the hierarchy");
+			out.writeInt(ind);
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+
+	/**
+	 * Encode a list of objects.
+	 * Each object's parent must either be earlier in the list, or else in another chunk.
+	 */
+	static byte[] encode(List<PathObject> objects) throws IOException {
+		int n = objects.size();
+		var bytes = new ByteArrayOutputStream(n * 64 + 64);
+		var out = new DataOutputStream(bytes);
+
+		Map<PathObject, Integer> indices = new IdentityHashMap<>();
+		byte[] types = new byte[n];
+		long[] ids = new long[n * 2];
+		int[] parents = new int[n];
+		Map<PathObject, Integer> externalParents = new LinkedHashMap<>();
+		Map<PathClass, Integer> classes = new LinkedHashMap<>();
+		int[] classIndices = new int[n];
+		byte[] flags = new byte[n];
+		List<ROI> rois = new ArrayList<>(n);
+		List<ROI> nuclei = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			var pathObject = objects.get(i);
+			indices.put(pathObject, i);
+			types[i] = getType(pathObject);
+			var id = pathObject.getID();
+			ids[i * 2] = id.getMostSignificantBits();
+			ids[i * 2 + 1] = id.getLeastSignificantBits();
+			var parent = pathObject.getParent();
+			if (parent == null)
+				parents[i] = NO_PARENT;
+			else {
+				Integer ind = indices.get(parent);
+				if (ind == null)
+					ind = -2 - externalParents.computeIfAbsent(parent, p -> externalParents.size());
+				parents[i] = ind;
+			}
+			classIndices[i] = addPathClass(classes, pathObject.getPathClass());
+			int flag = 0;
+			if (!pathObject.isRootObject() && pathObject.isLocked())
+				flag |= FLAG_LOCKED;
+			if (pathObject instanceof TMACoreObject core && core.isMissing())
+				flag |= FLAG_MISSING;
+			if (pathObject.getName() != null)
+				flag |= FLAG_NAME;
+			if (pathObject.getColor() != null)
+				flag |= FLAG_COLOR;
+			if (pathObject.hasMetadata())
+				flag |= FLAG_METADATA;
+			if (!Double.isNaN(pathObject.getClassProbability()))
+				flag |= FLAG_PROBABILITY;
+			flags[i] = (byte)flag;
+			rois.add(pathObject.getROI());
+			if (pathObject instanceof PathCellObject cell)
+				nuclei.add(cell.getNucleusROI());
+		}
+
+		out.writeInt(VERSION);
+		out.writeInt(n);
+		out.write(types);
+		writeLongs(out, ids);
+		writeInts(out, parents);
+		out.writeInt(externalParents.size());
+		for (var parent : externalParents.keySet()) {
+			out.writeLong(parent.getID().getMostSignificantBits());
+			out.writeLong(parent.getID().getLeastSignificantBits());
+		}
+
+		out.writeInt(classes.size());
+		for (var pathClass : classes.keySet()) {
+			out.writeInt(pathClass.isDerivedClass() ? classes.get(pathClass.getParentClass()) : -1);
+			writeString(out, pathClass.getName());
+			var color = pathClass.getColor();
+			out.writeBoolean(color != null);
+			if (color != null)
+				out.writeInt(color);
+		}
+		writeInts(out, classIndices);
+
+		out.write(flags);
+		for (int i = 0; i < n; i++) {
+			var pathObject = objects.get(i);
+			if ((flags[i] & FLAG_NAME) != 0)
+				writeString(out, pathObject.getName());
+			if ((flags[i] & FLAG_COLOR) != 0)
+				out.writeInt(pathObject.getColor());
+			if ((flags[i] & FLAG_PROBABILITY) != 0)
+				out.writeDouble(pathObject.getClassProbability());
+			if ((flags[i] & FLAG_METADATA) != 0) {
+				var metadata = new LinkedHashMap<>(pathObject.getMetadata());
+				out.writeInt(metadata.size());
+				for (var entry : metadata.entrySet()) {
+					writeString(out, entry.getKey());
+					writeString(out, entry.getValue());
+				}
+			}
+		}
+
+		PackedROIs.write(out, rois);
+		PackedROIs.write(out, nuclei);
+
+		writeMeasurements(out, objects);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static int addPathClass(Map<PathClass, Integer> classes, PathClass pathClass) {
+		if (pathClass == null || pathClass == PathClass.NULL_CLASS)
+			return -1;
+		var ind = classes.get(pathClass);
+		if (ind != null)
+			return ind;
+		// Parents must be written first
+		if (pathClass.isDerivedClass())
+			addPathClass(classes, pathClass.getParentClass());
+		ind = classes.size();
+		classes.put(pathClass, ind);
+		return ind;
+	}
+
+	/**
+	 * Write measurements as columns.
+	 * Objects with the same measurement names share a schema, and the values for each name are written contiguously -
+	 * as floats if this is lossless, or doubles otherwise.
+	 */
+	private static void writeMeasurements(DataOutput out, List<PathObject> objects) throws IOException {
+		int n = objects.size();
+		Map<List<String>, Integer> schemas = new LinkedHashMap<>();
+		List<List<double[]>> schemaValues = new ArrayList<>();
+		int[] schemaIndices = new int[n];
+		for (int i = 0; i < n; i++) {
+			var pathObject = objects.get(i);
+			if (!pathObject.hasMeasurements()) {
+				schemaIndices[i] = -1;
+				continue;
+			}
+			List<String> names;
+			double[] values;
+			var measurements = pathObject.getMeasurementList();
+			synchronized (measurements) {
+				names = measurements.getNames();
+				values = measurements.values();
+			}
+			int ind = schemas.computeIfAbsent(List.copyOf(names), s -> schemas.size());
+			if (ind == schemaValues.size())
+				schemaValues.add(new ArrayList<>());
+			schemaValues.get(ind).add(values);
+			schemaIndices[i] = ind;
+		}
+		out.writeInt(schemas.size());
+		int s = 0;
+		for (var names : schemas.keySet()) {
+			out.writeInt(names.size());
+			for (var name : names)
+				writeString(out, name);
+			var rows = schemaValues.get(s++);
+			int nRows = rows.size();
+			out.writeInt(nRows);
+			for (int c = 0; c < names.size(); c++) {
+				boolean isFloat = true;
+				for (var row : rows) {
+					double val = row[c];
+					if ((float)val != val && !Double.isNaN(val)) {
+						isFloat = false;
+						break;
+					}
+				}
+				out.writeBoolean(isFloat);
+				var buffer = ByteBuffer.allocate(nRows * (isFloat ? Float.BYTES : Double.BYTES));
+				for (var row : rows) {
+					if (isFloat)
+						buffer.putFloat((float)row[c]);
+					else
+						buffer.putDouble(row[c]);
+				}
+				out.write(buffer.array());
+			}
+		}
+		writeInts(out, schemaIndices);
+	}
+
+
+	/**
+	 * Decoded objects, which haven't yet been linked to their parents.
+	 */
+	record DecodedChunk(List<PathObject> objects, int[] parents, UUID[] externalParents) {
+
+		/**
+		 * Add objects to their parents within the chunk.
+		 * @param filter filter for the indices of objects that should be added to their parents
+		 */
+		void linkChildren(IntPredicate filter) {
+			Map<Integer, List<PathObject>> children = new LinkedHashMap<>();
+			for (int i = 0; i < parents.length; i++) {
+				int parent = parents[i];
+				if (parent >= 0 && filter.test(i))
+					children.computeIfAbsent(parent, k -> new ArrayList<>()).add(objects.get(i));
+			}
+			for (var entry : children.entrySet())
+				objects.get(entry.getKey()).addChildObjects(entry.getValue());
+		}
+
+		/**
+		 * Get the objects whose parents are in another chunk, grouped by the parent ID.
+		 * @return
+		 */
+		Map<UUID, List<PathObject>> getExternalChildren() {
+			Map<UUID, List<PathObject>> children = new LinkedHashMap<>();
+			for (int i = 0; i < parents.length; i++) {
+				int parent = parents[i];
+				if (parent <= -2)
+					children.computeIfAbsent(externalParents[-2 - parent], k -> new ArrayList<>()).add(objects.get(i));
+			}
+			return children;
+		}
+
+	}
+
+	/**
+	 * Decode objects written with {@link #encode(List)}.
+	 * @param bytes the encoded objects
+	 * @param root the root object to use, if the chunk contains one
+	 * @return
+	 * @throws IOException
+	 */
+	static DecodedChunk decode(byte[] bytes, PathObject root) throws IOException {
+		return decode(bytes, root, null);
+	}
+
+	/**
+	 * Decode objects written with {@link #encode(List)}, optionally storing detection measurements in a shared table.
+	 * @param bytes the encoded objects
+	 * @param root the root object to use, if the chunk contains one
+	 * @param table optional table for the measurements of detections; if null, each object has its own list
+	 * @return
+	 * @throws IOException
+	 */
+	static DecodedChunk decode(byte[] bytes, PathObject root, MeasurementTable table) throws IOException {
+		var in = new DataInputStream(new ByteArrayInputStream(bytes));
+		int version = in.readInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported object chunk version " + version);
+		int n = in.readInt();
+		byte[] types = new byte[n];
+		in.readFully(types);
+		long[] ids = readLongs(in, n * 2);
+		int[] parents = readInts(in, n);
+		UUID[] externalParents = new UUID[in.readInt()];
+		for (int i = 0; i < externalParents.length; i++)
+			externalParents[i] = new UUID(in.readLong(), in.readLong());
+
+		PathClass[] classes = new PathClass[in.readInt()];
+		for (int i = 0; i < classes.length; i++) {
+			int parent = in.readInt();
+			var name = readString(in);
+			Integer color = in.readBoolean() ? in.readInt() : null;
+			classes[i] = PathClass.getInstance(parent < 0 ? null : classes[parent], name, color);
+		}
+		int[] classIndices = readInts(in, n);
+
+		byte[] flags = new byte[n];
+		in.readFully(flags);
+		String[] names = new String[n];
+		Integer[] colors = new Integer[n];
+		double[] probabilities = new double[n];
+		Arrays.fill(probabilities, Double.NaN);
+		List<Map<String, String>> metadata = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			if ((flags[i] & FLAG_NAME) != 0)
+				names[i] = readString(in);
+			if ((flags[i] & FLAG_COLOR) != 0)
+				colors[i] = in.readInt();
+			if ((flags[i] & FLAG_PROBABILITY) != 0)
+				probabilities[i] = in.readDouble();
+			Map<String, String> map = null;
+			if ((flags[i] & FLAG_METADATA) != 0) {
+				int size = in.readInt();
+				map = new LinkedHashMap<>();
+				for (int j = 0; j < size; j++)
+					map.put(readString(in), readString(in));
+			}
+			metadata.add(map);
+		}
+
+		var rois = PackedROIs.read(in);
+		var nuclei = PackedROIs.read(in);
+		var measurements = readMeasurements(in, types, table);
+
+		List<PathObject> objects = new ArrayList<>(n);
+		int iNucleus = 0;
+		for (int i = 0; i < n; i++) {
+			var roi = rois.get(i);
+			var type = types[i];
+			var ml = measurements[i];
+			PathObject pathObject = switch (type) {
+				case TYPE_ROOT -> {
+					if (root == null)
+						throw new IOException("Unexpected root object");
+					if (ml != null)
+						root.getMeasurementList().putAll(ml);
+					yield root;
+				}
+				case TYPE_ANNOTATION -> PathObjects.createAnnotationObject(roi, null, ml);
+				case TYPE_DETECTION -> PathObjects.createDetectionObject(roi, null, ml);
+				case TYPE_TILE -> PathObjects.createTileObject(roi, null, ml);
+				case TYPE_CELL -> PathObjects.createCellObject(roi, nuclei.get(iNucleus++), null, ml);
+				case TYPE_TMA_CORE -> {
+					var core = new TMACoreObject();
+					core.setROI(roi);
+					core.setMissing((flags[i] & FLAG_MISSING) != 0);
+					if (ml != null) {
+						try (var list = core.getMeasurementList()) {
+							list.putAll(ml);
+						}
+					}
+					yield core;
+				}
+				default -> throw new IOException("Unknown object type " + type);
+			};
+			pathObject.setID(new UUID(ids[i * 2], ids[i * 2 + 1]));
+			if (type != TYPE_ROOT) {
+				int classIndex = classIndices[i];
+				var pathClass = classIndex < 0 ? null : classes[classIndex];
+				if (pathClass != null || !Double.isNaN(probabilities[i]))
+					pathObject.setPathClass(pathClass, probabilities[i]);
+				pathObject.setLocked((flags[i] & FLAG_LOCKED) != 0);
+			}
+			pathObject.setName(names[i]);
+			// Set the color after the classification, since setting a classification resets the color
+			if (colors[i] != null)
+				pathObject.setColor(colors[i]);
+			if (metadata.get(i) != null)
+				pathObject.getMetadata().putAll(metadata.get(i));
+			objects.add(pathObject);
+		}
+		return new DecodedChunk(objects, parents, externalParents);
+	}
+
+	private static MeasurementList[] readMeasurements(DataInput in, byte[] types, MeasurementTable table) throws IOException {
+		int nSchemas = in.readInt();
+		List<String[]> schemaNames = new ArrayList<>(nSchemas);
+		List<double[][]> schemaColumns = new ArrayList<>(nSchemas);
+		List<Boolean> schemaIsFloat = new ArrayList<>(nSchemas);
+		for (int s = 0; s < nSchemas; s++) {
+			var names = new String[in.readInt()];
+			for (int c = 0; c < names.length; c++)
+				names[c] = readString(in);
+			int nRows = in.readInt();
+			var columns = new double[names.length][];
+			boolean allFloat = true;
+			for (int c = 0; c < names.length; c++) {
+				boolean isFloat = in.readBoolean();
+				allFloat = allFloat && isFloat;
+				var column = new double[nRows];
+				if (isFloat) {
+					var floats = readFloats(in, nRows);
+					for (int r = 0; r < nRows; r++)
+						column[r] = floats[r];
+				} else {
+					column = readDoubles(in, nRows);
+				}
+				columns[c] = column;
+			}
+			schemaNames.add(names);
+			schemaColumns.add(columns);
+			schemaIsFloat.add(allFloat);
+		}
+		int n = types.length;
+		int[] schemaIndices = readInts(in, n);
+		int[] rowCounts = new int[nSchemas];
+		var lists = new MeasurementList[n];
+		for (int i = 0; i < n; i++) {
+			int s = schemaIndices[i];
+			if (s < 0)
+				continue;
+			int row = rowCounts[s]++;
+			var names = schemaNames.get(s);
+			var columns = schemaColumns.get(s);
+			MeasurementList.MeasurementListType listType;
+			byte type = types[i];
+			boolean isDetection = type == TYPE_DETECTION || type == TYPE_TILE || type == TYPE_CELL;
+			if (isDetection)
+				listType = schemaIsFloat.get(s) ? MeasurementList.MeasurementListType.FLOAT : MeasurementList.MeasurementListType.DOUBLE;
+			else
+				listType = MeasurementList.MeasurementListType.GENERAL;
+			// Tables store floats, so should only be used if this won't lose precision
+			var list = table != null && listType == MeasurementList.MeasurementListType.FLOAT ?
+					MeasurementListFactory.createMeasurementList(table) :
+					MeasurementListFactory.createMeasurementList(names.length, listType);
+			for (int c = 0; c < names.length; c++)
+				list.put(names[c], columns[c][row]);
+			list.close();
+			lists[i] = list;
+		}
+		return lists;
+	}
+
+
+	private static void writeString(DataOutput out, String s) throws IOException {
+		var bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInput in) throws IOException {
+		var bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeInts(DataOutput out, int[] values) throws IOException {
+		var buffer = ByteBuffer.allocate(values.length * Integer.BYTES);
+		buffer.asIntBuffer().put(values);
+		out.write(buffer.array());
+	}
+
+	private static void writeLongs(DataOutput out, long[] values) throws IOException {
+		var buffer = ByteBuffer.allocate(values.length * Long.BYTES);
+		buffer.asLongBuffer().put(values);
+		out.write(buffer.array());
+	}
+
+	private static int[] readInts(DataInput in, int n) throws IOException {
+		var bytes = new byte[n * Integer.BYTES];
+		in.readFully(bytes);
+		var values = new int[n];
+		ByteBuffer.wrap(bytes).asIntBuffer().get(values);
+		return values;
+	}
+
+	private static long[] readLongs(DataInput in, int n) throws IOException {
+		var bytes = new byte[n * Long.BYTES];
+		in.readFully(bytes);
+		var values = new long[n];
+		ByteBuffer.wrap(bytes).asLongBuffer().get(values);
+		return values;
+	}
+
+	private static float[] readFloats(DataInput in, int n) throws IOException {
+		var bytes = new byte[n * Float.BYTES];
+		in.readFully(bytes);
+		var values = new float[n];
+		ByteBuffer.wrap(bytes).asFloatBuffer().get(values);
+		return values;
+	}
+
+	private static double[] readDoubles(DataInput in, int n) throws IOException {
+		var bytes = new byte[n * Double.BYTES];
+		in.readFully(bytes);
+		var values = new double[n];
+		ByteBuffer.wrap(bytes).asDoubleBuffer().get(values);
+		return values;
+	}
+
+}
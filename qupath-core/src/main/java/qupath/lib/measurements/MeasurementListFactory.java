@@ -33,7 +33,55 @@ package qupath.lib.measurements;
  */
 public class MeasurementListFactory {
 	
+	private static volatile boolean useColumnarStorage = false;
+	
 	private MeasurementListFactory() {}
+	
+	/**
+	 * Request that detections read into the same hierarchy share a {@link MeasurementTable}, rather than each
+	 * having its own list.
+	 * <p>
+	 * This reduces memory use and makes reading the same measurement for many objects much faster, at the cost of
+	 * rows not being reclaimed until the hierarchy is no longer used.
+	 * It is applied by readers that create many lists at once; it does not change the behavior of
+	 * {@link #createMeasurementList(int, MeasurementList.MeasurementListType)}.
+	 * <p>
+	 * This is off by default. QuPath turns it on according to a user preference; scripts and other 
+	 * applications need to opt in by calling this method before reading data files.
+	 * 
+	 * @param useColumns
+	 * @see #createMeasurementTable()
+	 */
+	public static void setUseColumnarStorage(boolean useColumns) {
+		useColumnarStorage = useColumns;
+	}
+	
+	/**
+	 * Query whether detections read into the same hierarchy should share a {@link MeasurementTable}.
+	 * @return
+	 * @see #setUseColumnarStorage(boolean)
+	 */
+	public static boolean getUseColumnarStorage() {
+		return useColumnarStorage;
+	}
+	
+	/**
+	 * Create a new table to share between many measurement lists, if columnar storage is requested.
+	 * @return a new table, or null if {@link #getUseColumnarStorage()} is false
+	 */
+	public static MeasurementTable createMeasurementTable() {
+		return useColumnarStorage ? new MeasurementTable() : null;
+	}
+	
+	/**
+	 * Create a measurement list backed by a row of a shared table.
+	 * Values are stored as floats.
+	 * @param table
+	 * @return
+	 */
+	public static MeasurementList createMeasurementList(MeasurementTable table) {
+		return table.createMeasurementList();
+	}
 
 	/**
 	 * Create a measurement list.
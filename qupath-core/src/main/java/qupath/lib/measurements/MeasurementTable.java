@@ -0,0 +1,410 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.measurements;
+
+import java.io.ObjectStreamException;
+import java.io.Serial;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * A table of measurements stored in columns, which can be shared by many {@link MeasurementList} instances.
+ * <p>
+ * Each list created by {@link #createMeasurementList()} represents one row of the table, and each measurement name
+ * one column. Values are stored as floats in pages of primitive arrays, and lists with the same measurements share
+ * the same names - so that {@link #getValues(Collection, List)} can read many measurements for many objects without
+ * locking or repeated name lookups.
+ * <p>
+ * Lists backed by a table don't use synchronization when reading or updating existing measurements; only adding or
+ * removing measurement names requires a lock on the list.
+ * As with other measurement lists, changes made by one thread are not guaranteed to be visible to other threads
+ * without some other form of synchronization (e.g. submitting tasks to an executor, or firing hierarchy events).
+ * <p>
+ * Rows are not reused, so a table should be shared by objects with a similar lifetime - such as the detections
+ * read into one hierarchy. The memory is released when the table and all its lists are no longer reachable.
+ * Lists are serialized as regular float lists, without the table.
+ *
+ * @see MeasurementListFactory#createMeasurementList(MeasurementTable)
+ */
+public final class MeasurementTable {
+
+	private static final int PAGE_BITS = 12;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	private final AtomicInteger nRows = new AtomicInteger();
+	private final Map<String, Column> columns = Collections.synchronizedMap(new LinkedHashMap<>());
+	private final Map<List<String>, Schema> schemas = new ConcurrentHashMap<>();
+	private final Schema emptySchema = new Schema(Collections.emptyList(), new Column[0]);
+
+	/**
+	 * Create a new, empty table.
+	 */
+	public MeasurementTable() {}
+
+	/**
+	 * Create a new measurement list, backed by a new row of this table.
+	 * @return
+	 */
+	public MeasurementList createMeasurementList() {
+		return new ColumnarMeasurementList(this, nRows.getAndIncrement());
+	}
+
+	/**
+	 * Get the number of rows in the table, i.e. the number of lists that have been created.
+	 * @return
+	 */
+	public int nRows() {
+		return nRows.get();
+	}
+
+	/**
+	 * Get the names of all columns in the table.
+	 * This includes names that were previously used by a list, even if they have since been removed.
+	 * @return
+	 */
+	public List<String> getColumnNames() {
+		synchronized (columns) {
+			return List.copyOf(columns.keySet());
+		}
+	}
+
+	/**
+	 * Get the values of many measurements from many lists, arranged in rows.
+	 * This is equivalent to calling {@link MeasurementList#get(String)} for each list and name, but avoids repeated
+	 * name lookups for lists that share the same measurement names - whether or not they are backed by a table.
+	 * @param lists the lists to query
+	 * @param names the measurement names
+	 * @return an array with one row per list and one column per name, containing NaN if a list does not contain
+	 *         the measurement
+	 */
+	public static double[][] getValues(Collection<? extends MeasurementList> lists, List<String> names) {
+		var values = new double[lists.size()][];
+		int nNames = names.size();
+		// Cache the indices for the last schema (for table-backed lists) or list of names (for other lists)
+		Schema lastSchema = null;
+		List<String> lastNames = null;
+		int[] lastIndices = null;
+		int i = 0;
+		for (var list : lists) {
+			var row = new double[nNames];
+			if (list instanceof ColumnarMeasurementList columnar) {
+				var schema = columnar.schema;
+				if (schema != lastSchema) {
+					lastSchema = schema;
+					lastNames = null;
+					lastIndices = names.stream().mapToInt(schema::indexOf).toArray();
+				}
+				for (int c = 0; c < nNames; c++) {
+					int ind = lastIndices[c];
+					row[c] = ind < 0 ? Double.NaN : schema.columns[ind].get(columnar.row);
+				}
+			} else if (list == null) {
+				Arrays.fill(row, Double.NaN);
+			} else {
+				// Lists with the same measurements generally share the same list of names,
+				// so that we can usually look up the indices once & then need only call values()
+				var listNames = list.getNames();
+				var listValues = list.values();
+				if (listValues.length != listNames.size()) {
+					// The list must have been modified between calls - so look up each value separately
+					for (int c = 0; c < nNames; c++)
+						row[c] = list.get(names.get(c));
+				} else {
+					if (listNames != lastNames && !listNames.equals(lastNames)) {
+						lastSchema = null;
+						lastNames = listNames;
+						lastIndices = names.stream().mapToInt(listNames::indexOf).toArray();
+					}
+					for (int c = 0; c < nNames; c++) {
+						int ind = lastIndices[c];
+						row[c] = ind < 0 ? Double.NaN : listValues[ind];
+					}
+				}
+			}
+			values[i++] = row;
+		}
+		return values;
+	}
+
+	private Column getOrCreateColumn(String name) {
+		synchronized (columns) {
+			return columns.computeIfAbsent(name, n -> new Column());
+		}
+	}
+
+	private Schema getSchema(List<String> names) {
+		if (names.isEmpty())
+			return emptySchema;
+		var schema = schemas.get(names);
+		if (schema != null)
+			return schema;
+		var copy = names.stream().map(String::intern).toList();
+		var columnArray = copy.stream().map(this::getOrCreateColumn).toArray(Column[]::new);
+		return schemas.computeIfAbsent(copy, n -> new Schema(n, columnArray));
+	}
+
+	private Schema withName(Schema schema, String name) {
+		var next = schema.added.get(name);
+		if (next == null) {
+			var names = new ArrayList<>(schema.names);
+			names.add(name);
+			next = getSchema(names);
+			schema.added.putIfAbsent(name, next);
+		}
+		return next;
+	}
+
+	private Schema withoutNames(Schema schema, Collection<String> names) {
+		var remaining = new ArrayList<>(schema.names);
+		if (!remaining.removeAll(names))
+			return schema;
+		return getSchema(remaining);
+	}
+
+	@Override
+	public String toString() {
+		return "MeasurementTable[rows=" + nRows() + ", columns=" + columns.size() + "]";
+	}
+
+
+	/**
+	 * A single column, stored in fixed-size pages so that existing values never need to be copied
+	 * (and so can't be lost by concurrent writes while the column grows).
+	 */
+	private static class Column {
+
+		private volatile float[][] pages = new float[0][];
+
+		float get(int row) {
+			var p = pages;
+			int ind = row >>> PAGE_BITS;
+			if (ind >= p.length || p[ind] == null)
+				return Float.NaN;
+			return p[ind][row & PAGE_MASK];
+		}
+
+		void set(int row, float value) {
+			var p = pages;
+			int ind = row >>> PAGE_BITS;
+			float[] page = ind < p.length ? p[ind] : null;
+			if (page == null)
+				page = createPage(ind);
+			page[row & PAGE_MASK] = value;
+		}
+
+		private synchronized float[] createPage(int ind) {
+			var p = pages;
+			if (ind < p.length && p[ind] != null)
+				return p[ind];
+			p = Arrays.copyOf(p, Math.max(ind + 1, p.length));
+			var page = new float[PAGE_SIZE];
+			Arrays.fill(page, Float.NaN);
+			p[ind] = page;
+			pages = p;
+			return page;
+		}
+
+	}
+
+
+	/**
+	 * An immutable, ordered set of measurement names shared by all rows that contain the same measurements.
+	 */
+	private static class Schema {
+
+		private final List<String> names;
+		private final Column[] columns;
+		private final Map<String, Integer> indices;
+		private final Map<String, Schema> added = new ConcurrentHashMap<>();
+
+		Schema(List<String> names, Column[] columns) {
+			this.names = names;
+			this.columns = columns;
+			this.indices = new HashMap<>();
+			for (int i = 0; i < names.size(); i++)
+				indices.put(names.get(i), i);
+		}
+
+		int indexOf(String name) {
+			var ind = indices.get(name);
+			return ind == null ? -1 : ind;
+		}
+
+	}
+
+
+	private static class ColumnarMeasurementList implements MeasurementList {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient MeasurementTable table;
+		private final transient int row;
+		private transient volatile Schema schema;
+
+		private transient volatile Map<String, Number> mapView;
+
+		ColumnarMeasurementList(MeasurementTable table, int row) {
+			this.table = table;
+			this.row = row;
+			this.schema = table.emptySchema;
+		}
+
+		@Override
+		public double get(String name) {
+			var s = schema;
+			int ind = s.indexOf(name);
+			return ind < 0 ? Double.NaN : s.columns[ind].get(row);
+		}
+
+		@Override
+		public boolean containsKey(String name) {
+			return schema.indexOf(name) >= 0;
+		}
+
+		@Override
+		public void put(String name, double value) {
+			var s = schema;
+			int ind = s.indexOf(name);
+			if (ind >= 0) {
+				s.columns[ind].set(row, (float)value);
+				return;
+			}
+			synchronized (this) {
+				s = schema;
+				ind = s.indexOf(name);
+				if (ind < 0) {
+					s = table.withName(s, name);
+					ind = s.names.size() - 1;
+				}
+				// Set the value before the schema, so that the new measurement is never seen without it
+				s.columns[ind].set(row, (float)value);
+				schema = s;
+			}
+		}
+
+		@Override
+		public List<Measurement> getMeasurements() {
+			var s = schema;
+			int n = s.names.size();
+			if (n == 0)
+				return Collections.emptyList();
+			return IntStream.range(0, n)
+					.mapToObj(i -> MeasurementFactory.createMeasurement(s.names.get(i), s.columns[i].get(row)))
+					.toList();
+		}
+
+		@Override
+		public Measurement getByIndex(int ind) {
+			var s = schema;
+			return MeasurementFactory.createMeasurement(s.names.get(ind), s.columns[ind].get(row));
+		}
+
+		@Override
+		public double[] values() {
+			var s = schema;
+			var values = new double[s.names.size()];
+			for (int i = 0; i < values.length; i++)
+				values[i] = s.columns[i].get(row);
+			return values;
+		}
+
+		@Override
+		public synchronized double remove(String name) {
+			var s = schema;
+			int ind = s.indexOf(name);
+			if (ind < 0)
+				return Double.NaN;
+			double value = s.columns[ind].get(row);
+			schema = table.withoutNames(s, List.of(name));
+			return value;
+		}
+
+		@Override
+		public List<String> getNames() {
+			return schema.names;
+		}
+
+		@Override
+		public int size() {
+			return schema.names.size();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return schema.names.isEmpty();
+		}
+
+		@Override
+		public synchronized void removeAll(String... measurementNames) {
+			schema = table.withoutNames(schema, Arrays.asList(measurementNames));
+		}
+
+		@Override
+		public synchronized void clear() {
+			schema = table.withoutNames(schema, schema.names);
+		}
+
+		@Override
+		public Map<String, Number> asMap() {
+			if (mapView == null) {
+				synchronized (this) {
+					if (mapView == null)
+						mapView = Collections.synchronizedMap(new MeasurementsMap(this));
+				}
+			}
+			return mapView;
+		}
+
+		@Override
+		public String toString() {
+			return "[" + getMeasurements().stream()
+					.map(m -> m.getName() + ": " + m.getValue())
+					.collect(Collectors.joining(", ")) + "]";
+		}
+
+		/**
+		 * Serialize as a standalone float list, since the table isn't serializable.
+		 */
+		@Serial
+		private Object writeReplace() throws ObjectStreamException {
+			var s = schema;
+			var list = new NumericMeasurementList.FloatList(s.names.size());
+			for (int i = 0; i < s.names.size(); i++)
+				list.put(s.names.get(i), s.columns[i].get(row));
+			list.close();
+			return list;
+		}
+
+	}
+
+}
@@ -22,6 +22,10 @@
 package qupath.lib.objects.classes;
 
 import qupath.lib.objects.PathObject;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+
+import java.util.Collection;
+import java.util.List;
 
 /**
  * Helper class when classifying PathObjects.
@@ -83,6 +87,35 @@ public class Reclassifier {
 		return previousClass != pathClass;
 	}
 	
+	/**
+	 * Apply many stored classifications in parallel.
+	 * @param reclassifiers the reclassifiers to apply
+	 * @return the objects whose classification changed
+	 * @see #applyAll(PathObjectHierarchy, Object, Collection)
+	 */
+	public static List<PathObject> applyAll(Collection<? extends Reclassifier> reclassifiers) {
+		return reclassifiers.parallelStream()
+				.filter(Reclassifier::apply)
+				.map(Reclassifier::getPathObject)
+				.toList();
+	}
+	
+	/**
+	 * Apply many stored classifications in parallel, then fire a single event to notify listeners of the hierarchy 
+	 * about all the objects whose classification changed.
+	 * No event is fired if no classifications changed.
+	 * @param hierarchy the hierarchy containing the objects
+	 * @param source the source of the event
+	 * @param reclassifiers the reclassifiers to apply
+	 * @return the objects whose classification changed
+	 */
+	public static List<PathObject> applyAll(PathObjectHierarchy hierarchy, Object source, Collection<? extends Reclassifier> reclassifiers) {
+		var changed = applyAll(reclassifiers);
+		if (!changed.isEmpty())
+			hierarchy.fireObjectClassificationsChangedEvent(source, changed);
+		return changed;
+	}
+	
 	/**
 	 * Get the stored PathObject for which the PathClass may be set.
 	 * @return
@@ -0,0 +1,303 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Thread-safe cache with weakly-referenced keys and an upper bound on its size.
+ * <p>
+ * This is intended as a replacement for {@code Collections.synchronizedMap(new WeakHashMap<>())}
+ * where the cache is accessed from many threads at once.
+ * Keys are compared using {@link Object#equals(Object)}, as for a {@link java.util.WeakHashMap}.
+ * <p>
+ * Entries are removed when their keys are garbage collected. Because values may (directly or indirectly)
+ * reference their keys, the cache also evicts arbitrary entries whenever the maximum size is exceeded.
+ * Since the values are expected to be recomputable, this only affects performance and not correctness.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+class ConcurrentWeakCache<K, V> {
+
+	/**
+	 * Proportion of the maximum size to evict whenever the maximum is exceeded.
+	 */
+	private static final double EVICTION_FRACTION = 0.1;
+
+	private final String name;
+	private final int maxSize;
+
+	private final ConcurrentHashMap<Object, V> map = new ConcurrentHashMap<>();
+	private final ReferenceQueue<K> queue = new ReferenceQueue<>();
+	private final AtomicBoolean evicting = new AtomicBoolean(false);
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Create a cache.
+	 * @param name name of the cache, used in {@link #toString()}
+	 * @param maxSize the maximum number of entries
+	 */
+	ConcurrentWeakCache(String name, int maxSize) {
+		if (maxSize <= 0)
+			throw new IllegalArgumentException("Maximum cache size must be > 0");
+		this.name = name;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Get the cached value for a key.
+	 * @param key
+	 * @return the value, or null if none is cached
+	 */
+	V get(K key) {
+		V value = map.get(new LookupKey(key));
+		if (value == null)
+			misses.increment();
+		else
+			hits.increment();
+		return value;
+	}
+
+	/**
+	 * Get the cached value for a key, computing it if necessary.
+	 * <p>
+	 * Unlike {@link ConcurrentHashMap#computeIfAbsent(Object, Function)}, the function is called without holding any lock.
+	 * This means the value may occasionally be computed more than once, but a slow computation for one key
+	 * never blocks access to other keys.
+	 *
+	 * @param key
+	 * @param fun function to compute the value
+	 * @return the cached or computed value
+	 */
+	V computeIfAbsent(K key, Function<? super K, ? extends V> fun) {
+		V value = map.get(new LookupKey(key));
+		if (value != null) {
+			hits.increment();
+			return value;
+		}
+		misses.increment();
+		value = fun.apply(key);
+		if (value == null)
+			return null;
+		expungeStaleEntries();
+		var weakKey = new WeakKey<>(key, queue);
+		V previous = map.putIfAbsent(weakKey, value);
+		if (previous != null)
+			return previous;
+		if (map.size() > maxSize)
+			evict(weakKey);
+		return value;
+	}
+
+	/**
+	 * Add a value to the cache, replacing any existing value.
+	 * @param key
+	 * @param value
+	 */
+	void put(K key, V value) {
+		Objects.requireNonNull(value);
+		expungeStaleEntries();
+		var weakKey = new WeakKey<>(key, queue);
+		map.put(weakKey, value);
+		if (map.size() > maxSize)
+			evict(weakKey);
+	}
+
+	/**
+	 * Get the current number of entries.
+	 * This may include entries for keys that have been garbage collected, but not yet removed.
+	 * @return
+	 */
+	int size() {
+		return map.size();
+	}
+
+	/**
+	 * Get the maximum number of entries.
+	 * @return
+	 */
+	int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Remove all entries. Metrics are not reset.
+	 */
+	void clear() {
+		map.clear();
+		expungeStaleEntries();
+	}
+
+	/**
+	 * Get the number of lookups that returned a cached value.
+	 * @return
+	 */
+	long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * Get the number of lookups that did not return a cached value.
+	 * @return
+	 */
+	long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * Get the number of entries evicted because the maximum size was exceeded.
+	 * Entries removed because of garbage collection are not included.
+	 * @return
+	 */
+	long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Get the proportion of lookups that returned a cached value.
+	 * @return the hit rate, or {@code Double.NaN} if there have been no lookups
+	 */
+	double getHitRate() {
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return total == 0 ? Double.NaN : (double)h / total;
+	}
+
+	private void expungeStaleEntries() {
+		Reference<? extends K> ref;
+		while ((ref = queue.poll()) != null) {
+			map.remove(ref);
+		}
+	}
+
+	/**
+	 * Evict entries until the size is comfortably below the maximum.
+	 * @param keep the most recently-added key, which shouldn't be evicted
+	 */
+	private void evict(Object keep) {
+		// Only one thread needs to evict at a time - others can proceed without waiting
+		if (!evicting.compareAndSet(false, true))
+			return;
+		try {
+			int target = Math.max(1, (int)(maxSize * EVICTION_FRACTION));
+			int nEvicted = 0;
+			Iterator<Object> iterator = map.keySet().iterator();
+			while (iterator.hasNext() && nEvicted < target && map.size() > maxSize - target) {
+				if (iterator.next() == keep)
+					continue;
+				iterator.remove();
+				nEvicted++;
+			}
+			evictions.add(nEvicted);
+		} finally {
+			evicting.set(false);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s [size=%d, max=%d, hits=%d, misses=%d, evictions=%d]",
+				name, size(), maxSize, getHitCount(), getMissCount(), getEvictionCount());
+	}
+
+
+	/**
+	 * Key stored in the map. The hash code is cached so that stale keys can still be removed
+	 * after the referent has been cleared.
+	 */
+	private static class WeakKey<K> extends WeakReference<K> {
+
+		private final int hash;
+
+		private WeakKey(K key, ReferenceQueue<K> queue) {
+			super(key, queue);
+			this.hash = key.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj instanceof WeakKey<?> other) {
+				Object key = get();
+				return key != null && hash == other.hash && key.equals(other.get());
+			}
+			if (obj instanceof LookupKey other) {
+				Object key = get();
+				return key != null && hash == other.hash && key.equals(other.key);
+			}
+			return false;
+		}
+
+	}
+
+	/**
+	 * Short-lived key used only to query the map.
+	 */
+	private static class LookupKey {
+
+		private final Object key;
+		private final int hash;
+
+		private LookupKey(Object key) {
+			this.key = key;
+			this.hash = key.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj instanceof WeakKey<?> other) {
+				Object otherKey = other.get();
+				return otherKey != null && hash == other.hash && key.equals(otherKey);
+			}
+			if (obj instanceof LookupKey other)
+				return hash == other.hash && key.equals(other.key);
+			return false;
+		}
+
+	}
+
+}
@@ -0,0 +1,393 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.objects.PathObject;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.ImageRegion;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Helper class to load detections from a {@link LazyDetectionStore} into a {@link PathObjectHierarchy} on demand,
+ * and to remove them again when they are unchanged and no longer needed.
+ * <p>
+ * Loaded detections are added directly as children of their parents, without firing hierarchy events.
+ * All changes to the hierarchy are made while synchronized on the hierarchy, but checking whether a region is
+ * already loaded does not require any lock.
+ */
+class LazyDetectionManager {
+
+	private static final Logger logger = LoggerFactory.getLogger(LazyDetectionManager.class);
+
+	/**
+	 * Proportion of the maximum memory above which chunks are evicted, even if there are fewer than the maximum
+	 * number of resident objects.
+	 */
+	private static final double MAX_MEMORY_FRACTION = 0.75;
+
+	private final PathObjectHierarchy hierarchy;
+	private final LazyDetectionStore store;
+	private final int maxResidentObjects;
+
+	private final List<ChunkState> states;
+	private final Map<ImagePlane, List<ChunkState>> statesByPlane;
+	private final Map<UUID, List<ChunkState>> statesByParent;
+
+	private final AtomicLong clock;
+
+	// Number of objects currently loaded from the store; only accessed while synchronized on the hierarchy
+	private int nResident = 0;
+
+	private static class ChunkState {
+
+		// Summary of the chunk; this may be updated after the store has been rewritten
+		private volatile LazyDetectionStore.Chunk chunk;
+
+		// Top-level detections in the chunk, or null if the chunk isn't loaded
+		private volatile List<PathObject> pathObjects;
+		// Parents to which each detection was added
+		private List<PathObject> parents;
+		// Set if the chunk couldn't be read, to avoid trying again for every request
+		private volatile boolean failed;
+
+		private volatile long lastUsed;
+
+		private ChunkState(LazyDetectionStore.Chunk chunk) {
+			this.chunk = chunk;
+		}
+
+		private boolean isLoaded() {
+			return pathObjects != null;
+		}
+
+	}
+
+	LazyDetectionManager(PathObjectHierarchy hierarchy, LazyDetectionStore store, int maxResidentObjects) {
+		this.hierarchy = hierarchy;
+		this.store = store;
+		this.maxResidentObjects = maxResidentObjects;
+		this.clock = new AtomicLong();
+		this.states = store.getChunks().stream().map(ChunkState::new).toList();
+		this.statesByPlane = new HashMap<>();
+		this.statesByParent = new HashMap<>();
+		for (var state : states) {
+			statesByPlane.computeIfAbsent(state.chunk.region().getImagePlane(), p -> new ArrayList<>()).add(state);
+			for (var id : state.chunk.parentIDs())
+				statesByParent.computeIfAbsent(id, p -> new ArrayList<>()).add(state);
+		}
+	}
+
+	/**
+	 * Create a manager for a different hierarchy, which shares the same root object and chunk states.
+	 */
+	private LazyDetectionManager(PathObjectHierarchy hierarchy, LazyDetectionManager previous) {
+		this.hierarchy = hierarchy;
+		this.store = previous.store;
+		this.maxResidentObjects = previous.maxResidentObjects;
+		this.clock = previous.clock;
+		this.states = previous.states;
+		this.statesByPlane = previous.statesByPlane;
+		this.statesByParent = previous.statesByParent;
+		this.nResident = previous.nResident;
+	}
+
+	LazyDetectionManager withHierarchy(PathObjectHierarchy hierarchy) {
+		return new LazyDetectionManager(hierarchy, this);
+	}
+
+	LazyDetectionStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Ensure that all chunks overlapping a region are loaded.
+	 * @param region the region, or null if all chunks should be loaded
+	 */
+	void ensureLoaded(ImageRegion region) {
+		List<ChunkState> required;
+		if (region == null)
+			required = states;
+		else {
+			var planeStates = statesByPlane.getOrDefault(region.getImagePlane(), Collections.emptyList());
+			required = new ArrayList<>();
+			for (var state : planeStates) {
+				if (state.chunk.region().intersects(region))
+					required.add(state);
+			}
+		}
+		ensureLoaded(required);
+	}
+
+	/**
+	 * Ensure that all chunks containing children of the specified objects (or of their non-detection descendants)
+	 * are loaded.
+	 * This is needed before the objects are removed or moved, so that their children aren't lost.
+	 * @param pathObjects
+	 */
+	void ensureLoadedForParents(Collection<? extends PathObject> pathObjects) {
+		Set<ChunkState> required = new LinkedHashSet<>();
+		var stack = new ArrayDeque<PathObject>(pathObjects);
+		while (!stack.isEmpty()) {
+			var pathObject = stack.pop();
+			if (pathObject.isDetection())
+				continue;
+			required.addAll(statesByParent.getOrDefault(pathObject.getID(), Collections.emptyList()));
+			for (var child : pathObject.getChildObjectsAsArray()) {
+				if (!child.isDetection())
+					stack.push(child);
+			}
+		}
+		ensureLoaded(required);
+	}
+
+	private void ensureLoaded(Collection<ChunkState> required) {
+		if (required.isEmpty())
+			return;
+		long tick = clock.incrementAndGet();
+		List<ChunkState> toLoad = new ArrayList<>();
+		for (var state : required) {
+			state.lastUsed = tick;
+			if (!state.isLoaded() && !state.failed)
+				toLoad.add(state);
+		}
+		if (toLoad.isEmpty())
+			return;
+		synchronized (hierarchy) {
+			load(toLoad);
+			evictIfNeeded(tick);
+		}
+	}
+
+	/**
+	 * Get the chunks that are not currently loaded.
+	 * @return
+	 */
+	List<LazyDetectionStore.Chunk> getUnloadedChunks() {
+		return states.stream().filter(s -> !s.isLoaded()).map(s -> s.chunk).toList();
+	}
+
+	/**
+	 * Get the total number of objects in chunks that are not currently loaded.
+	 * @return
+	 */
+	int nUnloadedObjects() {
+		int n = 0;
+		for (var state : states) {
+			if (!state.isLoaded())
+				n += state.chunk.nObjects();
+		}
+		return n;
+	}
+
+	private void load(List<ChunkState> toLoad) {
+		long startTime = System.currentTimeMillis();
+		// Read chunks in parallel, then add them to the hierarchy
+		Map<ChunkState, Map<UUID, List<PathObject>>> loaded = new LinkedHashMap<>();
+		toLoad.parallelStream()
+				.filter(s -> !s.isLoaded())
+				.map(s -> {
+					try {
+						return Map.entry(s, store.readChunk(s.chunk));
+					} catch (IOException e) {
+						// Leave the chunk unloaded, so that it is retained when the data is saved
+						logger.error("Unable to read detections for {}: {}", s.chunk.key(), e.getMessage(), e);
+						s.failed = true;
+						return null;
+					}
+				})
+				.filter(Objects::nonNull)
+				.toList()
+				.forEach(e -> loaded.put(e.getKey(), e.getValue()));
+		var parentMap = createParentMap();
+		var root = hierarchy.getRootObject();
+		Map<PathObject, List<PathObject>> added = new IdentityHashMap<>();
+		for (var entry : loaded.entrySet()) {
+			var state = entry.getKey();
+			List<PathObject> pathObjects = new ArrayList<>();
+			List<PathObject> parents = new ArrayList<>();
+			for (var children : entry.getValue().entrySet()) {
+				var parent = parentMap.get(children.getKey());
+				if (parent == null) {
+					logger.warn("Unable to find parent {} for {} object(s) - these will be added to the root", children.getKey(), children.getValue().size());
+					parent = root;
+				}
+				added.computeIfAbsent(parent, p -> new ArrayList<>()).addAll(children.getValue());
+				for (var child : children.getValue()) {
+					pathObjects.add(child);
+					parents.add(parent);
+				}
+			}
+			state.parents = parents;
+			state.pathObjects = pathObjects;
+			nResident += state.chunk.nObjects();
+		}
+		hierarchy.addLazyDetections(added);
+		logger.debug("Loaded {} detection chunk(s) in {} ms ({} objects resident)",
+				loaded.size(), System.currentTimeMillis() - startTime, nResident);
+	}
+
+	/**
+	 * Update the chunk summaries from the store, after it has been rewritten.
+	 * <p>
+	 * Chunks that were loaded and have since been saved can then be recognized as unchanged by the store, and
+	 * so evicted again.
+	 * Chunks that are no longer in the store remain loaded.
+	 * Evictable chunks can't have changed parents, so the parent lookup doesn't need to be updated.
+	 * <p>
+	 * This should be called while synchronized on the hierarchy.
+	 */
+	void refreshChunks() {
+		Map<String, LazyDetectionStore.Chunk> chunks = new HashMap<>();
+		for (var chunk : store.getChunks())
+			chunks.put(chunk.key(), chunk);
+		for (var state : states) {
+			var chunk = chunks.get(state.chunk.key());
+			if (chunk == null)
+				continue;
+			if (state.isLoaded())
+				nResident += chunk.nObjects() - state.chunk.nObjects();
+			state.chunk = chunk;
+			state.failed = false;
+		}
+	}
+
+	/**
+	 * Create a map of IDs for all objects that may be parents of the detections in a chunk.
+	 */
+	private Map<UUID, PathObject> createParentMap() {
+		Map<UUID, PathObject> map = new HashMap<>();
+		var stack = new ArrayDeque<PathObject>();
+		stack.push(hierarchy.getRootObject());
+		while (!stack.isEmpty()) {
+			var pathObject = stack.pop();
+			map.put(pathObject.getID(), pathObject);
+			for (var child : pathObject.getChildObjectsAsArray()) {
+				if (!child.isDetection())
+					stack.push(child);
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * Remove loaded chunks that haven't been used recently, if there are too many resident objects or
+	 * memory is running low.
+	 * @param tick chunks used at or after this time won't be evicted
+	 */
+	private void evictIfNeeded(long tick) {
+		int target = maxResidentObjects;
+		if (isMemoryLow())
+			target = Math.min(target, nResident / 2);
+		if (nResident <= target)
+			return;
+		var candidates = states.stream()
+				.filter(s -> s.isLoaded() && s.lastUsed < tick)
+				.sorted(Comparator.comparingLong(s -> s.lastUsed))
+				.toList();
+		if (candidates.isEmpty())
+			return;
+		var selected = getSelectedTopLevelDetections();
+		Map<PathObject, List<PathObject>> removed = new IdentityHashMap<>();
+		int nEvicted = 0;
+		for (var state : candidates) {
+			if (nResident <= target)
+				break;
+			if (!canEvict(state, selected))
+				continue;
+			for (int i = 0; i < state.pathObjects.size(); i++)
+				removed.computeIfAbsent(state.parents.get(i), p -> new ArrayList<>()).add(state.pathObjects.get(i));
+			state.pathObjects = null;
+			state.parents = null;
+			nResident -= state.chunk.nObjects();
+			nEvicted++;
+		}
+		if (!removed.isEmpty()) {
+			// Remove the objects and update the caches together, so that queries never see a partial change
+			hierarchy.removeLazyDetections(removed);
+			logger.debug("Evicted {} detection chunk(s) ({} objects resident)", nEvicted, nResident);
+		}
+	}
+
+	/**
+	 * Check whether a chunk can be removed from the hierarchy and reloaded later, without losing anything.
+	 */
+	private boolean canEvict(ChunkState state, Set<PathObject> selected) {
+		var pathObjects = state.pathObjects;
+		for (int i = 0; i < pathObjects.size(); i++) {
+			var pathObject = pathObjects.get(i);
+			var parent = state.parents.get(i);
+			if (pathObject.getParent() != parent || !isInHierarchy(parent) || selected.contains(pathObject))
+				return false;
+		}
+		return store.isUnchanged(state.chunk, pathObjects);
+	}
+
+	private boolean isInHierarchy(PathObject pathObject) {
+		while (pathObject.getParent() != null)
+			pathObject = pathObject.getParent();
+		return pathObject == hierarchy.getRootObject();
+	}
+
+	/**
+	 * Get the top-level detections (i.e. those with a parent that isn't a detection) that are selected or
+	 * have a selected descendant.
+	 */
+	private Set<PathObject> getSelectedTopLevelDetections() {
+		var selectedObjects = hierarchy.getSelectionModel().getSelectedObjects();
+		if (selectedObjects.isEmpty())
+			return Collections.emptySet();
+		Set<PathObject> set = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (var pathObject : selectedObjects) {
+			if (!pathObject.isDetection())
+				continue;
+			while (pathObject.getParent() != null && pathObject.getParent().isDetection())
+				pathObject = pathObject.getParent();
+			set.add(pathObject);
+		}
+		return set;
+	}
+
+	private static boolean isMemoryLow() {
+		var runtime = Runtime.getRuntime();
+		long used = runtime.totalMemory() - runtime.freeMemory();
+		return used > runtime.maxMemory() * MAX_MEMORY_FRACTION;
+	}
+
+}
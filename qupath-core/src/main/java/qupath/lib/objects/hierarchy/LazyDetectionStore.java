@@ -0,0 +1,79 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.regions.ImageRegion;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A store of detection objects that can be loaded into a {@link PathObjectHierarchy} on demand, rather than
+ * being held in memory all the time.
+ * <p>
+ * Detections are grouped into spatial chunks that are loaded whenever the hierarchy is queried for a region that
+ * they overlap, and may be removed again if they are unchanged and haven't been used recently.
+ * Other objects (e.g. annotations and TMA cores) are always resident in the hierarchy.
+ *
+ * @see PathObjectHierarchy#setLazyDetectionStore(LazyDetectionStore, int)
+ */
+public interface LazyDetectionStore {
+
+	/**
+	 * Summary of a chunk of detections that can be loaded independently.
+	 * @param key unique key for the chunk
+	 * @param region region containing the bounding boxes of all ROIs in the chunk
+	 * @param nObjects number of objects in the chunk, including all descendants of the detections
+	 * @param parentIDs IDs of the (non-detection) parents of the detections in the chunk
+	 */
+	record Chunk(String key, ImageRegion region, int nObjects, Set<UUID> parentIDs) {}
+
+	/**
+	 * Get all the chunks in the store.
+	 * @return
+	 */
+	List<Chunk> getChunks();
+
+	/**
+	 * Read the detections within a chunk.
+	 * The detections are grouped according to the IDs of their parents, which are outside the chunk.
+	 * Any descendants of the detections that are also in the chunk should already be added as child objects.
+	 * @param chunk the chunk to read
+	 * @return a map of parent IDs to the detections that should be added as children of each parent
+	 * @throws IOException
+	 */
+	Map<UUID, List<PathObject>> readChunk(Chunk chunk) throws IOException;
+
+	/**
+	 * Check whether detections read from a chunk are unchanged, so that they could be removed from memory and read
+	 * again later without any loss of information.
+	 * @param chunk the chunk that was read
+	 * @param pathObjects the detections returned by {@link #readChunk(Chunk)}, in the same order
+	 * @return true if the detections (including their descendants) are identical to those in the store
+	 */
+	boolean isUnchanged(Chunk chunk, List<PathObject> pathObjects);
+
+}
@@ -44,6 +44,8 @@ import qupath.lib.regions.ImagePlane;
 import qupath.lib.regions.ImageRegion;
 import qupath.lib.roi.interfaces.ROI;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serial;
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -56,6 +58,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
@@ -96,6 +99,9 @@ public final class PathObjectHierarchy implements Serializable {
 
 	private transient AtomicLong eventCount = new AtomicLong();
 
+	// Optional manager to load detections on demand
+	private transient volatile LazyDetectionManager lazyDetections;
+
 	/**
 	 * Default constructor, creates an empty hierarchy.
 	 */
@@ -110,7 +116,8 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @return
 	 */
 	public synchronized boolean isEmpty() {
-		return (tmaGrid == null || tmaGrid.nCores() == 0) && !rootObject.hasChildObjects();// && featureMaps.isEmpty();
+		return (tmaGrid == null || tmaGrid.nCores() == 0) && !rootObject.hasChildObjects() &&
+				(lazyDetections == null || lazyDetections.nUnloadedObjects() == 0);// && featureMaps.isEmpty();
 	}
 	
 	/**
@@ -179,6 +186,151 @@ public final class PathObjectHierarchy implements Serializable {
 		fireHierarchyChangedEvent(getRootObject());
 	}
 	
+	/**
+	 * Set a store from which detections should be loaded on demand, rather than all being held in memory.
+	 * <p>
+	 * Detections from the store are added to the hierarchy whenever it is queried for objects in a region that 
+	 * they overlap (e.g. by {@link #getAllDetectionsForRegion(ImageRegion)} or when they are displayed in a viewer).
+	 * Methods that need all objects (e.g. {@link #getDetectionObjects()}, {@link #getAllObjects(boolean)}) load 
+	 * everything from the store before returning.
+	 * Chunks of detections that are unchanged and haven't been used recently are removed again when there are too 
+	 * many resident objects, or when memory is running low.
+	 * <p>
+	 * Note that the child objects of annotations and TMA cores only include detections that are currently loaded.
+	 * Detections are loaded without firing hierarchy events.
+	 * <p>
+	 * The store should only contain detections that aren't already in the hierarchy, and their parents should be 
+	 * in the hierarchy.
+	 * 
+	 * @param store the store containing detections to load
+	 * @param maxResidentObjects the maximum number of objects from the store to keep in memory, where possible
+	 * @see #loadAllDetections()
+	 */
+	public synchronized void setLazyDetectionStore(LazyDetectionStore store, int maxResidentObjects) {
+		Objects.requireNonNull(store, "Lazy detection store must not be null");
+		loadAllDetections();
+		lazyDetections = new LazyDetectionManager(this, store, maxResidentObjects);
+		subdivisionManager.clear();
+	}
+	
+	/**
+	 * Get the store from which detections are loaded on demand, if available.
+	 * @return the store, or null if all detections are in memory
+	 * @see #setLazyDetectionStore(LazyDetectionStore, int)
+	 */
+	public LazyDetectionStore getLazyDetectionStore() {
+		var manager = lazyDetections;
+		return manager == null ? null : manager.getStore();
+	}
+	
+	/**
+	 * Get the chunks of detections from a {@link LazyDetectionStore} that are not currently in the hierarchy.
+	 * These should be retained when the hierarchy is saved.
+	 * @return the unloaded chunks, or an empty list if there is no store
+	 * @see #setLazyDetectionStore(LazyDetectionStore, int)
+	 */
+	public synchronized List<LazyDetectionStore.Chunk> getUnloadedDetectionChunks() {
+		var manager = lazyDetections;
+		return manager == null ? Collections.emptyList() : manager.getUnloadedChunks();
+	}
+	
+	/**
+	 * Load all detections from any {@link LazyDetectionStore} into the hierarchy, and stop loading detections lazily.
+	 * If some detections can't be read from the store, it is retained so that they can be loaded later.
+	 * @see #setLazyDetectionStore(LazyDetectionStore, int)
+	 */
+	public synchronized void loadAllDetections() {
+		var manager = lazyDetections;
+		if (manager == null)
+			return;
+		logger.debug("Loading all detections from {}", manager.getStore());
+		manager.ensureLoaded(null);
+		if (manager.getUnloadedChunks().isEmpty())
+			lazyDetections = null;
+	}
+	
+	/**
+	 * Load any detections that overlap a region and may be requested from the tile cache.
+	 * @param cls the class of objects requested, or null if all objects are requested
+	 * @param region the region requested, or null if all objects are requested
+	 */
+	void ensureDetectionsLoaded(Class<? extends PathObject> cls, ImageRegion region) {
+		var manager = lazyDetections;
+		if (manager == null || !mayIncludeDetections(cls))
+			return;
+		if (region == null)
+			loadAllDetections();
+		else
+			manager.ensureLoaded(region);
+	}
+	
+	/**
+	 * Load any detections whose parents are the specified objects (or their descendants), before they are removed.
+	 */
+	private void ensureChildDetectionsLoaded(Collection<? extends PathObject> pathObjects) {
+		var manager = lazyDetections;
+		if (manager != null)
+			manager.ensureLoadedForParents(pathObjects);
+	}
+	
+	private static boolean mayIncludeDetections(Class<? extends PathObject> cls) {
+		return cls == null || cls.isAssignableFrom(PathDetectionObject.class) || PathDetectionObject.class.isAssignableFrom(cls);
+	}
+	
+	/**
+	 * Add detections loaded by a {@link LazyDetectionManager} to their parents, and update the caches.
+	 * <p>
+	 * This doesn't fire any hierarchy events. The child lists and the tile cache are updated while holding both
+	 * the hierarchy lock and the tile cache write lock, so that concurrent queries see a consistent state.
+	 * @param childrenByParent detections to add, grouped by the parent to which they should be added
+	 */
+	synchronized void addLazyDetections(Map<PathObject, List<PathObject>> childrenByParent) {
+		if (childrenByParent.isEmpty())
+			return;
+		var added = childrenByParent.values().stream().flatMap(List::stream).toList();
+		tileCache.addObjects(added, () -> {
+			for (var entry : childrenByParent.entrySet())
+				entry.getKey().addChildObjects(entry.getValue());
+		});
+		subdivisionManager.clear();
+	}
+	
+	/**
+	 * Remove detections loaded by a {@link LazyDetectionManager} from their parents, and update the caches.
+	 * <p>
+	 * This doesn't fire any hierarchy events. The child lists and the tile cache are updated while holding both
+	 * the hierarchy lock and the tile cache write lock, so that concurrent queries see a consistent state.
+	 * @param childrenByParent detections to remove, grouped by their current parent
+	 */
+	synchronized void removeLazyDetections(Map<PathObject, List<PathObject>> childrenByParent) {
+		if (childrenByParent.isEmpty())
+			return;
+		var removed = childrenByParent.values().stream().flatMap(List::stream).toList();
+		tileCache.removeObjects(removed, () -> {
+			for (var entry : childrenByParent.entrySet())
+				entry.getKey().removeChildObjects(entry.getValue());
+		});
+		subdivisionManager.clear();
+	}
+	
+	/**
+	 * Update the chunks of detections from any {@link LazyDetectionStore}, after the store has been rewritten.
+	 * This resets the unchanged state of any loaded chunks, so that they can be evicted again if they have been saved.
+	 * @see #setLazyDetectionStore(LazyDetectionStore, int)
+	 */
+	public synchronized void refreshLazyDetectionChunks() {
+		var manager = lazyDetections;
+		if (manager != null)
+			manager.refreshChunks();
+	}
+	
+	@Serial
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		// Ensure all detections are written, even if they are being loaded lazily
+		loadAllDetections();
+		out.defaultWriteObject();
+	}
+	
 
 	/**
 	 * Comparator to use when looking for a parent annotation in the hierarchy.
@@ -288,6 +440,9 @@ public final class PathObjectHierarchy implements Serializable {
 
 		// Get all the annotations that might be a parent of this object
 		var region = ImageRegion.createInstance(pathObject.getROI());
+		// Ensure any detections that might become children are loaded
+		if (!pathObject.isDetection())
+			ensureDetectionsLoaded(PathDetectionObject.class, region);
 		Collection<PathObject> tempSet = new HashSet<>();
 		tempSet.add(getRootObject());
 		tileCache.getObjectsForRegion(PathAnnotationObject.class, region, tempSet, true);
@@ -381,6 +536,7 @@ public final class PathObjectHierarchy implements Serializable {
 			logger.warn(pathObject + " could not be removed from the hierarchy");
 			return false;
 		}
+		ensureChildDetectionsLoaded(Collections.singletonList(pathObject));
 
 		// Can't keep children if there aren't any
 		boolean hasChildren = pathObject.hasChildObjects();
@@ -414,6 +570,7 @@ public final class PathObjectHierarchy implements Serializable {
 		
 		if (pathObjects.isEmpty())
 			return;
+		ensureChildDetectionsLoaded(pathObjects);
 		
 		List<PathObject> pathObjectSet = new ArrayList<>(pathObjects);
 		pathObjectSet.sort((o1, o2) -> Integer.compare(o2.getLevel(), o1.getLevel()));
@@ -562,6 +719,7 @@ public final class PathObjectHierarchy implements Serializable {
 	public synchronized void clearAll() {
 		getRootObject().clearChildObjects();
 		tmaGrid = null;
+		lazyDetections = null;
 		fireHierarchyChangedEvent(getRootObject());
 	}
 	
@@ -648,6 +806,8 @@ public final class PathObjectHierarchy implements Serializable {
 			pathObjects.addAll(tileCache.getObjectsForRegion(cls, null, null, true));
 			return pathObjects;
 		}
+		if (lazyDetections != null && mayIncludeDetections(cls))
+			loadAllDetections();
 		if (cls == null || cls.isAssignableFrom(PathRootObject.class))
 			pathObjects.add(getRootObject());
 		
@@ -714,7 +874,9 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @return
 	 */
 	public synchronized int nObjects() {
-		return PathObjectTools.countDescendants(getRootObject());
+		var manager = lazyDetections;
+		int nUnloaded = manager == null ? 0 : manager.nUnloadedObjects();
+		return PathObjectTools.countDescendants(getRootObject()) + nUnloaded;
 	}
 	
 	/**
@@ -727,6 +889,10 @@ public final class PathObjectHierarchy implements Serializable {
 			return;
 		rootObject = hierarchy.getRootObject();
 		tmaGrid = hierarchy.tmaGrid;
+		// Detections that haven't been loaded yet belong to the same root object
+		var manager = hierarchy.lazyDetections;
+		lazyDetections = manager == null ? null : manager.withHierarchy(this);
+		hierarchy.lazyDetections = null;
 		fireHierarchyChangedEvent(rootObject);
 	}
 	
@@ -0,0 +1,310 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.ItemVisitor;
+import org.locationtech.jts.index.quadtree.Quadtree;
+import org.locationtech.jts.index.strtree.STRtree;
+import qupath.lib.objects.PathObject;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.interfaces.ROI;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Spatial index for objects of a single class, partitioned by {@link ImagePlane} (z and t).
+ * <p>
+ * Each plane has a packed {@link STRtree} that is bulk-loaded when the index is built,
+ * along with a small dynamic overlay for later changes: inserted objects go into a {@link Quadtree},
+ * while removed objects are recorded as tombstones and filtered from query results.
+ * When the overlay becomes large relative to the packed tree, the plane is rebuilt.
+ * <p>
+ * This class is not thread-safe. Queries may be run concurrently, but only if no modifications
+ * are made at the same time; {@link PathObjectTileCache} takes care of the locking.
+ */
+class PathObjectSpatialIndex {
+
+	/**
+	 * Minimum number of changes in the overlay of a plane before it is merged.
+	 */
+	static final int MIN_MERGE_SIZE = 1024;
+
+	/**
+	 * Merge when the overlay exceeds this fraction of the packed tree size.
+	 */
+	private static final double MERGE_FRACTION = 0.125;
+
+	private static final Envelope MAX_ENVELOPE = new Envelope(-Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE);
+
+	private final Map<ImagePlane, PlaneIndex> planes = new HashMap<>();
+
+
+	/**
+	 * Create an index, bulk-loading the specified objects.
+	 * @param pathObjects objects with ROIs
+	 */
+	PathObjectSpatialIndex(Collection<? extends PathObject> pathObjects) {
+		Map<ImagePlane, List<PathObject>> byPlane = new HashMap<>();
+		for (var pathObject : pathObjects) {
+			byPlane.computeIfAbsent(ImagePlane.getPlane(pathObject.getROI()), p -> new ArrayList<>()).add(pathObject);
+		}
+		for (var entry : byPlane.entrySet()) {
+			planes.put(entry.getKey(), new PlaneIndex(entry.getKey(), entry.getValue()));
+		}
+	}
+
+	/**
+	 * Add an object to the index.
+	 * @param pathObject an object with a ROI
+	 */
+	void insert(PathObject pathObject) {
+		var plane = ImagePlane.getPlane(pathObject.getROI());
+		var index = planes.computeIfAbsent(plane, p -> new PlaneIndex(p, Collections.emptyList()));
+		index.insert(pathObject);
+		index.mergeIfNeeded();
+	}
+
+	/**
+	 * Remove an object from the index.
+	 * <p>
+	 * Note that this always succeeds, but doesn't check whether the object was actually present.
+	 * @param pathObject
+	 */
+	void remove(PathObject pathObject) {
+		var roi = pathObject.getROI();
+		var index = roi == null ? null : planes.get(ImagePlane.getPlane(roi));
+		if (index == null) {
+			// The ROI may have changed plane since the object was added
+			for (var planeIndex : planes.values()) {
+				if (planeIndex.removeFromOverlay(pathObject))
+					return;
+			}
+			return;
+		}
+		index.remove(pathObject);
+		index.mergeIfNeeded();
+	}
+
+	/**
+	 * Query objects with envelopes that may intersect the specified envelope.
+	 * As with JTS indexes, the results are only candidates and should be checked by the caller.
+	 *
+	 * @param plane the plane to query, or null if all planes should be queried
+	 * @param envelope the query envelope
+	 * @param visitor visitor to receive each candidate object
+	 */
+	void query(ImagePlane plane, Envelope envelope, ItemVisitor visitor) {
+		if (plane == null) {
+			for (var index : planes.values())
+				index.query(envelope, visitor);
+		} else {
+			var index = planes.get(plane);
+			if (index != null)
+				index.query(envelope, visitor);
+		}
+	}
+
+	/**
+	 * Query objects with envelopes that may intersect the specified envelope.
+	 * @param plane the plane to query, or null if all planes should be queried
+	 * @param envelope the query envelope
+	 * @return a list of candidate objects
+	 * @see #query(ImagePlane, Envelope, ItemVisitor)
+	 */
+	List<PathObject> query(ImagePlane plane, Envelope envelope) {
+		List<PathObject> list = new ArrayList<>();
+		query(plane, envelope, item -> list.add((PathObject)item));
+		return list;
+	}
+
+	/**
+	 * Get the number of planes with an index.
+	 * @return
+	 */
+	int nPlanes() {
+		return planes.size();
+	}
+
+	/**
+	 * Get the number of pending changes in the dynamic overlay for a plane.
+	 * @param plane
+	 * @return
+	 */
+	int overlaySize(ImagePlane plane) {
+		var index = planes.get(plane);
+		return index == null ? 0 : index.overlaySize();
+	}
+
+
+	static Envelope getEnvelope(ROI roi) {
+		return new Envelope(roi.getBoundsX(), roi.getBoundsX() + roi.getBoundsWidth(),
+				roi.getBoundsY(), roi.getBoundsY() + roi.getBoundsHeight());
+	}
+
+
+	private static class PlaneIndex {
+
+		private final ImagePlane plane;
+
+		private STRtree packed;
+		private int packedSize;
+
+		private Quadtree inserted;
+		private Map<PathObject, Envelope> insertedEnvelopes;
+
+		/**
+		 * Tombstones for removed objects, which should be hidden from both the packed tree and the overlay.
+		 */
+		private Set<PathObject> removed;
+
+		/**
+		 * Objects that were removed and then inserted again (e.g. after a ROI change).
+		 * Their entries in the packed tree are stale, but their overlay entries are current.
+		 */
+		private Set<PathObject> moved;
+
+		private PlaneIndex(ImagePlane plane, List<? extends PathObject> pathObjects) {
+			this.plane = plane;
+			build(pathObjects);
+		}
+
+		private void build(List<? extends PathObject> pathObjects) {
+			packed = new STRtree();
+			for (var pathObject : pathObjects)
+				packed.insert(getEnvelope(pathObject.getROI()), pathObject);
+			// Build now, so that concurrent queries never trigger lazy construction
+			packed.build();
+			packedSize = pathObjects.size();
+			inserted = null;
+			insertedEnvelopes = null;
+			removed = null;
+			moved = null;
+		}
+
+		private void insert(PathObject pathObject) {
+			if (inserted == null) {
+				inserted = new Quadtree();
+				insertedEnvelopes = new IdentityHashMap<>();
+			}
+			var envelope = getEnvelope(pathObject.getROI());
+			var previous = insertedEnvelopes.put(pathObject, envelope);
+			if (previous != null)
+				removeFromOverlay(pathObject, previous);
+			inserted.insert(envelope, pathObject);
+			if (removed != null && removed.remove(pathObject)) {
+				if (moved == null)
+					moved = Collections.newSetFromMap(new IdentityHashMap<>());
+				moved.add(pathObject);
+			}
+		}
+
+		private void remove(PathObject pathObject) {
+			// Use the envelope from when the object was inserted, since the ROI may have changed since then
+			var envelope = insertedEnvelopes == null ? null : insertedEnvelopes.remove(pathObject);
+			if (envelope != null) {
+				removeFromOverlay(pathObject, envelope);
+				// If the object was moved, its packed entry still needs to be hidden
+				if (moved == null || !moved.remove(pathObject))
+					return;
+			}
+			if (removed == null)
+				removed = Collections.newSetFromMap(new IdentityHashMap<>());
+			removed.add(pathObject);
+		}
+
+		private boolean removeFromOverlay(PathObject pathObject, Envelope envelope) {
+			if (inserted == null)
+				return false;
+			if (inserted.remove(envelope, pathObject))
+				return true;
+			// Fall back to searching the full overlay
+			return envelope != MAX_ENVELOPE && inserted.remove(MAX_ENVELOPE, pathObject);
+		}
+
+		private boolean removeFromOverlay(PathObject pathObject) {
+			if (insertedEnvelopes == null)
+				return false;
+			var envelope = insertedEnvelopes.remove(pathObject);
+			if (envelope == null)
+				return false;
+			removeFromOverlay(pathObject, envelope);
+			return true;
+		}
+
+		private int overlaySize() {
+			return (inserted == null ? 0 : inserted.size()) +
+					(removed == null ? 0 : removed.size()) +
+					(moved == null ? 0 : moved.size());
+		}
+
+		private void mergeIfNeeded() {
+			int overlaySize = overlaySize();
+			if (overlaySize >= Math.max(MIN_MERGE_SIZE, packedSize * MERGE_FRACTION))
+				merge();
+		}
+
+		private void merge() {
+			List<PathObject> pathObjects = new ArrayList<>(packedSize + (inserted == null ? 0 : inserted.size()));
+			// Query applies the tombstones to both the packed tree and the overlay
+			query(MAX_ENVELOPE, item -> pathObjects.add((PathObject)item));
+			// Remove any duplicates, and any objects that have since moved to another plane
+			Set<PathObject> seen = Collections.newSetFromMap(new IdentityHashMap<>(pathObjects.size()));
+			pathObjects.removeIf(p -> !seen.add(p) || !p.hasROI() || !plane.equals(ImagePlane.getPlane(p.getROI())));
+			build(pathObjects);
+		}
+
+		private void query(Envelope envelope, ItemVisitor visitor) {
+			var tombstones = removed == null || removed.isEmpty() ? null : removed;
+			if (packedSize > 0) {
+				var stale = moved == null || moved.isEmpty() ? null : moved;
+				if (tombstones == null && stale == null)
+					packed.query(envelope, visitor);
+				else {
+					packed.query(envelope, item -> {
+						if ((tombstones == null || !tombstones.contains(item)) && (stale == null || !stale.contains(item)))
+							visitor.visitItem(item);
+					});
+				}
+			}
+			if (inserted != null) {
+				if (tombstones == null)
+					inserted.query(envelope, visitor);
+				else {
+					inserted.query(envelope, item -> {
+						if (!tombstones.contains(item))
+							visitor.visitItem(item);
+					});
+				}
+			}
+		}
+
+	}
+
+}
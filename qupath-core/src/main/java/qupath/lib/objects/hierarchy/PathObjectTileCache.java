@@ -23,13 +23,8 @@
 
 package qupath.lib.objects.hierarchy;
 
-import org.locationtech.jts.algorithm.locate.SimplePointInAreaLocator;
-import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.Location;
-import org.locationtech.jts.index.SpatialIndex;
-import org.locationtech.jts.index.quadtree.Quadtree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qupath.lib.objects.PathObject;
@@ -37,9 +32,11 @@ import qupath.lib.objects.TemporaryObject;
 import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent;
 import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent.HierarchyEventType;
 import qupath.lib.objects.hierarchy.events.PathObjectHierarchyListener;
+import qupath.lib.regions.ImagePlane;
 import qupath.lib.regions.ImageRegion;
 import qupath.lib.roi.interfaces.ROI;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -48,7 +45,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
-import java.util.WeakHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -60,6 +56,9 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * In practice, the cache itself is constructed lazily whenever a request is made 
  * through getObjectsForRegion, to avoid rebuilding it too often when the hierarchy
  * is changing a lot.
+ * <p>
+ * Objects are indexed separately for each {@link ImagePlane}, so that queries for one z-slice
+ * or timepoint do not need to visit objects on other planes.
  * 
  * @author Pete Bankhead
  *
@@ -76,18 +75,24 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 	/**
 	 * Store a spatial index according to the class of PathObject.
 	 */
-	private final Map<Class<? extends PathObject>, SpatialIndex> map = new HashMap<>();
+	private final Map<Class<? extends PathObject>, PathObjectSpatialIndex> map = new HashMap<>();
 	
+	/**
+	 * Maximum number of entries in each of the static caches.
+	 * These are generally only needed for annotations and TMA cores, which are much less numerous than detections.
+	 */
+	private static final int MAX_CACHE_SIZE = 10_000;
+
 	/**
 	 * Map to cache Geometries, specifically for annotations.
 	 */
-	private static final Map<ROI, Geometry> geometryMap = Collections.synchronizedMap(new WeakHashMap<>());
+	private static final ConcurrentWeakCache<ROI, Geometry> geometryMap = new ConcurrentWeakCache<>("Geometry cache", MAX_CACHE_SIZE);
 
 	/**
 	 * Map to cache helper classes to determine the relationship between ROIs.
 	 * This is important when relationships are expensive (e.g. for complex geometries).
 	 */
-	private static final Map<ROI, RoiRelate> relateMap = Collections.synchronizedMap(new WeakHashMap<>());
+	private static final ConcurrentWeakCache<ROI, RoiRelate> relateMap = new ConcurrentWeakCache<>("RoiRelate cache", MAX_CACHE_SIZE);
 
 	private final PathObjectHierarchy hierarchy;
 	private boolean isActive = false;
@@ -106,6 +111,10 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 	public void resetCache() {
 		isActive = false;
 		logger.trace("Cache reset!");
+		if (logger.isTraceEnabled()) {
+			logger.trace("{}", geometryMap);
+			logger.trace("{}", relateMap);
+		}
 	}
 	
 //	int cacheCounter = 0;
@@ -120,7 +129,11 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 				map.clear();
 			else
 				map.remove(limitToClass);
-			addToCache(hierarchy.getRootObject(), true, limitToClass);
+			// Collect everything first, so that each index can be bulk-loaded
+			Map<Class<? extends PathObject>, List<PathObject>> objectsByClass = new HashMap<>();
+			collectObjects(hierarchy.getRootObject(), limitToClass, objectsByClass);
+			for (var entry : objectsByClass.entrySet())
+				map.put(entry.getKey(), new PathObjectSpatialIndex(entry.getValue()));
 			long endTime = System.currentTimeMillis();
             logger.debug("Cache reconstructed in {} ms", endTime - startTime);
 		} finally {
@@ -130,6 +143,15 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 //		logger.info("Cache count: " + (cacheCounter)/1000.);
 	}
 	
+	/**
+	 * Ensure any detections that are loaded lazily are available before a query.
+	 * This must be called before acquiring any lock, since loading may also update the cache.
+	 */
+	private void ensureDetectionsLoaded(Class<? extends PathObject> cls, ImageRegion region) {
+		if (hierarchy != null)
+			hierarchy.ensureDetectionsLoaded(cls, region);
+	}
+	
 	private void ensureCacheConstructed() {
 		if (!isActive())
 			constructCache(null);
@@ -140,6 +162,19 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 		return isActive;
 	}
 	
+	private static void collectObjects(PathObject pathObject, Class<? extends PathObject> limitToClass,
+			Map<Class<? extends PathObject>, List<PathObject>> objectsByClass) {
+		if (pathObject.hasROI()) {
+			Class<? extends PathObject> cls = pathObject.getClass();
+			if (limitToClass == null || cls == limitToClass)
+				objectsByClass.computeIfAbsent(cls, k -> new ArrayList<>()).add(pathObject);
+		}
+		if (!(pathObject instanceof TemporaryObject) && pathObject.hasChildObjects()) {
+			for (PathObject child : pathObject.getChildObjectsAsArray())
+				collectObjects(child, limitToClass, objectsByClass);
+		}
+	}
+	
 	/**
 	 * Add a PathObject to the cache, optionally including children.
 	 * 
@@ -155,9 +190,8 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 		if (pathObject.hasROI()) {
 			Class<? extends PathObject> cls = pathObject.getClass();
 			if (limitToClass == null || cls == limitToClass) {
-                SpatialIndex mapObjects = map.computeIfAbsent(cls, k -> createSpatialIndex());
-                Envelope envelope = getEnvelope(pathObject);
-				mapObjects.insert(envelope, pathObject);
+				map.computeIfAbsent(cls, k -> new PathObjectSpatialIndex(Collections.emptyList()))
+						.insert(pathObject);
 			}
 		}
 		
@@ -168,6 +202,46 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 		}
 	}
 
+	/**
+	 * Add objects and their descendants to the hierarchy and the cache, e.g. when they are loaded lazily without
+	 * firing any hierarchy events.
+	 * <p>
+	 * The change is made while holding the write lock, so that concurrent queries never see the hierarchy and
+	 * the cache in different states.
+	 * @param pathObjects the objects to add
+	 * @param change the change to the hierarchy that adds the objects
+	 */
+	void addObjects(Collection<? extends PathObject> pathObjects, Runnable change) {
+		w.lock();
+		try {
+			change.run();
+			for (var pathObject : pathObjects)
+				addToCache(pathObject, true, null);
+		} finally {
+			w.unlock();
+		}
+	}
+
+	/**
+	 * Remove objects and their descendants from the hierarchy and the cache, e.g. when they are evicted without
+	 * firing any hierarchy events.
+	 * <p>
+	 * The change is made while holding the write lock, so that concurrent queries never see the hierarchy and
+	 * the cache in different states.
+	 * @param pathObjects the objects to remove
+	 * @param change the change to the hierarchy that removes the objects
+	 */
+	void removeObjects(Collection<? extends PathObject> pathObjects, Runnable change) {
+		w.lock();
+		try {
+			change.run();
+			for (var pathObject : pathObjects)
+				removeFromCache(pathObject, true);
+		} finally {
+			w.unlock();
+		}
+	}
+
 	Geometry getGeometry(ROI roi) {
 		var geometry = geometryMap.get(roi);
 		if (geometry == null)
@@ -176,11 +250,6 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 			return geometry;
 	}
 
-	private Coordinate getCentroidCoordinate(ROI roi) {
-		// It's faster not to rely on a synchronized map
-		return new Coordinate(roi.getCentroidX(), roi.getCentroidY());
-	}
-
 	boolean covers(PathObject possibleParent, PathObject possibleChild) {
 		var roi = possibleParent.getROI();
 		var roiChild = possibleChild.getROI();
@@ -194,36 +263,22 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 	}
 
 	boolean containsCentroid(PathObject possibleParent, PathObject possibleChild) {
-		getRoiRelate(possibleParent.getROI());
-		return containsCentroid(possibleParent.getROI(), possibleChild.getROI());
-	}
-
-	private boolean containsCentroid(ROI roi, ROI roiChild) {
-		if (roi == null || roi.isEmpty())
+		var roi = possibleParent.getROI();
+		var roiChild = possibleChild.getROI();
+		if (roi == null || roi.isEmpty() || roiChild == null)
 			return false;
-
-		Coordinate centroid = getCentroidCoordinate(roiChild);
-		// Use a RoiRelate if we have one, but don't create a new one if we don't
-		var relate = relateMap.getOrDefault(roi, null);
-		if (relate != null)
-			return relate.contains(centroid);
-		else
-			return SimplePointInAreaLocator.locate(
-					centroid, getGeometry(roi)) != Location.EXTERIOR;
+		return getRoiRelate(roi).containsCentroid(roiChild);
 	}
 	
 	
-	private SpatialIndex createSpatialIndex() {
-		return new Quadtree();
-	}
-	
-	private Envelope getEnvelope(PathObject pathObject) {
-		return getEnvelope(pathObject.getROI());
-	}
-	
-	private Envelope getEnvelope(ROI roi) {
-		return new Envelope(roi.getBoundsX(), roi.getBoundsX() + roi.getBoundsWidth(),
-				roi.getBoundsY(), roi.getBoundsY() + roi.getBoundsHeight());
+	/**
+	 * Check if the bounds of a ROI intersect an envelope, without creating a new envelope for the ROI.
+	 */
+	private static boolean intersects(Envelope envelope, ROI roi) {
+		double x = roi.getBoundsX();
+		double y = roi.getBoundsY();
+		return x <= envelope.getMaxX() && x + roi.getBoundsWidth() >= envelope.getMinX() &&
+				y <= envelope.getMaxY() && y + roi.getBoundsHeight() >= envelope.getMinY();
 	}
 
 	private Envelope getEnvelope(ImageRegion region) {
@@ -244,25 +299,17 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 		if (!isActive())
 			return;
 		
-		SpatialIndex mapObjects = map.get(pathObject.getClass());
+		PathObjectSpatialIndex mapObjects = map.get(pathObject.getClass());
 		
-		// We can remove objects from a Quadtree
-		if (mapObjects instanceof Quadtree) {
-			if (mapObjects.remove(MAX_ENVELOPE, pathObject)) {
-				logger.debug("Removed {} from cache", pathObject);
-			} else
-				logger.debug("Unable to remove {} from cache", pathObject);
-			// Remove the children
-			if (removeChildren) {
-				for (PathObject child : pathObject.getChildObjectsAsArray())
-					removeFromCache(child, removeChildren);
-			}
-		} else if (mapObjects != null && !removeChildren) {
-			// We can't remove objects from a STRtree, but since we're just removing one object we can rebuild only the cache for this class
-			constructCache(pathObject.getClass());
-		} else {
-			// If we need to remove multiple objects, better to just rebuild the entire cache
-			constructCache(null);
+		// Removed objects are masked until the index for the plane is next merged
+		if (mapObjects != null && pathObject.hasROI()) {
+			mapObjects.remove(pathObject);
+			logger.trace("Removed {} from cache", pathObject);
+		}
+		// Remove the children
+		if (removeChildren) {
+			for (PathObject child : pathObject.getChildObjectsAsArray())
+				removeFromCache(child, removeChildren);
 		}
 	}
 
@@ -286,19 +333,19 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 	 * @return
 	 */
 	public Collection<PathObject> getObjectsForRegion(Class<? extends PathObject> cls, ImageRegion region, Collection<PathObject> pathObjects, boolean includeSubclasses) {
+		ensureDetectionsLoaded(cls, region);
 		ensureCacheConstructed();
 		
 		var envelope = region == null ? MAX_ENVELOPE : getEnvelope(region);
+		var plane = region == null ? null : ImagePlane.getPlane(region);
 		
-		int z = region == null ? -1 : region.getZ();
-		int t = region == null ? -1 : region.getT();
 		r.lock();
 		try {
 			// Iterate through all the classes, getting objects of the specified class or subclasses thereof
-			for (Entry<Class<? extends PathObject>, SpatialIndex> entry : map.entrySet()) {
+			for (Entry<Class<? extends PathObject>, PathObjectSpatialIndex> entry : map.entrySet()) {
 				if (cls == null || (includeSubclasses && cls.isAssignableFrom(entry.getKey())) || Objects.equals(cls, entry.getKey())) {
 					if (entry.getValue() != null) {
-						List<PathObject> list = entry.getValue().query(envelope);
+						List<PathObject> list = entry.getValue().query(plane, envelope);
 						if (list.isEmpty())
 							continue;
 						
@@ -308,9 +355,10 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 						// Add all objects that have a parent, i.e. might be in the hierarchy
 						for (PathObject pathObject : list) {
 							var roi = pathObject.getROI();
-							if (roi == null || region == null || (roi.getZ() == z && roi.getT() == t)) {
+							// ROIs should be on the requested plane, unless they were changed after indexing
+							if (roi == null || plane == null || (roi.getZ() == plane.getZ() && roi.getT() == plane.getT())) {
 								if (pathObject.getParent() != null || pathObject.isRootObject()) {
-									if (envelope.intersects(getEnvelope(pathObject)))
+									if (roi == null || intersects(envelope, roi))
 										pathObjects.add(pathObject);
 								}
 							}
@@ -327,26 +375,26 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 	}
 	
 	public boolean hasObjectsForRegion(Class<? extends PathObject> cls, ImageRegion region, boolean includeSubclasses) {
+		ensureDetectionsLoaded(cls, region);
 		ensureCacheConstructed();
 		
 		var envelope = region == null ? MAX_ENVELOPE : getEnvelope(region);
+		var plane = region == null ? null : ImagePlane.getPlane(region);
 		
-		int z = region == null ? -1 : region.getZ();
-		int t = region == null ? -1 : region.getT();
 		r.lock();
 		try {
 			// Iterate through all the classes, getting objects of the specified class or subclasses thereof
-			for (Entry<Class<? extends PathObject>, SpatialIndex> entry : map.entrySet()) {
+			for (Entry<Class<? extends PathObject>, PathObjectSpatialIndex> entry : map.entrySet()) {
 				if (cls == null || Objects.equals(cls, entry.getKey()) || (includeSubclasses && cls.isAssignableFrom(entry.getKey()))) {
 					if (entry.getValue() != null) {
-						var list = (List<PathObject>)entry.getValue().query(envelope);
+						var list = entry.getValue().query(plane, envelope);
 						for (var pathObject : list) {
 							var roi = pathObject.getROI();
 							if (roi == null)
 								continue;
 							if (region == null)
 								return true;
-							if (roi.getZ() != z || roi.getT() != t)
+							if (roi.getZ() != plane.getZ() || roi.getT() != plane.getT())
 								continue;
 							if (region.intersects(roi.getBoundsX(), roi.getBoundsY(), roi.getBoundsWidth(), roi.getBoundsHeight())) {
 								return true;
@@ -35,12 +35,9 @@ import org.locationtech.jts.geom.prep.PreparedGeometry;
 import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import qupath.lib.roi.RectangleROI;
 import qupath.lib.roi.interfaces.ROI;
 
-import java.util.Collections;
-import java.util.Map;
-import java.util.WeakHashMap;
-
 /**
  * Helper class for determining relationships between ROIs.
  * <br/>
@@ -52,17 +49,29 @@ class RoiRelate {
 
     private static final Logger logger = LoggerFactory.getLogger(RoiRelate.class);
 
+    /**
+     * Maximum number of 'covers' results to cache for each ROI.
+     */
+    private static final int MAX_COVERS_CACHE_SIZE = 10_000;
+
+    /**
+     * Reusable coordinate for point-in-polygon tests, to avoid an allocation for every query.
+     * This is safe because locators don't retain the coordinate they are passed.
+     */
+    private static final ThreadLocal<Coordinate> SCRATCH_COORDINATE = ThreadLocal.withInitial(Coordinate::new);
+
     private final ROI roi;
     private final Geometry geometry;
     private final double area;
     private final double tolerance;
 
     private final double minBoundsX, minBoundsY, maxBoundsX, maxBoundsY;
+    private final boolean isRectangle;
 
     private volatile PreparedGeometry preparedGeometry;
     private volatile PointOnGeometryLocator locator;
 
-    private final Map<ROI, Boolean> coversMap = Collections.synchronizedMap(new WeakHashMap<>());
+    private final ConcurrentWeakCache<ROI, Boolean> coversMap = new ConcurrentWeakCache<>("Covers cache", MAX_COVERS_CACHE_SIZE);
 
     RoiRelate(ROI roi, Geometry geometry) {
         this.roi = roi;
@@ -74,6 +83,7 @@ class RoiRelate {
         this.minBoundsY = roi.getBoundsY()-tolerance;
         this.maxBoundsX = roi.getBoundsX()+roi.getBoundsWidth()+tolerance;
         this.maxBoundsY = roi.getBoundsY()+roi.getBoundsHeight()+tolerance;
+        this.isRectangle = roi instanceof RectangleROI;
     }
 
     /**
@@ -156,7 +166,21 @@ class RoiRelate {
     public boolean containsCentroid(ROI roi) {
         if (!samePlane(roi))
             return false;
-        return contains(new Coordinate(roi.getCentroidX(), roi.getCentroidY()));
+        double x = roi.getCentroidX();
+        double y = roi.getCentroidY();
+        // Outside the (expanded) bounds means definitely outside the geometry
+        if (x < minBoundsX || x > maxBoundsX || y < minBoundsY || y > maxBoundsY)
+            return false;
+        // For rectangles, anything away from the boundary is definitely inside -
+        // points close to the boundary still need to be checked against the geometry,
+        // since it may have been adjusted by the precision model
+        if (isRectangle && x >= minBoundsX + 2*tolerance && x <= maxBoundsX - 2*tolerance &&
+                y >= minBoundsY + 2*tolerance && y <= maxBoundsY - 2*tolerance)
+            return true;
+        var coord = SCRATCH_COORDINATE.get();
+        coord.setX(x);
+        coord.setY(y);
+        return contains(coord);
     }
 
     /**
@@ -168,7 +192,9 @@ class RoiRelate {
      * @return true if the ROI contains the coordinate, false otherwise
      */
     public boolean contains(double x, double y) {
-        var coord = new Coordinate(x, y);
+        var coord = SCRATCH_COORDINATE.get();
+        coord.setX(x);
+        coord.setY(y);
         if (contains(coord))
             return true;
         geometry.getFactory().getPrecisionModel().makePrecise(coord);
@@ -700,9 +700,14 @@ class DefaultProject implements Project<BufferedImage> {
 			var pathData = getImageDataPath();
 			
 			// If we already have a file, back it up first
+			// Chunked data files don't need a backup, since PathIO updates them in place without losing existing data
 			var pathBackup = getBackupImageDataPath();
-			if (Files.exists(pathData))
+			boolean writeInPlace = PathIO.getUseChunkedDataFiles();
+			if (Files.exists(pathData) && !writeInPlace) {
+				// Detections can't be loaded lazily from the file once it has moved
+				imageData.getHierarchy().loadAllDetections();
 				Files.move(pathData, pathBackup, StandardCopyOption.REPLACE_EXISTING);
+			}
 			
 			// Set the entry property, if needed
 			// This handles cases where an ImageData is being moved to become part of this project, 
@@ -715,21 +720,29 @@ class DefaultProject implements Project<BufferedImage> {
 			
 			// Write to a temp file first
 			long timestamp = 0L;
-			try (var stream = Files.newOutputStream(pathData)) {
+			if (writeInPlace) {
 				logger.debug("Saving image data to {}", pathData);
-				PathIO.writeImageData(stream, imageData);
+				PathIO.writeImageData(pathData, imageData);
 				imageData.setLastSavedPath(pathData.toString(), true);
 				timestamp = Files.getLastModifiedTime(pathData).toMillis();
-				// Delete backup file if it exists
-				if (Files.exists(pathBackup))
-					Files.delete(pathBackup);
-			} catch (IOException e) {
-				// Try to restore the backup
-				if (Files.exists(pathBackup)) {
-					logger.warn("Exception writing image file - attempting to restore {} from backup", pathData);
-					Files.move(pathBackup, pathData, StandardCopyOption.REPLACE_EXISTING);				
+				Files.deleteIfExists(pathBackup);
+			} else {
+				try (var stream = Files.newOutputStream(pathData)) {
+					logger.debug("Saving image data to {}", pathData);
+					PathIO.writeImageData(stream, imageData);
+					imageData.setLastSavedPath(pathData.toString(), true);
+					timestamp = Files.getLastModifiedTime(pathData).toMillis();
+					// Delete backup file if it exists
+					if (Files.exists(pathBackup))
+						Files.delete(pathBackup);
+				} catch (IOException e) {
+					// Try to restore the backup
+					if (Files.exists(pathBackup)) {
+						logger.warn("Exception writing image file - attempting to restore {} from backup", pathData);
+						Files.move(pathBackup, pathData, StandardCopyOption.REPLACE_EXISTING);				
+					}
+					throw e;
 				}
-				throw e;
 			}
 			
 			// If successful, write the server (including metadata)
@@ -772,11 +785,8 @@ class DefaultProject implements Project<BufferedImage> {
 		@Override
 		public synchronized PathObjectHierarchy readHierarchy() throws IOException {
 			var path = getImageDataPath();
-			if (Files.exists(path)) {
-				try (var stream = Files.newInputStream(path)) {
-					return PathIO.readHierarchy(stream);
-				}
-			}
+			if (Files.exists(path))
+				return PathIO.readHierarchy(path);
 			return new PathObjectHierarchy();
 		}
 		
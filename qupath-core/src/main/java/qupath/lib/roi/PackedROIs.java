@@ -0,0 +1,357 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.roi;
+
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKBWriter;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.interfaces.ROI;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Helper class to write and read large numbers of ROIs in a compact, columnar binary form.
+ * <p>
+ * Rather than writing each ROI separately, ROIs are split into columns: one for the ROI types, one for the image planes,
+ * one packed array of bounds for rectangles, ellipses and lines, and packed float arrays containing the vertices of all
+ * polygons and polylines.
+ * Other geometries are stored as WKB.
+ * <p>
+ * ROIs are restored exactly, with the same class, coordinates and image plane.
+ * Not all ROIs are supported; use {@link #isSupported(ROI)} to check.
+ */
+public final class PackedROIs {
+
+	private static final int VERSION = 1;
+
+	private static final byte TYPE_NONE = 0;
+	private static final byte TYPE_RECTANGLE = 1;
+	private static final byte TYPE_ELLIPSE = 2;
+	private static final byte TYPE_LINE = 3;
+	private static final byte TYPE_POLYGON = 4;
+	private static final byte TYPE_POLYLINE = 5;
+	private static final byte TYPE_POINTS = 6;
+	private static final byte TYPE_GEOMETRY = 7;
+
+	private PackedROIs() {
+		throw new AssertionError("Cannot instantiate this class");
+	}
+
+	/**
+	 * Query whether a ROI can be written with {@link #write(DataOutput, List)}.
+	 * Null ROIs are supported.
+	 * @param roi
+	 * @return
+	 */
+	public static boolean isSupported(ROI roi) {
+		return roi == null || getType(roi) != -1;
+	}
+
+	private static byte getType(ROI roi) {
+		if (roi == null)
+			return TYPE_NONE;
+		// Check for exact classes, since we need to restore them exactly
+		var cls = roi.getClass();
+		if (cls == RectangleROI.class)
+			return TYPE_RECTANGLE;
+		if (cls == EllipseROI.class)
+			return TYPE_ELLIPSE;
+		if (cls == LineROI.class)
+			return TYPE_LINE;
+		if (cls == PolygonROI.class)
+			return TYPE_POLYGON;
+		if (cls == PolylineROI.class)
+			return TYPE_POLYLINE;
+		if (cls == PointsROI.class)
+			return TYPE_POINTS;
+		if (cls == GeometryROI.class)
+			return TYPE_GEOMETRY;
+		return -1;
+	}
+
+	/**
+	 * Write a list of ROIs.
+	 * @param out the output
+	 * @param rois the ROIs to write; entries may be null
+	 * @throws IOException if writing fails
+	 * @throws IllegalArgumentException if any ROI is not supported
+	 * @see #isSupported(ROI)
+	 */
+	public static void write(DataOutput out, List<? extends ROI> rois) throws IOException, IllegalArgumentException {
+		int n = rois.size();
+		byte[] types = new byte[n];
+		Map<ImagePlane, Integer> planes = new LinkedHashMap<>();
+		int[] planeIndices = new int[n];
+		int nBounds = 0;
+		int nVertexRois = 0;
+		int nVertices = 0;
+		int nPoints = 0;
+		int nPointsRois = 0;
+		int nGeometries = 0;
+		for (int i = 0; i < n; i++) {
+			var roi = rois.get(i);
+			byte type = getType(roi);
+			if (type < 0)
+				throw new IllegalArgumentException("Unsupported ROI " + roi);
+			types[i] = type;
+			if (roi == null)
+				continue;
+			planeIndices[i] = planes.computeIfAbsent(roi.getImagePlane(), p -> planes.size());
+			switch (type) {
+				case TYPE_RECTANGLE, TYPE_ELLIPSE, TYPE_LINE -> nBounds++;
+				case TYPE_POLYGON, TYPE_POLYLINE -> {
+					nVertexRois++;
+					nVertices += getVertices(roi).size();
+				}
+				case TYPE_POINTS -> {
+					nPointsRois++;
+					nPoints += roi.getNumPoints();
+				}
+				case TYPE_GEOMETRY -> nGeometries++;
+				default -> {}
+			}
+		}
+
+		out.writeInt(VERSION);
+		out.writeInt(n);
+		out.write(types);
+
+		out.writeInt(planes.size());
+		for (var plane : planes.keySet()) {
+			out.writeInt(plane.getC());
+			out.writeInt(plane.getZ());
+			out.writeInt(plane.getT());
+		}
+		if (planes.size() > 1)
+			writeInts(out, planeIndices, n);
+
+		double[] bounds = new double[nBounds * 4];
+		int[] vertexCounts = new int[nVertexRois];
+		float[] xVertices = new float[nVertices];
+		float[] yVertices = new float[nVertices];
+		int[] pointCounts = new int[nPointsRois];
+		double[] xPoints = new double[nPoints];
+		double[] yPoints = new double[nPoints];
+		List<byte[]> geometries = new ArrayList<>(nGeometries);
+		int iBounds = 0, iVertexRoi = 0, iVertex = 0, iPointsRoi = 0, iPoint = 0;
+		WKBWriter wkbWriter = null;
+		for (int i = 0; i < n; i++) {
+			var roi = rois.get(i);
+			switch (types[i]) {
+				case TYPE_RECTANGLE, TYPE_ELLIPSE -> {
+					bounds[iBounds++] = roi.getBoundsX();
+					bounds[iBounds++] = roi.getBoundsY();
+					bounds[iBounds++] = roi.getBoundsWidth();
+					bounds[iBounds++] = roi.getBoundsHeight();
+				}
+				case TYPE_LINE -> {
+					var line = (LineROI)roi;
+					bounds[iBounds++] = line.getX1();
+					bounds[iBounds++] = line.getY1();
+					bounds[iBounds++] = line.getX2();
+					bounds[iBounds++] = line.getY2();
+				}
+				case TYPE_POLYGON, TYPE_POLYLINE -> {
+					var vertices = getVertices(roi);
+					int size = vertices.size();
+					vertexCounts[iVertexRoi++] = size;
+					System.arraycopy(vertices.getX(null), 0, xVertices, iVertex, size);
+					System.arraycopy(vertices.getY(null), 0, yVertices, iVertex, size);
+					iVertex += size;
+				}
+				case TYPE_POINTS -> {
+					var points = roi.getAllPoints();
+					pointCounts[iPointsRoi++] = points.size();
+					for (var p : points) {
+						xPoints[iPoint] = p.getX();
+						yPoints[iPoint] = p.getY();
+						iPoint++;
+					}
+				}
+				case TYPE_GEOMETRY -> {
+					if (wkbWriter == null)
+						wkbWriter = new WKBWriter(2);
+					geometries.add(wkbWriter.write(roi.getGeometry()));
+				}
+				default -> {}
+			}
+		}
+		out.writeInt(nBounds);
+		writeDoubles(out, bounds, bounds.length);
+		out.writeInt(nVertexRois);
+		writeInts(out, vertexCounts, nVertexRois);
+		out.writeInt(nVertices);
+		writeFloats(out, xVertices, nVertices);
+		writeFloats(out, yVertices, nVertices);
+		out.writeInt(nPointsRois);
+		writeInts(out, pointCounts, nPointsRois);
+		out.writeInt(nPoints);
+		writeDoubles(out, xPoints, nPoints);
+		writeDoubles(out, yPoints, nPoints);
+		out.writeInt(nGeometries);
+		for (var wkb : geometries) {
+			out.writeInt(wkb.length);
+			out.write(wkb);
+		}
+	}
+
+	/**
+	 * Read a list of ROIs written by {@link #write(DataOutput, List)}.
+	 * @param in the input
+	 * @return a list of ROIs, which may contain null entries
+	 * @throws IOException if reading fails or the input is invalid
+	 */
+	public static List<ROI> read(DataInput in) throws IOException {
+		int version = in.readInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported packed ROI version " + version);
+		int n = in.readInt();
+		byte[] types = new byte[n];
+		in.readFully(types);
+
+		int nPlanes = in.readInt();
+		ImagePlane[] planes = new ImagePlane[nPlanes];
+		for (int i = 0; i < nPlanes; i++)
+			planes[i] = ImagePlane.getPlaneWithChannel(in.readInt(), in.readInt(), in.readInt());
+		int[] planeIndices = nPlanes > 1 ? readInts(in, n) : null;
+
+		double[] bounds = readDoubles(in, in.readInt() * 4);
+		int[] vertexCounts = readInts(in, in.readInt());
+		int nVertices = in.readInt();
+		float[] xVertices = readFloats(in, nVertices);
+		float[] yVertices = readFloats(in, nVertices);
+		int[] pointCounts = readInts(in, in.readInt());
+		int nPoints = in.readInt();
+		double[] xPoints = readDoubles(in, nPoints);
+		double[] yPoints = readDoubles(in, nPoints);
+
+		WKBReader wkbReader = null;
+		List<ROI> rois = new ArrayList<>(n);
+		int nGeometries = in.readInt();
+		int iBounds = 0, iVertexRoi = 0, iVertex = 0, iPointsRoi = 0, iPoint = 0, iGeometry = 0;
+		for (int i = 0; i < n; i++) {
+			byte type = types[i];
+			if (type == TYPE_NONE) {
+				rois.add(null);
+				continue;
+			}
+			var plane = planeIndices == null ? planes[0] : planes[planeIndices[i]];
+			ROI roi = switch (type) {
+				case TYPE_RECTANGLE ->
+						new RectangleROI(bounds[iBounds++], bounds[iBounds++], bounds[iBounds++], bounds[iBounds++], plane);
+				case TYPE_ELLIPSE ->
+						new EllipseROI(bounds[iBounds++], bounds[iBounds++], bounds[iBounds++], bounds[iBounds++], plane);
+				case TYPE_LINE ->
+						new LineROI(bounds[iBounds++], bounds[iBounds++], bounds[iBounds++], bounds[iBounds++], plane);
+				case TYPE_POLYGON, TYPE_POLYLINE -> {
+					int count = vertexCounts[iVertexRoi++];
+					float[] x = Arrays.copyOfRange(xVertices, iVertex, iVertex + count);
+					float[] y = Arrays.copyOfRange(yVertices, iVertex, iVertex + count);
+					iVertex += count;
+					yield type == TYPE_POLYGON ? new PolygonROI(x, y, plane, false) : new PolylineROI(x, y, plane);
+				}
+				case TYPE_POINTS -> {
+					int count = pointCounts[iPointsRoi++];
+					double[] x = Arrays.copyOfRange(xPoints, iPoint, iPoint + count);
+					double[] y = Arrays.copyOfRange(yPoints, iPoint, iPoint + count);
+					iPoint += count;
+					yield ROIs.createPointsROI(x, y, plane);
+				}
+				case TYPE_GEOMETRY -> {
+					if (iGeometry++ >= nGeometries)
+						throw new IOException("Packed ROIs contain too few geometries");
+					byte[] wkb = new byte[in.readInt()];
+					in.readFully(wkb);
+					if (wkbReader == null)
+						wkbReader = new WKBReader(GeometryTools.getDefaultFactory());
+					try {
+						yield new GeometryROI(wkbReader.read(wkb), plane);
+					} catch (ParseException e) {
+						throw new IOException(e);
+					}
+				}
+				default -> throw new IOException("Unknown packed ROI type " + type);
+			};
+			rois.add(roi);
+		}
+		return rois;
+	}
+
+	private static Vertices getVertices(ROI roi) {
+		if (roi instanceof PolygonROI polygon)
+			return polygon.getVertices();
+		return ((PolylineROI)roi).getVertices();
+	}
+
+
+	private static void writeInts(DataOutput out, int[] values, int n) throws IOException {
+		var buffer = ByteBuffer.allocate(n * Integer.BYTES);
+		buffer.asIntBuffer().put(values, 0, n);
+		out.write(buffer.array());
+	}
+
+	private static void writeFloats(DataOutput out, float[] values, int n) throws IOException {
+		var buffer = ByteBuffer.allocate(n * Float.BYTES);
+		buffer.asFloatBuffer().put(values, 0, n);
+		out.write(buffer.array());
+	}
+
+	private static void writeDoubles(DataOutput out, double[] values, int n) throws IOException {
+		var buffer = ByteBuffer.allocate(n * Double.BYTES);
+		buffer.asDoubleBuffer().put(values, 0, n);
+		out.write(buffer.array());
+	}
+
+	private static int[] readInts(DataInput in, int n) throws IOException {
+		var bytes = new byte[n * Integer.BYTES];
+		in.readFully(bytes);
+		var values = new int[n];
+		ByteBuffer.wrap(bytes).asIntBuffer().get(values);
+		return values;
+	}
+
+	private static float[] readFloats(DataInput in, int n) throws IOException {
+		var bytes = new byte[n * Float.BYTES];
+		in.readFully(bytes);
+		var values = new float[n];
+		ByteBuffer.wrap(bytes).asFloatBuffer().get(values);
+		return values;
+	}
+
+	private static double[] readDoubles(DataInput in, int n) throws IOException {
+		var bytes = new byte[n * Double.BYTES];
+		in.readFully(bytes);
+		var values = new double[n];
+		ByteBuffer.wrap(bytes).asDoubleBuffer().get(values);
+		return values;
+	}
+
+}
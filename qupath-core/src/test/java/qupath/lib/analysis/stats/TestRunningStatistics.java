@@ -107,4 +107,25 @@ public class TestRunningStatistics {
 		// Range
 		assertEquals(array[array.length-1] - array[0], stats.getRange());
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void test_addRepeatedValues() {
+		var random = new Random(100);
+		var statsRepeated = new RunningStatistics();
+		var statsSingle = new RunningStatistics();
+		for (int i = 0; i < 100; i++) {
+			double val = random.nextInt(50) / 10.0;
+			int count = random.nextInt(20);
+			statsRepeated.addValue(val, count);
+			for (int k = 0; k < count; k++)
+				statsSingle.addValue(val);
+		}
+		assertEquals(statsSingle.size(), statsRepeated.size());
+		assertEquals(statsSingle.getSum(), statsRepeated.getSum(), 1e-9);
+		assertEquals(statsSingle.getMean(), statsRepeated.getMean(), 1e-9);
+		assertEquals(statsSingle.getVariance(), statsRepeated.getVariance(), 1e-9);
+		assertEquals(statsSingle.getMin(), statsRepeated.getMin());
+		assertEquals(statsSingle.getMax(), statsRepeated.getMax());
+	}
+
+}
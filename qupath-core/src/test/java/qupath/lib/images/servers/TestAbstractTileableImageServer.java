@@ -0,0 +1,165 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.servers;
+
+import org.junit.jupiter.api.Test;
+import qupath.lib.regions.RegionRequest;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SuppressWarnings("javadoc")
+public class TestAbstractTileableImageServer {
+
+	private static final int TILE_SIZE = 16;
+
+	@Test
+	public void testReadTilesDefault() throws Exception {
+		try (var server = new CountingServer(false, Integer.MAX_VALUE)) {
+			var img = server.readRegion(RegionRequest.createInstance(server.getPath(), 1.0, 0, 0, 48, 32));
+			assertPixels(img, 0, 0);
+			assertEquals(6, server.nTileReads.get());
+			assertEquals(0, server.nBatchReads.get());
+		}
+	}
+
+	@Test
+	public void testReadTilesTogether() throws Exception {
+		try (var server = new CountingServer(true, Integer.MAX_VALUE)) {
+			var img = server.readRegion(RegionRequest.createInstance(server.getPath(), 1.0, 8, 8, 40, 20));
+			assertPixels(img, 8, 8);
+			assertEquals(0, server.nTileReads.get());
+			assertEquals(1, server.nBatchReads.get());
+			assertEquals(6, server.nBatchTiles.get());
+		}
+	}
+
+	@Test
+	public void testReadTilesPartially() throws Exception {
+		// Tiles that aren't returned together should be read individually
+		try (var server = new CountingServer(true, 2)) {
+			var img = server.readRegion(RegionRequest.createInstance(server.getPath(), 1.0, 0, 0, 64, 32));
+			assertPixels(img, 0, 0);
+			assertEquals(1, server.nBatchReads.get());
+			assertEquals(2, server.nBatchTiles.get());
+			assertEquals(6, server.nTileReads.get());
+		}
+	}
+
+	private static void assertPixels(BufferedImage img, int x, int y) {
+		for (int yy = 0; yy < img.getHeight(); yy++) {
+			for (int xx = 0; xx < img.getWidth(); xx++) {
+				assertEquals(getValue(x + xx, y + yy), img.getRaster().getSample(xx, yy, 0));
+			}
+		}
+	}
+
+	private static int getValue(int x, int y) {
+		return (x * 3 + y * 7) % 256;
+	}
+
+	private static class CountingServer extends AbstractTileableImageServer {
+
+		private final String id = UUID.randomUUID().toString();
+		private final ImageServerMetadata metadata;
+		private final boolean readTogether;
+		private final int maxTilesTogether;
+
+		private final AtomicInteger nTileReads = new AtomicInteger();
+		private final AtomicInteger nBatchReads = new AtomicInteger();
+		private final AtomicInteger nBatchTiles = new AtomicInteger();
+
+		private CountingServer(boolean readTogether, int maxTilesTogether) {
+			this.readTogether = readTogether;
+			this.maxTilesTogether = maxTilesTogether;
+			this.metadata = new ImageServerMetadata.Builder(getClass(), id, 64, 64)
+					.channels(ImageChannel.getDefaultChannelList(1))
+					.pixelType(PixelType.UINT8)
+					.preferredTileSize(TILE_SIZE, TILE_SIZE)
+					.build();
+		}
+
+		private static BufferedImage createTile(TileRequest tileRequest) {
+			var img = new BufferedImage(tileRequest.getTileWidth(), tileRequest.getTileHeight(), BufferedImage.TYPE_BYTE_GRAY);
+			for (int y = 0; y < img.getHeight(); y++) {
+				for (int x = 0; x < img.getWidth(); x++)
+					img.getRaster().setSample(x, y, 0, getValue(tileRequest.getTileX() + x, tileRequest.getTileY() + y));
+			}
+			return img;
+		}
+
+		@Override
+		protected BufferedImage readTile(TileRequest tileRequest) {
+			nTileReads.incrementAndGet();
+			return createTile(tileRequest);
+		}
+
+		@Override
+		protected Map<TileRequest, BufferedImage> readTiles(List<TileRequest> tileRequests) throws IOException {
+			if (!readTogether)
+				return super.readTiles(tileRequests);
+			nBatchReads.incrementAndGet();
+			Map<TileRequest, BufferedImage> map = new HashMap<>();
+			for (var tile : tileRequests.subList(0, Math.min(maxTilesTogether, tileRequests.size()))) {
+				map.put(tile, createTile(tile));
+				nBatchTiles.incrementAndGet();
+			}
+			return map;
+		}
+
+		@Override
+		protected ImageServerBuilder.ServerBuilder<BufferedImage> createServerBuilder() {
+			return null;
+		}
+
+		@Override
+		protected String createID() {
+			// Use a unique ID, so that tiles aren't shared through the cache
+			return id;
+		}
+
+		@Override
+		public Collection<URI> getURIs() {
+			return List.of();
+		}
+
+		@Override
+		public String getServerType() {
+			return "Counting server";
+		}
+
+		@Override
+		public ImageServerMetadata getOriginalMetadata() {
+			return metadata;
+		}
+	}
+
+}
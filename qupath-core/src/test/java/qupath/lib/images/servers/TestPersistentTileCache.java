@@ -0,0 +1,259 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.servers;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import qupath.lib.regions.RegionRequest;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BandedSampleModel;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class TestPersistentTileCache {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		try (var cache = PersistentTileCache.open(tempDir, 64L * 1024 * 1024)) {
+			for (int type : new int[] {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR,
+					BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_USHORT_GRAY}) {
+				var img = createImage(256, 200, type);
+				var request = createRequest(type);
+				assertTrue(cache.put("server", request, img));
+				cache.flush();
+				assertTrue(cache.contains("server", request));
+				assertFalse(cache.contains("other", request));
+				var result = cache.get("server", request, null);
+				assertNotNull(result);
+				assertPixelsEqual(img, result);
+			}
+			assertEquals(5, cache.size());
+			assertEquals(5, cache.getHitCount());
+		}
+	}
+
+	@Test
+	public void testCustomColorModel() throws IOException {
+		// Banded rasters store each channel in a separate bank, and need a color model to be supplied
+		var raster = Raster.createWritableRaster(new BandedSampleModel(DataBuffer.TYPE_FLOAT, 100, 50, 3), null);
+		var rng = new Random(1);
+		for (int b = 0; b < 3; b++)
+			for (int y = 0; y < raster.getHeight(); y++)
+				for (int x = 0; x < raster.getWidth(); x++)
+					raster.setSample(x, y, b, rng.nextFloat());
+		var colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB),
+				false, false, Transparency.OPAQUE, DataBuffer.TYPE_FLOAT);
+		var img = new BufferedImage(colorModel, raster, false, null);
+		var request = createRequest(1);
+		try (var cache = PersistentTileCache.open(tempDir, 64L * 1024 * 1024)) {
+			assertTrue(cache.put("server", request, img));
+			cache.flush();
+			assertNull(cache.get("server", request, null));
+			var result = cache.get("server", request, colorModel);
+			assertNotNull(result);
+			assertEquals(3, result.getRaster().getDataBuffer().getNumBanks());
+			for (int b = 0; b < 3; b++) {
+				assertArrayEquals(
+						raster.getSamples(0, 0, 100, 50, b, (float[])null),
+						result.getRaster().getSamples(0, 0, 100, 50, b, (float[])null));
+			}
+		}
+	}
+
+	@Test
+	public void testOversizedBanks() throws IOException {
+		// Bank arrays may be longer than the buffer size - only the buffer size should be stored for each bank
+		int width = 40;
+		int height = 30;
+		var buffer = new DataBufferFloat(new float[3][width * height + 17], width * height);
+		var raster = Raster.createWritableRaster(new BandedSampleModel(DataBuffer.TYPE_FLOAT, width, height, 3), buffer, null);
+		var rng = new Random(2);
+		for (int b = 0; b < 3; b++)
+			for (int y = 0; y < height; y++)
+				for (int x = 0; x < width; x++)
+					raster.setSample(x, y, b, rng.nextFloat());
+		var colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB),
+				false, false, Transparency.OPAQUE, DataBuffer.TYPE_FLOAT);
+		var img = new BufferedImage(colorModel, raster, false, null);
+		assertTrue(PersistentTileCache.isSupported(img));
+		var result = PersistentTileCache.decode(PersistentTileCache.encode(img), colorModel);
+		assertNotNull(result);
+		assertEquals(width * height, result.getRaster().getDataBuffer().getSize());
+		for (int b = 0; b < 3; b++) {
+			assertArrayEquals(
+					raster.getSamples(0, 0, width, height, b, (float[])null),
+					result.getRaster().getSamples(0, 0, width, height, b, (float[])null));
+		}
+	}
+
+	@Test
+	public void testReopen() throws IOException {
+		var img = createImage(128, 128, BufferedImage.TYPE_INT_RGB);
+		try (var cache = PersistentTileCache.open(tempDir, 64L * 1024 * 1024)) {
+			for (int i = 0; i < 10; i++)
+				cache.put("server", createRequest(i), img);
+		}
+		// Tiles should be available using the saved index
+		try (var cache = PersistentTileCache.open(tempDir, 64L * 1024 * 1024)) {
+			assertEquals(10, cache.size());
+			assertPixelsEqual(img, cache.get("server", createRequest(5), null));
+			cache.put("server", createRequest(10), img);
+			cache.flush();
+		}
+		// Tiles should be recovered from the segments if the index is lost
+		Files.delete(tempDir.resolve("index.bin"));
+		try (var cache = PersistentTileCache.open(tempDir, 64L * 1024 * 1024)) {
+			assertEquals(11, cache.size());
+			assertPixelsEqual(img, cache.get("server", createRequest(10), null));
+			cache.clear();
+			assertEquals(0, cache.size());
+			assertEquals(0, cache.getSizeBytes());
+			assertNull(cache.get("server", createRequest(10), null));
+		}
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		// Use noise so that tiles can't be compressed much
+		long maxSize = 4L * 1024 * 1024;
+		try (var cache = PersistentTileCache.open(tempDir, maxSize)) {
+			int n = 40;
+			for (int i = 0; i < n; i++) {
+				cache.put("server", createRequest(i), createImage(256, 256, BufferedImage.TYPE_INT_RGB));
+				cache.flush();
+				assertTrue(cache.getSizeBytes() <= maxSize);
+			}
+			assertTrue(cache.getEvictedSegmentCount() > 0);
+			assertTrue(cache.size() < n);
+			// The most recent tiles should be retained
+			assertTrue(cache.contains("server", createRequest(n - 1)));
+			assertFalse(cache.contains("server", createRequest(0)));
+		}
+	}
+
+	@Test
+	public void testLocked() throws IOException {
+		try (var cache = PersistentTileCache.open(tempDir, 64L * 1024 * 1024)) {
+			cache.put("server", createRequest(0), createImage(64, 64, BufferedImage.TYPE_INT_RGB));
+			// Only one cache can use the directory at a time
+			assertThrows(IOException.class, () -> PersistentTileCache.open(tempDir, 64L * 1024 * 1024));
+		}
+		// The lock should be released when the cache is closed
+		try (var cache = PersistentTileCache.open(tempDir, 64L * 1024 * 1024)) {
+			assertEquals(1, cache.size());
+		}
+	}
+
+	@Test
+	public void testCorruptRecords() throws IOException {
+		var img = createImage(128, 128, BufferedImage.TYPE_INT_RGB);
+		try (var cache = PersistentTileCache.open(tempDir, 64L * 1024 * 1024)) {
+			for (int i = 0; i < 3; i++)
+				cache.put("server", createRequest(i), img);
+			cache.flush();
+			assertEquals(3, cache.size());
+
+			// Change the last byte of the segment, which is in the payload of the last tile
+			var segment = tempDir.resolve("segment-00000000.dat");
+			try (var channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				long pos = channel.size() - 1;
+				var buffer = ByteBuffer.allocate(1);
+				channel.read(buffer, pos);
+				buffer.put(0, (byte)(buffer.get(0) ^ 0xFF));
+				channel.write(buffer.rewind(), pos);
+
+				// Change the key of the first tile
+				buffer = ByteBuffer.allocate(1);
+				channel.read(buffer, 4);
+				buffer.put(0, (byte)(buffer.get(0) ^ 0xFF));
+				channel.write(buffer.rewind(), 4);
+			}
+
+			long misses = cache.getMissCount();
+			assertNull(cache.get("server", createRequest(2), null));
+			assertNull(cache.get("server", createRequest(0), null));
+			assertEquals(misses + 2, cache.getMissCount());
+			assertPixelsEqual(img, cache.get("server", createRequest(1), null));
+			// Mismatched records should be removed from the index
+			assertEquals(1, cache.size());
+		}
+	}
+
+	private static RegionRequest createRequest(int ind) {
+		return RegionRequest.createInstance("test", 1.0, ind * 256, 0, 256, 256);
+	}
+
+	private static BufferedImage createImage(int width, int height, int type) {
+		var img = new BufferedImage(width, height, type);
+		var raster = img.getRaster();
+		var rng = new Random(width * 31L + height + type);
+		for (int b = 0; b < raster.getNumBands(); b++) {
+			int bound = 1 << Math.min(16, raster.getSampleModel().getSampleSize(b));
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					raster.setSample(x, y, b, rng.nextInt(bound));
+				}
+			}
+		}
+		return img;
+	}
+
+	private static void assertPixelsEqual(BufferedImage expected, BufferedImage actual) {
+		assertNotNull(actual);
+		assertEquals(expected.getWidth(), actual.getWidth());
+		assertEquals(expected.getHeight(), actual.getHeight());
+		assertEquals(expected.getType(), actual.getType());
+		var r1 = expected.getRaster();
+		var r2 = actual.getRaster();
+		assertEquals(r1.getNumBands(), r2.getNumBands());
+		for (int b = 0; b < r1.getNumBands(); b++) {
+			assertArrayEquals(
+					r1.getSamples(0, 0, r1.getWidth(), r1.getHeight(), b, (int[])null),
+					r2.getSamples(0, 0, r2.getWidth(), r2.getHeight(), b, (int[])null));
+		}
+	}
+
+}
@@ -0,0 +1,240 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.writers;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import qupath.lib.color.ColorModelFactory;
+import qupath.lib.images.servers.ImageChannel;
+import qupath.lib.images.servers.PixelType;
+import qupath.lib.images.servers.TileRequest;
+import qupath.lib.images.servers.WrappedBufferedImageServer;
+import qupath.lib.regions.ImageRegion;
+
+import java.awt.image.BandedSampleModel;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class TestStreamingPyramidGenerator {
+
+	@Test
+	public void testSupportsDownsamples() {
+		assertTrue(StreamingPyramidGenerator.supportsDownsamples(1));
+		assertTrue(StreamingPyramidGenerator.supportsDownsamples(1, 2, 4, 8));
+		assertTrue(StreamingPyramidGenerator.supportsDownsamples(1, 4, 12));
+		assertTrue(StreamingPyramidGenerator.supportsDownsamples(1.5, 3, 6));
+		assertFalse(StreamingPyramidGenerator.supportsDownsamples());
+		assertFalse(StreamingPyramidGenerator.supportsDownsamples(1, 1.5));
+		assertFalse(StreamingPyramidGenerator.supportsDownsamples(1, 2, 3));
+		assertFalse(StreamingPyramidGenerator.supportsDownsamples(2, 1));
+		var server = new WrappedBufferedImageServer("Test", createImage(PixelType.UINT8, 10, 10, 1));
+		assertThrows(IllegalArgumentException.class, () -> new StreamingPyramidGenerator.Builder(server).downsamples(1, 3, 4));
+	}
+
+	@ParameterizedTest
+	@ValueSource(ints = {1, 4})
+	public void testPyramidMatchesDownsampled(int nThreads) throws Exception {
+		var img = createImage(PixelType.UINT16, 301, 257, 2);
+		var server = new WrappedBufferedImageServer("Test", img, ImageChannel.getDefaultChannelList(2));
+		double[] downsamples = {1, 2, 6, 12};
+		var generator = new StreamingPyramidGenerator.Builder(server)
+				.downsamples(downsamples)
+				.tileSize(64, 50)
+				.parallelize(nThreads)
+				.build();
+		var tiles = new TileCollector();
+		long nBytes = generator.generate(tiles);
+
+		long expectedBytes = 0;
+		var expected = img;
+		for (int level = 0; level < downsamples.length; level++) {
+			int r = (int)downsamples[level];
+			assertEquals(301 / r, generator.getLevelWidth(level));
+			assertEquals(257 / r, generator.getLevelHeight(level));
+			// Each level is downsampled from the previous (rounded) level
+			if (level > 0)
+				expected = boxDownsample(expected, (int)(downsamples[level] / downsamples[level-1]), true);
+			var actual = tiles.assemble(level, generator.getLevelWidth(level), generator.getLevelHeight(level));
+			for (int b = 0; b < 2; b++) {
+				assertArrayEquals(
+						expected.getRaster().getSamples(0, 0, expected.getWidth(), expected.getHeight(), b, (int[])null),
+						actual.getRaster().getSamples(0, 0, actual.getWidth(), actual.getHeight(), b, (int[])null),
+						"Mismatch at level " + level);
+			}
+			expectedBytes += (long)expected.getWidth() * expected.getHeight() * 2 * 2;
+		}
+		assertEquals(expectedBytes, nBytes);
+	}
+
+	@Test
+	public void testFloatRegionAndNearest() throws Exception {
+		var img = createImage(PixelType.FLOAT32, 200, 150, 1);
+		var server = new WrappedBufferedImageServer("Test", img, ImageChannel.getDefaultChannelList(1));
+		var region = ImageRegion.createInstance(10, 20, 180, 120, 0, 0);
+		var imgRegion = img.getSubimage(10, 20, 180, 120);
+		for (boolean smooth : new boolean[] {true, false}) {
+			var generator = new StreamingPyramidGenerator.Builder(server)
+					.region(region)
+					.downsamples(1, 3, 9)
+					.tileSize(32, 32)
+					.smoothInterpolation(smooth)
+					.build();
+			var tiles = new TileCollector();
+			generator.generate(tiles);
+			for (int level = 0; level < generator.nLevels(); level++) {
+				int r = (int)Math.pow(3, level);
+				var expected = boxDownsample(imgRegion, r, smooth);
+				var actual = tiles.assemble(level, generator.getLevelWidth(level), generator.getLevelHeight(level));
+				float[] expectedValues = expected.getRaster().getSamples(0, 0, expected.getWidth(), expected.getHeight(), 0, (float[])null);
+				float[] actualValues = actual.getRaster().getSamples(0, 0, actual.getWidth(), actual.getHeight(), 0, (float[])null);
+				assertArrayEquals(expectedValues, actualValues, 1e-3f);
+			}
+		}
+	}
+
+	@Test
+	public void testTileOrder() throws Exception {
+		var img = createImage(PixelType.UINT8, 256, 256, 1);
+		var server = new WrappedBufferedImageServer("Test", img, ImageChannel.getDefaultChannelList(1));
+		var generator = new StreamingPyramidGenerator.Builder(server)
+				.downsamples(1, 2, 4)
+				.tileSize(32, 32)
+				.parallelize(1)
+				.build();
+		List<TileRequest> order = Collections.synchronizedList(new ArrayList<>());
+		List<Double> progress = Collections.synchronizedList(new ArrayList<>());
+		var generatorWithProgress = new StreamingPyramidGenerator.Builder(server)
+				.downsamples(1, 2, 4)
+				.tileSize(32, 32)
+				.parallelize(1)
+				.onProgress(progress::add)
+				.build();
+		generatorWithProgress.generate((tile, tileImg) -> order.add(tile));
+		assertEquals(64 + 16 + 4, order.size());
+		var first = order.getFirst();
+		assertEquals(0, first.getLevel());
+		assertEquals(0, first.getTileX());
+		assertEquals(0, first.getTileY());
+		// With a single thread, each lower-resolution tile should be produced as soon as its last tile is read
+		assertEquals(1, order.get(4).getLevel());
+		assertEquals(2, order.get(4 * 4 + 4).getLevel());
+		assertEquals(64, progress.size());
+		assertEquals(1.0, progress.getLast(), 1e-9);
+		assertEquals(3, generator.nLevels());
+	}
+
+	private static class TileCollector implements StreamingPyramidGenerator.TileConsumer {
+
+		private final Map<TileRequest, BufferedImage> tiles = new ConcurrentHashMap<>();
+
+		@Override
+		public void accept(TileRequest tile, BufferedImage img) {
+			assertNotNull(img);
+			assertEquals(tile.getTileWidth(), img.getWidth());
+			assertEquals(tile.getTileHeight(), img.getHeight());
+			var previous = tiles.put(tile, img);
+			assertEquals(null, previous, "Duplicate tile " + tile);
+		}
+
+		private BufferedImage assemble(int level, int width, int height) {
+			BufferedImage output = null;
+			long nPixels = 0;
+			for (var entry : tiles.entrySet()) {
+				var tile = entry.getKey();
+				if (tile.getLevel() != level)
+					continue;
+				var img = entry.getValue();
+				if (output == null)
+					output = new BufferedImage(img.getColorModel(), img.getRaster().createCompatibleWritableRaster(width, height), false, null);
+				output.getRaster().setRect(tile.getTileX(), tile.getTileY(), img.getRaster());
+				nPixels += (long)img.getWidth() * img.getHeight();
+			}
+			assertEquals((long)width * height, nPixels, "Tiles don't cover level " + level);
+			return output;
+		}
+
+	}
+
+	private static BufferedImage boxDownsample(BufferedImage img, int r, boolean smooth) {
+		int w = img.getWidth() / r;
+		int h = img.getHeight() / r;
+		var raster = img.getRaster();
+		var output = raster.createCompatibleWritableRaster(w, h);
+		boolean isFloat = raster.getDataBuffer().getDataType() == DataBuffer.TYPE_FLOAT;
+		for (int b = 0; b < raster.getNumBands(); b++) {
+			for (int y = 0; y < h; y++) {
+				for (int x = 0; x < w; x++) {
+					double val;
+					if (smooth) {
+						double sum = 0;
+						for (int yy = 0; yy < r; yy++) {
+							for (int xx = 0; xx < r; xx++)
+								sum += raster.getSampleDouble(x * r + xx, y * r + yy, b);
+						}
+						val = sum / (r * r);
+					} else {
+						val = raster.getSampleDouble(x * r + r / 2, y * r + r / 2, b);
+					}
+					output.setSample(x, y, b, isFloat ? val : Math.round(val));
+				}
+			}
+		}
+		return new BufferedImage(img.getColorModel(), output, false, null);
+	}
+
+	private static BufferedImage createImage(PixelType pixelType, int width, int height, int nChannels) {
+		int dataType = switch (pixelType) {
+			case UINT8 -> DataBuffer.TYPE_BYTE;
+			case UINT16 -> DataBuffer.TYPE_USHORT;
+			case FLOAT32 -> DataBuffer.TYPE_FLOAT;
+			default -> throw new IllegalArgumentException("Unsupported pixel type " + pixelType);
+		};
+		var raster = Raster.createWritableRaster(new BandedSampleModel(dataType, width, height, nChannels), null);
+		var rand = new Random(width * height);
+		double max = pixelType == PixelType.UINT8 ? 255 : 4000;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				for (int c = 0; c < nChannels; c++)
+					raster.setSample(x, y, c, rand.nextDouble() * max);
+			}
+		}
+		var cm = ColorModelFactory.createColorModel(pixelType, ImageChannel.getDefaultChannelList(nChannels));
+		return new BufferedImage(cm, raster, false, null);
+	}
+
+}
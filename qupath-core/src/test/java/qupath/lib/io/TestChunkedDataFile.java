@@ -0,0 +1,504 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.WrappedBufferedImageServer;
+import qupath.lib.measurements.MeasurementList;
+import qupath.lib.measurements.MeasurementListFactory;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.TMACoreObject;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.objects.hierarchy.DefaultTMAGrid;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.roi.ROIs;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class TestChunkedDataFile {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		var hierarchy = createHierarchy();
+		var path = tempDir.resolve("data.qpdata");
+		var blocks = PathObjectChunkCodec.createBlocks(hierarchy);
+		assertNotNull(blocks);
+		// Detections should be split into multiple spatial chunks
+		assertTrue(blocks.size() > 3);
+		ChunkedDataFile.write(path, blocks);
+		assertTrue(ChunkedDataFile.isChunked(path));
+
+		var hierarchy2 = PathIO.readHierarchy(path);
+		assertHierarchiesEqual(hierarchy, hierarchy2);
+		assertNotNull(hierarchy2.getTMAGrid());
+		assertEquals(hierarchy.getTMAGrid().getGridWidth(), hierarchy2.getTMAGrid().getGridWidth());
+		assertEquals(hierarchy.getTMAGrid().nCores(), hierarchy2.getTMAGrid().nCores());
+
+		// Check we can also read from a stream
+		var bytes = new ByteArrayOutputStream();
+		ChunkedDataFile.write(bytes, blocks);
+		var hierarchy3 = PathIO.readHierarchy(new ByteArrayInputStream(bytes.toByteArray()));
+		assertHierarchiesEqual(hierarchy, hierarchy3);
+	}
+
+	@Test
+	public void testIncrementalWrite() throws IOException {
+		var hierarchy = createHierarchy();
+		var path = tempDir.resolve("data.qpdata");
+		int nBlocks = ChunkedDataFile.write(path, PathObjectChunkCodec.createBlocks(hierarchy));
+		assertEquals(0, ChunkedDataFile.write(path, PathObjectChunkCodec.createBlocks(hierarchy)));
+
+		// Changing a single detection should only require one chunk to be written
+		var detection = hierarchy.getDetectionObjects().iterator().next();
+		detection.getMeasurementList().put("Changed", 1.0);
+		assertEquals(1, ChunkedDataFile.write(path, PathObjectChunkCodec.createBlocks(hierarchy)));
+		assertHierarchiesEqual(hierarchy, PathIO.readHierarchy(path));
+
+		// Changing an annotation should not require detection chunks to be written
+		var annotation = hierarchy.getAnnotationObjects().iterator().next();
+		annotation.setName("Changed");
+		assertEquals(1, ChunkedDataFile.write(path, PathObjectChunkCodec.createBlocks(hierarchy)));
+		assertHierarchiesEqual(hierarchy, PathIO.readHierarchy(path));
+
+		// Removing objects should still give the correct hierarchy
+		hierarchy.removeObjects(new ArrayList<>(hierarchy.getDetectionObjects()).subList(0, 100), false);
+		int nWritten = ChunkedDataFile.write(path, PathObjectChunkCodec.createBlocks(hierarchy));
+		assertTrue(nWritten > 0 && nWritten < nBlocks);
+		assertHierarchiesEqual(hierarchy, PathIO.readHierarchy(path));
+	}
+
+	@Test
+	public void testInterruptedWrite() throws IOException {
+		var hierarchy = createHierarchy();
+		var path = tempDir.resolve("data.qpdata");
+		ChunkedDataFile.write(path, PathObjectChunkCodec.createBlocks(hierarchy));
+		// Simulate a write that failed before the table of contents was written
+		Files.write(path, new byte[1000], StandardOpenOption.APPEND);
+		assertHierarchiesEqual(hierarchy, PathIO.readHierarchy(path));
+	}
+
+	@Test
+	public void testWriteImageData() throws IOException {
+		// Older versions can't read chunked files, so they should only be written on request
+		assertFalse(PathIO.getUseChunkedDataFiles());
+		var server = new WrappedBufferedImageServer("Test", new BufferedImage(10, 10, BufferedImage.TYPE_BYTE_GRAY));
+		var imageData = new ImageData<>(server, createHierarchy(), ImageData.ImageType.FLUORESCENCE);
+		var file = tempDir.resolve("image.qpdata").toFile();
+		var backup = new File(file.getAbsolutePath() + ".backup");
+		PathIO.writeImageData(file, imageData);
+		assertFalse(ChunkedDataFile.isChunked(file.toPath()));
+
+		PathIO.setUseChunkedDataFiles(true);
+		try {
+			PathIO.writeImageData(file, imageData);
+			assertTrue(ChunkedDataFile.isChunked(file.toPath()));
+			assertFalse(backup.exists());
+
+			// Updating in place shouldn't need a backup either
+			imageData.getHierarchy().getDetectionObjects().iterator().next().getMeasurementList().put("Changed", 2.0);
+			PathIO.writeImageData(file, imageData);
+			assertFalse(backup.exists());
+			assertHierarchiesEqual(imageData.getHierarchy(), PathIO.readHierarchy(file));
+		} finally {
+			PathIO.setUseChunkedDataFiles(false);
+		}
+	}
+
+	@Test
+	public void testWriteLazyImageData() throws IOException {
+		var hierarchy = createHierarchy();
+		var path = tempDir.resolve("data.qpdata");
+		ChunkedDataFile.write(path, PathObjectChunkCodec.createBlocks(hierarchy));
+
+		var hierarchy2 = readLazily(path, 10);
+		var server = new WrappedBufferedImageServer("Test", new BufferedImage(10, 10, BufferedImage.TYPE_BYTE_GRAY));
+		var imageData = new ImageData<>(server, hierarchy2, ImageData.ImageType.FLUORESCENCE);
+		var region = ImageRegion.createInstance(0, 0, 1000, 1000, 0, 0);
+		var detection = hierarchy2.getAllDetectionsForRegion(region).iterator().next();
+		detection.getMeasurementList().put("Changed", 1.0);
+		hierarchy.getDetectionObjects().stream()
+				.filter(p -> p.getID().equals(detection.getID()))
+				.forEach(p -> p.getMeasurementList().put("Changed", 1.0));
+		long size = Files.size(path);
+
+		PathIO.setUseChunkedDataFiles(true);
+		try {
+			// Only the changed chunk should be appended, without copying the file
+			PathIO.writeImageData(path.toFile(), imageData);
+			assertTrue(Files.size(path) - size < size / 2);
+			assertFalse(Files.exists(tempDir.resolve("data.qpdata.backup")));
+		} finally {
+			PathIO.setUseChunkedDataFiles(false);
+		}
+		// Chunks that were never loaded should still be readable after saving
+		assertFalse(hierarchy2.getUnloadedDetectionChunks().isEmpty());
+		hierarchy2.loadAllDetections();
+		assertHierarchiesEqual(hierarchy, hierarchy2);
+		assertHierarchiesEqual(hierarchy, PathIO.readHierarchy(path));
+	}
+
+	@Test
+	public void testUnsupportedObjects() throws IOException {
+		var hierarchy = new PathObjectHierarchy();
+		var duplicate = PathObjects.createAnnotationObject(ROIs.createRectangleROI(0, 0, 10, 10, ImagePlane.getDefaultPlane()));
+		var annotation = PathObjects.createAnnotationObject(ROIs.createRectangleROI(20, 0, 10, 10, ImagePlane.getDefaultPlane()));
+		annotation.setID(duplicate.getID());
+		hierarchy.addObjects(List.of(duplicate, annotation));
+		// Duplicate IDs can't be used to link chunks
+		assertNull(PathObjectChunkCodec.createBlocks(hierarchy));
+	}
+
+	@Test
+	public void testLegacyFile() throws IOException {
+		var hierarchy = createHierarchy();
+		var bytes = new ByteArrayOutputStream();
+		try (var stream = new ObjectOutputStream(bytes)) {
+			stream.writeUTF("Data file version " + PathIO.getCurrentDataFileVersion());
+			stream.writeObject(hierarchy);
+			stream.writeObject("EOF");
+		}
+		var path = tempDir.resolve("legacy.qpdata");
+		Files.write(path, bytes.toByteArray());
+		assertFalse(ChunkedDataFile.isChunked(path));
+		assertHierarchiesEqual(hierarchy, PathIO.readHierarchy(path));
+
+		// Overwriting a legacy file should work
+		ChunkedDataFile.write(path, PathObjectChunkCodec.createBlocks(hierarchy));
+		assertTrue(ChunkedDataFile.isChunked(path));
+		assertHierarchiesEqual(hierarchy, PathIO.readHierarchy(path));
+	}
+
+	@Test
+	public void testColumnarMeasurements() throws IOException {
+		var hierarchy = createHierarchy();
+		var path = tempDir.resolve("data.qpdata");
+		ChunkedDataFile.write(path, PathObjectChunkCodec.createBlocks(hierarchy));
+		PathObjectHierarchy hierarchy2;
+		boolean previous = MeasurementListFactory.getUseColumnarStorage();
+		try {
+			MeasurementListFactory.setUseColumnarStorage(true);
+			hierarchy2 = PathIO.readHierarchy(path);
+		} finally {
+			MeasurementListFactory.setUseColumnarStorage(previous);
+		}
+		assertHierarchiesEqual(hierarchy, hierarchy2);
+		// Detections with the same measurements should share the same names
+		var names = hierarchy2.getCellObjects().stream()
+				.map(p -> p.getMeasurementList().getNames())
+				.distinct()
+				.count();
+		assertEquals(1, names);
+		// Changes should be saved as usual
+		hierarchy2.getCellObjects().iterator().next().getMeasurementList().put("Changed", 1.0);
+		assertEquals(1, ChunkedDataFile.write(path, PathObjectChunkCodec.createBlocks(hierarchy2)));
+		assertHierarchiesEqual(hierarchy2, PathIO.readHierarchy(path));
+	}
+
+	@Test
+	public void testLazyRead() throws IOException {
+		var hierarchy = createHierarchy();
+		var path = tempDir.resolve("data.qpdata");
+		ChunkedDataFile.write(path, PathObjectChunkCodec.createBlocks(hierarchy));
+
+		var hierarchy2 = readLazily(path, 10);
+		int nChunks = hierarchy2.getUnloadedDetectionChunks().size();
+		assertTrue(nChunks > 3);
+		assertEquals(hierarchy.nObjects(), hierarchy2.nObjects());
+		assertEquals(hierarchy.getAnnotationObjects().size(), hierarchy2.getAnnotationObjects().size());
+
+		// Requesting a region should only load the chunks that overlap it
+		var region = ImageRegion.createInstance(0, 0, 1000, 1000, 0, 0);
+		assertEquals(hierarchy.getAllDetectionsForRegion(region).size(), hierarchy2.getAllDetectionsForRegion(region).size());
+		int nUnloaded = hierarchy2.getUnloadedDetectionChunks().size();
+		assertTrue(nUnloaded > 0 && nUnloaded < nChunks);
+
+		// Requesting all detections should load everything
+		assertEquals(hierarchy.getDetectionObjects().size(), hierarchy2.getDetectionObjects().size());
+		assertTrue(hierarchy2.getUnloadedDetectionChunks().isEmpty());
+		assertHierarchiesEqual(hierarchy, hierarchy2);
+	}
+
+	@Test
+	public void testLazyEviction() throws IOException {
+		var hierarchy = createHierarchy();
+		var path = tempDir.resolve("data.qpdata");
+		ChunkedDataFile.write(path, PathObjectChunkCodec.createBlocks(hierarchy));
+
+		var hierarchy2 = readLazily(path, 10);
+		var region1 = ImageRegion.createInstance(0, 0, 1000, 1000, 0, 0);
+		var region2 = ImageRegion.createInstance(9000, 9000, 900, 900, 0, 0);
+		var key1 = getChunkKey(hierarchy2, region1);
+		hierarchy2.getAllDetectionsForRegion(region1);
+		assertFalse(isUnloaded(hierarchy2, key1));
+
+		// Loading another region should evict the first, since it is unchanged
+		hierarchy2.getAllDetectionsForRegion(region2);
+		assertTrue(isUnloaded(hierarchy2, key1));
+
+		// Changed chunks must be kept in memory
+		var detection = hierarchy2.getAllDetectionsForRegion(region1).iterator().next();
+		detection.getMeasurementList().put("Changed", 1.0);
+		hierarchy2.getAllDetectionsForRegion(region2);
+		assertFalse(isUnloaded(hierarchy2, key1));
+		var detection2 = hierarchy2.getAllDetectionsForRegion(region1).stream()
+				.filter(p -> p.getID().equals(detection.getID()))
+				.findFirst()
+				.orElseThrow();
+		assertEquals(1.0, detection2.getMeasurementList().get("Changed"));
+	}
+
+	@Test
+	public void testLazyEvictionAfterSave() throws IOException {
+		var hierarchy = createHierarchy();
+		var path = tempDir.resolve("data.qpdata");
+		ChunkedDataFile.write(path, PathObjectChunkCodec.createBlocks(hierarchy));
+
+		var hierarchy2 = readLazily(path, 10);
+		var region1 = ImageRegion.createInstance(0, 0, 1000, 1000, 0, 0);
+		var region2 = ImageRegion.createInstance(9000, 9000, 900, 900, 0, 0);
+		var key1 = getChunkKey(hierarchy2, region1);
+		var detection = hierarchy2.getAllDetectionsForRegion(region1).iterator().next();
+		detection.getMeasurementList().put("Changed", 1.0);
+		hierarchy2.getAllDetectionsForRegion(region2);
+		assertFalse(isUnloaded(hierarchy2, key1));
+
+		// Once the changed chunk has been saved, it can be evicted again
+		var store = (ChunkedDetectionStore)hierarchy2.getLazyDetectionStore();
+		ChunkedDataFile.write(path, PathObjectChunkCodec.createBlocks(hierarchy2, true));
+		synchronized (hierarchy2) {
+			store.refresh();
+			hierarchy2.refreshLazyDetectionChunks();
+		}
+		hierarchy2.getAllDetectionsForRegion(ImageRegion.createInstance(5000, 5000, 900, 900, 0, 0));
+		assertTrue(isUnloaded(hierarchy2, key1));
+
+		// Reloading should read the saved changes
+		var detection2 = hierarchy2.getAllDetectionsForRegion(region1).stream()
+				.filter(p -> p.getID().equals(detection.getID()))
+				.findFirst()
+				.orElseThrow();
+		assertEquals(1.0, detection2.getMeasurementList().get("Changed"));
+	}
+
+	@Test
+	public void testLazyWrite() throws IOException {
+		var hierarchy = createHierarchy();
+		var path = tempDir.resolve("data.qpdata");
+		ChunkedDataFile.write(path, PathObjectChunkCodec.createBlocks(hierarchy));
+
+		var hierarchy2 = readLazily(path, 10);
+		var region = ImageRegion.createInstance(0, 0, 1000, 1000, 0, 0);
+		var detection = hierarchy2.getAllDetectionsForRegion(region).iterator().next();
+		detection.getMeasurementList().put("Changed", 1.0);
+		hierarchy.getDetectionObjects().stream()
+				.filter(p -> p.getID().equals(detection.getID()))
+				.forEach(p -> p.getMeasurementList().put("Changed", 1.0));
+
+		// Unloaded chunks should be written as references to the existing file
+		var store = (ChunkedDetectionStore)hierarchy2.getLazyDetectionStore();
+		var blocks = PathObjectChunkCodec.createBlocks(hierarchy2, true);
+		assertTrue(blocks.stream().anyMatch(ChunkedDataFile.Block::isReference));
+		assertEquals(1, ChunkedDataFile.write(path, blocks));
+		store.close();
+		assertFalse(hierarchy2.getUnloadedDetectionChunks().isEmpty());
+		assertHierarchiesEqual(hierarchy, PathIO.readHierarchy(path));
+
+		// Writing to another file should copy unloaded chunks
+		var path2 = tempDir.resolve("data2.qpdata");
+		var blocks2 = PathObjectChunkCodec.createBlocks(hierarchy2, false);
+		assertTrue(blocks2.stream().noneMatch(ChunkedDataFile.Block::isReference));
+		ChunkedDataFile.write(path2, blocks2);
+		assertHierarchiesEqual(hierarchy, PathIO.readHierarchy(path2));
+
+		// The store should still be able to read from the rewritten file
+		hierarchy2.loadAllDetections();
+		assertHierarchiesEqual(hierarchy, hierarchy2);
+	}
+
+	@Test
+	public void testLazyRemove() throws IOException {
+		var hierarchy = createHierarchy();
+		var path = tempDir.resolve("data.qpdata");
+		ChunkedDataFile.write(path, PathObjectChunkCodec.createBlocks(hierarchy));
+
+		var hierarchy2 = readLazily(path, 10);
+		var annotation = hierarchy2.getAnnotationObjects().stream()
+				.filter(p -> "Annotation".equals(p.getName()))
+				.findFirst()
+				.orElseThrow();
+		int nDetections = hierarchy.getDetectionObjects().size();
+		int nRemoved = (int)hierarchy.getAnnotationObjects().stream()
+				.filter(p -> "Annotation".equals(p.getName()))
+				.flatMap(p -> p.getDescendantObjects(null).stream())
+				.filter(PathObject::isDetection)
+				.count();
+		hierarchy2.removeObject(annotation, false);
+		// Detections that weren't loaded shouldn't come back after the annotation is removed
+		assertEquals(nDetections - nRemoved, hierarchy2.getDetectionObjects().size());
+		assertTrue(hierarchy2.getUnloadedDetectionChunks().isEmpty());
+	}
+
+	private static PathObjectHierarchy readLazily(Path path, int threshold) throws IOException {
+		int previous = PathIO.getLazyDetectionThreshold();
+		try {
+			PathIO.setLazyDetectionThreshold(threshold);
+			var hierarchy = PathIO.readHierarchy(path);
+			assertNotNull(hierarchy.getLazyDetectionStore());
+			return hierarchy;
+		} finally {
+			PathIO.setLazyDetectionThreshold(previous);
+		}
+	}
+
+	private static String getChunkKey(PathObjectHierarchy hierarchy, ImageRegion region) {
+		return hierarchy.getUnloadedDetectionChunks().stream()
+				.filter(c -> c.region().intersects(region))
+				.findFirst()
+				.orElseThrow()
+				.key();
+	}
+
+	private static boolean isUnloaded(PathObjectHierarchy hierarchy, String key) {
+		return hierarchy.getUnloadedDetectionChunks().stream().anyMatch(c -> c.key().equals(key));
+	}
+
+	private static PathObjectHierarchy createHierarchy() {
+		var hierarchy = new PathObjectHierarchy();
+		var plane = ImagePlane.getDefaultPlane();
+		var tumor = PathClass.fromString("Tumor");
+		var positive = PathClass.getPositive(tumor);
+
+		List<TMACoreObject> cores = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			var core = PathObjects.createTMACoreObject(20000 + i * 1000, 20000, 500, i == 2, plane);
+			core.setName("Core " + i);
+			core.setCaseID("Case " + i);
+			cores.add(core);
+		}
+		hierarchy.setTMAGrid(DefaultTMAGrid.create(cores, 2));
+
+		var annotation = PathObjects.createAnnotationObject(ROIs.createRectangleROI(0, 0, 10000, 10000, plane), tumor);
+		annotation.setName("Annotation");
+		annotation.setLocked(true);
+		annotation.getMetadata().put("Key", "Value");
+		annotation.getMeasurementList().put("Area", Math.PI);
+		hierarchy.addObject(annotation);
+
+		var annotation2 = PathObjects.createAnnotationObject(
+				ROIs.createPolygonROI(new double[] {0, 100, 50}, new double[] {0, 0, 80}, plane));
+		annotation2.setColor(255, 0, 0);
+		hierarchy.addObjectBelowParent(annotation, annotation2, false);
+
+		var line = PathObjects.createAnnotationObject(ROIs.createLineROI(0, 0, 100, 100, ImagePlane.getPlane(1, 0)));
+		hierarchy.addObject(line, false);
+
+		var rng = new Random(42);
+		List<PathObject> detections = new ArrayList<>();
+		for (int i = 0; i < 500; i++) {
+			double x = rng.nextDouble() * 9900;
+			double y = rng.nextDouble() * 9900;
+			var roi = ROIs.createEllipseROI(x, y, 20, 20, plane);
+			var nucleus = ROIs.createPolygonROI(new double[] {x + 5, x + 15, x + 10}, new double[] {y + 5, y + 5, y + 15}, plane);
+			var measurements = MeasurementListFactory.createMeasurementList(3, MeasurementList.MeasurementListType.FLOAT);
+			measurements.put("Intensity", rng.nextFloat());
+			measurements.put("Index", i);
+			var cell = PathObjects.createCellObject(roi, nucleus, i % 3 == 0 ? positive : tumor, measurements);
+			if (i % 10 == 0)
+				cell.setPathClass(tumor, 0.75);
+			detections.add(cell);
+		}
+		annotation.addChildObjects(detections);
+
+		var tile = PathObjects.createTileObject(ROIs.createRectangleROI(12000, 12000, 100, 100, plane));
+		tile.getMeasurementList().put("Double", 1.0 / 3.0);
+		var tileChild = PathObjects.createDetectionObject(ROIs.createPointsROI(12050, 12050, plane));
+		tile.addChildObject(tileChild);
+		hierarchy.addObject(tile, false);
+
+		var coreDetection = PathObjects.createDetectionObject(ROIs.createRectangleROI(20000, 20000, 10, 10, plane));
+		cores.getFirst().addChildObject(coreDetection);
+
+		return hierarchy;
+	}
+
+	private static void assertHierarchiesEqual(PathObjectHierarchy expected, PathObjectHierarchy actual) {
+		var list1 = expected.getFlattenedObjectList(null);
+		var list2 = actual.getFlattenedObjectList(null);
+		assertEquals(list1.size(), list2.size());
+		var map = new HashMap<UUID, PathObject>();
+		for (var pathObject : list2)
+			map.put(pathObject.getID(), pathObject);
+		for (var p1 : list1) {
+			var p2 = map.get(p1.getID());
+			assertNotNull(p2, "Missing object " + p1);
+			assertEquals(p1.getClass(), p2.getClass());
+			if (p1.getParent() != null)
+				assertEquals(p1.getParent().getID(), p2.getParent().getID());
+			assertEquals(p1.nChildObjects(), p2.nChildObjects());
+			assertEquals(p1.getName(), p2.getName());
+			assertEquals(p1.getColor(), p2.getColor());
+			assertEquals(p1.getPathClass(), p2.getPathClass());
+			assertEquals(p1.getClassProbability(), p2.getClassProbability());
+			assertEquals(p1.isLocked(), p2.isLocked());
+			assertEquals(new HashMap<>(p1.getMetadata()), new HashMap<>(p2.getMetadata()));
+			assertEquals(p1.getMeasurementList().getNames(), p2.getMeasurementList().getNames());
+			for (var name : p1.getMeasurementList().getNames())
+				assertEquals(p1.getMeasurementList().get(name), p2.getMeasurementList().get(name));
+			if (p1.hasROI()) {
+				assertEquals(p1.getROI().getClass(), p2.getROI().getClass());
+				assertEquals(p1.getROI().getImagePlane(), p2.getROI().getImagePlane());
+				assertEquals(p1.getROI().getAllPoints(), p2.getROI().getAllPoints());
+			}
+			if (p1 instanceof TMACoreObject core)
+				assertEquals(core.isMissing(), ((TMACoreObject)p2).isMissing());
+		}
+	}
+
+}
@@ -42,13 +42,14 @@ public class TestMeasurementList {
         FLOAT,
         GENERAL_CLOSED,
         DOUBLE_CLOSED,
-        FLOAT_CLOSED;
+        FLOAT_CLOSED,
+        COLUMNAR;
 
         private MeasurementList.MeasurementListType toMeasurementListType() {
             return switch (this) {
                 case GENERAL, GENERAL_CLOSED -> MeasurementList.MeasurementListType.GENERAL;
                 case DOUBLE, DOUBLE_CLOSED -> MeasurementList.MeasurementListType.DOUBLE;
-                case FLOAT, FLOAT_CLOSED -> MeasurementList.MeasurementListType.FLOAT;
+                case FLOAT, FLOAT_CLOSED, COLUMNAR -> MeasurementList.MeasurementListType.FLOAT;
             };
         }
 
@@ -68,7 +69,9 @@ public class TestMeasurementList {
      */
     private static MeasurementList createMeasurementList(ListType type, int nMeasurements) {
         // Create list, permitting resize
-        var list = MeasurementListFactory.createMeasurementList(Math.max(1, nMeasurements / 2), type.toMeasurementListType());
+        var list = type == ListType.COLUMNAR ?
+                MeasurementListFactory.createMeasurementList(new MeasurementTable()) :
+                MeasurementListFactory.createMeasurementList(Math.max(1, nMeasurements / 2), type.toMeasurementListType());
         for (int i = 0; i < nMeasurements; i++) {
             list.put("Measurement " + i, i);
         }
@@ -0,0 +1,163 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.measurements;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class TestMeasurementTable {
+
+	@Test
+	public void testColumns() {
+		var table = new MeasurementTable();
+		int n = 10_000;
+		List<MeasurementList> lists = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			var list = table.createMeasurementList();
+			list.put("Area", i);
+			if (i % 2 == 0)
+				list.put("Even", 1);
+			lists.add(list);
+		}
+		assertEquals(n, table.nRows());
+		assertEquals(List.of("Area", "Even"), table.getColumnNames());
+
+		var values = MeasurementTable.getValues(lists, List.of("Area", "Even", "Missing"));
+		assertEquals(n, values.length);
+		for (int i = 0; i < n; i++) {
+			assertEquals(i, values[i][0]);
+			if (i % 2 == 0)
+				assertEquals(1, values[i][1]);
+			else
+				assertTrue(Double.isNaN(values[i][1]));
+			assertTrue(Double.isNaN(values[i][2]));
+		}
+
+		// Lists with the same measurements should share the same names
+		assertSame(lists.get(0).getNames(), lists.get(2).getNames());
+
+		// Removed measurements shouldn't be returned
+		lists.get(0).remove("Even");
+		assertTrue(Double.isNaN(MeasurementTable.getValues(lists.subList(0, 1), List.of("Even"))[0][0]));
+		assertFalse(lists.get(0).containsKey("Even"));
+		// Adding the measurement again should replace the earlier value
+		lists.get(0).put("Even", 2);
+		assertEquals(2, MeasurementTable.getValues(lists.subList(0, 1), List.of("Even"))[0][0]);
+	}
+
+	@Test
+	public void testValues() {
+		var table = new MeasurementTable();
+		List<MeasurementList> lists = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			var list = i % 3 == 0 ?
+					MeasurementListFactory.createMeasurementList(2, MeasurementList.MeasurementListType.DOUBLE) :
+					MeasurementListFactory.createMeasurementList(table);
+			list.put("First", i);
+			list.put("Second", -i);
+			lists.add(list);
+		}
+		var values = MeasurementTable.getValues(lists, List.of("Second", "Missing", "First"));
+		for (int i = 0; i < 100; i++) {
+			assertEquals(-i, values[i][0]);
+			assertTrue(Double.isNaN(values[i][1]));
+			assertEquals(i, values[i][2]);
+		}
+	}
+
+	@Test
+	public void testValuesWithDifferentNames() {
+		List<MeasurementList> lists = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			var list = MeasurementListFactory.createMeasurementList(2, MeasurementList.MeasurementListType.FLOAT);
+			// Change the order of the names, and sometimes omit one
+			if (i % 2 == 0) {
+				list.put("First", i);
+				list.put("Second", -i);
+			} else {
+				list.put("Second", -i);
+				if (i % 3 != 0)
+					list.put("First", i);
+			}
+			lists.add(list);
+		}
+		lists.add(null);
+		var values = MeasurementTable.getValues(lists, List.of("First", "Second"));
+		for (int i = 0; i < 20; i++) {
+			if (i % 2 == 1 && i % 3 == 0)
+				assertTrue(Double.isNaN(values[i][0]));
+			else
+				assertEquals(i, values[i][0]);
+			assertEquals(-i, values[i][1]);
+		}
+		assertTrue(Double.isNaN(values[20][0]));
+		assertTrue(Double.isNaN(values[20][1]));
+	}
+
+	@Test
+	public void testSerialization() throws IOException, ClassNotFoundException {
+		var list = new MeasurementTable().createMeasurementList();
+		list.put("First", 1.5);
+		list.put("Second", 2.5);
+		var bytes = new ByteArrayOutputStream();
+		try (var out = new ObjectOutputStream(bytes)) {
+			out.writeObject(list);
+		}
+		try (var in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			var list2 = (MeasurementList)in.readObject();
+			assertEquals(list.getMeasurements(), list2.getMeasurements());
+		}
+	}
+
+	@Test
+	public void testConcurrentPuts() {
+		var table = new MeasurementTable();
+		var lists = IntStream.range(0, 20_000)
+				.mapToObj(i -> table.createMeasurementList())
+				.toList();
+		IntStream.range(0, lists.size()).parallel().forEach(i -> {
+			var list = lists.get(i);
+			list.put("Index", i);
+			list.put("Index " + (i % 5), i);
+		});
+		var values = MeasurementTable.getValues(lists, List.of("Index"));
+		for (int i = 0; i < lists.size(); i++) {
+			assertEquals(i, values[i][0]);
+			assertEquals(i, lists.get(i).get("Index " + (i % 5)));
+		}
+	}
+
+}
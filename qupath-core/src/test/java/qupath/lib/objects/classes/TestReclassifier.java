@@ -0,0 +1,70 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.classes;
+
+import org.junit.jupiter.api.Test;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.ROIs;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SuppressWarnings("javadoc")
+public class TestReclassifier {
+
+	@Test
+	public void testApplyAll() {
+		var hierarchy = new PathObjectHierarchy();
+		var tumor = PathClass.fromString("Tumor");
+		var stroma = PathClass.fromString("Stroma");
+		List<PathObject> detections = IntStream.range(0, 1000)
+				.mapToObj(i -> PathObjects.createDetectionObject(ROIs.createRectangleROI(i, 0, 1, 1, ImagePlane.getDefaultPlane()), tumor))
+				.toList();
+		hierarchy.addObjects(detections);
+
+		List<PathObjectHierarchyEvent> events = new ArrayList<>();
+		hierarchy.addListener(events::add);
+
+		var reclassifiers = new ArrayList<Reclassifier>();
+		for (int i = 0; i < detections.size(); i++)
+			reclassifiers.add(new Reclassifier(detections.get(i), i % 2 == 0 ? stroma : tumor, false));
+		var changed = Reclassifier.applyAll(hierarchy, this, reclassifiers);
+		assertEquals(500, changed.size());
+		assertEquals(1, events.size());
+		assertEquals(new HashSet<>(changed), new HashSet<>(events.getFirst().getChangedObjects()));
+		for (int i = 0; i < detections.size(); i++)
+			assertEquals(i % 2 == 0 ? stroma : tumor, detections.get(i).getPathClass());
+
+		// No event if nothing changed
+		Reclassifier.applyAll(hierarchy, this, reclassifiers);
+		assertEquals(1, events.size());
+	}
+
+}
@@ -0,0 +1,143 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestConcurrentWeakCache {
+
+    @Test
+    public void testHitsAndMisses() {
+        var cache = new ConcurrentWeakCache<String, Integer>("Test", 100);
+        assertTrue(Double.isNaN(cache.getHitRate()));
+        assertNull(cache.get("a"));
+        assertEquals(1, (int)cache.computeIfAbsent("a", String::length));
+        // Keys are compared with equals, not identity
+        assertEquals(1, (int)cache.computeIfAbsent(new String("a"), s -> -1));
+        assertEquals(1, (int)cache.get(new String("a")));
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRate(), 1e-9);
+        assertEquals(1, cache.size());
+
+        cache.put("a", 10);
+        assertEquals(10, (int)cache.get("a"));
+        assertEquals(1, cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void testNullValuesNotCached() {
+        var cache = new ConcurrentWeakCache<String, Integer>("Test", 100);
+        assertNull(cache.computeIfAbsent("a", s -> null));
+        assertEquals(0, cache.size());
+        assertThrows(NullPointerException.class, () -> cache.put("a", null));
+        assertThrows(IllegalArgumentException.class, () -> new ConcurrentWeakCache<>("Test", 0));
+    }
+
+    @Test
+    public void testEviction() {
+        int maxSize = 100;
+        var cache = new ConcurrentWeakCache<Integer, Integer>("Test", maxSize);
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Integer key = i + 1000;
+            keys.add(key);
+            cache.computeIfAbsent(key, k -> k * 2);
+            assertTrue(cache.size() <= maxSize);
+        }
+        assertTrue(cache.getEvictionCount() >= 1000 - maxSize);
+        // The most recent value should always be available
+        assertEquals(keys.get(keys.size() - 1) * 2, (int)cache.get(keys.get(keys.size() - 1)));
+    }
+
+    @Test
+    public void testGarbageCollectedKeysRemoved() throws Exception {
+        var cache = new ConcurrentWeakCache<Object, Integer>("Test", 1000);
+        for (int i = 0; i < 100; i++)
+            cache.put(new Object(), i);
+        assertEquals(100, cache.size());
+
+        // Adding a new entry expunges entries whose keys have been collected
+        var key = new Object();
+        for (int i = 0; i < 50 && cache.size() > 1; i++) {
+            System.gc();
+            Thread.sleep(20);
+            cache.put(key, -1);
+        }
+        assertEquals(1, cache.size());
+        assertEquals(-1, (int)cache.get(key));
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        var cache = new ConcurrentWeakCache<Integer, Integer>("Test", 10_000);
+        var counter = new AtomicInteger();
+        // Keep strong references to the keys, so they can't be garbage collected
+        Integer[] keys = new Integer[1000];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = i;
+        int nThreads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < nThreads; t++) {
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        int value = cache.computeIfAbsent(keys[i], k -> {
+                            counter.incrementAndGet();
+                            return k + 1;
+                        });
+                        assertEquals(i + 1, value);
+                    }
+                }));
+            }
+            for (var future : futures)
+                future.get();
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(1000, cache.size());
+        assertEquals(nThreads * 1000L, cache.getHitCount() + cache.getMissCount());
+        // Values may occasionally be computed more than once, but only one should be stored
+        assertTrue(counter.get() >= 1000);
+        assertSame(cache.get(keys[500]), cache.get(keys[500]));
+    }
+
+}
@@ -0,0 +1,231 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Envelope;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.PathROIObject;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.roi.ROIs;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestPathObjectSpatialIndex {
+
+    private static final Envelope ALL = new Envelope(-Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE);
+
+    @Test
+    public void testQueryByPlane() {
+        var objects = createGrid(10, 5);
+        var index = new PathObjectSpatialIndex(objects);
+        assertEquals(50, index.nPlanes());
+
+        var plane = ImagePlane.getPlane(3, 1);
+        var results = index.query(plane, new Envelope(0, 25, 0, 25));
+        assertFalse(results.isEmpty());
+        for (var pathObject : results) {
+            assertEquals(3, pathObject.getROI().getZ());
+            assertEquals(1, pathObject.getROI().getT());
+        }
+        // 3 x 3 objects have bounds intersecting the envelope (including touching edges)
+        assertEquals(9, new HashSet<>(results).size());
+
+        assertEquals(objects.size(), index.query(null, ALL).size());
+        assertTrue(index.query(ImagePlane.getPlane(20, 0), ALL).isEmpty());
+    }
+
+    @Test
+    public void testInsertAndRemove() {
+        var objects = createGrid(2, 1);
+        var index = new PathObjectSpatialIndex(objects);
+        var plane = ImagePlane.getPlane(0, 0);
+
+        var removed = objects.get(0);
+        index.remove(removed);
+        assertEquals(1, index.overlaySize(plane));
+        assertFalse(index.query(plane, ALL).contains(removed));
+
+        var inserted = createDetection(500, 500, 0, 0);
+        index.insert(inserted);
+        assertTrue(index.query(plane, new Envelope(500, 510, 500, 510)).contains(inserted));
+
+        // Removing something from the overlay doesn't need a tombstone
+        index.remove(inserted);
+        assertEquals(1, index.overlaySize(plane));
+        assertFalse(index.query(plane, ALL).contains(inserted));
+
+        // Re-adding a removed object should make it visible exactly once
+        index.insert(removed);
+        assertEquals(1, index.query(plane, ALL).stream().filter(p -> p == removed).count());
+    }
+
+    @Test
+    public void testMoveOverlayObject() {
+        for (var objects : List.of(createGrid(1, 1), List.<PathObject>of())) {
+            var index = new PathObjectSpatialIndex(objects);
+            var plane = ImagePlane.getPlane(0, 0);
+
+            // Add to the overlay, then move twice.
+            // As in the tile cache, the ROI has already changed by the time the object is removed.
+            var pathObject = (PathROIObject)createDetection(500, 500, 0, 0);
+            index.insert(pathObject);
+            for (int i = 1; i <= 2; i++) {
+                pathObject.setROI(ROIs.createRectangleROI(500 + i * 100, 500, 10, 10, plane));
+                index.remove(pathObject);
+                index.insert(pathObject);
+            }
+            assertTrue(index.query(plane, new Envelope(502, 508, 502, 508)).isEmpty());
+            assertTrue(index.query(plane, new Envelope(602, 608, 502, 508)).isEmpty());
+            assertEquals(List.of(pathObject), index.query(plane, new Envelope(702, 708, 502, 508)));
+            assertEquals(1, index.query(plane, ALL).stream().filter(p -> p == pathObject).count());
+
+            // Move a packed object
+            if (!objects.isEmpty()) {
+                var packed = (PathROIObject)objects.get(0);
+                packed.setROI(ROIs.createRectangleROI(900, 900, 10, 10, plane));
+                index.remove(packed);
+                index.insert(packed);
+                packed.setROI(ROIs.createRectangleROI(1000, 1000, 10, 10, plane));
+                index.remove(packed);
+                index.insert(packed);
+                assertFalse(index.query(plane, new Envelope(0, 5, 0, 5)).contains(packed));
+                assertFalse(index.query(plane, new Envelope(902, 908, 902, 908)).contains(packed));
+                assertEquals(List.of(packed), index.query(plane, new Envelope(1002, 1008, 1002, 1008)));
+            }
+
+            // Removing the object should hide it everywhere
+            index.remove(pathObject);
+            assertFalse(index.query(plane, ALL).contains(pathObject));
+        }
+    }
+
+    @Test
+    public void testMergeAfterMoves() {
+        var objects = createGrid(1, 1);
+        var index = new PathObjectSpatialIndex(objects);
+        var plane = ImagePlane.getPlane(0, 0);
+
+        var moved = (PathROIObject)objects.get(0);
+        moved.setROI(ROIs.createRectangleROI(-50, -50, 10, 10, plane));
+        index.remove(moved);
+        index.insert(moved);
+        moved.setROI(ROIs.createRectangleROI(-60, -60, 10, 10, plane));
+        index.remove(moved);
+        index.insert(moved);
+        var deleted = createDetection(-200, -200, 0, 0);
+        index.insert(deleted);
+        index.remove(deleted);
+
+        // Fill the overlay until it is merged
+        for (int i = 0; index.overlaySize(plane) > 0; i++)
+            index.insert(createDetection(i * 20, -1000, 0, 0));
+
+        var results = index.query(plane, ALL);
+        assertEquals(results.size(), new HashSet<>(results).size());
+        assertFalse(results.contains(deleted));
+        assertEquals(List.of(moved), index.query(plane, new Envelope(-58, -52, -58, -52)));
+        assertTrue(index.query(plane, new Envelope(-48, -42, -48, -42)).isEmpty());
+        assertFalse(index.query(plane, new Envelope(0, 5, 0, 5)).contains(moved));
+    }
+
+    @Test
+    public void testMerge() {
+        var objects = createGrid(1, 1);
+        var index = new PathObjectSpatialIndex(objects);
+        var plane = ImagePlane.getPlane(0, 0);
+
+        // Below the minimum merge size, everything stays in the overlay
+        List<PathObject> added = new ArrayList<>();
+        for (int i = 0; i < PathObjectSpatialIndex.MIN_MERGE_SIZE - 1; i++) {
+            var pathObject = createDetection(i * 20, -100, 0, 0);
+            index.insert(pathObject);
+            added.add(pathObject);
+        }
+        assertEquals(PathObjectSpatialIndex.MIN_MERGE_SIZE - 1, index.overlaySize(plane));
+        index.remove(objects.get(0));
+        // Reaching the threshold should fold the overlay into the packed tree
+        assertEquals(0, index.overlaySize(plane));
+
+        Set<PathObject> results = new HashSet<>(index.query(plane, ALL));
+        assertEquals(objects.size() - 1 + added.size(), results.size());
+        assertTrue(results.containsAll(added));
+        assertFalse(results.contains(objects.get(0)));
+    }
+
+    @Test
+    public void testHierarchyQueries() {
+        var hierarchy = new PathObjectHierarchy();
+        var objects = createGrid(4, 4);
+        hierarchy.addObjects(objects);
+
+        var region = ImageRegion.createInstance(0, 0, 100, 100, 2, 0);
+        var results = hierarchy.getAllDetectionsForRegion(region);
+        assertEquals(100, results.size());
+        assertTrue(results.stream().allMatch(p -> p.getROI().getZ() == 2));
+
+        // Single removal & addition should be reflected without rebuilding
+        var toRemove = results.iterator().next();
+        hierarchy.removeObject(toRemove, false);
+        assertEquals(99, hierarchy.getAllDetectionsForRegion(region).size());
+
+        var toAdd = createDetection(40, 40, 2, 0);
+        hierarchy.addObject(toAdd);
+        var afterAdd = hierarchy.getAllDetectionsForRegion(region);
+        assertEquals(100, afterAdd.size());
+        assertTrue(afterAdd.contains(toAdd));
+
+        assertTrue(hierarchy.hasObjectsForRegion(null, region));
+        assertFalse(hierarchy.hasObjectsForRegion(null, ImageRegion.createInstance(0, 0, 100, 100, 5, 0)));
+    }
+
+    /**
+     * Create a grid of 10x10 detections on each plane.
+     */
+    private static List<PathObject> createGrid(int nZ, int nT) {
+        List<PathObject> list = new ArrayList<>();
+        for (int t = 0; t < nT; t++) {
+            for (int z = 0; z < nZ; z++) {
+                for (int y = 0; y < 100; y += 10) {
+                    for (int x = 0; x < 100; x += 10) {
+                        list.add(createDetection(x, y, z, t));
+                    }
+                }
+            }
+        }
+        return list;
+    }
+
+    private static PathObject createDetection(double x, double y, int z, int t) {
+        return PathObjects.createDetectionObject(ROIs.createRectangleROI(x, y, 10, 10, ImagePlane.getPlane(z, t)));
+    }
+
+}
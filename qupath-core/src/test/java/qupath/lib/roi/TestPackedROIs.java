@@ -0,0 +1,117 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.roi;
+
+import org.junit.jupiter.api.Test;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.interfaces.ROI;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class TestPackedROIs {
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		var plane = ImagePlane.getPlane(2, 3);
+		List<ROI> rois = new ArrayList<>();
+		rois.add(ROIs.createRectangleROI(1.5, 2.5, 10, 20, plane));
+		rois.add(null);
+		rois.add(ROIs.createEllipseROI(5, 6, 7, 8, ImagePlane.getDefaultPlane()));
+		rois.add(ROIs.createLineROI(1, 2, 30.25, 40.5, plane));
+		rois.add(ROIs.createPolygonROI(new double[] {0, 10, 10.5, 0}, new double[] {0, 0, 10, 12.25}, plane));
+		rois.add(ROIs.createPolylineROI(new double[] {1, 2, 3}, new double[] {4, 5, 6}, plane));
+		rois.add(ROIs.createPointsROI(new double[] {1.125, 2}, new double[] {3, 4.0625}, ImagePlane.getPlaneWithChannel(1, 0, 0)));
+		rois.add(ROIs.createPointsROI(ImagePlane.getDefaultPlane()));
+		// Create a geometry with a hole
+		var outer = ROIs.createRectangleROI(0, 0, 100, 100, plane);
+		var inner = ROIs.createEllipseROI(20, 20, 40, 40, plane);
+		rois.add(RoiTools.combineROIs(outer, inner, RoiTools.CombineOp.SUBTRACT));
+
+		var result = roundTrip(rois);
+		assertEquals(rois.size(), result.size());
+		for (int i = 0; i < rois.size(); i++) {
+			var expected = rois.get(i);
+			var actual = result.get(i);
+			if (expected == null) {
+				assertNull(actual);
+				continue;
+			}
+			assertEquals(expected.getClass(), actual.getClass());
+			assertEquals(expected.getImagePlane(), actual.getImagePlane());
+			assertEquals(expected.getAllPoints(), actual.getAllPoints());
+			assertTrue(expected.getGeometry().equalsExact(actual.getGeometry()));
+		}
+	}
+
+	@Test
+	public void testManyPolygons() throws IOException {
+		List<ROI> rois = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			int n = 3 + i % 20;
+			double[] x = new double[n];
+			double[] y = new double[n];
+			for (int j = 0; j < n; j++) {
+				x[j] = i * 10 + Math.cos(j * 2 * Math.PI / n) * 5;
+				y[j] = i * 10 + Math.sin(j * 2 * Math.PI / n) * 5;
+			}
+			rois.add(ROIs.createPolygonROI(x, y, ImagePlane.getPlane(0, i % 3)));
+		}
+		var result = roundTrip(rois);
+		for (int i = 0; i < rois.size(); i++) {
+			assertEquals(rois.get(i).getAllPoints(), result.get(i).getAllPoints());
+			assertEquals(rois.get(i).getImagePlane(), result.get(i).getImagePlane());
+		}
+	}
+
+	@Test
+	public void testUnsupported() {
+		var roi = new RectangleROI(0, 0, 10, 10) {};
+		assertTrue(PackedROIs.isSupported(null));
+		assertTrue(PackedROIs.isSupported(ROIs.createRectangleROI(0, 0, 1, 1, ImagePlane.getDefaultPlane())));
+		assertEquals(false, PackedROIs.isSupported(roi));
+		assertThrows(IllegalArgumentException.class, () -> roundTrip(Arrays.asList(roi)));
+	}
+
+	private static List<ROI> roundTrip(List<ROI> rois) throws IOException {
+		var bytes = new ByteArrayOutputStream();
+		try (var out = new DataOutputStream(bytes)) {
+			PackedROIs.write(out, rois);
+		}
+		try (var in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			return PackedROIs.read(in);
+		}
+	}
+
+}
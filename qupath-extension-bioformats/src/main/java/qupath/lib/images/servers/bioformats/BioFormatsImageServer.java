@@ -4,7 +4,7 @@
  * %%
  * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
  * Contact: IP Management (ipmanagement@qub.ac.uk)
- * Copyright (C) 2018 - 2024 QuPath developers, The University of Edinburgh
+ * Copyright (C) 2018 - 2025 QuPath developers, The University of Edinburgh
  * %%
  * QuPath is free software: you can redistribute it and/or modify
  * it under the terms of the GNU General Public License as
@@ -54,6 +54,7 @@ import picocli.CommandLine.Unmatched;
 import qupath.lib.color.ColorModelFactory;
 import qupath.lib.common.ColorTools;
 import qupath.lib.common.GeneralTools;
+import qupath.lib.common.ThreadTools;
 import qupath.lib.images.servers.AbstractTileableImageServer;
 import qupath.lib.images.servers.ImageChannel;
 import qupath.lib.images.servers.ImageServerBuilder.DefaultImageServerBuilder;
@@ -96,12 +97,18 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.IntStream;
@@ -889,6 +896,11 @@ public class BioFormatsImageServer extends AbstractTileableImageServer implement
 		return Collections.singletonList(uri);
 	}
 	
+	@Override
+	protected String getPersistentTileCacheKey() {
+		return createDefaultPersistentTileCacheKey();
+	}
+	
 	@Override
 	public String createID() {
 		return ServerTools.createDefaultID(getClass(), uri, args);
@@ -963,6 +975,48 @@ public class BioFormatsImageServer extends AbstractTileableImageServer implement
 		return imageMap != null && !imageMap.isEmpty();
 	}
 
+	/**
+	 * Get statistics describing how the Bio-Formats readers for this server are being used.
+	 * This can help to decide whether the maximum number of readers should be adjusted.
+	 * @return
+	 */
+	public ReaderPoolStatistics getReaderPoolStatistics() {
+		return readerPool.getStatistics();
+	}
+
+	/**
+	 * Statistics describing the use of the Bio-Formats readers for a server.
+	 * <p>
+	 * Each server has a main reader that is always open. Additional readers are created on demand 
+	 * when requests have to wait, and closed again after being idle for a while. 
+	 * The number of additional readers is limited both per server and globally, across all servers.
+	 * 
+	 * @param nReaders number of readers currently open for the server, including the main reader
+	 * @param nBusyReaders number of readers currently in use
+	 * @param nRequests total number of requests for a reader
+	 * @param nWaits number of requests that had to wait for a reader to become available, and then received one
+	 * @param meanWaitMillis mean wait time in milliseconds, for requests that had to wait and then received a reader
+	 * @param maxWaitMillis maximum wait time in milliseconds, for requests that had to wait and then received a reader
+	 * @param nTimeouts number of requests that gave up waiting (because they timed out or were interrupted) 
+	 *                  and used the main reader instead
+	 * @param nClosedRequests number of requests that received no reader because the server had been closed
+	 * @param nGlobalReaders number of additional readers currently open across all servers
+	 * @param maxGlobalReaders maximum number of additional readers permitted across all servers
+	 */
+	public record ReaderPoolStatistics(int nReaders, int nBusyReaders, long nRequests, long nWaits,
+			double meanWaitMillis, double maxWaitMillis, long nTimeouts, long nClosedRequests,
+			int nGlobalReaders, int maxGlobalReaders) {
+
+		/**
+		 * Get the proportion of readers for the server that are currently in use.
+		 * @return a value between 0 and 1
+		 */
+		public double getUtilization() {
+			return nReaders == 0 ? 0 : Math.min(1.0, nBusyReaders / (double)nReaders);
+		}
+
+	}
+
 	/**
 	 * Get the MetadataStore, as used by Bio-Formats. This can be used to query metadata values not otherwise accessible.
 	 * @return
@@ -1136,6 +1190,12 @@ public class BioFormatsImageServer extends AbstractTileableImageServer implement
 	/**
 	 * Helper class that manages a pool of readers.
 	 * The purpose is to allow multiple threads to take the next available reader, without
+	 * <p>
+	 * Additional readers are requested only when a thread has waited longer than a short threshold, 
+	 * and those that have been idle for too long are closed to release memory.
+	 * Readers are reused most-recently-returned first, so that a burst of requests doesn't keep all 
+	 * readers alive indefinitely.
+	 * The number of additional readers is also limited by a budget shared across all pools.
 	 */
 	static class ReaderPool implements AutoCloseable {
 		
@@ -1143,6 +1203,38 @@ public class BioFormatsImageServer extends AbstractTileableImageServer implement
 
 		private static final int DEFAULT_TIMEOUT_SECONDS = 60;
 
+		/**
+		 * Default time to wait for a reader to be returned before requesting a new one
+		 */
+		private static final int DEFAULT_GROW_AFTER_MILLIS = 20;
+
+		/**
+		 * Default time an additional reader can remain unused before it is closed
+		 */
+		private static final int DEFAULT_IDLE_SECONDS = 120;
+
+		/**
+		 * Interval at which to check for idle readers
+		 */
+		private static final long IDLE_CHECK_INTERVAL_SECONDS = 10;
+
+		/**
+		 * Maximum number of additional readers across all pools (the main readers are not included)
+		 */
+		private static final int MAX_GLOBAL_READERS = getIntProperty("bioformats.readerpool.global",
+				Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+
+		private static final Semaphore globalReaderPermits = new Semaphore(MAX_GLOBAL_READERS);
+
+		/**
+		 * Open pools, checked periodically for idle readers.
+		 * Weak keys are used so that the cleaner can still close readers for pools that were never closed.
+		 */
+		private static final Set<ReaderPool> activePools = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+		private static final ScheduledExecutorService idleReaderService = Executors.newSingleThreadScheduledExecutor(
+				ThreadTools.createThreadFactory("bioformats-reader-pool", true));
+
 		/**
 		 * Absolute maximum number of permitted readers (queue capacity)
 		 */
@@ -1159,7 +1251,8 @@ public class BioFormatsImageServer extends AbstractTileableImageServer implement
 		
 		private AtomicInteger totalReaders = new AtomicInteger(0);
 		private List<IFormatReader> additionalReaders = Collections.synchronizedList(new ArrayList<>());
-		private ArrayBlockingQueue<IFormatReader> queue;
+		private LinkedBlockingDeque<IFormatReader> queue;
+		private Map<IFormatReader, Long> lastReturned = new ConcurrentHashMap<>();
 		
 		private OMEPyramidStore metadata;
 		private IFormatReader mainReader;
@@ -1168,6 +1261,15 @@ public class BioFormatsImageServer extends AbstractTileableImageServer implement
 		private final List<ImageChannel> channels;
 
 		private int timeoutSeconds;
+		private int growAfterMillis;
+		private long idleNanos;
+
+		private final LongAdder nRequests = new LongAdder();
+		private final LongAdder nWaits = new LongAdder();
+		private final LongAdder totalWaitNanos = new LongAdder();
+		private final AtomicLong maxWaitNanos = new AtomicLong();
+		private final LongAdder nTimeouts = new LongAdder();
+		private final LongAdder nClosedRequests = new LongAdder();
 
 		// This may be reused by OMERO extension? Not sure, but need to change cautiously...
 		ReaderPool(BioFormatsServerOptions options, String id, BioFormatsArgs args, List<ImageChannel> channels) throws FormatException, IOException {
@@ -1176,10 +1278,12 @@ public class BioFormatsImageServer extends AbstractTileableImageServer implement
 			this.args = args;
 			this.channels = channels;
 			
-			queue = new ArrayBlockingQueue<>(MAX_QUEUE_CAPACITY); // Set a reasonably large capacity (don't want to block when trying to add)
+			queue = new LinkedBlockingDeque<>(MAX_QUEUE_CAPACITY); // Set a reasonably large capacity (don't want to block when trying to add)
 			metadata = (OMEPyramidStore)MetadataTools.createOMEXMLMetadata();
 
 			timeoutSeconds = getTimeoutSeconds();
+			growAfterMillis = getIntProperty("bioformats.readerpool.growAfterMillis", DEFAULT_GROW_AFTER_MILLIS);
+			idleNanos = TimeUnit.SECONDS.toNanos(getIntProperty("bioformats.readerpool.idleSeconds", DEFAULT_IDLE_SECONDS));
 			
 			// Create the main reader
 			long startTime = System.currentTimeMillis();
@@ -1189,10 +1293,18 @@ public class BioFormatsImageServer extends AbstractTileableImageServer implement
 			logger.debug("Reader {} created in {} ms", mainReader, endTime - startTime);
 			
 			// Make the main reader available
-			queue.add(mainReader);
+			queue.addFirst(mainReader);
 			
 			// Store the class so we don't need to go hunting later
 			classList = unwrapClasslist(mainReader);
+
+			if (idleNanos > 0)
+				activePools.add(this);
+		}
+
+		static {
+			idleReaderService.scheduleWithFixedDelay(ReaderPool::closeIdleReadersForAllPools,
+					IDLE_CHECK_INTERVAL_SECONDS, IDLE_CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
 		}
 
 		/**
@@ -1201,15 +1313,19 @@ public class BioFormatsImageServer extends AbstractTileableImageServer implement
 		 * @return
 		 */
 		private int getTimeoutSeconds() {
-			String timeoutString = System.getProperty("bioformats.readerpool.timeout", null);
-			if (timeoutString != null) {
+			return getIntProperty("bioformats.readerpool.timeout", DEFAULT_TIMEOUT_SECONDS);
+		}
+
+		private static int getIntProperty(String key, int defaultValue) {
+			String value = System.getProperty(key, null);
+			if (value != null) {
 				try {
-					return Integer.parseInt(timeoutString);
+					return Integer.parseInt(value.strip());
 				} catch (NumberFormatException e) {
-					logger.warn("Unable to parse timeout value: {}", timeoutString, e);
+					logger.warn("Unable to parse value for {}: {}", key, value, e);
 				}
 			}
-			return DEFAULT_TIMEOUT_SECONDS;
+			return defaultValue;
 		}
 
 		/**
@@ -1244,19 +1360,29 @@ public class BioFormatsImageServer extends AbstractTileableImageServer implement
 		
 		private void createAdditionalReader(BioFormatsServerOptions options, final ClassList<IFormatReader> classList, 
 				final String id, BioFormatsArgs args) {
+			if (isClosed)
+				return;
+			// The permit is released by the reader's cleaner, when the reader is closed
+			if (!globalReaderPermits.tryAcquire()) {
+				logger.debug("No new reader will be created (global limit of {} additional readers reached)", MAX_GLOBAL_READERS);
+				return;
+			}
+			IFormatReader newReader = null;
 			try {
-				if (isClosed)
-					return;
 				logger.debug("Requesting new reader for thread {}", Thread.currentThread());
-				var newReader = createReader(options, classList, id, null, args);
+				newReader = createReader(options, classList, id, null, args);
 				if (newReader != null) {
 					additionalReaders.add(newReader);
-					queue.add(newReader);
+					lastReturned.put(newReader, System.nanoTime());
+					queue.addFirst(newReader);
 					logger.debug("Created new reader (total={})", additionalReaders.size());
 				} else
 					logger.warn("New Bio-Formats reader could not be created (returned null)");
 			} catch (Exception e) {
 				logger.error("Error creating additional readers: " + e.getLocalizedMessage(), e);
+			} finally {
+				if (newReader == null)
+					globalReaderPermits.release();
 			}
 		}
 		
@@ -1424,8 +1550,9 @@ public class BioFormatsImageServer extends AbstractTileableImageServer implement
 				imageReader.close(false);
 				return null;
 			} else {
-				cleanables.add(cleaner.register(this,
-						new ReaderCleaner(Integer.toString(cleanables.size()+1), imageReader)));
+				// Additional readers hold a global permit, which should be released when the reader is closed
+				cleanables.put(imageReader, cleaner.register(this,
+						new ReaderCleaner(Integer.toString(cleanables.size()+1), imageReader, mainReader != null)));
 			}
 			
 			return imageReader;
@@ -1433,30 +1560,151 @@ public class BioFormatsImageServer extends AbstractTileableImageServer implement
 		
 				
 		
-		private IFormatReader nextQueuedReader() {
-			var nextReader = queue.poll();
+		IFormatReader nextQueuedReader() {
+			nRequests.increment();
+			var nextReader = queue.pollFirst();
 			if (nextReader != null)
 				return nextReader;
-			synchronized (this) {
-				if (!isClosed && (task == null || task.isDone()) && totalReaders.get() < getMaxReaders()) {
-					logger.debug("Requesting reader for {}", id);
-					task = ForkJoinPool.commonPool().submit(() -> createAdditionalReader(options, classList, id, args));				
-				}
-			}
-			if (isClosed)
+			if (isClosed) {
+				nClosedRequests.increment();
 				return null;
+			}
+			long startTime = System.nanoTime();
 			try {
-				var reader = queue.poll(timeoutSeconds, TimeUnit.SECONDS);
+				// Readers are often returned quickly, so only request a new one if we've had to wait
+				var reader = growAfterMillis > 0 ? queue.pollFirst(growAfterMillis, TimeUnit.MILLISECONDS) : null;
+				if (reader != null)
+					return recordWait(reader, startTime);
+				requestAdditionalReader();
+				if (isClosed) {
+					nClosedRequests.increment();
+					return null;
+				}
+				long timeoutMillis = Math.max(0, TimeUnit.SECONDS.toMillis(timeoutSeconds) - growAfterMillis);
+				reader = queue.pollFirst(timeoutMillis, TimeUnit.MILLISECONDS);
 				// See https://github.com/qupath/qupath/issues/1265
 				if (reader == null) {
 					logger.warn("Bio-Formats reader request timed out after {} seconds - returning main reader", timeoutSeconds);
+					nTimeouts.increment();
 					return mainReader;
 				} else
-					return reader;
+					return recordWait(reader, startTime);
 			} catch (InterruptedException e) {
 				logger.warn("Interrupted exception when awaiting next queued reader: {}", e.getLocalizedMessage());
-				return isClosed ? null : mainReader;
+				if (isClosed) {
+					nClosedRequests.increment();
+					return null;
+				}
+				nTimeouts.increment();
+				return mainReader;
+			}
+		}
+		
+		/**
+		 * Record the time taken for a request that had to wait, but then received a reader from the queue.
+		 * Timeouts and requests to a closed pool are counted separately, so they don't distort the wait times.
+		 */
+		private IFormatReader recordWait(IFormatReader reader, long startTime) {
+			long waitNanos = System.nanoTime() - startTime;
+			nWaits.increment();
+			totalWaitNanos.add(waitNanos);
+			maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+			return reader;
+		}
+
+		private void requestAdditionalReader() {
+			synchronized (this) {
+				if (!isClosed && (task == null || task.isDone()) && totalReaders.get() < getMaxReaders()) {
+					logger.debug("Requesting reader for {}", id);
+					task = ForkJoinPool.commonPool().submit(() -> createAdditionalReader(options, classList, id, args));
+				}
+			}
+		}
+
+		/**
+		 * Return a reader to the queue, so that it can be used by another thread.
+		 * @param reader
+		 */
+		void returnReader(IFormatReader reader) throws InterruptedException {
+			if (reader == null)
+				return;
+			lastReturned.put(reader, System.nanoTime());
+			queue.putFirst(reader);
+		}
+
+		/**
+		 * Close any additional readers that haven't been used recently.
+		 * The main reader is always kept open.
+		 */
+		void closeIdleReaders() {
+			closeIdleReaders(System.nanoTime());
+		}
+
+		/**
+		 * Close any additional readers that haven't been returned since {@code now - idleNanos}.
+		 * @param now the current time, as given by {@link System#nanoTime()}
+		 */
+		void closeIdleReaders(long now) {
+			if (isClosed || idleNanos <= 0)
+				return;
+			for (var reader : additionalReaders.toArray(IFormatReader[]::new)) {
+				if (!isIdle(reader, now))
+					continue;
+				// Take the reader from the queue, so that no other thread can use it while we're closing it.
+				// If it isn't in the queue, it's currently in use.
+				if (!queue.remove(reader))
+					continue;
+				// The reader might have been used and returned since we checked - if so, put it back.
+				// This is safe because the time is always updated before the reader is added to the queue.
+				if (!isIdle(reader, now)) {
+					queue.offerFirst(reader);
+					continue;
+				}
+				additionalReaders.remove(reader);
+				lastReturned.remove(reader);
+				totalReaders.decrementAndGet();
+				var cleanable = cleanables.remove(reader);
+				if (cleanable != null)
+					cleanable.clean();
+				logger.debug("Closed idle reader for {} (remaining={})", id, totalReaders.get());
+			}
+		}
+
+		private boolean isIdle(IFormatReader reader, long now) {
+			var time = lastReturned.get(reader);
+			return time != null && now - time >= idleNanos;
+		}
+
+		/**
+		 * Get the time an additional reader can remain unused before it is closed.
+		 * @return the time in nanoseconds, or 0 if idle readers are not closed
+		 */
+		long getIdleNanos() {
+			return Math.max(0, idleNanos);
+		}
+
+		private static void closeIdleReadersForAllPools() {
+			List<ReaderPool> pools;
+			synchronized (activePools) {
+				pools = new ArrayList<>(activePools);
 			}
+			for (var pool : pools) {
+				try {
+					pool.closeIdleReaders();
+				} catch (Exception e) {
+					logger.warn("Error closing idle readers: {}", e.getMessage(), e);
+				}
+			}
+		}
+
+		ReaderPoolStatistics getStatistics() {
+			int nReaders = totalReaders.get();
+			int nBusy = Math.max(0, nReaders - queue.size());
+			long nWaitsTotal = nWaits.sum();
+			double meanWaitMillis = nWaitsTotal == 0 ? 0 : totalWaitNanos.sum() / 1e6 / nWaitsTotal;
+			return new ReaderPoolStatistics(nReaders, nBusy, nRequests.sum(), nWaitsTotal,
+					meanWaitMillis, maxWaitNanos.get() / 1e6, nTimeouts.sum(), nClosedRequests.sum(),
+					MAX_GLOBAL_READERS - globalReaderPermits.availablePermits(), MAX_GLOBAL_READERS);
 		}
 		
 		
@@ -1549,7 +1797,7 @@ public class BioFormatsImageServer extends AbstractTileableImageServer implement
 				if (Thread.interrupted()) {
 					logger.debug("Thread interrupted, flag will be reset: {}", Thread.currentThread());
 				}
-				queue.put(ipReader);
+				returnReader(ipReader);
 			}
 
 			OMEPixelParser omePixelParser = new OMEPixelParser.Builder()
@@ -1618,7 +1866,7 @@ public class BioFormatsImageServer extends AbstractTileableImageServer implement
 					}
 				}
 			} finally {
-				queue.put(reader);
+				returnReader(reader);
 			}
 		}
 		
@@ -1642,9 +1890,12 @@ public class BioFormatsImageServer extends AbstractTileableImageServer implement
 		public void close() throws Exception {
 			logger.debug("Closing ReaderManager");
 			isClosed = true;
+			activePools.remove(this);
+			if (logger.isDebugEnabled())
+				logger.debug("Reader pool statistics for {}: {}", id, getStatistics());
 			if (task != null && !task.isDone())
 				task.cancel(true);
-			for (var c : cleanables) {
+			for (var c : cleanables.values()) {
 				try {
 					c.clean();
 				} catch (Exception e) {
@@ -1655,7 +1906,7 @@ public class BioFormatsImageServer extends AbstractTileableImageServer implement
 
 		
 		private static final Cleaner cleaner = Cleaner.create();
-		private final List<Cleanable> cleanables = new ArrayList<>();
+		private final Map<IFormatReader, Cleanable> cleanables = new ConcurrentHashMap<>();
 
 
 		/**
@@ -1773,10 +2024,12 @@ public class BioFormatsImageServer extends AbstractTileableImageServer implement
 
 			private final String name;
 			private final IFormatReader reader;
+			private final boolean releasePermit;
 
-			ReaderCleaner(String name, IFormatReader reader) {
+			ReaderCleaner(String name, IFormatReader reader, boolean releasePermit) {
 				this.name = name;
 				this.reader = reader;
+				this.releasePermit = releasePermit;
 			}
 
 			@Override
@@ -1786,6 +2039,9 @@ public class BioFormatsImageServer extends AbstractTileableImageServer implement
 					this.reader.close(false);
 				} catch (IOException e) {
                     logger.warn("Error when calling cleaner for {}", name, e);
+				} finally {
+					if (releasePermit)
+						globalReaderPermits.release();
 				}
 			}
 
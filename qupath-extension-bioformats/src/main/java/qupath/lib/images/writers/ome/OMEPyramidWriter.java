@@ -2,7 +2,7 @@
  * #%L
  * This file is part of QuPath.
  * %%
- * Copyright (C) 2018 - 2020 QuPath developers, The University of Edinburgh
+ * Copyright (C) 2018 - 2025 QuPath developers, The University of Edinburgh
  * %%
  * QuPath is free software: you can redistribute it and/or modify
  * it under the terms of the GNU General Public License as
@@ -51,6 +51,7 @@ import qupath.lib.images.servers.PixelCalibration;
 import qupath.lib.images.servers.PixelType;
 import qupath.lib.images.servers.ServerTools;
 import qupath.lib.images.servers.TileRequest;
+import qupath.lib.images.writers.StreamingPyramidGenerator;
 import qupath.lib.regions.ImageRegion;
 import qupath.lib.regions.RegionRequest;
 
@@ -349,11 +350,15 @@ public class OMEPyramidWriter {
 					.ifPresent(writer::setCodecOptions);
 			
 			writer.setId(path);
+			long startTime = System.nanoTime();
 			for (int s = 0; s < series.size(); s++) {
 				var temp = series.get(s);
 				logger.info("Writing {} to {} (series {}/{})", ServerTools.getDisplayableImageName(temp.getOriginalServer()), path, s+1, series.size());
 				temp.writeSeries(writer.getWriter(), meta, s);
 			}
+			double seconds = (System.nanoTime() - startTime) / 1e9;
+			logger.info(String.format("%s written in %.1f s (%.1f MB/s uncompressed)",
+					path, seconds, nPixelBytes / (1024.0 * 1024.0) / Math.max(seconds, 1e-3)));
 		} catch (FormatException e) {
 			throw new IOException(e);
 		}
@@ -387,6 +392,8 @@ public class OMEPyramidWriter {
 		
 		private int parallelThreads = 1;
 		
+		private boolean streamingPyramid = false;
+		
 		private Boolean bigTiff;
 		private ChannelExportType channelExportType = ChannelExportType.DEFAULT;
 	
@@ -529,7 +536,8 @@ public class OMEPyramidWriter {
 				int h = (int)(height / d);
 				int exportLevel = ServerTools.getPreferredResolutionLevel(exportServer, d);
 				// If the image we're exporting has an exact matching level, then use its dimensions
-				if (!isCropped && exportServer.getDownsampleForResolution(exportLevel) == d) {
+				// (unless we generate the levels ourselves, in which case the dimensions must be consistent with level 0)
+				if (!isCropped && !useStreamingPyramid() && exportServer.getDownsampleForResolution(exportLevel) == d) {
 					w = exportServer.getMetadata().getLevel(exportLevel).getWidth();
 					h = exportServer.getMetadata().getLevel(exportLevel).getHeight();
 				}
@@ -548,6 +556,15 @@ public class OMEPyramidWriter {
 			return serverOriginal.isRGB() && getExportPixelType() == PixelType.UINT8 && Arrays.equals(channels, RGB_CHANNEL_ARRAY);
 		}
 		
+		/**
+		 * Check whether all resolution levels should be generated in a single pass over the full-resolution image.
+		 * This requires a tiled image, and downsamples that are integer multiples of one another.
+		 */
+		boolean useStreamingPyramid() {
+			return streamingPyramid && tileWidth > 0 && tileHeight > 0 &&
+					StreamingPyramidGenerator.supportsDownsamples(downsamples);
+		}
+		
 		/**
 		 * Write an OME-TIFF pyramidal image to the given file.
 		 * 
@@ -695,6 +712,10 @@ public class OMEPyramidWriter {
             } catch (FormatException e) {
                 throw new IOException(e);
             }
+			if (isTiled && useStreamingPyramid()) {
+				writeAllLevels(writer, series, server, tileWidth, tileHeight, nChannels, nSamples, isRGB);
+				return;
+			}
             for (int level = 0; level < downsamples.length; level++) {
 				
 				writer.setResolution(level);
@@ -702,16 +723,7 @@ public class OMEPyramidWriter {
 				// Preallocate any IFD
 				if (isTiff) {
 					map.clear();
-					for (int i = 0; i < nPlanes; i++) {
-						IFD ifd = new IFD();
-						if (isTiled) {
-							ifd.put(IFD.TILE_WIDTH, tileWidth);
-							ifd.put(IFD.TILE_LENGTH, tileHeight);
-						}
-						if (nSamples > 1 && !isRGB)
-							ifd.put(IFD.EXTRA_SAMPLES, new short[nSamples-1]);
-						map.put(Integer.valueOf(i), ifd);
-					}
+					map.putAll(createIFDs(nPlanes, isTiled, tileWidth, tileHeight, nSamples, isRGB));
 				}
 	
 				double d = downsamples[level];
@@ -910,17 +922,24 @@ public class OMEPyramidWriter {
 			RegionRequest request = tile.getRegionRequest().translate(this.x, this.y);
 			BufferedImage img = server.readRegion(request);
 			
+			saveBytes(writer, plane, ifd, tile, img, getTileBytes(img, tile, isRGB, channels));
+		}
+		
+		/**
+		 * Get the bytes to write for a tile.
+		 * 
+		 * @param img the image for the tile; if null, zeros are returned
+		 * @param tile the tile
+		 * @param isRGB export as RGB; this assumes both the input and export images are RGB (i.e. no extra conversions, channel reordering etc.)
+		 * @param channels
+		 * @return
+		 */
+		private byte[] getTileBytes(BufferedImage img, TileRequest tile, boolean isRGB, int[] channels) {
 			var pixelType = getExportPixelType();
 			int bytesPerPixel = pixelType.getBytesPerPixel();
 			int nChannels = channels.length;
-			if (img == null) {
-				byte[] zeros = new byte[tile.getTileWidth() * tile.getTileHeight() * bytesPerPixel * nChannels];
-				if (writer instanceof TiffWriter)
-					((TiffWriter)writer).saveBytes(plane, zeros, ifd, tile.getTileX(), tile.getTileY(), tile.getTileWidth(), tile.getTileHeight());
-				else
-					writer.saveBytes(plane, zeros, tile.getTileX(), tile.getTileY(), tile.getTileWidth(), tile.getTileHeight());
-				return;
-			}
+			if (img == null)
+				return new byte[tile.getTileWidth() * tile.getTileHeight() * bytesPerPixel * nChannels];
 			
 			int ww = img.getWidth();
 			int hh = img.getHeight();
@@ -944,10 +963,157 @@ public class OMEPyramidWriter {
 					channelToBuffer(img.getRaster(), c, buf, ind, channels.length * bytesPerPixel, pixelType);
 				}
 			}
+			return buf.array();
+		}
+		
+		/**
+		 * Write the bytes for a tile. The ifd is only used if writer is an instance of TiffWriter.
+		 * The width and height are taken from the image if available, otherwise from the tile.
+		 */
+		private static void saveBytes(IFormatWriter writer, int plane, IFD ifd, TileRequest tile, BufferedImage img, byte[] bytes) throws FormatException, IOException {
+			int ww = img == null ? tile.getTileWidth() : img.getWidth();
+			int hh = img == null ? tile.getTileHeight() : img.getHeight();
 			if (writer instanceof TiffWriter)
-				((TiffWriter)writer).saveBytes(plane, buf.array(), ifd, tile.getTileX(), tile.getTileY(), ww, hh);
+				((TiffWriter)writer).saveBytes(plane, bytes, ifd, tile.getTileX(), tile.getTileY(), ww, hh);
 			else
-				writer.saveBytes(plane, buf.array(), tile.getTileX(), tile.getTileY(), ww, hh);
+				writer.saveBytes(plane, bytes, tile.getTileX(), tile.getTileY(), ww, hh);
+		}
+		
+		/**
+		 * Create an IFD for each plane of a resolution level.
+		 */
+		private static Map<Integer, IFD> createIFDs(int nPlanes, boolean isTiled, int tileWidth, int tileHeight, int nSamples, boolean isRGB) {
+			Map<Integer, IFD> map = new HashMap<>();
+			for (int i = 0; i < nPlanes; i++) {
+				IFD ifd = new IFD();
+				if (isTiled) {
+					ifd.put(IFD.TILE_WIDTH, tileWidth);
+					ifd.put(IFD.TILE_LENGTH, tileHeight);
+				}
+				if (nSamples > 1 && !isRGB)
+					ifd.put(IFD.EXTRA_SAMPLES, new short[nSamples-1]);
+				map.put(Integer.valueOf(i), ifd);
+			}
+			return map;
+		}
+		
+		/**
+		 * Write all resolution levels from a single pass over the full-resolution image, using a
+		 * {@link StreamingPyramidGenerator}.
+		 * <p>
+		 * The writer requires planes and resolution levels to be written in order, but the generator produces tiles for
+		 * all levels together.
+		 * Therefore full-resolution tiles for the first channel of each plane are written immediately, while all other
+		 * tiles are encoded and stored in a {@link TileSpool} until they can be written.
+		 */
+		private void writeAllLevels(IFormatWriter writer, int series, ImageServer<BufferedImage> server,
+				int tileWidth, int tileHeight, int nChannels, int nSamples, boolean isRGB) throws IOException {
+			
+			boolean isTiff = writer instanceof TiffWriter;
+			int effectiveSizeC = nChannels / nSamples;
+			int sizeZ = zEnd - zStart;
+			int nPlanes = effectiveSizeC * sizeZ * (tEnd - tStart);
+			logger.info("Writing {} resolutions in a single pass (downsamples={})", downsamples.length, Arrays.toString(downsamples));
+			
+			try (var spool = new TileSpool()) {
+				writer.setResolution(0);
+				Map<Integer, IFD> fullResolutionIFDs = isTiff ? createIFDs(nPlanes, true, tileWidth, tileHeight, nSamples, isRGB) : Collections.emptyMap();
+				int ti = 0;
+				for (int t = tStart; t < tEnd; t++) {
+					int zi = 0;
+					for (int z = zStart; z < zEnd; z++) {
+						long planeStartTime = System.currentTimeMillis();
+						int firstPlane = ti * sizeZ * effectiveSizeC + zi * effectiveSizeC;
+						logger.info("Writing plane {}/{}", firstPlane+1, nPlanes);
+						var generator = new StreamingPyramidGenerator.Builder(server)
+								.region(ImageRegion.createInstance(x, y, width, height, z, t))
+								.zSlices(z, z+1)
+								.timePoints(t, t+1)
+								.downsamples(downsamples)
+								.tileSize(tileWidth, tileHeight)
+								.parallelize(Math.max(1, parallelThreads))
+								.build();
+						generator.generate((tile, img) -> {
+							for (int ci = 0; ci < effectiveSizeC; ci++) {
+								int plane = firstPlane + ci;
+								int[] localChannels = effectiveSizeC == channels.length ? new int[] {channels[ci]} : channels;
+								byte[] bytes = getTileBytes(img, tile, isRGB, localChannels);
+								if (tile.getLevel() == 0 && ci == 0)
+									saveBytes(writer, plane, fullResolutionIFDs.get(plane), tile, img, bytes);
+								else
+									spool.put(tile.getLevel(), plane, tile, bytes);
+							}
+						});
+						// Write the remaining channels for the full-resolution level
+						for (int ci = 1; ci < effectiveSizeC; ci++) {
+							int plane = firstPlane + ci;
+							writeSpooledTiles(writer, spool, 0, plane, fullResolutionIFDs.get(plane));
+						}
+						logger.info("Plane written in {} ms", System.currentTimeMillis() - planeStartTime);
+						zi++;
+					}
+					ti++;
+				}
+				
+				for (int level = 1; level < downsamples.length; level++) {
+					logger.info("Writing resolution {} of {} (downsample={})", level+1, downsamples.length, downsamples[level]);
+					writer.setResolution(level);
+					var ifds = isTiff ? createIFDs(nPlanes, true, tileWidth, tileHeight, nSamples, isRGB) : Collections.<Integer, IFD>emptyMap();
+					for (int plane = 0; plane < nPlanes; plane++)
+						writeSpooledTiles(writer, spool, level, plane, ifds.get(plane));
+				}
+			} catch (InterruptedException e) {
+				logger.warn("OME-TIFF export interrupted!");
+				throw new IOException("Interrupted writing regions!", e);
+			}
+		}
+		
+		/**
+		 * Write the tiles that were stored for a plane, starting with the first tile.
+		 */
+		private void writeSpooledTiles(IFormatWriter writer, TileSpool spool, int level, int plane, IFD ifd) throws IOException {
+			var tiles = spool.getTiles(level, plane);
+			if (tiles.isEmpty())
+				return;
+			try {
+				// We *must* write the first region first
+				writeSpooledTile(writer, spool, level, plane, ifd, tiles.getFirst());
+				var remaining = tiles.subList(1, tiles.size());
+				if (parallelThreads > 1 && !remaining.isEmpty()) {
+					var pool = Executors.newWorkStealingPool(parallelThreads);
+					for (var tile : remaining) {
+						pool.submit(() -> {
+							try {
+								writeSpooledTile(writer, spool, level, plane, ifd, tile);
+							} catch (Exception e) {
+								logger.error("Error writing {}", tile, e);
+							}
+						});
+					}
+					pool.shutdown();
+					try {
+						pool.awaitTermination(remaining.size(), TimeUnit.MINUTES);
+					} catch (InterruptedException e) {
+						pool.shutdownNow();
+						throw new IOException("Error writing regions", e);
+					}
+				} else {
+					for (var tile : remaining) {
+						if (Thread.currentThread().isInterrupted())
+							throw new IOException("Interrupted writing regions!");
+						writeSpooledTile(writer, spool, level, plane, ifd, tile);
+					}
+				}
+			} catch (FormatException e) {
+				throw new IOException(e);
+			} finally {
+				spool.remove(level, plane);
+			}
+		}
+		
+		private static void writeSpooledTile(IFormatWriter writer, TileSpool spool, int level, int plane, IFD ifd, TileRequest tile) throws FormatException, IOException {
+			byte[] bytes = spool.get(level, plane, tile);
+			saveBytes(writer, plane, ifd, tile, null, bytes);
 		}
 		
 		/**
@@ -1269,6 +1435,33 @@ public class OMEPyramidWriter {
 			return this;
 		}
 		
+		/**
+		 * Request that all resolution levels are generated in a single pass over the full-resolution image.
+		 * @return this builder
+		 * @see #streamingPyramid(boolean)
+		 */
+		public Builder streamingPyramid() {
+			return streamingPyramid(true);
+		}
+		
+		/**
+		 * Specify whether all resolution levels should be generated in a single pass over the full-resolution image.
+		 * <p>
+		 * If true, each full-resolution tile is read only once and lower resolution tiles are computed from these, 
+		 * rather than being requested from the image separately. Lower resolution tiles are stored in a temporary file 
+		 * until they can be written.
+		 * This can be much faster when reading full-resolution pixels is expensive (e.g. for non-pyramidal or 
+		 * transformed images), but it requires a tiled image where each downsample is an integer multiple of the 
+		 * previous one. Otherwise, resolution levels are written in turn.
+		 * 
+		 * @param doStreaming
+		 * @return this builder
+		 */
+		public Builder streamingPyramid(boolean doStreaming) {
+			series.streamingPyramid = doStreaming;
+			return this;
+		}
+		
 		/**
 		 * Specify the output {@link PixelType}.
 		 * @param exportPixelType
@@ -1556,7 +1749,8 @@ public class OMEPyramidWriter {
 			
 			// Pyramidalize if we need to - this should help improve export efficiency and eliminate some potential 
 			// memory errors for large, non-pyramidal images
-			if (series.downsamples.length > 1) {
+			// (not needed if we generate the pyramid ourselves, since then only full-resolution tiles are requested)
+			if (series.downsamples.length > 1 && !series.useStreamingPyramid()) {
 				if (series.serverOriginal.nResolutions() == 1 || 
 						series.serverOriginal.getDownsampleForResolution(0) < series.downsamples[0]) {
 					logger.info("Creating pyramidal server");
@@ -0,0 +1,198 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.writers.ome;
+
+import qupath.lib.images.servers.TileRequest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Temporary file to store encoded tiles that have been generated before they can be written.
+ * <p>
+ * This is needed when all pyramid levels are generated in a single pass, since TIFF writers require each
+ * resolution level and plane to be written in turn.
+ * Tiles are compressed quickly before being stored, and the file is deleted when the spool is closed.
+ */
+class TileSpool implements AutoCloseable {
+
+	private final Path path;
+	private final FileChannel channel;
+	private long position = 0L;
+
+	private final Map<PlaneKey, Map<TileRequest, Entry>> planes = new ConcurrentHashMap<>();
+
+	private record PlaneKey(int level, int plane) {}
+
+	private record Entry(long position, int compressedLength, int length) {}
+
+	/**
+	 * Create a new spool, backed by a temporary file.
+	 * @throws IOException if the temporary file cannot be created
+	 */
+	TileSpool() throws IOException {
+		this.path = Files.createTempFile("qupath-tiles-", ".tmp");
+		this.path.toFile().deleteOnExit();
+		try {
+			this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		} catch (IOException e) {
+			Files.deleteIfExists(path);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Get the path to the temporary file.
+	 * @return the path, which no longer exists after the spool has been closed
+	 */
+	Path getPath() {
+		return path;
+	}
+
+	/**
+	 * Store the bytes for a tile.
+	 * @param level the resolution level
+	 * @param plane the plane index, as used by the image writer
+	 * @param tile the tile
+	 * @param bytes the bytes that should later be written for the tile
+	 * @throws IOException if the bytes could not be stored
+	 */
+	void put(int level, int plane, TileRequest tile, byte[] bytes) throws IOException {
+		var deflater = new Deflater(Deflater.BEST_SPEED);
+		byte[] compressed;
+		try {
+			deflater.setInput(bytes);
+			deflater.finish();
+			// Incompressible data can grow slightly
+			compressed = new byte[bytes.length + bytes.length / 100 + 64];
+			int n = 0;
+			while (!deflater.finished()) {
+				if (n == compressed.length)
+					compressed = Arrays.copyOf(compressed, compressed.length * 2);
+				n += deflater.deflate(compressed, n, compressed.length - n);
+			}
+			compressed = Arrays.copyOf(compressed, n);
+		} finally {
+			deflater.end();
+		}
+		long pos;
+		synchronized (this) {
+			pos = position;
+			position += compressed.length;
+		}
+		var buffer = ByteBuffer.wrap(compressed);
+		long writePos = pos;
+		while (buffer.hasRemaining())
+			writePos += channel.write(buffer, writePos);
+		planes.computeIfAbsent(new PlaneKey(level, plane), k -> new ConcurrentHashMap<>())
+				.put(tile, new Entry(pos, compressed.length, bytes.length));
+	}
+
+	/**
+	 * Get the tiles that have been stored for a plane, ordered by y and then x coordinate.
+	 * @param level the resolution level
+	 * @param plane the plane index
+	 * @return the tiles, or an empty list if no tiles have been stored
+	 */
+	List<TileRequest> getTiles(int level, int plane) {
+		var map = planes.get(new PlaneKey(level, plane));
+		if (map == null)
+			return List.of();
+		var tiles = new ArrayList<>(map.keySet());
+		tiles.sort(Comparator.comparingInt(TileRequest::getTileY).thenComparingInt(TileRequest::getTileX));
+		return tiles;
+	}
+
+	/**
+	 * Get the bytes that were stored for a tile.
+	 * @param level the resolution level
+	 * @param plane the plane index
+	 * @param tile the tile
+	 * @return the bytes passed to {@link #put(int, int, TileRequest, byte[])}, or null if the tile was not stored
+	 * @throws IOException if the bytes could not be read
+	 */
+	byte[] get(int level, int plane, TileRequest tile) throws IOException {
+		var map = planes.get(new PlaneKey(level, plane));
+		var entry = map == null ? null : map.get(tile);
+		if (entry == null)
+			return null;
+		var buffer = ByteBuffer.allocate(entry.compressedLength());
+		long readPos = entry.position();
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, readPos);
+			if (n < 0)
+				throw new IOException("Unexpected end of tile spool " + path);
+			readPos += n;
+		}
+		var inflater = new Inflater();
+		try {
+			inflater.setInput(buffer.array());
+			byte[] bytes = new byte[entry.length()];
+			int n = 0;
+			while (n < bytes.length && !inflater.finished())
+				n += inflater.inflate(bytes, n, bytes.length - n);
+			if (n != bytes.length)
+				throw new IOException("Expected " + bytes.length + " bytes for " + tile + ", but read " + n);
+			return bytes;
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Remove all the tiles for a plane, once they have been written.
+	 * The space used in the file is not reclaimed until the spool is closed.
+	 * @param level the resolution level
+	 * @param plane the plane index
+	 */
+	void remove(int level, int plane) {
+		planes.remove(new PlaneKey(level, plane));
+	}
+
+	/**
+	 * Close the spool and delete the temporary file.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			channel.close();
+		} finally {
+			Files.deleteIfExists(path);
+		}
+	}
+
+}
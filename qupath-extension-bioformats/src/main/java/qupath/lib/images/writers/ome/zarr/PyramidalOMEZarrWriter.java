@@ -12,6 +12,7 @@ import qupath.lib.images.servers.ImageServerMetadata;
 import qupath.lib.images.servers.TileRequest;
 import qupath.lib.images.servers.TransformedServerBuilder;
 import qupath.lib.images.servers.bioformats.BioFormatsImageServer;
+import qupath.lib.images.writers.StreamingPyramidGenerator;
 import qupath.lib.regions.ImageRegion;
 
 import java.awt.image.BufferedImage;
@@ -36,10 +37,17 @@ import java.util.function.DoubleConsumer;
  * <a href="https://ngff.openmicroscopy.org/0.4/index.html">Next-generation file formats (NGFF)</a>.
  * The transitional "bioformats2raw.layout" and "omero" metadata are also considered.
  * <p>
- * Contrary to {@link OMEZarrWriter}, this class will first write the full resolution level. Then, the second level is
+ * Contrary to {@link OMEZarrWriter}, this class never requests lower resolution pixels from the input image.
+ * When each downsample is an integer multiple of the previous one, all levels are written in a single pass over the
+ * full resolution pixels using a {@link StreamingPyramidGenerator}: each lower resolution tile is written as soon as
+ * the full resolution tiles it contains have been read.
+ * <p>
+ * Otherwise, this class will first write the full resolution level. Then, the second level is
  * written by looking at the first level pixels that were just written (so the input image is not considered anymore).
  * Then, the third level is written by looking at the second level pixels that were just written, and so on until all
- * levels are written. This provides less flexibility than {@link OMEZarrWriter} but is less likely to throw out of
+ * levels are written.
+ * <p>
+ * Both approaches provide less flexibility than {@link OMEZarrWriter} but are less likely to throw out of
  * memory errors.
  * <p>
  * Use a {@link Builder} to create an instance of this class.
@@ -117,12 +125,63 @@ public class PyramidalOMEZarrWriter {
     }
 
     /**
-     * Write the image level by level as described in {@link PyramidalOMEZarrWriter}. This function will block
+     * Write the image as described in {@link PyramidalOMEZarrWriter}. This function will block
      * until all levels are written.
      *
      * @throws Exception if a reading or writing error occurs or if this function is interrupted
      */
     public void writeImage() throws Exception {
+        double[] downsamples = downsamplesOutputImage.stream()
+                .mapToDouble(downsample -> downsample * firstDownsampleOnInputImage)
+                .toArray();
+        long startTime = System.nanoTime();
+
+        if (StreamingPyramidGenerator.supportsDownsamples(downsamples)) {
+            writeAllLevels(downsamples);
+        } else {
+            logger.debug("Downsamples {} are not integer multiples of each other, so levels will be written one by one", downsamplesOutputImage);
+            writeLevelByLevel();
+        }
+
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        long numberOfBytes = getNumberOfBytes();
+        logger.info(
+                "{} written in {} s ({} MB/s uncompressed)",
+                path,
+                String.format("%.1f", seconds),
+                String.format("%.1f", numberOfBytes / 1024.0 / 1024.0 / Math.max(seconds, 1e-3))
+        );
+    }
+
+    private void writeAllLevels(double[] downsamples) throws Exception {
+        StreamingPyramidGenerator generator = new StreamingPyramidGenerator.Builder(server)
+                .downsamples(downsamples)
+                .tileSize(tileWidth, tileHeight)
+                .parallelize(numberOfThreads)
+                .onProgress(onProgress)
+                .build();
+
+        generator.generate((tileRequest, image) -> {
+            // Tiles that couldn't be read are left empty
+            if (image != null) {
+                levels.get(tileRequest.getLevel()).write(
+                        ZarrWriterUtils.convertBufferedImageToArray(image),
+                        ZarrWriterUtils.getDimensionsOfTile(server.getMetadata(), tileRequest),
+                        ZarrWriterUtils.getOffsetsOfTile(server.getMetadata(), tileRequest)
+                );
+            }
+        });
+
+        // Same attributes as when writing level by level
+        root.writeAttributes(
+                new OMEZarrAttributesCreator(new ImageServerMetadata.Builder(server.getMetadata())
+                        .levelsFromDownsamples(downsamplesOutputImage.stream().mapToDouble(d -> d).toArray())
+                        .build()
+                ).getGroupAttributes()
+        );
+    }
+
+    private void writeLevelByLevel() throws Exception {
         ExecutorService executorService = Executors.newFixedThreadPool(
                 numberOfThreads,
                 ThreadTools.createThreadFactory("pyramidal_zarr_writer_", false)
@@ -176,6 +235,18 @@ public class PyramidalOMEZarrWriter {
         }
     }
 
+    private long getNumberOfBytes() {
+        long numberOfBytes = 0;
+        for (ZarrArray level: levels.values()) {
+            long numberOfPixels = 1;
+            for (int dimension: level.getShape()) {
+                numberOfPixels *= dimension;
+            }
+            numberOfBytes += numberOfPixels;
+        }
+        return numberOfBytes * server.getMetadata().getPixelType().getBytesPerPixel();
+    }
+
     /**
      * Builder to create an instance of a {@link PyramidalOMEZarrWriter}.
      */
@@ -0,0 +1,176 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.servers.bioformats;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import qupath.lib.images.servers.bioformats.BioFormatsImageServer.BioFormatsArgs;
+import qupath.lib.images.servers.bioformats.BioFormatsImageServer.ReaderPool;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test that the Bio-Formats reader pool grows when readers are in demand, closes readers that are idle,
+ * and releases its share of the global reader limit.
+ */
+public class TestReaderPool {
+
+	@BeforeAll
+	public static void setMaxReaders() {
+		BioFormatsServerOptions.getInstance().setMaxReaders(4);
+	}
+
+	@AfterAll
+	public static void resetMaxReaders() {
+		// Restore the default
+		BioFormatsServerOptions.getInstance().setMaxReaders(0);
+	}
+
+	@Test
+	public void test_growOnDemand() throws Exception {
+		try (var pool = createPool()) {
+			int nGlobal = pool.getStatistics().nGlobalReaders();
+			var first = pool.nextQueuedReader();
+			assertSame(pool.getMainReader(), first);
+			assertEquals(1, pool.getStatistics().nReaders());
+
+			// The main reader is busy, so another should be created after a short wait
+			var second = pool.nextQueuedReader();
+			assertNotNull(second);
+			assertNotSame(first, second);
+			var stats = pool.getStatistics();
+			assertEquals(2, stats.nReaders());
+			assertEquals(2, stats.nBusyReaders());
+			assertEquals(1, stats.nWaits());
+			assertEquals(0, stats.nTimeouts());
+			assertEquals(0, stats.nClosedRequests());
+			assertEquals(nGlobal + 1, stats.nGlobalReaders());
+
+			// Returned readers should be reused, rather than creating new ones
+			pool.returnReader(first);
+			pool.returnReader(second);
+			for (int i = 0; i < 10; i++) {
+				var reader = pool.nextQueuedReader();
+				assertSame(second, reader);
+				pool.returnReader(reader);
+			}
+			assertEquals(2, pool.getStatistics().nReaders());
+			assertEquals(nGlobal + 1, pool.getStatistics().nGlobalReaders());
+		}
+	}
+
+	@Test
+	public void test_closeIdleReaders() throws Exception {
+		try (var pool = createPool()) {
+			assertTrue(pool.getIdleNanos() > 0);
+			int nGlobal = pool.getStatistics().nGlobalReaders();
+			var main = pool.nextQueuedReader();
+			var additional = pool.nextQueuedReader();
+			pool.returnReader(main);
+			pool.returnReader(additional);
+			assertEquals(nGlobal + 1, pool.getStatistics().nGlobalReaders());
+
+			// Recently-returned readers should be kept
+			pool.closeIdleReaders(System.nanoTime());
+			assertEquals(2, pool.getStatistics().nReaders());
+
+			// Readers that are in use should be kept, even if they were last returned long ago
+			var busy = pool.nextQueuedReader();
+			assertSame(additional, busy);
+			pool.closeIdleReaders(System.nanoTime() + pool.getIdleNanos() * 2);
+			assertEquals(2, pool.getStatistics().nReaders());
+			pool.returnReader(busy);
+
+			// Idle additional readers should be closed, and their permits released
+			pool.closeIdleReaders(System.nanoTime() + pool.getIdleNanos());
+			var stats = pool.getStatistics();
+			assertEquals(1, stats.nReaders());
+			assertEquals(0, stats.nBusyReaders());
+			assertEquals(nGlobal, stats.nGlobalReaders());
+
+			// The main reader should always be kept
+			assertSame(main, pool.nextQueuedReader());
+			pool.returnReader(main);
+		}
+	}
+
+	@Test
+	public void test_closeReleasesPermits() throws Exception {
+		var pool = createPool();
+		int nGlobal = pool.getStatistics().nGlobalReaders();
+		var main = pool.nextQueuedReader();
+		var additional = pool.nextQueuedReader();
+		assertNotSame(main, additional);
+		pool.returnReader(additional);
+		pool.returnReader(main);
+		assertEquals(nGlobal + 1, pool.getStatistics().nGlobalReaders());
+		pool.close();
+		assertEquals(nGlobal, pool.getStatistics().nGlobalReaders());
+	}
+
+	@Test
+	public void test_timeoutIsNotCountedAsWait() throws Exception {
+		// Don't permit any additional readers, so the request has to time out
+		BioFormatsServerOptions.getInstance().setMaxReaders(1);
+		System.setProperty("bioformats.readerpool.timeout", "1");
+		try (var pool = createPool()) {
+			var main = pool.nextQueuedReader();
+			assertSame(main, pool.nextQueuedReader());
+			var stats = pool.getStatistics();
+			assertEquals(2, stats.nRequests());
+			assertEquals(1, stats.nTimeouts());
+			assertEquals(0, stats.nWaits());
+			assertEquals(0, stats.maxWaitMillis());
+			assertEquals(1, stats.nReaders());
+		} finally {
+			System.clearProperty("bioformats.readerpool.timeout");
+			BioFormatsServerOptions.getInstance().setMaxReaders(4);
+		}
+	}
+
+	@Test
+	public void test_closedPoolIsNotCountedAsWait() throws Exception {
+		var pool = createPool();
+		pool.nextQueuedReader();
+		pool.close();
+		assertNull(pool.nextQueuedReader());
+		var stats = pool.getStatistics();
+		assertEquals(1, stats.nClosedRequests());
+		assertEquals(0, stats.nTimeouts());
+		assertEquals(0, stats.nWaits());
+	}
+
+	private static ReaderPool createPool() throws Exception {
+		var path = Paths.get(TestReaderPool.class.getResource("/images/cells/cells.ome.tif").toURI()).toString();
+		return new ReaderPool(BioFormatsServerOptions.getInstance(), path, new BioFormatsArgs(), new ArrayList<>());
+	}
+
+}
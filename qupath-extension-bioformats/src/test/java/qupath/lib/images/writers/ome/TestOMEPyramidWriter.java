@@ -0,0 +1,146 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.writers.ome;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import qupath.lib.color.ColorModelFactory;
+import qupath.lib.images.servers.ImageChannel;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.ImageServerProvider;
+import qupath.lib.images.servers.PixelType;
+import qupath.lib.images.servers.TileRequest;
+import qupath.lib.images.servers.WrappedBufferedImageServer;
+import qupath.lib.images.writers.StreamingPyramidGenerator;
+import qupath.lib.regions.RegionRequest;
+
+import java.awt.image.BandedSampleModel;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class TestOMEPyramidWriter {
+
+	@TempDir
+	File tempDir;
+
+	/**
+	 * Write a multichannel pyramid in a single pass (so that all but the first channel of the full-resolution
+	 * level go through the tile spool), then check every level can be read back unchanged.
+	 */
+	@ParameterizedTest
+	@ValueSource(ints = {1, 4})
+	public void testStreamingPyramidRoundTrip(int nThreads) throws Exception {
+		int nChannels = 3;
+		var img = createImage(256, 192, nChannels);
+		var channels = ImageChannel.getDefaultChannelList(nChannels);
+		var server = new WrappedBufferedImageServer("Test", img, channels);
+		double[] downsamples = {1, 2, 4};
+
+		var series = new OMEPyramidWriter.Builder(server)
+				.tileSize(64)
+				.downsamples(downsamples)
+				.channelsPlanar()
+				.losslessCompression()
+				.parallelize(nThreads)
+				.streamingPyramid()
+				.build();
+		assertTrue(series.useStreamingPyramid());
+		var file = new File(tempDir, "streaming-" + nThreads + ".ome.tif");
+		series.writeSeries(file.getAbsolutePath());
+
+		// The generator is tested separately, so use it to get the expected lower resolution pixels
+		var expected = new ConcurrentHashMap<TileRequest, BufferedImage>();
+		new StreamingPyramidGenerator.Builder(server)
+				.downsamples(downsamples)
+				.tileSize(64, 64)
+				.build()
+				.generate(expected::put);
+
+		try (ImageServer<BufferedImage> serverRead = ImageServerProvider.buildServer(file.getAbsolutePath(), BufferedImage.class)) {
+			assertEquals(downsamples.length, serverRead.nResolutions());
+			assertEquals(nChannels, serverRead.nChannels());
+			for (int level = 0; level < downsamples.length; level++) {
+				var levelMetadata = serverRead.getMetadata().getLevel(level);
+				int width = 256 / (int)downsamples[level];
+				int height = 192 / (int)downsamples[level];
+				assertEquals(width, levelMetadata.getWidth());
+				assertEquals(height, levelMetadata.getHeight());
+
+				var imgExpected = level == 0 ? img : assemble(expected, level, width, height);
+				var request = RegionRequest.createInstance(serverRead.getPath(), serverRead.getDownsampleForResolution(level),
+						0, 0, serverRead.getWidth(), serverRead.getHeight());
+				var imgRead = serverRead.readRegion(request);
+				assertEquals(width, imgRead.getWidth());
+				assertEquals(height, imgRead.getHeight());
+				for (int c = 0; c < nChannels; c++) {
+					assertArrayEquals(
+							imgExpected.getRaster().getSamples(0, 0, width, height, c, (int[])null),
+							imgRead.getRaster().getSamples(0, 0, width, height, c, (int[])null),
+							"Mismatch at level " + level + ", channel " + c);
+				}
+			}
+		}
+	}
+
+	private static BufferedImage assemble(Map<TileRequest, BufferedImage> tiles, int level, int width, int height) {
+		WritableRaster raster = null;
+		BufferedImage template = null;
+		for (var entry : tiles.entrySet()) {
+			var tile = entry.getKey();
+			if (tile.getLevel() != level)
+				continue;
+			var img = entry.getValue();
+			if (raster == null) {
+				template = img;
+				raster = img.getRaster().createCompatibleWritableRaster(width, height);
+			}
+			raster.setRect(tile.getTileX(), tile.getTileY(), img.getRaster());
+		}
+		return new BufferedImage(template.getColorModel(), raster, false, null);
+	}
+
+	private static BufferedImage createImage(int width, int height, int nChannels) {
+		var raster = Raster.createWritableRaster(new BandedSampleModel(DataBuffer.TYPE_USHORT, width, height, nChannels), null);
+		var rand = new Random(width * height);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				for (int c = 0; c < nChannels; c++)
+					raster.setSample(x, y, c, rand.nextInt(4000));
+			}
+		}
+		var cm = ColorModelFactory.createColorModel(PixelType.UINT16, ImageChannel.getDefaultChannelList(nChannels));
+		return new BufferedImage(cm, raster, false, null);
+	}
+
+}
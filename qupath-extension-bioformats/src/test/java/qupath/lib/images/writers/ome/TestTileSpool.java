@@ -0,0 +1,146 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.writers.ome;
+
+import org.junit.jupiter.api.Test;
+import qupath.lib.images.servers.TileRequest;
+import qupath.lib.regions.ImageRegion;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class TestTileSpool {
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		var rand = new Random(42);
+		try (var spool = new TileSpool()) {
+			List<TileRequest> tiles = new ArrayList<>();
+			List<byte[]> expected = new ArrayList<>();
+			// Store tiles for two planes in reverse order, using both compressible and random bytes
+			for (int plane = 0; plane < 2; plane++) {
+				for (int ty = 1; ty >= 0; ty--) {
+					for (int tx = 2; tx >= 0; tx--) {
+						var tile = createTile(1, tx * 32, ty * 32, 32, 32);
+						byte[] bytes = new byte[32 * 32 * 2];
+						if ((tx + ty) % 2 == 0)
+							rand.nextBytes(bytes);
+						else
+							bytes[tx] = (byte)plane;
+						spool.put(1, plane, tile, bytes);
+						tiles.add(tile);
+						expected.add(bytes);
+					}
+				}
+			}
+			for (int i = 0; i < tiles.size(); i++) {
+				int plane = i / 6;
+				assertArrayEquals(expected.get(i), spool.get(1, plane, tiles.get(i)));
+			}
+
+			var ordered = spool.getTiles(1, 0);
+			assertEquals(6, ordered.size());
+			for (int i = 0; i < ordered.size(); i++) {
+				assertEquals((i % 3) * 32, ordered.get(i).getTileX());
+				assertEquals((i / 3) * 32, ordered.get(i).getTileY());
+			}
+
+			assertTrue(spool.getTiles(0, 0).isEmpty());
+			assertNull(spool.get(2, 0, tiles.getFirst()));
+
+			spool.remove(1, 0);
+			assertTrue(spool.getTiles(1, 0).isEmpty());
+			assertEquals(6, spool.getTiles(1, 1).size());
+		}
+	}
+
+	@Test
+	public void testConcurrentPut() throws Exception {
+		var pool = Executors.newFixedThreadPool(4);
+		try (var spool = new TileSpool()) {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < 64; i++) {
+				int ind = i;
+				futures.add(pool.submit(() -> {
+					byte[] bytes = new byte[1000 + ind];
+					new Random(ind).nextBytes(bytes);
+					spool.put(0, 0, createTile(0, ind * 16, 0, 16, 16), bytes);
+					return null;
+				}));
+			}
+			for (var future : futures)
+				future.get();
+			for (int i = 0; i < 64; i++) {
+				byte[] bytes = new byte[1000 + i];
+				new Random(i).nextBytes(bytes);
+				assertArrayEquals(bytes, spool.get(0, 0, createTile(0, i * 16, 0, 16, 16)));
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testDeletedOnClose() throws Exception {
+		Path path;
+		try (var spool = new TileSpool()) {
+			path = spool.getPath();
+			spool.put(0, 0, createTile(0, 0, 0, 16, 16), new byte[256]);
+			assertTrue(Files.exists(path));
+		}
+		assertFalse(Files.exists(path));
+	}
+
+	@Test
+	public void testDeletedOnException() throws Exception {
+		Path[] path = new Path[1];
+		assertThrows(IOException.class, () -> {
+			try (var spool = new TileSpool()) {
+				path[0] = spool.getPath();
+				spool.put(0, 0, createTile(0, 0, 0, 16, 16), new byte[256]);
+				throw new IOException("Writing failed");
+			}
+		});
+		assertFalse(Files.exists(path[0]));
+	}
+
+	private static TileRequest createTile(int level, int x, int y, int width, int height) {
+		double downsample = Math.pow(2, level);
+		var region = ImageRegion.createInstance(x, y, width, height, 0, 0);
+		return TileRequest.createInstance("spool", level, downsample, region);
+	}
+
+}
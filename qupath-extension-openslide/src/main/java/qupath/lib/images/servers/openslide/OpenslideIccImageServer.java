@@ -33,6 +33,7 @@ import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.net.URI;
 import java.util.List;
+import java.util.Map;
 
 /**
  * ImageServer implementation using OpenSlide, while also applying source and destination ICC profiles to transform
@@ -138,6 +139,17 @@ public class OpenslideIccImageServer extends OpenslideImageServer {
         return img;
     }
 
+    @Override
+    protected Map<TileRequest, BufferedImage> readTiles(List<TileRequest> tileRequests) throws IOException {
+        var map = super.readTiles(tileRequests);
+        if (map != null) {
+            var op = getOp();
+            for (var img : map.values())
+                applyInPlace(op, img.getRaster());
+        }
+        return map;
+    }
+
     private static void applyInPlace(ColorConvertOp op, WritableRaster raster) {
         op.filter(raster, raster);
     }
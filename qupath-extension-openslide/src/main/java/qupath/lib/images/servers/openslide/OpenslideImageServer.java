@@ -4,7 +4,7 @@
  * %%
  * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
  * Contact: IP Management (ipmanagement@qub.ac.uk)
- * Copyright (C) 2018 - 2024 QuPath developers, The University of Edinburgh
+ * Copyright (C) 2018 - 2025 QuPath developers, The University of Edinburgh
  * %%
  * QuPath is free software: you can redistribute it and/or modify
  * it under the terms of the GNU General Public License as
@@ -40,17 +40,22 @@ import qupath.lib.images.servers.openslide.jna.OpenSlide;
 import qupath.lib.images.servers.openslide.jna.OpenSlideLoader;
 
 import java.awt.Color;
-import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
 import java.io.IOException;
 import java.lang.ref.Cleaner;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -85,6 +90,18 @@ public class OpenslideImageServer extends AbstractTileableImageServer {
 	}
 
 	private static final Cleaner cleaner = Cleaner.create();
+
+	/**
+	 * Maximum number of pixels to read with a single call to OpenSlide when reading adjacent tiles together.
+	 * This is also the largest buffer that will be retained for reuse by each thread.
+	 */
+	private static final int MAX_BUFFER_PIXELS = 1024 * 1024;
+
+	/**
+	 * Direct buffers for OpenSlide to write pixels into, reused by each thread to avoid repeated allocation.
+	 */
+	private static final ThreadLocal<IntBuffer> BUFFERS = new ThreadLocal<>();
+
 	private final OpenSlideState state;
 	private final Cleaner.Cleanable cleanable;
 
@@ -275,6 +292,11 @@ public class OpenslideImageServer extends AbstractTileableImageServer {
 	public Collection<URI> getURIs() {
 		return Collections.singletonList(uri);
 	}
+	
+	@Override
+	protected String getPersistentTileCacheKey() {
+		return createDefaultPersistentTileCacheKey();
+	}
 
     URI getURI() {
         return uri;
@@ -306,35 +328,151 @@ public class OpenslideImageServer extends AbstractTileableImageServer {
 
 	@Override
 	public BufferedImage readTile(TileRequest tileRequest) throws IOException {
-		
-		int tileX = tileRequest.getImageX()  + boundsX;
-		int tileY = tileRequest.getImageY()  + boundsY;
 		int tileWidth = tileRequest.getTileWidth();
 		int tileHeight = tileRequest.getTileHeight();
+		IntBuffer buffer = getBuffer(tileWidth * tileHeight);
+		osr.paintRegionARGB(buffer,
+				tileRequest.getImageX() + boundsX, tileRequest.getImageY() + boundsY,
+				tileRequest.getLevel(), tileWidth, tileHeight);
+		return createRGBImage(buffer, 0, tileWidth, tileWidth, tileHeight);
+	}
 
-//		double downsampleFactor = getPreferredDownsamplesArray()[downsampleInd];
-		BufferedImage img = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_ARGB_PRE);
-        int[] data = ((DataBufferInt)img.getRaster().getDataBuffer()).getData();
-        
-		// Create a thumbnail for the region
-//        	osr.paintRegionOfLevel(g, dx, dy, sx, sy, w, h, level);
-		osr.paintRegionARGB(data, tileX, tileY, tileRequest.getLevel(), tileWidth, tileHeight);
-		
-		// Previously tried to take shortcut and only repaint if needed - 
-		// but transparent pixels happened too often, and it's really needed to repaint every time
-//			if (backgroundColor == null && GeneralTools.almostTheSame(downsample, downsampleFactor, 0.001))
-//				return img;
-		
-		BufferedImage img2 = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_RGB);
-		Graphics2D g2d = img2.createGraphics();
-		if (backgroundColor != null) {
-			g2d.setColor(backgroundColor);
-			g2d.fillRect(0, 0, tileWidth, tileHeight);
+	/**
+	 * Read horizontally adjacent tiles with a single call to OpenSlide.
+	 * This is only done where the tile coordinates can be mapped exactly to the full-resolution image, since
+	 * otherwise rounding could cause the pixels to differ from those read by {@link #readTile(TileRequest)}.
+	 */
+	@Override
+	protected Map<TileRequest, BufferedImage> readTiles(List<TileRequest> tileRequests) throws IOException {
+		Map<TileRequest, BufferedImage> map = new HashMap<>();
+		for (var row : groupAdjacentTiles(tileRequests)) {
+			if (row.size() < 2)
+				continue;
+			var first = row.getFirst();
+			int width = row.stream().mapToInt(TileRequest::getTileWidth).sum();
+			int height = first.getTileHeight();
+			IntBuffer buffer = getBuffer(width * height);
+			osr.paintRegionARGB(buffer,
+					first.getImageX() + boundsX, first.getImageY() + boundsY,
+					first.getLevel(), width, height);
+			for (var tile : row) {
+				int offset = tile.getTileX() - first.getTileX();
+				map.put(tile, createRGBImage(buffer, offset, width, tile.getTileWidth(), height));
+			}
 		}
-		g2d.drawImage(img, 0, 0, tileWidth, tileHeight, null);
-		g2d.dispose();
+		return map;
+	}
 
-		return img2;
+	/**
+	 * Group tiles into rows of horizontally adjacent tiles that can be read together, with no more than
+	 * {@link #MAX_BUFFER_PIXELS} pixels in each row.
+	 */
+	private static List<List<TileRequest>> groupAdjacentTiles(List<TileRequest> tileRequests) {
+		var tiles = new ArrayList<>(tileRequests);
+		tiles.sort(Comparator.comparingInt(TileRequest::getLevel)
+				.thenComparingInt(TileRequest::getTileY)
+				.thenComparingInt(TileRequest::getTileX));
+		List<List<TileRequest>> rows = new ArrayList<>();
+		List<TileRequest> row = new ArrayList<>();
+		int rowWidth = 0;
+		for (var tile : tiles) {
+			var previous = row.isEmpty() ? null : row.getLast();
+			boolean isAdjacent = previous != null &&
+					previous.getLevel() == tile.getLevel() &&
+					previous.getTileY() == tile.getTileY() &&
+					previous.getTileHeight() == tile.getTileHeight() &&
+					previous.getTileX() + previous.getTileWidth() == tile.getTileX() &&
+					(long)(rowWidth + tile.getTileWidth()) * tile.getTileHeight() <= MAX_BUFFER_PIXELS;
+			if (!isAdjacent) {
+				if (!row.isEmpty())
+					rows.add(row);
+				row = new ArrayList<>();
+				rowWidth = 0;
+			}
+			// Only group tiles if the downsample is an integer, so that coordinates map exactly
+			double downsample = tile.getDownsample();
+			if (downsample != Math.rint(downsample)) {
+				rows.add(List.of(tile));
+				continue;
+			}
+			row.add(tile);
+			rowWidth += tile.getTileWidth();
+		}
+		if (!row.isEmpty())
+			rows.add(row);
+		return rows;
+	}
+
+	/**
+	 * Get a direct buffer with space for at least the specified number of pixels.
+	 * Buffers up to {@link #MAX_BUFFER_PIXELS} are reused by the current thread; larger buffers are allocated
+	 * for a single use.
+	 */
+	private static IntBuffer getBuffer(int nPixels) {
+		if (nPixels > MAX_BUFFER_PIXELS)
+			return allocateBuffer(nPixels);
+		var buffer = BUFFERS.get();
+		if (buffer == null || buffer.capacity() < nPixels) {
+			// Allocate enough for a typical tile, to avoid growing the buffer repeatedly
+			buffer = allocateBuffer(Math.min(MAX_BUFFER_PIXELS, Math.max(nPixels, 512 * 512)));
+			BUFFERS.set(buffer);
+		}
+		return buffer;
+	}
+
+	private static IntBuffer allocateBuffer(int nPixels) {
+		return ByteBuffer.allocateDirect(nPixels * Integer.BYTES)
+				.order(ByteOrder.nativeOrder())
+				.asIntBuffer();
+	}
+
+	/**
+	 * Create an RGB image from premultiplied ARGB pixels.
+	 * Pixels are composited over the background color in the same pass as they are copied,
+	 * so that no intermediate image is needed.
+	 */
+	private BufferedImage createRGBImage(IntBuffer buffer, int offset, int stride, int width, int height) {
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[] rgb = ((DataBufferInt)img.getRaster().getDataBuffer()).getData();
+		int background = backgroundColor == null ? 0 : backgroundColor.getRGB() & 0xFFFFFF;
+		compositeARGBPre(buffer, offset, stride, rgb, width, height, background);
+		return img;
+	}
+
+	/**
+	 * Composite premultiplied ARGB pixels over a background color, writing packed RGB values.
+	 * @param src the source pixels
+	 * @param offset index of the first source pixel
+	 * @param stride number of pixels between the start of each row in the source
+	 * @param dest destination array for packed RGB values, with a stride equal to the width
+	 * @param width the number of pixels in each row
+	 * @param height the number of rows
+	 * @param background the packed RGB background color
+	 */
+	static void compositeARGBPre(IntBuffer src, int offset, int stride, int[] dest, int width, int height, int background) {
+		int bgR = (background >> 16) & 0xFF;
+		int bgG = (background >> 8) & 0xFF;
+		int bgB = background & 0xFF;
+		int ind = 0;
+		for (int y = 0; y < height; y++) {
+			int srcInd = offset + y * stride;
+			for (int x = 0; x < width; x++) {
+				int argb = src.get(srcInd++);
+				int alpha = argb >>> 24;
+				if (alpha == 255) {
+					dest[ind++] = argb & 0xFFFFFF;
+				} else if (alpha == 0) {
+					dest[ind++] = background;
+				} else {
+					// Source values are already premultiplied, so only the background needs to be scaled
+					int inv = 255 - alpha;
+					int r = ((argb >> 16) & 0xFF) + (bgR * inv + 127) / 255;
+					int g = ((argb >> 8) & 0xFF) + (bgG * inv + 127) / 255;
+					int b = (argb & 0xFF) + (bgB * inv + 127) / 255;
+					dest[ind++] = (Math.min(r, 255) << 16) | (Math.min(g, 255) << 8) | Math.min(b, 255);
+				}
+			}
+		}
 	}
 
 	@Override
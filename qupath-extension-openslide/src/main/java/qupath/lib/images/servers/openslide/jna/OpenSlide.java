@@ -2,7 +2,7 @@
  * #%L
  * This file is part of QuPath.
  * %%
- * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * Copyright (C) 2023, 2025 QuPath developers, The University of Edinburgh
  * %%
  * QuPath is free software: you can redistribute it and/or modify
  * it under the terms of the GNU General Public License as
@@ -51,6 +51,7 @@ import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
@@ -241,6 +242,43 @@ public final class OpenSlide implements Closeable {
         }
     }
 
+    /**
+     * Read premultiplied ARGB pixels into a direct buffer, without copying through a Java array.
+     * Pixels are written starting at index 0 of the buffer, regardless of its position.
+     * @param dest a direct buffer in native byte order, with a capacity of at least w * h
+     * @param x the x coordinate of the top left pixel, in the level 0 reference frame
+     * @param y the y coordinate of the top left pixel, in the level 0 reference frame
+     * @param level the level to read from
+     * @param w the width of the region, at the specified level
+     * @param h the height of the region, at the specified level
+     * @throws IOException if OpenSlide reports an error
+     */
+    // takes the reader lock
+    public void paintRegionARGB(IntBuffer dest, long x, long y, int level, int w,
+                                int h) throws IOException {
+        if (!dest.isDirect()) {
+            throw new IllegalArgumentException("Buffer must be direct");
+        }
+        if ((long) w * (long) h > dest.capacity()) {
+            throw new ArrayIndexOutOfBoundsException("Size of buffer ("
+                    + dest.capacity() + ") is less than w * h");
+        }
+
+        if (w < 0 || h < 0) {
+            throw new IllegalArgumentException("w and h must be nonnegative");
+        }
+
+        Lock rl = lock.readLock();
+        rl.lock();
+        try {
+            checkNotDisposed();
+            jna.openslide_read_region(osr, dest.clear(), x, y, level, w, h);
+            checkError();
+        } finally {
+            rl.unlock();
+        }
+    }
+
     /**
      * Get an unmodifiable map of all available properties.
      * @return
@@ -2,7 +2,7 @@
  * #%L
  * This file is part of QuPath.
  * %%
- * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * Copyright (C) 2023, 2025 QuPath developers, The University of Edinburgh
  * %%
  * QuPath is free software: you can redistribute it and/or modify
  * it under the terms of the GNU General Public License as
@@ -23,6 +23,8 @@ package qupath.lib.images.servers.openslide.jna;
 
 import com.sun.jna.Library;
 
+import java.nio.IntBuffer;
+
 /**
  * JNA interface for OpenSlide.
  */
@@ -39,6 +41,7 @@ public interface OpenSlideJNA extends Library {
     String openslide_get_property_value(long osr, String name);
     String[] openslide_get_associated_image_names(long osr);
     void openslide_read_region(long osr, int[] dest, long x, long y, int level, long w, long h);
+    void openslide_read_region(long osr, IntBuffer dest, long x, long y, int level, long w, long h);
     void openslide_get_associated_image_dimensions(long osr, String name, long[] w, long[] h);
     void openslide_read_associated_image(long osr, String name, int[] dest);
     String openslide_get_error(long osr);
@@ -0,0 +1,130 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.servers.openslide;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test that compositing premultiplied ARGB pixels directly gives the same result as drawing them
+ * onto an RGB image with {@link java.awt.Graphics2D}, as OpenSlide tiles were converted previously.
+ */
+@SuppressWarnings("javadoc")
+public class TestOpenslideImageServer {
+
+	/**
+	 * Padding added to each row of the source buffer, to check the offset and stride are used correctly.
+	 */
+	private static final int PADDING = 3;
+
+	@ParameterizedTest
+	@ValueSource(ints = {-1, 0x000000, 0xFFFFFF, 0xF0F0F0, 0x1F80E3})
+	public void test_compositeARGBPre(int background) {
+		Color backgroundColor = background < 0 ? null : new Color(background);
+		int[] pixels = createPremultipliedPixels();
+		int width = 64;
+		int height = pixels.length / width;
+		assertEquals(pixels.length, width * height);
+
+		var expected = drawWithGraphics(pixels, width, height, backgroundColor);
+
+		int offset = 5;
+		int stride = width + PADDING;
+		var src = IntBuffer.allocate(offset + stride * height);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < stride; x++) {
+				// Fill the padding with opaque pixels that should never be read
+				int val = x < width ? pixels[y * width + x] : 0xFFFF00FF;
+				src.put(offset + y * stride + x, val);
+			}
+		}
+		int[] actual = new int[width * height];
+		int bg = backgroundColor == null ? 0 : backgroundColor.getRGB() & 0xFFFFFF;
+		OpenslideImageServer.compositeARGBPre(src, offset, stride, actual, width, height, bg);
+
+		assertArrayEquals(expected, actual);
+	}
+
+	/**
+	 * Create valid premultiplied pixels for every alpha value, including fully transparent and fully opaque pixels,
+	 * with channel values at zero, at the maximum for the alpha, and in between.
+	 */
+	private static int[] createPremultipliedPixels() {
+		List<Integer> list = new ArrayList<>();
+		for (int alpha = 0; alpha <= 255; alpha++) {
+			int mid = alpha / 2;
+			list.add(argb(alpha, 0, 0, 0));
+			list.add(argb(alpha, alpha, alpha, alpha));
+			list.add(argb(alpha, alpha, mid, 0));
+			list.add(argb(alpha, 0, alpha, mid));
+			list.add(argb(alpha, mid, mid, mid));
+			list.add(argb(alpha, (alpha * 3) / 4, alpha / 4, (alpha * 7) / 8));
+		}
+		// Pad to a multiple of the width used in the test
+		while (list.size() % 64 != 0)
+			list.add(argb(128, 64, 32, 16));
+		int[] pixels = list.stream().mapToInt(Integer::intValue).toArray();
+		for (int p : pixels) {
+			int alpha = p >>> 24;
+			assertTrue(((p >> 16) & 0xFF) <= alpha && ((p >> 8) & 0xFF) <= alpha && (p & 0xFF) <= alpha);
+		}
+		return pixels;
+	}
+
+	private static int argb(int a, int r, int g, int b) {
+		return (a << 24) | (r << 16) | (g << 8) | b;
+	}
+
+	/**
+	 * Convert pixels in the way that OpenslideImageServer did before compositing was done directly.
+	 */
+	private static int[] drawWithGraphics(int[] pixels, int width, int height, Color backgroundColor) {
+		var img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+		int[] data = ((DataBufferInt)img.getRaster().getDataBuffer()).getData();
+		System.arraycopy(pixels, 0, data, 0, pixels.length);
+
+		var img2 = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		var g2d = img2.createGraphics();
+		if (backgroundColor != null) {
+			g2d.setColor(backgroundColor);
+			g2d.fillRect(0, 0, width, height);
+		}
+		g2d.drawImage(img, 0, 0, width, height, null);
+		g2d.dispose();
+		int[] rgb = ((DataBufferInt)img2.getRaster().getDataBuffer()).getData();
+		for (int i = 0; i < rgb.length; i++)
+			rgb[i] &= 0xFFFFFF;
+		return rgb;
+	}
+
+}
@@ -4,7 +4,9 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,6 +15,7 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -23,6 +26,7 @@ import java.util.Map;
 public class CacheManager {
 
     private static final Logger logger = LoggerFactory.getLogger(CacheManager.class);
+    private static CacheManager instance;
     private final Gson gson;
 
     public CacheManager() {
@@ -33,17 +37,20 @@ public class CacheManager {
     }
 
     /**
-     * 获取缓存目录路径
+     * 获取共享的缓存管理器实例
      */
-    private String getCacheDir() {
-        return Configuration.getInstance().getCachePath();
+    public static synchronized CacheManager getInstance() {
+        if (instance == null) {
+            instance = new CacheManager();
+        }
+        return instance;
     }
 
     /**
-     * 获取任务缓存文件路径
+     * 获取缓存目录路径
      */
-    private String getTasksCacheFile() {
-        return getCacheDir() + "/tasks.json";
+    private String getCacheDir() {
+        return Configuration.getInstance().getCachePath();
     }
 
     /**
@@ -81,6 +88,13 @@ public class CacheManager {
         return getWsiCacheDir(taskId) + "/" + wsiId + ".tif";
     }
 
+    /**
+     * 获取WSI分块下载状态文件路径（与WSI缓存放在同一目录，用于断点续传）
+     */
+    public String getWsiDownloadStatePath(String taskId, String wsiId) {
+        return getWsiCacheDir(taskId) + "/" + wsiId + ".download.json";
+    }
+
     /**
      * 确保缓存目录存在
      */
@@ -125,39 +139,11 @@ public class CacheManager {
 
     /**
      * 保存任务列表到缓存
+     * 此方法重定向到 saveAllTasks，任务总数由存储中的任务列表决定
      */
     public void saveTaskList(List<Task> tasks, int total) throws IOException {
-        logger.debug("Saving task list to cache: {} (total: {})", tasks.size(), total);
-        // 确保缓存目录存在
-        ensureCacheDirExists();
-        
-        // 保存任务列表到主缓存文件
-        File cacheFile = new File(getTasksCacheFile());
-        try (FileWriter writer = new FileWriter(cacheFile)) {
-            JsonObject tasksObj = new JsonObject();
-            tasksObj.addProperty("total", total);
-            
-            JsonArray tasksArray = new JsonArray();
-            for (Task task : tasks) {
-                JsonObject taskJson = new JsonObject();
-                taskJson.addProperty("id", task.getId());
-                taskJson.addProperty("name", task.getName());
-                taskJson.addProperty("description", task.getDescription());
-                taskJson.addProperty("num_wsi", task.getNumWsi());
-                taskJson.addProperty("progress", task.getProgress());
-                taskJson.addProperty("status", task.getStatus());
-                tasksArray.add(taskJson);
-            }
-            
-            tasksObj.add("items", tasksArray);
-            gson.toJson(tasksObj, writer);
-            logger.info("Task list saved to cache: {} (total: {})", tasks.size(), total);
-        }
-        
-        // 为每个任务创建单独的缓存目录和文件
-        for (Task task : tasks) {
-            saveTaskDetails(task);
-        }
+        logger.debug("saveTaskList redirecting to saveAllTasks: {} tasks (total: {})", tasks.size(), total);
+        saveAllTasks(tasks);
     }
     
     /**
@@ -172,30 +158,8 @@ public class CacheManager {
      */
     public void saveTaskDetails(Task task) throws IOException {
         logger.debug("Saving task details to cache: {}", task.getId());
-        // 确保任务缓存目录存在
-        ensureTaskCacheDirExists(task.getId());
-        
-        // 保存任务详情
-        File taskFile = new File(getTaskDetailsCacheFile(task.getId()));
-        try (FileWriter writer = new FileWriter(taskFile)) {
-            JsonObject taskJson = new JsonObject();
-            taskJson.addProperty("id", task.getId());
-            taskJson.addProperty("name", task.getName());
-            taskJson.addProperty("description", task.getDescription());
-            
-            if (task.getProject() != null) {
-                JsonObject projectJson = new JsonObject();
-                projectJson.addProperty("id", task.getProject().getId());
-                projectJson.addProperty("name", task.getProject().getName());
-                taskJson.add("project_obj", projectJson);
-            }
-            
-            taskJson.addProperty("num_wsi", task.getNumWsi());
-            taskJson.addProperty("progress", task.getProgress());
-            taskJson.addProperty("status", task.getStatus());
-            gson.toJson(taskJson, writer);
-            logger.info("Task details saved to cache: {}", task.getId());
-        }
+        getStore().putTask(taskToJson(task));
+        logger.info("Task details saved to cache: {}", task.getId());
     }
 
     /**
@@ -218,81 +182,26 @@ public class CacheManager {
 
     /**
      * 从缓存加载任务列表
+     * 此方法重定向到 loadAllTasks
      */
     public List<Task> loadTaskList() throws IOException {
-        File cacheFile = new File(getTasksCacheFile());
-        if (!cacheFile.exists()) {
-            return new ArrayList<>();
-        }
-
-        try (FileReader reader = new FileReader(cacheFile)) {
-            JsonElement rootElement = gson.fromJson(reader, JsonElement.class);
-            List<Task> tasks = new ArrayList<>();
-            
-            if (rootElement.isJsonObject()) {
-                // 新格式：包含total和items
-                JsonObject tasksObj = rootElement.getAsJsonObject();
-                JsonArray tasksArray = tasksObj.getAsJsonArray("items");
-                
-                for (int i = 0; i < tasksArray.size(); i++) {
-                    JsonObject taskJson = tasksArray.get(i).getAsJsonObject();
-                    Task task = Task.fromJson(taskJson, this);
-                    tasks.add(task);
-                }
-            } else if (rootElement.isJsonArray()) {
-                // 旧格式：直接是任务数组
-                JsonArray tasksArray = rootElement.getAsJsonArray();
-                
-                for (int i = 0; i < tasksArray.size(); i++) {
-                    JsonObject taskJson = tasksArray.get(i).getAsJsonObject();
-                    Task task = Task.fromJson(taskJson, this);
-                    tasks.add(task);
-                }
-            }
-            
-            return tasks;
-        }
+        return loadAllTasks();
     }
     
     /**
      * 从缓存加载任务总数
+     * 此方法重定向到 loadTaskCount
      */
     public int loadTaskTotal() throws IOException {
-        File cacheFile = new File(getTasksCacheFile());
-        if (!cacheFile.exists()) {
-            return 0;
-        }
-
-        try (FileReader reader = new FileReader(cacheFile)) {
-            JsonElement rootElement = gson.fromJson(reader, JsonElement.class);
-            
-            if (rootElement.isJsonObject()) {
-                // 新格式：包含total
-                JsonObject tasksObj = rootElement.getAsJsonObject();
-                if (tasksObj.has("total")) {
-                    return tasksObj.get("total").getAsInt();
-                }
-            }
-            
-            return 0;
-        }
+        return loadTaskCount();
     }
 
-
-
     /**
      * 从缓存加载单个任务的详情
      */
     public Task loadTaskDetails(String taskId) throws IOException {
-        File taskFile = new File(getTaskDetailsCacheFile(taskId));
-        if (!taskFile.exists()) {
-            return null;
-        }
-
-        try (FileReader reader = new FileReader(taskFile)) {
-            JsonObject taskJson = gson.fromJson(reader, JsonObject.class);
-            return Task.fromJson(taskJson, this);
-        }
+        JsonObject taskJson = getStore().getTask(taskId);
+        return taskJson == null ? null : Task.fromJson(taskJson, this);
     }
 
     /**
@@ -313,39 +222,36 @@ public class CacheManager {
      * @return 指定页的数据列表，如果不在缓存中则返回空列表
      */
     public List<TaskFile> loadTaskWsiListPage(String taskId, int page, int pageSize) throws IOException {
-        File pageCacheFile = new File(getTaskWsiPageCacheFile(taskId, page, pageSize));
-        if (!pageCacheFile.exists()) {
-            return new ArrayList<>();
-        }
-
-        try (FileReader reader = new FileReader(pageCacheFile)) {
-            JsonElement rootElement = gson.fromJson(reader, JsonElement.class);
-            List<TaskFile> wsiList = new ArrayList<>();
-            
-            if (rootElement.isJsonObject()) {
-                JsonObject wsiObj = rootElement.getAsJsonObject();
-                JsonArray wsiArray = wsiObj.getAsJsonArray("items");
-                
-                for (int i = 0; i < wsiArray.size(); i++) {
-                    JsonObject wsiJson = wsiArray.get(i).getAsJsonObject();
-                    TaskFile taskFile = TaskFile.fromJson(wsiJson, null, this);
-                    wsiList.add(taskFile);
-                }
-            }
-            
-            return wsiList;
+        int from = Math.max(0, (page - 1) * pageSize);
+        List<TaskFile> wsiList = new ArrayList<>();
+        for (JsonObject wsiJson : getStore().getWsiRange(taskId, from, from + pageSize)) {
+            wsiList.add(TaskFile.fromJson(wsiJson, null, this));
         }
+        return wsiList;
     }
 
     /**
-     * 获取指定页的缓存文件路径
-     */
-    private String getTaskWsiPageCacheFile(String taskId, int page, int pageSize) {
-        return getTaskCacheDir(taskId) + "/wsi_list_page_" + page + "_" + pageSize + ".json";
+     * 从缓存加载指定ID的WSI，用于把本地状态合并到接口返回的单页数据中
+     *
+     * @param taskId 任务ID
+     * @param wsiIds WSI ID
+     * @return WSI ID到缓存WSI的映射，不包含未缓存的ID
+     */
+    public Map<String, TaskFile> loadTaskWsiByIds(String taskId, Collection<String> wsiIds) throws IOException {
+        Map<String, TaskFile> wsiMap = new HashMap<>();
+        CacheStore store = getStore();
+        for (String wsiId : wsiIds) {
+            JsonObject wsiJson = store.getWsi(taskId, wsiId);
+            if (wsiJson != null) {
+                wsiMap.put(wsiId, TaskFile.fromJson(wsiJson, null, this));
+            }
+        }
+        return wsiMap;
     }
 
     /**
-     * 保存任务的WSI列表到缓存（按页存储）
+     * 保存任务的WSI列表中的一页到缓存，替换存储中对应位置的条目
+     * 如果该页之前的数据尚未缓存，则无法确定其位置，不会保存
      * 
      * @param taskId   任务ID
      * @param page     页码（从1开始）
@@ -353,83 +259,26 @@ public class CacheManager {
      * @param wsiList  WSI列表
      */
     public void saveTaskWsiListPage(String taskId, int page, int pageSize, List<TaskFile> wsiList) throws IOException {
-        ensureTaskCacheDirExists(taskId);
-        
-        File pageCacheFile = new File(getTaskWsiPageCacheFile(taskId, page, pageSize));
-        try (FileWriter writer = new FileWriter(pageCacheFile)) {
-            JsonObject wsiObj = new JsonObject();
-            
-            JsonArray wsiArray = new JsonArray();
-            for (TaskFile taskFile : wsiList) {
-                JsonObject wsiJson = new JsonObject();
-                wsiJson.addProperty("id", taskFile.getId());
-                
-                if (taskFile.getWsi() != null) {
-                    wsiJson.addProperty("name", taskFile.getWsi().getName());
-                }
-                
-                wsiJson.addProperty("type", taskFile.getType());
-                wsiJson.addProperty("status", taskFile.getStatus());
-                wsiJson.addProperty("status_local", taskFile.getLocalStatus());
-                wsiJson.addProperty("is_annotated", taskFile.isAnnotated());
-                wsiJson.addProperty("local_path", taskFile.getLocalPath());
-                
-                if (taskFile.getWsi() != null) {
-                    JsonObject wsiObjJson = new JsonObject();
-                    wsiObjJson.addProperty("id", taskFile.getWsi().getId());
-                    wsiObjJson.addProperty("name", taskFile.getWsi().getName());
-                    wsiObjJson.addProperty("file_path", taskFile.getWsi().getPath());
-                    wsiObjJson.addProperty("size", taskFile.getWsi().getSize());
-                    wsiObjJson.addProperty("ptype", taskFile.getWsi().getPtype());
-                    wsiObjJson.addProperty("download_url", taskFile.getWsi().getDownloadUrl());
-                    wsiJson.add("wsi", wsiObjJson);
-                }
-                
-                wsiArray.add(wsiJson);
-            }
-            
-            wsiObj.add("items", wsiArray);
-            gson.toJson(wsiObj, writer);
-            logger.debug("Saved WSI list page {} to cache for task {}: {} items", page, taskId, wsiList.size());
+        CacheStore store = getStore();
+        int from = Math.max(0, (page - 1) * pageSize);
+        int count = store.getWsiCount(taskId);
+        if (from > count) {
+            logger.debug("Skipping WSI list page {} for task {}: only {} items cached", page, taskId, count);
+            return;
         }
-    }
-
-    /**
-     * 保存任务WSI总数到缓存
-     */
-    public void saveTaskWsiTotal(String taskId, int total) throws IOException {
-        ensureTaskCacheDirExists(taskId);
-        
-        File totalFile = new File(getTaskCacheDir(taskId) + "/wsi_total.json");
-        try (FileWriter writer = new FileWriter(totalFile)) {
-            JsonObject obj = new JsonObject();
-            obj.addProperty("total", total);
-            gson.toJson(obj, writer);
+        List<JsonObject> items = new ArrayList<>(wsiList.size());
+        for (TaskFile taskFile : wsiList) {
+            items.add(wsiToJson(taskFile));
         }
+        store.putWsiPage(taskId, from, items);
+        logger.debug("Saved WSI list page {} to cache for task {}: {} items", page, taskId, wsiList.size());
     }
-    
+
     /**
      * 从缓存加载任务的WSI总数
-     * 此方法从 all_wsi.json 文件读取 total 字段
      */
     public int loadTaskWsiTotal(String taskId) throws IOException {
-        File allWsiFile = new File(getTaskCacheDir(taskId) + "/all_wsi.json");
-        if (!allWsiFile.exists()) {
-            return 0;
-        }
-
-        try (FileReader reader = new FileReader(allWsiFile)) {
-            JsonElement rootElement = gson.fromJson(reader, JsonElement.class);
-
-            if (rootElement.isJsonObject()) {
-                JsonObject wsiObj = rootElement.getAsJsonObject();
-                if (wsiObj.has("total")) {
-                    return wsiObj.get("total").getAsInt();
-                }
-            }
-
-            return 0;
-        }
+        return getStore().getWsiCount(taskId);
     }
 
     /**
@@ -458,6 +307,7 @@ public class CacheManager {
      */
     public void clearCache() throws IOException {
         File cacheDir = new File(getCacheDir());
+        CacheStore.getInstance(cacheDir).clear();
         deleteDirectory(cacheDir);
         ensureCacheDirExists();
     }
@@ -486,157 +336,82 @@ public class CacheManager {
      */
     public void saveAllTasks(List<Task> tasks) throws IOException {
         logger.debug("Saving all tasks to cache: {} tasks", tasks.size());
-        ensureCacheDirExists();
-        
-        File cacheFile = new File(getCacheDir() + "/all_tasks.json");
-        try (FileWriter writer = new FileWriter(cacheFile)) {
-            JsonObject tasksObj = new JsonObject();
-            tasksObj.addProperty("total", tasks.size());
-            
-            JsonArray tasksArray = new JsonArray();
-            for (Task task : tasks) {
-                JsonObject taskJson = new JsonObject();
-                taskJson.addProperty("id", task.getId());
-                taskJson.addProperty("name", task.getName());
-                taskJson.addProperty("description", task.getDescription());
-                taskJson.addProperty("num_wsi", task.getNumWsi());
-                taskJson.addProperty("progress", task.getProgress());
-                taskJson.addProperty("status", task.getStatus());
-                
-                if (task.getProject() != null) {
-                    JsonObject projectJson = new JsonObject();
-                    projectJson.addProperty("id", task.getProject().getId());
-                    projectJson.addProperty("name", task.getProject().getName());
-                    taskJson.add("project", projectJson);
-                }
-                
-                tasksArray.add(taskJson);
-            }
-            
-            tasksObj.add("items", tasksArray);
-            gson.toJson(tasksObj, writer);
-            logger.info("All tasks saved to cache: {} tasks", tasks.size());
+        List<JsonObject> items = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            items.add(taskToJson(task));
         }
+        getStore().putTasks(items);
+        logger.info("All tasks saved to cache: {} tasks", tasks.size());
     }
 
     /**
      * 从缓存加载全部任务
      */
     public List<Task> loadAllTasks() throws IOException {
-        File cacheFile = new File(getCacheDir() + "/all_tasks.json");
-        if (!cacheFile.exists()) {
-            return new ArrayList<>();
-        }
-
-        try (FileReader reader = new FileReader(cacheFile)) {
-            JsonElement rootElement = gson.fromJson(reader, JsonElement.class);
-            List<Task> tasks = new ArrayList<>();
-            
-            if (rootElement.isJsonObject()) {
-                JsonObject tasksObj = rootElement.getAsJsonObject();
-                JsonArray tasksArray = tasksObj.getAsJsonArray("items");
-                
-                for (int i = 0; i < tasksArray.size(); i++) {
-                    JsonObject taskJson = tasksArray.get(i).getAsJsonObject();
-                    Task task = Task.fromJson(taskJson, this);
-                    tasks.add(task);
-                }
-            }
-            
-            logger.debug("Loaded all tasks from cache: {} tasks", tasks.size());
-            return tasks;
+        List<Task> tasks = new ArrayList<>();
+        for (JsonObject taskJson : getStore().getTasks()) {
+            tasks.add(Task.fromJson(taskJson, this));
         }
+        logger.debug("Loaded all tasks from cache: {} tasks", tasks.size());
+        return tasks;
     }
 
     /**
-     * 保存任务的全部 WSI 数据到缓存
+     * 从缓存加载指定页的任务
+     *
+     * @param page     页码（从1开始）
+     * @param pageSize 每页数量
      */
-    public void saveAllTaskWsi(String taskId, List<TaskFile> wsiList) throws IOException {
-        ensureTaskCacheDirExists(taskId);
-
-        File cacheFile = new File(getTaskCacheDir(taskId) + "/all_wsi.json");
-        try (FileWriter writer = new FileWriter(cacheFile)) {
-            JsonObject wsiObj = new JsonObject();
-            wsiObj.addProperty("total", wsiList.size());
-
-            JsonArray wsiArray = new JsonArray();
-            int nonDefaultCount = 0;
-
-            for (TaskFile taskFile : wsiList) {
-                JsonObject wsiJson = new JsonObject();
-                wsiJson.addProperty("id", taskFile.getId());
-
-                if (taskFile.getWsi() != null) {
-                    wsiJson.addProperty("name", taskFile.getWsi().getName());
-                }
-
-                wsiJson.addProperty("type", taskFile.getType());
-                wsiJson.addProperty("status", taskFile.getStatus());
-
-                // 获取并保存local_status
-                String localStatus = taskFile.getLocalStatus();
-                wsiJson.addProperty("status_local", localStatus);
-                wsiJson.addProperty("is_annotated", taskFile.isAnnotated());
-
-                // 获取并保存local_path
-                String localPath = taskFile.getLocalPath();
-                wsiJson.addProperty("local_path", localPath);
-
-                // 统计非默认状态的WSI数量
-                if (localStatus != null && !localStatus.equals("default")) {
-                    nonDefaultCount++;
-                    logger.debug("Saving WSI {} with local_status='{}', local_path='{}'",
-                        taskFile.getId(), localStatus, localPath);
-                }
+    public List<Task> loadTaskListPage(int page, int pageSize) throws IOException {
+        int from = Math.max(0, (page - 1) * pageSize);
+        List<Task> tasks = new ArrayList<>();
+        for (JsonObject taskJson : getStore().getTaskRange(from, from + pageSize)) {
+            tasks.add(Task.fromJson(taskJson, this));
+        }
+        return tasks;
+    }
 
-                if (taskFile.getWsi() != null) {
-                    JsonObject wsiObjJson = new JsonObject();
-                    wsiObjJson.addProperty("id", taskFile.getWsi().getId());
-                    wsiObjJson.addProperty("name", taskFile.getWsi().getName());
-                    wsiObjJson.addProperty("file_path", taskFile.getWsi().getPath());
-                    wsiObjJson.addProperty("size", taskFile.getWsi().getSize());
-                    wsiObjJson.addProperty("ptype", taskFile.getWsi().getPtype());
-                    wsiObjJson.addProperty("download_url", taskFile.getWsi().getDownloadUrl());
-                    wsiJson.add("wsi", wsiObjJson);
-                }
+    /**
+     * 从缓存加载任务总数
+     */
+    public int loadTaskCount() throws IOException {
+        return getStore().getTaskCount();
+    }
 
-                wsiArray.add(wsiJson);
+    /**
+     * 保存任务的全部 WSI 数据到缓存
+     */
+    public void saveAllTaskWsi(String taskId, List<TaskFile> wsiList) throws IOException {
+        List<JsonObject> items = new ArrayList<>(wsiList.size());
+        int nonDefaultCount = 0;
+
+        for (TaskFile taskFile : wsiList) {
+            items.add(wsiToJson(taskFile));
+
+            // 统计非默认状态的WSI数量
+            String localStatus = taskFile.getLocalStatus();
+            if (localStatus != null && !localStatus.equals("default")) {
+                nonDefaultCount++;
+                logger.debug("Saving WSI {} with local_status='{}', local_path='{}'",
+                    taskFile.getId(), localStatus, taskFile.getLocalPath());
             }
-
-            wsiObj.add("items", wsiArray);
-            gson.toJson(wsiObj, writer);
-            logger.info("All WSI saved to cache for task {}: {} total items, {} with non-default local_status",
-                taskId, wsiList.size(), nonDefaultCount);
         }
+
+        getStore().putWsiList(taskId, items);
+        logger.info("All WSI saved to cache for task {}: {} total items, {} with non-default local_status",
+            taskId, wsiList.size(), nonDefaultCount);
     }
 
     /**
      * 从缓存加载任务的全部 WSI 数据
      */
     public List<TaskFile> loadAllTaskWsi(String taskId) throws IOException {
-        File cacheFile = new File(getTaskCacheDir(taskId) + "/all_wsi.json");
-        if (!cacheFile.exists()) {
-            return new ArrayList<>();
-        }
-
-        try (FileReader reader = new FileReader(cacheFile)) {
-            JsonElement rootElement = gson.fromJson(reader, JsonElement.class);
-            List<TaskFile> wsiList = new ArrayList<>();
-
-            if (rootElement.isJsonObject()) {
-                JsonObject wsiObj = rootElement.getAsJsonObject();
-                JsonArray wsiArray = wsiObj.getAsJsonArray("items");
-
-                for (int i = 0; i < wsiArray.size(); i++) {
-                    JsonObject wsiJson = wsiArray.get(i).getAsJsonObject();
-                    TaskFile taskFile = TaskFile.fromJson(wsiJson, null, this);
-                    wsiList.add(taskFile);
-                }
-            }
-
-            logger.debug("Loaded all WSI from cache for task {}: {} items", taskId, wsiList.size());
-            return wsiList;
+        List<TaskFile> wsiList = new ArrayList<>();
+        for (JsonObject wsiJson : getStore().getWsiList(taskId)) {
+            wsiList.add(TaskFile.fromJson(wsiJson, null, this));
         }
+        logger.debug("Loaded all WSI from cache for task {}: {} items", taskId, wsiList.size());
+        return wsiList;
     }
 
     /**
@@ -651,20 +426,18 @@ public class CacheManager {
     public boolean updateWsiLocalStatus(String taskId, String wsiId, String localStatus) {
         logger.debug("Updating WSI local status in cache: taskId={}, wsiId={}, status={}", taskId, wsiId, localStatus);
 
-        // 只更新 all_wsi.json 文件
         try {
-            String allWsiFile = getTaskCacheDir(taskId) + "/all_wsi.json";
-            boolean updated = updateWsiStatusInFile(allWsiFile, wsiId, localStatus);
+            boolean updated = updateWsiField(taskId, wsiId, "status_local", localStatus);
 
             if (updated) {
                 logger.info("Successfully updated WSI local status in cache: taskId={}, wsiId={}, status={}", taskId, wsiId, localStatus);
             } else {
-                logger.warn("WSI not found in cache file: taskId={}, wsiId={}", taskId, wsiId);
+                logger.warn("WSI not found in cache: taskId={}, wsiId={}", taskId, wsiId);
             }
 
             return updated;
         } catch (IOException e) {
-            logger.warn("Failed to update WSI status in all_wsi.json: {}", e.getMessage());
+            logger.warn("Failed to update WSI status in cache: {}", e.getMessage());
             return false;
         }
     }
@@ -680,94 +453,232 @@ public class CacheManager {
     public boolean updateWsiLocalPath(String taskId, String wsiId, String localPath) {
         logger.debug("Updating WSI local path in cache: taskId={}, wsiId={}, path={}", taskId, wsiId, localPath);
 
-        // 只更新 all_wsi.json 文件
         try {
-            String allWsiFile = getTaskCacheDir(taskId) + "/all_wsi.json";
-            boolean updated = updateWsiFieldInFile(allWsiFile, wsiId, "local_path", localPath);
+            boolean updated = updateWsiField(taskId, wsiId, "local_path", localPath);
 
             if (updated) {
                 logger.info("Successfully updated WSI local path in cache: taskId={}, wsiId={}", taskId, wsiId);
             } else {
-                logger.warn("WSI not found in cache file: taskId={}, wsiId={}", taskId, wsiId);
+                logger.warn("WSI not found in cache: taskId={}, wsiId={}", taskId, wsiId);
             }
 
             return updated;
         } catch (IOException e) {
-            logger.warn("Failed to update WSI path in all_wsi.json: {}", e.getMessage());
+            logger.warn("Failed to update WSI path in cache: {}", e.getMessage());
             return false;
         }
     }
 
     /**
-     * 在指定的缓存文件中更新 WSI 的 local status
+     * 更新缓存中 WSI 的字段（只追加一条日志记录，不重写整个列表）
      *
-     * @param filePath    缓存文件路径
-     * @param wsiId       WSI ID
-     * @param localStatus 新的本地状态
+     * @param taskId    任务ID
+     * @param wsiId     WSI ID
+     * @param fieldName 字段名
+     * @param value     新值
      * @return 是否找到并更新了该 WSI
      */
-    private boolean updateWsiStatusInFile(String filePath, String wsiId, String localStatus) throws IOException {
-        return updateWsiFieldInFile(filePath, wsiId, "status_local", localStatus);
+    private boolean updateWsiField(String taskId, String wsiId, String fieldName, Object value) throws IOException {
+        JsonElement element;
+        if (value instanceof String) {
+            element = new JsonPrimitive((String) value);
+        } else if (value instanceof Number) {
+            element = new JsonPrimitive((Number) value);
+        } else if (value instanceof Boolean) {
+            element = new JsonPrimitive((Boolean) value);
+        } else {
+            element = JsonNull.INSTANCE;
+        }
+        return getStore().updateWsiField(taskId, wsiId, fieldName, element);
     }
 
     /**
-     * 在指定的缓存文件中更新 WSI 的字段
-     *
-     * @param filePath  缓存文件路径
-     * @param wsiId     WSI ID
-     * @param fieldName 字段名
-     * @param value     新值
-     * @return 是否找到并更新了该 WSI
+     * 获取当前缓存目录对应的存储，首次使用时如果存储为空则导入旧版JSON缓存
      */
-    private boolean updateWsiFieldInFile(String filePath, String wsiId, String fieldName, Object value) throws IOException {
-        File file = new File(filePath);
-        if (!file.exists()) {
-            return false;
+    private CacheStore getStore() {
+        File cacheDir = new File(getCacheDir());
+        CacheStore store = CacheStore.getInstance(cacheDir);
+        if (store.checkLegacyImportOnce() && store.isEmpty()) {
+            try {
+                importFromJson(cacheDir);
+            } catch (IOException e) {
+                logger.warn("Failed to import legacy JSON cache: {}", e.getMessage());
+            }
         }
+        return store;
+    }
 
-        boolean found = false;
+    /**
+     * 转换任务为JSON（与 task.json 格式相同）
+     */
+    private static JsonObject taskToJson(Task task) {
+        JsonObject taskJson = new JsonObject();
+        taskJson.addProperty("id", task.getId());
+        taskJson.addProperty("name", task.getName());
+        taskJson.addProperty("description", task.getDescription());
+        taskJson.addProperty("num_wsi", task.getNumWsi());
+        taskJson.addProperty("progress", task.getProgress());
+        taskJson.addProperty("status", task.getStatus());
 
-        // 读取文件内容
-        JsonElement rootElement;
-        try (FileReader reader = new FileReader(file)) {
-            rootElement = gson.fromJson(reader, JsonElement.class);
+        if (task.getProject() != null) {
+            JsonObject projectJson = new JsonObject();
+            projectJson.addProperty("id", task.getProject().getId());
+            projectJson.addProperty("name", task.getProject().getName());
+            taskJson.add("project_obj", projectJson);
         }
+        return taskJson;
+    }
 
-        if (rootElement == null || !rootElement.isJsonObject()) {
-            return false;
+    /**
+     * 转换WSI为JSON（与 all_wsi.json 中的条目格式相同）
+     */
+    private static JsonObject wsiToJson(TaskFile taskFile) {
+        JsonObject wsiJson = new JsonObject();
+        wsiJson.addProperty("id", taskFile.getId());
+
+        if (taskFile.getWsi() != null) {
+            wsiJson.addProperty("name", taskFile.getWsi().getName());
         }
 
-        JsonObject root = rootElement.getAsJsonObject();
-        JsonArray items = root.getAsJsonArray("items");
+        wsiJson.addProperty("type", taskFile.getType());
+        wsiJson.addProperty("status", taskFile.getStatus());
+        wsiJson.addProperty("status_local", taskFile.getLocalStatus());
+        wsiJson.addProperty("is_annotated", taskFile.isAnnotated());
+        wsiJson.addProperty("local_path", taskFile.getLocalPath());
 
-        if (items == null) {
-            return false;
+        if (taskFile.getWsi() != null) {
+            JsonObject wsiObjJson = new JsonObject();
+            wsiObjJson.addProperty("id", taskFile.getWsi().getId());
+            wsiObjJson.addProperty("name", taskFile.getWsi().getName());
+            wsiObjJson.addProperty("file_path", taskFile.getWsi().getPath());
+            wsiObjJson.addProperty("size", taskFile.getWsi().getSize());
+            wsiObjJson.addProperty("ptype", taskFile.getWsi().getPtype());
+            wsiObjJson.addProperty("download_url", taskFile.getWsi().getDownloadUrl());
+            if (taskFile.getWsi().getMd5() != null) {
+                wsiObjJson.addProperty("md5", taskFile.getWsi().getMd5());
+            }
+            if (taskFile.getWsi().getSha256() != null) {
+                wsiObjJson.addProperty("sha256", taskFile.getWsi().getSha256());
+            }
+            wsiJson.add("wsi", wsiObjJson);
+        }
+        return wsiJson;
+    }
+
+    /**
+     * 以旧版JSON目录格式导出缓存（all_tasks.json、tasks/{id}/task.json、tasks/{id}/all_wsi.json）
+     *
+     * @param dir 导出目录
+     */
+    public void exportToJson(File dir) throws IOException {
+        CacheStore store = getStore();
+        List<JsonObject> taskList = store.getTasks();
+
+        JsonArray tasksArray = new JsonArray();
+        for (JsonObject taskJson : taskList) {
+            JsonObject exported = taskJson.deepCopy();
+            // 旧版 all_tasks.json 使用"project"字段
+            if (exported.has("project_obj")) {
+                exported.add("project", exported.remove("project_obj"));
+            }
+            tasksArray.add(exported);
+
+            File taskDir = new File(dir, "tasks/" + getId(taskJson));
+            writeJsonFile(new File(taskDir, "task.json"), taskJson);
         }
+        JsonObject tasksObj = new JsonObject();
+        tasksObj.addProperty("total", taskList.size());
+        tasksObj.add("items", tasksArray);
+        writeJsonFile(new File(dir, "all_tasks.json"), tasksObj);
 
-        // 查找并更新对应的 WSI
-        for (int i = 0; i < items.size(); i++) {
-            JsonObject wsiJson = items.get(i).getAsJsonObject();
-            if (wsiJson.has("id") && wsiId.equals(wsiJson.get("id").getAsString())) {
-                // 根据值的类型添加到JSON
-                if (value instanceof String) {
-                    wsiJson.addProperty(fieldName, (String) value);
-                } else if (value instanceof Number) {
-                    wsiJson.addProperty(fieldName, (Number) value);
-                } else if (value instanceof Boolean) {
-                    wsiJson.addProperty(fieldName, (Boolean) value);
+        for (JsonObject taskJson : taskList) {
+            String taskId = getId(taskJson);
+            if (!store.hasWsiList(taskId)) {
+                continue;
+            }
+            List<JsonObject> wsiList = store.getWsiList(taskId);
+            JsonArray wsiArray = new JsonArray();
+            for (JsonObject wsiJson : wsiList) {
+                wsiArray.add(wsiJson);
+            }
+            JsonObject wsiObj = new JsonObject();
+            wsiObj.addProperty("total", wsiList.size());
+            wsiObj.add("items", wsiArray);
+            writeJsonFile(new File(dir, "tasks/" + taskId + "/all_wsi.json"), wsiObj);
+        }
+        logger.info("Exported cache to JSON: {} ({} tasks)", dir.getAbsolutePath(), taskList.size());
+    }
+
+    /**
+     * 从旧版JSON目录格式导入缓存，替换存储中的任务列表和对应的WSI列表
+     * 没有 all_tasks.json 时使用更早版本的 tasks.json
+     *
+     * @param dir 导入目录
+     */
+    public void importFromJson(File dir) throws IOException {
+        CacheStore store = CacheStore.getInstance(new File(getCacheDir()));
+
+        File allTasksFile = new File(dir, "all_tasks.json");
+        if (!allTasksFile.exists()) {
+            allTasksFile = new File(dir, "tasks.json");
+        }
+        List<JsonObject> taskList = new ArrayList<>();
+        JsonObject tasksObj = readJsonObject(allTasksFile);
+        if (tasksObj != null && tasksObj.has("items")) {
+            for (JsonElement item : tasksObj.getAsJsonArray("items")) {
+                JsonObject taskJson = item.getAsJsonObject();
+                if (taskJson.has("project") && !taskJson.has("project_obj")) {
+                    taskJson.add("project_obj", taskJson.remove("project"));
                 }
-                found = true;
-                break;
+                taskList.add(taskJson);
             }
         }
+        if (!taskList.isEmpty()) {
+            store.putTasks(taskList);
+        }
 
-        // 如果找到并更新了，写回文件
-        if (found) {
-            try (FileWriter writer = new FileWriter(file)) {
-                gson.toJson(root, writer);
+        int nWsiLists = 0;
+        File[] taskDirs = new File(dir, "tasks").listFiles(File::isDirectory);
+        if (taskDirs != null) {
+            for (File taskDir : taskDirs) {
+                JsonObject wsiObj = readJsonObject(new File(taskDir, "all_wsi.json"));
+                if (wsiObj == null || !wsiObj.has("items")) {
+                    continue;
+                }
+                List<JsonObject> wsiList = new ArrayList<>();
+                for (JsonElement item : wsiObj.getAsJsonArray("items")) {
+                    wsiList.add(item.getAsJsonObject());
+                }
+                store.putWsiList(taskDir.getName(), wsiList);
+                nWsiLists++;
             }
         }
+        if (!taskList.isEmpty() || nWsiLists > 0) {
+            logger.info("Imported JSON cache from {}: {} tasks, {} WSI lists", dir.getAbsolutePath(), taskList.size(), nWsiLists);
+        }
+    }
+
+    private JsonObject readJsonObject(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        try (FileReader reader = new FileReader(file)) {
+            JsonElement element = gson.fromJson(reader, JsonElement.class);
+            return element != null && element.isJsonObject() ? element.getAsJsonObject() : null;
+        }
+    }
+
+    private void writeJsonFile(File file, JsonElement json) throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+        try (FileWriter writer = new FileWriter(file)) {
+            gson.toJson(json, writer);
+        }
+    }
 
-        return found;
+    private static String getId(JsonObject json) {
+        return json.has("id") && !json.get("id").isJsonNull() ? json.get("id").getAsString() : "";
     }
 }
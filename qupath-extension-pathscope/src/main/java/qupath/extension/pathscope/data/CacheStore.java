@@ -0,0 +1,697 @@
+package qupath.extension.pathscope.data;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 任务/WSI缓存的嵌入式存储：追加写日志 + 内存索引
+ * <p>
+ * 所有修改都以一行记录追加到 {@code cache.log}，每行带CRC32校验。
+ * 打开时顺序重放日志，在内存中按任务ID和WSI ID建立索引，因此修改单个WSI字段只需追加一条记录，
+ * 保存一页WSI也只追加这一页的条目（重放时按位置合并），不再需要重写整个JSON文件。日志尾部不完整或校验失败的记录（例如写入过程中崩溃）会被截断丢弃。
+ * <p>
+ * 替换整个列表的批量修改在写入后立即刷新到磁盘；单条修改会合并，在 {@link #SYNC_DELAY_MS} 毫秒内只刷新一次，
+ * 也可以调用 {@link #sync()} 立即刷新。
+ * <p>
+ * 当日志中过期数据的字节数相对有效数据过多时会自动压缩：把当前内容写成快照到临时文件，刷新后原子替换旧日志。
+ * <p>
+ * 同一缓存目录只对应一个实例，通过 {@link #getInstance(File)} 获取。
+ */
+public class CacheStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheStore.class);
+
+    static final String LOG_FILE_NAME = "cache.log";
+
+    /**
+     * 日志文件至少达到此字节数才考虑压缩
+     */
+    static final long COMPACT_MIN_BYTES = 1L << 20;
+
+    /**
+     * 过期数据的字节数超过有效数据的此倍数时压缩
+     */
+    static final double COMPACT_DEAD_RATIO = 2.0;
+
+    /**
+     * 单条修改写入后延迟刷新到磁盘的毫秒数
+     */
+    static final long SYNC_DELAY_MS = 1000;
+
+    private static final ScheduledExecutorService syncExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "pathscope-cache-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Map<String, CacheStore> instances = new HashMap<>();
+
+    private final File logFile;
+    private final Gson gson = new Gson();
+
+    // 任务ID -> 任务JSON（保持任务列表顺序）
+    private final LinkedHashMap<String, JsonObject> tasks = new LinkedHashMap<>();
+    // 任务ID -> WSI列表（保持WSI列表顺序）
+    private final Map<String, WsiList> wsiByTask = new HashMap<>();
+
+    private FileChannel channel;
+    private int logRecords;
+    private long logBytes;
+    // 日志达到此字节数时再检查是否需要压缩，避免每次写入都计算有效数据的大小
+    private long nextCompactCheckBytes = COMPACT_MIN_BYTES;
+    // 是否有已写入但尚未刷新到磁盘的记录
+    private boolean unsynced;
+    private boolean syncScheduled;
+    private boolean legacyImportChecked;
+
+    private CacheStore(File dir) {
+        this.logFile = new File(dir, LOG_FILE_NAME);
+        load();
+    }
+
+    /**
+     * 获取指定缓存目录的存储实例
+     */
+    public static CacheStore getInstance(File dir) {
+        String key = dir.getAbsoluteFile().toPath().normalize().toString();
+        synchronized (instances) {
+            return instances.computeIfAbsent(key, k -> new CacheStore(dir));
+        }
+    }
+
+    /**
+     * 创建一个不共享的实例并从磁盘重放日志（用于测试）
+     */
+    static CacheStore open(File dir) {
+        return new CacheStore(dir);
+    }
+
+    /**
+     * 是否需要检查旧版JSON缓存的导入：只在第一次调用时返回true
+     */
+    public synchronized boolean checkLegacyImportOnce() {
+        if (legacyImportChecked) {
+            return false;
+        }
+        legacyImportChecked = true;
+        return true;
+    }
+
+    /**
+     * 存储中是否没有任何任务和WSI数据
+     */
+    public synchronized boolean isEmpty() {
+        return tasks.isEmpty() && wsiByTask.isEmpty();
+    }
+
+    /**
+     * 获取全部任务（按保存顺序），返回副本
+     */
+    public synchronized List<JsonObject> getTasks() {
+        List<JsonObject> list = new ArrayList<>(tasks.size());
+        for (JsonObject task : tasks.values()) {
+            list.add(task.deepCopy());
+        }
+        return list;
+    }
+
+    /**
+     * 获取任务数量
+     */
+    public synchronized int getTaskCount() {
+        return tasks.size();
+    }
+
+    /**
+     * 获取指定范围内的任务，返回副本
+     *
+     * @param from 起始索引（包含）
+     * @param to   结束索引（不包含）
+     */
+    public synchronized List<JsonObject> getTaskRange(int from, int to) {
+        return copyRange(tasks.values(), from, to);
+    }
+
+    /**
+     * 获取单个任务，不存在时返回null
+     */
+    public synchronized JsonObject getTask(String taskId) {
+        JsonObject task = tasks.get(taskId);
+        return task == null ? null : task.deepCopy();
+    }
+
+    /**
+     * 替换全部任务列表（已有的WSI列表保留）
+     *
+     * @throws IllegalArgumentException 如果有任务没有ID
+     */
+    public synchronized void putTasks(List<JsonObject> taskList) throws IOException {
+        JsonArray items = new JsonArray();
+        for (JsonObject task : taskList) {
+            requireTaskId(getId(task));
+            items.add(task);
+        }
+        JsonObject record = new JsonObject();
+        record.addProperty("op", "put_tasks");
+        record.add("items", items);
+        append(record, true);
+        applyPutTasks(items);
+        maybeCompact();
+    }
+
+    /**
+     * 新增或更新单个任务
+     *
+     * @throws IllegalArgumentException 如果任务没有ID
+     */
+    public synchronized void putTask(JsonObject task) throws IOException {
+        requireTaskId(getId(task));
+        JsonObject record = new JsonObject();
+        record.addProperty("op", "put_task");
+        record.add("item", task);
+        append(record, false);
+        applyPutTask(task);
+        maybeCompact();
+    }
+
+    /**
+     * 是否已缓存指定任务的WSI列表
+     */
+    public synchronized boolean hasWsiList(String taskId) {
+        return wsiByTask.containsKey(taskId);
+    }
+
+    /**
+     * 获取任务的WSI列表（按保存顺序），返回副本；未缓存时返回空列表
+     */
+    public synchronized List<JsonObject> getWsiList(String taskId) {
+        WsiList wsiList = wsiByTask.get(taskId);
+        if (wsiList == null) {
+            return new ArrayList<>();
+        }
+        return copyRange(wsiList.items, 0, wsiList.items.size());
+    }
+
+    /**
+     * 获取任务WSI列表中指定范围的条目，返回副本；未缓存时返回空列表
+     *
+     * @param from 起始索引（包含）
+     * @param to   结束索引（不包含）
+     */
+    public synchronized List<JsonObject> getWsiRange(String taskId, int from, int to) {
+        WsiList wsiList = wsiByTask.get(taskId);
+        if (wsiList == null) {
+            return new ArrayList<>();
+        }
+        return copyRange(wsiList.items, from, to);
+    }
+
+    /**
+     * 获取单个WSI，不存在时返回null
+     */
+    public synchronized JsonObject getWsi(String taskId, String wsiId) {
+        JsonObject wsi = findWsi(taskId, wsiId);
+        return wsi == null ? null : wsi.deepCopy();
+    }
+
+    /**
+     * 获取任务的WSI数量
+     */
+    public synchronized int getWsiCount(String taskId) {
+        WsiList wsiList = wsiByTask.get(taskId);
+        return wsiList == null ? 0 : wsiList.items.size();
+    }
+
+    /**
+     * 替换任务的WSI列表
+     *
+     * @throws IllegalArgumentException 如果任务ID为空
+     */
+    public synchronized void putWsiList(String taskId, List<JsonObject> wsiList) throws IOException {
+        requireTaskId(taskId);
+        JsonArray items = new JsonArray();
+        for (JsonObject wsi : wsiList) {
+            items.add(wsi);
+        }
+        JsonObject record = new JsonObject();
+        record.addProperty("op", "put_wsi_list");
+        record.addProperty("task", taskId);
+        record.add("items", items);
+        append(record, true);
+        applyPutWsiList(taskId, items);
+        maybeCompact();
+    }
+
+    /**
+     * 从指定位置开始替换或追加任务WSI列表中的一页条目，只追加这一页的记录，不重写整个列表。
+     * 与单条修改一样延迟刷新到磁盘。
+     *
+     * @param from 这一页第一个条目在列表中的索引，不能大于当前WSI数量
+     * @throws IllegalArgumentException 如果任务ID为空或起始索引超出列表范围
+     */
+    public synchronized void putWsiPage(String taskId, int from, List<JsonObject> page) throws IOException {
+        requireTaskId(taskId);
+        int count = getWsiCount(taskId);
+        if (from < 0 || from > count) {
+            throw new IllegalArgumentException("WSI page index " + from + " out of range for task " + taskId + " with " + count + " items");
+        }
+        JsonArray items = new JsonArray();
+        for (JsonObject wsi : page) {
+            items.add(wsi);
+        }
+        JsonObject record = new JsonObject();
+        record.addProperty("op", "put_wsi_page");
+        record.addProperty("task", taskId);
+        record.addProperty("from", from);
+        record.add("items", items);
+        append(record, false);
+        applyPutWsiPage(taskId, from, items);
+        maybeCompact();
+    }
+
+    /**
+     * 更新单个WSI的字段，只追加一条记录
+     *
+     * @return 如果找到该WSI并已更新返回true
+     */
+    public synchronized boolean updateWsiField(String taskId, String wsiId, String fieldName, JsonElement value) throws IOException {
+        requireTaskId(taskId);
+        JsonObject wsi = findWsi(taskId, wsiId);
+        if (wsi == null) {
+            return false;
+        }
+        JsonObject record = new JsonObject();
+        record.addProperty("op", "set_wsi_field");
+        record.addProperty("task", taskId);
+        record.addProperty("wsi", wsiId);
+        record.addProperty("field", fieldName);
+        record.add("value", value);
+        append(record, false);
+        wsi.add(fieldName, value);
+        maybeCompact();
+        return true;
+    }
+
+    /**
+     * 清空存储并删除日志文件
+     */
+    public synchronized void clear() throws IOException {
+        closeChannel();
+        tasks.clear();
+        wsiByTask.clear();
+        logRecords = 0;
+        logBytes = 0;
+        nextCompactCheckBytes = COMPACT_MIN_BYTES;
+        Files.deleteIfExists(logFile.toPath());
+    }
+
+    /**
+     * 立即压缩日志：把当前内容写成快照并原子替换旧日志
+     */
+    public synchronized void compact() throws IOException {
+        closeChannel();
+        File tempFile = new File(logFile.getPath() + ".compact");
+        List<JsonObject> records = createSnapshot();
+        long nBytes = 0;
+        try (FileChannel tempChannel = FileChannel.open(tempFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (JsonObject record : records) {
+                nBytes += writeRecord(tempChannel, record);
+            }
+            tempChannel.force(true);
+        }
+        try {
+            Files.move(tempFile.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        logger.debug("Compacted cache log from {} records ({} bytes) to {} records ({} bytes)",
+                logRecords, logBytes, records.size(), nBytes);
+        logRecords = records.size();
+        logBytes = nBytes;
+        nextCompactCheckBytes = getCompactThreshold(nBytes);
+    }
+
+    /**
+     * 立即把已写入的记录刷新到磁盘
+     */
+    public synchronized void sync() throws IOException {
+        if (channel != null && unsynced) {
+            channel.force(false);
+        }
+        unsynced = false;
+    }
+
+    /**
+     * 创建表示当前全部内容的记录，用于压缩日志
+     */
+    private List<JsonObject> createSnapshot() {
+        List<JsonObject> records = new ArrayList<>(1 + wsiByTask.size());
+        JsonArray taskItems = new JsonArray();
+        for (JsonObject task : tasks.values()) {
+            taskItems.add(task);
+        }
+        JsonObject tasksRecord = new JsonObject();
+        tasksRecord.addProperty("op", "put_tasks");
+        tasksRecord.add("items", taskItems);
+        records.add(tasksRecord);
+
+        for (Map.Entry<String, WsiList> entry : wsiByTask.entrySet()) {
+            JsonArray wsiItems = new JsonArray();
+            for (JsonObject wsi : entry.getValue().items) {
+                wsiItems.add(wsi);
+            }
+            JsonObject wsiRecord = new JsonObject();
+            wsiRecord.addProperty("op", "put_wsi_list");
+            wsiRecord.addProperty("task", entry.getKey());
+            wsiRecord.add("items", wsiItems);
+            records.add(wsiRecord);
+        }
+        return records;
+    }
+
+    /**
+     * 有效数据为指定字节数时，日志达到多大才需要压缩
+     */
+    private static long getCompactThreshold(long liveBytes) {
+        return Math.max(COMPACT_MIN_BYTES, (long) Math.ceil(liveBytes * (1 + COMPACT_DEAD_RATIO)));
+    }
+
+    /**
+     * 当过期数据与有效数据的字节数之比超过 {@link #COMPACT_DEAD_RATIO} 时压缩日志。
+     * 有效数据的大小需要序列化当前内容才能得到，所以只在日志增长到上次估计的阈值时才计算。
+     */
+    private void maybeCompact() {
+        if (logBytes < nextCompactCheckBytes) {
+            return;
+        }
+        long liveBytes = 0;
+        for (JsonObject record : createSnapshot()) {
+            liveBytes += getRecordLength(record);
+        }
+        long deadBytes = logBytes - liveBytes;
+        if (deadBytes > liveBytes * COMPACT_DEAD_RATIO) {
+            try {
+                compact();
+            } catch (IOException e) {
+                logger.warn("Failed to compact cache log: {}", e.getMessage());
+            }
+        } else {
+            nextCompactCheckBytes = getCompactThreshold(liveBytes);
+        }
+    }
+
+    /**
+     * 追加一条记录
+     *
+     * @param sync 是否立即刷新到磁盘；否则在 {@link #SYNC_DELAY_MS} 毫秒后与其它记录一起刷新
+     */
+    private void append(JsonObject record, boolean sync) throws IOException {
+        if (channel == null) {
+            File dir = logFile.getAbsoluteFile().getParentFile();
+            if (dir != null && !dir.exists()) {
+                dir.mkdirs();
+            }
+            channel = FileChannel.open(logFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        logBytes += writeRecord(channel, record);
+        logRecords++;
+        unsynced = true;
+        if (sync) {
+            sync();
+        } else if (!syncScheduled) {
+            syncScheduled = true;
+            syncExecutor.schedule(this::scheduledSync, SYNC_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void scheduledSync() {
+        syncScheduled = false;
+        try {
+            sync();
+        } catch (IOException e) {
+            logger.warn("Failed to sync cache log: {}", e.getMessage());
+        }
+    }
+
+    private byte[] encodeRecord(JsonObject record) {
+        return gson.toJson(record).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 获取记录写入日志后的字节数（包括校验前缀和换行符）
+     */
+    private long getRecordLength(JsonObject record) {
+        return encodeRecord(record).length + 10;
+    }
+
+    /**
+     * 写入一行记录，格式为 {@code <crc32十六进制> <json>\n}
+     *
+     * @return 写入的字节数
+     */
+    private int writeRecord(FileChannel target, JsonObject record) throws IOException {
+        byte[] json = encodeRecord(record);
+        CRC32 crc = new CRC32();
+        crc.update(json);
+        byte[] prefix = String.format("%08x ", crc.getValue()).getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer buffer = ByteBuffer.allocate(prefix.length + json.length + 1);
+        buffer.put(prefix).put(json).put((byte) '\n').flip();
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+        return buffer.limit();
+    }
+
+    private void closeChannel() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        unsynced = false;
+    }
+
+    /**
+     * 重放日志，遇到不完整或损坏的记录时截断日志
+     */
+    private void load() {
+        if (!logFile.exists()) {
+            return;
+        }
+        long validLength = 0;
+        long offset = 0;
+        boolean truncated = false;
+        try (InputStream stream = new BufferedInputStream(new FileInputStream(logFile))) {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = stream.read()) != -1) {
+                offset++;
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                JsonObject record = parseRecord(line.toByteArray());
+                line.reset();
+                if (record == null) {
+                    truncated = true;
+                    break;
+                }
+                applyRecord(record);
+                logRecords++;
+                validLength = offset;
+            }
+            if (line.size() > 0) {
+                // 最后一行没有换行符，说明写入中途中断
+                truncated = true;
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to read cache log {}: {}", logFile.getAbsolutePath(), e.getMessage());
+            truncated = true;
+        }
+        logBytes = validLength;
+        nextCompactCheckBytes = Math.max(COMPACT_MIN_BYTES, logBytes);
+        if (truncated) {
+            logger.warn("Cache log {} has an incomplete or corrupt record, truncating to {} bytes",
+                    logFile.getAbsolutePath(), validLength);
+            try (FileChannel truncateChannel = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE)) {
+                truncateChannel.truncate(validLength);
+                truncateChannel.force(true);
+            } catch (IOException e) {
+                logger.warn("Failed to truncate cache log: {}", e.getMessage());
+            }
+        }
+        logger.debug("Loaded cache log with {} records: {} tasks, {} WSI lists", logRecords, tasks.size(), wsiByTask.size());
+    }
+
+    private static JsonObject parseRecord(byte[] bytes) {
+        if (bytes.length < 10 || bytes[8] != ' ') {
+            return null;
+        }
+        try {
+            long expected = Long.parseLong(new String(bytes, 0, 8, StandardCharsets.US_ASCII), 16);
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 9, bytes.length - 9);
+            if (crc.getValue() != expected) {
+                return null;
+            }
+            JsonElement element = JsonParser.parseString(new String(bytes, 9, bytes.length - 9, StandardCharsets.UTF_8));
+            return element.isJsonObject() ? element.getAsJsonObject() : null;
+        } catch (NumberFormatException | JsonParseException e) {
+            return null;
+        }
+    }
+
+    private void applyRecord(JsonObject record) {
+        String op = record.get("op").getAsString();
+        switch (op) {
+            case "put_tasks":
+                applyPutTasks(record.getAsJsonArray("items"));
+                break;
+            case "put_task":
+                applyPutTask(record.getAsJsonObject("item"));
+                break;
+            case "put_wsi_list":
+                applyPutWsiList(record.get("task").getAsString(), record.getAsJsonArray("items"));
+                break;
+            case "put_wsi_page":
+                applyPutWsiPage(record.get("task").getAsString(), record.get("from").getAsInt(), record.getAsJsonArray("items"));
+                break;
+            case "set_wsi_field":
+                JsonObject wsi = findWsi(record.get("task").getAsString(), record.get("wsi").getAsString());
+                if (wsi != null) {
+                    wsi.add(record.get("field").getAsString(), record.get("value"));
+                }
+                break;
+            default:
+                logger.warn("Unknown cache log record: {}", op);
+        }
+    }
+
+    private void applyPutTasks(JsonArray items) {
+        tasks.clear();
+        for (JsonElement item : items) {
+            applyPutTask(item.getAsJsonObject());
+        }
+    }
+
+    private void applyPutTask(JsonObject task) {
+        String id = getId(task);
+        if (id.isEmpty()) {
+            // 旧版本可能写入过没有ID的任务，重放时跳过
+            logger.warn("Skipping cached task without an ID");
+            return;
+        }
+        tasks.put(id, task);
+    }
+
+    private void applyPutWsiList(String taskId, JsonArray items) {
+        WsiList wsiList = new WsiList();
+        for (JsonElement item : items) {
+            wsiList.set(wsiList.items.size(), item.getAsJsonObject());
+        }
+        wsiByTask.put(taskId, wsiList);
+    }
+
+    private void applyPutWsiPage(String taskId, int from, JsonArray items) {
+        WsiList wsiList = wsiByTask.computeIfAbsent(taskId, k -> new WsiList());
+        int i = Math.min(from, wsiList.items.size());
+        for (JsonElement item : items) {
+            wsiList.set(i++, item.getAsJsonObject());
+        }
+    }
+
+    private JsonObject findWsi(String taskId, String wsiId) {
+        WsiList wsiList = wsiByTask.get(taskId);
+        return wsiList == null ? null : wsiList.get(wsiId);
+    }
+
+    private static void requireTaskId(String taskId) {
+        if (taskId == null || taskId.isEmpty()) {
+            throw new IllegalArgumentException("Task ID cannot be null or empty");
+        }
+    }
+
+    private static List<JsonObject> copyRange(Collection<JsonObject> values, int from, int to) {
+        List<JsonObject> list = new ArrayList<>(Math.max(0, Math.min(to, values.size()) - from));
+        int i = 0;
+        for (JsonObject json : values) {
+            if (i >= to) {
+                break;
+            }
+            if (i >= from) {
+                list.add(json.deepCopy());
+            }
+            i++;
+        }
+        return list;
+    }
+
+    private static String getId(JsonObject json) {
+        return json.has("id") && !json.get("id").isJsonNull() ? json.get("id").getAsString() : "";
+    }
+
+    /**
+     * 一个任务的WSI列表：按位置保存全部条目，另按ID索引第一个出现的条目。
+     * 没有ID或ID重复的条目仍保留在列表中，只是无法按ID查找或更新。
+     */
+    private static class WsiList {
+
+        private final List<JsonObject> items = new ArrayList<>();
+        private final Map<String, Integer> indexById = new HashMap<>();
+
+        JsonObject get(String wsiId) {
+            Integer index = indexById.get(wsiId);
+            return index == null ? null : items.get(index);
+        }
+
+        /**
+         * 替换指定位置的条目，或在 {@code index == items.size()} 时追加
+         */
+        void set(int index, JsonObject wsi) {
+            if (index < items.size()) {
+                String oldId = getId(items.get(index));
+                if (Integer.valueOf(index).equals(indexById.get(oldId))) {
+                    indexById.remove(oldId);
+                }
+                items.set(index, wsi);
+            } else {
+                items.add(wsi);
+            }
+            String id = getId(wsi);
+            if (!id.isEmpty()) {
+                indexById.putIfAbsent(id, index);
+            }
+        }
+    }
+}
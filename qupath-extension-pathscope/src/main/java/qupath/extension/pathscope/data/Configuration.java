@@ -19,6 +19,11 @@ public class Configuration {
     private String cachePath; // 缓存文件路径
     private String apiBaseUrl; // API基础URL
     private int maxConcurrentDownloads = 1; // 最大同时下载数
+    private int downloadConnections = 4; // 单个文件的并行分块连接数
+    private long downloadChunkSize = 16L * 1024 * 1024; // 分块大小（字节）
+    private long maxDownloadBytesPerSecond = 0; // 全局下载带宽上限（字节/秒），0表示不限制
+    private boolean verifyDownloads = true; // 下载时计算校验和并与服务器提供的值比较
+    private boolean prewarmDownloads = true; // 下载完成后在后台预先打开图像并把缩略图放入查看器缓存
     
     /**
      * 获取配置单例
@@ -101,6 +106,76 @@ public class Configuration {
         this.maxConcurrentDownloads = Math.max(1, maxConcurrentDownloads);
     }
 
+    /**
+     * 获取单个文件下载时的并行分块连接数
+     */
+    public int getDownloadConnections() {
+        return downloadConnections;
+    }
+
+    /**
+     * 设置单个文件下载时的并行分块连接数
+     */
+    public void setDownloadConnections(int downloadConnections) {
+        this.downloadConnections = Math.max(1, downloadConnections);
+    }
+
+    /**
+     * 获取分块下载的分块大小（字节）
+     */
+    public long getDownloadChunkSize() {
+        return downloadChunkSize;
+    }
+
+    /**
+     * 设置分块下载的分块大小（字节），最小为1MB
+     */
+    public void setDownloadChunkSize(long downloadChunkSize) {
+        this.downloadChunkSize = Math.max(1024L * 1024, downloadChunkSize);
+    }
+
+    /**
+     * 获取全局下载带宽上限（字节/秒），0表示不限制
+     */
+    public long getMaxDownloadBytesPerSecond() {
+        return maxDownloadBytesPerSecond;
+    }
+
+    /**
+     * 设置全局下载带宽上限（字节/秒），0表示不限制
+     */
+    public void setMaxDownloadBytesPerSecond(long maxDownloadBytesPerSecond) {
+        this.maxDownloadBytesPerSecond = Math.max(0, maxDownloadBytesPerSecond);
+    }
+
+    /**
+     * 是否在下载时计算校验和并与服务器提供的值比较
+     */
+    public boolean isVerifyDownloads() {
+        return verifyDownloads;
+    }
+
+    /**
+     * 设置是否在下载时计算校验和并与服务器提供的值比较
+     */
+    public void setVerifyDownloads(boolean verifyDownloads) {
+        this.verifyDownloads = verifyDownloads;
+    }
+
+    /**
+     * 下载完成后是否在后台预先打开图像并把缩略图放入查看器缓存
+     */
+    public boolean isPrewarmDownloads() {
+        return prewarmDownloads;
+    }
+
+    /**
+     * 设置下载完成后是否在后台预先打开图像并把缩略图放入查看器缓存
+     */
+    public void setPrewarmDownloads(boolean prewarmDownloads) {
+        this.prewarmDownloads = prewarmDownloads;
+    }
+
     /**
      * 保存配置到文件
      */
@@ -2,6 +2,8 @@ package qupath.extension.pathscope.data;
 
 import javafx.beans.property.*;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * 下载任务模型，用于跟踪WSI文件下载的状态和进度
  */
@@ -10,8 +12,10 @@ public class DownloadTask {
     public enum Status {
         WAITING("等待中"),
         DOWNLOADING("下载中"),
+        PAUSED("已暂停"),
         COMPLETED("已完成"),
-        FAILED("失败");
+        FAILED("失败"),
+        CANCELLED("已取消");
 
         private final String label;
 
@@ -35,6 +39,21 @@ public class DownloadTask {
     private final StringProperty wsiName = new SimpleStringProperty();
     private final StringProperty taskName = new SimpleStringProperty();
     private final StringProperty errorMessage = new SimpleStringProperty();
+    private final DoubleProperty bytesPerSecond = new SimpleDoubleProperty(0);
+    private final LongProperty etaSeconds = new SimpleLongProperty(-1); // -1 = unknown
+
+    // 调度相关（由下载线程和FX线程共同访问）
+    private volatile int priority;
+    private volatile long sequence;
+    private volatile boolean pauseRequested;
+    private volatile boolean cancelRequested;
+
+    // 下载线程只更新原子计数器，由进度监视器统一采样后发布到属性
+    private final AtomicLong transferredBytes = new AtomicLong(0);
+    private final AtomicLong expectedBytes = new AtomicLong(-1);
+
+    // 吞吐量采样（仅在FX线程访问）
+    private long lastSampleBytes = -1;
 
     public DownloadTask(TaskFile taskFile, String savePath, Task task) {
         this.taskFile = taskFile;
@@ -146,6 +165,147 @@ public class DownloadTask {
         this.errorMessage.set(message);
     }
 
+    // --- bytesPerSecond ---
+    public DoubleProperty bytesPerSecondProperty() {
+        return bytesPerSecond;
+    }
+
+    public double getBytesPerSecond() {
+        return bytesPerSecond.get();
+    }
+
+    // --- etaSeconds ---
+    public LongProperty etaSecondsProperty() {
+        return etaSeconds;
+    }
+
+    public long getEtaSeconds() {
+        return etaSeconds.get();
+    }
+
+    /**
+     * 记录下载进度（可在任意线程调用）
+     * <p>
+     * 只更新原子计数器，不触发任何UI更新；属性由 {@link #publishProgress(double, double)} 统一发布。
+     */
+    public void recordTransfer(long bytesRead, long totalBytes) {
+        transferredBytes.set(bytesRead);
+        expectedBytes.set(totalBytes);
+    }
+
+    /**
+     * 获取最近记录的已下载字节数（可在任意线程调用）
+     */
+    public long getTransferredBytes() {
+        return transferredBytes.get();
+    }
+
+    /**
+     * 采样原子计数器并发布到属性，同时更新平滑后的吞吐量和剩余时间（需在FX线程调用）
+     *
+     * @param elapsedSeconds   距上次采样的时间，小于等于0时只发布进度
+     * @param smoothingSeconds 吞吐量指数平滑的时间常数
+     */
+    public void publishProgress(double elapsedSeconds, double smoothingSeconds) {
+        long bytes = transferredBytes.get();
+        long total = expectedBytes.get();
+        if (bytes != downloadedBytes.get()) {
+            downloadedBytes.set(bytes);
+        }
+        if (total != totalBytes.get()) {
+            totalBytes.set(total);
+        }
+        if (total > 0) {
+            progress.set((double) bytes / total);
+        }
+        if (elapsedSeconds > 0 && lastSampleBytes >= 0 && bytes >= lastSampleBytes) {
+            double rate = (bytes - lastSampleBytes) / elapsedSeconds;
+            double alpha = 1.0 - Math.exp(-elapsedSeconds / smoothingSeconds);
+            double smoothed = bytesPerSecond.get() + alpha * (rate - bytesPerSecond.get());
+            bytesPerSecond.set(smoothed);
+            if (total > 0 && smoothed > 1) {
+                etaSeconds.set((long) Math.ceil((total - bytes) / smoothed));
+            } else {
+                etaSeconds.set(-1);
+            }
+        }
+        lastSampleBytes = bytes;
+    }
+
+    /**
+     * 重置吞吐量和剩余时间（下载停止时调用，需在FX线程调用）
+     */
+    public void resetTransferRate() {
+        lastSampleBytes = -1;
+        bytesPerSecond.set(0);
+        etaSeconds.set(-1);
+    }
+
+    // --- scheduling ---
+    public int getPriority() {
+        return priority;
+    }
+
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public boolean isPauseRequested() {
+        return pauseRequested;
+    }
+
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    /**
+     * 是否请求停止当前传输（暂停或取消）
+     */
+    public boolean isStopRequested() {
+        return pauseRequested || cancelRequested;
+    }
+
+    public void requestPause() {
+        this.pauseRequested = true;
+    }
+
+    public void requestCancel() {
+        this.cancelRequested = true;
+    }
+
+    /**
+     * 清除暂停请求（恢复下载时调用）
+     */
+    public void clearPauseRequest() {
+        this.pauseRequested = false;
+    }
+
+    /**
+     * 是否处于未结束状态（等待、下载中或已暂停）
+     */
+    public boolean isActive() {
+        Status s = getStatus();
+        return s == Status.WAITING || s == Status.DOWNLOADING || s == Status.PAUSED;
+    }
+
+    /**
+     * 格式化剩余时间的显示文本
+     */
+    public static String formatEta(long seconds) {
+        if (seconds < 0) return "-";
+        if (seconds < 60) return seconds + " s";
+        if (seconds < 3600) return String.format("%d:%02d", seconds / 60, seconds % 60);
+        return String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+    }
+
     /**
      * 格式化已下载大小的显示文本
      */
@@ -30,6 +30,8 @@ public class Wsi {
     private Integer deptBelongId;
     private String createDatetime;
     private String updateDatetime;
+    private String md5; // 服务器提供的MD5校验和（可为null）
+    private String sha256; // 服务器提供的SHA-256校验和（可为null）
 
     /**
      * 初始化WSI对象
@@ -96,8 +98,11 @@ public class Wsi {
                 ? json.get("update_datetime").getAsString()
                 : "";
 
-        return new Wsi(projectWsiId, id, name, path, size, ptype, url, downloadUrl, description, modifier, modifierName,
+        Wsi wsi = new Wsi(projectWsiId, id, name, path, size, ptype, url, downloadUrl, description, modifier, modifierName,
                 creator, creatorName, deptBelongId, createDatetime, updateDatetime);
+        wsi.setMd5(json.has("md5") && !json.get("md5").isJsonNull() ? json.get("md5").getAsString() : null);
+        wsi.setSha256(json.has("sha256") && !json.get("sha256").isJsonNull() ? json.get("sha256").getAsString() : null);
+        return wsi;
     }
 
     /**
@@ -241,6 +246,22 @@ public class Wsi {
         this.updateDatetime = updateDatetime;
     }
 
+    public String getMd5() {
+        return md5;
+    }
+
+    public void setMd5(String md5) {
+        this.md5 = md5 == null || md5.isBlank() ? null : md5;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    public void setSha256(String sha256) {
+        this.sha256 = sha256 == null || sha256.isBlank() ? null : sha256;
+    }
+
     @Override
     public String toString() {
         return "Wsi{" +
@@ -43,6 +43,8 @@ public class ApiClient {
     private static final String SUBMIT_ANNOTATION_ENDPOINT = "/pathos/pa_project_task_wsi/{id}/";
 
     private final OkHttpClient client;
+    private final OkHttpClient downloadClient;
+    private final CacheManager cacheManager;
     private final Gson gson;
     private String authToken;
     private String apiBaseUrl;
@@ -87,7 +89,9 @@ public class ApiClient {
     }
 
     public ApiClient() {
-        this.client = new OkHttpClient();
+        this.client = HttpClientFactory.getSharedClient();
+        this.downloadClient = HttpClientFactory.createDownloadClient(client);
+        this.cacheManager = CacheManager.getInstance();
         this.gson = new Gson();
         // 从配置中读取API基础URL
         this.apiBaseUrl = Configuration.getInstance().getApiBaseUrl();
@@ -221,8 +225,6 @@ public class ApiClient {
     public TaskListResult getTaskList(String userId, int page, int pageSize) throws IOException {
         logger.debug("Starting getTaskList request for user ID: {}", userId);
         logger.debug("Pagination: page={}, pageSize={}", page, pageSize);
-        
-        CacheManager cacheManager = new CacheManager();
 
         String url = apiBaseUrl + TASK_LIST_ENDPOINT + "?user_id=" + userId + "&page=" + page + "&limit="
                 + pageSize;
@@ -231,10 +233,12 @@ public class ApiClient {
         Request request = new Request.Builder()
                 .url(url)
                 .addHeader("Authorization", "JWT " + authToken)
+                .cacheControl(HttpClientFactory.REVALIDATE)
                 .build();
 
         try (Response response = client.newCall(request).execute()) {
             logger.debug("Task list response status: {}", response.code());
+            logNotModified(response);
 
             if (response.isSuccessful()) {
                 String responseBody = response.body().string();
@@ -313,8 +317,6 @@ public class ApiClient {
     public WsiListResult getTaskWsiList(String taskId, int page, int pageSize) throws IOException {
         logger.debug("Starting getTaskWsiList request for task ID: {}", taskId);
         logger.debug("Pagination: page={}, pageSize={}", page, pageSize);
-        
-        CacheManager cacheManager = new CacheManager();
 
         String url = apiBaseUrl + TASK_WSI_LIST_ENDPOINT + "?project_task=" + taskId + "&page=" + page + "&limit="
                 + pageSize;
@@ -323,10 +325,12 @@ public class ApiClient {
         Request request = new Request.Builder()
                 .url(url)
                 .addHeader("Authorization", "JWT " + authToken)
+                .cacheControl(HttpClientFactory.REVALIDATE)
                 .build();
 
         try (Response response = client.newCall(request).execute()) {
             logger.debug("WSI list response status: {}", response.code());
+            logNotModified(response);
 
             if (response.isSuccessful()) {
                 String responseBody = response.body().string();
@@ -400,6 +404,16 @@ public class ApiClient {
         }
     }
 
+    /**
+     * Log when a response was revalidated by the server and served from the HTTP cache.
+     */
+    private static void logNotModified(Response response) {
+        Response networkResponse = response.networkResponse();
+        if (networkResponse != null && networkResponse.code() == 304 && response.cacheResponse() != null) {
+            logger.debug("Not modified, using cached response for {}", response.request().url());
+        }
+    }
+
     /**
      * Submit annotation for a WSI.
      */
@@ -496,7 +510,7 @@ public class ApiClient {
                 .addHeader("Authorization", "JWT " + authToken)
                 .build();
 
-        try (Response response = client.newCall(request).execute()) {
+        try (Response response = downloadClient.newCall(request).execute()) {
             logger.debug("WSI download response status: {}", response.code());
 
             if (response.isSuccessful()) {
@@ -555,7 +569,7 @@ public class ApiClient {
                 .addHeader("Authorization", "JWT " + authToken)
                 .build();
 
-        try (Response response = client.newCall(request).execute()) {
+        try (Response response = downloadClient.newCall(request).execute()) {
             logger.debug("WSI download response status: {}", response.code());
 
             if (response.isSuccessful()) {
@@ -618,6 +632,21 @@ public class ApiClient {
         }
     }
 
+    /**
+     * Get the underlying HTTP client used for API requests.
+     */
+    public OkHttpClient getHttpClient() {
+        return client;
+    }
+
+    /**
+     * Get the HTTP client for file downloads. It shares connections with the API client,
+     * but never stores responses in the HTTP cache.
+     */
+    public OkHttpClient getDownloadClient() {
+        return downloadClient;
+    }
+
     /**
      * Get authentication token.
      */
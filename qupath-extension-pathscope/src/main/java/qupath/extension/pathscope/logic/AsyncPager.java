@@ -0,0 +1,334 @@
+package qupath.extension.pathscope.logic;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.extension.pathscope.logic.ApiClient.PaginatedResult;
+
+/**
+ * 异步分页加载器，在后台加载并预取分页数据
+ * <p>
+ * 已解析的页面保存在LRU缓存中，再次显示时立即返回，同时在后台向服务器重新验证。
+ * 缓存中没有的页面先从本地缓存读取（如果有），再从服务器读取。每次显示一页后，会在后台预取前后相邻的页面。
+ * <p>
+ * 查询条件（例如所选任务或每页数量）变化时，所有正在进行的请求都会被取消，过期的结果会被丢弃。
+ * <p>
+ * 除构造函数外，所有方法以及回调都应在同一个线程（通常是FX线程）上执行，由 {@code callbackExecutor} 保证。
+ *
+ * @param <T> 条目类型
+ */
+public class AsyncPager<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncPager.class);
+
+    /**
+     * 默认缓存的页面数
+     */
+    public static final int DEFAULT_MAX_PAGES = 32;
+
+    /**
+     * 从服务器加载后，在此时间内再次显示同一页不重新验证（毫秒）
+     */
+    static final long REVALIDATE_INTERVAL_MS = 30_000;
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    /**
+     * 分页数据源，方法在后台线程调用
+     */
+    public interface PageSource<T> {
+
+        /**
+         * 从本地缓存读取一页，没有缓存时返回null
+         */
+        PaginatedResult<T> loadCached(String query, int page, int pageSize) throws IOException;
+
+        /**
+         * 从服务器读取一页
+         */
+        PaginatedResult<T> loadRemote(String query, int page, int pageSize) throws IOException;
+    }
+
+    /**
+     * 当前页面的回调
+     */
+    public interface PageListener<T> {
+
+        /**
+         * 当前页面已加载（可能被调用多次：先显示缓存，重新验证后再次调用）
+         */
+        void pageLoaded(int page, PaginatedResult<T> result);
+
+        /**
+         * 当前页面加载失败，且没有可显示的缓存数据
+         */
+        void pageFailed(int page, Exception e);
+    }
+
+    private static class PageKey {
+
+        private final String query;
+        private final int page;
+        private final int pageSize;
+
+        private PageKey(String query, int page, int pageSize) {
+            this.query = query;
+            this.page = page;
+            this.pageSize = pageSize;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof PageKey)) {
+                return false;
+            }
+            PageKey other = (PageKey) obj;
+            return page == other.page && pageSize == other.pageSize && Objects.equals(query, other.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(query, page, pageSize);
+        }
+
+        @Override
+        public String toString() {
+            return query + "[page=" + page + ", size=" + pageSize + "]";
+        }
+    }
+
+    private static class CachedPage<T> {
+
+        private final PaginatedResult<T> result;
+        private final long remoteTimestamp;
+
+        private CachedPage(PaginatedResult<T> result, long remoteTimestamp) {
+            this.result = result;
+            this.remoteTimestamp = remoteTimestamp;
+        }
+    }
+
+    private final PageSource<T> source;
+    private final PageListener<T> listener;
+    private final Executor callbackExecutor;
+    private final ExecutorService executor;
+    private final Map<PageKey, CachedPage<T>> pages;
+    private final Map<PageKey, Future<?>> inFlight = new HashMap<>();
+
+    private String query;
+    private int pageSize = 10;
+    private int currentPage = 1;
+    private volatile long generation;
+
+    /**
+     * 创建分页加载器
+     *
+     * @param name             后台线程名称前缀
+     * @param source           数据源
+     * @param listener         当前页面回调
+     * @param callbackExecutor 执行回调的线程，例如 {@code Platform::runLater}
+     * @param maxPages         最多缓存的页面数
+     */
+    public AsyncPager(String name, PageSource<T> source, PageListener<T> listener, Executor callbackExecutor, int maxPages) {
+        this.source = source;
+        this.listener = listener;
+        this.callbackExecutor = callbackExecutor;
+        this.executor = Executors.newFixedThreadPool(2, r -> {
+            Thread thread = new Thread(r, name + "-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.pages = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageKey, CachedPage<T>> eldest) {
+                return size() > maxPages;
+            }
+        };
+    }
+
+    /**
+     * 设置查询条件；条件变化时取消所有正在进行的请求
+     *
+     * @param query    查询条件（例如任务ID）
+     * @param pageSize 每页数量
+     */
+    public void setQuery(String query, int pageSize) {
+        if (Objects.equals(this.query, query) && this.pageSize == pageSize) {
+            return;
+        }
+        this.query = query;
+        this.pageSize = pageSize;
+        cancelAll();
+    }
+
+    /**
+     * 当前查询条件
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * 显示指定页面：有缓存时立即回调并在后台重新验证，否则在后台加载；之后预取相邻页面
+     *
+     * @param page 页码（从1开始）
+     */
+    public void showPage(int page) {
+        currentPage = Math.max(1, page);
+        PageKey key = new PageKey(query, currentPage, pageSize);
+        CachedPage<T> cached = pages.get(key);
+        if (cached != null) {
+            listener.pageLoaded(currentPage, cached.result);
+            if (System.currentTimeMillis() - cached.remoteTimestamp > REVALIDATE_INTERVAL_MS) {
+                load(key, true);
+            }
+        } else {
+            load(key, false);
+        }
+        prefetch(currentPage - 1);
+        prefetch(currentPage + 1);
+    }
+
+    /**
+     * 当前页码
+     */
+    public int getCurrentPage() {
+        return currentPage;
+    }
+
+    /**
+     * 缓存的页面数
+     */
+    int getCachedPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * 丢弃指定查询条件的所有缓存页面，例如在强制刷新之后
+     */
+    public void invalidate(String query) {
+        pages.keySet().removeIf(key -> Objects.equals(key.query, query));
+        cancelAll();
+    }
+
+    /**
+     * 停止后台线程
+     */
+    public void shutdown() {
+        cancelAll();
+        executor.shutdownNow();
+    }
+
+    private void cancelAll() {
+        for (Future<?> future : new ArrayList<>(inFlight.values())) {
+            future.cancel(true);
+        }
+        if (!inFlight.isEmpty()) {
+            logger.debug("Cancelled {} stale page requests", inFlight.size());
+        }
+        inFlight.clear();
+        generation++;
+    }
+
+    private void prefetch(int page) {
+        if (page < 1) {
+            return;
+        }
+        CachedPage<T> current = pages.get(new PageKey(query, currentPage, pageSize));
+        if (current != null && (long) (page - 1) * pageSize >= current.result.getTotal()) {
+            return;
+        }
+        PageKey key = new PageKey(query, page, pageSize);
+        if (!pages.containsKey(key)) {
+            load(key, false);
+        }
+    }
+
+    private void load(PageKey key, boolean hasCached) {
+        if (inFlight.containsKey(key) || executor.isShutdown()) {
+            return;
+        }
+        long gen = generation;
+        Future<?> future = executor.submit(() -> {
+            boolean shown = hasCached;
+            try {
+                if (!hasCached) {
+                    PaginatedResult<T> cached = source.loadCached(key.query, key.page, key.pageSize);
+                    if (cached != null && !cached.getItems().isEmpty()) {
+                        shown = true;
+                        callbackExecutor.execute(() -> deliver(key, gen, cached, 0L, false));
+                    }
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    callbackExecutor.execute(() -> finish(key, gen));
+                    return;
+                }
+                PaginatedResult<T> remote = source.loadRemote(key.query, key.page, key.pageSize);
+                long timestamp = System.currentTimeMillis();
+                callbackExecutor.execute(() -> deliver(key, gen, remote, timestamp, true));
+            } catch (Exception e) {
+                boolean hadData = shown;
+                if (hadData || gen != generation) {
+                    logger.debug("Failed to revalidate page {}: {}", key, e.getMessage());
+                } else {
+                    logger.warn("Failed to load page {}: {}", key, e.getMessage());
+                }
+                callbackExecutor.execute(() -> {
+                    if (!finish(key, gen) || hadData) {
+                        return;
+                    }
+                    if (isCurrent(key)) {
+                        listener.pageFailed(key.page, e);
+                    }
+                });
+            }
+        });
+        inFlight.put(key, future);
+    }
+
+    /**
+     * 保存加载结果，如果是当前页面则回调
+     */
+    private void deliver(PageKey key, long gen, PaginatedResult<T> result, long remoteTimestamp, boolean done) {
+        if (gen != generation) {
+            return;
+        }
+        if (done) {
+            inFlight.remove(key);
+        }
+        pages.put(key, new CachedPage<>(result, remoteTimestamp));
+        if (isCurrent(key)) {
+            listener.pageLoaded(key.page, result);
+        }
+    }
+
+    /**
+     * 结束一个请求；返回结果是否仍然有效
+     */
+    private boolean finish(PageKey key, long gen) {
+        if (gen != generation) {
+            return false;
+        }
+        inFlight.remove(key);
+        return true;
+    }
+
+    private boolean isCurrent(PageKey key) {
+        return key.page == currentPage && key.pageSize == pageSize && Objects.equals(key.query, query);
+    }
+}
@@ -0,0 +1,69 @@
+package qupath.extension.pathscope.logic;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 全局带宽限制器（令牌桶），所有下载共享同一个桶
+ * <p>
+ * 令牌按 {@code bytesPerSecond} 的速率补充，桶容量为1秒的流量。
+ * 读取数据后调用 {@link #acquire(int)}，令牌不足时当前线程会等待，
+ * 从而把所有下载的总吞吐量限制在设定值以内，避免挤占网络存储上的切片读取。
+ */
+public class BandwidthLimiter {
+
+    private volatile long bytesPerSecond;
+
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+
+    /**
+     * 创建带宽限制器
+     *
+     * @param bytesPerSecond 每秒最大字节数，小于等于0表示不限制
+     */
+    public BandwidthLimiter(long bytesPerSecond) {
+        setBytesPerSecond(bytesPerSecond);
+    }
+
+    /**
+     * 获取每秒最大字节数，0表示不限制
+     */
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * 设置每秒最大字节数，小于等于0表示不限制
+     */
+    public synchronized void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        this.tokens = Math.min(tokens, this.bytesPerSecond);
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * 消耗指定字节数的令牌，令牌不足时等待
+     * <p>
+     * 允许令牌暂时为负（欠账），等待时间按欠账计算，这样大块读取也不会一直等待。
+     *
+     * @param bytes 刚读取的字节数
+     * @throws InterruptedException 等待时线程被中断
+     */
+    public void acquire(int bytes) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            long rate = bytesPerSecond;
+            if (rate <= 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            tokens = Math.min(rate, tokens + (now - lastRefillNanos) * rate / 1e9);
+            lastRefillNanos = now;
+            tokens -= bytes;
+            waitNanos = tokens < 0 ? (long) (-tokens * 1e9 / rate) : 0;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
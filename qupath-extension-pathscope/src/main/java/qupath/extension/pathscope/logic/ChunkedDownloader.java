@@ -0,0 +1,742 @@
+package qupath.extension.pathscope.logic;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import okhttp3.Headers;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 分块下载器，使用HTTP Range请求以多个连接并行下载同一个文件
+ * <p>
+ * 数据先写入预分配的 {@code .part} 文件（按位置写入 {@link FileChannel}），
+ * 每个分块完成后把完成状态保存到状态文件中，因此中断的下载可以从上次停止的位置继续。
+ * 如果服务器不支持Range请求，或者没有提供可用于 {@code If-Range} 的强验证器（强ETag或 {@code Last-Modified}），
+ * 则退化为单连接顺序下载（不可续传），避免把不同版本文件的分块拼接在一起。
+ * <p>
+ * 如果调用方或服务器（{@code Repr-Digest}、{@code Digest}、{@code X-Checksum-Sha256}/{@code X-Checksum-Md5} 响应头）
+ * 提供了校验和，下载过程中会用 {@link StreamingDigest} 同步计算校验和，并在文件移动到最终位置之前进行比较。
+ */
+public class ChunkedDownloader {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedDownloader.class);
+
+    private static final Pattern CONTENT_RANGE_PATTERN = Pattern.compile("bytes\\s+(\\d+)-(\\d+)/(\\d+|\\*)");
+    private static final Pattern DIGEST_PATTERN = Pattern.compile("\\s*([\\w-]+)\\s*=\\s*:?([A-Za-z0-9+/=]+):?\\s*");
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_RETRIES = 3;
+    private static final long RETRY_DELAY_MS = 250;
+
+    private final OkHttpClient client;
+    private final String authToken;
+    private final int connections;
+    private final long chunkSize;
+    private final BandwidthLimiter limiter;
+    private final BooleanSupplier stopRequested;
+
+    private final Gson gson = new Gson();
+
+    private boolean verifyChecksum = true;
+    private String expectedAlgorithm;
+    private String expectedChecksum;
+    private volatile String checksumAlgorithm;
+    private volatile String checksum;
+
+    /**
+     * 下载被暂停或取消时抛出，已完成分块的状态会保留
+     */
+    public static class DownloadStoppedException extends IOException {
+        public DownloadStoppedException() {
+            super("Download stopped");
+        }
+    }
+
+    /**
+     * 下载过程中文件在服务器上发生变化（{@code If-Range} 不再匹配）时抛出，不会重试；
+     * 再次下载时验证器不同，因此会重新开始
+     */
+    public static class FileChangedException extends IOException {
+        public FileChangedException(int index) {
+            super("WSI changed on the server while downloading chunk " + index);
+        }
+    }
+
+    /**
+     * 下载完成后的校验和与服务器提供的校验和不一致时抛出，不完整的文件和状态会被删除
+     */
+    public static class ChecksumMismatchException extends IOException {
+
+        private final String algorithm;
+        private final String expected;
+        private final String actual;
+
+        public ChecksumMismatchException(String algorithm, String expected, String actual) {
+            super("Checksum mismatch (" + algorithm + "): expected " + expected + ", but was " + actual);
+            this.algorithm = algorithm;
+            this.expected = expected;
+            this.actual = actual;
+        }
+
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        public String getExpected() {
+            return expected;
+        }
+
+        public String getActual() {
+            return actual;
+        }
+    }
+
+    /**
+     * 分块下载的持久化状态
+     */
+    static class DownloadState {
+        String url;
+        String validator;
+        long totalBytes;
+        long chunkSize;
+        boolean[] completed;
+
+        int nChunks() {
+            return completed.length;
+        }
+
+        long chunkStart(int index) {
+            return index * chunkSize;
+        }
+
+        long chunkEnd(int index) {
+            return Math.min(totalBytes, (index + 1) * chunkSize) - 1;
+        }
+
+        long completedBytes() {
+            long bytes = 0;
+            for (int i = 0; i < completed.length; i++) {
+                if (completed[i]) {
+                    bytes += chunkEnd(i) - chunkStart(i) + 1;
+                }
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * 创建分块下载器
+     *
+     * @param client      HTTP客户端
+     * @param authToken   认证令牌（可为null）
+     * @param connections 并行连接数
+     * @param chunkSize   每个分块的字节数
+     */
+    public ChunkedDownloader(OkHttpClient client, String authToken, int connections, long chunkSize) {
+        this(client, authToken, connections, chunkSize, null, null);
+    }
+
+    /**
+     * 创建分块下载器
+     *
+     * @param client        HTTP客户端
+     * @param authToken     认证令牌（可为null）
+     * @param connections   并行连接数
+     * @param chunkSize     每个分块的字节数
+     * @param limiter       全局带宽限制器（可为null）
+     * @param stopRequested 返回true时停止下载（用于暂停和取消，可为null）
+     */
+    public ChunkedDownloader(OkHttpClient client, String authToken, int connections, long chunkSize,
+                             BandwidthLimiter limiter, BooleanSupplier stopRequested) {
+        this.client = Objects.requireNonNull(client);
+        this.authToken = authToken;
+        this.connections = Math.max(1, connections);
+        this.chunkSize = Math.max(BUFFER_SIZE, chunkSize);
+        this.limiter = limiter;
+        this.stopRequested = stopRequested;
+    }
+
+    /**
+     * 设置是否在下载时计算并比较校验和（默认启用）
+     */
+    public void setVerifyChecksum(boolean verifyChecksum) {
+        this.verifyChecksum = verifyChecksum;
+    }
+
+    /**
+     * 设置期望的校验和，优先于服务器响应头中的校验和
+     *
+     * @param algorithm 摘要算法，例如 {@code SHA-256} 或 {@code MD5}
+     * @param checksum  十六进制的校验和（为null或空时忽略）
+     */
+    public void setExpectedChecksum(String algorithm, String checksum) {
+        if (algorithm == null || checksum == null || checksum.isBlank()) {
+            this.expectedAlgorithm = null;
+            this.expectedChecksum = null;
+        } else {
+            this.expectedAlgorithm = algorithm;
+            this.expectedChecksum = checksum.trim();
+        }
+    }
+
+    /**
+     * 最近一次下载计算的校验和（小写十六进制），未计算时返回null
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * 最近一次下载计算校验和使用的算法，未计算时返回null
+     */
+    public String getChecksumAlgorithm() {
+        return checksumAlgorithm;
+    }
+
+    /**
+     * 删除未完成下载的临时文件和状态文件（用于取消下载）
+     */
+    public static void discard(String savePath, File stateFile) throws IOException {
+        Files.deleteIfExists(new File(savePath + ".part").toPath());
+        deleteState(stateFile);
+    }
+
+    /**
+     * 下载文件，如果存在有效的状态文件则继续之前的下载
+     *
+     * @param url       下载URL
+     * @param savePath  最终保存路径
+     * @param stateFile 分块完成状态文件
+     * @param listener  进度回调（可为null）
+     * @return 下载成功返回true
+     * @throws IOException 下载失败时抛出，已完成的分块状态会保留以便续传
+     */
+    public boolean download(String url, String savePath, File stateFile,
+                            ApiClient.DownloadProgressListener listener) throws IOException {
+        if (url == null || url.isEmpty()) {
+            throw new IOException("WSI download URL is null or empty");
+        }
+        if (!url.startsWith("http://") && !url.startsWith("https://")) {
+            logger.warn("WSI download URL missing protocol prefix, adding http://");
+            url = "http://" + url;
+        }
+
+        File target = new File(savePath);
+        File partFile = new File(savePath + ".part");
+        File saveDir = target.getAbsoluteFile().getParentFile();
+        if (saveDir != null && !saveDir.exists()) {
+            saveDir.mkdirs();
+        }
+
+        // 探测文件大小以及服务器是否支持Range请求
+        Request probe = newRequest(url)
+                .addHeader("Range", "bytes=0-0")
+                .build();
+        Response probeResponse = client.newCall(probe).execute();
+        DownloadState state;
+        String[] expected;
+        StreamingDigest digest;
+        try {
+            expected = resolveExpectedChecksum(probeResponse);
+            if (probeResponse.code() != 206) {
+                if (!probeResponse.isSuccessful()) {
+                    throw new IOException("Failed to download WSI: " + probeResponse.code() + " " + probeResponse.message());
+                }
+                // 不支持Range，直接使用这次响应顺序写入
+                logger.info("Server does not support range requests, falling back to single connection: {}", url);
+                downloadWhole(probeResponse, expected, partFile, target, stateFile, listener);
+                return true;
+            }
+            long totalBytes = parseTotalBytes(probeResponse.header("Content-Range"));
+            if (totalBytes < 0) {
+                throw new IOException("Unable to determine WSI size from Content-Range: " + probeResponse.header("Content-Range"));
+            }
+            String validator = getIfRangeValidator(probeResponse.headers());
+            state = validator == null ? null : loadOrCreateState(stateFile, partFile, url, validator, totalBytes);
+            digest = state == null ? null : createDigest(expected, totalBytes);
+        } finally {
+            probeResponse.close();
+        }
+
+        if (state == null) {
+            // 没有强验证器时无法确认各分块来自同一版本的文件，重新请求整个文件
+            logger.info("Server does not provide a strong validator for range requests, falling back to single connection: {}", url);
+            try (Response response = client.newCall(newRequest(url).build()).execute()) {
+                if (!response.isSuccessful()) {
+                    throw new IOException("Failed to download WSI: " + response.code() + " " + response.message());
+                }
+                downloadWhole(response, expected, partFile, target, stateFile, listener);
+            }
+            return true;
+        }
+
+        AtomicLong downloaded = new AtomicLong(state.completedBytes());
+        logger.info("Starting chunked download of {} bytes in {} chunks ({} already complete), connections={}",
+                state.totalBytes, state.nChunks(), downloaded.get(), connections);
+        if (listener != null) {
+            listener.onProgress(downloaded.get(), state.totalBytes);
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(partFile, "rw")) {
+            if (raf.length() != state.totalBytes) {
+                raf.setLength(state.totalBytes);
+            }
+            FileChannel channel = raf.getChannel();
+
+            AtomicInteger nextChunk = new AtomicInteger(0);
+            int nWorkers = Math.min(connections, state.nChunks());
+            ExecutorService pool = Executors.newFixedThreadPool(nWorkers, r -> {
+                Thread t = new Thread(r, "pathscope-chunk-download");
+                t.setDaemon(true);
+                return t;
+            });
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                String finalUrl = url;
+                for (int w = 0; w < nWorkers; w++) {
+                    futures.add(pool.submit(() -> {
+                        int index;
+                        while ((index = nextChunk.getAndIncrement()) < state.nChunks()) {
+                            if (state.completed[index]) {
+                                continue;
+                            }
+                            downloadChunkWithRetry(finalUrl, state, index, channel, downloaded, digest, listener);
+                            markCompleted(state, index, stateFile);
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Download interrupted", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException("Chunk download failed: " + cause.getMessage(), cause);
+            } finally {
+                pool.shutdownNow();
+            }
+            channel.force(false);
+            if (digest != null) {
+                verify(digest, expected, channel, state.totalBytes, savePath, stateFile);
+            }
+        }
+
+        moveIntoPlace(partFile, target);
+        deleteState(stateFile);
+        logger.debug("Chunked download successful, saved to: {}", savePath);
+        return true;
+    }
+
+    /**
+     * 使用单个连接顺序写入整个响应体，并在需要时校验
+     */
+    private void downloadWhole(Response response, String[] expected, File partFile, File target, File stateFile,
+                               ApiClient.DownloadProgressListener listener) throws IOException {
+        deleteState(stateFile);
+        ResponseBody body = response.body();
+        StreamingDigest digest = createDigest(expected, body == null ? -1 : body.contentLength());
+        long totalBytes = writeWholeBody(body, partFile, digest, listener);
+        if (digest != null) {
+            try (FileChannel channel = FileChannel.open(partFile.toPath())) {
+                verify(digest, expected, channel, totalBytes, target.getPath(), stateFile);
+            }
+        }
+        moveIntoPlace(partFile, target);
+    }
+
+    /**
+     * 获取可用于 {@code If-Range} 的验证器
+     * <p>
+     * 弱ETag（{@code W/} 前缀）不能用于 {@code If-Range}，因此优先使用强ETag，其次使用 {@code Last-Modified}。
+     * 只有比 {@code Date} 至少早1秒的修改时间才是强验证器。
+     *
+     * @return 验证器，没有可用的强验证器时返回null
+     */
+    static String getIfRangeValidator(Headers headers) {
+        String etag = headers.get("ETag");
+        if (etag != null && !etag.isBlank() && !etag.trim().startsWith("W/")) {
+            return etag.trim();
+        }
+        Date lastModified = headers.getDate("Last-Modified");
+        if (lastModified == null) {
+            return null;
+        }
+        Date date = headers.getDate("Date");
+        if (date != null && date.getTime() - lastModified.getTime() < 1000) {
+            return null;
+        }
+        return headers.get("Last-Modified").trim();
+    }
+
+    private Request.Builder newRequest(String url) {
+        Request.Builder builder = new Request.Builder().url(url);
+        if (authToken != null) {
+            builder.addHeader("Authorization", "JWT " + authToken);
+        }
+        return builder;
+    }
+
+    private void downloadChunkWithRetry(String url, DownloadState state, int index, FileChannel channel,
+                                        AtomicLong downloaded, StreamingDigest digest,
+                                        ApiClient.DownloadProgressListener listener) throws IOException, InterruptedException {
+        IOException lastException = null;
+        for (int attempt = 0; attempt <= MAX_RETRIES; attempt++) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            checkStopped();
+            if (attempt > 0) {
+                logger.warn("Retrying chunk {} (attempt {}/{}): {}", index, attempt, MAX_RETRIES, lastException.getMessage());
+                Thread.sleep(RETRY_DELAY_MS * attempt);
+            }
+            try {
+                downloadChunk(url, state, index, channel, downloaded, digest, listener);
+                return;
+            } catch (DownloadStoppedException | FileChangedException e) {
+                throw e;
+            } catch (IOException e) {
+                lastException = e;
+            }
+        }
+        throw lastException;
+    }
+
+    /**
+     * 下载单个分块，按位置写入文件
+     * <p>
+     * 失败时本分块已计入的进度会被回滚，重试时重新下载整个分块
+     */
+    private void downloadChunk(String url, DownloadState state, int index, FileChannel channel,
+                               AtomicLong downloaded, StreamingDigest digest,
+                               ApiClient.DownloadProgressListener listener) throws IOException {
+        long start = state.chunkStart(index);
+        long end = state.chunkEnd(index);
+        Request.Builder builder = newRequest(url).addHeader("Range", "bytes=" + start + "-" + end);
+        builder.addHeader("If-Range", state.validator);
+
+        long position = start;
+        try (Response response = client.newCall(builder.build()).execute()) {
+            if (response.code() == 200) {
+                // If-Range不匹配时服务器返回整个文件：下载开始后文件已在服务器上改变
+                throw new FileChangedException(index);
+            }
+            if (response.code() != 206) {
+                throw new IOException("Unexpected response for chunk " + index + ": " + response.code() + " " + response.message());
+            }
+            ResponseBody body = response.body();
+            if (body == null) {
+                throw new IOException("Empty response body for chunk " + index);
+            }
+            byte[] buffer = new byte[BUFFER_SIZE];
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+            try (InputStream inputStream = body.byteStream()) {
+                int bytesRead;
+                while (position <= end && (bytesRead = inputStream.read(buffer, 0, (int) Math.min(buffer.length, end - position + 1))) != -1) {
+                    if (digest != null) {
+                        digest.update(position, buffer, 0, bytesRead);
+                    }
+                    byteBuffer.clear().limit(bytesRead);
+                    while (byteBuffer.hasRemaining()) {
+                        position += channel.write(byteBuffer, position);
+                    }
+                    long total = downloaded.addAndGet(bytesRead);
+                    if (listener != null) {
+                        listener.onProgress(total, state.totalBytes);
+                    }
+                    throttle(bytesRead);
+                }
+            }
+            if (position != end + 1) {
+                throw new IOException("Incomplete chunk " + index + ": expected " + (end - start + 1) + " bytes, received " + (position - start));
+            }
+        } catch (IOException e) {
+            downloaded.addAndGet(-(position - start));
+            throw e;
+        }
+    }
+
+    /**
+     * 按全局带宽限制等待，并检查是否需要停止
+     */
+    private void throttle(int bytesRead) throws IOException {
+        if (limiter != null) {
+            try {
+                limiter.acquire(bytesRead);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DownloadStoppedException();
+            }
+        }
+        checkStopped();
+    }
+
+    private void checkStopped() throws DownloadStoppedException {
+        if (stopRequested != null && stopRequested.getAsBoolean()) {
+            throw new DownloadStoppedException();
+        }
+    }
+
+    /**
+     * 顺序写入整个响应体
+     *
+     * @return 写入的字节数
+     */
+    private long writeWholeBody(ResponseBody body, File partFile, StreamingDigest digest,
+                                ApiClient.DownloadProgressListener listener) throws IOException {
+        if (body == null) {
+            throw new IOException("Empty response body");
+        }
+        long contentLength = body.contentLength();
+        try (InputStream inputStream = body.byteStream();
+             FileChannel channel = FileChannel.open(partFile.toPath(),
+                     java.nio.file.StandardOpenOption.CREATE,
+                     java.nio.file.StandardOpenOption.WRITE,
+                     java.nio.file.StandardOpenOption.TRUNCATE_EXISTING)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+            long totalBytesRead = 0;
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                if (digest != null) {
+                    digest.update(totalBytesRead, buffer, 0, bytesRead);
+                }
+                byteBuffer.clear().limit(bytesRead);
+                while (byteBuffer.hasRemaining()) {
+                    channel.write(byteBuffer);
+                }
+                totalBytesRead += bytesRead;
+                if (listener != null) {
+                    listener.onProgress(totalBytesRead, contentLength);
+                }
+                throttle(bytesRead);
+            }
+            return totalBytesRead;
+        }
+    }
+
+    /**
+     * 确定期望的校验和：优先使用调用方设置的值，其次使用服务器响应头
+     *
+     * @return {算法, 十六进制校验和}，没有可用的校验和或未启用校验时返回null
+     */
+    private String[] resolveExpectedChecksum(Response response) {
+        if (!verifyChecksum) {
+            return null;
+        }
+        if (expectedChecksum != null) {
+            return new String[]{expectedAlgorithm, expectedChecksum};
+        }
+        String[] fromHeader = parseDigestHeader(response.header("Repr-Digest"));
+        if (fromHeader == null) {
+            fromHeader = parseDigestHeader(response.header("Digest"));
+        }
+        if (fromHeader == null && response.header("X-Checksum-Sha256") != null) {
+            fromHeader = new String[]{"SHA-256", response.header("X-Checksum-Sha256").trim()};
+        }
+        if (fromHeader == null && response.header("X-Checksum-Md5") != null) {
+            fromHeader = new String[]{"MD5", response.header("X-Checksum-Md5").trim()};
+        }
+        return fromHeader;
+    }
+
+    private StreamingDigest createDigest(String[] expected, long totalBytes) {
+        checksum = null;
+        checksumAlgorithm = null;
+        if (expected == null) {
+            return null;
+        }
+        try {
+            // 暂存上限固定，不随分块大小和连接数增长；超出的部分在下载完成后从文件中顺序读取
+            return new StreamingDigest(expected[0], Math.max(0, totalBytes), StreamingDigest.DEFAULT_MAX_BUFFERED_BYTES);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Unable to verify download: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 完成校验和计算并与期望值比较，不一致时删除临时文件和状态文件
+     */
+    private void verify(StreamingDigest digest, String[] expected, FileChannel channel, long totalBytes,
+                        String savePath, File stateFile) throws IOException {
+        long start = System.nanoTime();
+        String actual = digest.finish(channel);
+        checksumAlgorithm = digest.getAlgorithm();
+        checksum = actual;
+        logger.debug("{} of {} bytes computed in {} ms after download ({} bytes read back from disk)",
+                digest.getAlgorithm(), totalBytes, (System.nanoTime() - start) / 1_000_000, digest.getRereadBytes());
+        if (!StreamingDigest.matches(expected[1], actual)) {
+            channel.close();
+            discard(savePath, stateFile);
+            throw new ChecksumMismatchException(digest.getAlgorithm(), expected[1], actual);
+        }
+        logger.info("Download verified ({}={})", digest.getAlgorithm(), actual);
+    }
+
+    /**
+     * 解析 {@code Repr-Digest}（RFC 9530）或 {@code Digest}（RFC 3230）响应头中的SHA-256或MD5校验和
+     *
+     * @return {算法, 十六进制校验和}，没有支持的算法时返回null
+     */
+    static String[] parseDigestHeader(String header) {
+        if (header == null || header.isBlank()) {
+            return null;
+        }
+        String[] md5 = null;
+        for (String part : header.split(",")) {
+            Matcher matcher = DIGEST_PATTERN.matcher(part);
+            if (!matcher.matches()) {
+                continue;
+            }
+            String algorithm = matcher.group(1).toLowerCase(Locale.ROOT);
+            byte[] bytes;
+            try {
+                bytes = Base64.getDecoder().decode(matcher.group(2));
+            } catch (IllegalArgumentException e) {
+                logger.debug("Invalid digest value: {}", part);
+                continue;
+            }
+            if ("sha-256".equals(algorithm)) {
+                return new String[]{"SHA-256", StreamingDigest.toHex(bytes)};
+            }
+            if ("md5".equals(algorithm)) {
+                md5 = new String[]{"MD5", StreamingDigest.toHex(bytes)};
+            }
+        }
+        return md5;
+    }
+
+    private DownloadState loadOrCreateState(File stateFile, File partFile, String url, String validator, long totalBytes) throws IOException {
+        DownloadState state = readState(stateFile);
+        if (state != null && partFile.exists()
+                && url.equals(state.url)
+                && state.totalBytes == totalBytes
+                && state.chunkSize == chunkSize
+                && Objects.equals(validator, state.validator)
+                && state.completed != null
+                && state.completed.length == nChunks(totalBytes, chunkSize)) {
+            logger.info("Resuming download from saved state: {}", stateFile.getAbsolutePath());
+            return state;
+        }
+        if (state != null) {
+            logger.info("Saved download state does not match the current file, starting again");
+        }
+        state = new DownloadState();
+        state.url = url;
+        state.validator = validator;
+        state.totalBytes = totalBytes;
+        state.chunkSize = chunkSize;
+        state.completed = new boolean[nChunks(totalBytes, chunkSize)];
+        Files.deleteIfExists(partFile.toPath());
+        writeState(state, stateFile);
+        return state;
+    }
+
+    private static int nChunks(long totalBytes, long chunkSize) {
+        return (int) Math.max(1, (totalBytes + chunkSize - 1) / chunkSize);
+    }
+
+    private DownloadState readState(File stateFile) {
+        if (stateFile == null || !stateFile.exists()) {
+            return null;
+        }
+        try (FileReader reader = new FileReader(stateFile)) {
+            return gson.fromJson(reader, DownloadState.class);
+        } catch (IOException | JsonSyntaxException e) {
+            logger.warn("Failed to read download state {}: {}", stateFile.getAbsolutePath(), e.getMessage());
+            return null;
+        }
+    }
+
+    private void markCompleted(DownloadState state, int index, File stateFile) throws IOException {
+        synchronized (state) {
+            state.completed[index] = true;
+            writeState(state, stateFile);
+        }
+    }
+
+    /**
+     * 先写入临时文件再替换，避免写入中途崩溃导致状态文件损坏
+     */
+    private void writeState(DownloadState state, File stateFile) throws IOException {
+        if (stateFile == null) {
+            return;
+        }
+        File dir = stateFile.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+        File tempFile = new File(stateFile.getPath() + ".tmp");
+        try (FileWriter writer = new FileWriter(tempFile)) {
+            gson.toJson(state, writer);
+        }
+        moveIntoPlace(tempFile, stateFile);
+    }
+
+    private static void deleteState(File stateFile) throws IOException {
+        if (stateFile != null) {
+            Files.deleteIfExists(stateFile.toPath());
+        }
+    }
+
+    private static void moveIntoPlace(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * 从Content-Range头中解析文件总大小
+     *
+     * @return 文件总大小，无法解析时返回-1
+     */
+    static long parseTotalBytes(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        Matcher matcher = CONTENT_RANGE_PATTERN.matcher(contentRange.trim());
+        if (!matcher.matches() || "*".equals(matcher.group(3))) {
+            return -1;
+        }
+        return Long.parseLong(matcher.group(3));
+    }
+}
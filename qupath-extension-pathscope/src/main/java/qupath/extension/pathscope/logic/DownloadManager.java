@@ -7,31 +7,108 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qupath.extension.pathscope.data.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
 
 /**
  * 下载管理器，管理所有WSI下载任务的队列和并发执行
+ * <p>
+ * 等待中的任务保存在优先队列中，优先级高的先下载，相同优先级按添加顺序下载。
+ * 所有下载共享一个全局带宽限制器，并支持对单个任务暂停、恢复和取消。
+ * <p>
+ * 下载时同步计算校验和并与服务器提供的值比较；下载完成后由 {@link ImagePrewarmer} 在后台预热图像。
  */
 public class DownloadManager {
 
     private static final Logger logger = LoggerFactory.getLogger(DownloadManager.class);
 
+    /**
+     * 队列顺序：优先级从高到低，相同优先级先进先出
+     */
+    private static final Comparator<DownloadTask> QUEUE_ORDER =
+            Comparator.comparingInt(DownloadTask::getPriority).reversed()
+                    .thenComparingLong(DownloadTask::getSequence);
+
     private static DownloadManager instance;
 
-    private final ApiClient apiClient;
-    private final CacheManager cacheManager;
+    private final Transfer transfer;
+    private final Executor uiExecutor;
     private final ObservableList<DownloadTask> downloadTasks = FXCollections.observableArrayList();
-    private ExecutorService executorService;
-    private int maxConcurrent;
+    private final PriorityBlockingQueue<DownloadTask> queue = new PriorityBlockingQueue<>(11, QUEUE_ORDER);
+    private final BandwidthLimiter bandwidthLimiter;
+    private final DownloadProgressMonitor progressMonitor;
+    private final AtomicLong sequenceCounter = new AtomicLong();
+    private final AtomicInteger priorityCounter = new AtomicInteger();
+    private final List<Thread> workers = new ArrayList<>();
 
     private DownloadManager(ApiClient apiClient) {
-        this.apiClient = apiClient;
-        this.cacheManager = new CacheManager();
-        this.maxConcurrent = Configuration.getInstance().getMaxConcurrentDownloads();
-        this.executorService = Executors.newFixedThreadPool(maxConcurrent);
+        this.transfer = new ServerTransfer(apiClient, CacheManager.getInstance());
+        this.uiExecutor = Platform::runLater;
+        Configuration config = Configuration.getInstance();
+        this.bandwidthLimiter = new BandwidthLimiter(config.getMaxDownloadBytesPerSecond());
+        this.progressMonitor = new DownloadProgressMonitor(downloadTasks, DownloadProgressMonitor.DEFAULT_FRAME_RATE);
+        startWorkers(config.getMaxConcurrentDownloads());
+    }
+
+    /**
+     * 使用指定的传输实现和UI执行器创建下载管理器（用于测试，不依赖服务器和FX工具包）
+     */
+    DownloadManager(Transfer transfer, int maxConcurrent, BandwidthLimiter bandwidthLimiter, Executor uiExecutor,
+                    Function<LongConsumer, DownloadProgressMonitor.PulseSource> pulseFactory) {
+        this.transfer = transfer;
+        this.uiExecutor = uiExecutor;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.progressMonitor = new DownloadProgressMonitor(downloadTasks, DownloadProgressMonitor.DEFAULT_FRAME_RATE,
+                uiExecutor, pulseFactory);
+        startWorkers(maxConcurrent);
+    }
+
+    /**
+     * 单个WSI的实际传输，与队列调度分离
+     */
+    interface Transfer {
+
+        /**
+         * 下载任务对应的文件，应定期检查 {@link DownloadTask#isStopRequested()}
+         *
+         * @return 下载是否成功
+         * @throws ChunkedDownloader.DownloadStoppedException 任务被暂停或取消
+         */
+        boolean download(DownloadTask downloadTask, BandwidthLimiter bandwidthLimiter) throws IOException;
+
+        /**
+         * 删除已取消任务的部分下载
+         */
+        void discard(DownloadTask downloadTask) throws IOException;
+
+        /**
+         * 下载成功后调用（在FX线程）
+         */
+        void completed(DownloadTask downloadTask);
+
+        /**
+         * 关闭下载管理器时调用
+         */
+        default void shutdown() {
+        }
+    }
+
+    private void startWorkers(int maxConcurrent) {
+        for (int i = 0; i < maxConcurrent; i++) {
+            Thread worker = new Thread(this::runWorker, "pathscope-download-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
     }
 
     /**
@@ -61,8 +138,24 @@ public class DownloadManager {
         return downloadTasks;
     }
 
+    /**
+     * 获取全局带宽限制器
+     */
+    public BandwidthLimiter getBandwidthLimiter() {
+        return bandwidthLimiter;
+    }
+
+    /**
+     * 获取下载进度监视器（用于绑定总吞吐量等汇总信息）
+     */
+    public DownloadProgressMonitor getProgressMonitor() {
+        return progressMonitor;
+    }
+
     /**
      * 添加下载任务
+     * <p>
+     * 如果该WSI已有暂停的下载任务，则恢复该任务（从已完成的分块继续下载）。
      * @return 如果任务已存在返回false，否则返回true
      */
     public boolean addDownload(TaskFile taskFile, String savePath, Task task) {
@@ -74,52 +167,157 @@ public class DownloadManager {
                     logger.info("Download task already exists for WSI: {}", taskFile.getId());
                     return false;
                 }
+                if (status == DownloadTask.Status.PAUSED) {
+                    resume(dt);
+                    return true;
+                }
             }
         }
 
         DownloadTask downloadTask = new DownloadTask(taskFile, savePath, task);
-        Platform.runLater(() -> downloadTasks.add(downloadTask));
+        uiExecutor.execute(() -> downloadTasks.add(downloadTask));
 
         taskFile.setLocalStatus("downloading");
 
-        executorService.submit(() -> executeDownload(downloadTask));
+        enqueue(downloadTask);
         return true;
     }
 
+    /**
+     * 将任务提前到队列最前面（例如用户刚刚在任务列表中打开了该WSI）
+     *
+     * @return 如果任务在等待队列中并已提前返回true
+     */
+    public boolean prioritize(DownloadTask downloadTask) {
+        if (queue.remove(downloadTask)) {
+            downloadTask.setPriority(priorityCounter.incrementAndGet());
+            queue.add(downloadTask);
+            logger.debug("Prioritized download of WSI: {}", downloadTask.getTaskFile().getId());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 将指定WSI的等待中下载任务提前到队列最前面
+     *
+     * @return 如果找到等待中的任务并已提前返回true
+     */
+    public boolean prioritize(TaskFile taskFile) {
+        if (taskFile == null || taskFile.getId() == null) {
+            return false;
+        }
+        for (DownloadTask dt : queue) {
+            if (taskFile.getId().equals(dt.getTaskFile().getId())) {
+                return prioritize(dt);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 暂停下载任务，已完成的分块会保留，恢复时继续下载
+     */
+    public void pause(DownloadTask downloadTask) {
+        if (!downloadTask.isActive() || downloadTask.getStatus() == DownloadTask.Status.PAUSED) {
+            return;
+        }
+        downloadTask.requestPause();
+        // 仍在队列中的任务直接标记为暂停，正在下载的任务由下载线程处理
+        if (queue.remove(downloadTask)) {
+            uiExecutor.execute(() -> markPaused(downloadTask));
+        }
+    }
+
+    /**
+     * 恢复已暂停的下载任务
+     */
+    public void resume(DownloadTask downloadTask) {
+        if (downloadTask.getStatus() != DownloadTask.Status.PAUSED) {
+            return;
+        }
+        downloadTask.clearPauseRequest();
+        downloadTask.getTaskFile().setLocalStatus("downloading");
+        uiExecutor.execute(() -> downloadTask.setStatus(DownloadTask.Status.WAITING));
+        enqueue(downloadTask);
+    }
+
+    /**
+     * 取消下载任务，并删除已下载的部分
+     */
+    public void cancel(DownloadTask downloadTask) {
+        if (!downloadTask.isActive()) {
+            return;
+        }
+        downloadTask.requestCancel();
+        // 仍在队列中或已暂停的任务直接取消，正在下载的任务由下载线程处理
+        if (queue.remove(downloadTask) || downloadTask.getStatus() == DownloadTask.Status.PAUSED) {
+            finishCancel(downloadTask);
+        }
+    }
+
+    private void enqueue(DownloadTask downloadTask) {
+        downloadTask.setSequence(sequenceCounter.incrementAndGet());
+        queue.add(downloadTask);
+    }
+
+    private void runWorker() {
+        while (!Thread.currentThread().isInterrupted()) {
+            DownloadTask downloadTask;
+            try {
+                downloadTask = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                executeDownload(downloadTask);
+            } catch (RuntimeException e) {
+                logger.error("Unexpected error downloading WSI: {}", e.getMessage(), e);
+            }
+        }
+    }
+
     private void executeDownload(DownloadTask downloadTask) {
-        Platform.runLater(() -> downloadTask.setStatus(DownloadTask.Status.DOWNLOADING));
+        if (downloadTask.isStopRequested()) {
+            handleStopped(downloadTask);
+            return;
+        }
+        uiExecutor.execute(() -> downloadTask.setStatus(DownloadTask.Status.DOWNLOADING));
+        progressMonitor.ensureRunning();
 
         try {
-            boolean success = apiClient.downloadWsiWithProgress(
-                    downloadTask.getTaskFile().getWsi().getDownloadUrl(),
-                    downloadTask.getSavePath(),
-                    (bytesRead, totalBytes) -> {
-                        Platform.runLater(() -> {
-                            downloadTask.setDownloadedBytes(bytesRead);
-                            downloadTask.setTotalBytes(totalBytes);
-                            if (totalBytes > 0) {
-                                downloadTask.setProgress((double) bytesRead / totalBytes);
-                            }
-                        });
-                    }
-            );
+            boolean success = transfer.download(downloadTask, bandwidthLimiter);
 
-            Platform.runLater(() -> {
+            uiExecutor.execute(() -> {
+                progressMonitor.publishNow(downloadTask);
+                downloadTask.resetTransferRate();
                 if (success) {
                     downloadTask.setStatus(DownloadTask.Status.COMPLETED);
                     downloadTask.setProgress(1.0);
                     downloadTask.getTaskFile().setLocalPath(downloadTask.getSavePath());
                     downloadTask.getTaskFile().setLocalStatus("downloaded");
-                    saveTaskCache(downloadTask);
+                    transfer.completed(downloadTask);
                 } else {
                     downloadTask.setStatus(DownloadTask.Status.FAILED);
                     downloadTask.setErrorMessage("下载返回失败");
                     downloadTask.getTaskFile().setLocalStatus("default");
                 }
             });
+        } catch (ChunkedDownloader.DownloadStoppedException e) {
+            handleStopped(downloadTask);
+        } catch (ChunkedDownloader.ChecksumMismatchException e) {
+            logger.error("Downloaded WSI {} failed verification: {}", downloadTask.getTaskFile().getId(), e.getMessage());
+            uiExecutor.execute(() -> {
+                downloadTask.resetTransferRate();
+                downloadTask.setStatus(DownloadTask.Status.FAILED);
+                downloadTask.setErrorMessage("文件校验失败，已删除下载的文件（" + e.getAlgorithm() + "）");
+                downloadTask.getTaskFile().setLocalStatus("default");
+            });
         } catch (IOException e) {
             logger.error("Failed to download WSI: {}", e.getMessage());
-            Platform.runLater(() -> {
+            uiExecutor.execute(() -> {
+                downloadTask.resetTransferRate();
                 downloadTask.setStatus(DownloadTask.Status.FAILED);
                 downloadTask.setErrorMessage(e.getMessage());
                 downloadTask.getTaskFile().setLocalStatus("default");
@@ -127,25 +325,49 @@ public class DownloadManager {
         }
     }
 
-    private void saveTaskCache(DownloadTask downloadTask) {
+    /**
+     * 处理被暂停或取消的任务
+     */
+    private void handleStopped(DownloadTask downloadTask) {
+        if (downloadTask.isCancelRequested()) {
+            finishCancel(downloadTask);
+        } else {
+            logger.info("Download paused for WSI: {}", downloadTask.getTaskFile().getId());
+            uiExecutor.execute(() -> markPaused(downloadTask));
+        }
+    }
+
+    private void markPaused(DownloadTask downloadTask) {
+        progressMonitor.publishNow(downloadTask);
+        downloadTask.resetTransferRate();
+        downloadTask.setStatus(DownloadTask.Status.PAUSED);
+        // 本地状态恢复为default，重新点击下载时会从已完成的分块继续
+        downloadTask.getTaskFile().setLocalStatus("default");
+    }
+
+    private void finishCancel(DownloadTask downloadTask) {
+        logger.info("Download cancelled for WSI: {}", downloadTask.getTaskFile().getId());
         try {
-            Task task = downloadTask.getTask();
-            if (task != null) {
-                cacheManager.saveTask(task);
-            }
+            transfer.discard(downloadTask);
         } catch (IOException e) {
-            logger.error("Failed to save task cache: {}", e.getMessage());
+            logger.warn("Failed to delete partial download: {}", e.getMessage());
         }
+        uiExecutor.execute(() -> {
+            downloadTask.resetTransferRate();
+            downloadTask.setStatus(DownloadTask.Status.CANCELLED);
+            downloadTask.getTaskFile().setLocalStatus("default");
+        });
     }
 
     /**
-     * 清除已完成和失败的任务
+     * 清除已完成、失败和已取消的任务
      */
     public void clearFinished() {
-        Platform.runLater(() -> {
+        uiExecutor.execute(() -> {
             downloadTasks.removeIf(dt ->
                     dt.getStatus() == DownloadTask.Status.COMPLETED ||
-                    dt.getStatus() == DownloadTask.Status.FAILED);
+                    dt.getStatus() == DownloadTask.Status.FAILED ||
+                    dt.getStatus() == DownloadTask.Status.CANCELLED);
         });
     }
 
@@ -153,8 +375,97 @@ public class DownloadManager {
      * 关闭下载管理器
      */
     public void shutdown() {
-        if (executorService != null) {
-            executorService.shutdownNow();
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        queue.clear();
+        transfer.shutdown();
+    }
+
+    /**
+     * 通过 {@link ChunkedDownloader} 从服务器下载，分块状态和任务缓存由 {@link CacheManager} 管理
+     */
+    private static class ServerTransfer implements Transfer {
+
+        private final ApiClient apiClient;
+        private final CacheManager cacheManager;
+
+        private ServerTransfer(ApiClient apiClient, CacheManager cacheManager) {
+            this.apiClient = apiClient;
+            this.cacheManager = cacheManager;
+        }
+
+        @Override
+        public boolean download(DownloadTask downloadTask, BandwidthLimiter bandwidthLimiter) throws IOException {
+            Configuration config = Configuration.getInstance();
+            ChunkedDownloader downloader = new ChunkedDownloader(
+                    apiClient.getDownloadClient(),
+                    apiClient.getAuthToken(),
+                    config.getDownloadConnections(),
+                    config.getDownloadChunkSize(),
+                    bandwidthLimiter,
+                    downloadTask::isStopRequested);
+            downloader.setVerifyChecksum(config.isVerifyDownloads());
+            Wsi wsi = downloadTask.getTaskFile().getWsi();
+            if (wsi.getSha256() != null) {
+                downloader.setExpectedChecksum("SHA-256", wsi.getSha256());
+            } else if (wsi.getMd5() != null) {
+                downloader.setExpectedChecksum("MD5", wsi.getMd5());
+            }
+            return downloader.download(
+                    wsi.getDownloadUrl(),
+                    downloadTask.getSavePath(),
+                    getDownloadStateFile(downloadTask),
+                    // 只记录到原子计数器，由进度监视器统一发布到UI
+                    downloadTask::recordTransfer
+            );
+        }
+
+        @Override
+        public void discard(DownloadTask downloadTask) throws IOException {
+            ChunkedDownloader.discard(downloadTask.getSavePath(), getDownloadStateFile(downloadTask));
+        }
+
+        @Override
+        public void completed(DownloadTask downloadTask) {
+            saveTaskCache(downloadTask);
+            if (Configuration.getInstance().isPrewarmDownloads()) {
+                ImagePrewarmer.getInstance().prewarm(downloadTask.getSavePath());
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            ImagePrewarmer.getInstance().shutdown();
+        }
+
+        /**
+         * 获取分块下载状态文件，保存在WSI缓存目录中以支持断点续传
+         */
+        private File getDownloadStateFile(DownloadTask downloadTask) {
+            String taskId = getTaskId(downloadTask);
+            cacheManager.ensureWsiCacheDirExists(taskId);
+            return new File(cacheManager.getWsiDownloadStatePath(taskId, downloadTask.getTaskFile().getId()));
+        }
+
+        private static String getTaskId(DownloadTask downloadTask) {
+            TaskFile taskFile = downloadTask.getTaskFile();
+            String taskId = downloadTask.getTask() != null ? downloadTask.getTask().getId() : taskFile.getTaskId();
+            if (taskId == null || taskId.isEmpty()) {
+                taskId = "unknown";
+            }
+            return taskId;
+        }
+
+        private void saveTaskCache(DownloadTask downloadTask) {
+            try {
+                Task task = downloadTask.getTask();
+                if (task != null) {
+                    cacheManager.saveTask(task);
+                }
+            } catch (IOException e) {
+                logger.error("Failed to save task cache: {}", e.getMessage());
+            }
         }
     }
 }
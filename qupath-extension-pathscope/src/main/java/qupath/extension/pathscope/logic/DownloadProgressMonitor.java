@@ -0,0 +1,180 @@
+package qupath.extension.pathscope.logic;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.beans.property.DoubleProperty;
+import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.SimpleDoubleProperty;
+import javafx.beans.property.SimpleIntegerProperty;
+import javafx.collections.ObservableList;
+import qupath.extension.pathscope.data.DownloadTask;
+
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+
+/**
+ * 下载进度监视器，以固定帧率把所有下载任务的进度批量发布到UI
+ * <p>
+ * 下载线程只更新 {@link DownloadTask} 中的原子计数器，不再为每次读取提交 {@code Platform.runLater}。
+ * 本类使用一个 {@link AnimationTimer} 在FX线程上按固定频率（默认10Hz）采样所有正在下载的任务，
+ * 一次性更新它们的属性，并计算平滑后的吞吐量。没有正在下载的任务时会自动停止，避免持续占用FX脉冲。
+ */
+public class DownloadProgressMonitor {
+
+    /**
+     * 默认发布频率（Hz）
+     */
+    public static final double DEFAULT_FRAME_RATE = 10.0;
+
+    /**
+     * 吞吐量指数平滑的时间常数（秒）
+     */
+    private static final double SMOOTHING_SECONDS = 3.0;
+
+    private final ObservableList<DownloadTask> downloadTasks;
+    private final long intervalNanos;
+
+    private final DoubleProperty totalBytesPerSecond = new SimpleDoubleProperty(0);
+    private final IntegerProperty activeDownloads = new SimpleIntegerProperty(0);
+
+    private final Executor uiExecutor;
+    private final PulseSource timer;
+
+    private boolean running;
+    private long lastPublishNanos = -1;
+
+    /**
+     * 创建进度监视器
+     *
+     * @param downloadTasks 下载任务列表（仅在FX线程修改）
+     * @param frameRate     每秒发布次数
+     */
+    public DownloadProgressMonitor(ObservableList<DownloadTask> downloadTasks, double frameRate) {
+        this(downloadTasks, frameRate, Platform::runLater, DownloadProgressMonitor::createAnimationTimer);
+    }
+
+    /**
+     * 使用指定的UI执行器和脉冲源创建进度监视器（用于测试，不依赖FX工具包）
+     *
+     * @param uiExecutor   UI线程执行器，{@link #ensureRunning()} 在非FX线程调用时通过它启动监视器
+     * @param pulseFactory 根据脉冲回调创建脉冲源
+     */
+    DownloadProgressMonitor(ObservableList<DownloadTask> downloadTasks, double frameRate,
+                            Executor uiExecutor, Function<LongConsumer, PulseSource> pulseFactory) {
+        this.downloadTasks = downloadTasks;
+        this.intervalNanos = (long) (1e9 / Math.max(1.0, frameRate));
+        this.uiExecutor = uiExecutor;
+        this.timer = pulseFactory.apply(this::pulse);
+    }
+
+    /**
+     * 在UI线程上按帧调用脉冲回调的定时器，默认实现为 {@link AnimationTimer}
+     */
+    interface PulseSource {
+
+        void start();
+
+        void stop();
+    }
+
+    private static PulseSource createAnimationTimer(LongConsumer onPulse) {
+        AnimationTimer timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                onPulse.accept(now);
+            }
+        };
+        return new PulseSource() {
+            @Override
+            public void start() {
+                timer.start();
+            }
+
+            @Override
+            public void stop() {
+                timer.stop();
+            }
+        };
+    }
+
+    /**
+     * 所有正在下载任务的平滑吞吐量之和（字节/秒）
+     */
+    public ReadOnlyDoubleProperty totalBytesPerSecondProperty() {
+        return totalBytesPerSecond;
+    }
+
+    /**
+     * 正在下载的任务数
+     */
+    public ReadOnlyIntegerProperty activeDownloadsProperty() {
+        return activeDownloads;
+    }
+
+    /**
+     * 确保监视器正在运行（可在任意线程调用）
+     */
+    public void ensureRunning() {
+        if (Platform.isFxApplicationThread()) {
+            startIfNeeded();
+        } else {
+            uiExecutor.execute(this::startIfNeeded);
+        }
+    }
+
+    /**
+     * 立即发布指定任务的最新进度（需在FX线程调用），例如在任务结束、状态变化之前
+     */
+    public void publishNow(DownloadTask downloadTask) {
+        downloadTask.publishProgress(0, SMOOTHING_SECONDS);
+    }
+
+    private void startIfNeeded() {
+        if (!running) {
+            running = true;
+            lastPublishNanos = -1;
+            timer.start();
+        }
+    }
+
+    /**
+     * 监视器是否正在运行（需在FX线程调用）
+     */
+    boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 采样所有正在下载的任务并发布进度，距上次发布不足一个间隔时跳过（需在FX线程调用）
+     *
+     * @param now 当前时间（纳秒）
+     */
+    void pulse(long now) {
+        if (lastPublishNanos >= 0 && now - lastPublishNanos < intervalNanos) {
+            return;
+        }
+        double elapsedSeconds = lastPublishNanos < 0 ? 0 : (now - lastPublishNanos) / 1e9;
+        lastPublishNanos = now;
+
+        int active = 0;
+        double totalRate = 0;
+        for (DownloadTask downloadTask : downloadTasks) {
+            if (downloadTask.getStatus() != DownloadTask.Status.DOWNLOADING) {
+                continue;
+            }
+            downloadTask.publishProgress(elapsedSeconds, SMOOTHING_SECONDS);
+            totalRate += downloadTask.getBytesPerSecond();
+            active++;
+        }
+        totalBytesPerSecond.set(totalRate);
+        activeDownloads.set(active);
+
+        if (active == 0) {
+            timer.stop();
+            running = false;
+        }
+    }
+}
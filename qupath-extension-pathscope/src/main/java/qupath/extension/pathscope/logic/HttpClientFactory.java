@@ -0,0 +1,196 @@
+package qupath.extension.pathscope.logic;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.Cache;
+import okhttp3.CacheControl;
+import okhttp3.ConnectionPool;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import qupath.extension.pathscope.data.Configuration;
+
+/**
+ * Creates the HTTP clients used to talk to the PathScope server.
+ * <p>
+ * API clients share one connection pool, so API calls reuse keep-alive connections.
+ * HTTP/2 is negotiated via ALPN when the server supports it (falling back to HTTP/1.1), and gzip
+ * is requested and decoded transparently by OkHttp.
+ * <p>
+ * Download clients (see {@link #createDownloadClient(OkHttpClient)}) use HTTP/1.1 and a separate connection pool,
+ * so that parallel range requests each get their own connection.
+ * <p>
+ * API clients also have an on-disk response cache. Requests built with {@link #REVALIDATE} always
+ * go to the server, but carry {@code If-None-Match}/{@code If-Modified-Since} for cached entries,
+ * so unchanged pages come back as {@code 304 Not Modified} without a body.
+ */
+public final class HttpClientFactory {
+
+    private static final Logger logger = LoggerFactory.getLogger(HttpClientFactory.class);
+
+    /**
+     * Default maximum size of the on-disk HTTP cache.
+     */
+    public static final long DEFAULT_CACHE_SIZE = 50L * 1024 * 1024;
+
+    /**
+     * Name of the HTTP cache directory inside the PathScope cache directory.
+     */
+    static final String CACHE_DIR_NAME = "http-cache";
+
+    /**
+     * Cache control for requests that should always be checked with the server,
+     * but may be answered from the cache if the server reports it has not changed.
+     */
+    public static final CacheControl REVALIDATE = new CacheControl.Builder()
+            .maxAge(0, TimeUnit.SECONDS)
+            .build();
+
+    private static final ConnectionPool CONNECTION_POOL = new ConnectionPool(8, 5, TimeUnit.MINUTES);
+
+    private static final ConnectionPool DOWNLOAD_CONNECTION_POOL = new ConnectionPool(16, 1, TimeUnit.MINUTES);
+
+    private static OkHttpClient sharedClient;
+    private static final Statistics sharedStatistics = new Statistics();
+
+    private HttpClientFactory() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Get the shared API client, caching responses in the PathScope cache directory.
+     */
+    public static synchronized OkHttpClient getSharedClient() {
+        if (sharedClient == null) {
+            File cacheDir = new File(Configuration.getInstance().getCachePath(), CACHE_DIR_NAME);
+            sharedClient = createClient(cacheDir, DEFAULT_CACHE_SIZE, sharedStatistics);
+        }
+        return sharedClient;
+    }
+
+    /**
+     * Get the request statistics of the shared API client.
+     */
+    public static Statistics getSharedStatistics() {
+        return sharedStatistics;
+    }
+
+    /**
+     * Create a client using the shared connection pool.
+     *
+     * @param cacheDir      directory for the HTTP response cache, or null to disable caching
+     * @param maxCacheBytes maximum size of the response cache
+     * @param statistics    optional statistics to update for each request
+     */
+    public static OkHttpClient createClient(File cacheDir, long maxCacheBytes, Statistics statistics) {
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .connectionPool(CONNECTION_POOL)
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectTimeout(15, TimeUnit.SECONDS)
+                .readTimeout(60, TimeUnit.SECONDS)
+                .retryOnConnectionFailure(true);
+        if (cacheDir != null) {
+            builder.cache(new Cache(cacheDir, maxCacheBytes));
+            logger.debug("HTTP cache directory: {}", cacheDir.getAbsolutePath());
+        }
+        if (statistics != null) {
+            builder.addInterceptor(statistics);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Derive a client for large file downloads from an API client.
+     * <p>
+     * The response cache is removed, so that downloads are never written to it.
+     * The client only uses HTTP/1.1 with its own connection pool: over HTTP/2, the parallel range requests
+     * made by {@link ChunkedDownloader} would be multiplexed over a single connection, so splitting a download
+     * wouldn't make it any faster.
+     */
+    public static OkHttpClient createDownloadClient(OkHttpClient client) {
+        return client.newBuilder()
+                .cache(null)
+                .protocols(List.of(Protocol.HTTP_1_1))
+                .connectionPool(DOWNLOAD_CONNECTION_POOL)
+                .build();
+    }
+
+    /**
+     * Counts requests and how many were answered from the cache after revalidation.
+     */
+    public static class Statistics implements Interceptor {
+
+        private final AtomicLong requestCount = new AtomicLong();
+        private final AtomicLong networkCount = new AtomicLong();
+        private final AtomicLong notModifiedCount = new AtomicLong();
+        private final AtomicLong bytesSaved = new AtomicLong();
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Response response = chain.proceed(chain.request());
+            requestCount.incrementAndGet();
+            Response networkResponse = response.networkResponse();
+            if (networkResponse != null) {
+                networkCount.incrementAndGet();
+            }
+            Response cacheResponse = response.cacheResponse();
+            if (cacheResponse != null && (networkResponse == null || networkResponse.code() == 304)) {
+                if (networkResponse != null) {
+                    notModifiedCount.incrementAndGet();
+                }
+                String length = cacheResponse.header("Content-Length");
+                if (length != null) {
+                    try {
+                        bytesSaved.addAndGet(Long.parseLong(length));
+                    } catch (NumberFormatException e) {
+                        logger.debug("Invalid Content-Length in cached response: {}", length);
+                    }
+                }
+            }
+            return response;
+        }
+
+        /**
+         * Total number of requests made through the client.
+         */
+        public long getRequestCount() {
+            return requestCount.get();
+        }
+
+        /**
+         * Number of requests that reached the server (including conditional requests).
+         */
+        public long getNetworkCount() {
+            return networkCount.get();
+        }
+
+        /**
+         * Number of conditional requests answered with {@code 304 Not Modified}.
+         */
+        public long getNotModifiedCount() {
+            return notModifiedCount.get();
+        }
+
+        /**
+         * Number of response body bytes that did not need to be transferred because of the cache.
+         */
+        public long getBytesSaved() {
+            return bytesSaved.get();
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + getRequestCount() + ", network=" + getNetworkCount()
+                    + ", notModified=" + getNotModifiedCount() + ", bytesSaved=" + getBytesSaved();
+        }
+    }
+}
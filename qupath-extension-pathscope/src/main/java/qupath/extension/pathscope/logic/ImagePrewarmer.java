@@ -0,0 +1,107 @@
+package qupath.extension.pathscope.logic;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.gui.QuPathGUI;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.ImageServerProvider;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 下载完成后在后台预热WSI，使从任务列表打开图像时无需等待
+ * <p>
+ * 预热时构建一次 {@link ImageServer}（读取文件头、建立Bio-Formats缓存并把文件读入系统页缓存）并读取缩略图。
+ * 如果QuPath界面已启动，缩略图放入查看器的图块缓存，在同一会话中打开图像时直接使用。
+ * 预热结果不保存到磁盘：查看器缓存以图像服务器路径为键，重启后无法在打开图像之前恢复。
+ */
+public class ImagePrewarmer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImagePrewarmer.class);
+
+    private static ImagePrewarmer instance;
+
+    private final ExecutorService executor;
+    private final Map<String, Future<?>> pending = new ConcurrentHashMap<>();
+
+    private ImagePrewarmer() {
+        // 单线程，避免与正在进行的下载争抢磁盘带宽
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "pathscope-prewarm");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * 获取单例
+     */
+    public static synchronized ImagePrewarmer getInstance() {
+        if (instance == null) {
+            instance = new ImagePrewarmer();
+        }
+        return instance;
+    }
+
+    /**
+     * 在后台预热WSI，同一文件已在队列中时忽略
+     *
+     * @param path 已下载的本地文件路径
+     */
+    public void prewarm(String path) {
+        if (path == null || !new File(path).isFile()) {
+            return;
+        }
+        pending.computeIfAbsent(path, p -> executor.submit(() -> {
+            try {
+                prewarmNow(p);
+            } finally {
+                pending.remove(p);
+            }
+        }));
+    }
+
+    /**
+     * 是否正在预热或等待预热指定文件
+     */
+    public boolean isPending(String path) {
+        return path != null && pending.containsKey(path);
+    }
+
+    private void prewarmNow(String path) {
+        long start = System.currentTimeMillis();
+        try (ImageServer<BufferedImage> server = ImageServerProvider.buildServer(path, BufferedImage.class)) {
+            if (server == null) {
+                logger.warn("No image reader found to prewarm {}", path);
+                return;
+            }
+            QuPathGUI qupath = QuPathGUI.getInstance();
+            if (qupath != null && qupath.getImageRegionStore() != null) {
+                // 放入查看器的缓存，打开图像时概览和图像类型估计无需再次读取
+                qupath.getImageRegionStore().getThumbnail(server, 0, 0, true);
+            } else {
+                // 没有界面时只读取低分辨率层，使其进入系统页缓存
+                server.getDefaultThumbnail(0, 0);
+            }
+            logger.info("Prewarmed {} ({} x {}, {} levels) in {} ms", path,
+                    server.getWidth(), server.getHeight(), server.nResolutions(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            logger.warn("Failed to prewarm {}: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * 停止后台线程
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        pending.clear();
+    }
+}
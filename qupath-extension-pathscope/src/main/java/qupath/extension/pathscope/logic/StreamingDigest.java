@@ -0,0 +1,206 @@
+package qupath.extension.pathscope.logic;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 下载过程中按文件顺序计算校验和，无需在下载完成后再次读取整个文件
+ * <p>
+ * 分块下载时数据不按顺序到达：与当前位置相接的数据立即计入摘要，超前的数据暂存在内存中，
+ * 等前面的数据到达后再按顺序计入。重试导致的重复数据会被跳过。
+ * <p>
+ * 暂存数据一旦超过上限就不再暂存任何超前的数据（只继续计入与当前位置相接的数据），
+ * {@link #finish(FileChannel)} 时再从文件中按顺序读取缺失的部分。这样内存占用不会随分块大小或连接数增长。
+ * 续传的下载同理，只重新读取本次启动前已完成的分块。
+ * <p>
+ * 所有方法都是线程安全的。
+ */
+public class StreamingDigest {
+
+    /**
+     * 默认最多暂存的乱序数据（字节）
+     */
+    public static final long DEFAULT_MAX_BUFFERED_BYTES = 8L * 1024 * 1024;
+
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    private final MessageDigest digest;
+    private final long totalBytes;
+    private final long maxBufferedBytes;
+
+    private final TreeMap<Long, byte[]> pending = new TreeMap<>();
+    private long bufferedBytes;
+    // 暂存数据曾超过上限，之后不再暂存超前的数据
+    private boolean overflowed;
+    private long position;
+    private long rereadBytes;
+    private byte[] result;
+
+    /**
+     * 创建流式摘要
+     *
+     * @param algorithm        摘要算法，例如 {@code SHA-256} 或 {@code MD5}
+     * @param totalBytes       文件总字节数
+     * @param maxBufferedBytes 最多暂存的乱序数据（字节）
+     * @throws IllegalArgumentException 不支持该算法时抛出
+     */
+    public StreamingDigest(String algorithm, long totalBytes, long maxBufferedBytes) {
+        try {
+            this.digest = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported checksum algorithm: " + algorithm, e);
+        }
+        this.totalBytes = totalBytes;
+        this.maxBufferedBytes = Math.max(0, maxBufferedBytes);
+    }
+
+    /**
+     * 摘要算法名称
+     */
+    public String getAlgorithm() {
+        return digest.getAlgorithm();
+    }
+
+    /**
+     * 添加从文件指定位置开始的数据（数据会被复制或立即计入摘要，调用后可以重用缓冲区）
+     *
+     * @param filePosition 数据在文件中的起始位置
+     */
+    public synchronized void update(long filePosition, byte[] bytes, int offset, int length) {
+        if (result != null || length <= 0) {
+            return;
+        }
+        long end = filePosition + length;
+        if (end <= position) {
+            // 已计入（例如分块重试时重新下载的数据）
+            return;
+        }
+        if (filePosition <= position) {
+            int skip = (int) (position - filePosition);
+            digest.update(bytes, offset + skip, length - skip);
+            position = end;
+            drainPending();
+            return;
+        }
+        if (overflowed || bufferedBytes + length > maxBufferedBytes) {
+            // 超出上限，之后的超前数据都在完成时从文件中读取
+            overflowed = true;
+            return;
+        }
+        byte[] previous = pending.get(filePosition);
+        if (previous != null && previous.length >= length) {
+            return;
+        }
+        pending.put(filePosition, Arrays.copyOfRange(bytes, offset, offset + length));
+        bufferedBytes += length - (previous == null ? 0 : previous.length);
+    }
+
+    /**
+     * 已按顺序计入摘要的字节数
+     */
+    public synchronized long getPosition() {
+        return position;
+    }
+
+    /**
+     * 当前暂存的乱序数据（字节）
+     */
+    synchronized long getBufferedBytes() {
+        return bufferedBytes;
+    }
+
+    /**
+     * 暂存数据是否曾超过上限（之后超前的数据不再暂存）
+     */
+    synchronized boolean isOverflowed() {
+        return overflowed;
+    }
+
+    /**
+     * 完成时需要从文件中重新读取的字节数（只有续传或暂存超出上限时才大于0）
+     */
+    public synchronized long getRereadBytes() {
+        return rereadBytes;
+    }
+
+    /**
+     * 完成摘要计算，未在下载过程中计入的部分从文件中读取
+     *
+     * @param channel 已下载文件的通道（所有数据都已计入时可为null）
+     * @return 小写十六进制的摘要
+     */
+    public synchronized String finish(FileChannel channel) throws IOException {
+        if (result == null) {
+            ByteBuffer buffer = null;
+            while (position < totalBytes) {
+                Map.Entry<Long, byte[]> next = pending.ceilingEntry(position);
+                long gapEnd = next == null ? totalBytes : Math.min(totalBytes, next.getKey());
+                if (channel == null) {
+                    throw new IOException("Checksum incomplete: missing bytes from " + position + " to " + gapEnd);
+                }
+                if (buffer == null) {
+                    buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+                }
+                while (position < gapEnd) {
+                    buffer.clear().limit((int) Math.min(buffer.capacity(), gapEnd - position));
+                    int n = channel.read(buffer, position);
+                    if (n < 0) {
+                        throw new IOException("Unexpected end of file at " + position + " of " + totalBytes);
+                    }
+                    buffer.flip();
+                    digest.update(buffer);
+                    position += n;
+                    rereadBytes += n;
+                }
+                drainPending();
+            }
+            pending.clear();
+            bufferedBytes = 0;
+            result = digest.digest();
+        }
+        return toHex(result);
+    }
+
+    /**
+     * 计入所有与当前位置相接的暂存数据
+     */
+    private void drainPending() {
+        Map.Entry<Long, byte[]> entry;
+        while ((entry = pending.firstEntry()) != null && entry.getKey() <= position) {
+            pending.remove(entry.getKey());
+            byte[] bytes = entry.getValue();
+            bufferedBytes -= bytes.length;
+            long end = entry.getKey() + bytes.length;
+            if (end > position) {
+                int skip = (int) (position - entry.getKey());
+                digest.update(bytes, skip, bytes.length - skip);
+                position = end;
+            }
+        }
+    }
+
+    /**
+     * 比较两个十六进制摘要（忽略大小写）
+     */
+    public static boolean matches(String expected, String actual) {
+        return expected != null && actual != null && expected.trim().equalsIgnoreCase(actual.trim());
+    }
+
+    /**
+     * 转换为小写十六进制字符串
+     */
+    public static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString().toLowerCase(Locale.ROOT);
+    }
+}
@@ -48,7 +48,7 @@ public class AnnotationDialog extends Stage {
         this.qupath = qupath;
         this.apiClient = apiClient;
         this.taskFile = taskFile;
-        this.cacheManager = new CacheManager();
+        this.cacheManager = CacheManager.getInstance();
 
         initModality(Modality.NONE);
         setTitle("PathScope Annotation");
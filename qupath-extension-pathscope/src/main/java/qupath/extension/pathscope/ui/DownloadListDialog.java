@@ -8,10 +8,13 @@ import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.Region;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
 import qupath.extension.pathscope.data.DownloadTask;
 import qupath.extension.pathscope.logic.DownloadManager;
+import qupath.extension.pathscope.logic.DownloadProgressMonitor;
 
 /**
  * 下载任务列表窗口，非阻塞显示所有下载任务的实时进度
@@ -25,7 +28,7 @@ public class DownloadListDialog extends Stage {
     private DownloadListDialog() {
         initModality(Modality.NONE);
         setTitle("下载任务列表");
-        setWidth(700);
+        setWidth(870);
         setHeight(400);
 
         createUI();
@@ -90,6 +93,9 @@ public class DownloadListDialog extends Stage {
                         case FAILED:
                             setStyle("-fx-text-fill: #F44336;");
                             break;
+                        case PAUSED:
+                            setStyle("-fx-text-fill: #FF9800;");
+                            break;
                         default:
                             setStyle("");
                     }
@@ -137,7 +143,29 @@ public class DownloadListDialog extends Stage {
             );
         });
 
-        table.getColumns().addAll(wsiNameCol, taskNameCol, statusCol, progressCol, sizeCol);
+        // 速度列
+        TableColumn<DownloadTask, String> speedCol = new TableColumn<>("速度");
+        speedCol.setPrefWidth(90);
+        speedCol.setCellValueFactory(cellData -> {
+            DownloadTask dt = cellData.getValue();
+            return Bindings.createStringBinding(
+                    () -> dt.getBytesPerSecond() > 0 ? DownloadTask.formatBytes((long) dt.getBytesPerSecond()) + "/s" : "-",
+                    dt.bytesPerSecondProperty()
+            );
+        });
+
+        // 剩余时间列
+        TableColumn<DownloadTask, String> etaCol = new TableColumn<>("剩余时间");
+        etaCol.setPrefWidth(80);
+        etaCol.setCellValueFactory(cellData -> {
+            DownloadTask dt = cellData.getValue();
+            return Bindings.createStringBinding(
+                    () -> DownloadTask.formatEta(dt.getEtaSeconds()),
+                    dt.etaSecondsProperty()
+            );
+        });
+
+        table.getColumns().addAll(wsiNameCol, taskNameCol, statusCol, progressCol, sizeCol, speedCol, etaCol);
 
         root.setCenter(table);
 
@@ -146,10 +174,55 @@ public class DownloadListDialog extends Stage {
         buttonBar.setAlignment(Pos.CENTER_RIGHT);
         buttonBar.setPadding(new Insets(10, 0, 0, 0));
 
+        Button pauseBtn = new Button("暂停");
+        pauseBtn.setOnAction(e -> {
+            DownloadTask selected = table.getSelectionModel().getSelectedItem();
+            if (selected != null) {
+                DownloadManager.getInstance().pause(selected);
+            }
+        });
+
+        Button resumeBtn = new Button("继续");
+        resumeBtn.setOnAction(e -> {
+            DownloadTask selected = table.getSelectionModel().getSelectedItem();
+            if (selected != null) {
+                DownloadManager.getInstance().resume(selected);
+            }
+        });
+
+        Button cancelBtn = new Button("取消");
+        cancelBtn.setOnAction(e -> {
+            DownloadTask selected = table.getSelectionModel().getSelectedItem();
+            if (selected != null) {
+                DownloadManager.getInstance().cancel(selected);
+            }
+        });
+
+        Button prioritizeBtn = new Button("优先下载");
+        prioritizeBtn.setOnAction(e -> {
+            DownloadTask selected = table.getSelectionModel().getSelectedItem();
+            if (selected != null) {
+                DownloadManager.getInstance().prioritize(selected);
+            }
+        });
+
         Button clearBtn = new Button("清除已完成");
         clearBtn.setOnAction(e -> DownloadManager.getInstance().clearFinished());
 
-        buttonBar.getChildren().add(clearBtn);
+        // 总下载速度
+        DownloadProgressMonitor monitor = DownloadManager.getInstance().getProgressMonitor();
+        Label totalSpeedLabel = new Label();
+        totalSpeedLabel.textProperty().bind(Bindings.createStringBinding(
+                () -> monitor.activeDownloadsProperty().get() > 0
+                        ? "总速度: " + DownloadTask.formatBytes((long) monitor.totalBytesPerSecondProperty().get()) + "/s"
+                        : "",
+                monitor.totalBytesPerSecondProperty(),
+                monitor.activeDownloadsProperty()
+        ));
+        Region spacer = new Region();
+        HBox.setHgrow(spacer, Priority.ALWAYS);
+
+        buttonBar.getChildren().addAll(totalSpeedLabel, spacer, pauseBtn, resumeBtn, cancelBtn, prioritizeBtn, clearBtn);
         root.setBottom(buttonBar);
 
         setScene(new Scene(root));
@@ -34,6 +34,7 @@ import qupath.extension.pathscope.data.CacheManager;
 import qupath.extension.pathscope.logic.ApiClient;
 import qupath.extension.pathscope.logic.ApiClient.TaskListResult;
 import qupath.extension.pathscope.logic.ApiClient.WsiListResult;
+import qupath.extension.pathscope.logic.AsyncPager;
 import qupath.extension.pathscope.logic.DownloadManager;
 
 /**
@@ -69,10 +70,14 @@ public class TaskListDialog extends Stage {
     private Label taskTotalLabel;
     private Label wsiTotalLabel;
 
+    // 异步分页加载器（预取相邻页面，缓存已解析的页面）
+    private AsyncPager<Task> taskPager;
+    private AsyncPager<TaskFile> wsiPager;
+
     public TaskListDialog(QuPathGUI qupath, ApiClient apiClient) {
         this.qupath = qupath;
         this.apiClient = apiClient;
-        this.cacheManager = new CacheManager();
+        this.cacheManager = CacheManager.getInstance();
 
         // 初始化下载管理器（确保在UI创建前可用）
         DownloadManager.init(apiClient);
@@ -83,6 +88,11 @@ public class TaskListDialog extends Stage {
         setHeight(700);
 
         createUI();
+        createPagers();
+        setOnHidden(e -> {
+            taskPager.shutdown();
+            wsiPager.shutdown();
+        });
         loadTasks();
     }
 
@@ -212,8 +222,10 @@ public class TaskListDialog extends Stage {
         taskPagination.setCurrentPageIndex(0);
         taskPagination.setMaxPageIndicatorCount(5);
         taskPagination.currentPageIndexProperty().addListener((obs, oldPage, newPage) -> {
-            taskCurrentPage = newPage.intValue() + 1;
-            loadTasks();
+            if (taskCurrentPage != newPage.intValue() + 1) {
+                taskCurrentPage = newPage.intValue() + 1;
+                taskPager.showPage(taskCurrentPage);
+            }
         });
 
         // Create wsi pagination
@@ -222,9 +234,11 @@ public class TaskListDialog extends Stage {
         wsiPagination.setCurrentPageIndex(0);
         wsiPagination.setMaxPageIndicatorCount(5);
         wsiPagination.currentPageIndexProperty().addListener((obs, oldPage, newPage) -> {
-            wsiCurrentPage = newPage.intValue() + 1;
-            if (selectedTask != null) {
-                loadTaskWsiList(selectedTask.getId());
+            if (wsiCurrentPage != newPage.intValue() + 1) {
+                wsiCurrentPage = newPage.intValue() + 1;
+                if (selectedTask != null) {
+                    wsiPager.showPage(wsiCurrentPage);
+                }
             }
         });
 
@@ -268,13 +282,25 @@ public class TaskListDialog extends Stage {
         // Add selection listener to task table
         taskTable.getSelectionModel().selectedItemProperty().addListener((obs, oldTask, newTask) -> {
             if (newTask != null) {
+                boolean sameTask = selectedTask != null && selectedTask.getId().equals(newTask.getId());
                 selectedTask = newTask;
+                if (sameTask) {
+                    // 任务列表重新验证后重新选中同一任务，不需要重新加载WSI列表
+                    return;
+                }
                 // 切换task时重置到第一页
                 wsiCurrentPage = 1;
                 loadTaskWsiList(newTask.getId());
             }
         });
 
+        // 选中的WSI如果正在排队下载，则提前下载
+        wsiTable.getSelectionModel().selectedItemProperty().addListener((obs, oldFile, newFile) -> {
+            if (newFile != null) {
+                DownloadManager.getInstance().prioritize(newFile);
+            }
+        });
+
         Scene scene = new Scene(root);
         setScene(scene);
     }
@@ -283,8 +309,72 @@ public class TaskListDialog extends Stage {
         loadTasks(false);
     }
 
+    /**
+     * 创建任务列表和WSI列表的异步分页加载器
+     */
+    private void createPagers() {
+        taskPager = new AsyncPager<>("pathscope-task-pager", new AsyncPager.PageSource<Task>() {
+            @Override
+            public ApiClient.PaginatedResult<Task> loadCached(String userId, int page, int pageSize) throws IOException {
+                int total = cacheManager.loadTaskCount();
+                return total == 0 ? null : new TaskListResult(cacheManager.loadTaskListPage(page, pageSize), total);
+            }
+
+            @Override
+            public ApiClient.PaginatedResult<Task> loadRemote(String userId, int page, int pageSize) throws IOException {
+                return apiClient.getTaskList(userId, page, pageSize);
+            }
+        }, new AsyncPager.PageListener<Task>() {
+            @Override
+            public void pageLoaded(int page, ApiClient.PaginatedResult<Task> result) {
+                updateTaskDisplay(page, result.getItems(), result.getTotal());
+            }
+
+            @Override
+            public void pageFailed(int page, Exception e) {
+                showLoadError("Failed to load tasks", e);
+            }
+        }, Platform::runLater, AsyncPager.DEFAULT_MAX_PAGES);
+
+        wsiPager = new AsyncPager<>("pathscope-wsi-pager", new AsyncPager.PageSource<TaskFile>() {
+            @Override
+            public ApiClient.PaginatedResult<TaskFile> loadCached(String taskId, int page, int pageSize) throws IOException {
+                int total = cacheManager.loadTaskWsiTotal(taskId);
+                return total == 0 ? null : new WsiListResult(cacheManager.loadTaskWsiListPage(taskId, page, pageSize), total);
+            }
+
+            @Override
+            public ApiClient.PaginatedResult<TaskFile> loadRemote(String taskId, int page, int pageSize) throws IOException {
+                WsiListResult result = apiClient.getTaskWsiList(taskId, page, pageSize);
+                mergeLocalStatus(result.getItems(), taskId);
+                return result;
+            }
+        }, new AsyncPager.PageListener<TaskFile>() {
+            @Override
+            public void pageLoaded(int page, ApiClient.PaginatedResult<TaskFile> result) {
+                updateWsiDisplay(page, result.getItems(), result.getTotal());
+            }
+
+            @Override
+            public void pageFailed(int page, Exception e) {
+                showLoadError("Failed to load WSI list", e);
+            }
+        }, Platform::runLater, AsyncPager.DEFAULT_MAX_PAGES);
+    }
+
+    private void showLoadError(String header, Exception e) {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Error");
+        alert.setHeaderText(header);
+        alert.setContentText(e.getMessage());
+        alert.showAndWait();
+    }
+
     /**
      * 加载任务列表
+     * <p>
+     * 当前页通过分页加载器立即显示（先显示缓存，再从接口重新验证）；
+     * 本地缓存为空或强制刷新时，在后台从接口获取全部任务并保存到缓存。
      * 
      * @param forceRefresh 是否强制从接口刷新
      */
@@ -292,22 +382,16 @@ public class TaskListDialog extends Stage {
         // 这里需要从登录信息中获取用户ID，暂时使用默认值
         String userId = "1";
 
+        taskPager.setQuery(userId, taskPageSize);
+        if (forceRefresh) {
+            taskPager.invalidate(userId);
+        }
+        taskPager.showPage(taskCurrentPage);
+
         new Thread(() -> {
             try {
-                List<Task> allTasks = new ArrayList<>();
-                int totalTasks = 0;
-
-                if (!forceRefresh) {
-                    // 先尝试从本地缓存读取全部任务
-                    allTasks = cacheManager.loadAllTasks();
-                    totalTasks = allTasks.size();
-
-                    if (!allTasks.isEmpty()) {
-                        // 缓存有数据，使用缓存数据并进行分页显示
-                        logger.info("Loaded all tasks from cache: {} tasks", allTasks.size());
-                        updateTaskDisplay(allTasks, totalTasks);
-                        return;
-                    }
+                if (!forceRefresh && cacheManager.loadTaskCount() > 0) {
+                    return;
                 }
 
                 // 缓存无数据或强制刷新，从接口获取全部数据
@@ -315,13 +399,13 @@ public class TaskListDialog extends Stage {
 
                 // 先获取第一页以得到total值
                 TaskListResult firstPageResult = apiClient.getTaskList(userId, 1, 1);
-                totalTasks = firstPageResult.getTotal();
+                int totalTasks = firstPageResult.getTotal();
 
                 logger.info("Total tasks count from API: {}", totalTasks);
 
                 // 根据total值一次性获取全部任务
                 TaskListResult result = apiClient.getTaskList(userId, 1, totalTasks);
-                allTasks = result.getItems();
+                List<Task> allTasks = result.getItems();
 
                 logger.info("API returned {} tasks, total: {}", allTasks.size(), totalTasks);
 
@@ -329,42 +413,47 @@ public class TaskListDialog extends Stage {
                 cacheManager.saveAllTasks(allTasks);
                 logger.info("Saved all tasks to cache: {} tasks", allTasks.size());
 
-                // 更新显示
-                updateTaskDisplay(allTasks, totalTasks);
-            } catch (IOException e) {
-                logger.error("Failed to load tasks: {}", e.getMessage());
+                // 刷新当前页
                 Platform.runLater(() -> {
-                    Alert alert = new Alert(Alert.AlertType.ERROR);
-                    alert.setTitle("Error");
-                    alert.setHeaderText("Failed to load tasks");
-                    alert.setContentText(e.getMessage());
-                    alert.showAndWait();
+                    taskPager.invalidate(userId);
+                    taskPager.showPage(taskCurrentPage);
                 });
+            } catch (IOException e) {
+                logger.error("Failed to load tasks: {}", e.getMessage());
+                // 非强制刷新时，分页加载器已经报告了当前页的错误
+                if (forceRefresh) {
+                    Platform.runLater(() -> showLoadError("Failed to load tasks", e));
+                }
             }
-        }).start();
+        }, "pathscope-task-sync").start();
     }
 
     /**
-     * 更新任务列表显示（支持分页）
+     * 更新任务列表显示（在FX线程调用）
+     *
+     * @param page      页码
+     * @param pageTasks 当前页的任务
+     * @param total     总数
      */
-    private void updateTaskDisplay(List<Task> allTasks, int total) {
-        // 计算当前页的数据范围
-        int startIndex = (taskCurrentPage - 1) * taskPageSize;
-        int endIndex = Math.min(startIndex + taskPageSize, allTasks.size());
-        
-        // 获取当前页的数据
-        List<Task> pageTasks = allTasks.subList(startIndex, endIndex);
-        
-        Platform.runLater(() -> {
-            tasks.clear();
-            tasks.addAll(pageTasks);
-            // 计算总页数
-            taskTotalPages = total > 0 ? (total + taskPageSize - 1) / taskPageSize : 1;
-            taskPagination.setPageCount(taskTotalPages);
-            taskPagination.setCurrentPageIndex(taskCurrentPage - 1);
-            // 更新total显示
-            updateTaskTotalDisplay(total);
-        });
+    private void updateTaskDisplay(int page, List<Task> pageTasks, int total) {
+        String selectedId = selectedTask == null ? null : selectedTask.getId();
+        tasks.setAll(pageTasks);
+        // 重新选中之前选中的任务（重新验证后对象会被替换）
+        if (selectedId != null) {
+            for (Task task : pageTasks) {
+                if (selectedId.equals(task.getId())) {
+                    taskTable.getSelectionModel().select(task);
+                    break;
+                }
+            }
+        }
+        // 计算总页数
+        taskCurrentPage = page;
+        taskTotalPages = total > 0 ? (total + taskPageSize - 1) / taskPageSize : 1;
+        taskPagination.setPageCount(taskTotalPages);
+        taskPagination.setCurrentPageIndex(taskCurrentPage - 1);
+        // 更新total显示
+        updateTaskTotalDisplay(total);
     }
 
     /**
@@ -431,11 +520,13 @@ public class TaskListDialog extends Stage {
                 logger.info("Saved updated task info to cache for task {}", taskId);
 
                 // 7. 刷新显示（重置到第一页）
-                wsiCurrentPage = 1;
-                updateWsiDisplay(updatedWsiList, totalWsi);
-
                 Platform.runLater(() -> {
                     logger.info("Task {} updated successfully", taskId);
+                    wsiPager.invalidate(taskId);
+                    if (taskId.equals(wsiPager.getQuery())) {
+                        wsiCurrentPage = 1;
+                        wsiPager.showPage(wsiCurrentPage);
+                    }
                 });
 
             } catch (Exception e) {
@@ -457,29 +548,24 @@ public class TaskListDialog extends Stage {
 
     /**
      * 加载任务的WSI列表
+     * <p>
+     * 当前页通过分页加载器立即显示（先显示缓存，再从接口重新验证），切换任务时取消之前任务的请求；
+     * 本地缓存为空或强制刷新时，在后台从接口获取全部WSI数据并保存到缓存。
      * 
      * @param taskId       任务ID
      * @param forceRefresh 是否强制从接口刷新
      */
     private void loadTaskWsiList(String taskId, boolean forceRefresh) {
+        wsiPager.setQuery(taskId, wsiPageSize);
+        if (forceRefresh) {
+            wsiPager.invalidate(taskId);
+        }
+        wsiPager.showPage(wsiCurrentPage);
+
         new Thread(() -> {
             try {
-                List<TaskFile> allWsiList = new ArrayList<>();
-                int totalWsi = 0;
-
-                if (!forceRefresh) {
-                    // 先尝试从本地缓存读取全部WSI数据
-                    allWsiList = cacheManager.loadAllTaskWsi(taskId);
-                    totalWsi = allWsiList.size();
-
-                    if (!allWsiList.isEmpty()) {
-                        // 缓存有数据，使用缓存数据并进行分页显示
-                        logger.info("Loaded all WSI from cache for task {}: {} items", taskId, allWsiList.size());
-                        // 不在这里重置页码，因为翻页操作需要保持当前页码
-                        // 页码重置在切换task和update task时已经处理
-                        updateWsiDisplay(allWsiList, totalWsi);
-                        return;
-                    }
+                if (!forceRefresh && cacheManager.loadTaskWsiTotal(taskId) > 0) {
+                    return;
                 }
 
                 // 缓存无数据或强制刷新，从接口获取全部数据
@@ -487,13 +573,13 @@ public class TaskListDialog extends Stage {
 
                 // 先获取第一页以得到total值
                 WsiListResult firstPageResult = apiClient.getTaskWsiList(taskId, 1, 1);
-                totalWsi = firstPageResult.getTotal();
+                int totalWsi = firstPageResult.getTotal();
 
                 logger.info("Total WSI count from API: {}", totalWsi);
 
                 // 根据total值一次性获取全部WSI数据
                 WsiListResult result = apiClient.getTaskWsiList(taskId, 1, totalWsi);
-                allWsiList = result.getItems();
+                List<TaskFile> allWsiList = result.getItems();
 
                 logger.info("API returned {} WSI items, total: {}", allWsiList.size(), totalWsi);
 
@@ -504,56 +590,59 @@ public class TaskListDialog extends Stage {
                 cacheManager.saveAllTaskWsi(taskId, allWsiList);
                 logger.info("Saved all WSI to cache for task {}: {} items", taskId, allWsiList.size());
 
-                // 更新显示
-                updateWsiDisplay(allWsiList, totalWsi);
-            } catch (Exception e) {
-                logger.error("Failed to load WSI list: {}", e.getMessage(), e);
+                // 如果仍然显示该任务，刷新当前页
                 Platform.runLater(() -> {
-                    Alert alert = new Alert(Alert.AlertType.ERROR);
-                    alert.setTitle("Error");
-                    alert.setHeaderText("Failed to load WSI list");
-                    alert.setContentText(e.getMessage());
-                    alert.showAndWait();
+                    wsiPager.invalidate(taskId);
+                    if (taskId.equals(wsiPager.getQuery())) {
+                        wsiPager.showPage(wsiCurrentPage);
+                    }
                 });
+            } catch (Exception e) {
+                logger.error("Failed to load WSI list: {}", e.getMessage(), e);
+                // 非强制刷新时，分页加载器已经报告了当前页的错误
+                if (forceRefresh) {
+                    Platform.runLater(() -> showLoadError("Failed to load WSI list", e));
+                }
             }
-        }).start();
+        }, "pathscope-wsi-sync").start();
     }
 
     /**
-     * 更新WSI列表显示（支持分页）
+     * 更新WSI列表显示（在FX线程调用）
      * 
-     * @param allWsiList 全部WSI列表
-     * @param total      总数
+     * @param page        页码
+     * @param pageWsiList 当前页的WSI列表
+     * @param total       总数
      */
-    private void updateWsiDisplay(List<TaskFile> allWsiList, int total) {
+    private void updateWsiDisplay(int page, List<TaskFile> pageWsiList, int total) {
         // 计算总页数
         int totalPages = total > 0 ? (total + wsiPageSize - 1) / wsiPageSize : 1;
 
         // 检查并调整当前页码，避免超出范围
-        if (wsiCurrentPage > totalPages) {
-            logger.warn("Current page {} exceeds total pages {}, adjusting to last page", wsiCurrentPage, totalPages);
+        if (page > totalPages) {
+            logger.warn("Current page {} exceeds total pages {}, adjusting to last page", page, totalPages);
             wsiCurrentPage = Math.max(1, totalPages);
+            wsiPager.showPage(wsiCurrentPage);
+            return;
         }
-        if (wsiCurrentPage < 1) {
-            logger.warn("Current page {} is less than 1, adjusting to page 1", wsiCurrentPage);
-            wsiCurrentPage = 1;
-        }
-
-        // 计算当前页的数据范围
-        int startIndex = (wsiCurrentPage - 1) * wsiPageSize;
-        int endIndex = Math.min(startIndex + wsiPageSize, allWsiList.size());
-
-        // 获取当前页的数据
-        List<TaskFile> pageWsiList = allWsiList.subList(startIndex, endIndex);
 
-        Platform.runLater(() -> {
-            taskFiles.clear();
-            taskFiles.addAll(pageWsiList);
-            wsiTotalPages = totalPages;
-            wsiPagination.setPageCount(wsiTotalPages);
-            wsiPagination.setCurrentPageIndex(wsiCurrentPage - 1);
-            updateWsiTotalDisplay(total);
-        });
+        TaskFile selectedFile = wsiTable.getSelectionModel().getSelectedItem();
+        String selectedId = selectedFile == null ? null : selectedFile.getId();
+        taskFiles.setAll(pageWsiList);
+        // 重新选中之前选中的WSI（重新验证后对象会被替换）
+        if (selectedId != null) {
+            for (TaskFile taskFile : pageWsiList) {
+                if (selectedId.equals(taskFile.getId())) {
+                    wsiTable.getSelectionModel().select(taskFile);
+                    break;
+                }
+            }
+        }
+        wsiCurrentPage = page;
+        wsiTotalPages = totalPages;
+        wsiPagination.setPageCount(wsiTotalPages);
+        wsiPagination.setCurrentPageIndex(wsiCurrentPage - 1);
+        updateWsiTotalDisplay(total);
     }
 
     /**
@@ -564,23 +653,19 @@ public class TaskListDialog extends Stage {
      */
     private void mergeLocalStatus(List<TaskFile> wsiList, String taskId) {
         try {
-            // 从新的全量缓存中读取本地状态
-            List<TaskFile> cachedWsiList = cacheManager.loadAllTaskWsi(taskId);
-            logger.info("Merging local status: loaded {} cached WSI items for task {}", cachedWsiList.size(), taskId);
-
-            if (cachedWsiList.isEmpty()) {
-                logger.info("No cached data found, skipping merge");
-                return;
+            // 只从缓存中读取本次需要合并的WSI（单页数据时无需加载全部缓存）
+            List<String> wsiIds = new ArrayList<>(wsiList.size());
+            for (TaskFile apiFile : wsiList) {
+                if (apiFile.getId() != null && !apiFile.getId().isEmpty()) {
+                    wsiIds.add(apiFile.getId());
+                }
             }
+            java.util.Map<String, TaskFile> cachedWsiMap = cacheManager.loadTaskWsiByIds(taskId, wsiIds);
+            logger.debug("Merging local status: loaded {} cached WSI items for task {}", cachedWsiMap.size(), taskId);
 
-            // 创建ID到缓存WSI的映射
-            java.util.Map<String, TaskFile> cachedWsiMap = new java.util.HashMap<>();
-            for (TaskFile cachedFile : cachedWsiList) {
-                if (cachedFile.getId() != null && !cachedFile.getId().isEmpty()) {
-                    cachedWsiMap.put(cachedFile.getId(), cachedFile);
-                    logger.debug("Cached WSI {}: local_status='{}', local_path='{}'",
-                        cachedFile.getId(), cachedFile.getLocalStatus(), cachedFile.getLocalPath());
-                }
+            if (cachedWsiMap.isEmpty()) {
+                logger.debug("No cached data found, skipping merge");
+                return;
             }
 
             int mergedCount = 0;
@@ -695,6 +780,8 @@ public class TaskListDialog extends Stage {
         boolean added = downloadManager.addDownload(selectedFile, savePath, selectedTask);
 
         if (added) {
+            // 用户刚刚选择下载的WSI优先于之前排队的任务
+            downloadManager.prioritize(selectedFile);
             // 自动打开下载列表窗口
             DownloadListDialog.getInstance().showDialog();
         } else {
@@ -0,0 +1,251 @@
+package qupath.extension.pathscope.data;
+
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class TestCacheStore {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void test_updateWsiFieldPersists() throws IOException {
+        File dir = new File(tempDir, "update");
+        var store = CacheStore.getInstance(dir);
+        store.putTasks(List.of(createTask("t1"), createTask("t2")));
+        store.putWsiList("t1", createWsiList(3));
+
+        assertTrue(store.updateWsiField("t1", "w1", "status_local", new JsonPrimitive("downloaded")));
+        assertFalse(store.updateWsiField("t1", "missing", "status_local", new JsonPrimitive("downloaded")));
+
+        var reloaded = reload(dir);
+        assertEquals(2, reloaded.getTasks().size());
+        assertEquals("t1", reloaded.getTasks().get(0).get("id").getAsString());
+        assertEquals(3, reloaded.getWsiCount("t1"));
+        assertEquals("downloaded", reloaded.getWsiList("t1").get(1).get("status_local").getAsString());
+        assertEquals("default", reloaded.getWsiList("t1").get(0).get("status_local").getAsString());
+    }
+
+    @Test
+    public void test_corruptTailIsTruncated() throws IOException {
+        File dir = new File(tempDir, "corrupt");
+        var store = CacheStore.getInstance(dir);
+        store.putTask(createTask("t1"));
+        store.putWsiList("t1", createWsiList(2));
+
+        File logFile = new File(dir, CacheStore.LOG_FILE_NAME);
+        long validLength = logFile.length();
+        // Simulate a crash in the middle of writing a record
+        Files.write(logFile.toPath(), "0badc0de {\"op\":\"set_wsi".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        var reloaded = reload(dir);
+        assertEquals(validLength, logFile.length());
+        assertEquals(2, reloaded.getWsiCount("t1"));
+        assertTrue(reloaded.updateWsiField("t1", "w0", "local_path", new JsonPrimitive("/tmp/w0.svs")));
+        assertEquals("/tmp/w0.svs", reload(dir).getWsiList("t1").get(0).get("local_path").getAsString());
+    }
+
+    @Test
+    public void test_checksumMismatchIsTruncated() throws IOException {
+        File dir = new File(tempDir, "checksum");
+        var store = CacheStore.getInstance(dir);
+        store.putTask(createTask("t1"));
+        long validLength = new File(dir, CacheStore.LOG_FILE_NAME).length();
+        store.putTask(createTask("t2"));
+
+        // Flip a byte inside the JSON of the second record
+        try (var file = new RandomAccessFile(new File(dir, CacheStore.LOG_FILE_NAME), "rw")) {
+            file.seek(validLength + 20);
+            int b = file.read();
+            file.seek(validLength + 20);
+            file.write(b ^ 0x01);
+        }
+
+        var reloaded = reload(dir);
+        assertEquals(1, reloaded.getTasks().size());
+        assertNull(reloaded.getTask("t2"));
+    }
+
+    @Test
+    public void test_compact() throws IOException {
+        File dir = new File(tempDir, "compact");
+        var store = CacheStore.getInstance(dir);
+        store.putTask(createTask("t1"));
+        store.putWsiList("t1", createWsiList(10));
+        for (int i = 0; i < 50; i++) {
+            store.updateWsiField("t1", "w" + (i % 10), "status_local", new JsonPrimitive("s" + i));
+        }
+        File logFile = new File(dir, CacheStore.LOG_FILE_NAME);
+        long sizeBefore = logFile.length();
+
+        store.compact();
+        assertTrue(logFile.length() < sizeBefore);
+
+        var reloaded = reload(dir);
+        assertEquals(10, reloaded.getWsiCount("t1"));
+        assertEquals("s49", reloaded.getWsiList("t1").get(9).get("status_local").getAsString());
+        assertEquals("t1", reloaded.getTask("t1").get("id").getAsString());
+    }
+
+    @Test
+    public void test_compactByDeadBytes() throws IOException {
+        File dir = new File(tempDir, "autocompact");
+        var store = CacheStore.getInstance(dir);
+        store.putTask(createTask("t1"));
+        var wsiList = createWsiList(1000);
+        File logFile = new File(dir, CacheStore.LOG_FILE_NAME);
+        store.putWsiList("t1", wsiList);
+        long liveBytes = logFile.length();
+        // Replacing the same list repeatedly leaves only dead records behind, so the log should be compacted
+        int n = 100;
+        assertTrue(n * liveBytes > 2 * CacheStore.COMPACT_MIN_BYTES);
+        for (int i = 0; i < n; i++) {
+            store.putWsiList("t1", wsiList);
+            assertTrue(logFile.length() <= CacheStore.COMPACT_MIN_BYTES + liveBytes);
+        }
+
+        // Small field updates shouldn't trigger compaction while the dead bytes are low
+        store.sync();
+        long sizeBefore = logFile.length();
+        store.updateWsiField("t1", "w1", "status_local", new JsonPrimitive("downloaded"));
+        store.sync();
+        assertTrue(logFile.length() > sizeBefore);
+
+        var reloaded = reload(dir);
+        assertEquals(1000, reloaded.getWsiCount("t1"));
+        assertEquals("downloaded", reloaded.getWsiList("t1").get(1).get("status_local").getAsString());
+    }
+
+    @Test
+    public void test_putWsiPage() throws IOException {
+        File dir = new File(tempDir, "page");
+        var store = CacheStore.getInstance(dir);
+        store.putTask(createTask("t1"));
+        store.putWsiList("t1", createWsiList(1000));
+        store.sync();
+        File logFile = new File(dir, CacheStore.LOG_FILE_NAME);
+        long sizeBefore = logFile.length();
+
+        // Replace the second page and append a new one
+        var page = createWsiList(1000).subList(100, 200);
+        page.forEach(wsi -> wsi.addProperty("status_local", "downloaded"));
+        store.putWsiPage("t1", 100, page);
+        var appended = createWsiList(1100).subList(1000, 1100);
+        store.putWsiPage("t1", 1000, appended);
+        store.sync();
+
+        // Only the pages should be written, not the whole list
+        long pageBytes = logFile.length() - sizeBefore;
+        assertTrue(pageBytes < sizeBefore / 2, "Page records should be much smaller than the full list");
+
+        var reloaded = reload(dir);
+        assertEquals(1100, reloaded.getWsiCount("t1"));
+        assertEquals("default", reloaded.getWsiList("t1").get(99).get("status_local").getAsString());
+        assertEquals("downloaded", reloaded.getWsiList("t1").get(150).get("status_local").getAsString());
+        assertEquals("w1050", reloaded.getWsiRange("t1", 1050, 1051).get(0).get("id").getAsString());
+        assertTrue(reloaded.updateWsiField("t1", "w1099", "local_path", new JsonPrimitive("/tmp/w1099.svs")));
+
+        // Pages are merged into a single list when compacting
+        reloaded.compact();
+        var compacted = reload(dir);
+        assertEquals(1100, compacted.getWsiCount("t1"));
+        assertEquals("/tmp/w1099.svs", compacted.getWsi("t1", "w1099").get("local_path").getAsString());
+        assertEquals("downloaded", compacted.getWsi("t1", "w150").get("status_local").getAsString());
+
+        assertThrows(IllegalArgumentException.class, () -> store.putWsiPage("t1", 2000, page));
+    }
+
+    @Test
+    public void test_wsiWithoutId() throws IOException {
+        File dir = new File(tempDir, "noid");
+        var store = CacheStore.getInstance(dir);
+        store.putTask(createTask("t1"));
+        var wsiList = createWsiList(3);
+        wsiList.get(0).remove("id");
+        wsiList.get(1).add("id", JsonNull.INSTANCE);
+        // An ID that looks like a generated placeholder must still refer to its own entry
+        wsiList.get(2).addProperty("id", "#1");
+        store.putWsiList("t1", wsiList);
+
+        assertTrue(store.updateWsiField("t1", "#1", "status_local", new JsonPrimitive("downloaded")));
+        assertFalse(store.updateWsiField("t1", "#0", "status_local", new JsonPrimitive("downloaded")));
+
+        var reloaded = reload(dir);
+        assertEquals(3, reloaded.getWsiCount("t1"));
+        assertEquals("default", reloaded.getWsiList("t1").get(1).get("status_local").getAsString());
+        assertEquals("downloaded", reloaded.getWsiList("t1").get(2).get("status_local").getAsString());
+        assertEquals("downloaded", reloaded.getWsi("t1", "#1").get("status_local").getAsString());
+    }
+
+    @Test
+    public void test_nullTaskId() {
+        File dir = new File(tempDir, "nulltask");
+        var store = CacheStore.getInstance(dir);
+        var task = createTask("t1");
+        task.add("id", JsonNull.INSTANCE);
+        assertThrows(IllegalArgumentException.class, () -> store.putTask(task));
+        assertThrows(IllegalArgumentException.class, () -> store.putTasks(List.of(createTask("t2"), task)));
+        assertThrows(IllegalArgumentException.class, () -> store.putWsiList(null, createWsiList(1)));
+        assertThrows(IllegalArgumentException.class, () -> store.putWsiPage(null, 0, createWsiList(1)));
+        assertTrue(store.isEmpty());
+        assertFalse(new File(dir, CacheStore.LOG_FILE_NAME).exists());
+    }
+
+    @Test
+    public void test_clear() throws IOException {
+        File dir = new File(tempDir, "clear");
+        var store = CacheStore.getInstance(dir);
+        store.putTask(createTask("t1"));
+        store.clear();
+        assertTrue(store.isEmpty());
+        assertFalse(new File(dir, CacheStore.LOG_FILE_NAME).exists());
+        assertTrue(reload(dir).isEmpty());
+    }
+
+    /**
+     * Create a fresh instance that replays the log from disk (bypassing the per-directory singleton)
+     */
+    private static CacheStore reload(File dir) {
+        return CacheStore.open(dir);
+    }
+
+    private static JsonObject createTask(String id) {
+        var task = new JsonObject();
+        task.addProperty("id", id);
+        task.addProperty("name", "Task " + id);
+        task.addProperty("num_wsi", 3);
+        return task;
+    }
+
+    private static List<JsonObject> createWsiList(int n) {
+        List<JsonObject> list = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            var wsi = new JsonObject();
+            wsi.addProperty("id", "w" + i);
+            wsi.addProperty("name", "slide" + i + ".svs");
+            wsi.addProperty("status_local", "default");
+            list.add(wsi);
+        }
+        return list;
+    }
+
+}
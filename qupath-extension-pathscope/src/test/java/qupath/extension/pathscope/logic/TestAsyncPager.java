@@ -0,0 +1,169 @@
+package qupath.extension.pathscope.logic;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import qupath.extension.pathscope.logic.ApiClient.PaginatedResult;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class TestAsyncPager {
+
+    private static final int TOTAL = 95;
+
+    // Single thread standing in for the JavaFX application thread
+    private final ExecutorService uiThread = Executors.newSingleThreadExecutor();
+
+    private final AtomicInteger remoteLoads = new AtomicInteger();
+    private final List<String> loaded = new ArrayList<>();
+    private volatile CountDownLatch remoteGate = new CountDownLatch(0);
+
+    private final AsyncPager.PageSource<String> source = new AsyncPager.PageSource<>() {
+        @Override
+        public PaginatedResult<String> loadCached(String query, int page, int pageSize) {
+            return null;
+        }
+
+        @Override
+        public PaginatedResult<String> loadRemote(String query, int page, int pageSize) throws IOException {
+            try {
+                remoteGate.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            remoteLoads.incrementAndGet();
+            List<String> items = new ArrayList<>();
+            for (int i = (page - 1) * pageSize; i < Math.min(TOTAL, page * pageSize); i++) {
+                items.add(query + ":" + i);
+            }
+            return new PaginatedResult<>(items, TOTAL);
+        }
+    };
+
+    private final AsyncPager.PageListener<String> listener = new AsyncPager.PageListener<>() {
+        @Override
+        public void pageLoaded(int page, PaginatedResult<String> result) {
+            synchronized (loaded) {
+                loaded.add(page + "=" + result.getItems().get(0));
+            }
+        }
+
+        @Override
+        public void pageFailed(int page, Exception e) {
+            synchronized (loaded) {
+                loaded.add(page + "=failed");
+            }
+        }
+    };
+
+    private final AsyncPager<String> pager = new AsyncPager<>("test-pager", source, listener, uiThread, 8);
+
+    @AfterEach
+    public void shutdown() {
+        pager.shutdown();
+        uiThread.shutdownNow();
+    }
+
+    @Test
+    public void test_prefetchAndCache() throws Exception {
+        runOnUi(() -> {
+            pager.setQuery("a", 10);
+            pager.showPage(1);
+        });
+        waitForCachedPages(2);
+        assertEquals(List.of("1=a:0"), snapshot());
+        assertEquals(2, remoteLoads.get());
+
+        // Page 2 was prefetched, so it is shown immediately without another request for it
+        runOnUi(() -> pager.showPage(2));
+        assertEquals(List.of("1=a:0", "2=a:10"), snapshot());
+
+        // Moving to page 2 prefetches page 3 only
+        waitForCachedPages(3);
+        assertEquals(3, remoteLoads.get());
+        runOnUi(() -> pager.showPage(3));
+        assertEquals("3=a:20", snapshot().get(2));
+    }
+
+    @Test
+    public void test_lastPage() throws Exception {
+        runOnUi(() -> {
+            pager.setQuery("a", 10);
+            pager.showPage(10);
+        });
+        waitFor(() -> snapshot().size() == 1);
+        assertEquals("10=a:90", snapshot().get(0));
+        waitForUi();
+        // Page 11 is beyond the total and should not be prefetched once the total is known
+        runOnUi(() -> pager.showPage(10));
+        Thread.sleep(100);
+        assertTrue(remoteLoads.get() <= 3);
+    }
+
+    @Test
+    public void test_staleRequestsAreDropped() throws Exception {
+        remoteGate = new CountDownLatch(1);
+        runOnUi(() -> {
+            pager.setQuery("a", 10);
+            pager.showPage(1);
+        });
+        // Change the query while the first requests are blocked
+        runOnUi(() -> {
+            pager.setQuery("b", 10);
+            pager.showPage(1);
+        });
+        remoteGate.countDown();
+
+        waitFor(() -> !snapshot().isEmpty());
+        Thread.sleep(100);
+        waitForUi();
+        for (String entry : snapshot()) {
+            assertTrue(entry.contains("=b:"), "Stale page delivered: " + entry);
+        }
+    }
+
+    private List<String> snapshot() {
+        synchronized (loaded) {
+            return new ArrayList<>(loaded);
+        }
+    }
+
+    private void runOnUi(Runnable runnable) throws Exception {
+        uiThread.submit(runnable).get(5, TimeUnit.SECONDS);
+    }
+
+    private void waitForCachedPages(int n) throws Exception {
+        long end = System.currentTimeMillis() + 5000;
+        while (uiThread.submit(pager::getCachedPageCount).get() < n) {
+            if (System.currentTimeMillis() > end) {
+                throw new AssertionError("Timed out waiting for " + n + " cached pages");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private void waitForUi() throws Exception {
+        runOnUi(() -> {});
+    }
+
+    private static void waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > end) {
+                throw new AssertionError("Timed out waiting for condition");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+}
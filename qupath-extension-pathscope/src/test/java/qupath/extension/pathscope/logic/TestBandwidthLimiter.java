@@ -0,0 +1,75 @@
+package qupath.extension.pathscope.logic;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class TestBandwidthLimiter {
+
+    @Test
+    public void test_unlimited() throws InterruptedException {
+        var limiter = new BandwidthLimiter(0);
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            limiter.acquire(1024 * 1024);
+        }
+        assertTrue(System.nanoTime() - start < 1_000_000_000L);
+    }
+
+    @Test
+    public void test_limited() throws InterruptedException {
+        long rate = 1024 * 1024;
+        var limiter = new BandwidthLimiter(rate);
+        long start = System.nanoTime();
+        // The bucket starts empty, so 1.5 MB at 1 MB/s should take about 1.5 seconds
+        for (int i = 0; i < 24; i++) {
+            limiter.acquire(64 * 1024);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        assertTrue(seconds >= 1.2, "Expected throttling, but took " + seconds + " s");
+        assertTrue(seconds < 5.0, "Throttled too much, took " + seconds + " s");
+    }
+
+    @Test
+    public void test_sharedBetweenThreads() throws InterruptedException {
+        var limiter = new BandwidthLimiter(1024 * 1024);
+        List<Thread> threads = new ArrayList<>();
+        long start = System.nanoTime();
+        // 4 downloads of 384 KB share the same 1 MB/s bucket, so together they should take about 1.5 seconds
+        for (int t = 0; t < 4; t++) {
+            var thread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 6; i++) {
+                        limiter.acquire(64 * 1024);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (var thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        assertTrue(seconds >= 1.2, "Expected a shared limit, but took " + seconds + " s");
+        assertTrue(seconds < 5.0, "Throttled too much, took " + seconds + " s");
+    }
+
+    @Test
+    public void test_removeLimit() throws InterruptedException {
+        var limiter = new BandwidthLimiter(1024);
+        limiter.setBytesPerSecond(0);
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            limiter.acquire(1024 * 1024);
+        }
+        assertTrue(System.nanoTime() - start < 1_000_000_000L);
+    }
+
+}
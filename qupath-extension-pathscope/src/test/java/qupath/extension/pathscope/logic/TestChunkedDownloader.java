@@ -0,0 +1,353 @@
+package qupath.extension.pathscope.logic;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.Headers;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class TestChunkedDownloader {
+
+    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    @TempDir
+    File tempDir;
+
+    private HttpServer server;
+    private byte[] content;
+    private final AtomicLong bytesServed = new AtomicLong();
+    private final AtomicBoolean supportRanges = new AtomicBoolean(true);
+    private volatile long failAtOffset = -1;
+    private volatile String reprDigest;
+    private volatile String etag = "\"v1\"";
+    private volatile String lastModified;
+    private final List<String> ifRangeHeaders = new ArrayList<>();
+    private final AtomicLong rangeRequests = new AtomicLong();
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        content = new byte[CHUNK_SIZE * 10 + 1234];
+        new Random(42).nextBytes(content);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/wsi", this::handle);
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        if (etag != null) {
+            exchange.getResponseHeaders().add("ETag", etag);
+        }
+        if (lastModified != null) {
+            exchange.getResponseHeaders().add("Last-Modified", lastModified);
+        }
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        Matcher matcher = range == null ? null : RANGE_PATTERN.matcher(range);
+        if (!supportRanges.get() || matcher == null || !matcher.matches()) {
+            send(exchange, 200, 0, content.length - 1);
+            return;
+        }
+        rangeRequests.incrementAndGet();
+        // As required for If-Range, only a strong ETag or the date may match, otherwise the whole file is sent
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        if (ifRange != null) {
+            synchronized (ifRangeHeaders) {
+                ifRangeHeaders.add(ifRange);
+            }
+            boolean matches = ifRange.startsWith("\"") ? ifRange.equals(etag) && !etag.startsWith("W/") : ifRange.equals(lastModified);
+            if (!matches) {
+                send(exchange, 200, 0, content.length - 1);
+                return;
+            }
+        }
+        long start = Long.parseLong(matcher.group(1));
+        long end = Math.min(Long.parseLong(matcher.group(2)), content.length - 1);
+        if (start == failAtOffset) {
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+        send(exchange, 206, start, end);
+    }
+
+    private void send(HttpExchange exchange, int code, long start, long end) throws IOException {
+        if (reprDigest != null) {
+            exchange.getResponseHeaders().add("Repr-Digest", reprDigest);
+        }
+        int length = (int) (end - start + 1);
+        exchange.sendResponseHeaders(code, length);
+        try (OutputStream stream = exchange.getResponseBody()) {
+            stream.write(content, (int) start, length);
+        }
+        bytesServed.addAndGet(length);
+    }
+
+    private static byte[] sha256(byte[] bytes) throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("SHA-256").digest(bytes);
+    }
+
+    private String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/wsi";
+    }
+
+    @Test
+    public void test_parallelDownload() throws IOException {
+        File target = new File(tempDir, "slide.tif");
+        File stateFile = new File(tempDir, "slide.download.json");
+        AtomicLong lastProgress = new AtomicLong();
+
+        var downloader = new ChunkedDownloader(new OkHttpClient(), "token", 4, CHUNK_SIZE);
+        assertTrue(downloader.download(url(), target.getPath(), stateFile, (read, total) -> {
+            assertEquals(content.length, total);
+            lastProgress.accumulateAndGet(read, Math::max);
+        }));
+
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertEquals(content.length, lastProgress.get());
+        assertFalse(stateFile.exists());
+        assertFalse(new File(target.getPath() + ".part").exists());
+        // Every chunk request is conditional on the strong ETag
+        assertEquals(11, ifRangeHeaders.size());
+        assertTrue(ifRangeHeaders.stream().allMatch("\"v1\""::equals));
+    }
+
+    @Test
+    public void test_noValidator() throws IOException {
+        etag = null;
+        File target = new File(tempDir, "slide.tif");
+        File stateFile = new File(tempDir, "slide.download.json");
+
+        // Without a validator, chunks could come from different versions of the file, so use a single request
+        var downloader = new ChunkedDownloader(new OkHttpClient(), null, 4, CHUNK_SIZE);
+        assertTrue(downloader.download(url(), target.getPath(), stateFile, null));
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertEquals(1, rangeRequests.get());
+        assertEquals(content.length + 1, bytesServed.get());
+        assertTrue(ifRangeHeaders.isEmpty());
+        assertFalse(stateFile.exists());
+    }
+
+    @Test
+    public void test_weakETag() throws IOException {
+        etag = "W/\"v1\"";
+        File target = new File(tempDir, "slide.tif");
+
+        // A weak ETag must not be used for If-Range
+        var downloader = new ChunkedDownloader(new OkHttpClient(), null, 4, CHUNK_SIZE);
+        assertTrue(downloader.download(url(), target.getPath(), new File(tempDir, "slide.download.json"), null));
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertEquals(1, rangeRequests.get());
+        assertTrue(ifRangeHeaders.isEmpty());
+
+        // ... but the Last-Modified date can be
+        lastModified = "Wed, 01 Jan 2025 00:00:00 GMT";
+        bytesServed.set(0);
+        assertTrue(downloader.download(url(), target.getPath(), new File(tempDir, "slide.download.json"), null));
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertEquals(content.length + 1, bytesServed.get());
+        assertEquals(11, ifRangeHeaders.size());
+        assertTrue(ifRangeHeaders.stream().allMatch(lastModified::equals));
+    }
+
+    @Test
+    public void test_changedBeforeResume() throws IOException {
+        File target = new File(tempDir, "slide.tif");
+        File stateFile = new File(tempDir, "slide.download.json");
+
+        var downloader = new ChunkedDownloader(new OkHttpClient(), null, 1, CHUNK_SIZE);
+        failAtOffset = CHUNK_SIZE * 6L;
+        assertThrows(IOException.class, () -> downloader.download(url(), target.getPath(), stateFile, null));
+
+        // The file changes on the server, so the completed chunks must not be reused
+        failAtOffset = -1;
+        new Random(43).nextBytes(content);
+        etag = "\"v2\"";
+        bytesServed.set(0);
+        assertTrue(downloader.download(url(), target.getPath(), stateFile, null));
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertEquals(content.length + 1, bytesServed.get());
+    }
+
+    @Test
+    public void test_changedDuringDownload() {
+        File target = new File(tempDir, "slide.tif");
+
+        // The file changed after the probe, so If-Range no longer matches and chunks must not be mixed
+        var downloader = new ChunkedDownloader(new OkHttpClient(), null, 1, CHUNK_SIZE);
+        server.removeContext("/wsi");
+        server.createContext("/wsi", exchange -> {
+            if (exchange.getRequestHeaders().getFirst("If-Range") != null) {
+                etag = "\"v2\"";
+            }
+            handle(exchange);
+        });
+        assertThrows(ChunkedDownloader.FileChangedException.class,
+                () -> downloader.download(url(), target.getPath(), new File(tempDir, "slide.download.json"), null));
+        assertFalse(target.exists());
+        // Not retried, since the server will keep sending the new version
+        assertEquals(2, rangeRequests.get());
+    }
+
+    @Test
+    public void test_ifRangeValidator() {
+        assertEquals("\"abc\"", ChunkedDownloader.getIfRangeValidator(Headers.of("ETag", "\"abc\"")));
+        assertNull(ChunkedDownloader.getIfRangeValidator(Headers.of("ETag", "W/\"abc\"")));
+        assertNull(ChunkedDownloader.getIfRangeValidator(Headers.of()));
+        String modified = "Wed, 01 Jan 2025 00:00:00 GMT";
+        assertEquals(modified, ChunkedDownloader.getIfRangeValidator(Headers.of("ETag", "W/\"abc\"", "Last-Modified", modified)));
+        assertEquals(modified, ChunkedDownloader.getIfRangeValidator(
+                Headers.of("Last-Modified", modified, "Date", "Wed, 01 Jan 2025 00:00:05 GMT")));
+        // A modification time within a second of the response date is only a weak validator
+        assertNull(ChunkedDownloader.getIfRangeValidator(
+                Headers.of("Last-Modified", modified, "Date", modified)));
+        assertNull(ChunkedDownloader.getIfRangeValidator(Headers.of("Last-Modified", "yesterday")));
+    }
+
+    @Test
+    public void test_resumeAfterFailure() throws IOException {
+        File target = new File(tempDir, "slide.tif");
+        File stateFile = new File(tempDir, "slide.download.json");
+
+        // Single connection, so chunks are fetched in order and the failure point is deterministic
+        var downloader = new ChunkedDownloader(new OkHttpClient(), null, 1, CHUNK_SIZE);
+        failAtOffset = CHUNK_SIZE * 6L;
+        assertThrows(IOException.class, () -> downloader.download(url(), target.getPath(), stateFile, null));
+        assertTrue(stateFile.exists());
+        assertFalse(target.exists());
+
+        failAtOffset = -1;
+        bytesServed.set(0);
+        assertTrue(downloader.download(url(), target.getPath(), stateFile, null));
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        // Only the chunks that were not completed should be requested again (plus the 1-byte probe)
+        assertEquals(content.length - CHUNK_SIZE * 6L + 1, bytesServed.get());
+        assertFalse(stateFile.exists());
+    }
+
+    @Test
+    public void test_noRangeSupport() throws IOException {
+        supportRanges.set(false);
+        File target = new File(tempDir, "slide.tif");
+        File stateFile = new File(tempDir, "slide.download.json");
+
+        var downloader = new ChunkedDownloader(new OkHttpClient(), null, 4, CHUNK_SIZE);
+        assertTrue(downloader.download(url(), target.getPath(), stateFile, null));
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertEquals(content.length, bytesServed.get());
+    }
+
+    @Test
+    public void test_checksumFromHeader() throws Exception {
+        reprDigest = "sha-256=:" + Base64.getEncoder().encodeToString(sha256(content)) + ":";
+        File target = new File(tempDir, "slide.tif");
+
+        var downloader = new ChunkedDownloader(new OkHttpClient(), null, 4, CHUNK_SIZE);
+        assertTrue(downloader.download(url(), target.getPath(), new File(tempDir, "slide.download.json"), null));
+        assertEquals("SHA-256", downloader.getChecksumAlgorithm());
+        assertEquals(StreamingDigest.toHex(sha256(content)), downloader.getChecksum());
+    }
+
+    @Test
+    public void test_checksumAfterResume() throws Exception {
+        File target = new File(tempDir, "slide.tif");
+        File stateFile = new File(tempDir, "slide.download.json");
+        String expected = StreamingDigest.toHex(sha256(content));
+
+        var downloader = new ChunkedDownloader(new OkHttpClient(), null, 1, CHUNK_SIZE);
+        downloader.setExpectedChecksum("SHA-256", expected);
+        failAtOffset = CHUNK_SIZE * 3L;
+        assertThrows(IOException.class, () -> downloader.download(url(), target.getPath(), stateFile, null));
+
+        // Chunks completed before the failure are read back from disk, the rest is hashed while downloading
+        failAtOffset = -1;
+        assertTrue(downloader.download(url(), target.getPath(), stateFile, null));
+        assertEquals(expected, downloader.getChecksum());
+    }
+
+    @Test
+    public void test_checksumMismatch() throws Exception {
+        File target = new File(tempDir, "slide.tif");
+        File stateFile = new File(tempDir, "slide.download.json");
+
+        var downloader = new ChunkedDownloader(new OkHttpClient(), null, 4, CHUNK_SIZE);
+        downloader.setExpectedChecksum("MD5", "00000000000000000000000000000000");
+        var e = assertThrows(ChunkedDownloader.ChecksumMismatchException.class,
+                () -> downloader.download(url(), target.getPath(), stateFile, null));
+        assertEquals("MD5", e.getAlgorithm());
+        assertFalse(target.exists());
+        assertFalse(new File(target.getPath() + ".part").exists());
+        assertFalse(stateFile.exists());
+    }
+
+    @Test
+    public void test_checksumWithoutRangeSupport() throws Exception {
+        supportRanges.set(false);
+        File target = new File(tempDir, "slide.tif");
+        String expected = StreamingDigest.toHex(sha256(content));
+
+        var downloader = new ChunkedDownloader(new OkHttpClient(), null, 4, CHUNK_SIZE);
+        downloader.setExpectedChecksum("SHA-256", expected.toUpperCase());
+        assertTrue(downloader.download(url(), target.getPath(), null, null));
+        assertEquals(expected, downloader.getChecksum());
+    }
+
+    @Test
+    public void test_parseDigestHeader() {
+        String hex = "b94d27b9934d3e08a52e52d7da7dabfac484efe37a5380ee9088f7ace2efcde9";
+        String base64 = "uU0nuZNNPgilLlLX2n2r+sSE7+N6U4DukIj3rOLvzek=";
+        String[] parsed = ChunkedDownloader.parseDigestHeader("sha-256=:" + base64 + ":");
+        assertEquals("SHA-256", parsed[0]);
+        assertEquals(hex, parsed[1]);
+        // RFC 3230 style, SHA-256 preferred over MD5
+        parsed = ChunkedDownloader.parseDigestHeader("MD5=XrY7u+Ae7tCTyyK7j1rNww==, SHA-256=" + base64);
+        assertEquals("SHA-256", parsed[0]);
+        parsed = ChunkedDownloader.parseDigestHeader("md5=XrY7u+Ae7tCTyyK7j1rNww==");
+        assertEquals("MD5", parsed[0]);
+        assertEquals("5eb63bbbe01eeed093cb22bb8f5acdc3", parsed[1]);
+        assertEquals(null, ChunkedDownloader.parseDigestHeader("sha-512=:abc:"));
+    }
+
+    @Test
+    public void test_parseTotalBytes() {
+        assertEquals(12345, ChunkedDownloader.parseTotalBytes("bytes 0-0/12345"));
+        assertEquals(-1, ChunkedDownloader.parseTotalBytes("bytes 0-0/*"));
+        assertEquals(-1, ChunkedDownloader.parseTotalBytes(null));
+    }
+
+}
@@ -0,0 +1,279 @@
+package qupath.extension.pathscope.logic;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import qupath.extension.pathscope.data.DownloadTask;
+import qupath.extension.pathscope.data.TaskFile;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class TestDownloadManager {
+
+    // Single thread standing in for the JavaFX application thread
+    private final ExecutorService uiThread = Executors.newSingleThreadExecutor();
+
+    private final BandwidthLimiter bandwidthLimiter = new BandwidthLimiter(0);
+    private final BlockingTransfer transfer = new BlockingTransfer();
+
+    // A single worker, so the order downloads start in is the queue order
+    private final DownloadManager manager = new DownloadManager(transfer, 1, bandwidthLimiter, uiThread,
+            onPulse -> new DownloadProgressMonitor.PulseSource() {
+                @Override
+                public void start() {
+                }
+
+                @Override
+                public void stop() {
+                }
+            });
+
+    @AfterEach
+    public void shutdown() {
+        manager.shutdown();
+        uiThread.shutdownNow();
+    }
+
+    @Test
+    public void test_priorityOrder() throws Exception {
+        TaskFile a = createTaskFile("a");
+        TaskFile b = createTaskFile("b");
+        TaskFile c = createTaskFile("c");
+        TaskFile d = createTaskFile("d");
+
+        assertTrue(manager.addDownload(a, "a.svs", null));
+        waitFor(() -> transfer.started().equals(List.of("a")));
+        assertTrue(manager.addDownload(b, "b.svs", null));
+        assertTrue(manager.addDownload(c, "c.svs", null));
+        assertTrue(manager.addDownload(d, "d.svs", null));
+        // Downloads are added from the UI thread, once the earlier additions have reached the list
+        waitForUi();
+        assertFalse(runOnUi(() -> manager.addDownload(b, "b.svs", null)), "Duplicate download should be rejected");
+
+        // Only waiting downloads can be moved to the front
+        assertFalse(manager.prioritize(a));
+        assertTrue(manager.prioritize(d));
+
+        transfer.release("b", "c", "d");
+        transfer.release("a");
+        for (String id : List.of("a", "b", "c", "d")) {
+            waitForStatus(id, DownloadTask.Status.COMPLETED);
+        }
+        assertEquals(List.of("a", "d", "b", "c"), transfer.started());
+        assertEquals(List.of("a", "d", "b", "c"), transfer.completed());
+        assertEquals("downloaded", d.getLocalStatus());
+        assertSame(bandwidthLimiter, transfer.limiter);
+    }
+
+    @Test
+    public void test_pauseAndResume() throws Exception {
+        TaskFile a = createTaskFile("a");
+        TaskFile b = createTaskFile("b");
+        manager.addDownload(a, "a.svs", null);
+        manager.addDownload(b, "b.svs", null);
+        waitFor(() -> transfer.started().equals(List.of("a")));
+
+        // A waiting download is paused without being started
+        manager.pause(getDownloadTask("b"));
+        waitForStatus("b", DownloadTask.Status.PAUSED);
+
+        // A running download is stopped by the worker
+        manager.pause(getDownloadTask("a"));
+        waitForStatus("a", DownloadTask.Status.PAUSED);
+        assertEquals("default", a.getLocalStatus());
+        assertEquals(List.of("a"), transfer.started());
+
+        manager.resume(getDownloadTask("b"));
+        waitFor(() -> transfer.started().equals(List.of("a", "b")));
+        transfer.release("b");
+        waitForStatus("b", DownloadTask.Status.COMPLETED);
+
+        // Adding a paused download again resumes it
+        assertTrue(manager.addDownload(a, "a.svs", null));
+        waitFor(() -> transfer.started().equals(List.of("a", "b", "a")));
+        transfer.release("a");
+        waitForStatus("a", DownloadTask.Status.COMPLETED);
+        assertEquals(List.of("b", "a"), transfer.completed());
+        assertTrue(transfer.discarded().isEmpty());
+    }
+
+    @Test
+    public void test_cancel() throws Exception {
+        manager.addDownload(createTaskFile("a"), "a.svs", null);
+        manager.addDownload(createTaskFile("b"), "b.svs", null);
+        manager.addDownload(createTaskFile("c"), "c.svs", null);
+        waitFor(() -> transfer.started().equals(List.of("a")));
+
+        // Cancel a waiting download
+        manager.cancel(getDownloadTask("b"));
+        waitForStatus("b", DownloadTask.Status.CANCELLED);
+
+        // Cancel a paused download
+        manager.pause(getDownloadTask("a"));
+        waitForStatus("a", DownloadTask.Status.PAUSED);
+        manager.cancel(getDownloadTask("a"));
+        waitForStatus("a", DownloadTask.Status.CANCELLED);
+
+        // Cancel a running download
+        waitFor(() -> transfer.started().equals(List.of("a", "c")));
+        manager.cancel(getDownloadTask("c"));
+        waitForStatus("c", DownloadTask.Status.CANCELLED);
+
+        assertEquals(List.of("b", "a", "c"), transfer.discarded());
+        assertTrue(transfer.completed().isEmpty());
+
+        runOnUi(manager::clearFinished);
+        waitForUi();
+        assertTrue(runOnUi(() -> manager.getDownloadTasks().isEmpty()));
+    }
+
+    @Test
+    public void test_progressPublishedWhenStopped() throws Exception {
+        manager.addDownload(createTaskFile("a"), "a.svs", null);
+        waitFor(() -> transfer.started().equals(List.of("a")));
+        DownloadTask downloadTask = getDownloadTask("a");
+        // The progress monitor is not pulsing, so nothing has been published yet
+        assertEquals(0L, runOnUi(downloadTask::getDownloadedBytes));
+
+        manager.pause(downloadTask);
+        waitForStatus("a", DownloadTask.Status.PAUSED);
+        assertEquals(50L, runOnUi(downloadTask::getDownloadedBytes));
+        assertEquals(0.5, runOnUi(downloadTask::getProgress), 1e-6);
+    }
+
+    private static TaskFile createTaskFile(String id) {
+        return new TaskFile(id, "wsi", "task", null, null, false, null, null, 0, null, null);
+    }
+
+    private DownloadTask getDownloadTask(String id) throws Exception {
+        return runOnUi(() -> manager.getDownloadTasks().stream()
+                .filter(dt -> dt.getTaskFile().getId().equals(id))
+                .findFirst()
+                .orElseThrow());
+    }
+
+    private void waitForStatus(String id, DownloadTask.Status status) throws Exception {
+        long end = System.currentTimeMillis() + 5000;
+        while (runOnUi(() -> manager.getDownloadTasks().stream()
+                .noneMatch(dt -> dt.getTaskFile().getId().equals(id) && dt.getStatus() == status))) {
+            if (System.currentTimeMillis() > end) {
+                throw new AssertionError("Timed out waiting for " + id + " to be " + status);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private <T> T runOnUi(Callable<T> callable) throws Exception {
+        return uiThread.submit(callable).get(5, TimeUnit.SECONDS);
+    }
+
+    private void runOnUi(Runnable runnable) throws Exception {
+        uiThread.submit(runnable).get(5, TimeUnit.SECONDS);
+    }
+
+    private void waitForUi() throws Exception {
+        runOnUi(() -> {});
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > end) {
+                throw new AssertionError("Timed out waiting for condition");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Transfer that reports half the file, then blocks until released or stopped.
+     */
+    private static class BlockingTransfer implements DownloadManager.Transfer {
+
+        private final Map<String, CountDownLatch> gates = new ConcurrentHashMap<>();
+        private final List<String> started = new ArrayList<>();
+        private final List<String> completed = new ArrayList<>();
+        private final List<String> discarded = new ArrayList<>();
+        private volatile BandwidthLimiter limiter;
+
+        @Override
+        public boolean download(DownloadTask downloadTask, BandwidthLimiter bandwidthLimiter) throws IOException {
+            String id = downloadTask.getTaskFile().getId();
+            add(started, id);
+            limiter = bandwidthLimiter;
+            downloadTask.recordTransfer(50, 100);
+            try {
+                while (!gate(id).await(5, TimeUnit.MILLISECONDS)) {
+                    if (downloadTask.isStopRequested()) {
+                        throw new ChunkedDownloader.DownloadStoppedException();
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            downloadTask.recordTransfer(100, 100);
+            return true;
+        }
+
+        @Override
+        public void discard(DownloadTask downloadTask) {
+            add(discarded, downloadTask.getTaskFile().getId());
+        }
+
+        @Override
+        public void completed(DownloadTask downloadTask) {
+            add(completed, downloadTask.getTaskFile().getId());
+        }
+
+        void release(String... ids) {
+            for (String id : ids) {
+                gate(id).countDown();
+            }
+        }
+
+        List<String> started() {
+            return copy(started);
+        }
+
+        List<String> completed() {
+            return copy(completed);
+        }
+
+        List<String> discarded() {
+            return copy(discarded);
+        }
+
+        private CountDownLatch gate(String id) {
+            return gates.computeIfAbsent(id, k -> new CountDownLatch(1));
+        }
+
+        private static void add(List<String> list, String id) {
+            synchronized (list) {
+                list.add(id);
+            }
+        }
+
+        private static List<String> copy(List<String> list) {
+            synchronized (list) {
+                return new ArrayList<>(list);
+            }
+        }
+    }
+
+}
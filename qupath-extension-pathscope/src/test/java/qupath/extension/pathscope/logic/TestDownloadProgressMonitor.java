@@ -0,0 +1,125 @@
+package qupath.extension.pathscope.logic;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.junit.jupiter.api.Test;
+import qupath.extension.pathscope.data.DownloadTask;
+import qupath.extension.pathscope.data.TaskFile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class TestDownloadProgressMonitor {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    private final ObservableList<DownloadTask> downloadTasks = FXCollections.observableArrayList();
+    private final ManualPulse pulse = new ManualPulse();
+    // Runs everything on the calling thread, which stands in for the JavaFX application thread
+    private final DownloadProgressMonitor monitor = new DownloadProgressMonitor(downloadTasks, 10, Runnable::run,
+            onPulse -> pulse);
+
+    @Test
+    public void test_updatesCoalesced() {
+        DownloadTask downloadTask = createDownloadTask("a");
+        List<Long> published = new ArrayList<>();
+        downloadTask.downloadedBytesProperty().addListener((v, o, n) -> published.add(n.longValue()));
+
+        monitor.ensureRunning();
+        assertTrue(pulse.running);
+        assertTrue(monitor.isRunning());
+
+        // Many reads between pulses result in a single property update
+        for (int i = 1; i <= 100; i++) {
+            downloadTask.recordTransfer(i * 1000L, 1_000_000L);
+        }
+        assertTrue(published.isEmpty());
+        monitor.pulse(SECOND);
+        assertEquals(List.of(100_000L), published);
+        assertEquals(0.1, downloadTask.getProgress(), 1e-6);
+
+        // Pulses arriving faster than the frame rate are skipped
+        downloadTask.recordTransfer(150_000L, 1_000_000L);
+        monitor.pulse(SECOND + SECOND / 20);
+        assertEquals(List.of(100_000L), published);
+
+        monitor.pulse(SECOND + SECOND / 10);
+        assertEquals(List.of(100_000L, 150_000L), published);
+        assertTrue(downloadTask.getBytesPerSecond() > 0);
+        assertEquals(downloadTask.getBytesPerSecond(), monitor.totalBytesPerSecondProperty().get(), 1e-6);
+        assertEquals(1, monitor.activeDownloadsProperty().get());
+    }
+
+    @Test
+    public void test_finalUpdateDelivered() {
+        DownloadTask downloadTask = createDownloadTask("a");
+        monitor.ensureRunning();
+        monitor.pulse(SECOND);
+
+        // The last read lands between pulses, then the download finishes before the next one
+        downloadTask.recordTransfer(1_000_000L, 1_000_000L);
+        monitor.publishNow(downloadTask);
+        downloadTask.setStatus(DownloadTask.Status.COMPLETED);
+        assertEquals(1_000_000L, downloadTask.getDownloadedBytes());
+        assertEquals(1.0, downloadTask.getProgress(), 1e-6);
+    }
+
+    @Test
+    public void test_stopsWhenIdle() {
+        DownloadTask a = createDownloadTask("a");
+        DownloadTask b = createDownloadTask("b");
+        monitor.ensureRunning();
+        monitor.pulse(SECOND);
+        assertEquals(2, monitor.activeDownloadsProperty().get());
+        assertTrue(monitor.isRunning());
+
+        a.setStatus(DownloadTask.Status.COMPLETED);
+        b.setStatus(DownloadTask.Status.PAUSED);
+        monitor.pulse(2 * SECOND);
+        assertEquals(0, monitor.activeDownloadsProperty().get());
+        assertEquals(0, monitor.totalBytesPerSecondProperty().get(), 1e-6);
+        assertFalse(monitor.isRunning());
+        assertFalse(pulse.running);
+        assertEquals(1, pulse.starts);
+
+        // Restarting begins a new sampling interval
+        b.setStatus(DownloadTask.Status.DOWNLOADING);
+        monitor.ensureRunning();
+        monitor.ensureRunning();
+        assertEquals(2, pulse.starts);
+        b.recordTransfer(10_000L, 1_000_000L);
+        monitor.pulse(2 * SECOND + 1);
+        assertEquals(10_000L, b.getDownloadedBytes());
+    }
+
+    private DownloadTask createDownloadTask(String id) {
+        TaskFile taskFile = new TaskFile(id, "wsi", "task", null, null, false, null, null, 0, null, null);
+        DownloadTask downloadTask = new DownloadTask(taskFile, id + ".svs", null);
+        downloadTask.setStatus(DownloadTask.Status.DOWNLOADING);
+        downloadTasks.add(downloadTask);
+        return downloadTask;
+    }
+
+    private static class ManualPulse implements DownloadProgressMonitor.PulseSource {
+
+        private boolean running;
+        private int starts;
+
+        @Override
+        public void start() {
+            running = true;
+            starts++;
+        }
+
+        @Override
+        public void stop() {
+            running = false;
+        }
+    }
+
+}
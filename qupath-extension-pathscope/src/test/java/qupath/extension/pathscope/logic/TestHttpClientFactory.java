@@ -0,0 +1,275 @@
+package qupath.extension.pathscope.logic;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class TestHttpClientFactory {
+
+    private static final String LAST_MODIFIED = "Mon, 06 Oct 2025 08:00:00 GMT";
+
+    @TempDir
+    File tempDir;
+
+    private HttpServer server;
+    private String baseUrl;
+
+    private volatile String body;
+    private volatile int version = 1;
+    private volatile boolean sendETag = true;
+    private volatile boolean sendLastModified = true;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        body = createBody(1);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/pathos/pa_project_task_wsi/", this::handle);
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+
+        String etag = "\"v" + version + "\"";
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+        if (sendETag) {
+            exchange.getResponseHeaders().add("ETag", etag);
+        }
+        if (sendLastModified) {
+            exchange.getResponseHeaders().add("Last-Modified", LAST_MODIFIED);
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+
+        boolean unchanged = sendETag ? etag.equals(ifNoneMatch) : LAST_MODIFIED.equals(ifModifiedSince);
+        if (unchanged) {
+            notModified.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(bytes);
+            }
+            bytes = compressed.toByteArray();
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        }
+        // Count before sending, since the client may have read the response before the stream is closed
+        bytesSent.addAndGet(bytes.length);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream stream = exchange.getResponseBody()) {
+            stream.write(bytes);
+        }
+    }
+
+    @Test
+    public void test_etagRevalidation() throws IOException {
+        var statistics = new HttpClientFactory.Statistics();
+        var client = createClient(statistics);
+
+        int nRequests = 5;
+        for (int i = 0; i < nRequests; i++) {
+            assertEquals(body, get(client, "?project_task=1&page=1&limit=100"));
+        }
+        long bytesPerResponse = bytesSent.get();
+
+        assertEquals(nRequests, requests.get());
+        assertEquals(nRequests - 1, notModified.get());
+        assertEquals(nRequests, statistics.getRequestCount());
+        assertEquals(nRequests, statistics.getNetworkCount());
+        assertEquals(nRequests - 1, statistics.getNotModifiedCount());
+        assertEquals((nRequests - 1) * bytesPerResponse, statistics.getBytesSaved());
+    }
+
+    @Test
+    public void test_lastModifiedRevalidation() throws IOException {
+        sendETag = false;
+        var statistics = new HttpClientFactory.Statistics();
+        var client = createClient(statistics);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(body, get(client, "?project_task=2"));
+        }
+        assertEquals(3, requests.get());
+        assertEquals(2, notModified.get());
+        assertEquals(2, statistics.getNotModifiedCount());
+    }
+
+    @Test
+    public void test_changedContentIsFetched() throws IOException {
+        var client = createClient(null);
+        assertEquals(body, get(client, "?project_task=3"));
+        assertEquals(body, get(client, "?project_task=3"));
+
+        version = 2;
+        body = createBody(2);
+        assertEquals(body, get(client, "?project_task=3"));
+        assertEquals(body, get(client, "?project_task=3"));
+
+        assertEquals(4, requests.get());
+        assertEquals(2, notModified.get());
+    }
+
+    @Test
+    public void test_gzip() throws IOException {
+        var client = createClient(null);
+        assertEquals(body, get(client, "?project_task=4"));
+        long uncompressed = body.getBytes(StandardCharsets.UTF_8).length;
+        assertTrue(bytesSent.get() < uncompressed / 2,
+                "Expected compressed response, but sent " + bytesSent.get() + " of " + uncompressed + " bytes");
+    }
+
+    @Test
+    public void test_connectionReuse() throws IOException {
+        var client = createClient(null);
+        for (int i = 0; i < 10; i++) {
+            get(client, "?project_task=" + i);
+        }
+        assertEquals(10, requests.get());
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void test_downloadClient() throws IOException {
+        var statistics = new HttpClientFactory.Statistics();
+        var apiClient = createClient(statistics);
+        var client = HttpClientFactory.createDownloadClient(apiClient);
+        assertEquals(List.of(Protocol.HTTP_1_1), client.protocols());
+        assertNotSame(apiClient.connectionPool(), client.connectionPool());
+
+        get(client, "?project_task=5");
+        long bytesPerResponse = bytesSent.get();
+        get(client, "?project_task=5");
+
+        assertEquals(2, requests.get());
+        assertEquals(0, notModified.get());
+        assertEquals(2 * bytesPerResponse, bytesSent.get());
+        assertEquals(0, statistics.getBytesSaved());
+    }
+
+    @Test
+    public void test_downloadConnections() throws Exception {
+        int n = 4;
+        var arrived = new CountDownLatch(n);
+        var pool = Executors.newFixedThreadPool(n * 2);
+        var downloadServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        downloadServer.setExecutor(pool);
+        // Only respond once all requests have reached the server, so they must be in flight together
+        downloadServer.createContext("/download/", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            arrived.countDown();
+            try {
+                arrived.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] bytes = new byte[1024];
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream stream = exchange.getResponseBody()) {
+                stream.write(bytes);
+            }
+        });
+        downloadServer.start();
+        var client = HttpClientFactory.createDownloadClient(createClient(null));
+        try {
+            String url = "http://127.0.0.1:" + downloadServer.getAddress().getPort() + "/download/";
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                var request = new Request.Builder().url(url + i).build();
+                futures.add(pool.submit(() -> {
+                    try (Response response = client.newCall(request).execute()) {
+                        return response.body().bytes().length;
+                    }
+                }));
+            }
+            for (var future : futures) {
+                assertEquals(1024, future.get(20, TimeUnit.SECONDS));
+            }
+        } finally {
+            downloadServer.stop(0);
+            pool.shutdownNow();
+        }
+        // Each parallel request should have had its own connection
+        assertEquals(n, clientPorts.size());
+        assertTrue(client.connectionPool().connectionCount() >= n);
+    }
+
+    private OkHttpClient createClient(HttpClientFactory.Statistics statistics) {
+        return HttpClientFactory.createClient(new File(tempDir, "http-cache"),
+                HttpClientFactory.DEFAULT_CACHE_SIZE, statistics);
+    }
+
+    private String get(OkHttpClient client, String query) throws IOException {
+        Request request = new Request.Builder()
+                .url(baseUrl + "/pathos/pa_project_task_wsi/" + query)
+                .addHeader("Authorization", "JWT test")
+                .cacheControl(HttpClientFactory.REVALIDATE)
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            assertEquals(200, response.code());
+            return response.body().string();
+        }
+    }
+
+    private static String createBody(int version) {
+        StringBuilder sb = new StringBuilder("{\"code\":2000,\"total\":1000,\"data\":[");
+        for (int i = 0; i < 1000; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"id\":").append(i)
+                    .append(",\"name\":\"slide_").append(i).append(".svs\"")
+                    .append(",\"status\":").append(version)
+                    .append(",\"is_annotated\":false}");
+        }
+        return sb.append("]}").toString();
+    }
+
+}
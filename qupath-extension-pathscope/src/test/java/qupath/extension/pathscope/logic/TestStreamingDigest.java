@@ -0,0 +1,122 @@
+package qupath.extension.pathscope.logic;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class TestStreamingDigest {
+
+    @TempDir
+    File tempDir;
+
+    private final byte[] content = createContent(100_000);
+
+    @Test
+    public void test_inOrder() throws Exception {
+        var digest = new StreamingDigest("SHA-256", content.length, 0);
+        for (int i = 0; i < content.length; i += 4096) {
+            digest.update(i, content, i, Math.min(4096, content.length - i));
+        }
+        assertEquals(expected("SHA-256"), digest.finish(null));
+        assertEquals(0, digest.getRereadBytes());
+    }
+
+    @Test
+    public void test_outOfOrderWithRetries() throws Exception {
+        var digest = new StreamingDigest("MD5", content.length, StreamingDigest.DEFAULT_MAX_BUFFERED_BYTES);
+        int chunk = 25_000;
+        // Chunks 2 and 1 arrive first, chunk 3 arrives partially then is retried from the start
+        update(digest, 2 * chunk, chunk, 1000);
+        update(digest, chunk, chunk, 3000);
+        update(digest, 3 * chunk, 10_000, 1500);
+        update(digest, 3 * chunk, chunk, 4096);
+        assertEquals(0, digest.getPosition());
+
+        update(digest, 0, chunk, 777);
+        assertEquals(content.length, digest.getPosition());
+        assertEquals(0, digest.getBufferedBytes());
+
+        // Data arriving again after it was hashed is ignored
+        update(digest, chunk, chunk, 5000);
+        assertEquals(expected("MD5"), digest.finish(null));
+        assertEquals(0, digest.getRereadBytes());
+    }
+
+    @Test
+    public void test_overflowReadsFromFile() throws Exception {
+        File file = new File(tempDir, "content.bin");
+        Files.write(file.toPath(), content);
+
+        // Only room for a few out-of-order blocks; the rest must be read back from the file
+        var digest = new StreamingDigest("SHA-256", content.length, 10_000);
+        update(digest, 50_000, 50_000, 5000);
+        update(digest, 0, 20_000, 4096);
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            assertEquals(expected("SHA-256"), digest.finish(channel));
+        }
+        assertEquals(content.length - 20_000 - 10_000, digest.getRereadBytes());
+    }
+
+    @Test
+    public void test_stopsBufferingAfterOverflow() throws Exception {
+        File file = new File(tempDir, "overflow.bin");
+        Files.write(file.toPath(), content);
+
+        var digest = new StreamingDigest("SHA-256", content.length, 10_000);
+        update(digest, 50_000, 15_000, 5000);
+        assertTrue(digest.isOverflowed());
+        assertEquals(10_000, digest.getBufferedBytes());
+
+        // Data that arrives in order is still hashed, and drains what was buffered before the limit was reached
+        update(digest, 0, 50_000, 4096);
+        assertEquals(60_000, digest.getPosition());
+        assertEquals(0, digest.getBufferedBytes());
+
+        // Out-of-order data is no longer buffered, even though there is room again
+        update(digest, 80_000, 5000, 5000);
+        assertEquals(0, digest.getBufferedBytes());
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            assertEquals(expected("SHA-256"), digest.finish(channel));
+        }
+        assertEquals(content.length - 60_000, digest.getRereadBytes());
+    }
+
+    @Test
+    public void test_missingDataWithoutFile() {
+        var digest = new StreamingDigest("SHA-256", content.length, 0);
+        update(digest, 0, 1000, 1000);
+        assertThrows(java.io.IOException.class, () -> digest.finish(null));
+    }
+
+    @Test
+    public void test_unsupportedAlgorithm() {
+        assertThrows(IllegalArgumentException.class, () -> new StreamingDigest("NOT-A-DIGEST", 0, 0));
+    }
+
+    private void update(StreamingDigest digest, int start, int length, int blockSize) {
+        for (int i = start; i < start + length; i += blockSize) {
+            digest.update(i, content, i, Math.min(blockSize, start + length - i));
+        }
+    }
+
+    private String expected(String algorithm) throws Exception {
+        return StreamingDigest.toHex(MessageDigest.getInstance(algorithm).digest(content));
+    }
+
+    private static byte[] createContent(int length) {
+        byte[] bytes = new byte[length];
+        new Random(7).nextBytes(bytes);
+        return bytes;
+    }
+
+}
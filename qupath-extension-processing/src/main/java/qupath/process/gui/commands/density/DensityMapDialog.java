@@ -2,7 +2,7 @@
  * #%L
  * This file is part of QuPath.
  * %%
- * Copyright (C) 2021 QuPath developers, The University of Edinburgh
+ * Copyright (C) 2021, 2025 QuPath developers, The University of Edinburgh
  * %%
  * QuPath is free software: you can redistribute it and/or modify
  * it under the terms of the GNU General Public License as
@@ -38,6 +38,7 @@ import javafx.collections.ListChangeListener.Change;
 import javafx.collections.ObservableList;
 import javafx.geometry.Insets;
 import javafx.scene.Scene;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.Slider;
@@ -64,6 +65,7 @@ import qupath.lib.common.ThreadTools;
 import qupath.lib.gui.QuPathGUI;
 import qupath.lib.gui.images.stores.ColorModelRenderer;
 import qupath.lib.gui.images.stores.ImageRenderer;
+import qupath.lib.gui.prefs.PathPrefs;
 import qupath.lib.gui.tools.GuiTools;
 import qupath.lib.gui.viewer.ImageInterpolation;
 import qupath.lib.gui.viewer.QuPathViewer;
@@ -303,6 +305,12 @@ public class DensityMapDialog {
 		GridPaneUtils.addGridRow(pane, row++, 0, "Select smoothing radius used to calculate densities.\n"
 				+ "This is defined in calibrated pixel units (e.g. " + GeneralTools.micrometerSymbol() + " if available).", new Label("Density radius"), sliderRadius, tfRadius);
 		
+		var cbIntegralImages = new CheckBox("Reuse object counts");
+		cbIntegralImages.selectedProperty().bindBidirectional(params.integralImages);
+		GridPaneUtils.addGridRow(pane, row++, 0, "Count objects once for the whole image, and reuse the counts when the radius or density type changes.\n"
+				+ "This is usually much faster, but requires more memory. Turn this off to count objects separately for each tile.",
+				cbIntegralImages, cbIntegralImages, cbIntegralImages);
+		
 		GridPaneUtils.setToExpandGridPaneWidth(comboObjectType, comboPrimary, comboAllObjects, comboDensityType, sliderRadius);
 
 		return pane;
@@ -677,6 +685,11 @@ public class DensityMapDialog {
 
 		private DoubleProperty radius = new SimpleDoubleProperty(10.0);
 
+		/**
+		 * Calculate densities from integral images of object counts, rather than counting objects for each tile.
+		 */
+		private final BooleanProperty integralImages = PathPrefs.createPersistentPreference("densityMapIntegralImages", true);
+
 		/**
 		 * Automatically update the density maps and overlays.
 		 */
@@ -692,6 +705,7 @@ public class DensityMapDialog {
 			densityObjectClass.addListener((v, o, n) -> updateBuilder());
 			densityType.addListener((v, o, n) -> updateBuilder());
 			radius.addListener((v, o, n) -> updateBuilder());
+			integralImages.addListener((v, o, n) -> updateBuilder());
 			autoUpdate.addListener((v, o, n) -> updateBuilder());
 		}
 		
@@ -804,6 +818,9 @@ public class DensityMapDialog {
 
 			builder.radius(radius.get());
 			
+			// Counts can then be reused when the radius or type changes
+			builder.integralImages(integralImages.get());
+			
 			logger.debug("Created {}", builder);
 			
 			return builder;
@@ -44,6 +44,7 @@ import qupath.opencv.ops.ImageDataOp;
 import qupath.opencv.ops.ImageOp;
 import qupath.opencv.ops.ImageOps;
 import qupath.opencv.tools.MultiscaleFeatures.MultiscaleFeature;
+import qupath.process.gui.commands.ml.TrainingFeatureCache.FeatureBlocks;
 
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
@@ -64,6 +65,17 @@ abstract class ImageDataTransformerBuilder {
 
 	public abstract ImageDataOp build(ImageData<BufferedImage> imageData, PixelCalibration resolution);
 
+	/**
+	 * Build the {@link ImageDataOp}, along with a description of how its features can be cached during training.
+	 * By default, all features are cached together.
+	 * @param imageData
+	 * @param resolution
+	 * @return
+	 */
+	public FeatureBlocks buildFeatureBlocks(ImageData<BufferedImage> imageData, PixelCalibration resolution) {
+		return FeatureBlocks.create(build(imageData, resolution));
+	}
+
 	public boolean canCustomize(ImageData<BufferedImage> imageData) {
 		return false;
 	}
@@ -378,7 +390,6 @@ abstract class ImageDataTransformerBuilder {
 
 			double[] sigmas = selectedSigmas.stream().mapToDouble(d -> d).toArray();
 			
-			double varianceScaleRatio = 1.0; // TODO: Make the variance scale ratio editable
 			// TODO: Consider reinstating 3D
 //			SmoothingScale scale;
 //				scale = SmoothingScale.get3DIsotropic(localNormalizeSigma);
@@ -391,6 +402,16 @@ abstract class ImageDataTransformerBuilder {
 			var op = ImageOps.Core.splitMerge(ops);
 			
 			// Handle normalization if needed
+			var opNormalize = buildNormalizationOp();
+			if (opNormalize != null)
+				op = ImageOps.Core.sequential(opNormalize, op);
+//				op = ImageOps.Core.sequential(op, opNormalize);
+
+			return ImageOps.buildImageDataOp(selectedChannels).appendOps(op);
+		}
+
+		private ImageOp buildNormalizationOp() {
+			double varianceScaleRatio = 1.0; // TODO: Make the variance scale ratio editable
 			double localNormalizeSigma = normalizationSigma.get();
 			ImageOp opNormalize = null;
 			if (localNormalizeSigma > 0) {
@@ -415,11 +436,19 @@ abstract class ImageDataTransformerBuilder {
 					break;
 				}
 			}
-			if (opNormalize != null)
-				op = ImageOps.Core.sequential(opNormalize, op);
-//				op = ImageOps.Core.sequential(op, opNormalize);
+			return opNormalize;
+		}
 
-			return ImageOps.buildImageDataOp(selectedChannels).appendOps(op);
+		@Override
+		public FeatureBlocks buildFeatureBlocks(ImageData<BufferedImage> imageData, PixelCalibration resolution) {
+			var featureOp = build(imageData, resolution);
+			// Cache each feature at each scale separately, using the (normalized) channels as input
+			var inputOp = ImageOps.buildImageDataOp(selectedChannels);
+			var opNormalize = buildNormalizationOp();
+			if (opNormalize != null)
+				inputOp = inputOp.appendOps(opNormalize);
+			double[] sigmas = selectedSigmas.stream().mapToDouble(d -> d).toArray();
+			return FeatureBlocks.createMultiscale(featureOp, inputOp, sigmas, List.copyOf(selectedFeatures));
 		}
 
 		@Override
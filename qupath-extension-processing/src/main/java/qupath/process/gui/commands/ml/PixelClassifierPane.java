@@ -177,6 +177,8 @@ public class PixelClassifierPane {
 	private StringProperty cursorLocation = new SimpleStringProperty();
 	
 	private PieChart pieChart;
+	
+	private Label labelFeatureCache;
 
 	private HierarchyListener hierarchyListener = new HierarchyListener();
 	
@@ -368,6 +370,13 @@ public class PixelClassifierPane {
 
 		pane.add(paneChart, 0, row++, pane.getColumnCount(), 1);
 		
+		// Label showing how many training features were reused
+		labelFeatureCache = new Label();
+		labelFeatureCache.setAlignment(Pos.CENTER);
+		labelFeatureCache.setMaxWidth(Double.MAX_VALUE);
+		labelFeatureCache.setTooltip(new Tooltip("Proportion of training features found in the cache when the classifier was last trained"));
+		paneChart.setTop(labelFeatureCache);
+		
 		// Label showing cursor location
 		var labelCursor = new Label();
 		labelCursor.textProperty().bindBidirectional(cursorLocation);
@@ -699,7 +708,8 @@ public class PixelClassifierPane {
 		// This is a bit of a hack for the DefaultFeatureCalculatorBuilder because we know it will fail with too many channels 
 		// on a call to OpenCVTools.mergeChannels - and we'd rather show a notification instead of just logging the error
 		var featureOpBuilder = selectedFeatureCalculatorBuilder.get();
-		var featureOp = featureOpBuilder.build(imageData, cal);
+		var featureBlocks = featureOpBuilder.buildFeatureBlocks(imageData, cal);
+		var featureOp = featureBlocks.getFeatureOp();
 		if (featureOpBuilder instanceof DefaultFeatureCalculatorBuilder) {
 			int nFeatures = featureOp.getChannels(imageData).size();
 			if (nFeatures > opencv_core.CV_CN_MAX) {
@@ -709,7 +719,7 @@ public class PixelClassifierPane {
 				return;		
 			}
 		}
-		helper.setFeatureOp(featureOp);
+		helper.setFeatureBlocks(featureBlocks);
 		var featureServer = helper.getFeatureServer(imageData);
 		if (featureServer == null) {
 			comboDisplayFeatures.getItems().setAll(DEFAULT_CLASSIFICATION_OVERLAY);
@@ -918,6 +928,7 @@ public class PixelClassifierPane {
 			logger.error("Error when updating training data", e);
 			return;
 		}
+		updateFeatureCacheLabel(helper.getFeatureCacheStatistics());
 		 if (trainingData == null) {
 			 resetPieChart();
 			 return;
@@ -1059,6 +1070,21 @@ public class PixelClassifierPane {
 		
 	
 	
+	private void updateFeatureCacheLabel(TrainingFeatureCache.CacheStatistics stats) {
+		if (!Platform.isFxApplicationThread()) {
+			Platform.runLater(() -> updateFeatureCacheLabel(stats));
+			return;
+		}
+		if (stats == null || stats.nHits() + stats.nMisses() == 0) {
+			labelFeatureCache.setText(null);
+			return;
+		}
+		labelFeatureCache.setText(String.format("Feature cache: %s%% hits (%d/%d), %s MB",
+				GeneralTools.formatNumber(stats.getHitRate() * 100.0, 1),
+				stats.nHits(), stats.nHits() + stats.nMisses(),
+				GeneralTools.formatNumber(stats.nBytes() / (1024.0 * 1024.0), 1)));
+	}
+	
 	private void resetPieChart() {
 		updatePieChart(Collections.emptyMap());
 	}
@@ -1162,6 +1188,9 @@ public class PixelClassifierPane {
 		}
 		trainingEntries.clear();
 		trainingMap.clear();
+		
+		// Cached features are only needed for training
+		TrainingFeatureCache.getInstance().clear();
 	}
 	
 	
@@ -2,7 +2,7 @@
  * #%L
  * This file is part of QuPath.
  * %%
- * Copyright (C) 2018 - 2020 QuPath developers, The University of Edinburgh
+ * Copyright (C) 2018 - 2025 QuPath developers, The University of Edinburgh
  * %%
  * QuPath is free software: you can redistribute it and/or modify
  * it under the terms of the GNU General Public License as
@@ -40,6 +40,9 @@ import qupath.lib.roi.interfaces.ROI;
 import qupath.opencv.ops.ImageDataOp;
 import qupath.opencv.ops.ImageDataServer;
 import qupath.opencv.ops.ImageOps;
+import qupath.process.gui.commands.ml.TrainingFeatureCache.CacheStatistics;
+import qupath.process.gui.commands.ml.TrainingFeatureCache.FeatureBlocks;
+import qupath.process.gui.commands.ml.TrainingFeatureCache.TileFeatureChannels;
 
 import java.awt.BasicStroke;
 import java.awt.image.BufferedImage;
@@ -56,7 +59,6 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.WeakHashMap;
 
 /**
  * Helper class for training a pixel classifier.
@@ -72,10 +74,13 @@ public class PixelClassifierTraining {
 
 	private PixelCalibration resolution = PixelCalibration.getDefaultInstance();
     private ImageDataOp featureCalculator;
+    private FeatureBlocks featureBlocks;
     
     private Mat matTraining;
     private Mat matTargets;
     
+    private CacheStatistics cacheStatistics;
+    
     
     /**
      * Create a new pixel classifier helper, to support generating training data.
@@ -84,6 +89,7 @@ public class PixelClassifierTraining {
      */
     public PixelClassifierTraining(ImageDataOp featureCalculator) {
         this.featureCalculator = featureCalculator;
+        this.featureBlocks = featureCalculator == null ? null : FeatureBlocks.create(featureCalculator);
     }
 
     
@@ -127,11 +133,33 @@ public class PixelClassifierTraining {
      * @param featureOp
      */
     public synchronized void setFeatureOp(ImageDataOp featureOp) {
+        if (Objects.equals(this.featureCalculator, featureOp))
+            return;
+        setFeatureBlocks(featureOp == null ? null : FeatureBlocks.create(featureOp));
+    }
+    
+    /**
+     * Set the {@link ImageDataOp} used to calculate features, along with a description of how the features 
+     * can be cached in blocks.
+     * @param blocks
+     */
+    synchronized void setFeatureBlocks(FeatureBlocks blocks) {
+    	var featureOp = blocks == null ? null : blocks.getFeatureOp();
         if (Objects.equals(this.featureCalculator, featureOp))
             return;
         this.featureCalculator = featureOp;
+        this.featureBlocks = blocks;
         resetTrainingData();
     }
+    
+    /**
+     * Get statistics for the feature cache, where the hits and misses relate to the most recent 
+     * request for training data.
+     * @return the statistics, or null if no training data has been requested
+     */
+    synchronized CacheStatistics getFeatureCacheStatistics() {
+    	return cacheStatistics;
+    }
 
     private synchronized ClassifierTrainingData updateTrainingData(Map<PathClass, Integer> labelMap, Collection<ImageData<BufferedImage>> imageDataCollection) throws IOException {
         if (imageDataCollection.isEmpty()) {
@@ -172,26 +200,43 @@ public class PixelClassifierTraining {
         }
         
         
-        List<Mat> allFeatures = new ArrayList<>();
-        List<Mat> allTargets = new ArrayList<>();
-
+        // Find all the tiles containing training annotations
+        List<TrainingTile> trainingTiles = new ArrayList<>();
         for (var imageData : imageDataCollection) {
-	        // Get features & targets for all the tiles that we need
 	        var featureServer = getFeatureServer(imageData);
 	        if (featureServer != null) {
 		        var tiles = featureServer.getTileRequestManager().getAllTileRequests();
 		        for (var tile : tiles) {
-		            var tileFeatures = getTileFeatures(tile.getRegionRequest(), featureServer, boundaryStrategy, labels);
-		        	if (tileFeatures != null) {
-		        		allFeatures.add(tileFeatures.getFeatures());
-		        		allTargets.add(tileFeatures.getTargets());
-		        	}
+		        	var request = tile.getRegionRequest();
+		        	var rois = getTrainingROIs(imageData, request, labels);
+		        	if (!rois.isEmpty())
+		        		trainingTiles.add(new TrainingTile(imageData, request, rois));
 		        }
 	        } else {
 	        	logger.warn("Unable to generate features for {}", imageData);
 	        }
         }
         
+        // Get features & targets for all the tiles, calculating features in parallel where they aren't cached
+        var cache = TrainingFeatureCache.getInstance();
+        var previousStatistics = cache.getStatistics();
+        var blocks = featureBlocks;
+        var strategy = boundaryStrategy;
+        var allTileFeatures = trainingTiles.parallelStream()
+        		.map(tile -> getTileFeatures(tile, blocks, cache, strategy, labels))
+        		.filter(Objects::nonNull)
+        		.toList();
+        cacheStatistics = cache.getStatistics().since(previousStatistics);
+        logger.debug("Feature cache for {} training tiles: {} hits, {} misses", 
+        		trainingTiles.size(), cacheStatistics.nHits(), cacheStatistics.nMisses());
+        
+        List<Mat> allFeatures = new ArrayList<>();
+        List<Mat> allTargets = new ArrayList<>();
+        for (var tileFeatures : allTileFeatures) {
+        	allFeatures.add(tileFeatures.getFeatures());
+        	allTargets.add(tileFeatures.getTargets());
+        }
+        
         // We need at least two classes for anything very meaningful to happen
         int nTargets = labels.size();
         if (nTargets <= 1) {
@@ -340,15 +385,15 @@ public class PixelClassifierTraining {
     }
     
     
-	private static Map<RegionRequest, TileFeatures> cache = Collections.synchronizedMap(new WeakHashMap<>());
+    private record TrainingTile(ImageData<BufferedImage> imageData, RegionRequest request, Map<ROI, PathClass> rois) {}
     
-    private static TileFeatures getTileFeatures(RegionRequest request, ImageDataServer<BufferedImage> featureServer, BoundaryStrategy strategy, Map<PathClass, Integer> labels) {
-		TileFeatures features = cache.get(request);
-		Map<ROI, PathClass> rois = null;
-		
-		var annotations = featureServer.getImageData().getHierarchy().getAllObjectsForRegion(request, null);
+    /**
+     * Get the ROIs that should be used for training within a region, along with their classifications.
+     */
+    private static Map<ROI, PathClass> getTrainingROIs(ImageData<BufferedImage> imageData, RegionRequest request, Map<PathClass, Integer> labels) {
+		Map<ROI, PathClass> rois = new HashMap<>();
+		var annotations = imageData.getHierarchy().getAllObjectsForRegion(request, null);
 		if (annotations != null && !annotations.isEmpty()) {
-    		rois = new HashMap<>();
     		for (var annotation : annotations) {
     			// Don't train from locked annotations
     			if (!isTrainableAnnotation(annotation, true))
@@ -374,51 +419,35 @@ public class PixelClassifierTraining {
     			}
     		}
 		}
-		
-		// We don't have any features
-		if (rois == null || rois.isEmpty()) {
-    		if (features != null)
-				cache.remove(request);
-			return null;
-		}
-
-		// Check if we can return cached features
-		if (features != null) {
-			if (features.featureServer.equals(featureServer) &&
-					features.labels.equals(labels) &&
-					features.strategy.equals(strategy) &&
-					features.rois.equals(rois) &&
-					features.request.equals(request))
-				return features;
-		}
-		
-		// Calculate new features
+		return rois;
+    }
+    
+    private static TileFeatures getTileFeatures(TrainingTile tile, FeatureBlocks blocks, TrainingFeatureCache cache, BoundaryStrategy strategy, Map<PathClass, Integer> labels) {
 		try {
-    		features = new TileFeatures(request, featureServer, strategy, rois, labels);
-    		cache.put(request, features);
+			// Features are cached, but targets depend upon the annotations & are cheap to recalculate
+			var features = blocks.getFeatures(cache, tile.imageData(), tile.request());
+			return new TileFeatures(tile.request(), features, strategy, tile.rois(), labels);
 		} catch (IOException e) {
-			cache.remove(request);
-			logger.error("Error requesting features for " + request, e);
+			logger.error("Error requesting features for " + tile.request(), e);
+			return null;
 		}
-		
-		return features;
 	}
     
     
     private static class TileFeatures {
     	    	    	
     	private Map<PathClass, Integer> labels;
-    	private ImageDataServer<BufferedImage> featureServer;
+    	private TileFeatureChannels features;
     	private RegionRequest request;
     	private Map<ROI, PathClass> rois;
     	private BoundaryStrategy strategy;
     	private Mat matFeatures;
     	private Mat matTargets;
     	
-    	private TileFeatures(RegionRequest request, ImageDataServer<BufferedImage> featureServer, BoundaryStrategy strategy, Map<ROI, PathClass> rois, Map<PathClass, Integer> labels) throws IOException {
+    	private TileFeatures(RegionRequest request, TileFeatureChannels features, BoundaryStrategy strategy, Map<ROI, PathClass> rois, Map<PathClass, Integer> labels) {
     		this.request = request;
     		this.strategy = strategy;
-    		this.featureServer = featureServer;
+    		this.features = features;
     		this.rois = rois;
     		this.labels = labels;
     		ensureFeaturesCalculated();
@@ -426,22 +455,19 @@ public class PixelClassifierTraining {
     	
     	/**
     	 * Note that this implementation supports only one target per pixel, i.e. not multi-class classifications.
-    	 * @throws IOException
     	 */
-    	private void ensureFeaturesCalculated() throws IOException {
+    	private void ensureFeaturesCalculated() {
     		if (matFeatures != null && matTargets != null)
     			return;
     		
-    		var features = featureServer.readRegion(request);
-    		
     		// TODO: Handle differing boundary thicknesses
     		double downsample = request.getDownsample();
     		double boundaryThickness = strategy.getBoundaryThickness();
     		BasicStroke stroke = boundaryThickness > 0 ? new BasicStroke((float)(downsample * boundaryThickness)) : null;
     		BasicStroke singleStroke = new BasicStroke((float)downsample);
     		
-    		int width = features.getWidth();
-    		int height = features.getHeight();
+    		int width = features.width();
+    		int height = features.height();
     		var imgLabels = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
     		var raster = imgLabels.getRaster();
     		
@@ -492,17 +518,17 @@ public class PixelClassifierTraining {
     		}
     		// Allocate buffers
     		int capacity = width * height;
-    		int nFeatures = features.getRaster().getNumBands();
-    		float[] buf = new float[nFeatures];
+    		int nFeatures = features.nChannels();
+    		var channels = features.channels();
     		var extracted = FloatBuffer.allocate(capacity * nFeatures);    		
     		var targets = IntBuffer.allocate(capacity);
-    		var rasterFeatures = features.getRaster();
     		for (int y = 0; y < height; y++) {
         		for (int x = 0; x < width; x++) {
         			int label = raster.getSample(x, y, 0);
         			if (label != 0) {
-        				buf = rasterFeatures.getPixel(x, y, buf);
-        				extracted.put(buf);
+        				int ind = y * width + x;
+        				for (var channel : channels)
+        					extracted.put(channel[ind]);
         				targets.put(label-1);
         			}
         		}    			
@@ -0,0 +1,413 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.process.gui.commands.ml;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.images.ImageData;
+import qupath.lib.io.GsonTools;
+import qupath.lib.regions.RegionRequest;
+import qupath.opencv.ops.ImageDataOp;
+import qupath.opencv.ops.ImageOp;
+import qupath.opencv.ops.ImageOps;
+import qupath.opencv.tools.MultiscaleFeatures.MultiscaleFeature;
+import qupath.opencv.tools.OpenCVTools;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Bounded cache of features calculated for pixel classifier training.
+ * <p>
+ * Features are stored as single-channel blocks, keyed by the image, the tile request and a description of the op
+ * used to calculate the block. This means that features can be reused after annotations are changed,
+ * and (for {@link MultiscaleFeatureBlocks}) features that remain selected can be reused whenever the feature
+ * set is changed.
+ * <p>
+ * The least recently used blocks are discarded whenever the cache exceeds its maximum size.
+ */
+class TrainingFeatureCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(TrainingFeatureCache.class);
+
+	private static final TrainingFeatureCache INSTANCE = new TrainingFeatureCache(Runtime.getRuntime().maxMemory() / 8);
+
+	private final long maxBytes;
+	private long nBytes;
+
+	private long nHits;
+	private long nMisses;
+
+	private final Map<BlockKey, Block> map = new LinkedHashMap<>(64, 0.75f, true);
+
+	TrainingFeatureCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Get the cache shared for all training.
+	 * @return
+	 */
+	static TrainingFeatureCache getInstance() {
+		return INSTANCE;
+	}
+
+	private synchronized Block get(BlockKey key) {
+		var block = map.get(key);
+		if (block == null)
+			nMisses++;
+		else
+			nHits++;
+		return block;
+	}
+
+	private synchronized void put(BlockKey key, Block block) {
+		long size = block.nBytes();
+		if (size > maxBytes)
+			return;
+		var previous = map.put(key, block);
+		if (previous != null)
+			nBytes -= previous.nBytes();
+		nBytes += size;
+		var iter = map.values().iterator();
+		while (nBytes > maxBytes && iter.hasNext()) {
+			nBytes -= iter.next().nBytes();
+			iter.remove();
+		}
+	}
+
+	/**
+	 * Remove all cached features.
+	 */
+	synchronized void clear() {
+		map.clear();
+		nBytes = 0;
+	}
+
+	/**
+	 * Get statistics summarizing the current use of the cache.
+	 * @return
+	 */
+	synchronized CacheStatistics getStatistics() {
+		return new CacheStatistics(nHits, nMisses, map.size(), nBytes, maxBytes);
+	}
+
+
+	/**
+	 * Statistics for a {@link TrainingFeatureCache}.
+	 * @param nHits number of feature blocks read from the cache
+	 * @param nMisses number of feature blocks that needed to be calculated
+	 * @param nBlocks number of blocks currently in the cache
+	 * @param nBytes approximate memory used by the cached blocks
+	 * @param maxBytes maximum memory that the cached blocks may use
+	 */
+	record CacheStatistics(long nHits, long nMisses, int nBlocks, long nBytes, long maxBytes) {
+
+		/**
+		 * Get the proportion of blocks found in the cache.
+		 * @return the hit rate between 0 and 1, or NaN if no blocks have been requested
+		 */
+		double getHitRate() {
+			long n = nHits + nMisses;
+			return n == 0 ? Double.NaN : (double)nHits / n;
+		}
+
+		/**
+		 * Get the statistics for the blocks requested since an earlier snapshot.
+		 * @param previous the earlier snapshot
+		 * @return
+		 */
+		CacheStatistics since(CacheStatistics previous) {
+			return new CacheStatistics(nHits - previous.nHits, nMisses - previous.nMisses, nBlocks, nBytes, maxBytes);
+		}
+
+	}
+
+
+	/**
+	 * Key for a single-channel block.
+	 * The request path should identify the image (not the feature server), so that blocks can be shared between ops.
+	 */
+	private record BlockKey(RegionRequest request, String blockId, int channel) {}
+
+	private record Block(int width, int height, float[] values) {
+
+		private long nBytes() {
+			return values.length * 4L;
+		}
+
+	}
+
+	/**
+	 * Features calculated for a single tile, with one array per channel.
+	 * @param width tile width, in pixels
+	 * @param height tile height, in pixels
+	 * @param channels pixel values for each channel
+	 */
+	record TileFeatureChannels(int width, int height, float[][] channels) {
+
+		int nChannels() {
+			return channels.length;
+		}
+
+	}
+
+
+	/**
+	 * Description of how the channels of a feature op can be calculated in blocks,
+	 * so that the blocks can be cached independently.
+	 */
+	abstract static class FeatureBlocks {
+
+		/**
+		 * Get the op that calculates all features.
+		 * @return
+		 */
+		abstract ImageDataOp getFeatureOp();
+
+		/**
+		 * Get the features for a tile, using cached blocks where available.
+		 * @param cache the cache
+		 * @param imageData the image
+		 * @param request the tile request
+		 * @return
+		 * @throws IOException if the features could not be calculated
+		 */
+		abstract TileFeatureChannels getFeatures(TrainingFeatureCache cache, ImageData<BufferedImage> imageData, RegionRequest request) throws IOException;
+
+		/**
+		 * Create blocks for an op that can only be cached as a whole.
+		 * @param op
+		 * @return
+		 */
+		static FeatureBlocks create(ImageDataOp op) {
+			return new SingleFeatureBlock(op);
+		}
+
+		/**
+		 * Create blocks for {@link MultiscaleFeature}s calculated at different scales.
+		 * Each feature at each scale is cached separately.
+		 * @param featureOp the op that calculates all features
+		 * @param inputOp the op that calculates the channels used as input for the features (e.g. after normalization)
+		 * @param sigmas the Gaussian sigma values for each scale
+		 * @param features the features calculated at each scale
+		 * @return
+		 */
+		static FeatureBlocks createMultiscale(ImageDataOp featureOp, ImageDataOp inputOp, double[] sigmas, List<MultiscaleFeature> features) {
+			return new MultiscaleFeatureBlocks(featureOp, inputOp, sigmas, features);
+		}
+
+	}
+
+
+	private static class SingleFeatureBlock extends FeatureBlocks {
+
+		private final ImageDataOp op;
+		private final String id;
+
+		private SingleFeatureBlock(ImageDataOp op) {
+			this.op = op;
+			this.id = createID(op);
+		}
+
+		@Override
+		ImageDataOp getFeatureOp() {
+			return op;
+		}
+
+		@Override
+		TileFeatureChannels getFeatures(TrainingFeatureCache cache, ImageData<BufferedImage> imageData, RegionRequest request) throws IOException {
+			var tileRequest = createTileRequest(imageData, request);
+			int nChannels = op.getChannels(imageData).size();
+			var blocks = new Block[nChannels];
+			boolean missing = false;
+			for (int c = 0; c < nChannels; c++) {
+				blocks[c] = cache.get(new BlockKey(tileRequest, id, c));
+				if (blocks[c] == null)
+					missing = true;
+			}
+			if (missing) {
+				var mat = op.apply(imageData, tileRequest);
+				var calculated = toBlocks(mat, nChannels);
+				for (int c = 0; c < nChannels; c++) {
+					blocks[c] = calculated[c];
+					cache.put(new BlockKey(tileRequest, id, c), blocks[c]);
+				}
+			}
+			return toTileFeatures(blocks);
+		}
+
+	}
+
+
+	/**
+	 * Blocks for the output of {@link ImageOps.Filters#features(java.util.Collection, double, double)} calculated
+	 * at one or more scales and merged.
+	 * <p>
+	 * Each feature at each scale is a separate block, so that changing the features or scales requires
+	 * only new features to be calculated.
+	 * Where features are missing for a tile, they are calculated together for each scale to reuse the
+	 * intermediate results within {@link qupath.opencv.tools.MultiscaleFeatures}.
+	 */
+	private static class MultiscaleFeatureBlocks extends FeatureBlocks {
+
+		private final ImageDataOp featureOp;
+		private final ImageDataOp inputOp;
+		private final String inputId;
+		private final double[] sigmas;
+		private final List<MultiscaleFeature> features;
+
+		private MultiscaleFeatureBlocks(ImageDataOp featureOp, ImageDataOp inputOp, double[] sigmas, List<MultiscaleFeature> features) {
+			this.featureOp = featureOp;
+			this.inputOp = inputOp;
+			this.inputId = createID(inputOp);
+			this.sigmas = sigmas.clone();
+			this.features = List.copyOf(new LinkedHashSet<>(features));
+		}
+
+		@Override
+		ImageDataOp getFeatureOp() {
+			return featureOp;
+		}
+
+		private String getBlockId(double sigma, MultiscaleFeature feature) {
+			return inputId + " " + feature.name() + " sigma=" + sigma;
+		}
+
+		@Override
+		TileFeatureChannels getFeatures(TrainingFeatureCache cache, ImageData<BufferedImage> imageData, RegionRequest request) throws IOException {
+			var tileRequest = createTileRequest(imageData, request);
+			int nInputs = inputOp.getChannels(imageData).size();
+			int nFeatures = features.size();
+
+			// Output channels are ordered by scale, input channel & then feature
+			var blocks = new Block[sigmas.length * nInputs * nFeatures];
+			List<ImageOp> ops = new ArrayList<>();
+			List<List<Integer>> missingIndices = new ArrayList<>();
+			for (int s = 0; s < sigmas.length; s++) {
+				double sigma = sigmas[s];
+				List<MultiscaleFeature> missingFeatures = new ArrayList<>();
+				List<Integer> missingForScale = new ArrayList<>();
+				for (int f = 0; f < nFeatures; f++) {
+					var feature = features.get(f);
+					var id = getBlockId(sigma, feature);
+					boolean missing = false;
+					for (int c = 0; c < nInputs; c++) {
+						int ind = (s * nInputs + c) * nFeatures + f;
+						blocks[ind] = cache.get(new BlockKey(tileRequest, id, c));
+						if (blocks[ind] == null)
+							missing = true;
+					}
+					if (missing) {
+						missingFeatures.add(feature);
+						missingForScale.add(f);
+					}
+				}
+				if (!missingFeatures.isEmpty()) {
+					ops.add(ImageOps.Filters.features(missingFeatures, sigma, sigma));
+					// Channels are ordered by input channel & then feature
+					var indices = new ArrayList<Integer>();
+					for (int c = 0; c < nInputs; c++) {
+						for (int f : missingForScale)
+							indices.add((s * nInputs + c) * nFeatures + f);
+					}
+					missingIndices.add(indices);
+				}
+			}
+			if (ops.isEmpty())
+				return toTileFeatures(blocks);
+
+			logger.trace("Calculating {} feature scales for {}", ops.size(), request);
+			var op = ops.size() == 1 ? ops.get(0) : ImageOps.Core.splitMerge(ops);
+			var indices = missingIndices.stream().flatMap(List::stream).toList();
+			var mat = inputOp.appendOps(op).apply(imageData, tileRequest);
+			var calculated = toBlocks(mat, indices.size());
+			for (int i = 0; i < indices.size(); i++) {
+				int ind = indices.get(i);
+				int f = ind % nFeatures;
+				int c = (ind / nFeatures) % nInputs;
+				int s = ind / (nFeatures * nInputs);
+				blocks[ind] = calculated[i];
+				cache.put(new BlockKey(tileRequest, getBlockId(sigmas[s], features.get(f)), c), calculated[i]);
+			}
+			return toTileFeatures(blocks);
+		}
+
+	}
+
+
+	private static RegionRequest createTileRequest(ImageData<BufferedImage> imageData, RegionRequest request) {
+		return RegionRequest.createInstance(imageData.getServer().getPath(), request);
+	}
+
+	private static Block[] toBlocks(Mat mat, int nChannels) throws IOException {
+		try {
+			if (mat.channels() != nChannels)
+				throw new IOException("Expected " + nChannels + " feature channels, but " + mat.channels() + " were calculated");
+			int width = mat.cols();
+			int height = mat.rows();
+			var blocks = new Block[nChannels];
+			if (nChannels == 1) {
+				blocks[0] = new Block(width, height, OpenCVTools.extractFloats(mat));
+			} else {
+				var channels = OpenCVTools.splitChannels(mat);
+				for (int c = 0; c < nChannels; c++) {
+					var temp = channels.get(c);
+					blocks[c] = new Block(width, height, OpenCVTools.extractFloats(temp));
+					temp.close();
+				}
+			}
+			return blocks;
+		} finally {
+			mat.close();
+		}
+	}
+
+	private static TileFeatureChannels toTileFeatures(Block[] blocks) {
+		if (blocks.length == 0)
+			return new TileFeatureChannels(0, 0, new float[0][]);
+		var channels = new float[blocks.length][];
+		for (int c = 0; c < blocks.length; c++)
+			channels[c] = blocks[c].values();
+		return new TileFeatureChannels(blocks[0].width(), blocks[0].height(), channels);
+	}
+
+	/**
+	 * Create an ID for an op from its JSON representation, so that equivalent ops share cached blocks.
+	 */
+	private static String createID(ImageDataOp op) {
+		try {
+			return GsonTools.getInstance().toJson(op);
+		} catch (Exception e) {
+			logger.debug("Unable to create ID from JSON: {}", e.getMessage());
+			return UUID.randomUUID().toString();
+		}
+	}
+
+}
@@ -3,6 +3,7 @@ plugins {
   id("qupath.publishing-conventions")
   id("qupath.javafx-conventions")
   `java-library`
+  alias(libs.plugins.jmh)
 }
 
 extra["moduleName"] = "qupath.gui.fx"
@@ -0,0 +1,132 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.display;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import qupath.lib.color.ColorModelFactory;
+import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.ImageChannel;
+import qupath.lib.images.servers.PixelType;
+import qupath.lib.images.servers.WrappedBufferedImageServer;
+
+import java.awt.image.BandedSampleModel;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for converting a multiplexed image tile to RGB with {@link ImageDisplay#applyTransforms(BufferedImage, BufferedImage, List, ChannelDisplayMode)}.
+ * <p>
+ * Run with {@code ./gradlew :qupath-gui-fx:jmh}.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ApplyTransformsBenchmark {
+
+	@Param({"8", "16", "40"})
+	public int nChannels;
+
+	@Param({"UINT8", "UINT16", "FLOAT32"})
+	public PixelType pixelType;
+
+	/**
+	 * Width and height of the tile, matching the default tile size for the viewer.
+	 */
+	@Param({"512"})
+	public int tileSize;
+
+	private BufferedImage img;
+	private BufferedImage imgOutput;
+	private List<DirectServerChannelInfo> channels;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		int dataType = switch (pixelType) {
+			case UINT8 -> DataBuffer.TYPE_BYTE;
+			case UINT16 -> DataBuffer.TYPE_USHORT;
+			case FLOAT32 -> DataBuffer.TYPE_FLOAT;
+			default -> throw new IllegalArgumentException("Unsupported pixel type " + pixelType);
+		};
+		var raster = Raster.createWritableRaster(new BandedSampleModel(dataType, tileSize, tileSize, nChannels), null);
+		var rng = new Random(42);
+		double max = pixelType == PixelType.UINT8 ? 255 : 4095;
+		for (int c = 0; c < nChannels; c++) {
+			for (int y = 0; y < tileSize; y++) {
+				for (int x = 0; x < tileSize; x++)
+					raster.setSample(x, y, c, rng.nextDouble() * max);
+			}
+		}
+		var imageChannels = ImageChannel.getDefaultChannelList(nChannels);
+		img = new BufferedImage(ColorModelFactory.createColorModel(pixelType, imageChannels), raster, false, null);
+		imgOutput = new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_INT_RGB);
+
+		var imageData = new ImageData<>(new WrappedBufferedImageServer("Benchmark", img, imageChannels));
+		channels = new ArrayList<>();
+		for (int c = 0; c < nChannels; c++) {
+			var channel = new DirectServerChannelInfo(imageData, c);
+			channel.setMinDisplay((float)(max * 0.05));
+			channel.setMaxDisplay((float)(max * 0.8));
+			channels.add(channel);
+		}
+	}
+
+	/**
+	 * Render all channels with the fused kernel.
+	 */
+	@Benchmark
+	public BufferedImage applyTransforms() {
+		return ImageDisplay.applyTransforms(img, imgOutput, channels, ChannelDisplayMode.COLOR);
+	}
+
+	/**
+	 * Render each channel separately, as {@code applyTransforms} did before the fused kernel was introduced.
+	 */
+	@Benchmark
+	public BufferedImage applyTransformsPerChannel() {
+		int[] pixels = new int[tileSize * tileSize];
+		channels.getFirst().getRGB(img, pixels, ChannelDisplayMode.COLOR);
+		for (var channel : channels.subList(1, channels.size()))
+			channel.updateRGBAdditive(img, pixels, ChannelDisplayMode.COLOR);
+		imgOutput.getRaster().setDataElements(0, 0, tileSize, tileSize, pixels);
+		return imgOutput;
+	}
+
+}
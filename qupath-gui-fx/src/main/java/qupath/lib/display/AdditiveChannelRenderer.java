@@ -0,0 +1,303 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.display;
+
+import qupath.lib.common.ColorTools;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Fused kernel to convert multiple {@link DirectServerChannelInfo} channels to a single RGB image.
+ * <p>
+ * This gives the same result as calling {@link ChannelDisplayInfo#getRGB(BufferedImage, int[], ChannelDisplayMode)}
+ * for the first channel and {@link ChannelDisplayInfo#updateRGBAdditive(BufferedImage, int[], ChannelDisplayMode)}
+ * for the others, but reads samples directly from the {@link DataBuffer} rather than copying each channel into a
+ * new float array.
+ * Red, green and blue are accumulated separately for each row, and only clipped once all channels have been added.
+ * Working arrays are reused by each thread, and large images are split into blocks of rows that are processed in parallel.
+ */
+final class AdditiveChannelRenderer {
+
+	/**
+	 * Minimum number of samples (pixels &times; channels) before rows are rendered in parallel.
+	 */
+	private static final long PARALLEL_THRESHOLD = 1L << 20;
+
+	private static final int ROWS_PER_BLOCK = 16;
+
+	private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+	private static final ThreadLocal<RowBuffers> ROW_BUFFERS = ThreadLocal.withInitial(RowBuffers::new);
+
+	private AdditiveChannelRenderer() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Check whether the fused kernel can be used for the specified image and channels.
+	 * @param img the input image
+	 * @param channels the channels to display
+	 * @return true if {@link #render(BufferedImage, BufferedImage, List, ChannelDisplayMode)} can be used,
+	 *         false if each channel needs to be rendered individually
+	 */
+	static boolean canRender(BufferedImage img, List<? extends ChannelDisplayInfo> channels) {
+		if (channels.isEmpty() || !(img.getSampleModel() instanceof ComponentSampleModel))
+			return false;
+		if (getData(img.getRaster().getDataBuffer(), 0) == null)
+			return false;
+		int nBands = img.getRaster().getNumBands();
+		for (var channel : channels) {
+			// Subclasses may override how values are obtained
+			if (channel == null || channel.getClass() != DirectServerChannelInfo.class)
+				return false;
+			int c = ((DirectServerChannelInfo)channel).getChannel();
+			if (c < 0 || c >= nBands)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Render channels to an RGB image.
+	 * The caller should first check that this is possible with {@link #canRender(BufferedImage, List)}.
+	 * @param imgInput the input image
+	 * @param imgOutput the output image; this must be the same size as the input, and RGB
+	 * @param channels the channels to display
+	 * @param mode the mode used to determine colors for each channel
+	 */
+	static void render(BufferedImage imgInput, BufferedImage imgOutput, List<? extends ChannelDisplayInfo> channels, ChannelDisplayMode mode) {
+		int width = imgInput.getWidth();
+		int height = imgInput.getHeight();
+		int n = width * height;
+		int nChannels = channels.size();
+
+		// Guard against reentrant calls on the same thread
+		var buffers = BUFFERS.get();
+		if (buffers.inUse)
+			buffers = new Buffers();
+		buffers.inUse = true;
+		try {
+			int[] pixels = buffers.getPixels(n);
+			var kernels = new ChannelKernel[nChannels];
+			int nKernels = 0;
+			for (int i = 0; i < nChannels; i++) {
+				var kernel = createKernel(imgInput, (DirectServerChannelInfo)channels.get(i), mode, i == 0, buffers.getLUT(i));
+				if (kernel != null)
+					kernels[nKernels++] = kernel;
+			}
+			var context = new RenderContext(width, kernels, nKernels, pixels, mode.invertColors());
+
+			int nBlocks = (height + ROWS_PER_BLOCK - 1) / ROWS_PER_BLOCK;
+			if (nBlocks > 1 && (long)n * nKernels >= PARALLEL_THRESHOLD) {
+				IntStream.range(0, nBlocks).parallel().forEach(b -> renderRows(context, b * ROWS_PER_BLOCK, Math.min(height, (b + 1) * ROWS_PER_BLOCK)));
+			} else {
+				renderRows(context, 0, height);
+			}
+			imgOutput.getRaster().setDataElements(0, 0, width, height, pixels);
+		} finally {
+			buffers.inUse = false;
+		}
+	}
+
+	private static ChannelKernel createKernel(BufferedImage img, DirectServerChannelInfo channel, ChannelDisplayMode mode, boolean isFirst, int[] lut) {
+		float minDisplay = channel.getMinDisplay();
+		float maxDisplay = channel.getMaxDisplay();
+		// Additive channels are skipped if the display range is 0
+		if (!isFirst && minDisplay == maxDisplay)
+			return null;
+		float offset = minDisplay;
+		float scale = 255.f/(maxDisplay - minDisplay);
+
+		var raster = img.getRaster();
+		var sampleModel = (ComponentSampleModel)img.getSampleModel();
+		var dataBuffer = raster.getDataBuffer();
+		int band = channel.getChannel();
+		int bank = sampleModel.getBankIndices()[band];
+		int start = dataBuffer.getOffsets()[bank] + sampleModel.getBandOffsets()[band]
+				- raster.getSampleModelTranslateY() * sampleModel.getScanlineStride()
+				- raster.getSampleModelTranslateX() * sampleModel.getPixelStride();
+
+		// For 8-bit images, combine the scaling & color lookup
+		ColorModel cm = channel.getColorModel(mode);
+		boolean combined = dataBuffer.getDataType() == DataBuffer.TYPE_BYTE;
+		for (int i = 0; i < 256; i++) {
+			int v = combined ? ColorTools.do8BitRangeCheck((i - offset) * scale) : i;
+			lut[i] = cm == null ? ColorTools.packRGB(v, v, v) : cm.getRGB(v);
+		}
+		return new ChannelKernel(getData(dataBuffer, bank), dataBuffer.getDataType(), start,
+				sampleModel.getPixelStride(), sampleModel.getScanlineStride(), offset, scale, lut);
+	}
+
+	private static Object getData(DataBuffer dataBuffer, int bank) {
+		return switch (dataBuffer) {
+			case DataBufferByte db -> db.getData(bank);
+			case DataBufferUShort db -> db.getData(bank);
+			case DataBufferShort db -> db.getData(bank);
+			case DataBufferInt db -> db.getData(bank);
+			case DataBufferFloat db -> db.getData(bank);
+			case DataBufferDouble db -> db.getData(bank);
+			default -> null;
+		};
+	}
+
+	private static void renderRows(RenderContext context, int yStart, int yEnd) {
+		int width = context.width;
+		var rows = ROW_BUFFERS.get();
+		int[] red = rows.getRed(width);
+		int[] green = rows.getGreen(width);
+		int[] blue = rows.getBlue(width);
+		int[] pixels = context.pixels;
+		for (int y = yStart; y < yEnd; y++) {
+			Arrays.fill(red, 0, width, 0);
+			Arrays.fill(green, 0, width, 0);
+			Arrays.fill(blue, 0, width, 0);
+			for (int k = 0; k < context.nKernels; k++) {
+				var kernel = context.kernels[k];
+				int ind = kernel.start + y * kernel.scanlineStride;
+				int stride = kernel.pixelStride;
+				int[] lut = kernel.lut;
+				float offset = kernel.offset;
+				float scale = kernel.scale;
+				switch (kernel.dataType) {
+					case DataBuffer.TYPE_BYTE -> {
+						byte[] data = (byte[])kernel.data;
+						for (int x = 0; x < width; x++, ind += stride)
+							accumulate(lut[data[ind] & 0xFF], x, red, green, blue);
+					}
+					case DataBuffer.TYPE_USHORT -> {
+						short[] data = (short[])kernel.data;
+						for (int x = 0; x < width; x++, ind += stride)
+							accumulate(lut[ColorTools.do8BitRangeCheck(((data[ind] & 0xFFFF) - offset) * scale)], x, red, green, blue);
+					}
+					case DataBuffer.TYPE_SHORT -> {
+						short[] data = (short[])kernel.data;
+						for (int x = 0; x < width; x++, ind += stride)
+							accumulate(lut[ColorTools.do8BitRangeCheck((data[ind] - offset) * scale)], x, red, green, blue);
+					}
+					case DataBuffer.TYPE_INT -> {
+						int[] data = (int[])kernel.data;
+						for (int x = 0; x < width; x++, ind += stride)
+							accumulate(lut[ColorTools.do8BitRangeCheck(((float)data[ind] - offset) * scale)], x, red, green, blue);
+					}
+					case DataBuffer.TYPE_FLOAT -> {
+						float[] data = (float[])kernel.data;
+						for (int x = 0; x < width; x++, ind += stride)
+							accumulate(lut[ColorTools.do8BitRangeCheck((data[ind] - offset) * scale)], x, red, green, blue);
+					}
+					case DataBuffer.TYPE_DOUBLE -> {
+						double[] data = (double[])kernel.data;
+						for (int x = 0; x < width; x++, ind += stride)
+							accumulate(lut[ColorTools.do8BitRangeCheck(((float)data[ind] - offset) * scale)], x, red, green, blue);
+					}
+					default -> throw new IllegalArgumentException("Unsupported data type " + kernel.dataType);
+				}
+			}
+			int rowStart = y * width;
+			if (context.invert) {
+				for (int x = 0; x < width; x++)
+					pixels[rowStart + x] = ColorTools.packRGB(255 - Math.min(red[x], 255), 255 - Math.min(green[x], 255), 255 - Math.min(blue[x], 255));
+			} else {
+				for (int x = 0; x < width; x++)
+					pixels[rowStart + x] = ColorTools.packRGB(Math.min(red[x], 255), Math.min(green[x], 255), Math.min(blue[x], 255));
+			}
+		}
+	}
+
+	private static void accumulate(int rgb, int x, int[] red, int[] green, int[] blue) {
+		red[x] += (rgb & ColorTools.MASK_RED) >> 16;
+		green[x] += (rgb & ColorTools.MASK_GREEN) >> 8;
+		blue[x] += rgb & ColorTools.MASK_BLUE;
+	}
+
+
+	private record ChannelKernel(Object data, int dataType, int start, int pixelStride, int scanlineStride,
+			float offset, float scale, int[] lut) {}
+
+	private record RenderContext(int width, ChannelKernel[] kernels, int nKernels, int[] pixels, boolean invert) {}
+
+	/**
+	 * Output pixels and lookup tables, reused by the thread that requests rendering.
+	 */
+	private static class Buffers {
+
+		private boolean inUse = false;
+		private int[] pixels = new int[0];
+		private int[][] luts = new int[0][];
+
+		int[] getPixels(int n) {
+			if (pixels.length < n)
+				pixels = new int[n];
+			return pixels;
+		}
+
+		int[] getLUT(int ind) {
+			if (luts.length <= ind)
+				luts = Arrays.copyOf(luts, Math.max(ind + 1, luts.length * 2));
+			if (luts[ind] == null)
+				luts[ind] = new int[256];
+			return luts[ind];
+		}
+
+	}
+
+	/**
+	 * Accumulators for a single row, reused by each thread that renders rows.
+	 */
+	private static class RowBuffers {
+
+		private int[] red = new int[0];
+		private int[] green = new int[0];
+		private int[] blue = new int[0];
+
+		int[] getRed(int width) {
+			if (red.length < width)
+				red = new int[width];
+			return red;
+		}
+
+		int[] getGreen(int width) {
+			if (green.length < width)
+				green = new int[width];
+			return green;
+		}
+
+		int[] getBlue(int width) {
+			if (blue.length < width)
+				blue = new int[width];
+			return blue;
+		}
+
+	}
+
+}
@@ -1,24 +1,31 @@
 package qupath.lib.display;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import qupath.lib.analysis.stats.ArrayWrappers;
 import qupath.lib.analysis.stats.Histogram;
 import qupath.lib.images.servers.ImageServer;
 import qupath.lib.regions.RegionRequest;
 
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Class to help with managing histograms for image channels.
  * This is intended for use with {@link ImageDisplay}.
+ * <p>
+ * Histograms are updated incrementally as images become available (e.g. as tiles are decoded), without retaining
+ * the images themselves.
+ * Each region is only counted once, so that it doesn't matter how often a tile is read.
+ * The exception is for mutable channels (e.g. color deconvolution), which are recomputed from a single plane
+ * whenever they are requested.
  */
 class HistogramManager {
 
@@ -26,203 +33,247 @@ class HistogramManager {
 
     /**
      * Default number of bins per histogram.
+     * This is higher than would normally be displayed, because the range of the histogram can be expanded
+     * as new values are added - in which case the bins are merged.
      */
-    private static final int NUM_BINS = 1024;
+    private static final int NUM_BINS = 4096;
 
     /**
-     * Default target number of pixels per histogram.
+     * Default target number of pixels per image.
      * Large images may be subsampled to avoid needing to work with (and duplicate) very large pixel arrays.
      */
     private static final long TARGET_HISTOGRAM_N_PIXELS = 10_000_000;
 
-    private final Map<String, HistogramForRegions> map = new ConcurrentHashMap<>();
+    private final String serverPath;
+    private final double downsample;
 
+    private final Map<String, StreamingHistogram> map = new ConcurrentHashMap<>();
 
-    HistogramManager() {}
+    // Keys for planes that have been added in full, and for individual tiles
+    private final Set<String> planes = ConcurrentHashMap.newKeySet();
+    private final Set<String> tiles = ConcurrentHashMap.newKeySet();
+
+    // Incremented whenever the histograms change, so that we know when they need to be saved again
+    private final AtomicLong version = new AtomicLong();
+
+
+    /**
+     * Create a new histogram manager.
+     * @param serverPath path of the server providing the images
+     * @param downsample the downsample of the images that will be used to populate the histograms
+     */
+    HistogramManager(String serverPath, double downsample) {
+        this.serverPath = serverPath;
+        this.downsample = downsample;
+    }
 
     private String getKey(final ChannelDisplayInfo channel) {
         return channel.getClass().getName() + "::" + channel.getName();
     }
 
+    private static String getPlaneKey(RegionRequest request) {
+        return request.getZ() + ":" + request.getT();
+    }
+
+    private static String getTileKey(RegionRequest request) {
+        return request.getX() + ":" + request.getY() + ":" + request.getWidth() + ":" + request.getHeight() + ":" +
+                getPlaneKey(request);
+    }
+
     /**
-     * Update all channels using the specified images.
-     * This can set min/max values, and also cache any associated histograms.
-     * @param server the image
-     * @param channels the channels to update
-     * @param imgList the images to use
+     * Get the path of the server providing the images used to populate the histograms.
+     * @return
      */
-    void updateChannels(final ImageServer<BufferedImage> server, final Collection<? extends ChannelDisplayInfo> channels,
-                        final Map<RegionRequest, BufferedImage> imgList) {
-
-        // Check what we might need to process
-        List<SingleChannelDisplayInfo> channelsToProcess = new ArrayList<>();
-        float serverMin = server.getMetadata().getMinValue().floatValue();
-        float serverMax = server.getMetadata().getMaxValue().floatValue();
+    String getServerPath() {
+        return serverPath;
+    }
 
-        for (ChannelDisplayInfo channel : channels) {
-            var histogramForRegions = map.getOrDefault(getKey(channel), null);
-            if (histogramForRegions != null && histogramForRegions.histogram() != null && histogramForRegions.sameRegions(imgList.keySet())) {
-                // We have the histogram - use the min & max values to determine which values are allowed in the channel
-                if (channel instanceof ChannelDisplayInfo.ModifiableChannelDisplayInfo modifiableChannel) {
-                    var histogram = histogramForRegions.histogram();
-                    modifiableChannel.setMinMaxAllowed(
-                            (float) Math.min(0, histogram.getMinValue()), (float) histogram.getMaxValue());
-                }
-            } else if (channel instanceof SingleChannelDisplayInfo singleChannel) {
-                // We don't have the histogram, but we can compute it later
-                channelsToProcess.add(singleChannel);
-                if (channel instanceof ChannelDisplayInfo.ModifiableChannelDisplayInfo modifiableChannel) {
-                    modifiableChannel.setMinMaxAllowed(serverMin, serverMax);
-                }
-            } else {
-                // A histogram doesn't exist for the channel, and we can't compute one
-                map.put(getKey(channel), new HistogramForRegions(null, imgList.keySet()));
-            }
-        }
+    /**
+     * Get the downsample of the images used to populate the histograms.
+     * @return
+     */
+    double getDownsample() {
+        return downsample;
+    }
 
-        if (channelsToProcess.isEmpty() || imgList.isEmpty())
-            return;
+    /**
+     * Get a value that changes whenever the histograms are updated.
+     * @return
+     */
+    long getVersion() {
+        return version.get();
+    }
 
-        logger.debug("Building {} histograms for {}", channelsToProcess.size(), server.getPath());
-        long startTime = System.currentTimeMillis();
+    /**
+     * Check whether an image could be used to update the histograms.
+     * This checks the path and downsample of the request, and whether the region has already been counted.
+     * @param request the region corresponding to the image
+     * @return true if the image should be passed to {@link #addImage(ImageServer, Collection, RegionRequest, BufferedImage)}
+     */
+    boolean acceptsRegion(RegionRequest request) {
+        return serverPath.equals(request.getPath()) &&
+                request.getDownsample() == downsample &&
+                !planes.contains(getPlaneKey(request)) &&
+                !tiles.contains(getTileKey(request));
+    }
 
-        // Count number of pixels
-        long nPixels = countPixels(imgList.values());
+    /**
+     * Update the histograms for all the channels that can be streamed, using pixels from a new image.
+     * Regions that have been added previously are ignored.
+     * @param server the server providing the image
+     * @param channels the channels to update
+     * @param request the region corresponding to the image
+     * @param img the image
+     * @return true if the histograms were updated, false if the region was not accepted
+     */
+    boolean addImage(final ImageServer<BufferedImage> server, final Collection<? extends ChannelDisplayInfo> channels,
+                     final RegionRequest request, final BufferedImage img) {
+        if (img == null || !acceptsRegion(request))
+            return false;
+        boolean isPlane = request.getX() == 0 && request.getY() == 0 &&
+                request.getWidth() == server.getWidth() && request.getHeight() == server.getHeight();
+        if (isPlane) {
+            if (!planes.add(getPlaneKey(request)))
+                return false;
+        } else if (!tiles.add(getTileKey(request))) {
+            return false;
+        }
 
+        long startTime = System.currentTimeMillis();
         // Determine stride so that we subsample to have no more than approx TARGET_HISTOGRAM_N_PIXELS values
+        long nPixels = (long)img.getWidth() * img.getHeight();
         int stride = (int) Math.max(Math.ceil((double)nPixels / TARGET_HISTOGRAM_N_PIXELS), 1);
-
-        for (SingleChannelDisplayInfo channel : channelsToProcess) {
-            var histogram = createHistogram(channel, imgList, stride, true);
-            map.put(getKey(channel), new HistogramForRegions(histogram, imgList.keySet()));
+        float[] vals = null;
+        for (var channel : channels) {
+            if (!(channel instanceof SingleChannelDisplayInfo singleChannel) || singleChannel.isMutable())
+                continue;
+            vals = singleChannel.getValues(img, 0, 0, img.getWidth(), img.getHeight(), vals);
+            map.computeIfAbsent(getKey(channel), k -> new StreamingHistogram(NUM_BINS, true))
+                    .addValues(vals, stride);
         }
-        long endTime = System.currentTimeMillis();
-        logger.debug("Histograms built in {} ms", (endTime - startTime));
+        version.incrementAndGet();
+        logger.trace("Histograms updated from {} in {} ms", request, System.currentTimeMillis() - startTime);
+        return true;
     }
 
-
     /**
-     * Create a histogram for a single channel.
-     * @param channel the channel to use
-     * @param images the images to use
-     * @param stride the stride for subsampling
-     * @param permitMinMaxUpdate if true, the min/max values of the channel can be updated based upon the values
-     *                           that were extracted.
-     * @return a new histogram for the channel based on the (possibly subsampled) pixels from the images
+     * Update the minimum and maximum allowed values for all channels, based on the current histograms.
+     * @param server the image
+     * @param channels the channels to update
      */
-    private Histogram createHistogram(SingleChannelDisplayInfo channel,
-                                      Map<RegionRequest, BufferedImage> images,
-                                      int stride, boolean permitMinMaxUpdate) {
-        List<ArrayWrappers.ArrayWrapper> wrappers = new ArrayList<>();
-        double minValue = Double.POSITIVE_INFINITY;
-        double maxValue = Double.NEGATIVE_INFINITY;
-        long size = 0;
-        double downsample = 1;
-        for (var entry : images.entrySet()) {
-            downsample = Math.max(entry.getKey().getDownsample(), 1);
-            var img = entry.getValue();
-            var vals = channel.getValues(img, 0, 0, img.getWidth(), img.getHeight(), null);
-            size += vals.length;
-            if (size >= Integer.MAX_VALUE)
-                break;
-            if (stride == 1) {
-                // Use the entire array
-                wrappers.add(ArrayWrappers.makeFloatArrayWrapper(vals));
-            } else {
-                // Subsample the array to speed things up - and reduce memory requirements
-                wrappers.add(ArrayWrappers.makeFloatArrayWrapper(subsample(vals, stride)));
-            }
-            // Calculate min/max from the full array
-            for (var val : vals) {
-                if (val < minValue)
-                    minValue = val;
-                if (val > maxValue)
-                    maxValue = val;
-            }
-        }
-
-        var histogram = new Histogram(ArrayWrappers.concatenate(wrappers), NUM_BINS, minValue, maxValue);
-
-        // If we have more than an 8-bit image, set the display range according to actual values - with additional scaling if we downsampled
-        if (permitMinMaxUpdate && channel instanceof ChannelDisplayInfo.ModifiableChannelDisplayInfo modifiableChannelDisplayInfo) {
+    void updateChannels(final ImageServer<BufferedImage> server, final Collection<? extends ChannelDisplayInfo> channels) {
+        float serverMin = server.getMetadata().getMinValue().floatValue();
+        float serverMax = server.getMetadata().getMaxValue().floatValue();
+        for (ChannelDisplayInfo channel : channels) {
+            if (!(channel instanceof ChannelDisplayInfo.ModifiableChannelDisplayInfo modifiableChannel))
+                continue;
+            modifiableChannel.setMinMaxAllowed(serverMin, serverMax);
+            var histogram = map.get(getKey(channel));
+            if (histogram == null || histogram.nValues() == 0)
+                continue;
+            // If we have more than an 8-bit image, set the display range according to actual values - with additional scaling if we downsampled
             float scale = downsample < 2 ? 1 : 1.5f;
             if (!histogram.isInteger() || Math.max(Math.abs(channel.getMaxAllowed()), Math.abs(channel.getMinAllowed())) > 4096) {
-                modifiableChannelDisplayInfo.setMinMaxAllowed(
-                        (float) Math.min(0, minValue) * scale, (float) Math.max(0, maxValue) * scale);
+                modifiableChannel.setMinMaxAllowed(
+                        (float) Math.min(0, histogram.getMinValue()) * scale, (float) Math.max(0, histogram.getMaxValue()) * scale);
             }
         }
-
-        return histogram;
     }
 
 
     /**
-     * Get the total number of pixels in a collection of images.
-     * The number of channels is ignored (treated as 1).
+     * Get a histogram for a channel.
+     * @param server the image to use
+     * @param channel the channel display that extracts pixel values
+     * @return a histogram if available, otherwise null
      */
-    private static long countPixels(Collection<? extends BufferedImage> images) {
-        long nPixels = 0;
-        for (var img : images) {
-            nPixels += (long)img.getWidth() * img.getHeight();
-        }
-        return nPixels;
+    Histogram getHistogram(final ImageServer<BufferedImage> server, final ChannelDisplayInfo channel) {
+        if (!(channel instanceof SingleChannelDisplayInfo singleChannel))
+            return null;
+        // Always recompute histogram for mutable channels, and for channels that haven't been streamed
+        // (e.g. because they weren't available when the images were added)
+        var histogram = singleChannel.isMutable() ? null : map.get(getKey(channel));
+        if (histogram == null || histogram.nValues() == 0)
+            return computeHistogram(server, singleChannel);
+        return histogram.toHistogram();
     }
 
-
     /**
-     * Get a histogram for image regions.
-     * @param server the image to use
-     * @param channel the channel display that extracts pixel values
-     * @param images a map of images; this should not be empty
-     * @return a histogram if available, otherwise null
+     * Compute a histogram for a channel from the central plane of the image.
+     * The plane is requested from the server, and so should usually be cached.
      */
-    Histogram getHistogram(final ImageServer<BufferedImage> server, final ChannelDisplayInfo channel,
-                           final Map<RegionRequest, BufferedImage> images) {
-        String key = getKey(channel);
-        if (channel instanceof SingleChannelDisplayInfo singleChannel) {
-            // Always recompute histogram for mutable channels
-            if (singleChannel.isMutable()) {
-                map.remove(key);
-            }
+    private Histogram computeHistogram(final ImageServer<BufferedImage> server, final SingleChannelDisplayInfo channel) {
+        try {
+            var img = server.readRegion(createPlaneRequest(server, downsample));
+            var histogram = new StreamingHistogram(NUM_BINS, true);
+            long nPixels = (long)img.getWidth() * img.getHeight();
+            int stride = (int) Math.max(Math.ceil((double)nPixels / TARGET_HISTOGRAM_N_PIXELS), 1);
+            histogram.addValues(channel.getValues(img, 0, 0, img.getWidth(), img.getHeight(), null), stride);
+            return histogram.toHistogram();
+        } catch (IOException e) {
+            logger.warn("Unable to compute histogram for {}: {}", channel, e.getMessage(), e);
+            return null;
         }
-        updateChannels(server, Collections.singletonList(channel), images);
-        var histogramForRegions = map.getOrDefault(key, null);
-        return histogramForRegions == null ? null : histogramForRegions.histogram();
     }
 
-
     /**
-     * Subsample an array using a specified stride.
-     * @param values the input array
-     * @param stride the stride to use when extracting elements
-     * @return a subsampled array, or the original array if the stride &leq; 1.
+     * Create a request for the central plane of an image, at the specified downsample.
+     * @param server the image
+     * @param downsample the downsample for the request
+     * @return
      */
-    private static float[] subsample(float[] values, int stride) {
-        if (stride <= 1)
-            return values;
-        float[] arr2 = new float[values.length / stride];
-        for (int i = 0; i < arr2.length; i++) {
-            arr2[i] = values[i * stride];
-        }
-        return arr2;
+    static RegionRequest createPlaneRequest(final ImageServer<BufferedImage> server, double downsample) {
+        return RegionRequest.createInstance(server.getPath(), downsample, 0, 0, server.getWidth(), server.getHeight(),
+                server.nZSlices()/2, server.nTimepoints()/2);
     }
 
 
     /**
-     * Helper class to store a histogram and the regions used to generate it.
-     * This is used to support caching histograms that were generated from specified regions.
+     * Create a JSON representation of the histograms, so that they can be stored and restored later.
+     * @return
+     * @see #fromJson(String)
      */
-    private record HistogramForRegions(Histogram histogram, Set<RegionRequest> regions) {
-
-        private HistogramForRegions(final Histogram histogram, final Set<RegionRequest> regions) {
-            this.histogram = histogram;
-            this.regions = Set.copyOf(regions);
-        }
+    String toJson() {
+        var obj = new JsonObject();
+        obj.addProperty("serverPath", serverPath);
+        obj.addProperty("downsample", downsample);
+        var arrayPlanes = new JsonArray();
+        planes.forEach(arrayPlanes::add);
+        obj.add("planes", arrayPlanes);
+        var arrayTiles = new JsonArray();
+        tiles.forEach(arrayTiles::add);
+        obj.add("tiles", arrayTiles);
+        var objHistograms = new JsonObject();
+        for (var entry : map.entrySet())
+            objHistograms.add(entry.getKey(), entry.getValue().toJson());
+        obj.add("histograms", objHistograms);
+        return obj.toString();
+    }
 
-        boolean sameRegions(final Set<RegionRequest> regions) {
-            return this.regions.equals(regions);
+    /**
+     * Restore histograms from a JSON representation.
+     * @param json the JSON, as created by {@link #toJson()}
+     * @return the histogram manager
+     * @throws IllegalArgumentException if the JSON does not represent valid histograms
+     */
+    static HistogramManager fromJson(String json) throws IllegalArgumentException {
+        try {
+            var obj = JsonParser.parseString(json).getAsJsonObject();
+            var manager = new HistogramManager(
+                    obj.get("serverPath").getAsString(), obj.get("downsample").getAsDouble());
+            for (var element : obj.getAsJsonArray("planes"))
+                manager.planes.add(element.getAsString());
+            for (var element : obj.getAsJsonArray("tiles"))
+                manager.tiles.add(element.getAsString());
+            var objHistograms = obj.getAsJsonObject("histograms");
+            for (var key : objHistograms.keySet())
+                manager.map.put(key, StreamingHistogram.fromJson(objHistograms.getAsJsonObject(key)));
+            return manager;
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Unable to parse histograms: " + e.getMessage(), e);
         }
-
     }
 
 }
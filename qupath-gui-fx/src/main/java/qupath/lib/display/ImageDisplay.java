@@ -43,31 +43,33 @@ import javafx.collections.ObservableList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qupath.lib.analysis.stats.Histogram;
+import qupath.lib.color.ColorDeconvolutionStains;
 import qupath.lib.common.ColorTools;
 import qupath.lib.display.ChannelDisplayInfo.ModifiableChannelDisplayInfo;
 import qupath.lib.gui.images.stores.AbstractImageRenderer;
+import qupath.lib.gui.images.stores.TileListener;
 import qupath.lib.gui.prefs.PathPrefs;
 import qupath.lib.images.ImageData;
 import qupath.lib.images.servers.ImageServer;
 import qupath.lib.images.servers.ImageServerMetadata;
-import qupath.lib.images.servers.ImageServerProvider;
 import qupath.lib.images.servers.PixelType;
+import qupath.lib.regions.ImageRegion;
 import qupath.lib.regions.RegionRequest;
 
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.UUID;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
@@ -79,7 +81,7 @@ import java.util.stream.Collectors;
  * 
  * @author Pete Bankhead
  */
-public class ImageDisplay extends AbstractImageRenderer {
+public class ImageDisplay extends AbstractImageRenderer implements TileListener<BufferedImage> {
 
 	/**
 	 * TODO: This needs to be updated to make it properly observable and consistent.
@@ -98,6 +100,11 @@ public class ImageDisplay extends AbstractImageRenderer {
 	 */
 	private static final String PROPERTY_DISPLAY = ImageDisplay.class.getName();
 
+	/**
+	 * Identifier used when storing/retrieving histograms from ImageData properties.
+	 */
+	private static final String PROPERTY_HISTOGRAMS = PROPERTY_DISPLAY + ".histograms";
+
 	// Image & color transform-related variables
 	private final BooleanProperty useGrayscaleLuts = new SimpleBooleanProperty();
 	private final BooleanProperty useInvertedBackground = new SimpleBooleanProperty(false);
@@ -119,18 +126,11 @@ public class ImageDisplay extends AbstractImageRenderer {
 			useGrayscaleLutProperty(), useInvertedBackgroundProperty());
 
 	private static final Map<String, HistogramManager> cachedHistograms = Collections.synchronizedMap(new HashMap<>());
-	private HistogramManager histogramManager = null;
-
-	private static final Comparator<RegionRequest> regionComparator = Comparator.comparing(RegionRequest::getPath)
-			.thenComparingInt(RegionRequest::getZ)
-			.thenComparingInt(RegionRequest::getT)
-			.thenComparingInt(RegionRequest::getX)
-			.thenComparingInt(RegionRequest::getY)
-			.thenComparingInt(RegionRequest::getWidth)
-			.thenComparingInt(RegionRequest::getHeight)
-			.thenComparingDouble(RegionRequest::getDownsample);
+	private volatile HistogramManager histogramManager = null;
+	private long savedHistogramVersion = -1L;
 
-	private Map<RegionRequest, BufferedImage> imagesForHistograms = new TreeMap<>(regionComparator); // Cache images needed to recompute histograms
+	// Snapshot of the available channels, so that histograms can be updated from tiles on a background thread
+	private volatile List<ChannelDisplayInfo> histogramChannels = List.of();
 
 	private static final BooleanProperty showAllRGBTransforms = PathPrefs.createPersistentPreference("showAllRGBTransforms", true);
 
@@ -211,7 +211,6 @@ public class ImageDisplay extends AbstractImageRenderer {
 			lastDisplayJSON = retainDisplaySettings ? toJSON() : null;
 
 			this.imageData = imageData;
-			this.imagesForHistograms = imageData == null ? Collections.emptyMap() : getImagesForHistogram(imageData.getServer());
 			if (imageData != null)
 				channelManager = new ChannelManager(imageData);
 			else
@@ -385,6 +384,37 @@ public class ImageDisplay extends AbstractImageRenderer {
 		return eventCountProperty;
 	}
 
+	/**
+	 * Get a key derived from the settings used to render the image, i.e. the selected channels, their colors and
+	 * display ranges, and the display mode.
+	 * <p>
+	 * Unlike the default implementation, this does not depend upon the event count.
+	 * This means that rendered tiles can be reused by other displays with the same settings, or if previous
+	 * settings are restored.
+	 * @return a key that is the same for any displays that would render images identically
+	 */
+	@Override
+	public String getUniqueID() {
+		var sb = new StringBuilder();
+		var mode = displayMode().getValue();
+		sb.append(mode);
+		for (ChannelDisplayInfo info : selectedChannels.toArray(ChannelDisplayInfo[]::new)) {
+			if (info == null)
+				continue;
+			sb.append('\n')
+				.append(info.getClass().getName()).append('\t')
+				.append(info.getName()).append('\t')
+				.append(info.getColor()).append('\t')
+				.append(info.getMinDisplay()).append('\t')
+				.append(info.getMaxDisplay());
+		}
+		var stains = imageData == null ? null : imageData.getColorDeconvolutionStains();
+		if (stains != null)
+			sb.append('\n').append(ColorDeconvolutionStains.getColorDeconvolutionStainsAsString(stains, 6));
+		var hash = UUID.nameUUIDFromBytes(sb.toString().getBytes(StandardCharsets.UTF_8));
+		return getClass().getName() + ":" + hash;
+	}
+
 	/**
 	 * Refresh the channel options. This may be used if an underlying property of the image has changed, such 
 	 * as the channel names or lookup tables.
@@ -433,6 +463,7 @@ public class ImageDisplay extends AbstractImageRenderer {
 		if (metadata == null || channelManager == null) {
 			selectedChannels.clear();
 			availableChannels.clear();
+			histogramChannels = List.of();
 			if (!switchToGrayscaleChannel.isBound())
 				switchToGrayscaleChannel.set(null);
 			return;
@@ -456,6 +487,7 @@ public class ImageDisplay extends AbstractImageRenderer {
 		if (!availableChannels.equals(tempChannelOptions)) {
 			availableChannels.setAll(tempChannelOptions);
 		}
+		histogramChannels = List.copyOf(availableChannels);
 		if (!selectedChannels.equals(tempSelectedChannels)) {
 			selectedChannels.setAll(tempSelectedChannels);
 		}
@@ -570,9 +602,45 @@ public class ImageDisplay extends AbstractImageRenderer {
 		}
 		// Store the current display settings in the ImageData
 		imageData.setProperty(PROPERTY_DISPLAY, toJSON(false));
+		saveHistogramProperties();
 		incrementEventCount();
 	}
 
+	/**
+	 * Store the histograms in the ImageData properties, if they have changed since they were last stored.
+	 * This is only called when the display settings are saved, so that simply viewing an image doesn't result
+	 * in the ImageData being flagged as changed.
+	 */
+	private void saveHistogramProperties() {
+		var manager = histogramManager;
+		if (manager == null)
+			return;
+		long version = manager.getVersion();
+		if (version == savedHistogramVersion)
+			return;
+		imageData.setProperty(PROPERTY_HISTOGRAMS, manager.toJson());
+		savedHistogramVersion = version;
+	}
+
+	/**
+	 * Load histograms stored in the ImageData properties, if they match the current server.
+	 * @return the histograms, or null if no compatible histograms are available
+	 */
+	private HistogramManager loadHistogramProperties(ImageServer<BufferedImage> server, double downsample) {
+		if (!(imageData.getProperty(PROPERTY_HISTOGRAMS) instanceof String json))
+			return null;
+		try {
+			var manager = HistogramManager.fromJson(json);
+			if (manager.getServerPath().equals(server.getPath()) && manager.getDownsample() == downsample)
+				return manager;
+			logger.debug("Stored histograms don't match {}", server.getPath());
+		} catch (IllegalArgumentException e) {
+			logger.warn("Unable to parse stored histograms: {}", e.getMessage());
+			logger.debug(e.getMessage(), e);
+		}
+		return null;
+	}
+
 
 	/**
 	 * Read-only observable list containing the channels currently selected for display.
@@ -687,6 +755,16 @@ public class ImageDisplay extends AbstractImageRenderer {
 			return imgOutput;
 		}
 
+		// For multiple channels, use a fused kernel if we can - since creating each channel separately is costly
+		if (selectedChannels.size() > 1 && AdditiveChannelRenderer.canRender(imgInput, selectedChannels)) {
+			try {
+				AdditiveChannelRenderer.render(imgInput, imgOutput, selectedChannels, mode);
+				return imgOutput;
+			} catch (Exception e) {
+				logger.error("Error extracting pixels for display", e);
+			}
+		}
+
 		// Loop through the channels & build up an image as needed
 		boolean firstChannel = true;
 
@@ -756,17 +834,28 @@ public class ImageDisplay extends AbstractImageRenderer {
 
 
 
-	private void updateHistogramMap() {
+	private void updateHistogramMap() throws IOException {
 		ImageServer<BufferedImage> server = imageData == null ? null : imageData.getServer();
 		if (server == null) {
 			histogramManager = null;
 			return;
 		}
-		
-		histogramManager = cachedHistograms.get(server.getPath());
-		if (histogramManager == null) {
-			histogramManager = new HistogramManager();
-			histogramManager.updateChannels(server, availableChannels, getImagesForHistograms());
+
+		double downsample = server.getDownsampleForResolution(getPreferredHistogramPyramidLevel(server));
+		var manager = cachedHistograms.get(server.getPath());
+		if (manager == null) {
+			manager = loadHistogramProperties(server, downsample);
+			savedHistogramVersion = manager == null ? -1L : manager.getVersion();
+			if (manager == null) {
+				// Request the central slice at the preferred resolution - further tiles are added as they are read
+				// Before v0.6.0 we tried to read all z-slices and time points - but this could be much too expensive
+				// (and also require too much memory)
+				manager = new HistogramManager(server.getPath(), downsample);
+				var request = HistogramManager.createPlaneRequest(server, downsample);
+				manager.addImage(server, availableChannels, request, server.readRegion(request));
+			}
+			histogramManager = manager;
+			manager.updateChannels(server, availableChannels);
 			if (server.getPixelType() == PixelType.UINT8) {
 				availableChannels.parallelStream()
 						.filter(c -> !(c instanceof DirectServerChannelInfo))
@@ -783,28 +872,16 @@ public class ImageDisplay extends AbstractImageRenderer {
 				availableChannels.parallelStream()
 						.forEach(this::autoSetDisplayRangeWithoutUpdate);
 			}
-			cachedHistograms.put(server.getPath(), histogramManager);
+			cachedHistograms.put(server.getPath(), manager);
 		} else {
+			savedHistogramVersion = -1L;
+			histogramManager = manager;
+			manager.updateChannels(server, availableChannels);
 			availableChannels.parallelStream().forEach(this::autoSetDisplayRangeWithoutUpdate);
 		}
 	}
 
 
-	private Map<RegionRequest, BufferedImage> getImagesForHistogram(final ImageServer<BufferedImage> server) throws IOException {
-		if (server == null)
-			return Collections.emptyMap();
-		// Try to get the first image 'normally', so that if there is an exception it can be handled
-		Map<RegionRequest, BufferedImage> map = new TreeMap<>(regionComparator);
-		// Request the central slice at the preferred resolution
-		double downsample = server.getDownsampleForResolution(getPreferredHistogramPyramidLevel(server));
-		var request = RegionRequest.createInstance(server.getPath(), downsample, 0, 0, server.getWidth(), server.getHeight(),
-				server.nZSlices()/2, server.nTimepoints()/2);
-		map.put(request, server.readRegion(request));
-		// Before v0.6.0 we tried to read all z-slices and time points - but this could be much too expensive
-		// (and also require too much memory)
-		return map;
-	}
-
     /**
      * Get the resolution level to use by default when building histograms here.
      * In v0.6.0 the lowest resolution was always chosen, but this could cause trouble:
@@ -927,45 +1004,30 @@ public class ImageDisplay extends AbstractImageRenderer {
 	public Histogram getHistogram(ChannelDisplayInfo channel) {
 		if (channel == null || histogramManager == null)
 			return null;
-		return histogramManager.getHistogram(getServer(), channel, getImagesForHistograms());
+		return histogramManager.getHistogram(getServer(), channel);
 	}
 
-	private Map<RegionRequest, BufferedImage> getImagesForHistograms() {
+	/**
+	 * Update the histograms for the current image using a newly-available tile.
+	 * Only tiles at the resolution used for histograms are accepted, and each region is counted only once.
+	 */
+	@Override
+	public void tileAvailable(String serverPath, ImageRegion region, BufferedImage tile) {
+		var manager = histogramManager;
 		var server = getServer();
-		if (server == null || server.nZSlices() * server.nTimepoints() == imagesForHistograms.size())
-			return imagesForHistograms;
-
-		// Get all the cached tiles we can
-		Map<RegionRequest, BufferedImage> images = new TreeMap<>(regionComparator);
-        int level = getPreferredHistogramPyramidLevel(server);
-		long nPixelsCached = 0;
-		for (var tile : server.getTileRequestManager().getTileRequestsForLevel(level)) {
-			var img = server.getCachedTile(tile);
-			if (img != null) {
-				nPixelsCached += (long) img.getWidth() * img.getHeight();
-				images.put(tile.getRegionRequest(), img);
-			}
-		}
-
-		// If we don't have anything, search the main cache
-		if (images.isEmpty()) {
-			double downsample = server.getDownsampleForResolution(server.nResolutions()-1);
-			var cache = ImageServerProvider.getCache(BufferedImage.class);
-			cache.entrySet()
-					.stream()
-					.filter(e -> e.getKey().getPath().equals(server.getPath()) &&
-							e.getKey().getDownsample() == downsample)
-					.forEach(e -> images.put(e.getKey(), e.getValue()));
-		}
-
-		// Get the original histogram pixels
-		long nPixelsBackup = 0;
-		for (var img : imagesForHistograms.values()) {
-			nPixelsBackup += (long) img.getWidth() * img.getHeight();
-		}
+		if (manager == null || server == null || tile == null || !(region instanceof RegionRequest request))
+			return;
+		if (!manager.getServerPath().equals(serverPath) || !manager.acceptsRegion(request))
+			return;
+		manager.addImage(server, histogramChannels, request, tile);
+	}
 
-		// Return whichever images gives us the most pixels to work with
-		return nPixelsBackup >= nPixelsCached ? imagesForHistograms : images;
+	/**
+	 * Tiles are never required for histograms; they are only used if they have been requested elsewhere.
+	 */
+	@Override
+	public boolean requiresTileRegion(String serverPath, ImageRegion region) {
+		return false;
 	}
 
 	
@@ -0,0 +1,247 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.display;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import qupath.lib.analysis.stats.Histogram;
+
+import java.util.Arrays;
+
+/**
+ * Histogram with a fixed number of bins that can be updated as new values become available, without storing the values.
+ * <p>
+ * The range of the histogram is expanded as required to include new values, by doubling the bin width and merging
+ * adjacent bins.
+ * For integer values the bin width is never less than 1, so that small ranges of integers are counted exactly.
+ */
+final class StreamingHistogram {
+
+	private final int nBins;
+	private final long[] counts;
+	private boolean isInteger;
+
+	// The left edge of the first bin, and width of each bin; the edge is NaN until values have been added
+	private double edgeMin = Double.NaN;
+	private double binWidth = Double.NaN;
+
+	private double minValue = Double.POSITIVE_INFINITY;
+	private double maxValue = Double.NEGATIVE_INFINITY;
+	private long nValues = 0L;
+
+	/**
+	 * Create an empty histogram.
+	 * @param nBins the number of bins used to count values
+	 * @param isInteger true if all values are expected to be integers; this is used to constrain the bin width, and
+	 *                  is set to false if any non-integer value is added
+	 */
+	StreamingHistogram(int nBins, boolean isInteger) {
+		if (nBins < 2)
+			throw new IllegalArgumentException("Number of bins must be at least 2, but was " + nBins);
+		this.nBins = nBins;
+		this.counts = new long[nBins];
+		this.isInteger = isInteger;
+	}
+
+	/**
+	 * Add values to the histogram. NaNs and infinite values are ignored.
+	 * @param values the values to add
+	 * @param stride the stride to use when subsampling the array; use 1 to add all values
+	 */
+	synchronized void addValues(float[] values, int stride) {
+		stride = Math.max(1, stride);
+		// Find the range first, so that we only need to expand the histogram once per call
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		boolean allIntegers = isInteger;
+		for (int i = 0; i < values.length; i += stride) {
+			float v = values[i];
+			if (!Float.isFinite(v))
+				continue;
+			if (v < min)
+				min = v;
+			if (v > max)
+				max = v;
+			if (allIntegers && v != (int)v)
+				allIntegers = false;
+		}
+		if (min > max)
+			return;
+		if (!allIntegers && isInteger) {
+			// Integer bins can't be assumed any more, but the existing counts remain valid
+			isInteger = false;
+		}
+		ensureRange(min, max);
+
+		for (int i = 0; i < values.length; i += stride) {
+			float v = values[i];
+			if (!Float.isFinite(v))
+				continue;
+			counts[getBinIndex(v)]++;
+			nValues++;
+		}
+		minValue = Math.min(minValue, min);
+		maxValue = Math.max(maxValue, max);
+	}
+
+	private int getBinIndex(double v) {
+		int ind = (int)((v - edgeMin) / binWidth);
+		return Math.min(Math.max(ind, 0), nBins - 1);
+	}
+
+	private void ensureRange(double min, double max) {
+		if (Double.isNaN(edgeMin)) {
+			if (isInteger) {
+				edgeMin = Math.floor(min);
+				binWidth = 1.0;
+			} else {
+				edgeMin = min;
+				binWidth = max > min ? (max - min) / nBins * (1 + 1e-6) : Math.max(Math.abs(min), 1.0) * 1e-6;
+			}
+		}
+		while (min < edgeMin) {
+			// Expand downwards, so that the existing bins occupy the upper half
+			int offset = nBins / 2;
+			long[] temp = counts.clone();
+			Arrays.fill(counts, 0L);
+			for (int i = 0; i < nBins; i++)
+				counts[Math.min(nBins - 1, offset + i / 2)] += temp[i];
+			edgeMin -= offset * 2 * binWidth;
+			binWidth *= 2;
+		}
+		while (max >= edgeMin + nBins * binWidth) {
+			// Expand upwards, so that the existing bins occupy the lower half
+			for (int i = 0; i < nBins; i++) {
+				long count = counts[i];
+				counts[i] = 0L;
+				counts[i / 2] += count;
+			}
+			binWidth *= 2;
+		}
+	}
+
+	/**
+	 * Get the total number of values that have been added.
+	 * @return
+	 */
+	synchronized long nValues() {
+		return nValues;
+	}
+
+	/**
+	 * Get the minimum value that has been added.
+	 * @return the minimum value, or NaN if no values have been added
+	 */
+	synchronized double getMinValue() {
+		return nValues == 0 ? Double.NaN : minValue;
+	}
+
+	/**
+	 * Get the maximum value that has been added.
+	 * @return the maximum value, or NaN if no values have been added
+	 */
+	synchronized double getMaxValue() {
+		return nValues == 0 ? Double.NaN : maxValue;
+	}
+
+	/**
+	 * Check whether all the values added so far were integers.
+	 * @return
+	 */
+	synchronized boolean isInteger() {
+		return isInteger;
+	}
+
+	/**
+	 * Create a {@link Histogram} from the current counts.
+	 * Bins before the first value and after the last value are excluded.
+	 * @return the histogram, or null if no values have been added
+	 */
+	synchronized Histogram toHistogram() {
+		if (nValues == 0)
+			return null;
+		int first = getBinIndex(minValue);
+		int last = getBinIndex(maxValue);
+		int n = last - first + 1;
+		double[] edges = new double[n + 1];
+		for (int i = 0; i <= n; i++)
+			edges[i] = edgeMin + (first + i) * binWidth;
+		return new Histogram(edges, Arrays.copyOfRange(counts, first, last + 1));
+	}
+
+	/**
+	 * Create a JSON representation of the histogram, so that it can be stored.
+	 * @return
+	 * @see #fromJson(JsonObject)
+	 */
+	synchronized JsonObject toJson() {
+		var obj = new JsonObject();
+		obj.addProperty("nBins", nBins);
+		obj.addProperty("isInteger", isInteger);
+		if (nValues > 0) {
+			obj.addProperty("edgeMin", edgeMin);
+			obj.addProperty("binWidth", binWidth);
+			obj.addProperty("minValue", minValue);
+			obj.addProperty("maxValue", maxValue);
+			// Only store the occupied bins
+			int first = getBinIndex(minValue);
+			int last = getBinIndex(maxValue);
+			obj.addProperty("firstBin", first);
+			var array = new JsonArray();
+			for (int i = first; i <= last; i++)
+				array.add(counts[i]);
+			obj.add("counts", array);
+		}
+		return obj;
+	}
+
+	/**
+	 * Create a histogram from a JSON representation.
+	 * @param obj the JSON object, as created by {@link #toJson()}
+	 * @return the histogram
+	 * @throws IllegalArgumentException if the JSON does not represent a valid histogram
+	 */
+	static StreamingHistogram fromJson(JsonObject obj) throws IllegalArgumentException {
+		try {
+			var histogram = new StreamingHistogram(obj.get("nBins").getAsInt(), obj.get("isInteger").getAsBoolean());
+			if (!obj.has("counts"))
+				return histogram;
+			histogram.edgeMin = obj.get("edgeMin").getAsDouble();
+			histogram.binWidth = obj.get("binWidth").getAsDouble();
+			histogram.minValue = obj.get("minValue").getAsDouble();
+			histogram.maxValue = obj.get("maxValue").getAsDouble();
+			int first = obj.get("firstBin").getAsInt();
+			var array = obj.getAsJsonArray("counts");
+			if (first < 0 || first + array.size() > histogram.nBins || !(histogram.binWidth > 0))
+				throw new IllegalArgumentException("Invalid histogram bins");
+			for (int i = 0; i < array.size(); i++) {
+				long count = array.get(i).getAsLong();
+				histogram.counts[first + i] = count;
+				histogram.nValues += count;
+			}
+			return histogram;
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("Unable to parse histogram: " + e.getMessage(), e);
+		}
+	}
+
+}
@@ -26,6 +26,7 @@ package qupath.lib.gui;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
 import ij.IJ;
+import javafx.animation.PauseTransition;
 import javafx.application.Application;
 import javafx.application.HostServices;
 import javafx.application.Platform;
@@ -72,6 +73,7 @@ import javafx.stage.Screen;
 import javafx.stage.Stage;
 import javafx.stage.Window;
 import javafx.stage.WindowEvent;
+import javafx.util.Duration;
 import org.controlsfx.control.action.Action;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -124,9 +126,11 @@ import qupath.lib.images.servers.ImageServer;
 import qupath.lib.images.servers.ImageServerBuilder.ServerBuilder;
 import qupath.lib.images.servers.ImageServerBuilder.UriImageSupport;
 import qupath.lib.images.servers.ImageServerProvider;
+import qupath.lib.images.servers.PersistentTileCache;
 import qupath.lib.images.servers.ImageServers;
 import qupath.lib.images.servers.ServerTools;
 import qupath.lib.io.PathIO;
+import qupath.lib.measurements.MeasurementListFactory;
 import qupath.lib.objects.classes.PathClass;
 import qupath.lib.plugins.PathInteractivePlugin;
 import qupath.lib.plugins.PathPlugin;
@@ -300,6 +304,18 @@ public class QuPathGUI {
 		timeit.checkpoint("Creating tile cache");
 		initializeImageTileCache();
 		
+		// Set the format used to save data files
+		PathPrefs.useChunkedDataFilesProperty().addListener((v, o, n) -> PathIO.setUseChunkedDataFiles(n));
+		PathIO.setUseChunkedDataFiles(PathPrefs.useChunkedDataFilesProperty().get());
+		
+		// Set up on-demand loading of detections
+		PathPrefs.lazyDetectionThresholdProperty().addListener((v, o, n) -> updateLazyDetectionThreshold());
+		updateLazyDetectionThreshold();
+		
+		// Optionally share measurement tables between detections read from data files
+		PathPrefs.useColumnarMeasurementsProperty().addListener((v, o, n) -> MeasurementListFactory.setUseColumnarStorage(n));
+		MeasurementListFactory.setUseColumnarStorage(PathPrefs.useColumnarMeasurementsProperty().get());
+		
 		// Handle changes to the current projects, or properties that affect the current project
 		initializeProjectBehavior();
 				
@@ -853,11 +869,52 @@ public class QuPathGUI {
 			imageRegionStore.getCache().clear();
 		});
 		ImageServerProvider.setCache(imageRegionStore.getCache(), BufferedImage.class);
+		// Wait until the preferences have settled (e.g. while a spinner is being adjusted) before reopening the cache
+		var persistentTileCacheDelay = new PauseTransition(Duration.seconds(1));
+		persistentTileCacheDelay.setOnFinished(e -> updatePersistentTileCache());
+		PathPrefs.persistentTileCacheGBProperty().addListener((v, o, n) -> persistentTileCacheDelay.playFromStart());
+		PathPrefs.persistentTileCachePathProperty().addListener((v, o, n) -> persistentTileCacheDelay.playFromStart());
+		updatePersistentTileCache();
 		// Turn off the use of ImageIODiskCache (it causes some trouble)
 		ImageIO.setUseCache(false);
 	}
 	
 	
+	private static void updateLazyDetectionThreshold() {
+		int threshold = PathPrefs.lazyDetectionThresholdProperty().get();
+		PathIO.setLazyDetectionThreshold(threshold > 0 ? threshold : -1);
+	}
+	
+	
+	/**
+	 * Open the persistent tile cache according to the current preferences, closing any previous cache.
+	 */
+	private static void updatePersistentTileCache() {
+		var previous = ImageServerProvider.getPersistentTileCache();
+		int sizeGB = PathPrefs.persistentTileCacheGBProperty().get();
+		long maxSizeBytes = sizeGB * 1024L * 1024L * 1024L;
+		var directory = PathPrefs.getPersistentTileCacheDirectory();
+		// Don't reopen the cache if nothing has changed
+		if (previous != null && sizeGB > 0 && previous.getMaxSizeBytes() == maxSizeBytes
+				&& previous.getDirectory().toAbsolutePath().equals(directory.toAbsolutePath()))
+			return;
+		ImageServerProvider.setPersistentTileCache(null);
+		if (previous != null)
+			previous.close();
+		if (sizeGB <= 0)
+			return;
+		try {
+			var cache = PersistentTileCache.open(directory, maxSizeBytes);
+			ImageServerProvider.setPersistentTileCache(cache);
+			logger.info("Using persistent tile cache: {}", cache);
+		} catch (Exception e) {
+			// This is expected if another QuPath instance is already using the same directory
+			logger.warn("Persistent tile cache disabled - unable to open {}: {}", directory, e.getMessage());
+			logger.debug(e.getMessage(), e);
+		}
+	}
+	
+	
 	private void initializeLocaleChangeListeners() {
 		// If the Locale changes, we want to try to refresh all list & tables to update number formatting
 		ChangeListener<Locale> localeListener = (v, o, n) -> FXUtils.refreshAllListsAndTables();
@@ -1087,6 +1144,13 @@ public class QuPathGUI {
 		if (imageRegionStore != null)
 			imageRegionStore.close();
 
+		// Write any pending tiles to the persistent cache
+		var persistentTileCache = ImageServerProvider.getPersistentTileCache();
+		if (persistentTileCache != null) {
+			ImageServerProvider.setPersistentTileCache(null);
+			persistentTileCache.close();
+		}
+
 		// Save the PathClasses
 		pathClassManager.savePathClassesToPreferences();
 
@@ -23,7 +23,9 @@ package qupath.lib.gui.commands;
 
 import javafx.beans.binding.Bindings;
 import javafx.beans.property.LongProperty;
+import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleLongProperty;
+import javafx.beans.property.SimpleObjectProperty;
 import javafx.concurrent.ScheduledService;
 import javafx.concurrent.Task;
 import javafx.geometry.Insets;
@@ -46,6 +48,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qupath.fx.utils.FXUtils;
 import qupath.lib.gui.QuPathGUI;
+import qupath.lib.gui.images.stores.TileCacheStatistics;
 import qupath.lib.gui.prefs.PathPrefs;
 
 /**
@@ -91,6 +94,7 @@ class MemoryMonitorDialog {
 
 	// Observable properties to store cache values
 	private LongProperty cachedTiles = new SimpleLongProperty();
+	private ObjectProperty<TileCacheStatistics> tileCacheStatistics = new SimpleObjectProperty<>();
 	private LongProperty undoRedoSizeBytes = new SimpleLongProperty();
 
 	// Let's sometimes scale to MB, sometimes to GB
@@ -133,6 +137,24 @@ class MemoryMonitorDialog {
 		labelClearCache.textProperty().bind(Bindings.createStringBinding(() -> {
 			return String.format("Num cached tiles: %d", cachedTiles.get());
 		}, cachedTiles));
+		// Show hit rates for each tier of the tile cache, to help with choosing the cache sizes
+		Label labelCacheStatistics = new Label();
+		labelCacheStatistics.textProperty().bind(Bindings.createStringBinding(() -> {
+			var stats = tileCacheStatistics.get();
+			if (stats == null)
+				return "";
+			if (stats.offHeapMaxBytes() <= 0)
+				return String.format("Tile cache hits: %.1f%%", stats.heapHitRate() * 100);
+			return String.format("Tile cache hits: %.1f%% heap, %.1f%% off-heap%nOff-heap tile cache: %.1f / %.1f MB",
+					stats.heapHitRate() * 100, stats.offHeapHitRate() * 100,
+					stats.offHeapBytes() * scaleMB, stats.offHeapMaxBytes() * scaleMB);
+		}, tileCacheStatistics));
+		var tooltipCacheStatistics = new Tooltip();
+		tooltipCacheStatistics.textProperty().bind(Bindings.createStringBinding(() -> {
+			var stats = tileCacheStatistics.get();
+			return stats == null ? "" : stats.toString();
+		}, tileCacheStatistics));
+		labelCacheStatistics.setTooltip(tooltipCacheStatistics);
 		var btnClearCache = new Button("Clear tile cache");
 		btnClearCache.setTooltip(new Tooltip("Clear the cache used to store image tiles for better viewer performance"));
 		btnClearCache.setOnAction(e -> {
@@ -225,6 +247,7 @@ class MemoryMonitorDialog {
 		paneRight.add(labThreads, col, row, 1, 1);
 		paneRight.add(tfThreads, col+1, row++, 1, 1);
 		paneRight.add(labelClearCache, col, row++, 2, 1);
+		paneRight.add(labelCacheStatistics, col, row++, 2, 1);
 		paneRight.add(btnClearCache, col, row++, 2, 1);
 
 		paneRight.add(labelUndoRedo, col, row++, 2, 1);
@@ -259,6 +282,7 @@ class MemoryMonitorDialog {
 			usedMemory.set(n.usedMemory);
 			undoRedoSizeBytes.set(n.undoRedoSizeBytes);
 			cachedTiles.set(n.cachedTiles);
+			tileCacheStatistics.set(n.tileCacheStatistics);
 			
 			long time = (timeMillis.get() - startTimeMillis) / 1000;
 			seriesUsed.getData().add(new XYChart.Data<>(time, usedMemory.get() * scaleGB));
@@ -320,6 +344,7 @@ class MemoryMonitorDialog {
 		private long usedMemory;
 		private long undoRedoSizeBytes;
 		private long cachedTiles;
+		private TileCacheStatistics tileCacheStatistics;
 		
 		MemorySnapshot(QuPathGUI qupath, Runtime runtime) {
 			this.timeMillis = System.currentTimeMillis();
@@ -328,6 +353,7 @@ class MemoryMonitorDialog {
 			this.usedMemory = totalMemory - runtime.freeMemory();
 			this.undoRedoSizeBytes = qupath.getUndoRedoManager().totalBytes();
 			this.cachedTiles = qupath.getViewer().getImageRegionStore().getCache().size();
+			this.tileCacheStatistics = qupath.getViewer().getImageRegionStore().getCacheStatistics();
 		}
 		
 	}
@@ -0,0 +1,291 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.gui.images.servers;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.ImageRegion;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Pre-aggregated counts of detections within square bins covering an image plane.
+ * <p>
+ * This is used to paint detections as a density map at low magnifications, so that the time required to paint
+ * a region depends upon the number of bins it contains rather than the number of detections.
+ * Each bin stores the number of detections with centroids inside it, and the sum of their colors, so that it
+ * can be painted with the average color of its detections (which usually reflects their classifications).
+ * <p>
+ * Bins are counted on demand with {@link #update(ImageRegion, Function, ToIntFunction)}, and can be invalidated
+ * individually when detections change, so that only the affected bins need to be counted again.
+ * This class is not thread-safe.
+ */
+final class DetectionDensityGrid {
+
+	/**
+	 * Value that a color function should return for detections that are not displayed.
+	 * This is fully transparent, so cannot be the color of a displayed object.
+	 */
+	static final int NO_COLOR = 0;
+
+	private final ImagePlane plane;
+	private final int binSize;
+	private final int nBinsX;
+	private final int nBinsY;
+
+	private final int[] counts;
+	private final int[] red;
+	private final int[] green;
+	private final int[] blue;
+	private final BitSet valid;
+	private int maxCount;
+
+	/**
+	 * Create an empty grid, for which all bins need to be counted.
+	 * @param plane the image plane
+	 * @param width width of the image
+	 * @param height height of the image
+	 * @param binSize width and height of each bin, in pixels
+	 */
+	DetectionDensityGrid(ImagePlane plane, int width, int height, int binSize) {
+		if (binSize <= 0)
+			throw new IllegalArgumentException("Bin size must be > 0, but was " + binSize);
+		this.plane = plane;
+		this.binSize = binSize;
+		this.nBinsX = Math.max(1, (int)Math.ceil(width / (double)binSize));
+		this.nBinsY = Math.max(1, (int)Math.ceil(height / (double)binSize));
+		int n = Math.multiplyExact(nBinsX, nBinsY);
+		this.counts = new int[n];
+		this.red = new int[n];
+		this.green = new int[n];
+		this.blue = new int[n];
+		this.valid = new BitSet(n);
+	}
+
+	/**
+	 * Build a grid from detections.
+	 * @param detections the detections to include; these should all be on the same image plane
+	 * @param width width of the image
+	 * @param height height of the image
+	 * @param binSize width and height of each bin, in pixels
+	 * @param colorFunction function to get the packed ARGB color of each detection, or {@link #NO_COLOR} if it should not be counted
+	 * @return the grid
+	 */
+	static DetectionDensityGrid build(Collection<? extends PathObject> detections, int width, int height, int binSize, ToIntFunction<PathObject> colorFunction) {
+		var grid = new DetectionDensityGrid(ImagePlane.getDefaultPlane(), width, height, binSize);
+		grid.update(null, r -> detections, colorFunction);
+		return grid;
+	}
+
+	/**
+	 * Count the detections in any invalid bins that overlap a region.
+	 * Detections are only requested if at least one bin needs to be counted, and then only for the bounding box of
+	 * the bins that need to be counted.
+	 * @param region the region, or null if all bins should be counted
+	 * @param detectionFunction function to get the detections that overlap a region
+	 * @param colorFunction function to get the packed ARGB color of each detection, or {@link #NO_COLOR} if it should not be counted
+	 */
+	void update(ImageRegion region, Function<? super ImageRegion, ? extends Collection<? extends PathObject>> detectionFunction, ToIntFunction<PathObject> colorFunction) {
+		int bx0 = 0, by0 = 0, bx1 = nBinsX, by1 = nBinsY;
+		if (region != null) {
+			bx0 = Math.max(0, region.getMinX() / binSize);
+			by0 = Math.max(0, region.getMinY() / binSize);
+			bx1 = Math.min(nBinsX, (int)Math.ceil(region.getMaxX() / (double)binSize));
+			by1 = Math.min(nBinsY, (int)Math.ceil(region.getMaxY() / (double)binSize));
+		}
+		// Find the invalid bins, and their bounding box
+		var pending = new BitSet(counts.length);
+		int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = -1, maxY = -1;
+		for (int by = by0; by < by1; by++) {
+			int offset = by * nBinsX;
+			for (int bx = valid.nextClearBit(offset + bx0) - offset; bx < bx1; bx = valid.nextClearBit(offset + bx + 1) - offset) {
+				int ind = offset + bx;
+				pending.set(ind);
+				counts[ind] = 0;
+				red[ind] = 0;
+				green[ind] = 0;
+				blue[ind] = 0;
+				minX = Math.min(minX, bx);
+				maxX = Math.max(maxX, bx);
+				minY = Math.min(minY, by);
+				maxY = by;
+			}
+		}
+		if (pending.isEmpty())
+			return;
+		var request = ImageRegion.createInstance(minX * binSize, minY * binSize,
+				(maxX - minX + 1) * binSize, (maxY - minY + 1) * binSize, plane.getZ(), plane.getT());
+		for (var pathObject : detectionFunction.apply(request)) {
+			var roi = pathObject.getROI();
+			if (roi == null)
+				continue;
+			int bx = (int)Math.floor(roi.getCentroidX() / binSize);
+			int by = (int)Math.floor(roi.getCentroidY() / binSize);
+			if (bx < 0 || by < 0 || bx >= nBinsX || by >= nBinsY)
+				continue;
+			int ind = by * nBinsX + bx;
+			if (!pending.get(ind))
+				continue;
+			int rgb = colorFunction.applyAsInt(pathObject);
+			if (rgb == NO_COLOR)
+				continue;
+			counts[ind]++;
+			red[ind] += (rgb >> 16) & 0xFF;
+			green[ind] += (rgb >> 8) & 0xFF;
+			blue[ind] += rgb & 0xFF;
+		}
+		valid.or(pending);
+		maxCount = Arrays.stream(counts).max().orElse(0);
+	}
+
+	/**
+	 * Mark the bins overlapping a region as invalid, so that they are counted again when next needed.
+	 * @param region the region, or null if all bins should be invalidated
+	 */
+	void invalidate(ImageRegion region) {
+		if (region == null) {
+			valid.clear();
+			return;
+		}
+		if (!plane.equals(region.getImagePlane()))
+			return;
+		int bx0 = Math.max(0, region.getMinX() / binSize);
+		int by0 = Math.max(0, region.getMinY() / binSize);
+		int bx1 = Math.min(nBinsX, region.getMaxX() / binSize + 1);
+		int by1 = Math.min(nBinsY, region.getMaxY() / binSize + 1);
+		for (int by = by0; by < by1; by++) {
+			if (bx1 > bx0)
+				valid.clear(by * nBinsX + bx0, by * nBinsX + bx1);
+		}
+	}
+
+	/**
+	 * Get the image plane of the grid.
+	 * @return
+	 */
+	ImagePlane getImagePlane() {
+		return plane;
+	}
+
+	/**
+	 * Get the width and height of each bin, in pixels.
+	 * @return
+	 */
+	int getBinSize() {
+		return binSize;
+	}
+
+	/**
+	 * Get the number of detections counted in the bin containing a specified pixel.
+	 * @param x
+	 * @param y
+	 * @return the count, or 0 if the pixel is outside the grid or the bin is invalid
+	 */
+	int getCount(double x, double y) {
+		int bx = (int)Math.floor(x / binSize);
+		int by = (int)Math.floor(y / binSize);
+		if (bx < 0 || by < 0 || bx >= nBinsX || by >= nBinsY)
+			return 0;
+		int ind = by * nBinsX + bx;
+		return valid.get(ind) ? counts[ind] : 0;
+	}
+
+	/**
+	 * Get the maximum number of detections in any bin.
+	 * @return
+	 */
+	int getMaxCount() {
+		return maxCount;
+	}
+
+	/**
+	 * Get the packed ARGB value used to paint the bin containing a specified pixel.
+	 * The color is the average color of the detections in the bin, while the alpha value increases with the
+	 * number of detections (relative to the maximum in any bin).
+	 * @param x
+	 * @param y
+	 * @return the ARGB value, or 0 if the bin is empty or invalid
+	 */
+	int getARGB(double x, double y) {
+		int bx = (int)Math.floor(x / binSize);
+		int by = (int)Math.floor(y / binSize);
+		if (bx < 0 || by < 0 || bx >= nBinsX || by >= nBinsY)
+			return 0;
+		return getARGB(by * nBinsX + bx);
+	}
+
+	private int getARGB(int ind) {
+		int count = counts[ind];
+		if (count == 0 || !valid.get(ind))
+			return 0;
+		// Use a square root so that sparse regions remain visible
+		int alpha = (int)Math.round(64 + 191 * Math.sqrt(count / (double)maxCount));
+		int r = red[ind] / count;
+		int g = green[ind] / count;
+		int b = blue[ind] / count;
+		return (alpha << 24) | (r << 16) | (g << 8) | b;
+	}
+
+	/**
+	 * Paint the bins that overlap a region.
+	 * Only valid bins are painted, so {@link #update(ImageRegion, Function, ToIntFunction)} should generally be called first.
+	 * The graphics object should already be transformed so that it uses the coordinate space of the full-resolution image.
+	 * @param g2d
+	 * @param region
+	 */
+	void paint(Graphics2D g2d, ImageRegion region) {
+		int bx0 = Math.max(0, region.getMinX() / binSize);
+		int by0 = Math.max(0, region.getMinY() / binSize);
+		int bx1 = Math.min(nBinsX, (int)Math.ceil(region.getMaxX() / (double)binSize));
+		int by1 = Math.min(nBinsY, (int)Math.ceil(region.getMaxY() / (double)binSize));
+		if (bx1 <= bx0 || by1 <= by0 || maxCount == 0)
+			return;
+		int w = bx1 - bx0;
+		int h = by1 - by0;
+		int[] rgb = new int[w * h];
+		boolean hasPixels = false;
+		for (int y = 0; y < h; y++) {
+			int offset = (by0 + y) * nBinsX + bx0;
+			for (int x = 0; x < w; x++) {
+				int argb = getARGB(offset + x);
+				rgb[y * w + x] = argb;
+				hasPixels = hasPixels || argb != 0;
+			}
+		}
+		if (!hasPixels)
+			return;
+		var img = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+		img.setRGB(0, 0, w, h, rgb, 0, w);
+		var g = (Graphics2D)g2d.create();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+		g.drawImage(img, bx0 * binSize, by0 * binSize, w * binSize, h * binSize, null);
+		g.dispose();
+	}
+
+}
@@ -27,6 +27,7 @@ import qupath.lib.analysis.DelaunayTools;
 import qupath.lib.awt.common.AwtTools;
 import qupath.lib.color.ColorToolsAwt;
 import qupath.lib.gui.viewer.OverlayOptions;
+import qupath.lib.gui.prefs.PathPrefs;
 import qupath.lib.gui.viewer.PathObjectPainter;
 import qupath.lib.images.ImageData;
 import qupath.lib.images.servers.AbstractTileableImageServer;
@@ -43,6 +44,8 @@ import qupath.lib.objects.PathDetectionObject;
 import qupath.lib.objects.PathObject;
 import qupath.lib.objects.PathObjectConnections;
 import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.ImageRegion;
 import qupath.lib.regions.RegionRequest;
 
 import java.awt.Graphics2D;
@@ -53,7 +56,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -83,6 +88,14 @@ public class PathHierarchyImageServer extends AbstractTileableImageServer implem
 	private ImageServer<BufferedImage> server;
 	private OverlayOptions options;
 	private PathObjectHierarchy hierarchy;
+
+	/**
+	 * Width and height of each bin in a density map, in pixels at the resolution of the tile being painted.
+	 */
+	private static final int DENSITY_BIN_PIXELS = 4;
+
+	private final Map<DensityGridKey, DetectionDensityGrid> densityGrids = new HashMap<>();
+	private long densityOptionsTimestamp = Long.MIN_VALUE;
 	
 	/**
 	 * Constructor.
@@ -149,6 +162,69 @@ public class PathHierarchyImageServer extends AbstractTileableImageServer implem
 		return UUID.randomUUID().toString();
 	}
 
+	private static boolean useLevelOfDetail(double minDownsample, double downsample) {
+		return minDownsample > 0 && downsample >= minDownsample;
+	}
+
+	/**
+	 * Get a grid containing the density of detections on a plane, suitable for painting the specified region at the
+	 * specified downsample.
+	 * <p>
+	 * Grids are reused for as long as the overlay options are unchanged, and only bins that have been invalidated
+	 * with {@link #invalidateDensityGrids(Collection)} are counted again.
+	 * If some detections are loaded lazily, only the bins overlapping the region are counted, so that detections
+	 * elsewhere don't need to be loaded.
+	 */
+	private synchronized DetectionDensityGrid getDensityGrid(ImagePlane plane, double downsample, ImageRegion region) {
+		long timestamp = options.lastChangeTimestamp().get();
+		if (timestamp != densityOptionsTimestamp) {
+			densityGrids.clear();
+			densityOptionsTimestamp = timestamp;
+		}
+		int binSize = (int)Math.max(1, Math.round(downsample * DENSITY_BIN_PIXELS));
+		var grid = densityGrids.computeIfAbsent(new DensityGridKey(plane, binSize),
+				k -> new DetectionDensityGrid(plane, getWidth(), getHeight(), binSize));
+		// Count the whole plane if we can, so that densities are scaled consistently across tiles
+		var updateRegion = hierarchy.getUnloadedDetectionChunks().isEmpty() ? null : region;
+		grid.update(updateRegion, r -> hierarchy.getAllDetectionsForRegion(r, null), this::getDensityColor);
+		return grid;
+	}
+
+	private int getDensityColor(PathObject pathObject) {
+		var color = PathObjectPainter.getDisplayedDetectionColor(pathObject, options);
+		if (color == null || color.getAlpha() == 0)
+			return DetectionDensityGrid.NO_COLOR;
+		return color.getRGB();
+	}
+
+	/**
+	 * Discard any cached density maps used to paint detections at low magnification.
+	 * This should be called if the way in which detections are displayed changes in a way that isn't reflected in
+	 * the overlay options (e.g. because classification colors are changed).
+	 */
+	public synchronized void clearCachedDensityGrids() {
+		densityGrids.clear();
+	}
+
+	/**
+	 * Invalidate the parts of any cached density maps that overlap the specified regions, so that they are counted
+	 * again when next painted.
+	 * This should be called whenever detections change, before any tiles are refreshed.
+	 * @param regions the regions containing changed detections, or null if all detections may have changed
+	 */
+	public synchronized void invalidateDensityGrids(Collection<? extends ImageRegion> regions) {
+		for (var grid : densityGrids.values()) {
+			if (regions == null)
+				grid.invalidate(null);
+			else {
+				for (var region : regions)
+					grid.invalidate(region);
+			}
+		}
+	}
+
+	private record DensityGridKey(ImagePlane plane, int binSize) {}
+
 	private Collection<PathObject> getObjectsToPaint(RegionRequest request) {
 //		Rectangle region = request.getBounds();
 		return hierarchy.getAllDetectionsForRegion(request, null);
@@ -220,8 +296,11 @@ public class PathHierarchyImageServer extends AbstractTileableImageServer implem
 				subdivision = hierarchy.getDetectionSubdivision(tileRequest.getImagePlane());
 		}
 
-		List<PathObject> pathObjects = new ArrayList<>(getObjectsToPaint(request));
-		if (pathObjects.isEmpty()) {
+		// At low magnification, we can paint a density map without needing to request the objects at all
+		double downsampleFactor = request.getDownsample();
+		boolean paintDensity = useLevelOfDetail(PathPrefs.detectionDensityDownsampleProperty().get(), downsampleFactor);
+		List<PathObject> pathObjects = paintDensity ? Collections.emptyList() : new ArrayList<>(getObjectsToPaint(request));
+		if (pathObjects.isEmpty() && !paintDensity) {
 			// We can only return null if no connections - otherwise we might still need to draw something
 			if (!options.getShowConnections()) {
 				return null;
@@ -243,7 +322,6 @@ public class PathHierarchyImageServer extends AbstractTileableImageServer implem
 //		Collections.sort(pathObjects, new HierarchyOverlay.DetectionComparator());
 		
 		
-		double downsampleFactor = request.getDownsample();
 		int width = tileRequest.getTileWidth();
 		int height = tileRequest.getTileHeight();
 		BufferedImage img = createDefaultRGBImage(width, height);
@@ -256,9 +334,15 @@ public class PathHierarchyImageServer extends AbstractTileableImageServer implem
 		g2d.scale(scale, scale);
 		g2d.translate(-request.getX(), -request.getY());
 		// Note we don't want to pass a selection model, as selections shouldn't be included
-		if (pathObjects != null && !pathObjects.isEmpty()) {
+		if (paintDensity) {
+			g2d.setClip(AwtTools.getBounds(request));
+			getDensityGrid(tileRequest.getImagePlane(), downsampleFactor, request).paint(g2d, request);
+		} else if (pathObjects != null && !pathObjects.isEmpty()) {
 			g2d.setClip(AwtTools.getBounds(request));
-			PathObjectPainter.paintSpecifiedObjects(g2d, pathObjects, options, null, downsampleFactor);
+			if (useLevelOfDetail(PathPrefs.detectionCentroidDownsampleProperty().get(), downsampleFactor))
+				PathObjectPainter.paintDetectionCentroids(g2d, pathObjects, options, downsampleFactor);
+			else
+				PathObjectPainter.paintSpecifiedObjects(g2d, pathObjects, options, null, downsampleFactor);
 		}
 		
 		// See if we have any connections to draw
@@ -32,12 +32,14 @@ import org.slf4j.LoggerFactory;
 import qupath.lib.common.ThreadTools;
 import qupath.lib.images.servers.GeneratingImageServer;
 import qupath.lib.images.servers.ImageServer;
+import qupath.lib.regions.ImageRegion;
 import qupath.lib.regions.RegionRequest;
 
 import java.awt.Shape;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -47,10 +49,13 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
 
 /**
@@ -72,12 +77,22 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 	private final Map<RegionRequest, TileWorker<T>> waitingMap = new ConcurrentHashMap<>();
 
 	private boolean clearingCache = false; // Flag that cache is currently being cleared
+
+	// Tiles that are stale and being regenerated in the background, which can be painted until their replacements are available
+	private final Map<RegionRequest, T> staleTiles = new ConcurrentHashMap<>();
+
+	// Version of each tile that has been refreshed, which is used to discard results from requests made before the latest refresh
+	private final Map<RegionRequest, Long> tileVersions = new ConcurrentHashMap<>();
+	private final AtomicLong versionCounter = new AtomicLong();
 	
 	protected List<TileListener<T>> tileListeners = Collections.synchronizedList(new ArrayList<>());
 
 	// Cache of image tiles for specified regions
 	protected Map<RegionRequest, T> cache;
 
+	// Same as the cache above, but typed to give access to the second tier
+	private TieredTileCache<T> tieredCache;
+
 	/**
 	 * Maximum size of thumbnail, in any dimension.
 	 */
@@ -104,6 +119,18 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 	
 
 	protected AbstractImageRegionStore(final SizeEstimator<T> sizeEstimator, final int thumbnailSize, final long tileCacheSizeBytes) {
+		this(sizeEstimator, thumbnailSize, tileCacheSizeBytes, null);
+	}
+
+	/**
+	 * Create a store with a second cache tier, which receives tiles that are evicted from the main cache
+	 * because it is full.
+	 * @param sizeEstimator
+	 * @param thumbnailSize
+	 * @param tileCacheSizeBytes
+	 * @param spillTier the second cache tier; may be null
+	 */
+	AbstractImageRegionStore(final SizeEstimator<T> sizeEstimator, final int thumbnailSize, final long tileCacheSizeBytes, final TieredTileCache.SpillTier<T> spillTier) {
 		this.maxThumbnailSize = thumbnailSize;
 		this.tileCacheSizeBytes = tileCacheSizeBytes;
 		
@@ -124,8 +151,12 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
                         logger.debug("Cached tile collected: {} (cache size={})", n.getKey(), cache.size());
 					} else {
 						logger.trace("Cached tile removed due to {}: {} (cache size={})", n.getCause(), n.getKey(), cache.size());
+						// Tiles evicted because the cache is full can move to the second tier (if we have one)
+						if (n.getCause() == RemovalCause.SIZE)
+							tieredCache.spill(n.getKey(), n.getValue());
 					}}).build();
-		cache = originalCache.asMap();
+		tieredCache = new TieredTileCache<>(originalCache.asMap(), spillTier);
+		cache = tieredCache;
 	}
 
 	
@@ -209,6 +240,15 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 	public Map<RegionRequest, T> getCache() {
 		return cache;
 	}
+
+	/**
+	 * Get a snapshot of the tile cache statistics, including hit rates for each tier.
+	 * These can be used to help decide how much memory should be used by the on-heap and off-heap tile caches.
+	 * @return
+	 */
+	public TileCacheStatistics getCacheStatistics() {
+		return tieredCache.getStatistics();
+	}
 	
 	
 	/* (non-Javadoc)
@@ -258,15 +298,20 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 	protected void workerComplete(final TileWorker<T> worker) {
 		workers.remove(worker);
 		manager.taskCompleted(worker);
-   		if (worker.isCancelled() || !stopWaiting(worker.getRequest())) {
+		// Discard tiles that were requested before the latest refresh, since they may be stale
+   		if (worker.isCancelled() || worker.getVersion() != getTileVersion(worker.getRequest()) || !stopWaiting(worker.getRequest())) {
    			return;
    		}
+		RegionRequest request = worker.getRequest();
+		boolean wasStale = staleTiles.remove(request) != null;
+		tileVersions.remove(request, worker.getVersion());
 		try {
 			T imgNew = worker.get();
-	   		if (imgNew == null)
+			// If we were painting a stale tile, listeners need to know that it has gone
+	   		if (imgNew == null && !wasStale)
 	   			return;
-	   		RegionRequest request = worker.getRequest();
-	   		worker.getRequestedCache().put(request, imgNew);
+	   		if (imgNew != null)
+	   			worker.getRequestedCache().put(request, imgNew);
 	   		// Notify listeners that we have a new tile, if desired
 	    	List<TileListener<T>> myTileListeners = new ArrayList<>(tileListeners);
 	   		for (TileListener<T> listener : myTileListeners)
@@ -325,6 +370,10 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 		// If the cache contains the key, but simply returns null because nothing should be painted, also return null here
 		if (cache.containsKey(request))
 			return null;
+		// If the tile is being regenerated, return the stale version until the replacement is available
+		T imgStale = staleTiles.get(request);
+		if (imgStale != null && waitingMap.containsKey(request))
+			return imgStale;
 		// If the region request can be known to return null quickly, avoid making a full request
 		// (at the time of writing, this only makes a difference with PathHierarchyImageServers)
 		if (server.isEmptyRegion(request)) {
@@ -423,6 +472,8 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 				workers.clear();
 			}
 			cache.clear();
+			staleTiles.clear();
+			tileVersions.clear();
 		} finally {
 			clearingCache = false;
 		}
@@ -482,11 +533,129 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 	
 	private synchronized void clearCacheForServer(Map<RegionRequest, T> map, ImageServer<?> server) {
 		String serverPath = server.getPath();
-        map.entrySet().removeIf(entry -> serverPath.equals(entry.getKey().getPath()));
+		removeIf(map, key -> serverPath.equals(key.getPath()));
+		staleTiles.keySet().removeIf(key -> serverPath.equals(key.getPath()));
+		tileVersions.keySet().removeIf(key -> serverPath.equals(key.getPath()));
 	}
 	
 	private synchronized void clearCacheForRequestOverlap(Map<RegionRequest, T> map, RegionRequest request) {
-        map.entrySet().removeIf(regionRequestTEntry -> request.overlapsRequest(regionRequestTEntry.getKey()));
+		removeIf(map, request::overlapsRequest);
+		staleTiles.keySet().removeIf(request::overlapsRequest);
+		tileVersions.keySet().removeIf(request::overlapsRequest);
+	}
+
+	/**
+	 * Regenerate all cached tiles for a server, e.g. because the objects painted on an overlay have changed.
+	 * @param server the server that generates the tiles
+	 * @see #refreshCacheForRegions(ImageServer, Collection, double)
+	 */
+	public void refreshCacheForServer(final ImageServer<T> server) {
+		String serverPath = server.getPath();
+		refreshCache(server, request -> serverPath.equals(request.getPath()));
+	}
+
+	/**
+	 * Regenerate cached tiles for a server that overlap any of the specified regions, e.g. because the objects
+	 * painted on an overlay have changed.
+	 * <p>
+	 * Unlike {@link #clearCacheForRequestOverlap(RegionRequest)}, stale tiles can still be painted until their replacements
+	 * are available.
+	 * Replacements are requested immediately and generated in parallel in the background, and tile listeners are notified
+	 * as each one arrives.
+	 * Each refresh increments the version of the affected tiles, so that any tile requested before the latest refresh is discarded.
+	 * <p>
+	 * Tiles that have been moved to the second cache tier are removed instead, since they are not being displayed.
+	 * @param server the server that generates the tiles
+	 * @param regions the regions that have changed
+	 * @param padding additional border around each region, in pixels at the resolution of each tile (e.g. to account for line thickness)
+	 */
+	public void refreshCacheForRegions(final ImageServer<T> server, final Collection<? extends ImageRegion> regions, final double padding) {
+		if (regions.isEmpty())
+			return;
+		String serverPath = server.getPath();
+		refreshCache(server, request -> serverPath.equals(request.getPath()) && overlapsAny(request, regions, padding));
+	}
+
+	private static boolean overlapsAny(RegionRequest request, Collection<? extends ImageRegion> regions, double padding) {
+		double pad = padding * request.getDownsample();
+		for (var region : regions) {
+			if (region.getZ() != request.getZ() || region.getT() != request.getT())
+				continue;
+			if (request.intersects(region.getX() - pad, region.getY() - pad, region.getWidth() + pad * 2, region.getHeight() + pad * 2))
+				return true;
+		}
+		return false;
+	}
+
+	private synchronized void refreshCache(final ImageServer<T> server, final Predicate<RegionRequest> predicate) {
+		// Pending requests may already have read stale data, so need to be made again
+		List<RegionRequest> staleRequests = new ArrayList<>();
+		Map<RegionRequest, TileWorker<T>> cancelledWorkers = new HashMap<>();
+		clearingCache = true;
+		try {
+			Iterator<Entry<RegionRequest, TileWorker<T>>> iter = waitingMap.entrySet().iterator();
+			while (iter.hasNext()) {
+				Entry<RegionRequest, TileWorker<T>> entry = iter.next();
+				if (predicate.test(entry.getKey())) {
+					iter.remove();
+					entry.getValue().cancel(true);
+					workers.remove(entry.getValue());
+					// Only regenerate tiles that we are already able to paint
+					if (staleTiles.containsKey(entry.getKey())) {
+						staleRequests.add(entry.getKey());
+						cancelledWorkers.put(entry.getKey(), entry.getValue());
+					}
+				}
+			}
+		} finally {
+			clearingCache = false;
+		}
+		tieredCache.removeSpilledIf(predicate);
+
+		// Move cached tiles aside, so that they can be painted until they are regenerated -
+		// they need to be removed from the cache, because servers may use it too
+		for (var entry : cache.entrySet()) {
+			if (predicate.test(entry.getKey()) && entry.getValue() != null) {
+				staleTiles.put(entry.getKey(), entry.getValue());
+				staleRequests.add(entry.getKey());
+			}
+		}
+		if (staleRequests.isEmpty())
+			return;
+		logger.trace("Refreshing {} tiles for {}", staleRequests.size(), server.getPath());
+		long version = versionCounter.incrementAndGet();
+		for (var request : staleRequests) {
+			cache.remove(request);
+			tileVersions.put(request, version);
+			// Request the replacement immediately, so that tiles are regenerated in parallel
+			TileWorker<T> worker;
+			if (cancelledWorkers.get(request) instanceof AbstractImageRegionStore<T>.DefaultTileWorker previous)
+				worker = new DefaultTileWorker(server, request, cache, false, previous);
+			else
+				worker = createTileWorker(server, request, cache, false);
+			workers.add(worker);
+			waitingMap.put(request, worker);
+			var executor = server instanceof GeneratingImageServer ? poolLocal : pool;
+			if (!executor.isShutdown())
+				executor.execute(worker);
+		}
+	}
+
+	/**
+	 * Get the version of a tile, which is incremented whenever the tile is refreshed.
+	 * @param request
+	 * @return
+	 */
+	long getTileVersion(final RegionRequest request) {
+		return tileVersions.getOrDefault(request, 0L);
+	}
+
+	private static <T> void removeIf(Map<RegionRequest, T> map, Predicate<RegionRequest> predicate) {
+		// Ensure we also remove tiles from the second tier
+		if (map instanceof TieredTileCache<T> tiered)
+			tiered.removeIf(predicate);
+		else
+			map.keySet().removeIf(predicate);
 	}
 	
 	
@@ -500,7 +669,8 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 			worker.cancel(true);
 		pool.shutdownNow();
 		poolLocal.shutdownNow();
-		cache.clear();
+		logger.debug("Closing tile cache: {}", tieredCache.getStatistics());
+		tieredCache.close();
 	}
 	
 	
@@ -704,12 +874,28 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 		
 		private final Map<RegionRequest, T> cache;
 		private final RegionRequest request;
+		private final long version;
+		
+		private final CountDownLatch finished = new CountDownLatch(1);
 		
 		DefaultTileWorker(final ImageServer<T> server, final RegionRequest request, final Map<RegionRequest, T> cache, final boolean ensureTileReturned) {
+			this(server, request, cache, ensureTileReturned, null);
+		}
+		
+		/**
+		 * Create a worker that replaces a previous (cancelled) worker for the same request.
+		 * The previous worker may still be running, and could add a stale tile to the cache (or the server could
+		 * return its result for a duplicate request) - so we need to wait for it to finish before reading the tile.
+		 */
+		DefaultTileWorker(final ImageServer<T> server, final RegionRequest request, final Map<RegionRequest, T> cache, final boolean ensureTileReturned, final DefaultTileWorker previous) {
 			super(new Callable<>() {
 
 				@Override
 				public T call() throws Exception {
+					if (previous != null) {
+						previous.finished.await();
+						cache.remove(request);
+					}
 					// Check if the cache now contains the region
 					// (e.g. it came from a different viewer... probably shouldn't occur now)
 					T imgTile = cache.get(request);
@@ -727,6 +913,7 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 			});
 			this.request = request;
 			this.cache = cache;
+			this.version = getTileVersion(request);
 		}
 		
 	    
@@ -734,6 +921,20 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 		public RegionRequest getRequest() {
 	    	return request;
 	    }
+
+	    @Override
+		public long getVersion() {
+	    	return version;
+	    }
+
+	    @Override
+		public void run() {
+	    	try {
+	    		super.run();
+	    	} finally {
+	    		finished.countDown();
+	    	}
+	    }
 	    
 	    @Override
 		public Map<RegionRequest, T> getRequestedCache() {
@@ -747,5 +948,6 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 	    }
 	    
 	}
+
 	
 }
\ No newline at end of file
@@ -4,7 +4,7 @@
  * %%
  * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
  * Contact: IP Management (ipmanagement@qub.ac.uk)
- * Copyright (C) 2018 - 2020 QuPath developers, The University of Edinburgh
+ * Copyright (C) 2018 - 2025 QuPath developers, The University of Edinburgh
  * %%
  * QuPath is free software: you can redistribute it and/or modify
  * it under the terms of the GNU General Public License as
@@ -26,6 +26,7 @@ package qupath.lib.gui.images.stores;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qupath.lib.awt.common.AwtTools;
+import qupath.lib.common.ThreadTools;
 import qupath.lib.images.servers.ImageServer;
 import qupath.lib.images.servers.ImageServerMetadata.ChannelType;
 import qupath.lib.images.servers.PixelType;
@@ -41,11 +42,20 @@ import java.awt.image.ImageObserver;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -62,12 +72,32 @@ public class DefaultImageRegionStore extends AbstractImageRegionStore<BufferedIm
 	
 	private static boolean DEBUG_TILES = false;
 
-	DefaultImageRegionStore(int thumbnailWidth, long tileCacheSize) {
-		super(new BufferedImageSizeEstimator(), thumbnailWidth, tileCacheSize);
+	/**
+	 * Maximum number of display tiles to remember for each renderer, which can be painted while new tiles are rendered.
+	 */
+	private static final int MAX_LATEST_DISPLAY_TILES = 4096;
+
+	// Display tiles are rendered in the background after the display changes, provided that we have an older tile to paint.
+	// Tasks are queued by priority, so that tiles requested by the most recent repaint are rendered first,
+	// starting from the centre of the view.
+	private final ExecutorService poolDisplay = createDisplayPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+	private final Map<RegionRequest, DisplayTileTask> pendingDisplayTiles = new ConcurrentHashMap<>();
+	private final AtomicLong paintCount = new AtomicLong();
+
+	// The cache key of the display tile most recently rendered for each raw tile, for each renderer
+	private final Map<ImageRenderer, Map<RegionRequest, RegionRequest>> latestDisplayTiles = new WeakHashMap<>();
+
+	DefaultImageRegionStore(int thumbnailWidth, long tileCacheSize, long offHeapTileCacheSize) {
+		super(new BufferedImageSizeEstimator(), thumbnailWidth, tileCacheSize,
+				offHeapTileCacheSize > 0 ? new OffHeapTileCache(offHeapTileCacheSize) : null);
+	}
+
+	DefaultImageRegionStore(long tileCacheSize, long offHeapTileCacheSize) {
+		this(DEFAULT_THUMBNAIL_WIDTH, tileCacheSize, offHeapTileCacheSize);
 	}
 
 	DefaultImageRegionStore(long tileCacheSize) {
-		this(DEFAULT_THUMBNAIL_WIDTH, tileCacheSize);
+		this(tileCacheSize, 0L);
 	}
 	
 
@@ -173,11 +203,13 @@ public class DefaultImageRegionStore extends AbstractImageRegionStore<BufferedIm
 	@Override
 	public void paintRegion(ImageServer<BufferedImage> server, Graphics g, Shape clipShapeVisible, int zPosition, int tPosition, double downsampleFactor, BufferedImage imgThumbnail, ImageObserver observer, ImageRenderer imageDisplay) {
 		registerRequest(null, server, clipShapeVisible, downsampleFactor, zPosition, tPosition);
-		paintRegionInternal(server, g, clipShapeVisible, zPosition, tPosition, downsampleFactor, imgThumbnail, observer, imageDisplay);
+		var bounds = clipShapeVisible.getBounds2D();
+		var view = new ViewCentre(paintCount.incrementAndGet(), bounds.getCenterX(), bounds.getCenterY());
+		paintRegionInternal(server, g, clipShapeVisible, zPosition, tPosition, downsampleFactor, imgThumbnail, observer, imageDisplay, view);
 	}
 
 
-	private void paintRegionInternal(ImageServer<BufferedImage> server, Graphics g, Shape clipShapeVisible, int zPosition, int tPosition, double downsampleFactor, BufferedImage imgThumbnail, ImageObserver observer, ImageRenderer imageDisplay) {
+	private void paintRegionInternal(ImageServer<BufferedImage> server, Graphics g, Shape clipShapeVisible, int zPosition, int tPosition, double downsampleFactor, BufferedImage imgThumbnail, ImageObserver observer, ImageRenderer imageDisplay, ViewCentre view) {
 
 		// Check if we have all the regions required for this request
 		List<RegionRequest> requests = ImageRegionStoreHelpers.getTilesToRequest(server, clipShapeVisible, downsampleFactor, zPosition, tPosition, null);
@@ -210,7 +242,7 @@ public class DefaultImageRegionStore extends AbstractImageRegionStore<BufferedIm
 				// Get the next downsample level if we can
 				if (nextDownsample > 0)
 //					paintRegion(server, g, clipShapeVisible, zPosition, tPosition, nextDownsample, imgThumbnail, observer, imageDisplay);
-					paintRegionInternal(server, g, missingBounds, zPosition, tPosition, nextDownsample, imgThumbnail, observer, imageDisplay);
+					paintRegionInternal(server, g, missingBounds, zPosition, tPosition, nextDownsample, imgThumbnail, observer, imageDisplay, view);
 				else if (imgThumbnail != null) {
 					// The best we can do is paint the thumbnail
 					if (imageDisplay != null) {
@@ -255,7 +287,12 @@ public class DefaultImageRegionStore extends AbstractImageRegionStore<BufferedIm
 					// Apply transforms, creating & caching new temp images
 					RegionRequest requestCache = RegionRequest.createInstance(displayCachePath, request.getDownsample(), request);
 					imgTemp = cache.get(requestCache);
-					if (imgTemp == null) {
+					// If the display has changed, paint the last tile we rendered (if available) while the new one is rendered in the background
+					BufferedImage imgStale = imgTemp == null && imageDisplay != null ? getLatestDisplayTile(imageDisplay, request) : null;
+					if (imgStale != null) {
+						requestDisplayTile(server, imageDisplay, request, requestCache, img, displayTimestamp, view);
+						imgTemp = imgStale;
+					} else if (imgTemp == null) {
 						if (imageDisplay != null)
 							imgTemp = imageDisplay.applyTransforms(img, null);
 						else {
@@ -267,9 +304,11 @@ public class DefaultImageRegionStore extends AbstractImageRegionStore<BufferedIm
 						// Store this if we know we've still got the same display settings
 						// This avoids making the cache inconsistent
 						if (imgTemp != null && (imageDisplay == null || displayTimestamp == imageDisplay.getLastChangeTimestamp()))
-							cache.put(requestCache, imgTemp);
+							putDisplayTile(imageDisplay, request, requestCache, imgTemp);
 						else
 							return;
+					} else if (imageDisplay != null) {
+						setLatestDisplayTile(imageDisplay, request, requestCache);
 					}
 				} else {
 					// Apply transforms, trying to reuse temp image
@@ -292,8 +331,157 @@ public class DefaultImageRegionStore extends AbstractImageRegionStore<BufferedIm
 	}
 
 
+	private void putDisplayTile(ImageRenderer imageDisplay, RegionRequest request, RegionRequest requestCache, BufferedImage imgDisplay) {
+		cache.put(requestCache, imgDisplay);
+		if (imageDisplay != null)
+			setLatestDisplayTile(imageDisplay, request, requestCache);
+	}
+
+	private void setLatestDisplayTile(ImageRenderer imageDisplay, RegionRequest request, RegionRequest requestCache) {
+		synchronized (latestDisplayTiles) {
+			latestDisplayTiles.computeIfAbsent(imageDisplay, r -> createLatestDisplayTileMap()).put(request, requestCache);
+		}
+	}
+
+	/**
+	 * Get the display tile most recently rendered for a raw tile with the specified renderer, if it is still cached.
+	 * This may have been rendered with different display settings.
+	 */
+	private BufferedImage getLatestDisplayTile(ImageRenderer imageDisplay, RegionRequest request) {
+		RegionRequest requestCache;
+		synchronized (latestDisplayTiles) {
+			var map = latestDisplayTiles.get(imageDisplay);
+			requestCache = map == null ? null : map.get(request);
+		}
+		return requestCache == null ? null : cache.get(requestCache);
+	}
+
+	private static Map<RegionRequest, RegionRequest> createLatestDisplayTileMap() {
+		return new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<RegionRequest, RegionRequest> eldest) {
+				return size() > MAX_LATEST_DISPLAY_TILES;
+			}
+		};
+	}
+
+	/**
+	 * Render a display tile in the background, then notify listeners so that it can be painted.
+	 * The tile is discarded if the display changes before rendering is complete.
+	 * <p>
+	 * If the tile is already waiting to be rendered for an earlier repaint, it is queued again with the
+	 * priority of the current repaint and the earlier task is skipped.
+	 */
+	private void requestDisplayTile(ImageServer<BufferedImage> server, ImageRenderer imageDisplay, RegionRequest request,
+			RegionRequest requestCache, BufferedImage img, long displayTimestamp, ViewCentre view) {
+		var task = new DisplayTileTask(server, imageDisplay, request, requestCache, img, displayTimestamp,
+				new DisplayTilePriority(view.paintCount(), ImageRegionStoreHelpers.distanceToCentroid(request, view.x(), view.y())));
+		var previous = pendingDisplayTiles.get(requestCache);
+		if (previous != null && (previous.started || previous.priority.paintCount() >= view.paintCount()))
+			return;
+		if (previous == null ? pendingDisplayTiles.putIfAbsent(requestCache, task) != null : !pendingDisplayTiles.replace(requestCache, previous, task))
+			return;
+		try {
+			poolDisplay.execute(task);
+		} catch (RejectedExecutionException e) {
+			pendingDisplayTiles.remove(requestCache, task);
+			logger.debug("Display tile request rejected for {}", request);
+		}
+	}
+
+	private static ExecutorService createDisplayPool(int nThreads) {
+		return new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<>(),
+				ThreadTools.createThreadFactory("region-store-display-", false));
+	}
+
+	/**
+	 * The centre of the region being painted (in full-resolution image coordinates), along with a count
+	 * that identifies the repaint.
+	 */
+	private record ViewCentre(long paintCount, double x, double y) {}
+
+	/**
+	 * Priority for rendering a display tile. Tiles requested by later repaints come first,
+	 * then tiles closest to the centre of the view.
+	 */
+	record DisplayTilePriority(long paintCount, double distanceSq) implements Comparable<DisplayTilePriority> {
+
+		@Override
+		public int compareTo(DisplayTilePriority o) {
+			int cmp = Long.compare(o.paintCount, paintCount);
+			if (cmp != 0)
+				return cmp;
+			return Double.compare(distanceSq, o.distanceSq);
+		}
+
+	}
+
+	private class DisplayTileTask implements Runnable, Comparable<DisplayTileTask> {
+
+		private final ImageServer<BufferedImage> server;
+		private final ImageRenderer imageDisplay;
+		private final RegionRequest request;
+		private final RegionRequest requestCache;
+		private final BufferedImage img;
+		private final long displayTimestamp;
+		private final DisplayTilePriority priority;
+
+		private volatile boolean started = false;
+
+		private DisplayTileTask(ImageServer<BufferedImage> server, ImageRenderer imageDisplay, RegionRequest request,
+				RegionRequest requestCache, BufferedImage img, long displayTimestamp, DisplayTilePriority priority) {
+			this.server = server;
+			this.imageDisplay = imageDisplay;
+			this.request = request;
+			this.requestCache = requestCache;
+			this.img = img;
+			this.displayTimestamp = displayTimestamp;
+			this.priority = priority;
+		}
+
+		@Override
+		public void run() {
+			// Skip if we have been replaced by a task for a later repaint
+			if (pendingDisplayTiles.get(requestCache) != this)
+				return;
+			started = true;
+			try {
+				if (displayTimestamp != imageDisplay.getLastChangeTimestamp())
+					return;
+				BufferedImage imgDisplay = imageDisplay.applyTransforms(img, null);
+				if (imgDisplay == null || displayTimestamp != imageDisplay.getLastChangeTimestamp())
+					return;
+				putDisplayTile(imageDisplay, request, requestCache, imgDisplay);
+				for (TileListener<BufferedImage> listener : new ArrayList<>(tileListeners))
+					listener.tileAvailable(requestCache.getPath(), requestCache, imgDisplay);
+			} catch (Exception e) {
+				logger.warn("Unable to render display tile for {}: {}", request, e.getMessage(), e);
+			} finally {
+				pendingDisplayTiles.remove(requestCache, this);
+			}
+		}
+
+		@Override
+		public int compareTo(DisplayTileTask o) {
+			return priority.compareTo(o.priority);
+		}
+
+	}
+
+
+	@Override
+	public synchronized void clearCache(final boolean stopWaiting) {
+		super.clearCache(stopWaiting);
+		synchronized (latestDisplayTiles) {
+			latestDisplayTiles.clear();
+		}
+	}
+
+
 	@Override
 	public void close() {
+		poolDisplay.shutdownNow();
 		super.close();
 	}
 
@@ -23,6 +23,11 @@
 
 package qupath.lib.gui.images.stores;
 
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+import javax.management.ObjectName;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qupath.lib.gui.prefs.PathPrefs;
@@ -46,13 +51,25 @@ public class ImageRegionStoreFactory {
 		return new DefaultImageRegionStore(tileCacheSizeBytes);
 	}
 	
+	/**
+	 * Create an {@link ImageRegionStore} with a specified tile cache size, and a second off-heap tile cache.
+	 * Tiles evicted from the main tile cache are moved to the off-heap cache, so that they don't need to be read again
+	 * from the image - without increasing the size of the Java heap.
+	 * @param tileCacheSizeBytes size of the main (on-heap) tile cache, in bytes
+	 * @param offHeapTileCacheSizeBytes size of the off-heap tile cache, in bytes; if &le; 0, no off-heap cache is used
+	 * @return
+	 */
+	public static DefaultImageRegionStore createImageRegionStore(final long tileCacheSizeBytes, final long offHeapTileCacheSizeBytes) {
+		return new DefaultImageRegionStore(tileCacheSizeBytes, offHeapTileCacheSizeBytes);
+	}
+	
 	
 	/**
 	 * Create an {@link ImageRegionStore} using a default tile cache size, based upon the available memory and user preferences.
 	 * @return
 	 */
 	public static DefaultImageRegionStore createImageRegionStore() {
-		return createImageRegionStore(getTileCacheSizeBytes());
+		return createImageRegionStore(getTileCacheSizeBytes(), getOffHeapTileCacheSizeBytes());
 	}
 	
 	
@@ -81,4 +98,103 @@ public class ImageRegionStoreFactory {
 		return tileCacheSize;
 	}
 	
+	/**
+	 * Get the off-heap tile cache size based upon the user preferences, limited by the memory available.
+	 * @return off-heap tile cache size in bytes, or 0 if no off-heap cache should be used
+	 */
+	private static long getOffHeapTileCacheSizeBytes() {
+		int sizeMB = PathPrefs.offHeapTileCacheMBProperty().get();
+		if (sizeMB <= 0) {
+			logger.info("Off-heap tile cache is disabled");
+			return 0L;
+		}
+		long requested = sizeMB * 1024L * 1024L;
+		long size = clampOffHeapTileCacheSize(requested, Runtime.getRuntime().maxMemory(),
+				getPhysicalMemoryBytes(), getMaxDirectMemoryBytes());
+		if (size < requested)
+			logger.warn("Off-heap tile cache size reduced from {} MB to {} MB to fit the available memory", sizeMB, size / (1024L * 1024L));
+		else
+			logger.info("Setting off-heap tile cache size to {} MB", sizeMB);
+		return size;
+	}
+	
+	/**
+	 * Limit the requested off-heap tile cache size so that it cannot use more than half of the physical memory 
+	 * that isn't already reserved for the Java heap, nor more than -XX:MaxDirectMemorySize if that has been set.
+	 * @param requestedBytes requested size, in bytes
+	 * @param maxHeapBytes maximum size of the Java heap, in bytes
+	 * @param physicalMemoryBytes total physical memory, in bytes; if &le; 0, this is treated as unknown
+	 * @param maxDirectMemoryBytes maximum direct memory, in bytes; if &le; 0, this is treated as unset
+	 * @return the size to use, in bytes
+	 */
+	static long clampOffHeapTileCacheSize(long requestedBytes, long maxHeapBytes, long physicalMemoryBytes, long maxDirectMemoryBytes) {
+		long size = Math.max(0L, requestedBytes);
+		if (physicalMemoryBytes > 0) {
+			long heap = maxHeapBytes == Long.MAX_VALUE ? 0L : Math.max(0L, maxHeapBytes);
+			size = Math.min(size, Math.max(0L, physicalMemoryBytes - heap) / 2);
+		}
+		if (maxDirectMemoryBytes > 0)
+			size = Math.min(size, maxDirectMemoryBytes);
+		return size;
+	}
+	
+	/**
+	 * Get the total physical memory, using the platform MBean so that the jdk.management module isn't required.
+	 * @return total physical memory in bytes, or -1 if this is unknown
+	 */
+	private static long getPhysicalMemoryBytes() {
+		try {
+			var server = ManagementFactory.getPlatformMBeanServer();
+			var value = server.getAttribute(new ObjectName(ManagementFactory.OPERATING_SYSTEM_MXBEAN_NAME), "TotalMemorySize");
+			if (value instanceof Number n)
+				return n.longValue();
+		} catch (Exception e) {
+			logger.debug("Unable to determine physical memory: {}", e.getMessage());
+		}
+		return -1L;
+	}
+	
+	/**
+	 * Get the value of -XX:MaxDirectMemorySize, if it has been set explicitly.
+	 * @return maximum direct memory in bytes, or -1 if this hasn't been set
+	 */
+	private static long getMaxDirectMemoryBytes() {
+		String prefix = "-XX:MaxDirectMemorySize=";
+		long maxDirect = -1L;
+		try {
+			for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+				if (arg.startsWith(prefix))
+					maxDirect = parseMemorySize(arg.substring(prefix.length()));
+			}
+		} catch (Exception e) {
+			logger.debug("Unable to determine max direct memory: {}", e.getMessage());
+		}
+		return maxDirect;
+	}
+	
+	/**
+	 * Parse a JVM memory size, such as 512m or 4G.
+	 * @param value the value to parse
+	 * @return the size in bytes, or -1 if the value could not be parsed
+	 */
+	static long parseMemorySize(String value) {
+		String s = value.trim().toLowerCase(Locale.ROOT);
+		if (s.isEmpty())
+			return -1L;
+		long multiplier = switch (s.charAt(s.length() - 1)) {
+			case 'k' -> 1024L;
+			case 'm' -> 1024L * 1024L;
+			case 'g' -> 1024L * 1024L * 1024L;
+			case 't' -> 1024L * 1024L * 1024L * 1024L;
+			default -> 1L;
+		};
+		if (multiplier > 1)
+			s = s.substring(0, s.length() - 1);
+		try {
+			return Long.parseLong(s) * multiplier;
+		} catch (NumberFormatException e) {
+			return -1L;
+		}
+	}
+	
 }
@@ -0,0 +1,445 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.gui.images.stores;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.regions.RegionRequest;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Second-level tile cache that stores the raw pixels of {@link BufferedImage} tiles in native memory,
+ * outside the Java heap.
+ * <p>
+ * Tiles are usually added here when they are evicted from the main (on-heap) cache.
+ * Storing them off-heap means they don't need to be read again from the image, but also don't
+ * contribute to the size of the heap or the length of garbage collection pauses.
+ * <p>
+ * Memory is divided into fixed-size pages, which are allocated lazily in larger slabs up to the maximum size.
+ * Each tile occupies as many pages as it needs, which need not be contiguous; this avoids fragmentation,
+ * and means that memory is reused rather than freed whenever tiles are evicted.
+ * When there are not enough free pages for a new tile, the least-recently-used tiles are evicted.
+ * <p>
+ * The native memory is only released when the cache is closed.
+ */
+class OffHeapTileCache implements TieredTileCache.SpillTier<BufferedImage> {
+
+	private static final Logger logger = LoggerFactory.getLogger(OffHeapTileCache.class);
+
+	/**
+	 * Page size, in bytes. This must be a multiple of the largest element size (8 bytes).
+	 */
+	static final int PAGE_SIZE = 32 * 1024;
+
+	/**
+	 * Number of pages to allocate at a time.
+	 */
+	private static final int PAGES_PER_SLAB = 2048;
+
+	private final Arena arena = Arena.ofShared();
+	private final List<MemorySegment> slabs = new ArrayList<>();
+
+	private final long maxSizeBytes;
+	private int maxPages;
+	private int allocatedPages = 0;
+	private int[] freePages = new int[0];
+	private int nFreePages = 0;
+
+	// Use access order, so that the eldest entry is the least-recently used
+	private final Map<RegionRequest, Entry> map = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long evictionCount = 0;
+	private boolean closed = false;
+
+	/**
+	 * Create a new off-heap cache.
+	 * @param maxSizeBytes maximum size of the native memory used to store tiles
+	 */
+	OffHeapTileCache(long maxSizeBytes) {
+		this.maxSizeBytes = maxSizeBytes;
+		this.maxPages = (int)Math.min(Integer.MAX_VALUE - 8, Math.max(0, maxSizeBytes / PAGE_SIZE));
+	}
+
+	/**
+	 * Store a tile, evicting the least-recently-used tiles if necessary.
+	 * @param request
+	 * @param img
+	 * @return true if the tile was stored, false if it could not be (e.g. because it is too large)
+	 */
+	@Override
+	public synchronized boolean put(RegionRequest request, BufferedImage img) {
+		if (closed || img == null)
+			return false;
+		removeEntry(map.remove(request));
+		var raster = img.getRaster();
+		if (!isSupported(raster))
+			return false;
+		var buffer = raster.getDataBuffer();
+		int elementSize = DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+		long nBytes = 0;
+		for (int b = 0; b < buffer.getNumBanks(); b++)
+			nBytes += (long)getBankLength(buffer, b) * elementSize;
+		int nPages = (int)Math.min(Integer.MAX_VALUE, (nBytes + PAGE_SIZE - 1) / PAGE_SIZE);
+		if (nPages > maxPages)
+			return false;
+
+		int[] pages = allocatePages(nPages);
+		if (pages == null)
+			return false;
+		long pos = 0;
+		for (int b = 0; b < buffer.getNumBanks(); b++)
+			pos = writeBank(buffer, b, pages, pos);
+		map.put(request, new Entry(pages, img.getColorModel(), raster.getSampleModel(),
+				buffer.getDataType(), buffer.getSize(), buffer.getOffsets(), getBankLengths(buffer),
+				img.isAlphaPremultiplied()));
+		return true;
+	}
+
+	/**
+	 * Remove a tile from the cache, and return it as a new {@link BufferedImage}.
+	 * @param request
+	 * @return the tile, or null if it is not in the cache
+	 */
+	@Override
+	public synchronized BufferedImage take(RegionRequest request) {
+		var entry = map.remove(request);
+		if (entry == null)
+			return null;
+		try {
+			return readImage(entry);
+		} finally {
+			removeEntry(entry);
+		}
+	}
+
+	@Override
+	public synchronized boolean remove(RegionRequest request) {
+		var entry = map.remove(request);
+		removeEntry(entry);
+		return entry != null;
+	}
+
+	@Override
+	public synchronized boolean containsKey(RegionRequest request) {
+		return map.containsKey(request);
+	}
+
+	@Override
+	public synchronized void removeIf(Predicate<RegionRequest> predicate) {
+		Iterator<Map.Entry<RegionRequest, Entry>> iter = map.entrySet().iterator();
+		while (iter.hasNext()) {
+			var next = iter.next();
+			if (predicate.test(next.getKey())) {
+				iter.remove();
+				removeEntry(next.getValue());
+			}
+		}
+	}
+
+	@Override
+	public synchronized void clear() {
+		for (var entry : map.values())
+			removeEntry(entry);
+		map.clear();
+	}
+
+	@Override
+	public synchronized int size() {
+		return map.size();
+	}
+
+	/**
+	 * Get the number of bytes used to store tiles, including unused space at the end of each tile's final page.
+	 */
+	@Override
+	public synchronized long getSizeBytes() {
+		return (long)(allocatedPages - nFreePages) * PAGE_SIZE;
+	}
+
+	@Override
+	public long getMaxSizeBytes() {
+		return maxSizeBytes;
+	}
+
+	@Override
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * Remove all tiles and release the native memory.
+	 * The cache can't be used afterwards.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed)
+			return;
+		closed = true;
+		map.clear();
+		slabs.clear();
+		nFreePages = 0;
+		allocatedPages = 0;
+		arena.close();
+	}
+
+
+	/**
+	 * We can only store rasters that use all of their data buffer, and use one of the standard buffer types.
+	 */
+	private static boolean isSupported(WritableRaster raster) {
+		if (raster.getParent() != null || raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0)
+			return false;
+		var buffer = raster.getDataBuffer();
+		return buffer instanceof DataBufferByte || buffer instanceof DataBufferUShort || buffer instanceof DataBufferShort ||
+				buffer instanceof DataBufferInt || buffer instanceof DataBufferFloat || buffer instanceof DataBufferDouble;
+	}
+
+	private static int getBankLength(DataBuffer buffer, int bank) {
+		return switch (buffer) {
+			case DataBufferByte db -> db.getData(bank).length;
+			case DataBufferUShort db -> db.getData(bank).length;
+			case DataBufferShort db -> db.getData(bank).length;
+			case DataBufferInt db -> db.getData(bank).length;
+			case DataBufferFloat db -> db.getData(bank).length;
+			case DataBufferDouble db -> db.getData(bank).length;
+			default -> throw new IllegalArgumentException("Unsupported data buffer " + buffer);
+		};
+	}
+
+	private static int[] getBankLengths(DataBuffer buffer) {
+		int[] lengths = new int[buffer.getNumBanks()];
+		for (int b = 0; b < lengths.length; b++)
+			lengths[b] = getBankLength(buffer, b);
+		return lengths;
+	}
+
+	private static ValueLayout getLayout(int dataType) {
+		return switch (dataType) {
+			case DataBuffer.TYPE_BYTE -> ValueLayout.JAVA_BYTE;
+			case DataBuffer.TYPE_USHORT, DataBuffer.TYPE_SHORT -> ValueLayout.JAVA_SHORT;
+			case DataBuffer.TYPE_INT -> ValueLayout.JAVA_INT;
+			case DataBuffer.TYPE_FLOAT -> ValueLayout.JAVA_FLOAT;
+			case DataBuffer.TYPE_DOUBLE -> ValueLayout.JAVA_DOUBLE;
+			default -> throw new IllegalArgumentException("Unsupported data type " + dataType);
+		};
+	}
+
+	private static Object getBankArray(DataBuffer buffer, int bank) {
+		return switch (buffer) {
+			case DataBufferByte db -> db.getData(bank);
+			case DataBufferUShort db -> db.getData(bank);
+			case DataBufferShort db -> db.getData(bank);
+			case DataBufferInt db -> db.getData(bank);
+			case DataBufferFloat db -> db.getData(bank);
+			case DataBufferDouble db -> db.getData(bank);
+			default -> throw new IllegalArgumentException("Unsupported data buffer " + buffer);
+		};
+	}
+
+	/**
+	 * Copy one bank of a data buffer into pages, starting at the specified position.
+	 * @return the position after the bank has been written
+	 */
+	private long writeBank(DataBuffer buffer, int bank, int[] pages, long pos) {
+		var layout = getLayout(buffer.getDataType());
+		var array = getBankArray(buffer, bank);
+		int length = getBankLength(buffer, bank);
+		int elementSize = (int)layout.byteSize();
+		int ind = 0;
+		while (ind < length) {
+			int offset = (int)(pos % PAGE_SIZE);
+			int n = Math.min(length - ind, (PAGE_SIZE - offset) / elementSize);
+			MemorySegment.copy(array, ind, getSlab(pages[(int)(pos / PAGE_SIZE)]), layout, getSlabOffset(pages[(int)(pos / PAGE_SIZE)]) + offset, n);
+			ind += n;
+			pos += (long)n * elementSize;
+		}
+		return pos;
+	}
+
+	/**
+	 * Copy pages into an array, starting at the specified position.
+	 * @return the position after the array has been filled
+	 */
+	private long readBank(Object array, int length, ValueLayout layout, int[] pages, long pos) {
+		int elementSize = (int)layout.byteSize();
+		int ind = 0;
+		while (ind < length) {
+			int offset = (int)(pos % PAGE_SIZE);
+			int n = Math.min(length - ind, (PAGE_SIZE - offset) / elementSize);
+			MemorySegment.copy(getSlab(pages[(int)(pos / PAGE_SIZE)]), layout, getSlabOffset(pages[(int)(pos / PAGE_SIZE)]) + offset, array, ind, n);
+			ind += n;
+			pos += (long)n * elementSize;
+		}
+		return pos;
+	}
+
+	private BufferedImage readImage(Entry entry) {
+		var layout = getLayout(entry.dataType);
+		int nBanks = entry.bankLengths.length;
+		long pos = 0;
+		DataBuffer buffer;
+		switch (entry.dataType) {
+			case DataBuffer.TYPE_BYTE -> {
+				byte[][] banks = new byte[nBanks][];
+				for (int b = 0; b < nBanks; b++) {
+					banks[b] = new byte[entry.bankLengths[b]];
+					pos = readBank(banks[b], banks[b].length, layout, entry.pages, pos);
+				}
+				buffer = new DataBufferByte(banks, entry.size, entry.offsets);
+			}
+			case DataBuffer.TYPE_USHORT -> {
+				short[][] banks = new short[nBanks][];
+				for (int b = 0; b < nBanks; b++) {
+					banks[b] = new short[entry.bankLengths[b]];
+					pos = readBank(banks[b], banks[b].length, layout, entry.pages, pos);
+				}
+				buffer = new DataBufferUShort(banks, entry.size, entry.offsets);
+			}
+			case DataBuffer.TYPE_SHORT -> {
+				short[][] banks = new short[nBanks][];
+				for (int b = 0; b < nBanks; b++) {
+					banks[b] = new short[entry.bankLengths[b]];
+					pos = readBank(banks[b], banks[b].length, layout, entry.pages, pos);
+				}
+				buffer = new DataBufferShort(banks, entry.size, entry.offsets);
+			}
+			case DataBuffer.TYPE_INT -> {
+				int[][] banks = new int[nBanks][];
+				for (int b = 0; b < nBanks; b++) {
+					banks[b] = new int[entry.bankLengths[b]];
+					pos = readBank(banks[b], banks[b].length, layout, entry.pages, pos);
+				}
+				buffer = new DataBufferInt(banks, entry.size, entry.offsets);
+			}
+			case DataBuffer.TYPE_FLOAT -> {
+				float[][] banks = new float[nBanks][];
+				for (int b = 0; b < nBanks; b++) {
+					banks[b] = new float[entry.bankLengths[b]];
+					pos = readBank(banks[b], banks[b].length, layout, entry.pages, pos);
+				}
+				buffer = new DataBufferFloat(banks, entry.size, entry.offsets);
+			}
+			case DataBuffer.TYPE_DOUBLE -> {
+				double[][] banks = new double[nBanks][];
+				for (int b = 0; b < nBanks; b++) {
+					banks[b] = new double[entry.bankLengths[b]];
+					pos = readBank(banks[b], banks[b].length, layout, entry.pages, pos);
+				}
+				buffer = new DataBufferDouble(banks, entry.size, entry.offsets);
+			}
+			default -> throw new IllegalArgumentException("Unsupported data type " + entry.dataType);
+		}
+		var raster = Raster.createWritableRaster(entry.sampleModel, buffer, new Point(0, 0));
+		return new BufferedImage(entry.colorModel, raster, entry.isAlphaPremultiplied, null);
+	}
+
+	private MemorySegment getSlab(int page) {
+		return slabs.get(page / PAGES_PER_SLAB);
+	}
+
+	private static long getSlabOffset(int page) {
+		return (long)(page % PAGES_PER_SLAB) * PAGE_SIZE;
+	}
+
+	/**
+	 * Get the requested number of pages, evicting tiles or allocating more memory if required.
+	 * @return the page indices, or null if the pages could not be allocated
+	 */
+	private int[] allocatePages(int nPages) {
+		while (nFreePages < nPages) {
+			if (allocatedPages < maxPages && allocateSlab())
+				continue;
+			var iter = map.values().iterator();
+			if (!iter.hasNext())
+				return null;
+			var eldest = iter.next();
+			iter.remove();
+			removeEntry(eldest);
+			evictionCount++;
+		}
+		int[] pages = new int[nPages];
+		nFreePages -= nPages;
+		System.arraycopy(freePages, nFreePages, pages, 0, nPages);
+		return pages;
+	}
+
+	private boolean allocateSlab() {
+		int nPages = Math.min(PAGES_PER_SLAB, maxPages - allocatedPages);
+		try {
+			// Allocate a full slab (if we can), so that page addresses can be calculated easily
+			long slabBytes = (long)PAGES_PER_SLAB * PAGE_SIZE;
+			if (nPages < PAGES_PER_SLAB)
+				slabBytes = (long)nPages * PAGE_SIZE;
+			slabs.add(arena.allocate(slabBytes, ValueLayout.JAVA_DOUBLE.byteSize()));
+		} catch (OutOfMemoryError e) {
+			logger.warn("Unable to allocate more memory for off-heap tile cache - limiting size to {} MB",
+					allocatedPages * (long)PAGE_SIZE / (1024 * 1024));
+			maxPages = allocatedPages;
+			return false;
+		}
+		if (freePages.length < allocatedPages + nPages)
+			freePages = Arrays.copyOf(freePages, allocatedPages + nPages);
+		for (int i = 0; i < nPages; i++)
+			freePages[nFreePages++] = allocatedPages + i;
+		allocatedPages += nPages;
+		logger.debug("Allocated {} MB for off-heap tile cache", allocatedPages * (long)PAGE_SIZE / (1024 * 1024));
+		return true;
+	}
+
+	private void removeEntry(Entry entry) {
+		if (entry == null || closed)
+			return;
+		for (int page : entry.pages)
+			freePages[nFreePages++] = page;
+	}
+
+
+	/**
+	 * Metadata for a stored tile. The pixels themselves are stored in the pages.
+	 */
+	private record Entry(int[] pages, ColorModel colorModel, SampleModel sampleModel,
+			int dataType, int size, int[] offsets, int[] bankLengths, boolean isAlphaPremultiplied) {}
+
+}
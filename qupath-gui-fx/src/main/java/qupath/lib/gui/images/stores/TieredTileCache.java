@@ -0,0 +1,254 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.gui.images.stores;
+
+import qupath.lib.regions.RegionRequest;
+
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Tile cache with two tiers: a main (on-heap) map, and an optional second tier to which tiles are moved
+ * when they are evicted from the main map.
+ * <p>
+ * Tiles found in the second tier are removed from it and promoted back to the main map whenever they are requested.
+ * <p>
+ * Note that only tiles in the main map are included when iterating through entries, keys or values.
+ * Use {@link #removeIf(Predicate)} to remove tiles from both tiers based upon their keys.
+ *
+ * @param <T> the generic parameter for an image (most likely BufferedImage)
+ */
+class TieredTileCache<T> extends AbstractMap<RegionRequest, T> {
+
+	private final Map<RegionRequest, T> heapCache;
+	private final SpillTier<T> spillTier;
+
+	private final LongAdder heapHits = new LongAdder();
+	private final LongAdder spillHits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Create a tiered cache.
+	 * @param heapCache the main cache; this should be thread-safe
+	 * @param spillTier the second tier, or null if there is only one tier
+	 */
+	TieredTileCache(Map<RegionRequest, T> heapCache, SpillTier<T> spillTier) {
+		this.heapCache = heapCache;
+		this.spillTier = spillTier;
+	}
+
+	/**
+	 * Add a tile that has been evicted from the main cache to the second tier, if there is one.
+	 * @param request
+	 * @param tile
+	 */
+	void spill(RegionRequest request, T tile) {
+		if (spillTier != null && tile != null)
+			spillTier.put(request, tile);
+	}
+
+	@Override
+	public T get(Object key) {
+		T tile = heapCache.get(key);
+		if (tile != null) {
+			heapHits.increment();
+			return tile;
+		}
+		if (spillTier != null && key instanceof RegionRequest request) {
+			tile = spillTier.take(request);
+			if (tile != null) {
+				spillHits.increment();
+				heapCache.put(request, tile);
+				return tile;
+			}
+		}
+		misses.increment();
+		return null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		if (heapCache.containsKey(key))
+			return true;
+		return spillTier != null && key instanceof RegionRequest request && spillTier.containsKey(request);
+	}
+
+	@Override
+	public T put(RegionRequest key, T value) {
+		Objects.requireNonNull(value);
+		if (spillTier != null)
+			spillTier.remove(key);
+		return heapCache.put(key, value);
+	}
+
+	@Override
+	public T remove(Object key) {
+		if (spillTier != null && key instanceof RegionRequest request)
+			spillTier.remove(request);
+		return heapCache.remove(key);
+	}
+
+	/**
+	 * Remove all tiles from both tiers with keys that match a predicate.
+	 * @param predicate
+	 */
+	void removeIf(Predicate<RegionRequest> predicate) {
+		heapCache.keySet().removeIf(predicate);
+		if (spillTier != null)
+			spillTier.removeIf(predicate);
+	}
+
+	/**
+	 * Remove tiles from the second tier only, with keys that match a predicate.
+	 * @param predicate
+	 */
+	void removeSpilledIf(Predicate<RegionRequest> predicate) {
+		if (spillTier != null)
+			spillTier.removeIf(predicate);
+	}
+
+	@Override
+	public void clear() {
+		heapCache.clear();
+		if (spillTier != null)
+			spillTier.clear();
+	}
+
+	@Override
+	public int size() {
+		return heapCache.size() + (spillTier == null ? 0 : spillTier.size());
+	}
+
+	@Override
+	public Set<Entry<RegionRequest, T>> entrySet() {
+		return heapCache.entrySet();
+	}
+
+	/**
+	 * Release any resources held by the second tier.
+	 */
+	void close() {
+		heapCache.clear();
+		if (spillTier != null)
+			spillTier.close();
+	}
+
+	/**
+	 * Get a snapshot of the cache statistics.
+	 * @return
+	 */
+	TileCacheStatistics getStatistics() {
+		return new TileCacheStatistics(
+				heapCache.size(),
+				heapHits.sum(),
+				spillTier == null ? 0 : spillTier.size(),
+				spillHits.sum(),
+				misses.sum(),
+				spillTier == null ? 0 : spillTier.getSizeBytes(),
+				spillTier == null ? 0 : spillTier.getMaxSizeBytes(),
+				spillTier == null ? 0 : spillTier.getEvictionCount());
+	}
+
+
+	/**
+	 * Second tier of a {@link TieredTileCache}.
+	 * Implementations must be thread-safe.
+	 * @param <T> the generic parameter for an image
+	 */
+	interface SpillTier<T> {
+
+		/**
+		 * Add a tile.
+		 * @param request
+		 * @param tile
+		 * @return true if the tile was added, false otherwise
+		 */
+		boolean put(RegionRequest request, T tile);
+
+		/**
+		 * Remove a tile, and return it.
+		 * @param request
+		 * @return the tile, or null if it was not found
+		 */
+		T take(RegionRequest request);
+
+		/**
+		 * Remove a tile without returning it.
+		 * @param request
+		 * @return true if the tile was found
+		 */
+		boolean remove(RegionRequest request);
+
+		/**
+		 * Query if a tile is stored.
+		 * @param request
+		 * @return
+		 */
+		boolean containsKey(RegionRequest request);
+
+		/**
+		 * Remove all tiles with keys that match a predicate.
+		 * @param predicate
+		 */
+		void removeIf(Predicate<RegionRequest> predicate);
+
+		/**
+		 * Remove all tiles.
+		 */
+		void clear();
+
+		/**
+		 * Get the number of stored tiles.
+		 * @return
+		 */
+		int size();
+
+		/**
+		 * Get the number of bytes currently used to store tiles.
+		 * @return
+		 */
+		long getSizeBytes();
+
+		/**
+		 * Get the maximum number of bytes that may be used to store tiles.
+		 * @return
+		 */
+		long getMaxSizeBytes();
+
+		/**
+		 * Get the number of tiles evicted to make space for others.
+		 * @return
+		 */
+		long getEvictionCount();
+
+		/**
+		 * Remove all tiles and release any resources.
+		 */
+		void close();
+
+	}
+
+}
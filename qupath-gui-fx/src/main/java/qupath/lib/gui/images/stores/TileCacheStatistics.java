@@ -0,0 +1,85 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.gui.images.stores;
+
+/**
+ * Snapshot of the statistics for a tile cache with an on-heap tier and an (optional) off-heap tier.
+ * <p>
+ * Every lookup is counted exactly once: either as a hit in one of the tiers, or as a miss.
+ * Lookups only reach the off-heap tier if they miss the on-heap tier.
+ *
+ * @param heapTiles number of tiles currently in the on-heap tier
+ * @param heapHits number of lookups that found a tile in the on-heap tier
+ * @param offHeapTiles number of tiles currently in the off-heap tier
+ * @param offHeapHits number of lookups that found a tile in the off-heap tier
+ * @param misses number of lookups that didn't find a tile in either tier
+ * @param offHeapBytes number of bytes currently used by the off-heap tier
+ * @param offHeapMaxBytes maximum number of bytes that may be used by the off-heap tier (0 if there is no off-heap tier)
+ * @param offHeapEvictions number of tiles evicted from the off-heap tier to make space for others
+ */
+public record TileCacheStatistics(long heapTiles, long heapHits, long offHeapTiles, long offHeapHits, long misses,
+								  long offHeapBytes, long offHeapMaxBytes, long offHeapEvictions) {
+
+	/**
+	 * Get the total number of lookups.
+	 * @return
+	 */
+	public long lookups() {
+		return heapHits + offHeapHits + misses;
+	}
+
+	/**
+	 * Get the proportion of all lookups that found a tile in the on-heap tier.
+	 * @return the hit rate, or NaN if there have been no lookups
+	 */
+	public double heapHitRate() {
+		long n = lookups();
+		return n == 0 ? Double.NaN : (double)heapHits / n;
+	}
+
+	/**
+	 * Get the proportion of lookups that missed the on-heap tier but then found a tile in the off-heap tier.
+	 * @return the hit rate, or NaN if no lookups reached the off-heap tier
+	 */
+	public double offHeapHitRate() {
+		long n = offHeapHits + misses;
+		return n == 0 ? Double.NaN : (double)offHeapHits / n;
+	}
+
+	/**
+	 * Get the proportion of all lookups that found a tile in either tier.
+	 * @return the hit rate, or NaN if there have been no lookups
+	 */
+	public double hitRate() {
+		long n = lookups();
+		return n == 0 ? Double.NaN : (double)(heapHits + offHeapHits) / n;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Heap: %d tiles, %.1f%% hits; Off-heap: %d tiles (%.1f/%.1f MB), %.1f%% hits, %d evictions; Overall: %.1f%% hits",
+				heapTiles, heapHitRate() * 100, offHeapTiles,
+				offHeapBytes / (1024.0 * 1024.0), offHeapMaxBytes / (1024.0 * 1024.0),
+				offHeapHitRate() * 100, offHeapEvictions, hitRate() * 100);
+	}
+
+}
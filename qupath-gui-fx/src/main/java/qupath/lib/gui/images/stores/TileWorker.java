@@ -43,6 +43,14 @@ interface TileWorker<T> extends RunnableFuture<T> {
 	 * @return
 	 */
 	public RegionRequest getRequest();
+
+	/**
+	 * The version of the tile when this worker was created.
+	 * If the tile has been refreshed since then, the result should be discarded.
+	 * 
+	 * @return
+	 */
+	public long getVersion();
 	
 	/**
 	 * The cache where the region should be added, when available.
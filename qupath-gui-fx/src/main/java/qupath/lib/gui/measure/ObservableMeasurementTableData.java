@@ -37,6 +37,7 @@ import qupath.lib.images.servers.ImageServer;
 import qupath.lib.lazy.interfaces.LazyValue;
 import qupath.lib.lazy.objects.MeasurementListValue;
 import qupath.lib.lazy.objects.PathObjectLazyValues;
+import qupath.lib.measurements.MeasurementTable;
 import qupath.lib.objects.PathObject;
 import qupath.lib.objects.TMACoreObject;
 
@@ -353,6 +354,47 @@ public class ObservableMeasurementTableData implements PathTableData<PathObject>
 		return GeneralTools.formatNumber(val, 4);
 	}
 
+	/**
+	 * Get string values for many objects, arranged in rows.
+	 * Values from measurement lists are read for all objects together, using
+	 * {@link MeasurementTable#getValues(Collection, List)}.
+	 */
+	@Override
+	public String[][] getStringValues(final List<? extends PathObject> pathObjects, final List<String> names, final int decimalPlaces) {
+		var values = new String[pathObjects.size()][names.size()];
+		List<String> measurementNames = new ArrayList<>();
+		List<Integer> measurementColumns = new ArrayList<>();
+		for (int c = 0; c < names.size(); c++) {
+			var name = names.get(c);
+			if (lazyValueMap.get(name) instanceof MeasurementListValue) {
+				measurementNames.add(name);
+				measurementColumns.add(c);
+			} else {
+				for (int r = 0; r < values.length; r++)
+					values[r][c] = getStringValue(pathObjects.get(r), name, decimalPlaces);
+			}
+		}
+		if (measurementNames.isEmpty())
+			return values;
+
+		// Use the same formatting as getStringValue
+		int dp = decimalPlaces == PathTableData.DEFAULT_DECIMAL_PLACES ? -4 : decimalPlaces;
+		var measurementLists = pathObjects.stream().map(p -> p == null ? null : p.getMeasurementList()).toList();
+		var measurements = MeasurementTable.getValues(measurementLists, measurementNames);
+		for (int r = 0; r < values.length; r++) {
+			var ml = measurementLists.get(r);
+			for (int i = 0; i < measurementNames.size(); i++) {
+				double val = measurements[r][i];
+				// Missing measurements are empty, but NaN values that have been set are not
+				if (Double.isNaN(val) && (ml == null || !ml.containsKey(measurementNames.get(i))))
+					values[r][measurementColumns.get(i)] = "";
+				else
+					values[r][measurementColumns.get(i)] = LazyValue.formatValue(val, dp);
+			}
+		}
+		return values;
+	}
+
 	/**
 	 * Get the names of all columns corresponding to metadata (String) values.
 	 * @return
@@ -89,6 +89,27 @@ public interface PathTableData<T> {
 	 */
 	String getStringValue(final T item, final String name, final int decimalPlaces);
 
+	/**
+	 * Get string values for many items, arranged in rows.
+	 * <p>
+	 * This gives the same result as calling {@link #getStringValue(Object, String, int)} for each item and name,
+	 * but implementations may override it to read values more efficiently.
+	 *
+	 * @param items the items to use; one row will be returned for each
+	 * @param names the names of the columns to include
+	 * @param decimalPlaces the number of decimal places to use for numeric values
+	 * @return an array for each item, containing one value for each name
+	 */
+	default String[][] getStringValues(final List<? extends T> items, final List<String> names, final int decimalPlaces) {
+		var values = new String[items.size()][names.size()];
+		for (int r = 0; r < values.length; r++) {
+			var item = items.get(r);
+			for (int c = 0; c < names.size(); c++)
+				values[r][c] = getStringValue(item, names.get(c), decimalPlaces);
+		}
+		return values;
+	}
+
 	/**
 	 * Get the names of all numeric measurements.
 	 * @return
@@ -241,6 +241,24 @@ public class PreferencePane {
 		@DoublePref("Prefs.General.tileCache")
 		public final DoubleProperty tileCache = PathPrefs.tileCachePercentageProperty();
 
+		@IntegerPref("Prefs.General.offHeapTileCache")
+		public final IntegerProperty offHeapTileCache = PathPrefs.offHeapTileCacheMBProperty();
+
+		@IntegerPref("Prefs.General.persistentTileCache")
+		public final IntegerProperty persistentTileCache = PathPrefs.persistentTileCacheGBProperty();
+
+		@DirectoryPref("Prefs.General.persistentTileCachePath")
+		public final Property<String> persistentTileCachePath = PathPrefs.persistentTileCachePathProperty();
+
+		@BooleanPref("Prefs.General.useChunkedDataFiles")
+		public final BooleanProperty useChunkedDataFiles = PathPrefs.useChunkedDataFilesProperty();
+
+		@IntegerPref("Prefs.General.lazyDetectionThreshold")
+		public final IntegerProperty lazyDetectionThreshold = PathPrefs.lazyDetectionThresholdProperty();
+
+		@BooleanPref("Prefs.General.useColumnarMeasurements")
+		public final BooleanProperty useColumnarMeasurements = PathPrefs.useColumnarMeasurementsProperty();
+
 		@BooleanPref("Prefs.General.showImageNameInTitle")
 		public final BooleanProperty showImageNameInTitle = PathPrefs.showImageNameInTitleProperty();
 
@@ -477,6 +495,12 @@ public class PreferencePane {
 		@BooleanPref("Prefs.Objects.newDetectionRendering")
 		public final BooleanProperty newDetectionRendering = PathPrefs.newDetectionRenderingProperty();
 
+		@DoublePref("Prefs.Objects.detectionCentroidDownsample")
+		public final DoubleProperty detectionCentroidDownsample = PathPrefs.detectionCentroidDownsampleProperty();
+
+		@DoublePref("Prefs.Objects.detectionDensityDownsample")
+		public final DoubleProperty detectionDensityDownsample = PathPrefs.detectionDensityDownsampleProperty();
+
 		@BooleanPref("Prefs.Objects.useSelectedColor")
 		public final BooleanProperty useSelectedColor = PathPrefs.useSelectedColorProperty();
 
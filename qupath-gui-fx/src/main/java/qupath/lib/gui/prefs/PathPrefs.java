@@ -1260,6 +1260,99 @@ public class PathPrefs {
 	}
 	
 	
+	private static IntegerProperty offHeapTileCacheMB = createPersistentPreference("offHeapTileCacheMB", 0);
+	
+	/**
+	 * Requested size of the second tile cache, in MB, which stores tiles outside the Java heap
+	 * after they have been evicted from the main tile cache.
+	 * This cache does not count towards the maximum memory, so it is disabled (0) by default. 
+	 * If enabled, the size is limited according to the physical memory and any -XX:MaxDirectMemorySize setting.
+	 * @return
+	 */
+	public static IntegerProperty offHeapTileCacheMBProperty() {
+		return offHeapTileCacheMB;
+	}
+	
+	
+	private static IntegerProperty persistentTileCacheGB = createPersistentPreference("persistentTileCacheGB", 0);
+	
+	/**
+	 * Maximum size of the tile cache stored on disk, in GB, which enables image tiles to be reused across sessions
+	 * without reading them from the original image again.
+	 * Set to 0 to disable it.
+	 * @return
+	 * @see #getPersistentTileCacheDirectory()
+	 */
+	public static IntegerProperty persistentTileCacheGBProperty() {
+		return persistentTileCacheGB;
+	}
+	
+	private static ObjectProperty<String> persistentTileCachePath = createPersistentPreference("persistentTileCachePath", (String)null, PathPrefs::blankStringToNull, PathPrefs::blankStringToNull);
+	
+	/**
+	 * Directory used to store the persistent tile cache.
+	 * If this is null, a default directory is used.
+	 * @return
+	 * @see #getPersistentTileCacheDirectory()
+	 */
+	public static ObjectProperty<String> persistentTileCachePathProperty() {
+		return persistentTileCachePath;
+	}
+	
+	private static IntegerProperty lazyDetectionThreshold = createPersistentPreference("lazyDetectionThreshold", 0);
+	
+	/**
+	 * Number of detections above which detections are loaded on demand when reading a data file, rather than 
+	 * all at once. This is also the approximate number of detections that will be kept in memory.
+	 * Set to 0 to always load all detections.
+	 * @return
+	 * @see qupath.lib.io.PathIO#setLazyDetectionThreshold(int)
+	 */
+	public static IntegerProperty lazyDetectionThresholdProperty() {
+		return lazyDetectionThreshold;
+	}
+	
+	private static BooleanProperty useChunkedDataFiles = createPersistentPreference("useChunkedDataFiles", false);
+	
+	/**
+	 * Save .qpdata files in the chunked format, which supports incremental saves and loading detections on demand.
+	 * This is off by default, because older versions of QuPath can't read chunked files.
+	 * @return
+	 * @see qupath.lib.io.PathIO#setUseChunkedDataFiles(boolean)
+	 */
+	public static BooleanProperty useChunkedDataFilesProperty() {
+		return useChunkedDataFiles;
+	}
+	
+	private static BooleanProperty useColumnarMeasurements = createPersistentPreference("useColumnarMeasurements", false);
+	
+	/**
+	 * Store the measurements of detections read from a data file in a shared table, rather than in a separate 
+	 * list for each object. This is off by default.
+	 * @return
+	 * @see qupath.lib.measurements.MeasurementListFactory#setUseColumnarStorage(boolean)
+	 */
+	public static BooleanProperty useColumnarMeasurementsProperty() {
+		return useColumnarMeasurements;
+	}
+	
+	/**
+	 * Get the directory that should be used to store the persistent tile cache.
+	 * This is taken from {@link #persistentTileCachePathProperty()} if set, otherwise it is a 'tile-cache' directory
+	 * within the user directory (or default QuPath user directory).
+	 * @return
+	 */
+	public static Path getPersistentTileCacheDirectory() {
+		var path = persistentTileCachePath.get();
+		if (path != null)
+			return Paths.get(path);
+		var userDir = userPath.get();
+		if (userDir != null)
+			return Paths.get(userDir, "tile-cache");
+		return getDefaultQuPathUserDirectory().resolve("tile-cache");
+	}
+	
+	
 	private static BooleanProperty useCalibratedLocationString = createPersistentPreference("useCalibratedLocationString", true);
 	
 	/**
@@ -1787,6 +1880,34 @@ public class PathPrefs {
 		return newDetectionRendering;
 	}
     
+	private static final DoubleProperty detectionCentroidDownsample = createPersistentPreference("detectionCentroidDownsample", 8.0);
+
+	/**
+	 * Downsample factor at or above which detections are painted as small squares at their centroids, rather than
+	 * as full ROIs, when they are painted from cached tiles.
+	 * This greatly reduces the time required to paint large numbers of detections.
+	 * A value &le; 0 indicates that full ROIs should always be painted.
+	 * @return
+	 * @see #detectionDensityDownsampleProperty()
+	 */
+	public static DoubleProperty detectionCentroidDownsampleProperty() {
+		return detectionCentroidDownsample;
+	}
+
+	private static final DoubleProperty detectionDensityDownsample = createPersistentPreference("detectionDensityDownsample", 32.0);
+
+	/**
+	 * Downsample factor at or above which detections are painted as a density map, showing the number of detections
+	 * (and their average color) in regions of the image, rather than painting each detection individually.
+	 * This means the time required to paint detections at low magnification no longer depends upon how many there are.
+	 * A value &le; 0 indicates that a density map should never be used.
+	 * @return
+	 * @see #detectionCentroidDownsampleProperty()
+	 */
+	public static DoubleProperty detectionDensityDownsampleProperty() {
+		return detectionDensityDownsample;
+	}
+    
     private static final BooleanProperty usePixelSnapping = createPersistentPreference("usePixelSnapping", true);
     
     /**
@@ -57,6 +57,7 @@ import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.DoubleConsumer;
 import java.util.function.Predicate;
+import java.util.stream.IntStream;
 
 
 /**
@@ -466,16 +467,20 @@ public class MeasurementExporter {
 			header.addAll(headerColumns);
 			var sameColumns = header.size() == currentHeaderColumns.size();
 			var columns = header.toArray(String[]::new);
-			int n = columns.length;
-			for (var item : table.getItems()) {
-				// Try to avoid needing to resize the map
+			// Read the values for the current columns together, then arrange them according to the full header
+			var indices = IntStream.range(0, columns.length)
+					.filter(i -> sameColumns || currentHeaderColumns.contains(columns[i]))
+					.toArray();
+			var names = Arrays.stream(indices).mapToObj(i -> columns[i]).toList();
+			var values = table.getStringValues(table.getItems(), names, nDecimalPlaces);
+			if (indices.length == columns.length) {
+				data.addAll(Arrays.asList(values));
+				return;
+			}
+			for (var itemValues : values) {
 				var row = new String[columns.length];
-				for (int i = 0; i < n; i++) {
-					var col = columns[i];
-					if (sameColumns || currentHeaderColumns.contains(col)) {
-						row[i] = table.getStringValue(item, columns[i], nDecimalPlaces);
-					}
-				}
+				for (int i = 0; i < indices.length; i++)
+					row[indices[i]] = itemValues[i];
 				data.add(row);
 			}
 		}
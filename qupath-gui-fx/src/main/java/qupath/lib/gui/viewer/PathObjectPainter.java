@@ -131,6 +131,60 @@ public class PathObjectPainter {
 	}
 
 
+	/**
+	 * Paint the specified detections using a simplified representation, with a small square at the centroid of each object.
+	 * This is much faster than painting the full ROIs, and is intended for low magnifications where each ROI would only
+	 * cover a few pixels anyway.
+	 * <p>
+	 * Tiles are painted in full, since they are often used to display measurement maps.
+	 * Other objects are ignored.
+	 * 
+	 * @param g2d the graphics object on which the objects should be painted
+	 * @param pathObjects the objects to paint
+	 * @param overlayOptions the overlay options defining how objects should be painted
+	 * @param downsample the downsample factor; this should already be applied to the graphics object, but is needed to determine the size of each square
+	 */
+	public static void paintDetectionCentroids(Graphics2D g2d, Collection<? extends PathObject> pathObjects, OverlayOptions overlayOptions, double downsample) {
+		if (pathObjects == null)
+			return;
+		// Use 2x2 pixels at the display resolution
+		int size = (int)Math.max(1, Math.round(downsample * 2));
+		for (PathObject pathObject : pathObjects) {
+			if (Thread.currentThread().isInterrupted())
+				return;
+			if (!pathObject.isDetection())
+				continue;
+			if (pathObject.isTile()) {
+				paintObject(pathObject, g2d, overlayOptions, null, downsample);
+				continue;
+			}
+			Color color = getDisplayedDetectionColor(pathObject, overlayOptions);
+			if (color == null)
+				continue;
+			ROI roi = pathObject.getROI();
+			int x = (int)(roi.getCentroidX() - size / 2.0);
+			int y = (int)(roi.getCentroidY() - size / 2.0);
+			g2d.setColor(color);
+			g2d.fillRect(x, y, size, size);
+		}
+	}
+
+	/**
+	 * Get the color used to display a detection, when it is not selected.
+	 * 
+	 * @param pathObject the detection
+	 * @param overlayOptions the overlay options defining how objects should be painted
+	 * @return the color, or null if the object doesn't have a ROI or should not be displayed
+	 */
+	public static Color getDisplayedDetectionColor(PathObject pathObject, OverlayOptions overlayOptions) {
+		if (pathObject == null || !pathObject.hasROI())
+			return null;
+		if (overlayOptions.isHidden(pathObject) || isHiddenObjectType(pathObject, overlayOptions))
+			return null;
+		return getBaseObjectColor(pathObject, overlayOptions, false);
+	}
+
+
 	/**
 	 * Paint the specified tissue microarray grid.
 	 * 
@@ -4,7 +4,7 @@
  * %%
  * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
  * Contact: IP Management (ipmanagement@qub.ac.uk)
- * Copyright (C) 2018 - 2022 QuPath developers, The University of Edinburgh
+ * Copyright (C) 2018 - 2025 QuPath developers, The University of Edinburgh
  * %%
  * QuPath is free software: you can redistribute it and/or modify
  * it under the terms of the GNU General Public License as
@@ -96,13 +96,13 @@ import qupath.lib.images.servers.ImageChannel;
 import qupath.lib.images.servers.ImageServer;
 import qupath.lib.images.servers.ImageServerMetadata;
 import qupath.lib.images.servers.PixelCalibration;
-import qupath.lib.objects.PathDetectionObject;
 import qupath.lib.objects.PathObject;
 import qupath.lib.objects.PathObjectTools;
 import qupath.lib.objects.TMACoreObject;
 import qupath.lib.objects.hierarchy.PathObjectHierarchy;
 import qupath.lib.objects.hierarchy.TMAGrid;
 import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent;
+import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent.HierarchyEventType;
 import qupath.lib.objects.hierarchy.events.PathObjectHierarchyListener;
 import qupath.lib.objects.hierarchy.events.PathObjectSelectionListener;
 import qupath.lib.regions.ImagePlane;
@@ -809,6 +809,8 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 
 		// We need to repaint everything if detection line thickness changes - including any cached regions
 		manager.attachListener(PathPrefs.detectionStrokeThicknessProperty(), repainterOverlay);		
+		manager.attachListener(PathPrefs.detectionCentroidDownsampleProperty(), repainterOverlay);
+		manager.attachListener(PathPrefs.detectionDensityDownsampleProperty(), repainterOverlay);
 
 		// Can be used to debug graphics
 		//		setDoubleBuffered(false);
@@ -837,6 +839,9 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 		);
 
 		this.regionStore.addTileListener(this);
+		// Update histograms as tiles are read, so that they don't need to be recomputed from cached images
+		if (imageDisplay != null)
+			this.regionStore.addTileListener(imageDisplay);
 
 		//		updateCursor();
 		imageUpdated = true;
@@ -1793,6 +1798,8 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 		manager.detachAll();
 		manager.clear();
 		regionStore.removeTileListener(this);
+		if (imageDisplay != null)
+			regionStore.removeTileListener(imageDisplay);
 //		// Set the server to null
 //		setImageData(null);
 		// Notify listeners
@@ -3029,22 +3036,25 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 			return;
 		}
 		
-		// Clear any cached regions of the overlay, if necessary
+		// Refresh any cached regions of the overlay, if necessary.
+		// Stale tiles continue to be displayed while they are regenerated in the background.
 		// TODO: Make this update a bit less conservative - it isn't really needed if we don't modify detections?
-		if (event == null || event.isStructureChangeEvent())
-			hierarchyOverlay.clearCachedOverlay();
+		if (event == null || event.getEventType() == HierarchyEventType.OTHER_STRUCTURE_CHANGE)
+			hierarchyOverlay.refreshCachedOverlay();
 		else {
 			List<PathObject> pathObjects = event.getChangedObjects();
-			List<PathObject> pathDetectionObjects = PathObjectTools.getObjectsOfClass(pathObjects, PathDetectionObject.class);
-			if (pathDetectionObjects.size() <= 50) {
+			if (event.isAddedOrRemovedEvent() && pathObjects.stream().anyMatch(p -> !p.isDetection() && p.hasChildObjects())) {
+				// Adding or removing an object with children could affect any number of detections
+				hierarchyOverlay.refreshCachedOverlay();
+			} else {
 				// TODO: PUT THIS LISTENER INTO THE HIERARCHY OVERLAY ITSELF?  But then the order of events is uncertain... hierarchy would need to be able to call repaint as well
 				// (or possibly post an event?)
-				for (PathObject temp : pathDetectionObjects) {
-					if (temp.hasROI())
-						hierarchyOverlay.clearCachedOverlayForRegion(ImageRegion.createInstance(temp.getROI()));
+				List<ImageRegion> changedRegions = new ArrayList<>();
+				for (PathObject temp : pathObjects) {
+					if (temp.isDetection() && temp.hasROI())
+						changedRegions.add(ImageRegion.createInstance(temp.getROI()));
 				}
-			} else {
-				hierarchyOverlay.clearCachedOverlay();
+				hierarchyOverlay.refreshCachedOverlayForRegions(changedRegions);
 			}
 		}
 //		hierarchyOverlay.clearCachedOverlay();
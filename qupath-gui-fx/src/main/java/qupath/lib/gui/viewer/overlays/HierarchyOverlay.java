@@ -23,6 +23,7 @@
 
 package qupath.lib.gui.viewer.overlays;
 
+import javafx.application.Platform;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qupath.lib.awt.common.AwtTools;
@@ -70,6 +71,7 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 
 /**
@@ -106,6 +108,17 @@ public class HierarchyOverlay extends AbstractOverlay {
 	 */
 	private final transient DetectionComparator comparator = new DetectionComparator();
 
+	/**
+	 * Maximum number of changed regions to test separately against each cached tile when refreshing the overlay.
+	 */
+	private static final int MAX_REFRESH_REGIONS = 256;
+
+	/**
+	 * Padding around changed regions when refreshing the overlay, in pixels at the resolution of each tile.
+	 * This accounts for the line thickness when painting objects.
+	 */
+	private static final double REFRESH_PADDING = 4.0;
+
 	/**
 	 * Constructor. Note that a {@link HierarchyOverlay} cannot adapt very efficient to changes in {@link ImageData}, and therefore 
 	 * should not be reused across viewers.
@@ -143,6 +156,13 @@ public class HierarchyOverlay extends AbstractOverlay {
 	}
 	
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * When detections are painted from cached tiles, {@code paintCompletely} only causes this method to wait for
+	 * missing tiles if it is called from a background thread (e.g. by a {@link qupath.lib.gui.images.servers.RenderedImageServer}).
+	 * On the JavaFX application thread, any available tiles are painted immediately.
+	 */
 	@Override
 	public void paintOverlay(final Graphics2D g2d, final ImageRegion imageRegion, final double downsampleFactor, final ImageData<BufferedImage> imageData, final boolean paintCompletely) {
 		
@@ -266,9 +286,11 @@ public class HierarchyOverlay extends AbstractOverlay {
 					}
 				}
 			} else {
-				// If the image hasn't been updated, then we are viewing the stationary image - we want to wait for a full repaint then to avoid flickering;
-				// On the other hand, if a large image has been updated then we may be browsing quickly - better to repaint quickly while tiles may still be loading
-				if (paintCompletely) {
+				// Only wait for all tiles when rendering off the application thread, e.g. for a RenderedImageServer used to export
+				// an image or snapshot. The viewer always paints on the application thread, and there we never wait, since rasterizing
+				// tiles with many detections can be slow - stale tiles are kept while they are refreshed, and missing tiles are painted
+				// when they become available.
+				if (paintCompletely && !Platform.isFxApplicationThread()) {
 					regionStore.paintRegionCompletely(overlayServer, g2d, shapeRegion, z, t, downsampleFactor, null, null, 5000);
 				}
 				else {
@@ -488,6 +510,8 @@ public class HierarchyOverlay extends AbstractOverlay {
 	 * Clear previously-cached tiles for this overlay.
 	 */
 	public void clearCachedOverlay() {
+		if (overlayServer != null)
+			overlayServer.clearCachedDensityGrids();
 		if (regionStore != null && overlayServer != null)
 			regionStore.clearCacheForServer(overlayServer);
 	}
@@ -501,6 +525,51 @@ public class HierarchyOverlay extends AbstractOverlay {
 			regionStore.clearCacheForRequestOverlap(RegionRequest.createInstance(overlayServer.getPath(), 1, region));
 	}
 
+	/**
+	 * Regenerate previously-cached tiles for this overlay in the background, e.g. because objects have changed.
+	 * Unlike {@link #clearCachedOverlay()}, the existing tiles continue to be painted until their replacements are available.
+	 */
+	public void refreshCachedOverlay() {
+		if (overlayServer != null)
+			overlayServer.invalidateDensityGrids(null);
+		if (regionStore != null && overlayServer != null)
+			regionStore.refreshCacheForServer(overlayServer);
+	}
+
+	/**
+	 * Regenerate previously-cached tiles for this overlay that overlap any of the specified regions, in the background.
+	 * Other tiles are unchanged, and stale tiles continue to be painted until their replacements are available.
+	 * @param regions the regions that have changed
+	 */
+	public void refreshCachedOverlayForRegions(Collection<? extends ImageRegion> regions) {
+		if (regionStore == null || overlayServer == null || regions.isEmpty())
+			return;
+		overlayServer.invalidateDensityGrids(regions);
+		if (regions.size() > MAX_REFRESH_REGIONS) {
+			// Avoid testing every tile against every region, at the cost of refreshing more tiles than needed
+			regions = regions.stream()
+					.collect(Collectors.groupingBy(ImageRegion::getImagePlane))
+					.values()
+					.stream()
+					.map(HierarchyOverlay::getUnion)
+					.toList();
+		}
+		regionStore.refreshCacheForRegions(overlayServer, regions, REFRESH_PADDING);
+	}
+
+	private static ImageRegion getUnion(Collection<? extends ImageRegion> regions) {
+		int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+		int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+		for (var region : regions) {
+			minX = Math.min(minX, region.getMinX());
+			minY = Math.min(minY, region.getMinY());
+			maxX = Math.max(maxX, region.getMaxX());
+			maxY = Math.max(maxY, region.getMaxY());
+		}
+		var first = regions.iterator().next();
+		return ImageRegion.createInstance(minX, minY, maxX - minX, maxY - minY, first.getZ(), first.getT());
+	}
+
 	
 	/**
 	 * Comparator that makes use of levels, not only location.
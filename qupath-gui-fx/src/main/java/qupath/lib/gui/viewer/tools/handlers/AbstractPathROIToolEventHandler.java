@@ -219,15 +219,11 @@ abstract class AbstractPathROIToolEventHandler extends AbstractPathToolEventHand
 			}
 			if (!toSelect.isEmpty() && pathClass != null) {
 				boolean retainIntensityClass = !(PathClassTools.isPositiveOrGradedIntensityClass(pathClass) || PathClassTools.isNegativeClass(pathClass));
-				var reclassified = toSelect.stream()
+				var reclassifiers = toSelect.stream()
 						.filter(p -> p.getPathClass() != pathClass)
 						.map(p -> new Reclassifier(p, pathClass, retainIntensityClass))
-						.filter(Reclassifier::apply)
-						.map(Reclassifier::getPathObject)
 						.toList();
-				if (!reclassified.isEmpty()) {
-					hierarchy.fireObjectClassificationsChangedEvent(this, reclassified);
-				}
+				Reclassifier.applyAll(hierarchy, this, reclassifiers);
 			}
 			if (pathObject.getParent() != null)
 				hierarchy.removeObject(pathObject, true);
@@ -0,0 +1,162 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.display;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import qupath.lib.color.ColorModelFactory;
+import qupath.lib.common.ColorTools;
+import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.ImageChannel;
+import qupath.lib.images.servers.PixelType;
+import qupath.lib.images.servers.WrappedBufferedImageServer;
+
+import java.awt.image.BandedSampleModel;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class TestAdditiveChannelRenderer {
+
+	@ParameterizedTest
+	@EnumSource(value = PixelType.class, names = {"UINT8", "UINT16", "INT16", "INT32", "FLOAT32", "FLOAT64"})
+	public void testBandedMatchesChannels(PixelType pixelType) {
+		var img = createImage(pixelType, 64, 48, 4, true);
+		var channels = createChannels(img, pixelType);
+		for (var mode : ChannelDisplayMode.values())
+			assertRenderMatches(img, channels, mode);
+	}
+
+	@ParameterizedTest
+	@EnumSource(value = PixelType.class, names = {"UINT8", "UINT16", "FLOAT32"})
+	public void testInterleavedMatchesChannels(PixelType pixelType) {
+		var img = createImage(pixelType, 50, 30, 3, false);
+		var channels = createChannels(img, pixelType);
+		for (var mode : ChannelDisplayMode.values())
+			assertRenderMatches(img, channels, mode);
+	}
+
+	@Test
+	public void testParallelMatchesChannels() {
+		// Large enough to be split across threads
+		var img = createImage(PixelType.UINT16, 512, 301, 8, true);
+		var channels = createChannels(img, PixelType.UINT16);
+		assertRenderMatches(img, channels, ChannelDisplayMode.COLOR);
+	}
+
+	@Test
+	public void testCanRender() {
+		var img = createImage(PixelType.UINT8, 16, 16, 3, true);
+		var channels = createChannels(img, PixelType.UINT8);
+		assertTrue(AdditiveChannelRenderer.canRender(img, channels));
+		assertFalse(AdditiveChannelRenderer.canRender(img, List.of()));
+
+		var imgRGB = new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+		assertFalse(AdditiveChannelRenderer.canRender(imgRGB, channels));
+
+		var imgFewer = createImage(PixelType.UINT8, 16, 16, 2, true);
+		assertFalse(AdditiveChannelRenderer.canRender(imgFewer, channels));
+	}
+
+	private static void assertRenderMatches(BufferedImage img, List<DirectServerChannelInfo> channels, ChannelDisplayMode mode) {
+		int width = img.getWidth();
+		int height = img.getHeight();
+		assertTrue(AdditiveChannelRenderer.canRender(img, channels));
+		var imgOutput = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		AdditiveChannelRenderer.render(img, imgOutput, channels, mode);
+		int[] actual = imgOutput.getRGB(0, 0, width, height, null, 0, width);
+
+		// Render each channel separately, as in ImageDisplay.applyTransforms
+		int[] expected = new int[width * height];
+		channels.getFirst().getRGB(img, expected, mode);
+		for (var channel : channels.subList(1, channels.size()))
+			channel.updateRGBAdditive(img, expected, mode);
+		for (int i = 0; i < expected.length; i++) {
+			int val = expected[i];
+			if (mode.invertColors())
+				val = ColorTools.packRGB(255 - ColorTools.red(val), 255 - ColorTools.green(val), 255 - ColorTools.blue(val));
+			expected[i] = val | ColorTools.MASK_ALPHA;
+		}
+		assertArrayEquals(expected, actual, "Mismatch for " + mode);
+	}
+
+	private static BufferedImage createImage(PixelType pixelType, int width, int height, int nChannels, boolean banded) {
+		int dataType = switch (pixelType) {
+			case UINT8 -> DataBuffer.TYPE_BYTE;
+			case UINT16 -> DataBuffer.TYPE_USHORT;
+			case INT16 -> DataBuffer.TYPE_SHORT;
+			case INT32 -> DataBuffer.TYPE_INT;
+			case FLOAT32 -> DataBuffer.TYPE_FLOAT;
+			case FLOAT64 -> DataBuffer.TYPE_DOUBLE;
+			default -> throw new IllegalArgumentException("Unsupported pixel type " + pixelType);
+		};
+		int[] bandOffsets = IntStream.range(0, nChannels).toArray();
+		var sampleModel = banded ?
+				new BandedSampleModel(dataType, width, height, nChannels) :
+				new PixelInterleavedSampleModel(dataType, width, height, nChannels, width * nChannels, bandOffsets);
+		var raster = Raster.createWritableRaster(sampleModel, null);
+		var rand = new Random(pixelType.ordinal() * 100 + nChannels);
+		double max = pixelType.isFloatingPoint() ? 1000 : Math.min(pixelType.getUpperBound().doubleValue(), 5000);
+		double min = pixelType.isSignedInteger() ? -max : 0;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				for (int c = 0; c < nChannels; c++)
+					raster.setSample(x, y, c, min + rand.nextDouble() * (max - min));
+			}
+		}
+		var cm = ColorModelFactory.createColorModel(pixelType, ImageChannel.getDefaultChannelList(nChannels));
+		return new BufferedImage(cm, raster, false, null);
+	}
+
+	private static List<DirectServerChannelInfo> createChannels(BufferedImage img, PixelType pixelType) {
+		int nChannels = img.getRaster().getNumBands();
+		var imageData = new ImageData<>(new WrappedBufferedImageServer("Test", img, ImageChannel.getDefaultChannelList(nChannels)));
+		var rand = new Random(nChannels);
+		List<DirectServerChannelInfo> channels = new ArrayList<>();
+		for (int c = 0; c < nChannels; c++) {
+			var channel = new DirectServerChannelInfo(imageData, c);
+			channel.setLUTColor(rand.nextInt(256), rand.nextInt(256), rand.nextInt(256));
+			float minDisplay = (float)(pixelType.isSignedInteger() ? -100 : 10 * c);
+			float maxDisplay = pixelType == PixelType.UINT8 ? 200 - c : 800 + 100 * c;
+			// Include a channel with a display range of 0, which should be skipped when added
+			if (c == 2)
+				maxDisplay = minDisplay;
+			channel.setMinMaxAllowed(-10000, 10000);
+			channel.setMinDisplay(minDisplay);
+			channel.setMaxDisplay(maxDisplay);
+			channels.add(channel);
+		}
+		return channels;
+	}
+
+}
@@ -0,0 +1,208 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.display;
+
+import org.junit.jupiter.api.Test;
+import qupath.lib.analysis.stats.Histogram;
+import qupath.lib.color.ColorModelFactory;
+import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.ImageChannel;
+import qupath.lib.images.servers.PixelType;
+import qupath.lib.images.servers.WrappedBufferedImageServer;
+import qupath.lib.regions.RegionRequest;
+
+import java.awt.image.BandedSampleModel;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class TestStreamingHistogram {
+
+	@Test
+	public void testEmpty() {
+		var histogram = new StreamingHistogram(16, true);
+		histogram.addValues(new float[] {Float.NaN, Float.POSITIVE_INFINITY}, 1);
+		assertEquals(0, histogram.nValues());
+		assertNull(histogram.toHistogram());
+		assertTrue(Double.isNaN(histogram.getMinValue()));
+	}
+
+	@Test
+	public void testIntegerCountsExact() {
+		var histogram = new StreamingHistogram(256, true);
+		histogram.addValues(new float[] {10, 10, 11, 15}, 1);
+		histogram.addValues(new float[] {12, 15, 15}, 1);
+		var hist = histogram.toHistogram();
+		assertEquals(6, hist.nBins());
+		assertEquals(10, hist.getEdgeMin());
+		assertEquals(16, hist.getEdgeMax());
+		assertEquals(2, hist.getCountsForBin(0));
+		assertEquals(1, hist.getCountsForBin(1));
+		assertEquals(1, hist.getCountsForBin(2));
+		assertEquals(0, hist.getCountsForBin(3));
+		assertEquals(3, hist.getCountsForBin(5));
+		assertEquals(7, hist.getCountSum());
+		assertTrue(histogram.isInteger());
+	}
+
+	@Test
+	public void testExpandRange() {
+		var histogram = new StreamingHistogram(64, true);
+		var rand = new Random(100);
+		long n = 0;
+		for (int i = 0; i < 10; i++) {
+			// Values spread over an increasingly large range, in both directions
+			float[] values = new float[1000];
+			double scale = Math.pow(4, i);
+			for (int j = 0; j < values.length; j++)
+				values[j] = (float)Math.round((rand.nextDouble() - 0.4) * scale);
+			histogram.addValues(values, 1);
+			n += values.length;
+			var hist = histogram.toHistogram();
+			assertEquals(n, hist.getCountSum());
+			assertTrue(hist.nBins() <= 64);
+			assertTrue(hist.getEdgeMin() <= histogram.getMinValue());
+			assertTrue(hist.getEdgeMax() > histogram.getMaxValue());
+		}
+	}
+
+	@Test
+	public void testFloatValues() {
+		var histogram = new StreamingHistogram(100, true);
+		histogram.addValues(new float[] {1, 2, 3}, 1);
+		histogram.addValues(new float[] {0.5f, 2.5f, -1.25f}, 1);
+		assertFalse(histogram.isInteger());
+		assertEquals(-1.25, histogram.getMinValue());
+		assertEquals(3, histogram.getMaxValue());
+		var hist = histogram.toHistogram();
+		assertEquals(6, hist.getCountSum());
+		assertTrue(hist.getEdgeMin() <= -1.25);
+	}
+
+	@Test
+	public void testStride() {
+		var histogram = new StreamingHistogram(16, true);
+		histogram.addValues(new float[] {1, 2, 3, 4, 5, 6, 7}, 3);
+		assertEquals(3, histogram.nValues());
+		assertEquals(7, histogram.getMaxValue());
+	}
+
+	@Test
+	public void testJson() {
+		var histogram = new StreamingHistogram(128, true);
+		var rand = new Random(1);
+		float[] values = new float[5000];
+		for (int i = 0; i < values.length; i++)
+			values[i] = (float)(rand.nextGaussian() * 100 + 1000);
+		histogram.addValues(values, 1);
+		var histogram2 = StreamingHistogram.fromJson(histogram.toJson());
+		assertHistogramsEqual(histogram.toHistogram(), histogram2.toHistogram());
+
+		assertNull(StreamingHistogram.fromJson(new StreamingHistogram(8, true).toJson()).toHistogram());
+		var badJson = histogram.toJson();
+		badJson.addProperty("firstBin", 127);
+		assertThrows(IllegalArgumentException.class, () -> StreamingHistogram.fromJson(badJson));
+	}
+
+	@Test
+	public void testManagerCountsRegionsOnce() {
+		var img = createImage(64, 32);
+		var server = new WrappedBufferedImageServer("Test", img, ImageChannel.getDefaultChannelList(2));
+		var imageData = new ImageData<>(server);
+		var channels = List.of(new DirectServerChannelInfo(imageData, 0), new DirectServerChannelInfo(imageData, 1));
+
+		var manager = new HistogramManager(server.getPath(), 1.0);
+		var left = RegionRequest.createInstance(server.getPath(), 1.0, 0, 0, 32, 32);
+		var right = RegionRequest.createInstance(server.getPath(), 1.0, 32, 0, 32, 32);
+		assertTrue(manager.addImage(server, channels, left, img.getSubimage(0, 0, 32, 32)));
+		assertFalse(manager.addImage(server, channels, left, img.getSubimage(0, 0, 32, 32)));
+		assertFalse(manager.acceptsRegion(left));
+		assertFalse(manager.acceptsRegion(RegionRequest.createInstance(server.getPath(), 2.0, 0, 0, 64, 32)));
+		assertFalse(manager.acceptsRegion(RegionRequest.createInstance("Other", 1.0, 32, 0, 32, 32)));
+		assertTrue(manager.addImage(server, channels, right, img.getSubimage(32, 0, 32, 32)));
+
+		// Streamed histograms should match those computed from the full image
+		for (var channel : channels) {
+			var hist = manager.getHistogram(server, channel);
+			var expected = new StreamingHistogram(4096, true);
+			expected.addValues(channel.getValues(img, 0, 0, img.getWidth(), img.getHeight(), null), 1);
+			assertHistogramsEqual(expected.toHistogram(), hist);
+		}
+
+		// Histograms should be restored from JSON, and still remember which regions were added
+		long version = manager.getVersion();
+		var manager2 = HistogramManager.fromJson(manager.toJson());
+		assertEquals(server.getPath(), manager2.getServerPath());
+		assertFalse(manager2.acceptsRegion(right));
+		for (var channel : channels)
+			assertHistogramsEqual(manager.getHistogram(server, channel), manager2.getHistogram(server, channel));
+		assertEquals(version, manager.getVersion());
+	}
+
+	@Test
+	public void testManagerFullPlane() {
+		var img = createImage(40, 30);
+		var server = new WrappedBufferedImageServer("Test", img, ImageChannel.getDefaultChannelList(2));
+		var imageData = new ImageData<>(server);
+		var channels = List.of(new DirectServerChannelInfo(imageData, 0));
+		var manager = new HistogramManager(server.getPath(), 1.0);
+		var request = HistogramManager.createPlaneRequest(server, 1.0);
+		assertTrue(manager.addImage(server, channels, request, img));
+		// Tiles within a plane that has already been added should be skipped
+		assertFalse(manager.acceptsRegion(RegionRequest.createInstance(server.getPath(), 1.0, 0, 0, 20, 20)));
+		var hist = manager.getHistogram(server, channels.getFirst());
+		assertNotNull(hist);
+		assertEquals(40 * 30, hist.getCountSum());
+	}
+
+	private static void assertHistogramsEqual(Histogram expected, Histogram actual) {
+		assertEquals(expected.nBins(), actual.nBins());
+		assertEquals(expected.getEdgeMin(), actual.getEdgeMin(), 1e-9);
+		assertEquals(expected.getEdgeMax(), actual.getEdgeMax(), 1e-9);
+		for (int i = 0; i < expected.nBins(); i++)
+			assertEquals(expected.getCountsForBin(i), actual.getCountsForBin(i));
+	}
+
+	private static BufferedImage createImage(int width, int height) {
+		var raster = Raster.createWritableRaster(new BandedSampleModel(DataBuffer.TYPE_USHORT, width, height, 2), null);
+		var rand = new Random(width * height);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				raster.setSample(x, y, 0, rand.nextInt(200));
+				raster.setSample(x, y, 1, rand.nextInt(10000));
+			}
+		}
+		var cm = ColorModelFactory.createColorModel(PixelType.UINT16, ImageChannel.getDefaultChannelList(2));
+		return new BufferedImage(cm, raster, false, null);
+	}
+
+}
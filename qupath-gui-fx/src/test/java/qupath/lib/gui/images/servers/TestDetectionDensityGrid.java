@@ -0,0 +1,193 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.gui.images.servers;
+
+import org.junit.jupiter.api.Test;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.roi.ROIs;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class TestDetectionDensityGrid {
+
+	private static final int RED = 0xFFFF0000;
+	private static final int BLUE = 0xFF0000FF;
+
+	@Test
+	public void testCounts() {
+		List<PathObject> detections = new ArrayList<>();
+		// 3 detections in the first bin, 1 in the last
+		detections.add(createDetection(10, 10, null));
+		detections.add(createDetection(20, 50, null));
+		detections.add(createDetection(90, 90, null));
+		detections.add(createDetection(950, 950, null));
+		// Outside the image, so shouldn't be counted
+		detections.add(createDetection(1500, 10, null));
+
+		var grid = DetectionDensityGrid.build(detections, 1000, 1000, 100, p -> RED);
+		assertEquals(100, grid.getBinSize());
+		assertEquals(3, grid.getCount(0, 0));
+		assertEquals(1, grid.getCount(999, 999));
+		assertEquals(0, grid.getCount(500, 500));
+		assertEquals(0, grid.getCount(-10, 0));
+		assertEquals(3, grid.getMaxCount());
+
+		// The densest bin should be opaque, empty bins transparent
+		assertEquals(RED, grid.getARGB(50, 50));
+		assertEquals(0, grid.getARGB(500, 500));
+		int alpha = grid.getARGB(950, 950) >>> 24;
+		assertEquals(64 + Math.round(191 * Math.sqrt(1.0 / 3.0)), alpha);
+	}
+
+	@Test
+	public void testAverageColor() {
+		var red = PathClass.getInstance("Red", RED);
+		var blue = PathClass.getInstance("Blue", BLUE);
+		List<PathObject> detections = List.of(
+				createDetection(10, 10, red),
+				createDetection(20, 20, blue),
+				createDetection(150, 10, blue),
+				createDetection(160, 10, null)
+				);
+		var grid = DetectionDensityGrid.build(detections, 200, 100, 100, p -> {
+			var pathClass = p.getPathClass();
+			return pathClass == null ? DetectionDensityGrid.NO_COLOR : pathClass.getColor();
+		});
+		// Unclassified detection shouldn't be counted
+		assertEquals(2, grid.getCount(50, 50));
+		assertEquals(1, grid.getCount(150, 50));
+		assertEquals(0xFF7F007F, grid.getARGB(50, 50));
+		assertEquals(BLUE & 0x00FFFFFF, grid.getARGB(150, 50) & 0x00FFFFFF);
+	}
+
+	@Test
+	public void testPaint() {
+		List<PathObject> detections = List.of(
+				createDetection(10, 10, null),
+				createDetection(310, 10, null)
+				);
+		var grid = DetectionDensityGrid.build(detections, 400, 100, 100, p -> RED);
+		var img = new BufferedImage(400, 100, BufferedImage.TYPE_INT_ARGB);
+		var g2d = img.createGraphics();
+		grid.paint(g2d, ImageRegion.createInstance(0, 0, 400, 100, 0, 0));
+		g2d.dispose();
+		assertEquals(RED, img.getRGB(50, 50));
+		assertEquals(0, img.getRGB(150, 50));
+		assertEquals(RED, img.getRGB(399, 99));
+
+		// Painting part of the region should only paint the bins it overlaps
+		img = new BufferedImage(400, 100, BufferedImage.TYPE_INT_ARGB);
+		g2d = img.createGraphics();
+		grid.paint(g2d, ImageRegion.createInstance(250, 0, 100, 100, 0, 0));
+		g2d.dispose();
+		assertEquals(0, img.getRGB(50, 50));
+		assertEquals(RED, img.getRGB(350, 50));
+	}
+
+	@Test
+	public void testUpdateRegion() {
+		List<PathObject> detections = List.of(
+				createDetection(10, 10, null),
+				createDetection(310, 10, null),
+				createDetection(320, 20, null)
+				);
+		var grid = new DetectionDensityGrid(ImagePlane.getDefaultPlane(), 400, 100, 100);
+		List<ImageRegion> requests = new ArrayList<>();
+		Function<ImageRegion, Collection<PathObject>> detectionFunction = r -> {
+			requests.add(r);
+			return detections.stream()
+					.filter(p -> r.intersects(p.getROI().getBoundsX(), p.getROI().getBoundsY(), p.getROI().getBoundsWidth(), p.getROI().getBoundsHeight()))
+					.toList();
+		};
+
+		// Only the bins overlapping the region should be counted
+		grid.update(ImageRegion.createInstance(0, 0, 150, 100, 0, 0), detectionFunction, p -> RED);
+		assertEquals(List.of(ImageRegion.createInstance(0, 0, 200, 100, 0, 0)), requests);
+		assertEquals(1, grid.getCount(50, 50));
+		assertEquals(0, grid.getCount(350, 50));
+
+		// Valid bins shouldn't be requested again
+		requests.clear();
+		grid.update(ImageRegion.createInstance(0, 0, 400, 100, 0, 0), detectionFunction, p -> RED);
+		assertEquals(List.of(ImageRegion.createInstance(200, 0, 200, 100, 0, 0)), requests);
+		assertEquals(1, grid.getCount(50, 50));
+		assertEquals(2, grid.getCount(350, 50));
+		assertEquals(2, grid.getMaxCount());
+		requests.clear();
+		grid.update(null, detectionFunction, p -> RED);
+		assertTrue(requests.isEmpty());
+	}
+
+	@Test
+	public void testInvalidate() {
+		List<PathObject> detections = new ArrayList<>(List.of(
+				createDetection(10, 10, null),
+				createDetection(310, 10, null)
+				));
+		var grid = DetectionDensityGrid.build(detections, 400, 100, 100, p -> RED);
+		assertEquals(1, grid.getCount(350, 50));
+
+		// Changes aren't seen until the bins are invalidated, and then only invalidated bins are counted again
+		var added = createDetection(320, 20, null);
+		detections.add(added);
+		detections.add(createDetection(20, 20, null));
+		grid.update(null, r -> detections, p -> RED);
+		assertEquals(1, grid.getCount(350, 50));
+		grid.invalidate(ImageRegion.createInstance(added.getROI()));
+		assertEquals(0, grid.getCount(350, 50));
+		grid.update(null, r -> detections, p -> RED);
+		assertEquals(2, grid.getCount(350, 50));
+		assertEquals(1, grid.getCount(50, 50));
+
+		// Regions on other planes should be ignored
+		grid.invalidate(ImageRegion.createInstance(0, 0, 400, 100, 1, 0));
+		grid.update(null, r -> List.of(), p -> RED);
+		assertEquals(2, grid.getCount(350, 50));
+
+		grid.invalidate(null);
+		grid.update(null, r -> detections, p -> RED);
+		assertEquals(2, grid.getCount(50, 50));
+	}
+
+	@Test
+	public void testInvalidBinSize() {
+		assertThrows(IllegalArgumentException.class, () -> DetectionDensityGrid.build(List.of(), 100, 100, 0, p -> RED));
+	}
+
+	private static PathObject createDetection(double x, double y, PathClass pathClass) {
+		return PathObjects.createDetectionObject(ROIs.createEllipseROI(x - 2, y - 2, 4, 4, ImagePlane.getDefaultPlane()), pathClass);
+	}
+
+}
@@ -0,0 +1,357 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.gui.images.stores;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import qupath.lib.images.servers.AbstractTileableImageServer;
+import qupath.lib.images.servers.GeneratingImageServer;
+import qupath.lib.images.servers.ImageChannel;
+import qupath.lib.images.servers.ImageServerBuilder;
+import qupath.lib.images.servers.ImageServerMetadata;
+import qupath.lib.images.servers.PixelType;
+import qupath.lib.images.servers.TileRequest;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.regions.RegionRequest;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.net.URI;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class TestDefaultImageRegionStore {
+
+	private DefaultImageRegionStore store;
+	private ValueServer server;
+
+	@BeforeEach
+	public void setUp() {
+		store = new DefaultImageRegionStore(64L * 1024 * 1024);
+		server = new ValueServer();
+	}
+
+	@AfterEach
+	public void tearDown() {
+		store.close();
+	}
+
+	@Test
+	public void testRefreshKeepsStaleTile() throws Exception {
+		var request = RegionRequest.createInstance(server.getPath(), 1, 0, 0, 256, 256);
+		var imgOriginal = awaitTile(request, 1);
+
+		server.value.set(2);
+		store.refreshCacheForRegions(server, List.of(ImageRegion.createInstance(10, 10, 5, 5, 0, 0)), 0);
+
+		// Until the replacement arrives, we should still have a tile to paint
+		var imgNext = store.getCachedRegion(server, request);
+		assertNotNull(imgNext);
+		assertTrue(imgNext == imgOriginal || getValue(imgNext) == 2);
+
+		awaitTile(request, 2);
+	}
+
+	@Test
+	public void testRefreshOnlyOverlappingTiles() throws Exception {
+		var request = RegionRequest.createInstance(server.getPath(), 1, 0, 0, 256, 256);
+		var requestOther = RegionRequest.createInstance(server.getPath(), 1, 512, 512, 256, 256);
+		awaitTile(request, 1);
+		var imgOther = awaitTile(requestOther, 1);
+		int nReads = server.nReads.get();
+
+		server.value.set(2);
+		store.refreshCacheForRegions(server, List.of(ImageRegion.createInstance(10, 10, 5, 5, 0, 0)), 0);
+		awaitTile(request, 2);
+
+		assertEquals(nReads + 1, server.nReads.get());
+		assertSame(imgOther, store.getCachedTile(server, requestOther));
+	}
+
+	@Test
+	public void testRefreshWithPadding() throws Exception {
+		var request = RegionRequest.createInstance(server.getPath(), 4, 0, 0, 1024, 1024);
+		awaitTile(request, 1);
+
+		// Region is outside the tile, but within the padding at this downsample
+		server.value.set(2);
+		store.refreshCacheForRegions(server, List.of(ImageRegion.createInstance(1030, 10, 5, 5, 0, 0)), 0);
+		assertEquals(1, getValue(awaitTile(request, 1)));
+		store.refreshCacheForRegions(server, List.of(ImageRegion.createInstance(1030, 10, 5, 5, 0, 0)), 2);
+		awaitTile(request, 2);
+	}
+
+	@Test
+	public void testRefreshVersions() throws Exception {
+		var request = RegionRequest.createInstance(server.getPath(), 1, 0, 0, 256, 256);
+		awaitTile(request, 1);
+		assertEquals(0, store.getTileVersion(request));
+
+		// Repeated refreshes should result in the latest tile, even if earlier requests complete afterwards
+		server.delayMillis = 20;
+		for (int i = 2; i <= 5; i++) {
+			server.value.set(i);
+			store.refreshCacheForServer(server);
+		}
+		awaitTile(request, 5);
+		assertEquals(0, store.getTileVersion(request));
+	}
+
+	@Test
+	public void testRefreshEmptiedTile() throws Exception {
+		var request = RegionRequest.createInstance(server.getPath(), 1, 0, 0, 256, 256);
+		awaitTile(request, 1);
+
+		var removed = new ConcurrentHashMap<RegionRequest, Boolean>();
+		store.addTileListener(new TileListener<>() {
+			@Override
+			public void tileAvailable(String serverPath, ImageRegion region, BufferedImage tile) {
+				if (tile == null)
+					removed.put((RegionRequest)region, Boolean.TRUE);
+			}
+
+			@Override
+			public boolean requiresTileRegion(String serverPath, ImageRegion region) {
+				return true;
+			}
+		});
+		server.value.set(0);
+		store.refreshCacheForServer(server);
+		long startTime = System.currentTimeMillis();
+		while (!removed.containsKey(request) && System.currentTimeMillis() - startTime < 5000)
+			Thread.sleep(5);
+		assertTrue(removed.containsKey(request));
+		assertNull(store.getCachedTile(server, request));
+	}
+
+	@Test
+	public void testDisplayTilesRenderedInBackground() throws Exception {
+		server = new ValueServer(PixelType.UINT16);
+		var request = RegionRequest.createInstance(server.getPath(), 1, 0, 0, 256, 256);
+		awaitTile(request, 1);
+
+		var renderer = new ColorRenderer(0xFF0000);
+		var rendered = new ConcurrentHashMap<RegionRequest, BufferedImage>();
+		store.addTileListener(new TileListener<>() {
+			@Override
+			public void tileAvailable(String serverPath, ImageRegion region, BufferedImage tile) {
+				rendered.put((RegionRequest)region, tile);
+			}
+
+			@Override
+			public boolean requiresTileRegion(String serverPath, ImageRegion region) {
+				return true;
+			}
+		});
+
+		// Without an earlier display tile, we need to render immediately
+		assertEquals(0xFF0000, paintAndGetRGB(renderer));
+		assertEquals(1, renderer.nRendered.get());
+
+		// After changing the display, the earlier tile should be painted until the new one is available
+		renderer.setColor(0x00FF00);
+		assertEquals(0xFF0000, paintAndGetRGB(renderer));
+		long startTime = System.currentTimeMillis();
+		while (rendered.isEmpty() && System.currentTimeMillis() - startTime < 5000)
+			Thread.sleep(5);
+		// Display tiles should be identified by their cache path, so they aren't mistaken for raw pixels
+		var requestDisplay = rendered.keySet().stream().findFirst().orElseThrow();
+		assertNotEquals(server.getPath(), requestDisplay.getPath());
+		assertTrue(requestDisplay.getPath().contains(server.getPath()));
+		assertEquals(request.getX(), requestDisplay.getX());
+		assertEquals(request.getWidth(), requestDisplay.getWidth());
+		assertEquals(0x00FF00, paintAndGetRGB(renderer));
+		assertEquals(2, renderer.nRendered.get());
+
+		// Restoring the original settings should reuse the original display tile
+		renderer.setColor(0xFF0000);
+		assertEquals(0xFF0000, paintAndGetRGB(renderer));
+		assertEquals(2, renderer.nRendered.get());
+	}
+
+	@Test
+	public void testDisplayTilePriority() {
+		var older = new DefaultImageRegionStore.DisplayTilePriority(1, 0);
+		var farther = new DefaultImageRegionStore.DisplayTilePriority(2, 100);
+		var nearer = new DefaultImageRegionStore.DisplayTilePriority(2, 10);
+		var queue = new PriorityBlockingQueue<>(List.of(older, farther, nearer));
+		// The most recent repaint comes first, starting from the centre of the view
+		assertSame(nearer, queue.poll());
+		assertSame(farther, queue.poll());
+		assertSame(older, queue.poll());
+	}
+
+	private int paintAndGetRGB(ImageRenderer renderer) {
+		var img = new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB);
+		var g2d = img.createGraphics();
+		store.paintRegion(server, g2d, new Rectangle(0, 0, 256, 256), 0, 0, 1, null, null, renderer);
+		g2d.dispose();
+		return img.getRGB(128, 128) & 0xFFFFFF;
+	}
+
+	private BufferedImage awaitTile(RegionRequest request, int value) throws InterruptedException {
+		long startTime = System.currentTimeMillis();
+		while (System.currentTimeMillis() - startTime < 5000) {
+			var img = store.getCachedRegion(server, request);
+			if (img != null && getValue(img) == value)
+				return img;
+			Thread.sleep(5);
+		}
+		throw new AssertionError("Timed out waiting for tile " + request + " with value " + value);
+	}
+
+	private static int getValue(BufferedImage img) {
+		return img.getRaster().getSample(0, 0, 0);
+	}
+
+
+	/**
+	 * Renderer that fills images with a single color, with an ID that depends only on the color.
+	 */
+	private static class ColorRenderer extends AbstractImageRenderer {
+
+		private final AtomicInteger nRendered = new AtomicInteger();
+		private final AtomicLong timestamp = new AtomicLong();
+		private volatile int rgb;
+
+		private ColorRenderer(int rgb) {
+			this.rgb = rgb;
+		}
+
+		private void setColor(int rgb) {
+			this.rgb = rgb;
+			timestamp.incrementAndGet();
+		}
+
+		@Override
+		public BufferedImage applyTransforms(BufferedImage imgInput, BufferedImage imgOutput) {
+			nRendered.incrementAndGet();
+			var img = new BufferedImage(imgInput.getWidth(), imgInput.getHeight(), BufferedImage.TYPE_INT_RGB);
+			var g2d = img.createGraphics();
+			g2d.setColor(new Color(rgb));
+			g2d.fillRect(0, 0, img.getWidth(), img.getHeight());
+			g2d.dispose();
+			return img;
+		}
+
+		@Override
+		public long getLastChangeTimestamp() {
+			return timestamp.get();
+		}
+
+		@Override
+		public String getUniqueID() {
+			return "ColorRenderer:" + rgb;
+		}
+
+	}
+
+
+	/**
+	 * Server that generates tiles filled with a single value, or returns null if the value is 0.
+	 */
+	private static class ValueServer extends AbstractTileableImageServer implements GeneratingImageServer<BufferedImage> {
+
+		private final AtomicInteger value = new AtomicInteger(1);
+		private final AtomicInteger nReads = new AtomicInteger();
+		private volatile long delayMillis = 0;
+
+		private final ImageServerMetadata metadata;
+
+		private ValueServer() {
+			this(PixelType.UINT8);
+		}
+
+		private ValueServer(PixelType pixelType) {
+			metadata = new ImageServerMetadata.Builder()
+					.width(4096)
+					.height(4096)
+					.channels(ImageChannel.getDefaultChannelList(1))
+					.pixelType(pixelType)
+					.preferredTileSize(256, 256)
+					.levelsFromDownsamples(1, 4)
+					.build();
+		}
+
+		@Override
+		protected BufferedImage readTile(TileRequest tileRequest) {
+			nReads.incrementAndGet();
+			int v = value.get();
+			if (delayMillis > 0) {
+				try {
+					Thread.sleep(delayMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			if (v == 0)
+				return null;
+			var img = new BufferedImage(tileRequest.getTileWidth(), tileRequest.getTileHeight(), BufferedImage.TYPE_BYTE_GRAY);
+			var raster = img.getRaster();
+			for (int y = 0; y < img.getHeight(); y++)
+				for (int x = 0; x < img.getWidth(); x++)
+					raster.setSample(x, y, 0, v);
+			return img;
+		}
+
+		@Override
+		protected ImageServerBuilder.ServerBuilder<BufferedImage> createServerBuilder() {
+			return null;
+		}
+
+		@Override
+		protected String createID() {
+			return getClass().getName() + ": " + System.identityHashCode(this);
+		}
+
+		@Override
+		public Collection<URI> getURIs() {
+			return List.of();
+		}
+
+		@Override
+		public String getServerType() {
+			return "Value server";
+		}
+
+		@Override
+		public ImageServerMetadata getOriginalMetadata() {
+			return metadata;
+		}
+
+	}
+
+}
@@ -0,0 +1,59 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.gui.images.stores;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SuppressWarnings("javadoc")
+public class TestImageRegionStoreFactory {
+
+	private static final long MB = 1024L * 1024L;
+	private static final long GB = 1024L * MB;
+
+	@Test
+	public void testClampOffHeapTileCacheSize() {
+		// Plenty of memory, so the requested size is used
+		assertEquals(1 * GB, ImageRegionStoreFactory.clampOffHeapTileCacheSize(1 * GB, 8 * GB, 32 * GB, -1));
+		// 16 GB RAM with a 12 GB heap leaves at most 2 GB for the off-heap cache
+		assertEquals(2 * GB, ImageRegionStoreFactory.clampOffHeapTileCacheSize(4 * GB, 12 * GB, 16 * GB, -1));
+		// Heap larger than physical memory
+		assertEquals(0, ImageRegionStoreFactory.clampOffHeapTileCacheSize(1 * GB, 16 * GB, 8 * GB, -1));
+		// Explicit -XX:MaxDirectMemorySize
+		assertEquals(256 * MB, ImageRegionStoreFactory.clampOffHeapTileCacheSize(1 * GB, 8 * GB, 32 * GB, 256 * MB));
+		// Unknown physical memory and no maximum heap
+		assertEquals(1 * GB, ImageRegionStoreFactory.clampOffHeapTileCacheSize(1 * GB, Long.MAX_VALUE, -1, -1));
+		assertEquals(8 * GB, ImageRegionStoreFactory.clampOffHeapTileCacheSize(16 * GB, Long.MAX_VALUE, 16 * GB, -1));
+	}
+
+	@Test
+	public void testParseMemorySize() {
+		assertEquals(1024, ImageRegionStoreFactory.parseMemorySize("1024"));
+		assertEquals(64 * 1024, ImageRegionStoreFactory.parseMemorySize("64k"));
+		assertEquals(512 * MB, ImageRegionStoreFactory.parseMemorySize("512m"));
+		assertEquals(4 * GB, ImageRegionStoreFactory.parseMemorySize("4G"));
+		assertEquals(-1, ImageRegionStoreFactory.parseMemorySize("lots"));
+		assertEquals(-1, ImageRegionStoreFactory.parseMemorySize(""));
+	}
+
+}
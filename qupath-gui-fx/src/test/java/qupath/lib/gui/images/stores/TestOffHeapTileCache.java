@@ -0,0 +1,195 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.gui.images.stores;
+
+import org.junit.jupiter.api.Test;
+import qupath.lib.regions.RegionRequest;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class TestOffHeapTileCache {
+
+	@Test
+	public void testRoundTrip() {
+		var cache = new OffHeapTileCache(16 * 1024 * 1024);
+		try {
+			for (int type : new int[] {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR,
+					BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_USHORT_GRAY}) {
+				var img = createImage(256, 200, type);
+				var request = createRequest(type);
+				assertTrue(cache.put(request, img));
+				assertTrue(cache.containsKey(request));
+
+				var result = cache.take(request);
+				assertNotNull(result);
+				assertFalse(cache.containsKey(request));
+				assertPixelsEqual(img, result);
+			}
+			assertEquals(0, cache.size());
+			assertEquals(0, cache.getSizeBytes());
+		} finally {
+			cache.close();
+		}
+	}
+
+	@Test
+	public void testBandedRoundTrip() {
+		var cache = new OffHeapTileCache(16 * 1024 * 1024);
+		try {
+			// Banded rasters store each channel in a separate bank
+			var raster = Raster.createBandedRaster(DataBuffer.TYPE_BYTE, 100, 50, 3, null);
+			var rng = new Random(1);
+			for (int b = 0; b < 3; b++)
+				for (int y = 0; y < raster.getHeight(); y++)
+					for (int x = 0; x < raster.getWidth(); x++)
+						raster.setSample(x, y, b, rng.nextInt(256));
+			var colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB),
+					false, false, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+			var img = new BufferedImage(colorModel, raster, false, null);
+			var request = createRequest(0);
+			assertTrue(cache.put(request, img));
+			var result = cache.take(request);
+			assertEquals(3, result.getRaster().getDataBuffer().getNumBanks());
+			assertPixelsEqual(img, result);
+		} finally {
+			cache.close();
+		}
+	}
+
+	@Test
+	public void testEviction() {
+		// Each 256x256 RGB image needs 256 KB
+		int tileBytes = 256 * 256 * 4;
+		var cache = new OffHeapTileCache(tileBytes * 4L);
+		try {
+			for (int i = 0; i < 10; i++) {
+				assertTrue(cache.put(createRequest(i), createImage(256, 256, BufferedImage.TYPE_INT_RGB)));
+				assertTrue(cache.getSizeBytes() <= cache.getMaxSizeBytes());
+			}
+			assertEquals(4, cache.size());
+			assertEquals(6, cache.getEvictionCount());
+			// Least recently used tiles are evicted first
+			assertFalse(cache.containsKey(createRequest(5)));
+			assertTrue(cache.containsKey(createRequest(6)));
+
+			// Too big to store
+			assertFalse(cache.put(createRequest(100), createImage(1024, 1024, BufferedImage.TYPE_INT_RGB)));
+
+			cache.removeIf(r -> r.getX() < 8);
+			assertEquals(2, cache.size());
+			cache.clear();
+			assertEquals(0, cache.size());
+			assertEquals(0, cache.getSizeBytes());
+		} finally {
+			cache.close();
+		}
+	}
+
+	@Test
+	public void testTieredCache() {
+		var heap = new ConcurrentHashMap<RegionRequest, BufferedImage>();
+		var offHeap = new OffHeapTileCache(16 * 1024 * 1024);
+		var cache = new TieredTileCache<>(heap, offHeap);
+		try {
+			var request = createRequest(1);
+			var img = createImage(64, 64, BufferedImage.TYPE_INT_RGB);
+			cache.put(request, img);
+			assertEquals(img, cache.get(request));
+
+			// Simulate eviction from the main cache
+			heap.remove(request);
+			cache.spill(request, img);
+			assertTrue(cache.containsKey(request));
+			assertEquals(1, cache.size());
+
+			// Tile should be promoted back to the heap
+			var promoted = cache.get(request);
+			assertNotNull(promoted);
+			assertPixelsEqual(img, promoted);
+			assertTrue(heap.containsKey(request));
+			assertEquals(0, offHeap.size());
+
+			assertNull(cache.get(createRequest(2)));
+
+			var stats = cache.getStatistics();
+			assertEquals(1, stats.heapHits());
+			assertEquals(1, stats.offHeapHits());
+			assertEquals(1, stats.misses());
+			assertEquals(0.5, stats.offHeapHitRate(), 1e-6);
+
+			cache.spill(createRequest(3), img);
+			cache.removeIf(r -> r.getX() == 3);
+			assertFalse(cache.containsKey(createRequest(3)));
+		} finally {
+			cache.close();
+		}
+	}
+
+	private static RegionRequest createRequest(int ind) {
+		return RegionRequest.createInstance("test", 1.0, ind, 0, 256, 256);
+	}
+
+	private static BufferedImage createImage(int width, int height, int type) {
+		var img = new BufferedImage(width, height, type);
+		var raster = img.getRaster();
+		var rng = new Random(width * 31L + height + type);
+		for (int b = 0; b < raster.getNumBands(); b++) {
+			int bound = 1 << Math.min(16, raster.getSampleModel().getSampleSize(b));
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					raster.setSample(x, y, b, rng.nextInt(bound));
+				}
+			}
+		}
+		return img;
+	}
+
+	private static void assertPixelsEqual(BufferedImage expected, BufferedImage actual) {
+		assertEquals(expected.getWidth(), actual.getWidth());
+		assertEquals(expected.getHeight(), actual.getHeight());
+		assertEquals(expected.getType(), actual.getType());
+		var r1 = expected.getRaster();
+		var r2 = actual.getRaster();
+		assertEquals(r1.getNumBands(), r2.getNumBands());
+		for (int b = 0; b < r1.getNumBands(); b++) {
+			assertArrayEquals(
+					r1.getSamples(0, 0, r1.getWidth(), r1.getHeight(), b, (int[])null),
+					r2.getSamples(0, 0, r2.getWidth(), r2.getHeight(), b, (int[])null));
+		}
+	}
+
+}
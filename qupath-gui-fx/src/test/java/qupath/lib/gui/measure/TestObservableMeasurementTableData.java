@@ -26,6 +26,8 @@ package qupath.lib.gui.measure;
 import org.junit.jupiter.api.Test;
 import qupath.lib.images.ImageData;
 import qupath.lib.images.servers.WrappedBufferedImageServer;
+import qupath.lib.measurements.MeasurementListFactory;
+import qupath.lib.measurements.MeasurementTable;
 import qupath.lib.objects.PathObject;
 import qupath.lib.objects.PathObjects;
 import qupath.lib.objects.classes.PathClass;
@@ -35,7 +37,9 @@ import qupath.lib.roi.ROIs;
 import qupath.lib.roi.interfaces.ROI;
 
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -168,4 +172,43 @@ public class TestObservableMeasurementTableData {
 		}
 	}
 
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testStringValues() {
+		ImageData<BufferedImage> imageData = new ImageData<>(
+				new WrappedBufferedImageServer("Dummy",
+						new BufferedImage(50, 50, BufferedImage.TYPE_INT_RGB)));
+		var table = new MeasurementTable();
+		List<PathObject> detections = new ArrayList<>();
+		for (int i = 0; i < 30; i++) {
+			var roi = ROIs.createRectangleROI(i, i, 1, 1, ImagePlane.getDefaultPlane());
+			var detection = i % 2 == 0 ?
+					PathObjects.createDetectionObject(roi) :
+					PathObjects.createDetectionObject(roi, null, MeasurementListFactory.createMeasurementList(table));
+			var ml = detection.getMeasurementList();
+			ml.put("Area", i * 1.23456789);
+			// Some objects are missing a measurement, and others have NaN
+			if (i % 3 == 0)
+				ml.put("Intensity", Double.NaN);
+			else if (i % 3 == 1)
+				ml.put("Intensity", 1000.0 / (i + 1));
+			detections.add(detection);
+		}
+		imageData.getHierarchy().addObjects(detections);
+
+		ObservableMeasurementTableData model = new ObservableMeasurementTableData();
+		model.setImageData(imageData, detections);
+		var names = model.getAllNames();
+		assertTrue(names.contains("Area"));
+		assertTrue(names.contains("Intensity"));
+		for (int dp : new int[]{PathTableData.DEFAULT_DECIMAL_PLACES, 0, 2}) {
+			var values = model.getStringValues(model.getItems(), names, dp);
+			for (int r = 0; r < detections.size(); r++) {
+				for (int c = 0; c < names.size(); c++) {
+					assertEquals(model.getStringValue(model.getItems().get(r), names.get(c), dp), values[r][c]);
+				}
+			}
+		}
+	}
+
 }
@@ -0,0 +1,93 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2025 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.gui.viewer.overlays;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import qupath.lib.gui.images.stores.DefaultImageRegionStore;
+import qupath.lib.gui.images.stores.ImageRegionStoreFactory;
+import qupath.lib.gui.viewer.OverlayOptions;
+import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.WrappedBufferedImageServer;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.roi.ROIs;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class TestHierarchyOverlay {
+
+	private DefaultImageRegionStore store;
+
+	@BeforeEach
+	public void setUp() {
+		store = ImageRegionStoreFactory.createImageRegionStore(64L * 1024 * 1024);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		store.close();
+	}
+
+	/**
+	 * Off the application thread (e.g. when exporting a rendered image), painting completely should wait for
+	 * detection tiles to be generated rather than returning with whatever happens to be cached.
+	 */
+	@Test
+	public void testPaintCompletelyOffApplicationThread() {
+		int size = 2048;
+		var server = new WrappedBufferedImageServer("Test", new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB));
+		var imageData = new ImageData<>(server);
+		for (int y = 0; y < size; y += 64) {
+			for (int x = 0; x < size; x += 64) {
+				imageData.getHierarchy().addObject(
+						PathObjects.createDetectionObject(ROIs.createRectangleROI(x + 8, y + 8, 48, 48, ImagePlane.getDefaultPlane())),
+						false);
+			}
+		}
+		var options = new OverlayOptions();
+		options.setFillDetections(true);
+		var overlay = new HierarchyOverlay(store, options, imageData);
+
+		// Detections are painted from tiles when downsampling, which haven't been generated yet
+		double downsample = 4;
+		var img = new BufferedImage((int)(size / downsample), (int)(size / downsample), BufferedImage.TYPE_INT_ARGB);
+		var g2d = img.createGraphics();
+		g2d.scale(1.0/downsample, 1.0/downsample);
+		overlay.paintOverlay(g2d, ImageRegion.createInstance(0, 0, size, size, 0, 0), downsample, imageData, true);
+		g2d.dispose();
+
+		// Check each detection has been painted
+		for (int y = 32; y < size; y += 64) {
+			for (int x = 32; x < size; x += 64) {
+				int alpha = img.getRGB((int)(x / downsample), (int)(y / downsample)) >>> 24;
+				assertTrue(alpha > 0, "Detection at (" + x + ", " + y + ") not painted");
+			}
+		}
+	}
+
+}